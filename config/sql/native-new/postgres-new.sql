@@ -143,6 +143,8 @@ CREATE TYPE TaskWaitingReasonType AS ENUM ('OTHER_TASKS', 'OTHER');
 CREATE TYPE ThreadStopActionType AS ENUM ('RESTART', 'RESCHEDULE', 'SUSPEND', 'CLOSE');
 
 CREATE TYPE TimeIntervalStatusType AS ENUM ('BEFORE', 'IN', 'AFTER');
+
+CREATE TYPE WorkBucketStateType AS ENUM ('READY', 'DELEGATED', 'COMPLETE');
 -- endregion
 
 -- region OID-pool table
@@ -703,66 +705,183 @@ CREATE INDEX m_ref_object_parent_org_targetOidRelationId_idx
 
 -- region org-closure
 /*
-Trigger on m_ref_object_parent_org marks this view for refresh in one m_global_metadata row.
+Closure of the org hierarchy, maintained incrementally by triggers:
+* Trigger on m_org adds/removes identity (org = org) entry for each org.
+* Trigger on m_ref_object_parent_org adds/removes only the pairs affected by changed parent-org ref
+of an org (other parent-org refs, e.g. of users, are not part of the hierarchy).
 Closure contains also identity (org = org) entries because:
-* It's easier to do optimized matrix-multiplication based refresh with them later.
 * It actually makes some query easier and requires AND instead of OR conditions.
 * While the table shows that o => o (=> means "is parent of"), this is not the semantics
 of isParent/ChildOf searches and they never return parameter OID as a result.
+Ancestor can be also OID of a non-existing org if parent-org ref is dangling.
 */
-CREATE MATERIALIZED VIEW m_org_closure AS
+CREATE TABLE m_org_closure (
+    ancestor_oid UUID NOT NULL,
+    descendant_oid UUID NOT NULL,
+
+    PRIMARY KEY (ancestor_oid, descendant_oid)
+);
+
+CREATE INDEX m_org_closure_desc_asc_idx
+    ON m_org_closure (descendant_oid, ancestor_oid);
+
+-- Closure computed from scratch, used for the full rebuild and for the consistency check.
+CREATE VIEW m_org_closure_expected AS
 WITH RECURSIVE org_h (
     ancestor_oid, -- ref.targetoid
     descendant_oid --ref.ownerOid
-    -- paths -- number of different paths, not used for materialized view version
-    -- depth -- possible later, but cycle detected must be added to the recursive term
 ) AS (
-    -- non-recursive term:
-    -- Gather all organization oids from parent-org refs and initialize identity lines (o => o).
-    -- We don't want the orgs not in org hierarchy, that would require org triggers too.
+    -- non-recursive term: identity lines (o => o) for all orgs
     SELECT o.oid, o.oid FROM m_org o
-        WHERE EXISTS(
-            SELECT 1 FROM m_ref_object_parent_org r
-                WHERE r.targetOid = o.oid OR r.ownerOid = o.oid)
     UNION
     -- recursive (iterative) term:
     -- Generate their parents (anc => desc, that is target => owner), => means "is parent of".
     SELECT par.targetoid, chi.descendant_oid -- leaving original child there generates closure
         FROM m_ref_object_parent_org as par, org_h as chi
         WHERE par.ownerOid = chi.ancestor_oid
+            AND par.ownerType = 'ORG'
 )
 SELECT * FROM org_h;
 
--- unique index is like PK if it was table
-CREATE UNIQUE INDEX m_org_closure_asc_desc_idx
-    ON m_org_closure (ancestor_oid, descendant_oid);
-CREATE INDEX m_org_closure_desc_asc_idx
-    ON m_org_closure (descendant_oid, ancestor_oid);
+-- Flags the closure for full rebuild, used when increments can't be applied.
+CREATE OR REPLACE FUNCTION m_org_closure_mark_for_refresh()
+    RETURNS void
+    LANGUAGE sql
+AS $$
+    INSERT INTO m_global_metadata VALUES ('orgClosureRefreshNeeded', 'true')
+        ON CONFLICT (name) DO UPDATE SET value = 'true';
+$$;
+
+-- Adds pairs for the new edge (parent => child): each ancestor of parent => each descendant of child.
+-- Parent can be a non-existing org without identity entry, hence the union.
+CREATE OR REPLACE FUNCTION m_org_closure_add_edge(parent UUID, child UUID)
+    RETURNS void
+    LANGUAGE sql
+AS $$
+    INSERT INTO m_org_closure (ancestor_oid, descendant_oid)
+    SELECT anc.oid, des.oid
+        FROM (SELECT ancestor_oid AS oid FROM m_org_closure WHERE descendant_oid = parent
+                UNION SELECT parent) AS anc,
+            (SELECT descendant_oid AS oid FROM m_org_closure WHERE ancestor_oid = child
+                UNION SELECT child) AS des
+    ON CONFLICT DO NOTHING;
+$$;
+
+-- Removes the edge (parent => child), called after the ref row is deleted.
+-- Pairs ancestor of parent => descendant of child may have been created via the removed edge.
+-- These are deleted and then the ones still reachable by other paths are added again.
+-- Other path to descendant D always enters the subtree of the child (including D itself)
+-- by some edge P' => C', where P' is outside of the subtree, so P' and its ancestors are the
+-- ancestors of D if C' => D. Closure entries for P' and inside the subtree are not affected.
+CREATE OR REPLACE FUNCTION m_org_closure_remove_edge(parent UUID, child UUID)
+    RETURNS void
+    LANGUAGE plpgsql
+AS $$
+DECLARE
+    descendants UUID[];
+BEGIN
+    -- The same edge can still exist with other relation.
+    IF EXISTS (SELECT 1 FROM m_ref_object_parent_org
+            WHERE ownerOid = child AND targetOid = parent AND ownerType = 'ORG') THEN
+        RETURN;
+    END IF;
+
+    -- With cycle, the subtree of the child contains the ancestors of the parent and the pairs
+    -- inside the subtree are not reliable anymore. Cycles are not expected, full rebuild is used.
+    IF EXISTS (SELECT 1 FROM m_org_closure
+            WHERE ancestor_oid = child AND descendant_oid = parent) THEN
+        PERFORM m_org_closure_mark_for_refresh();
+        RETURN;
+    END IF;
+
+    SELECT array_agg(descendant_oid) INTO descendants
+        FROM m_org_closure WHERE ancestor_oid = child;
+    descendants := array_append(coalesce(descendants, '{}'), child);
+
+    DELETE FROM m_org_closure
+        WHERE descendant_oid = ANY(descendants)
+            AND ancestor_oid IN (
+                SELECT ancestor_oid FROM m_org_closure WHERE descendant_oid = parent
+                UNION SELECT parent);
+
+    INSERT INTO m_org_closure (ancestor_oid, descendant_oid)
+    SELECT anc.oid, des.descendant_oid
+        FROM m_ref_object_parent_org r
+        JOIN m_org_closure des ON des.ancestor_oid = r.ownerOid
+        CROSS JOIN LATERAL (
+            SELECT ancestor_oid AS oid FROM m_org_closure WHERE descendant_oid = r.targetOid
+            UNION SELECT r.targetOid) AS anc
+        WHERE r.ownerOid = ANY(descendants)
+            AND r.ownerType = 'ORG'
+            AND NOT r.targetOid = ANY(descendants)
+    ON CONFLICT DO NOTHING;
+END $$;
 
--- The trigger for m_ref_object_parent_org that flags the view for refresh.
-CREATE OR REPLACE FUNCTION mark_org_closure_for_refresh()
+-- The trigger for m_ref_object_parent_org that applies the changes of org-owned refs to the closure.
+CREATE OR REPLACE FUNCTION m_org_closure_edge_tr()
     RETURNS trigger
     LANGUAGE plpgsql
 AS $$
 BEGIN
-    IF TG_OP = 'TRUNCATE' OR OLD.ownerType = 'ORG' OR NEW.ownerType = 'ORG' THEN
-        INSERT INTO m_global_metadata VALUES ('orgClosureRefreshNeeded', 'true')
-            ON CONFLICT (name) DO UPDATE SET value = 'true';
+    IF TG_OP = 'TRUNCATE' THEN
+        PERFORM m_org_closure_mark_for_refresh();
+        RETURN NULL;
+    END IF;
+
+    IF OLD.ownerType = 'ORG' OR NEW.ownerType = 'ORG' THEN
+        -- Changes of the hierarchy are serialized with transaction lock, otherwise concurrent
+        -- transactions would not see the pairs added by each other. Refresh uses the same lock.
+        PERFORM pg_advisory_xact_lock(47);
+
+        IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.ownerType = 'ORG' THEN
+            PERFORM m_org_closure_remove_edge(OLD.targetOid, OLD.ownerOid);
+        END IF;
+        IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.ownerType = 'ORG' THEN
+            PERFORM m_org_closure_add_edge(NEW.targetOid, NEW.ownerOid);
+        END IF;
     END IF;
 
     -- after trigger returns null
     RETURN NULL;
 END $$;
 
-CREATE TRIGGER m_ref_object_parent_mark_refresh_tr
+CREATE TRIGGER m_ref_object_parent_org_closure_tr
     AFTER INSERT OR UPDATE OR DELETE ON m_ref_object_parent_org
-    FOR EACH ROW EXECUTE FUNCTION mark_org_closure_for_refresh();
-CREATE TRIGGER m_ref_object_parent_mark_refresh_trunc_tr
+    FOR EACH ROW EXECUTE FUNCTION m_org_closure_edge_tr();
+CREATE TRIGGER m_ref_object_parent_org_closure_trunc_tr
     AFTER TRUNCATE ON m_ref_object_parent_org
-    FOR EACH STATEMENT EXECUTE FUNCTION mark_org_closure_for_refresh();
+    FOR EACH STATEMENT EXECUTE FUNCTION m_org_closure_edge_tr();
 
--- This procedure for conditional refresh when needed is called from the application code.
--- The refresh can be forced, e.g. after many changes with triggers off (or just to be sure).
+-- The trigger for m_org maintaining identity entries of the closure.
+CREATE OR REPLACE FUNCTION m_org_closure_identity_tr()
+    RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO m_org_closure VALUES (NEW.oid, NEW.oid)
+            ON CONFLICT DO NOTHING;
+    ELSIF TG_OP = 'DELETE' THEN
+        DELETE FROM m_org_closure
+            WHERE ancestor_oid = OLD.oid AND descendant_oid = OLD.oid;
+    ELSE
+        PERFORM m_org_closure_mark_for_refresh();
+    END IF;
+
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER m_org_closure_identity_tr
+    AFTER INSERT OR DELETE ON m_org
+    FOR EACH ROW EXECUTE FUNCTION m_org_closure_identity_tr();
+CREATE TRIGGER m_org_closure_identity_trunc_tr
+    AFTER TRUNCATE ON m_org
+    FOR EACH STATEMENT EXECUTE FUNCTION m_org_closure_identity_tr();
+
+-- This procedure is called from the application code before using the closure.
+-- Closure is maintained incrementally, full rebuild is executed only if flagged (after TRUNCATE
+-- or when cycle in the hierarchy is found) or if forced, e.g. after many changes with triggers off
+-- or to repair inconsistent closure.
 CREATE OR REPLACE PROCEDURE m_refresh_org_closure(force boolean = false)
     LANGUAGE plpgsql
 AS $$
@@ -778,7 +897,8 @@ BEGIN
         BEGIN
             SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
             IF flag_val = 'true' OR force THEN
-                REFRESH MATERIALIZED VIEW m_org_closure;
+                DELETE FROM m_org_closure;
+                INSERT INTO m_org_closure SELECT * FROM m_org_closure_expected;
                 DELETE FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
             END IF;
             PERFORM pg_advisory_unlock(47);
@@ -1226,6 +1346,23 @@ CREATE INDEX m_task_ext_idx ON m_task USING gin(ext);
 CREATE INDEX m_task_fullTextInfo_idx ON m_task USING gin (fullTextInfo gin_trgm_ops);
 CREATE INDEX m_task_createTimestamp_idx ON m_task (createTimestamp);
 CREATE INDEX m_task_modifyTimestamp_idx ON m_task (modifyTimestamp);
+
+-- Work buckets of distributed activities, used when the activity has bucketStore = repository.
+-- Workers claim buckets with SELECT ... FOR UPDATE SKIP LOCKED, so they don't conflict on the coordinator task.
+CREATE TABLE m_work_bucket (
+    coordinatorOid UUID NOT NULL REFERENCES m_task(oid) ON DELETE CASCADE,
+    activityPath TEXT NOT NULL, -- activity identifiers separated by '/', empty for the root
+    sequentialNumber INTEGER NOT NULL,
+    state WorkBucketStateType NOT NULL,
+    workerOid UUID,
+    content TEXT, -- serialized WorkBucketType
+
+    PRIMARY KEY (coordinatorOid, activityPath, sequentialNumber)
+);
+
+CREATE INDEX m_work_bucket_ready_idx ON m_work_bucket (coordinatorOid, activityPath, sequentialNumber)
+    WHERE state = 'READY';
+CREATE INDEX m_work_bucket_workerOid_idx ON m_work_bucket (workerOid);
 -- endregion
 
 -- region cases
@@ -1842,4 +1979,4 @@ END $$;
 -- endregion
 
 -- Initializing the last change number used in postgres-new-upgrade.sql.
-call apply_change(0, $$ SELECT 1 $$, true);
+call apply_change(2, $$ SELECT 1 $$, true);
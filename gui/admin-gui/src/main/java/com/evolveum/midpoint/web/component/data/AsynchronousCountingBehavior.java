@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.web.component.data;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.DataTable;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+
+/**
+ * Counts the objects of a table in a separate AJAX request issued after the table is rendered,
+ * if its data provider counts asynchronously (see {@link BaseSortableDataProvider#isAsynchronousCounting()}).
+ * The component this behavior is attached to (containing the count label and the paging) is refreshed afterwards.
+ */
+class AsynchronousCountingBehavior extends AbstractDefaultAjaxBehavior {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DataTable<?, ?> table;
+
+    AsynchronousCountingBehavior(DataTable<?, ?> table) {
+        this.table = table;
+    }
+
+    @Override
+    public void renderHead(Component component, IHeaderResponse response) {
+        super.renderHead(component, response);
+        BaseSortableDataProvider<?> provider = getProvider();
+        if (provider != null && provider.isAsynchronousCountingPending()) {
+            response.render(OnDomReadyHeaderItem.forScript(getCallbackScript()));
+        }
+    }
+
+    @Override
+    protected void respond(AjaxRequestTarget target) {
+        BaseSortableDataProvider<?> provider = getProvider();
+        if (provider != null && provider.isAsynchronousCountingPending()) {
+            provider.countAsynchronously();
+        }
+        target.add(getComponent());
+    }
+
+    private BaseSortableDataProvider<?> getProvider() {
+        if (table.getDataProvider() instanceof BaseSortableDataProvider) {
+            return (BaseSortableDataProvider<?>) table.getDataProvider();
+        } else {
+            return null;
+        }
+    }
+}
@@ -51,6 +51,11 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
     private static final String DOT_CLASS = BaseSortableDataProvider.class.getName() + ".";
     private static final String OPERATION_GET_EXPORT_SIZE_LIMIT = DOT_CLASS + "getDefaultExportSizeLimit";
 
+    /**
+     * After this amount of time cached size will be removed from cache and replaced by new value.
+     */
+    private static final long CACHED_SIZE_VALIDITY = 60_000;
+
     private final Component component;
     private final Map<Serializable, CachedSize> cache = new HashMap<>();
     private final boolean useCache;
@@ -61,6 +66,12 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
     private boolean exportSize = false;
     private long exportLimit = -1;
 
+    /**
+     * Size counted asynchronously when the cache is not used. It is kept only until the provider is detached,
+     * i.e. for the rest of the request that counted it; the next request counts the objects again.
+     */
+    private Long asynchronousSize;
+
     public BaseSortableDataProvider(Component component) {
         this(component, false, true);
     }
@@ -266,28 +277,25 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
     @Override
     public long size() {
         LOGGER.trace("begin::size()");
+        if (isAsynchronousCounting() && !exportSize) {
+            Long countedSize = getAsynchronouslyCountedSize();
+            if (countedSize == null) {
+                LOGGER.trace("end::size(): not counted yet");
+                return Integer.MAX_VALUE;
+            }
+            LOGGER.trace("end::size(): {} (counted asynchronously)", countedSize);
+            return countedSize;
+        }
         if (!useCache) {
             int internalSize = internalSize();
             return exportSize && exportLimit >= 0 && exportLimit < internalSize ? exportLimit : internalSize;
         }
 
         long size;
-        CachedSize cachedSize = getCachedSize(cache);
+        CachedSize cachedSize = getValidCachedSize();
         if (cachedSize != null) {
-            long timestamp = cachedSize.getTimestamp();
-            /*
-              After this amount of time cached size will be removed from cache and replaced by new value
-              (time in seconds).
-             */
-            int cacheCleanupThreshold = 60;
-            if (System.currentTimeMillis() - timestamp > cacheCleanupThreshold * 1000) {
-                //recreate
-                size = internalSize();
-                addCachedSize(cache, new CachedSize(size, System.currentTimeMillis()));
-            } else {
-                LOGGER.trace("Size returning from cache.");
-                size = cachedSize.getSize();
-            }
+            LOGGER.trace("Size returning from cache.");
+            size = cachedSize.getSize();
         } else {
             //recreate
             size = internalSize();
@@ -300,6 +308,83 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
 
     protected abstract int internalSize();
 
+    private CachedSize getValidCachedSize() {
+        CachedSize cachedSize = getCachedSize(cache);
+        if (cachedSize != null && System.currentTimeMillis() - cachedSize.getTimestamp() <= CACHED_SIZE_VALIDITY) {
+            return cachedSize;
+        } else {
+            return null;
+        }
+    }
+
+    private Long getAsynchronouslyCountedSize() {
+        if (useCache) {
+            CachedSize cachedSize = getValidCachedSize();
+            return cachedSize != null ? cachedSize.getSize() : null;
+        } else {
+            return asynchronousSize;
+        }
+    }
+
+    /**
+     * If true, {@link #size()} does not count the objects. It returns the unknown size (see {@link CountToolbar})
+     * until the objects are counted by {@link #countAsynchronously()}, which is invoked by the table in a separate
+     * request after the rows are rendered. This makes the rows available sooner when counting is expensive.
+     */
+    public boolean isAsynchronousCounting() {
+        return false;
+    }
+
+    /**
+     * Returns true if the size is to be counted asynchronously and it was not counted yet for the current query.
+     */
+    public boolean isAsynchronousCountingPending() {
+        return isAsynchronousCounting() && !exportSize && getAsynchronouslyCountedSize() == null;
+    }
+
+    /**
+     * Counts the objects for the current query and remembers the result: in the cache, if it is used,
+     * or until the provider is detached otherwise. See {@link #isAsynchronousCounting()}.
+     */
+    public void countAsynchronously() {
+        LOGGER.trace("begin::countAsynchronously()");
+        long size = internalSize();
+        if (useCache) {
+            addCachedSize(cache, new CachedSize(size, System.currentTimeMillis()));
+        } else {
+            asynchronousSize = size;
+        }
+        LOGGER.trace("end::countAsynchronously(): {}", size);
+    }
+
+    @Override
+    public void detach() {
+        super.detach();
+        asynchronousSize = null;
+    }
+
+    /**
+     * Objects are counted exactly only up to this number. If there are more of them, the count is an estimate.
+     * See {@link GetOperationOptions#getCountThreshold()}. Null means the objects are always counted exactly.
+     */
+    public Integer getCountThreshold() {
+        return null;
+    }
+
+    /**
+     * Returns options to be used for counting: adds the count threshold, if there is any.
+     */
+    protected Collection<SelectorOptions<GetOperationOptions>> addCountThresholdOption(
+            Collection<SelectorOptions<GetOperationOptions>> options) {
+        Integer countThreshold = getCountThreshold();
+        if (countThreshold == null || exportSize) {
+            return options;
+        }
+        return getOperationOptionsBuilder(options)
+                .countThreshold(countThreshold)
+                .build();
+    }
+
     protected CachedSize getCachedSize(Map<Serializable, CachedSize> cache) {
         return cache.get(query);
     }
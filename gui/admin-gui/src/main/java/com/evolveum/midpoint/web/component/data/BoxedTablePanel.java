@@ -304,6 +304,10 @@ public class BoxedTablePanel<T> extends BasePanel<T> implements Table {
 
                 @Override
                 protected boolean isCountingDisabled(){
+                    if (dataTable.getDataProvider() instanceof BaseSortableDataProvider
+                            && ((BaseSortableDataProvider) dataTable.getDataProvider()).isAsynchronousCountingPending()) {
+                        return true;
+                    }
                     if (dataTable.getDataProvider() instanceof SelectableBeanContainerDataProvider){
                         return !((SelectableBeanContainerDataProvider)dataTable.getDataProvider()).isUseObjectCounting();
                     }
@@ -311,6 +315,7 @@ public class BoxedTablePanel<T> extends BasePanel<T> implements Table {
                 }
             };
             footerContainer.add(nb2);
+            footerContainer.add(new AsynchronousCountingBehavior(dataTable));
 
             TableConfigurationPanel menu = new TableConfigurationPanel(ID_MENU) {
 
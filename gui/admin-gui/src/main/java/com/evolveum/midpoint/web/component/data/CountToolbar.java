@@ -83,6 +83,7 @@ public class CountToolbar extends AbstractToolbar {
         long from = 0;
         long to = 0;
         long count = 0;
+        Integer countThreshold = null;
 
         if (pageable instanceof DataViewBase) {
             DataViewBase view = (DataViewBase) pageable;
@@ -96,6 +97,9 @@ public class CountToolbar extends AbstractToolbar {
             count = itemCount;
         } else if (pageable instanceof DataTable) {
             DataTable table = (DataTable) pageable;
+            if (table.getDataProvider() instanceof BaseSortableDataProvider) {
+                countThreshold = ((BaseSortableDataProvider<?>) table.getDataProvider()).getCountThreshold();
+            }
 
             from = table.getCurrentPage() * table.getItemsPerPage() + 1;
             to = from + table.getItemsPerPage() - 1;
@@ -112,6 +116,17 @@ public class CountToolbar extends AbstractToolbar {
                         new Object[] { from, to }).getString();
             }
 
+            if (countThreshold != null && count > countThreshold) {
+                // The count is not exact: either it's an estimate, or it only says there are more than threshold objects.
+                if (count == countThreshold + 1L) {
+                    return PageBase.createStringResourceStatic(component, "CountToolbar.label.moreThan",
+                            new Object[] { from, to, countThreshold }).getString();
+                } else {
+                    return PageBase.createStringResourceStatic(component, "CountToolbar.label.approximateCount",
+                            new Object[] { from, to, count }).getString();
+                }
+            }
+
             return PageBase.createStringResourceStatic(component, "CountToolbar.label", new Object[]{from, to, count}).getString();
         }
 
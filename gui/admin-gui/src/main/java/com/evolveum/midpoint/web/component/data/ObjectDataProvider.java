@@ -16,6 +16,7 @@ import org.apache.wicket.Component;
 import org.apache.wicket.RestartResponseException;
 
 import com.evolveum.midpoint.gui.api.util.WebComponentUtil;
+import com.evolveum.midpoint.model.api.authentication.CompiledObjectCollectionView;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
@@ -160,7 +161,7 @@ public class ObjectDataProvider<W extends Serializable, O extends ObjectType>
         OperationResult result = new OperationResult(OPERATION_COUNT_OBJECTS);
         try {
             Task task = getPageBase().createSimpleTask(OPERATION_COUNT_OBJECTS);
-            count = getModel().countObjects(getType(), getQuery(), getOptionsToUse(), task, result);
+            count = getModel().countObjects(getType(), getQuery(), addCountThresholdOption(getOptionsToUse()), task, result);
         } catch (Exception ex) {
             result.recordFatalError(getPageBase().createStringResource("ObjectDataProvider.message.countObjects.fatalError").getString(), ex);
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't count objects", ex);
@@ -177,6 +178,12 @@ public class ObjectDataProvider<W extends Serializable, O extends ObjectType>
         return count;
     }
 
+    @Override
+    public Integer getCountThreshold() {
+        CompiledObjectCollectionView guiObjectListViewType = getCompiledObjectCollectionView();
+        return guiObjectListViewType != null ? guiObjectListViewType.getCountThreshold() : null;
+    }
+
     @Override
     protected CachedSize getCachedSize(Map<Serializable, CachedSize> cache) {
         return cache.get(new TypedCacheKey(getQuery(), getType()));
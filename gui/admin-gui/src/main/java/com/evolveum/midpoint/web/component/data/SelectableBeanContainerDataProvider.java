@@ -237,7 +237,8 @@ public class SelectableBeanContainerDataProvider<C extends Containerable> extend
         Task task = getPageBase().createSimpleTask(OPERATION_COUNT_OBJECTS);
         OperationResult result = task.getResult();
         try {
-            Collection<SelectorOptions<GetOperationOptions>> currentOptions = GetOperationOptions.merge(getPrismContext(), options, getDistinctRelatedOptions());
+            Collection<SelectorOptions<GetOperationOptions>> currentOptions = addCountThresholdOption(
+                    GetOperationOptions.merge(getPrismContext(), options, getDistinctRelatedOptions()));
             Integer counted = countObjects(getType(), getQuery(), currentOptions, task, result);
             count = defaultIfNull(counted, defaultCountIfNull);
         } catch (Exception ex) {
@@ -288,6 +289,19 @@ public class SelectableBeanContainerDataProvider<C extends Containerable> extend
         return true;
     }
 
+    @Override
+    public Integer getCountThreshold() {
+        CompiledObjectCollectionView guiObjectListViewType = getCompiledObjectCollectionView();
+        return guiObjectListViewType != null ? guiObjectListViewType.getCountThreshold() : null;
+    }
+
+    @Override
+    public boolean isAsynchronousCounting() {
+        CompiledObjectCollectionView guiObjectListViewType = getCompiledObjectCollectionView();
+        return isUseObjectCounting() && guiObjectListViewType != null
+                && Boolean.TRUE.equals(guiObjectListViewType.isAsynchronousCounting());
+    }
+
     public Collection<SelectorOptions<GetOperationOptions>> getOptions() {
         return options;
     }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.web.security;
+
+import org.apache.wicket.request.cycle.IRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+
+import com.evolveum.midpoint.security.enforcer.api.SecurityEnforcer;
+
+/**
+ * Delimits the scope of authorization decision caching by a single request. Pages and panels ask for the same
+ * authorizations (menu items, buttons, columns) many times while the request is being processed.
+ */
+public class AuthorizationCacheRequestCycleListener implements IRequestCycleListener {
+
+    private final SecurityEnforcer securityEnforcer;
+
+    public AuthorizationCacheRequestCycleListener(SecurityEnforcer securityEnforcer) {
+        this.securityEnforcer = securityEnforcer;
+    }
+
+    @Override
+    public void onBeginRequest(RequestCycle cycle) {
+        securityEnforcer.enterAuthorizationDecisionCacheScope();
+    }
+
+    @Override
+    public void onDetach(RequestCycle cycle) {
+        securityEnforcer.exitAuthorizationDecisionCacheScope();
+    }
+}
@@ -209,6 +209,16 @@ public class GetOperationOptions extends AbstractOptions implements Serializable
      */
     private FetchErrorHandlingType errorHandling;
 
+    /**
+     * Applies to count operations: objects are counted exactly only up to this number.
+     * If there are more of them, an estimate greater than the threshold is returned instead.
+     * For queries without a filter the estimate may come from the database statistics;
+     * otherwise, it is simply the threshold + 1, meaning "more than threshold".
+     * Not all providers support this option; the others return the exact count.
+     */
+    @Experimental
+    private Integer countThreshold;
+
     /*
      *  !!! After adding option here don't forget to update equals, clone, merge, etc. !!!
      */
@@ -948,6 +958,32 @@ public class GetOperationOptions extends AbstractOptions implements Serializable
         return errorHandling != null ? errorHandling.getReportingMethod() : null;
     }
 
+    public Integer getCountThreshold() {
+        return countThreshold;
+    }
+
+    public void setCountThreshold(Integer countThreshold) {
+        this.countThreshold = countThreshold;
+    }
+
+    public GetOperationOptions countThreshold(Integer countThreshold) {
+        this.countThreshold = countThreshold;
+        return this;
+    }
+
+    public static Integer getCountThreshold(GetOperationOptions options) {
+        return options != null ? options.countThreshold : null;
+    }
+
+    /**
+     * Objects are counted exactly only up to the specified number; an estimate is returned if there are more.
+     */
+    public static GetOperationOptions createCountThreshold(Integer value) {
+        GetOperationOptions opts = new GetOperationOptions();
+        opts.setCountThreshold(value);
+        return opts;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -976,6 +1012,7 @@ public class GetOperationOptions extends AbstractOptions implements Serializable
                 Objects.equals(definitionProcessing, that.definitionProcessing) &&
                 Objects.equals(iterationMethod, that.iterationMethod) &&
                 Objects.equals(executionPhase, that.executionPhase) &&
+                Objects.equals(countThreshold, that.countThreshold) &&
                 Containerable.equivalent(errorHandling, that.errorHandling);
     }
 
@@ -983,7 +1020,8 @@ public class GetOperationOptions extends AbstractOptions implements Serializable
     public int hashCode() {
         return Objects
                 .hash(retrieve, resolve, resolveNames, noFetch, raw, tolerateRawData, doNotDiscovery,
-                        allowNotFound, readOnly, staleness, distinct, definitionProcessing, attachDiagData, executionPhase);
+                        allowNotFound, readOnly, staleness, distinct, definitionProcessing, attachDiagData, executionPhase,
+                        countThreshold);
     }
 
     public GetOperationOptions clone() {
@@ -1009,6 +1047,7 @@ public class GetOperationOptions extends AbstractOptions implements Serializable
         clone.definitionProcessing = this.definitionProcessing;
         clone.iterationMethod = this.iterationMethod;
         clone.executionPhase = this.executionPhase;
+        clone.countThreshold = this.countThreshold;
         if (this.errorHandling != null) {
             clone.errorHandling = this.errorHandling.clone();
         }
@@ -1045,6 +1084,7 @@ public class GetOperationOptions extends AbstractOptions implements Serializable
         appendVal(sb, "iterationMethod", iterationMethod);
         appendFlag(sb, "executionPhase", executionPhase);
         appendVal(sb, "errorHandling", prettyPrint(errorHandling));
+        appendVal(sb, "countThreshold", countThreshold);
         removeLastComma(sb);
     }
 
@@ -1218,6 +1258,9 @@ public class GetOperationOptions extends AbstractOptions implements Serializable
         if (increment.errorHandling != null) {
             this.errorHandling = increment.errorHandling.clone();
         }
+        if (increment.countThreshold != null) {
+            this.countThreshold = increment.countThreshold;
+        }
     }
 
     /**
@@ -63,6 +63,7 @@ public interface GetOperationOptionsBuilder {
     GetOperationOptionsBuilder attachDiagData(Boolean value);
     GetOperationOptionsBuilder definitionProcessing(DefinitionProcessingOption value);
     GetOperationOptionsBuilder iterationMethod(IterationMethodType value);
+    GetOperationOptionsBuilder countThreshold(Integer value);
     GetOperationOptionsBuilder executionPhase();
     GetOperationOptionsBuilder executionPhase(Boolean value);
     GetOperationOptionsBuilder errorHandling(FetchErrorHandlingType errorHandling);
@@ -241,6 +241,11 @@ public class GetOperationOptionsBuilderImpl
         return forPaths(opts -> opts.setIterationMethod(value));
     }
 
+    @Override
+    public GetOperationOptionsBuilder countThreshold(Integer value) {
+        return forPaths(opts -> opts.setCountThreshold(value));
+    }
+
     @Override
     public GetOperationOptionsBuilder executionPhase() {
         return executionPhase(true);
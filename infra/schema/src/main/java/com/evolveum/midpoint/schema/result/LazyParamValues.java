@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.schema.result;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.prism.Freezable;
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+
+/**
+ * Values of a parameter (or context item) of {@link OperationResult} that are converted to strings
+ * only when they are really needed, i.e. when the result is serialized, traced, logged or otherwise inspected.
+ *
+ * Most of the results are cleaned up or thrown away without anyone looking at their parameters,
+ * so stringifying queries, deltas or objects upfront is usually a waste.
+ *
+ * The value is rendered at most once, using its state at the time of the rendering. Therefore only values
+ * that cannot change in the meantime (immutable ones) are rendered lazily, see {@link #of(Object)}.
+ * The list is read-only and it is serialized as an ordinary list of strings.
+ */
+class LazyParamValues extends AbstractList<String> implements Serializable {
+
+    private Supplier<?> supplier;
+    private List<String> values;
+
+    LazyParamValues(@NotNull Supplier<?> supplier) {
+        this.supplier = supplier;
+    }
+
+    /**
+     * Values for given object. Immutable objects are rendered lazily. Mutable ones are rendered immediately,
+     * as they could be modified (e.g. a delta being applied) before the result is looked at.
+     */
+    static @NotNull List<String> of(@NotNull Object value) {
+        if (isImmutable(value)) {
+            return new LazyParamValues(() -> value);
+        } else {
+            return render(value);
+        }
+    }
+
+    /**
+     * Values for given collection. The collection itself is copied, so later changes to it are not visible.
+     * The members are rendered lazily only if all of them are immutable.
+     */
+    static @NotNull List<String> ofCollection(@NotNull Collection<?> collection) {
+        List<?> copy = new ArrayList<>(collection);
+        if (copy.stream().allMatch(member -> member == null || isImmutable(member))) {
+            return new LazyParamValues(() -> copy);
+        } else {
+            return render(copy);
+        }
+    }
+
+    private static boolean isImmutable(@NotNull Object value) {
+        if (value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Enum<?>
+                || value instanceof QName || value instanceof PolyString || value instanceof Class<?>) {
+            return true;
+        } else if (value instanceof Objectable) {
+            return ((Objectable) value).asPrismObject().isImmutable();
+        } else if (value instanceof Freezable) {
+            return ((Freezable) value).isImmutable();
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String get(int index) {
+        return rendered().get(index);
+    }
+
+    @Override
+    public int size() {
+        return rendered().size();
+    }
+
+    private synchronized List<String> rendered() {
+        if (values == null) {
+            values = render();
+            supplier = null;
+        }
+        return values;
+    }
+
+    private List<String> render() {
+        return render(supplier.get());
+    }
+
+    private static List<String> render(Object value) {
+        try {
+            if (value instanceof Collection<?>) {
+                List<String> rv = new ArrayList<>(((Collection<?>) value).size());
+                for (Object member : (Collection<?>) value) {
+                    rv.add(member != null ? member.toString() : null);
+                }
+                return rv;
+            } else {
+                return Collections.singletonList(value != null ? value.toString() : null);
+            }
+        } catch (RuntimeException e) {
+            // e.g. concurrent modification of the value; this is only diagnostic information, so we must not fail here
+            return Collections.singletonList("(couldn't render the value: " + e + ")");
+        }
+    }
+
+    private Object writeReplace() {
+        return new ArrayList<>(rendered());
+    }
+}
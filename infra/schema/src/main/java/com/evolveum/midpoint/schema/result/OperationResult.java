@@ -12,6 +12,7 @@ import static org.apache.commons.collections4.CollectionUtils.emptyIfNull;
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
 
 import static com.evolveum.midpoint.prism.util.CloneUtil.cloneCloneable;
+import static com.evolveum.midpoint.util.DebugUtil.lazy;
 import static com.evolveum.midpoint.util.MiscUtil.or0;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultImportanceType.*;
 
@@ -20,6 +21,7 @@ import java.util.*;
 import java.util.Objects;
 import java.util.Map.Entry;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.xml.namespace.QName;
@@ -85,6 +87,9 @@ public class OperationResult
      */
     private static final int DEFAULT_SUBRESULT_STRIP_THRESHOLD = 10;
 
+    /** Initial capacity of the subresults list in the minimal mode. Most results have only a few subresults. */
+    private static final int MINIMAL_MODE_SUBRESULTS_CAPACITY = 2;
+
     @NotNull private static final OperationResultHandlingStrategyType DEFAULT_HANDLING_STRATEGY = new OperationResultHandlingStrategyType();
     @NotNull private volatile static List<OperationResultHandlingStrategyType> handlingStrategies = emptyList();
     @NotNull private static OperationResultHandlingStrategyType globalHandlingStrategy = DEFAULT_HANDLING_STRATEGY;
@@ -134,6 +139,13 @@ public class OperationResult
     private int count = 1;
     private int hiddenRecordsCount;
     private List<OperationResult> subresults;
+
+    /**
+     * Number of successful subresults that were dropped in the minimal mode (see {@link #isMinimalMode()}).
+     * They are still taken into account when computing the status. NOT SERIALIZED.
+     */
+    private int droppedSubresultsCount;
+
     private List<String> details;
     private boolean summarizeErrors;
     private boolean summarizePartialErrors;
@@ -347,10 +359,18 @@ public class OperationResult
         }
     }
 
+    /**
+     * Arguments are rendered only if the invocation record really needs them, so that lazy parameters
+     * (and large values in general) are not converted to strings unnecessarily.
+     */
     private Object[] createArguments() {
-        List<String> arguments = new ArrayList<>();
-        getParams().forEach((key, value) -> arguments.add(key + " => " + value));       // todo what with large values?
-        getContext().forEach((key, value) -> arguments.add("c:" + key + " => " + value));
+        List<Object> arguments = new ArrayList<>();
+        if (params != null) {
+            params.forEach((key, value) -> arguments.add(lazy(() -> key + " => " + value)));
+        }
+        if (context != null) {
+            context.forEach((key, value) -> arguments.add(lazy(() -> "c:" + key + " => " + value)));
+        }
         return arguments.toArray();
     }
 
@@ -377,7 +397,7 @@ public class OperationResult
         if (invocationRecord != null) {
             // This is not quite clean. We should report the exception via processException method - but that does not allow
             // showing return values that can be present in operation result. So this is a hack until InvocationRecord is fixed.
-            invocationRecord.processReturnValue(getReturns(), cause);
+            invocationRecord.processReturnValue(returns != null ? returns : Collections.emptyMap(), cause);
             invocationRecord.afterCall();
             microseconds = invocationRecord.getElapsedTimeMicros();
             cpuMicroseconds = invocationRecord.getCpuTimeMicros();
@@ -525,11 +545,15 @@ public class OperationResult
     @NotNull
     public List<OperationResult> getSubresults() {
         if (subresults == null) {
-            subresults = new ArrayList<>();
+            subresults = isMinimalMode() ? new ArrayList<>(MINIMAL_MODE_SUBRESULTS_CAPACITY) : new ArrayList<>();
         }
         return subresults;
     }
 
+    private boolean hasSubresults() {
+        return subresults != null && !subresults.isEmpty();
+    }
+
     /**
      * @return last subresult, or null if there are no subresults.
      */
@@ -556,6 +580,9 @@ public class OperationResult
     }
 
     public void addSubresult(OperationResult subresult) {
+        if (hasSubresults() && isMinimalMode()) {
+            dropIfSuccessfulLeaf(subresults.size() - 1);
+        }
         getSubresults().add(subresult);
         if (subresult.tracingProfile == null) {
             subresult.tracingProfile = tracingProfile;
@@ -746,7 +773,8 @@ public class OperationResult
         if (!skipFinish) {
             recordEnd();
         }
-        if (getSubresults().isEmpty()) {
+        dropSuccessfulLeavesIfMinimal();
+        if (!hasSubresults()) {
             if (status == OperationResultStatus.UNKNOWN) {
                 status = OperationResultStatus.SUCCESS;
             }
@@ -757,7 +785,7 @@ public class OperationResult
         }
         OperationResultStatus newStatus = OperationResultStatus.UNKNOWN;
         boolean allSuccess = true;
-        boolean allNotApplicable = true;
+        boolean allNotApplicable = droppedSubresultsCount == 0;
         String newMessage = null;
         LocalizableMessage newUserFriendlyMessage = null;
         for (OperationResult sub : getSubresults()) {
@@ -816,9 +844,9 @@ public class OperationResult
             }
         }
 
-        if (allNotApplicable && !getSubresults().isEmpty()) {
+        if (allNotApplicable) {
             status = OperationResultStatus.NOT_APPLICABLE;
-        } else if (allSuccess && !getSubresults().isEmpty()) {
+        } else if (allSuccess) {
             status = OperationResultStatus.SUCCESS;
         } else {
             status = newStatus;
@@ -879,15 +907,16 @@ public class OperationResult
      */
     public void computeStatusComposite() {
         recordEnd();
-        if (getSubresults().isEmpty()) {
+        dropSuccessfulLeavesIfMinimal();
+        if (!hasSubresults()) {
             if (status == OperationResultStatus.UNKNOWN) {
-                status = OperationResultStatus.NOT_APPLICABLE;
+                status = droppedSubresultsCount > 0 ? OperationResultStatus.SUCCESS : OperationResultStatus.NOT_APPLICABLE;
             }
             return;
         }
 
-        boolean allFatalError = true;
-        boolean allNotApplicable = true;
+        boolean allFatalError = droppedSubresultsCount == 0;
+        boolean allNotApplicable = droppedSubresultsCount == 0;
         boolean hasInProgress = false;
         boolean hasHandledError = false;
         boolean hasError = false;
@@ -1193,13 +1222,13 @@ public class OperationResult
 
     @Override
     public OperationResult addParam(String name, PrismObject<? extends ObjectType> value) {
-        getParams().put(name, collectionize(stringify(value)));
+        getParams().put(name, lazyValue(value));
         return this;
     }
 
     @Override
     public OperationResult addParam(String name, ObjectType value) {
-        getParams().put(name, collectionize(stringify(value)));
+        getParams().put(name, lazyValue(value));
         return this;
     }
 
@@ -1246,13 +1275,13 @@ public class OperationResult
 
     @Override
     public OperationResult addParam(String name, ObjectQuery value) {
-        getParams().put(name, collectionize(stringify(value)));
+        getParams().put(name, lazyValue(value));
         return this;
     }
 
     @Override
     public OperationResult addParam(String name, ObjectDelta<?> value) {
-        getParams().put(name, collectionize(stringify(value)));
+        getParams().put(name, lazyValue(value));
         return this;
     }
 
@@ -1264,13 +1293,27 @@ public class OperationResult
 
     @Override
     public OperationResult addArbitraryObjectAsParam(String paramName, Object paramValue) {
-        getParams().put(paramName, collectionize(stringify(paramValue)));
+        getParams().put(paramName, lazyValue(paramValue));
         return this;
     }
 
     @Override
     public OperationResult addArbitraryObjectCollectionAsParam(String name, Collection<?> value) {
-        getParams().put(name, stringifyCol(value));
+        getParams().put(name, lazyCollection(value));
+        return this;
+    }
+
+    /**
+     * Adds a parameter whose value is computed (and converted to string) only when the parameter is needed,
+     * e.g. when the result is serialized, traced or logged. If the supplier returns a collection, its members
+     * become the parameter values.
+     *
+     * The supplier can be called at any later time, even after the operation finished. So it must not depend on
+     * data that can change in the meantime: it should use immutable values or a snapshot taken by the caller.
+     */
+    @Override
+    public OperationResult addLazyParam(String name, Supplier<?> valueSupplier) {
+        getParams().put(name, new LazyParamValues(valueSupplier));
         return this;
     }
 
@@ -1293,13 +1336,13 @@ public class OperationResult
 
     @Override
     public OperationResult addContext(String name, PrismObject<? extends ObjectType> value) {
-        getContext().put(name, collectionize(stringify(value)));
+        getContext().put(name, lazyValue(value));
         return this;
     }
 
     @Override
     public OperationResult addContext(String name, ObjectType value) {
-        getContext().put(name, collectionize(stringify(value)));
+        getContext().put(name, lazyValue(value));
         return this;
     }
 
@@ -1346,13 +1389,13 @@ public class OperationResult
 
     @Override
     public OperationResult addContext(String name, ObjectQuery value) {
-        getContext().put(name, collectionize(stringify(value)));
+        getContext().put(name, lazyValue(value));
         return this;
     }
 
     @Override
     public OperationResult addContext(String name, ObjectDelta<?> value) {
-        getContext().put(name, collectionize(stringify(value)));
+        getContext().put(name, lazyValue(value));
         return this;
     }
 
@@ -1364,13 +1407,20 @@ public class OperationResult
 
     @Override
     public OperationResult addArbitraryObjectAsContext(String name, Object value) {
-        getContext().put(name, collectionize(stringify(value)));
+        getContext().put(name, lazyValue(value));
         return this;
     }
 
     @Override
     public OperationResult addArbitraryObjectCollectionAsContext(String paramName, Collection<?> paramValue) {
-        getContext().put(paramName, stringifyCol(paramValue));
+        getContext().put(paramName, lazyCollection(paramValue));
+        return this;
+    }
+
+    /** Lazy variant of context item, see {@link #addLazyParam(String, Supplier)}. */
+    @Override
+    public OperationResult addLazyContext(String name, Supplier<?> valueSupplier) {
+        getContext().put(name, new LazyParamValues(valueSupplier));
         return this;
     }
 
@@ -1473,6 +1523,19 @@ public class OperationResult
         }
     }
 
+    /**
+     * Values that are potentially expensive to convert to string are rendered only when needed, provided they are
+     * immutable. Mutable ones are rendered right now, see {@link LazyParamValues#of(Object)}.
+     * Null values are stored directly, as there is nothing to postpone.
+     */
+    private Collection<String> lazyValue(Object value) {
+        return value != null ? LazyParamValues.of(value) : collectionize((String) null);
+    }
+
+    private Collection<String> lazyCollection(Collection<?> values) {
+        return values != null ? LazyParamValues.ofCollection(values) : null;
+    }
+
     private Collection<String> collectionize(String value) {
         Collection<String> out = new ArrayList<>(1);
         out.add(value);
@@ -2090,6 +2153,38 @@ public class OperationResult
         }
     }
 
+    /**
+     * In the minimal mode (see {@link OperationResultHandlingStrategyType#isMinimal()}) successful leaf subresults are dropped
+     * as soon as they are not needed: when the next subresult is added and when the status is computed.
+     * Only their number is kept, so that the computed status is the same as if they were present.
+     *
+     * Results that are traced or preserved are never dropped, nor are the subresults of such results.
+     */
+    private boolean isMinimalMode() {
+        return Boolean.TRUE.equals(getCurrentHandlingStrategy().isMinimal()) && canBeCleanedUp();
+    }
+
+    private void dropSuccessfulLeavesIfMinimal() {
+        if (hasSubresults() && isMinimalMode()) {
+            for (int i = subresults.size() - 1; i >= 0; i--) {
+                dropIfSuccessfulLeaf(i);
+            }
+        }
+    }
+
+    private void dropIfSuccessfulLeaf(int index) {
+        OperationResult subresult = subresults.get(index);
+        if (subresult != null
+                && subresult.status == OperationResultStatus.SUCCESS
+                && subresult.importance != MAJOR
+                && !subresult.hasSubresults()
+                && subresult.canBeCleanedUp()
+                && subresult.asynchronousOperationReference == null) {
+            subresults.remove(index);
+            droppedSubresultsCount++;
+        }
+    }
+
     private boolean canCleanup(OperationResultImportanceType preserveDuringCleanup) {
         return isLesserThan(importance, preserveDuringCleanup) && (status == OperationResultStatus.SUCCESS || status == OperationResultStatus.NOT_APPLICABLE);
     }
@@ -2376,6 +2471,7 @@ public class OperationResult
         clone.cause = cause;
         clone.count = count;
         clone.hiddenRecordsCount = hiddenRecordsCount;
+        clone.droppedSubresultsCount = droppedSubresultsCount;
         if (subresults != null && (maxDepth == null || maxDepth > 0)) {
             clone.subresults = new ArrayList<>(subresults.size());
             for (OperationResult subresult : subresults) {
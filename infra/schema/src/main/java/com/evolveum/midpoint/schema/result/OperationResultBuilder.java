@@ -18,6 +18,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.TracingProfileType;
 
 import javax.xml.namespace.QName;
 import java.util.Collection;
+import java.util.function.Supplier;
 
 /**
  *  Used to postpone initialization of OperationResult until parameters and context items are set - in order to log
@@ -59,6 +60,8 @@ public interface OperationResultBuilder {
 
     OperationResultBuilder addArbitraryObjectCollectionAsParam(String name, Collection<?> value);
 
+    OperationResultBuilder addLazyParam(String name, Supplier<?> valueSupplier);
+
     OperationResultBuilder addContext(String name, String value);
 
     OperationResultBuilder addContext(String name, PrismObject<? extends ObjectType> value);
@@ -88,6 +91,8 @@ public interface OperationResultBuilder {
     @SuppressWarnings("unused")
     OperationResultBuilder addArbitraryObjectCollectionAsContext(String paramName, Collection<?> paramValue);
 
+    OperationResultBuilder addLazyContext(String name, Supplier<?> valueSupplier);
+
     OperationResultBuilder setMinor();
 
     OperationResult setImportance(OperationResultImportanceType value);
@@ -13,6 +13,7 @@ import static com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResu
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.annotations.Test;
 
@@ -208,6 +209,99 @@ public class TestOperationResult extends AbstractSchemaTest {
         checkResultConversion(root, true);
     }
 
+    @Test
+    public void testLazyParams() throws Exception {
+        given();
+        AtomicInteger rendered = new AtomicInteger();
+        StringBuilder mutable = new StringBuilder("original");
+        OperationResult root = new OperationResult("dummy");
+        OperationResult sub = root.subresult("sub")
+                .addLazyParam("lazy", () -> {
+                    rendered.incrementAndGet();
+                    return "lazy-value";
+                })
+                .addArbitraryObjectAsContext("object", new Object() {
+                    @Override
+                    public String toString() {
+                        rendered.incrementAndGet();
+                        return "object-value";
+                    }
+                })
+                .addArbitraryObjectAsParam("mutable", mutable)
+                .addArbitraryObjectCollectionAsParam("mutableCollection", List.of(mutable))
+                .build();
+        mutable.append("-modified");
+        sub.recordSuccess();
+        root.computeStatus();
+
+        then("lazy param is not rendered before it is needed, mutable values are rendered immediately");
+        assertEquals("Wrong # of rendered values", 1, rendered.get());
+
+        when();
+        String lazyValue = sub.getParamSingle("lazy");
+
+        then("values are rendered only once, mutable ones reflect the state when they were added");
+        assertEquals("Wrong lazy param", "lazy-value", lazyValue);
+        assertEquals("Wrong context", List.of("object-value"), sub.getContext().get("object"));
+        assertEquals("Wrong mutable param", "original", sub.getParamSingle("mutable"));
+        assertEquals("Wrong mutable collection param", List.of("original"), sub.getParams().get("mutableCollection"));
+        checkResultConversion(root, true);
+        assertEquals("Values were rendered more than once", 2, rendered.get());
+    }
+
+    @Test
+    public void testMinimalMode() throws Exception {
+        given();
+        OperationResult.applyOperationResultHandlingStrategy(
+                List.of(new OperationResultHandlingStrategyType(getPrismContext()).minimal(true)));
+        OperationResult.setThreadLocalHandlingStrategy(null);
+        try {
+            OperationResult root = new OperationResult("dummy");
+            OperationResult level1 = root.createSubresult("level1");
+            for (int i = 1; i <= 30; i++) {
+                OperationResult level2 = level1.createSubresult("level2");
+                level2.addParam("value", i);
+                if (i % 10 == 0) {
+                    level2.recordWarning("warning " + i);
+                } else {
+                    level2.recordSuccess();
+                }
+            }
+            OperationResult notApplicable = level1.createSubresult("notApplicable");
+            notApplicable.recordNotApplicable();
+
+            when();
+            level1.computeStatus();
+            root.computeStatus();
+
+            then("only non-successful subresults are kept, the status is computed correctly");
+            System.out.println("Minimal result:\n" + root.debugDump());
+            assertEquals("Wrong # of level1 subresults", 4, level1.getSubresults().size());
+            assertEquals("Wrong status of level1", OperationResultStatus.WARNING, level1.getStatus());
+            assertEquals("Wrong overall status", OperationResultStatus.WARNING, root.getStatus());
+
+            when("all subresults are successful or not applicable");
+            OperationResult other = root.createSubresult("other");
+            other.createSubresult("success").recordSuccess();
+            other.createSubresult("notApplicable").recordNotApplicable();
+            other.computeStatus();
+
+            then("dropped subresults are taken into account");
+            assertEquals("Wrong # of subresults", 1, other.getSubresults().size());
+            assertEquals("Wrong status", OperationResultStatus.SUCCESS, other.getStatus());
+
+            when("the result is cloned");
+            OperationResult clone = other.clone();
+            clone.computeStatus();
+
+            then("dropped subresults are still taken into account");
+            assertEquals("Wrong status of the clone", OperationResultStatus.SUCCESS, clone.getStatus());
+        } finally {
+            OperationResult.applyOperationResultHandlingStrategy(List.of());
+            OperationResult.setThreadLocalHandlingStrategy(null);
+        }
+    }
+
     private void checkResultConversion(OperationResult result, boolean assertEquals) throws SchemaException {
         when();
         OperationResultType resultType = result.createOperationResultType();
@@ -162,6 +162,16 @@ public class MidPointGuiAuthorizationEvaluator implements SecurityEnforcer, Secu
         return securityEnforcer.getMidPointPrincipal();
     }
 
+    @Override
+    public void enterAuthorizationDecisionCacheScope() {
+        securityEnforcer.enterAuthorizationDecisionCacheScope();
+    }
+
+    @Override
+    public void exitAuthorizationDecisionCacheScope() {
+        securityEnforcer.exitAuthorizationDecisionCacheScope();
+    }
+
     // Spring security invokes this method
     @Override
     public void decide(Authentication authentication, Object object, Collection<ConfigAttribute> configAttributes)
@@ -52,6 +52,8 @@ public class CompiledObjectCollectionView implements DebugDumpable, Serializable
     private DistinctSearchOptionType distinct;
     private Boolean disableSorting;
     private Boolean disableCounting;
+    private Integer countThreshold;
+    private Boolean asynchronousCounting;
     private SearchBoxConfigurationType searchBoxConfiguration;
     private ObjectFilter filter;
     private ObjectFilter domainFilter;
@@ -171,6 +173,22 @@ public class CompiledObjectCollectionView implements DebugDumpable, Serializable
         this.disableCounting = disableCounting;
     }
 
+    public Integer getCountThreshold() {
+        return countThreshold;
+    }
+
+    public void setCountThreshold(Integer countThreshold) {
+        this.countThreshold = countThreshold;
+    }
+
+    public Boolean isAsynchronousCounting() {
+        return asynchronousCounting;
+    }
+
+    public void setAsynchronousCounting(Boolean asynchronousCounting) {
+        this.asynchronousCounting = asynchronousCounting;
+    }
+
     public SearchBoxConfigurationType getSearchBoxConfiguration() {
         return searchBoxConfiguration;
     }
@@ -304,6 +322,8 @@ public class CompiledObjectCollectionView implements DebugDumpable, Serializable
         DebugUtil.debugDumpWithLabelToStringLn(sb, "distinct", distinct, indent + 1);
         DebugUtil.debugDumpWithLabelLn(sb, "disableSorting", disableSorting, indent + 1);
         DebugUtil.debugDumpWithLabelLn(sb, "disableCounting", disableCounting, indent + 1);
+        DebugUtil.debugDumpWithLabelLn(sb, "countThreshold", countThreshold, indent + 1);
+        DebugUtil.debugDumpWithLabelLn(sb, "asynchronousCounting", asynchronousCounting, indent + 1);
         DebugUtil.debugDumpWithLabelToStringLn(sb, "searchBoxConfiguration", searchBoxConfiguration, indent + 1);
         DebugUtil.debugDumpWithLabelLn(sb, "filter", filter, indent + 1);
         DebugUtil.debugDumpWithLabel(sb, "domainFilter", domainFilter, indent + 1);
@@ -331,6 +351,8 @@ public class CompiledObjectCollectionView implements DebugDumpable, Serializable
         viewType.setDistinct(getDistinct());
         viewType.setDisableSorting(isDisableSorting());
         viewType.setDisableCounting(isDisableCounting());
+        viewType.setCountThreshold(getCountThreshold());
+        viewType.setAsynchronousCounting(isAsynchronousCounting());
         viewType.setSearchBoxConfiguration(getSearchBoxConfiguration());
         viewType.setDisplayOrder(getDisplayOrder());
         viewType.setRefreshInterval(getRefreshInterval());
@@ -58,6 +58,8 @@ public class CompiledShadowCollectionView extends CompiledObjectCollectionView {
         viewType.setDistinct(getDistinct());
         viewType.setDisableSorting(isDisableSorting());
         viewType.setDisableCounting(isDisableCounting());
+        viewType.setCountThreshold(getCountThreshold());
+        viewType.setAsynchronousCounting(isAsynchronousCounting());
         viewType.setSearchBoxConfiguration(getSearchBoxConfiguration());
         viewType.setDisplayOrder(getDisplayOrder());
         viewType.setRefreshInterval(getRefreshInterval());
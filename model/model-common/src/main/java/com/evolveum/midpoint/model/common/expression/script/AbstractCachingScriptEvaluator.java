@@ -154,18 +154,30 @@ public abstract class AbstractCachingScriptEvaluator<I, C> extends AbstractScrip
         return javaReturnType;
     }
 
+    @Override
+    public void precompile(ScriptExpressionEvaluationContext context)
+            throws ExpressionEvaluationException, SecurityViolationException {
+        String codeString = context.getExpressionType().getCode();
+        if (codeString != null) {
+            getCompiledScript(codeString, context);
+        }
+    }
+
     private C getCompiledScript(String codeString, ScriptExpressionEvaluationContext context) throws ExpressionEvaluationException, SecurityViolationException {
         C compiledScript = scriptCache.getCode(context.getExpressionProfile(), codeString);
         if (compiledScript != null) {
             return compiledScript;
         }
         InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
+        long start = System.nanoTime();
         try {
             compiledScript = compileScript(codeString, context);
         } catch (ExpressionEvaluationException | SecurityViolationException e) {
             throw e;
         } catch (Exception e) {
             throw new ExpressionEvaluationException(e.getMessage() + " while compiling " + context.getContextDescription(), e);
+        } finally {
+            scriptCache.registerCompilation(context.getExpressionProfile(), System.nanoTime() - start);
         }
         scriptCache.putCode(context.getExpressionProfile(), codeString, compiledScript);
         return compiledScript;
@@ -6,59 +6,315 @@
  */
 package com.evolveum.midpoint.model.common.expression.script;
 
+import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLevel.PER_CACHE;
+
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.schema.expression.ExpressionProfile;
+import com.evolveum.midpoint.util.caching.CachePerformanceCollector;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
 
 /**
  * Cache for compiled scripts and interpreters, aware of expression profiles.
  *
+ * Compiled code is kept in a concurrent cache bounded by weight, so a lookup does not block other threads
+ * and scripts with generated text can't make the cache grow without limits. The weight of an entry is the length
+ * of its source code plus a fixed overhead for the compiled code, so the bound limits the number of entries as well.
+ *
+ * The maximal weight can be changed at runtime. In that case a new cache is created, and the old one is closed
+ * only after all threads that are using it at that moment are done with it.
+ *
+ * Hits and misses are reported to {@link CachePerformanceCollector}. More detailed statistics, including compilation
+ * times, are kept per expression profile, see {@link #getStatistics()}.
+ *
  * @param <C> compiled code
  * @author Radovan Semancik
  */
 public class ScriptCache<I,C> {
 
-    private final Map<String, I> interpreterCache = new HashMap<>();
-    private final Map<String, Map<String, C>> codeCache = new HashMap<>();
+    /** Default maximal weight of cached compiled code, roughly characters of the source code. */
+    public static final long DEFAULT_MAX_WEIGHT = 20_000_000L;
+
+    /** Weight added to each entry to account for the compiled code (classes, script objects). */
+    private static final int ENTRY_WEIGHT_OVERHEAD = 2_000;
+
+    /** Key for null expression profile, as concurrent maps do not support null keys. */
+    private static final String NO_PROFILE_KEY = "";
+
+    private static final AtomicInteger CACHE_COUNTER = new AtomicInteger();
+
+    private final Map<String, I> interpreterCache = new ConcurrentHashMap<>();
+    private volatile CodeCache<C> codeCache;
+    private volatile long maxWeight;
+
+    private final Map<String, ProfileStatistics> statistics = new ConcurrentHashMap<>();
 
-    public synchronized I getInterpreter(ExpressionProfile profile) {
+    public ScriptCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    public ScriptCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+        this.codeCache = createCodeCache(maxWeight);
+    }
+
+    private CodeCache<C> createCodeCache(long maxWeight) {
+        return new CodeCache<>(
+                new Cache2kBuilder<CodeKey, C>() {}
+                        .name(ScriptCache.class.getSimpleName() + "-" + CACHE_COUNTER.incrementAndGet())
+                        .weigher((CodeKey key, C value) -> key.getWeight())
+                        .maximumWeight(maxWeight)
+                        .build());
+    }
+
+    /**
+     * Changes the maximal weight of cached code. The cached code is discarded.
+     *
+     * The new cache is used for all subsequent operations. The old one is closed when the operations that use it
+     * at this moment finish.
+     */
+    public synchronized void setMaxWeight(long maxWeight) {
+        if (maxWeight != this.maxWeight) {
+            CodeCache<C> oldCache = codeCache;
+            this.maxWeight = maxWeight;
+            codeCache = createCodeCache(maxWeight);
+            oldCache.retire();
+        }
+    }
+
+    /**
+     * Executes the action on the current code cache, making sure the cache is not closed in the meanwhile.
+     */
+    private <T> T withCodeCache(Function<Cache<CodeKey, C>, T> action) {
+        for (;;) {
+            CodeCache<C> current = codeCache;
+            if (current.acquire()) {
+                try {
+                    return action.apply(current.cache);
+                } finally {
+                    current.release();
+                }
+            }
+            // The cache was retired just now, so the field already points to its replacement.
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public I getInterpreter(ExpressionProfile profile) {
         return interpreterCache.get(getProfileKey(profile));
     }
 
-    public synchronized void putInterpreter(ExpressionProfile profile, I interpreter) {
+    public void putInterpreter(ExpressionProfile profile, I interpreter) {
         interpreterCache.put(getProfileKey(profile), interpreter);
     }
 
-    public synchronized C getCode(ExpressionProfile profile, String sourceCodeKey) {
+    public C getCode(ExpressionProfile profile, String sourceCodeKey) {
         String profileKey = getProfileKey(profile);
-        Map<String, C> profileCache = codeCache.get(profileKey);
-        if (profileCache == null) {
-            return null;
+        CodeKey key = new CodeKey(profileKey, sourceCodeKey);
+        C code = withCodeCache(cache -> cache.peek(key));
+        ProfileStatistics profileStatistics = getProfileStatistics(profileKey);
+        if (code != null) {
+            profileStatistics.hits.incrementAndGet();
+            CachePerformanceCollector.INSTANCE.registerHit(ScriptCache.class, ScriptExpressionEvaluatorType.class, PER_CACHE);
+        } else {
+            profileStatistics.misses.incrementAndGet();
+            CachePerformanceCollector.INSTANCE.registerMiss(ScriptCache.class, ScriptExpressionEvaluatorType.class, PER_CACHE);
         }
-        return profileCache.get(sourceCodeKey);
+        return code;
     }
 
-    public synchronized void putCode(ExpressionProfile profile, String sourceCodeKey, C compiledCode) {
-        String profileKey = getProfileKey(profile);
-        Map<String, C> profileCache = codeCache.get(profileKey);
-        if (profileCache == null) {
-            profileCache = new HashMap<>();
-            codeCache.put(profileKey, profileCache);
-        }
-        profileCache.put(sourceCodeKey, compiledCode);
+    public void putCode(ExpressionProfile profile, String sourceCodeKey, C compiledCode) {
+        CodeKey key = new CodeKey(getProfileKey(profile), sourceCodeKey);
+        withCodeCache(cache -> {
+            cache.put(key, compiledCode);
+            return null;
+        });
+    }
+
+    /**
+     * Records that the code was compiled for given profile, taking specified time.
+     */
+    public void registerCompilation(ExpressionProfile profile, long durationNanos) {
+        ProfileStatistics profileStatistics = getProfileStatistics(getProfileKey(profile));
+        profileStatistics.compilations.incrementAndGet();
+        profileStatistics.compilationTimeNanos.addAndGet(durationNanos);
+    }
+
+    private ProfileStatistics getProfileStatistics(String profileKey) {
+        // get() first, as computeIfAbsent may lock the bin even if the value is present
+        ProfileStatistics profileStatistics = statistics.get(profileKey);
+        return profileStatistics != null
+                ? profileStatistics
+                : statistics.computeIfAbsent(profileKey, k -> new ProfileStatistics());
     }
 
     private String getProfileKey(ExpressionProfile profile) {
         if (profile == null) {
-            return null;
+            return NO_PROFILE_KEY;
         } else {
-            return profile.getIdentifier();
+            return Objects.requireNonNullElse(profile.getIdentifier(), NO_PROFILE_KEY);
         }
     }
 
-    public synchronized void clear() {
-        codeCache.clear();
+    /**
+     * Returns the number of cached compiled scripts (for all profiles).
+     */
+    public int size() {
+        return withCodeCache(cache -> cache.asMap().size());
+    }
+
+    /**
+     * Returns a snapshot of statistics by expression profile identifier (empty string for no profile).
+     */
+    public @NotNull Map<String, ProfileStatistics> getStatistics() {
+        Map<String, ProfileStatistics> snapshot = new HashMap<>();
+        statistics.forEach((profile, stats) -> snapshot.put(profile, stats.copy()));
+        return snapshot;
+    }
+
+    public void clear() {
+        withCodeCache(cache -> {
+            cache.clear();
+            return null;
+        });
     }
 
+    /**
+     * Code cache along with the number of threads currently using it.
+     *
+     * A retired cache is closed as soon as it has no users. Threads that try to acquire it after retirement
+     * are refused, and have to use the current cache instead.
+     */
+    private static final class CodeCache<C> {
+
+        @NotNull private final Cache<CodeKey, C> cache;
+        @NotNull private final AtomicInteger users = new AtomicInteger();
+        @NotNull private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean retired;
+
+        private CodeCache(@NotNull Cache<CodeKey, C> cache) {
+            this.cache = cache;
+        }
+
+        /** Returns false if the cache is retired; it must not be used then. */
+        private boolean acquire() {
+            users.incrementAndGet();
+            if (retired) {
+                release();
+                return false;
+            } else {
+                return true;
+            }
+        }
+
+        private void release() {
+            if (users.decrementAndGet() == 0 && retired) {
+                close();
+            }
+        }
+
+        private void retire() {
+            retired = true;
+            if (users.get() == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                cache.close();
+            }
+        }
+    }
+
+    private static final class CodeKey {
+
+        @NotNull private final String profileKey;
+        @NotNull private final String sourceCode;
+
+        private CodeKey(@NotNull String profileKey, @NotNull String sourceCode) {
+            this.profileKey = profileKey;
+            this.sourceCode = sourceCode;
+        }
+
+        private int getWeight() {
+            return (int) Math.min(Integer.MAX_VALUE, (long) sourceCode.length() + ENTRY_WEIGHT_OVERHEAD);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CodeKey codeKey = (CodeKey) o;
+            return profileKey.equals(codeKey.profileKey)
+                    && sourceCode.equals(codeKey.sourceCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * profileKey.hashCode() + sourceCode.hashCode();
+        }
+    }
+
+    /**
+     * Statistics of the cache use for single expression profile.
+     */
+    public static final class ProfileStatistics {
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong compilations = new AtomicLong();
+        private final AtomicLong compilationTimeNanos = new AtomicLong();
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getCompilations() {
+            return compilations.get();
+        }
+
+        public long getCompilationTimeMillis() {
+            return compilationTimeNanos.get() / 1_000_000;
+        }
+
+        private ProfileStatistics copy() {
+            ProfileStatistics copy = new ProfileStatistics();
+            copy.hits.set(hits.get());
+            copy.misses.set(misses.get());
+            copy.compilations.set(compilations.get());
+            copy.compilationTimeNanos.set(compilationTimeNanos.get());
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + getHits() +
+                    ", misses=" + getMisses() +
+                    ", compilations=" + getCompilations() +
+                    ", compilationTime=" + getCompilationTimeMillis() + " ms";
+        }
+    }
 }
@@ -40,4 +40,12 @@ public interface ScriptEvaluator {
     default boolean isInitialized() {
         return true;
     }
+
+    /**
+     * Compiles the script and caches the compiled code, without evaluating it.
+     * Does nothing for evaluators that do not cache compiled code.
+     */
+    default void precompile(ScriptExpressionEvaluationContext context)
+            throws ExpressionEvaluationException, SecurityViolationException {
+    }
 }
@@ -9,16 +9,22 @@ package com.evolveum.midpoint.model.common.expression.script;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.xml.bind.JAXBElement;
 
+import org.apache.commons.configuration2.Configuration;
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.model.common.expression.functions.CustomFunctions;
 import com.evolveum.midpoint.model.common.expression.functions.FunctionLibrary;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
 import com.evolveum.midpoint.repo.api.Cache;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.CacheRegistry;
@@ -33,13 +39,12 @@ import com.evolveum.midpoint.schema.expression.ExpressionProfile;
 import com.evolveum.midpoint.schema.expression.ScriptExpressionProfile;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
+import com.evolveum.midpoint.util.exception.CommonException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.FunctionLibraryType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
 import static com.evolveum.midpoint.schema.GetOperationOptions.createReadOnlyCollection;
 
@@ -53,6 +58,17 @@ public class ScriptExpressionFactory implements Cache {
 
     private static final String DEFAULT_LANGUAGE = "http://midpoint.evolveum.com/xml/ns/public/expression/language#Groovy";
 
+    private static final String OP_PRECOMPILE_SCRIPTS = ScriptExpressionFactory.class.getName() + ".precompileScripts";
+
+    /** Configuration of script caches in config.xml. */
+    private static final String SCRIPT_CACHE_CONFIGURATION = MidpointConfiguration.ROOT_MIDPOINT_CONFIGURATION + ".scriptCache";
+    private static final String CONF_MAX_WEIGHT = "maxWeight";
+    private static final String CONF_PRECOMPILE_ON_STARTUP = "precompileOnStartup";
+
+    /** Objects whose scripts are pre-compiled on startup (if enabled). */
+    private static final List<Class<? extends ObjectType>> PRECOMPILED_OBJECT_TYPES =
+            List.of(ObjectTemplateType.class, ResourceType.class);
+
     private final Map<String, ScriptEvaluator> evaluatorMap = new HashMap<>();
     private ObjectResolver objectResolver;
     private final PrismContext prismContext;
@@ -64,11 +80,29 @@ public class ScriptExpressionFactory implements Cache {
 
     private CacheRegistry cacheRegistry;
 
+    private MidpointConfiguration midpointConfiguration;         // might be null during low-level testing
+    private boolean precompileOnStartup;
+
     @PostConstruct
     public void register() {
+        applyConfiguration();
         cacheRegistry.registerCache(this);
     }
 
+    private void applyConfiguration() {
+        if (midpointConfiguration == null) {
+            return;
+        }
+        Configuration c = midpointConfiguration.getConfiguration(SCRIPT_CACHE_CONFIGURATION);
+        long maxWeight = c.getLong(CONF_MAX_WEIGHT, ScriptCache.DEFAULT_MAX_WEIGHT);
+        for (ScriptEvaluator evaluator : evaluatorMap.values()) {
+            if (evaluator instanceof AbstractCachingScriptEvaluator<?, ?>) {
+                ((AbstractCachingScriptEvaluator<?, ?>) evaluator).getScriptCache().setMaxWeight(maxWeight);
+            }
+        }
+        precompileOnStartup = c.getBoolean(CONF_PRECOMPILE_ON_STARTUP, false);
+    }
+
     @PreDestroy
     public void unregister() {
         cacheRegistry.unregisterCache(this);
@@ -109,6 +143,97 @@ public class ScriptExpressionFactory implements Cache {
         this.cacheRegistry = registry;
     }
 
+    public void setMidpointConfiguration(MidpointConfiguration midpointConfiguration) {
+        this.midpointConfiguration = midpointConfiguration;
+    }
+
+    /**
+     * Pre-compiles scripts found in the repository objects if configured so.
+     * Should be called after the system is initialized.
+     */
+    public void postInit(OperationResult result) {
+        if (precompileOnStartup) {
+            precompileScripts(result);
+        }
+    }
+
+    /**
+     * Compiles scripts found in object templates and resources, so the compiled code is cached before the scripts
+     * are first evaluated. Scripts are compiled for no expression profile. Scripts that can't be compiled are skipped.
+     *
+     * @return number of compiled (or already cached) scripts
+     */
+    public int precompileScripts(OperationResult parentResult) {
+        OperationResult result = parentResult.createMinorSubresult(OP_PRECOMPILE_SCRIPTS);
+        try {
+            if (repositoryService == null) {
+                result.recordNotApplicable("No repository service");
+                return 0;
+            }
+            long start = System.currentTimeMillis();
+            AtomicInteger compiled = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            for (Class<? extends ObjectType> type : PRECOMPILED_OBJECT_TYPES) {
+                repositoryService.searchObjectsIterative(type, null,
+                        (object, lResult) -> {
+                            precompileScripts(object, compiled, failed);
+                            return true;
+                        },
+                        createReadOnlyCollection(), true, result);
+            }
+            LOGGER.info("Pre-compiled {} scripts in {} ms, {} scripts couldn't be compiled",
+                    compiled.get(), System.currentTimeMillis() - start, failed.get());
+            result.addReturn("compiled", compiled.get());
+            result.addReturn("failed", failed.get());
+            return compiled.get();
+        } catch (SchemaException | RuntimeException e) {
+            LOGGER.warn("Couldn't pre-compile scripts: {}", e.getMessage(), e);
+            result.recordPartialError("Couldn't pre-compile scripts", e);
+            return 0;
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    private void precompileScripts(PrismObject<?> object, AtomicInteger compiled, AtomicInteger failed) {
+        object.accept(visitable -> {
+            if (!(visitable instanceof PrismPropertyValue<?>)) {
+                return;
+            }
+            Object realValue;
+            try {
+                realValue = ((PrismPropertyValue<?>) visitable).getRealValue();
+            } catch (RuntimeException e) {
+                return; // e.g. raw value, it can't be an expression we could use anyway
+            }
+            if (realValue instanceof ExpressionType) {
+                for (JAXBElement<?> evaluatorElement : ((ExpressionType) realValue).getExpressionEvaluator()) {
+                    if (evaluatorElement.getValue() instanceof ScriptExpressionEvaluatorType) {
+                        precompileScript((ScriptExpressionEvaluatorType) evaluatorElement.getValue(), object, compiled, failed);
+                    }
+                }
+            }
+        });
+    }
+
+    private void precompileScript(ScriptExpressionEvaluatorType scriptType, PrismObject<?> object,
+            AtomicInteger compiled, AtomicInteger failed) {
+        ScriptEvaluator evaluator = evaluatorMap.get(getLanguage(scriptType));
+        if (evaluator == null || !evaluator.isInitialized() || scriptType.getCode() == null) {
+            return;
+        }
+        ScriptExpressionEvaluationContext context = new ScriptExpressionEvaluationContext();
+        context.setExpressionType(scriptType);
+        context.setContextDescription("pre-compiled script in " + object);
+        try {
+            evaluator.precompile(context);
+            compiled.incrementAndGet();
+        } catch (CommonException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.debug("Couldn't pre-compile script in {}: {}", object, e.getMessage(), e);
+        }
+    }
+
     public ScriptExpression createScriptExpression(
             ScriptExpressionEvaluatorType expressionType, ItemDefinition<?> outputDefinition,
             ExpressionProfile expressionProfile, ExpressionFactory expressionFactory,
@@ -235,9 +360,18 @@ public class ScriptExpressionFactory implements Cache {
     @NotNull
     @Override
     public Collection<SingleCacheStateInformationType> getStateInformation() {
-        return Collections.singleton(new SingleCacheStateInformationType(prismContext)
+        List<SingleCacheStateInformationType> rv = new ArrayList<>();
+        rv.add(new SingleCacheStateInformationType(prismContext)
                 .name(ScriptExpressionFactory.class.getName())
                 .size(customFunctionLibraryCache.size()));
+        evaluatorMap.forEach((language, evaluator) -> {
+            if (evaluator instanceof AbstractCachingScriptEvaluator<?, ?>) {
+                rv.add(new SingleCacheStateInformationType(prismContext)
+                        .name(ScriptCache.class.getName() + "." + evaluator.getLanguageName())
+                        .size(((AbstractCachingScriptEvaluator<?, ?>) evaluator).getScriptCache().size()));
+            }
+        });
+        return rv;
     }
 
     @Override
@@ -248,6 +382,13 @@ public class ScriptExpressionFactory implements Cache {
             } else {
                 LOGGER_CONTENT.info("Custom function library cache is not yet initialized");
             }
+            evaluatorMap.forEach((language, evaluator) -> {
+                if (evaluator instanceof AbstractCachingScriptEvaluator<?, ?>) {
+                    ScriptCache<?, ?> scriptCache = ((AbstractCachingScriptEvaluator<?, ?>) evaluator).getScriptCache();
+                    LOGGER_CONTENT.info("Script cache for {}: {} entries, statistics by expression profile: {}",
+                            evaluator.getLanguageName(), scriptCache.size(), scriptCache.getStatistics());
+                }
+            });
         }
     }
 }
@@ -16,6 +16,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.xml.namespace.QName;
 
 import org.testng.AssertJUnit;
@@ -122,6 +124,92 @@ public class TestScriptCaching extends AbstractUnitTest
         assertTrue("Even Horatio was wrong! " + horatio1Time + " -> " + horatio2Time, horatio2Time <= horatio1Time);
     }
 
+    @Test
+    public void testPrecompileAndStatistics() throws Exception {
+        given();
+        InternalMonitor.reset();
+        ScriptExpressionEvaluatorType scriptType = parseScriptType("expression-string-variables.xml");
+        ScriptExpressionEvaluationContext context = new ScriptExpressionEvaluationContext();
+        context.setExpressionType(scriptType);
+        context.setContextDescription("precompile test");
+        ScriptCache<?, ?> scriptCache = ((AbstractCachingScriptEvaluator<?, ?>) evaluator).getScriptCache();
+        ScriptCache.ProfileStatistics before = scriptCache.getStatistics().get("");
+        long compilationsBefore = before != null ? before.getCompilations() : 0;
+
+        when();
+        evaluator.precompile(context);
+        evaluator.precompile(context);
+
+        then();
+        // already compiled by the previous test or by the first precompile call
+        assertTrue("Unexpected number of compilations",
+                InternalMonitor.getCount(InternalCounters.SCRIPT_COMPILE_COUNT) <= 1);
+        assertEquals("Unexpected number of executions", 0, InternalMonitor.getCount(InternalCounters.SCRIPT_EXECUTION_COUNT));
+        ScriptCache.ProfileStatistics after = scriptCache.getStatistics().get("");
+        assertEquals("Compilations not recorded", compilationsBefore + InternalMonitor.getCount(InternalCounters.SCRIPT_COMPILE_COUNT),
+                after.getCompilations());
+        assertTrue("No hit recorded", after.getHits() > 0);
+    }
+
+    @Test
+    public void testScriptCacheIsBounded() {
+        given("cache with room for about 50 scripts");
+        ScriptCache<Object, String> scriptCache = new ScriptCache<>(100_000);
+
+        when("1000 different scripts are cached");
+        for (int i = 0; i < 1000; i++) {
+            String code = "return " + i;
+            if (scriptCache.getCode(null, code) == null) {
+                scriptCache.putCode(null, code, code);
+            }
+        }
+
+        then("old scripts are evicted");
+        displayValue("cache size", scriptCache.size());
+        assertTrue("Cache is not bounded: " + scriptCache.size(), scriptCache.size() <= 100);
+        assertEquals("Wrong number of misses", 1000, scriptCache.getStatistics().get("").getMisses());
+    }
+
+    @Test
+    public void testSetMaxWeightWhileInUse() throws Exception {
+        given("cache used by several threads");
+        ScriptCache<Object, String> scriptCache = new ScriptCache<>(100_000);
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; !stop.get(); i++) {
+                        String code = "return " + (i % 100);
+                        if (scriptCache.getCode(null, code) == null) {
+                            scriptCache.putCode(null, code, code);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        when("maximal weight is changed repeatedly");
+        for (int i = 0; i < 100; i++) {
+            scriptCache.setMaxWeight(100_000 + (i % 2));
+            //noinspection BusyWait
+            Thread.sleep(1);
+        }
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        then("no thread hits a closed cache");
+        assertEquals("Failures in cache users: " + failures, 0, failures.size());
+        assertEquals("Wrong max weight", 100_001, scriptCache.getMaxWeight());
+    }
+
     private void assertScriptMonitor(int expCompilations, int expExecutions, String desc) {
         assertEquals("Unexpected number of script compilations after " + desc, expCompilations, InternalMonitor.getCount(InternalCounters.SCRIPT_COMPILE_COUNT));
         assertEquals("Unexpected number of script executions after " + desc, expExecutions, InternalMonitor.getCount(InternalCounters.SCRIPT_EXECUTION_COUNT));
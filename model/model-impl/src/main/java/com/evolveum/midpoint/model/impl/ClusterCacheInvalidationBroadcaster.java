@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ws.rs.core.Response;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.SystemConfigurationChangeDispatcher;
+import com.evolveum.midpoint.repo.api.SystemConfigurationChangeListener;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.ClusterExecutionHelper;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.CacheInvalidationEventListType;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.CacheInvalidationEventType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Sends cache invalidation events to other cluster nodes in batches. Used only if the coalescing window
+ * is configured (it is zero, i.e. switched off, by default).
+ *
+ * Events are collected for the time window and merged, see {@link PendingCacheInvalidations}. The resulting batch
+ * is then sent to all other nodes in parallel, one request per node. Batches are sent one after another,
+ * so the order of invalidations is preserved for each node. If a node does not accept the batch (e.g. because
+ * it is of an older version), the events are sent to it one by one, as {@link ClusterCacheListener} does.
+ *
+ * The price is that the invalidation becomes asynchronous: the operation that changed the object no longer waits
+ * until other nodes invalidate their caches, so they can serve the old version of the object for up to the time window
+ * (plus the sending time) after the operation finished. Without coalescing, they are invalidated before the operation
+ * returns.
+ */
+@Component
+public class ClusterCacheInvalidationBroadcaster implements SystemConfigurationChangeListener {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ClusterCacheInvalidationBroadcaster.class);
+
+    private static final String OP_SEND_BATCH = ClusterCacheInvalidationBroadcaster.class.getName() + ".sendBatch";
+
+    private static final long DEFAULT_COALESCING_WINDOW = 0;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    private static final int DEFAULT_SENDERS = 8;
+
+    /** If a batch is to be sent event by event and it is larger than this, global invalidation is sent instead. */
+    private static final int MAX_SEPARATE_EVENTS = 20;
+
+    @Autowired private TaskManager taskManager;
+    @Autowired private PrismContext prismContext;
+    @Autowired private ClusterExecutionHelper clusterExecutionHelper;
+    @Autowired private SystemConfigurationChangeDispatcher systemConfigurationChangeDispatcher;
+
+    private volatile long coalescingWindow = DEFAULT_COALESCING_WINDOW;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile int senders = DEFAULT_SENDERS;
+
+    /** Flushes the collected events. Single thread, so the batches are sent in order. */
+    private ScheduledExecutorService flusher;
+
+    /** Sends the batches to individual nodes. Re-created if the number of senders changes. */
+    private ThreadPoolExecutor senderPool;
+
+    // Guarded by "this".
+    private PendingCacheInvalidations pending = new PendingCacheInvalidations();
+    private boolean flushScheduled;
+
+    /** Delivery statistics, keyed by node identifier. */
+    private final Map<String, NodeDeliveryStatistics> deliveryStatistics = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        flusher = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("cache-invalidation-flusher"));
+        systemConfigurationChangeDispatcher.registerListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        systemConfigurationChangeDispatcher.unregisterListener(this);
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(coalescingWindow + 5000, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Pending cache invalidation events were not sent to other nodes in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (senderPool != null) {
+                senderPool.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public void update(@Nullable SystemConfigurationType value) {
+        if (value == null) {
+            return;
+        }
+        InfrastructureConfigurationType infrastructure = value.getInfrastructure();
+        ClusterCacheInvalidationConfigurationType config =
+                infrastructure != null ? infrastructure.getClusterCacheInvalidation() : null;
+        if (config == null) {
+            config = new ClusterCacheInvalidationConfigurationType();
+        }
+        coalescingWindow = Objects.requireNonNullElse(config.getCoalescingWindow(), DEFAULT_COALESCING_WINDOW);
+        maxBatchSize = Objects.requireNonNullElse(config.getMaxBatchSize(), DEFAULT_MAX_BATCH_SIZE);
+        senders = Math.max(1, Objects.requireNonNullElse(config.getSenders(), DEFAULT_SENDERS));
+        LOGGER.debug("Cluster cache invalidation: coalescing window = {} ms, max batch size = {}, senders = {}",
+                coalescingWindow, maxBatchSize, senders);
+    }
+
+    /**
+     * @return false if events should be sent immediately (i.e. coalescing is switched off)
+     */
+    boolean isCoalescing() {
+        return coalescingWindow > 0;
+    }
+
+    /**
+     * Adds an invalidation event to be sent to other nodes with the next batch.
+     */
+    synchronized void enqueue(@Nullable Class<? extends ObjectType> type, @Nullable String oid) {
+        pending.add(type, oid, maxBatchSize);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            try {
+                flusher.schedule(this::flush, coalescingWindow, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // We are shutting down; other nodes will find out about the change when their cache entries expire.
+                LOGGER.debug("Couldn't schedule sending of cache invalidation events: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void flush() {
+        CacheInvalidationEventListType batch = takePendingEvents();
+        if (batch.getEvent().isEmpty()) {
+            return;
+        }
+        OperationResult result = new OperationResult(OP_SEND_BATCH);
+        List<PrismObject<NodeType>> nodes = searchOtherClusterNodes(result);
+        if (nodes.isEmpty()) {
+            return;
+        }
+        LOGGER.trace("Sending {} cache invalidation event(s) to {} node(s)", batch.getEvent().size(), nodes.size());
+        ExecutorService pool = getSenderPool();
+        List<Future<?>> futures = new ArrayList<>(nodes.size());
+        for (PrismObject<NodeType> node : nodes) {
+            futures.add(pool.submit(() -> sendBatch(node.asObjectable(), batch)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't send cache invalidation events", e.getCause());
+            }
+        }
+    }
+
+    private synchronized CacheInvalidationEventListType takePendingEvents() {
+        CacheInvalidationEventListType batch = pending.toEventList();
+        pending = new PendingCacheInvalidations();
+        flushScheduled = false;
+        return batch;
+    }
+
+    @NotNull
+    private List<PrismObject<NodeType>> searchOtherClusterNodes(OperationResult result) {
+        try {
+            ObjectQuery query = prismContext.queryFor(NodeType.class)
+                    .not().item(NodeType.F_NODE_IDENTIFIER).eq(taskManager.getNodeId())
+                    .build();
+            return taskManager.searchObjects(NodeType.class, query, null, result);
+        } catch (SchemaException | RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't find nodes to send cache invalidation events to", e);
+            return List.of();
+        }
+    }
+
+    private void sendBatch(NodeType node, CacheInvalidationEventListType batch) {
+        String nodeIdentifier = node.getNodeIdentifier();
+        NodeDeliveryStatistics statistics =
+                deliveryStatistics.computeIfAbsent(nodeIdentifier, k -> new NodeDeliveryStatistics());
+        OperationResult result = new OperationResult(OP_SEND_BATCH);
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            // Regular cache invalidation can be skipped for nodes not checking in. Cache entries will expire on such nodes
+            // eventually. (We can revisit this design decision if needed.)
+            OperationResult executionResult = clusterExecutionHelper.execute(node, (client, node1, result1) -> {
+                client.path(ClusterServiceConsts.EVENT_INVALIDATION_BATCH);
+                Response response = client.post(batch);
+                Response.StatusType statusInfo = response.getStatusInfo();
+                if (statusInfo.getFamily() != Response.Status.Family.SUCCESSFUL) {
+                    LOGGER.warn("Cluster-wide cache clearance finished on {} with status {}, {}", nodeIdentifier,
+                            statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
+                    result1.recordFatalError("Cache clearance failed with status " + statusInfo.getStatusCode());
+                } else {
+                    LOGGER.debug("Cluster-wide cache clearance finished on {} with status {}, {}", nodeIdentifier,
+                            statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
+                }
+                response.close();
+            }, null, "cache invalidation", result);
+            success = !executionResult.isError() || sendEventsSeparately(node, batch);
+        } catch (SchemaException | RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't send cache invalidation events to node {}", e, nodeIdentifier);
+        } finally {
+            statistics.record(batch.getEvent().size(), System.currentTimeMillis() - start, success);
+        }
+    }
+
+    /**
+     * Fallback for nodes that did not accept the batch: sends the events one by one (or a single global invalidation,
+     * if there are too many of them), using the endpoint for individual events.
+     *
+     * @return true if all the events were delivered
+     */
+    private boolean sendEventsSeparately(NodeType node, CacheInvalidationEventListType batch) throws SchemaException {
+        String nodeIdentifier = node.getNodeIdentifier();
+        List<CacheInvalidationEventType> events = batch.getEvent().size() <= MAX_SEPARATE_EVENTS
+                ? batch.getEvent()
+                : List.of(new CacheInvalidationEventType());
+        LOGGER.debug("Sending {} cache invalidation event(s) to node {} one by one", events.size(), nodeIdentifier);
+        OperationResult result = new OperationResult(OP_SEND_BATCH);
+        OperationResult executionResult = clusterExecutionHelper.execute(node, (client, node1, result1) -> {
+            for (CacheInvalidationEventType event : events) {
+                Class<? extends ObjectType> type = event.getType() != null
+                        ? ObjectTypes.getObjectTypeFromTypeQName(event.getType()).getClassDefinition()
+                        : null;
+                client.back(true); // to the base address
+                client.path(ClusterCacheListener.getInvalidationRestPath(type, event.getOid()));
+                Response response = client.post(null);
+                Response.StatusType statusInfo = response.getStatusInfo();
+                response.close();
+                if (statusInfo.getFamily() != Response.Status.Family.SUCCESSFUL) {
+                    LOGGER.warn("Cluster-wide cache clearance finished on {} with status {}, {}", nodeIdentifier,
+                            statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
+                    result1.recordFatalError("Cache clearance failed with status " + statusInfo.getStatusCode());
+                    return;
+                }
+            }
+        }, null, "cache invalidation", result);
+        return !executionResult.isError();
+    }
+
+    private synchronized ExecutorService getSenderPool() {
+        int requested = senders;
+        if (senderPool == null || senderPool.getMaximumPoolSize() != requested) {
+            if (senderPool != null) {
+                senderPool.shutdown();
+            }
+            senderPool = new ThreadPoolExecutor(requested, requested, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), daemonThreadFactory("cache-invalidation-sender"));
+            senderPool.allowCoreThreadTimeOut(true);
+        }
+        return senderPool;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return Snapshot of delivery statistics, keyed by node identifier.
+     */
+    public @NotNull Map<String, NodeDeliveryStatistics> getDeliveryStatistics() {
+        Map<String, NodeDeliveryStatistics> snapshot = new HashMap<>();
+        deliveryStatistics.forEach((node, statistics) -> snapshot.put(node, statistics.copy()));
+        return snapshot;
+    }
+
+    /**
+     * Delivery statistics for a single node.
+     */
+    public static class NodeDeliveryStatistics {
+
+        private long batches;
+        private long events;
+        private long failures;
+        private long totalTime;
+        private long maxTime;
+
+        private synchronized void record(int eventCount, long time, boolean success) {
+            batches++;
+            events += eventCount;
+            if (!success) {
+                failures++;
+            }
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+        }
+
+        private synchronized NodeDeliveryStatistics copy() {
+            NodeDeliveryStatistics copy = new NodeDeliveryStatistics();
+            copy.batches = batches;
+            copy.events = events;
+            copy.failures = failures;
+            copy.totalTime = totalTime;
+            copy.maxTime = maxTime;
+            return copy;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        public double getAverageTime() {
+            return batches > 0 ? (double) totalTime / batches : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "batches=" + batches + ", events=" + events + ", failures=" + failures
+                    + ", avgTime=" + getAverageTime() + " ms, maxTime=" + maxTime + " ms";
+        }
+    }
+}
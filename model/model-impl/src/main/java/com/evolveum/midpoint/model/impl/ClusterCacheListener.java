@@ -38,6 +38,7 @@ public class ClusterCacheListener implements CacheListener {
     @Autowired private TaskManager taskManager;
     @Autowired private CacheDispatcher cacheDispatcher;
     @Autowired private ClusterExecutionHelper clusterExecutionHelper;
+    @Autowired private ClusterCacheInvalidationBroadcaster broadcaster;
 
     @PostConstruct
     public void addListener() {
@@ -52,6 +53,11 @@ public class ClusterCacheListener implements CacheListener {
             return;
         }
 
+        if (broadcaster.isCoalescing()) {
+            broadcaster.enqueue(type, oid);
+            return;
+        }
+
         Task task = taskManager.createTaskInstance("invalidate");
         OperationResult result = task.getResult();
 
@@ -74,8 +80,9 @@ public class ClusterCacheListener implements CacheListener {
         }, null, "cache invalidation", result);
     }
 
+    /** Also used by {@link ClusterCacheInvalidationBroadcaster} for nodes that do not accept batches. */
     @NotNull
-    private <O extends ObjectType> String getInvalidationRestPath(Class<O> type, String oid) {
+    static <O extends ObjectType> String getInvalidationRestPath(Class<O> type, String oid) {
         StringBuilder sb = new StringBuilder(ClusterServiceConsts.EVENT_INVALIDATION);
         if (type != null) {
             sb.append(ObjectTypes.getRestTypeFromClass(type));
@@ -14,6 +14,7 @@ import com.evolveum.midpoint.model.common.ModelCommonBeans;
 
 import com.evolveum.midpoint.model.common.SystemObjectCache;
 import com.evolveum.midpoint.model.impl.lens.*;
+import com.evolveum.midpoint.model.impl.lens.assignments.EvaluatedTargetSubtreeCache;
 import com.evolveum.midpoint.model.impl.lens.projector.ContextLoader;
 import com.evolveum.midpoint.model.impl.lens.projector.Projector;
 import com.evolveum.midpoint.model.impl.lens.projector.credentials.CredentialsProcessor;
@@ -23,6 +24,7 @@ import com.evolveum.midpoint.model.impl.lens.projector.policy.PolicyRuleSuspendT
 import com.evolveum.midpoint.model.impl.lens.projector.policy.scriptExecutor.PolicyRuleScriptExecutor;
 import com.evolveum.midpoint.model.impl.migrator.Migrator;
 import com.evolveum.midpoint.model.impl.security.SecurityHelper;
+import com.evolveum.midpoint.model.impl.sync.SynchronizationExpressionsEvaluator;
 import com.evolveum.midpoint.model.impl.sync.SynchronizationService;
 import com.evolveum.midpoint.model.impl.sync.tasks.SyncTaskHelper;
 import com.evolveum.midpoint.prism.crypto.Protector;
@@ -50,6 +52,7 @@ import com.evolveum.midpoint.model.impl.lens.projector.mappings.MappingEvaluator
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.util.annotation.Experimental;
 
 import javax.annotation.PostConstruct;
@@ -81,6 +84,7 @@ public class ModelBeans {
     @Autowired public ModelObjectResolver modelObjectResolver;
     @Autowired public ModelService modelService;
     @Autowired @Qualifier("cacheRepositoryService") public RepositoryService cacheRepositoryService;
+    @Autowired public RepositoryCache repositoryCache; // the same as cacheRepositoryService, for cache-specific methods
     @Autowired public MatchingRuleRegistry matchingRuleRegistry;
     @Autowired public AutoAssignMappingCollector autoAssignMappingCollector;
     @Autowired public MappingEvaluator mappingEvaluator;
@@ -108,6 +112,7 @@ public class ModelBeans {
     @Autowired public SystemObjectCache systemObjectCache;
     @Autowired public CacheConfigurationManager cacheConfigurationManager;
     @Autowired public SynchronizationService synchronizationService;
+    @Autowired public SynchronizationExpressionsEvaluator synchronizationExpressionsEvaluator;
     @Autowired public ClockworkAuditHelper clockworkAuditHelper;
     @Autowired public ClockworkAuthorizationHelper clockworkAuthorizationHelper;
     @Autowired public PolicyRuleScriptExecutor policyRuleScriptExecutor;
@@ -119,4 +124,6 @@ public class ModelBeans {
     @Autowired public PolicyRuleSuspendTaskExecutor policyRuleSuspendTaskExecutor;
     @Autowired public ClockworkHookHelper clockworkHookHelper;
     @Autowired public SecurityHelper securityHelper;
+    @Autowired public EvaluatedTargetSubtreeCache evaluatedTargetSubtreeCache;
+    @Autowired public ProjectionWorkerPool projectionWorkerPool;
 }
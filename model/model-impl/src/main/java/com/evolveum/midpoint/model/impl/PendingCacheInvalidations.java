@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import java.util.*;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.CacheInvalidationEventListType;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.CacheInvalidationEventType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Cache invalidation events collected by {@link ClusterCacheInvalidationBroadcaster}, merged so that each
+ * invalidation is sent at most once: a global invalidation covers everything, an invalidation of a type covers
+ * invalidations of individual objects of that type.
+ *
+ * Not thread safe.
+ */
+class PendingCacheInvalidations {
+
+    private boolean global;
+    @NotNull private final Set<Class<? extends ObjectType>> types = new LinkedHashSet<>();
+    @NotNull private final Map<Class<? extends ObjectType>, Set<String>> objects = new LinkedHashMap<>();
+
+    /** Number of events that would be sent. */
+    private int size;
+
+    /**
+     * Adds an invalidation event. If there are already `maxSize` events, the invalidation is converted
+     * to a global one.
+     *
+     * @param type Type of objects to invalidate; null means global invalidation.
+     * @param oid Object to invalidate; null means all objects of given type.
+     */
+    void add(@Nullable Class<? extends ObjectType> type, @Nullable String oid, int maxSize) {
+        if (global) {
+            return;
+        }
+        if (type == null || size >= maxSize) {
+            global = true;
+            types.clear();
+            objects.clear();
+            size = 1;
+        } else if (oid == null) {
+            if (types.add(type)) {
+                Set<String> covered = objects.remove(type);
+                size += 1 - (covered != null ? covered.size() : 0);
+            }
+        } else if (!types.contains(type) && objects.computeIfAbsent(type, k -> new LinkedHashSet<>()).add(oid)) {
+            size++;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns the events to be sent: global invalidation, or type invalidations followed by object ones. */
+    @NotNull CacheInvalidationEventListType toEventList() {
+        CacheInvalidationEventListType list = new CacheInvalidationEventListType();
+        if (global) {
+            list.getEvent().add(new CacheInvalidationEventType());
+        } else {
+            for (Class<? extends ObjectType> type : types) {
+                list.getEvent().add(new CacheInvalidationEventType()
+                        .type(ObjectTypes.getObjectType(type).getTypeQName()));
+            }
+            objects.forEach((type, oids) -> {
+                for (String oid : oids) {
+                    list.getEvent().add(new CacheInvalidationEventType()
+                            .type(ObjectTypes.getObjectType(type).getTypeQName())
+                            .oid(oid));
+                }
+            });
+        }
+        return list;
+    }
+}
@@ -597,6 +597,14 @@ public class CollectionProcessor {
         if (newDisableCounting != null && (existingView.isDisableCounting() == null || replaceIfExist)) {
             existingView.setDisableCounting(newDisableCounting);
         }
+        Integer newCountThreshold = objectListViewType.getCountThreshold();
+        if (newCountThreshold != null && (existingView.getCountThreshold() == null || replaceIfExist)) {
+            existingView.setCountThreshold(newCountThreshold);
+        }
+        Boolean newAsynchronousCounting = objectListViewType.isAsynchronousCounting();
+        if (newAsynchronousCounting != null && (existingView.isAsynchronousCounting() == null || replaceIfExist)) {
+            existingView.setAsynchronousCounting(newAsynchronousCounting);
+        }
     }
 
     private void compileDisplayOrder(CompiledObjectCollectionView existingView, GuiObjectListViewType objectListViewType, boolean replaceIfExist) {
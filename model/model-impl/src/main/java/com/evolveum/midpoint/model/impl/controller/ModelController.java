@@ -35,6 +35,7 @@ import com.evolveum.midpoint.model.api.authentication.GuiProfiledPrincipalManage
 import com.evolveum.midpoint.model.api.hooks.HookRegistry;
 import com.evolveum.midpoint.model.api.hooks.ReadHook;
 import com.evolveum.midpoint.model.common.SystemObjectCache;
+import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
 import com.evolveum.midpoint.model.impl.ModelObjectResolver;
 import com.evolveum.midpoint.model.impl.importer.ObjectImporter;
 import com.evolveum.midpoint.model.impl.lens.*;
@@ -135,6 +136,7 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
     @Autowired private TaskManager taskManager;
     @Autowired private TaskActivityManager activityManager;
     @Autowired private ScriptingExpressionEvaluator scriptingExpressionEvaluator;
+    @Autowired private ScriptExpressionFactory scriptExpressionFactory;
     @Autowired private AuditHelper auditHelper;
     @Autowired private SecurityEnforcer securityEnforcer;
     @Autowired private SecurityContextManager securityContextManager;
@@ -1676,6 +1678,8 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
         // Initialize provisioning
         provisioning.postInit(result);
 
+        scriptExpressionFactory.postInit(result);
+
         if (result.isUnknown()) {
             result.computeStatus();
         }
@@ -11,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.model.impl.ModelBeans;
+import com.evolveum.midpoint.model.impl.lens.executor.ConcurrentProjectionsChangeExecution;
 import com.evolveum.midpoint.model.impl.lens.executor.FocusChangeExecution;
 import com.evolveum.midpoint.model.impl.lens.executor.ProjectionChangeExecution;
 import com.evolveum.midpoint.repo.api.PreconditionViolationException;
@@ -19,6 +20,7 @@ import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.InternalsConfigurationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 /**
@@ -28,6 +30,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
  *
  * - {@link FocusChangeExecution}
  * - {@link ProjectionChangeExecution}
+ * - {@link ConcurrentProjectionsChangeExecution} (if configured)
  *
  * TODO Move to `executor` package. But this is incompatible change regarding loggers and operation names.
  *
@@ -90,14 +93,22 @@ public class ChangeExecutor {
 
         boolean restartRequested = false;
 
-        for (LensProjectionContext projCtx : context.getProjectionContexts()) {
+        int threads = getProjectionExecutionThreads(context);
+        if (threads > 1) {
+            ConcurrentProjectionsChangeExecution<O> execution =
+                    new ConcurrentProjectionsChangeExecution<>(context, threads, task, modelBeans);
+            execution.execute(result);
+            restartRequested = execution.isRestartRequested();
+        } else {
+            for (LensProjectionContext projCtx : context.getProjectionContexts()) {
 
-            context.checkAbortRequested();
+                context.checkAbortRequested();
 
-            ProjectionChangeExecution<O> execution = new ProjectionChangeExecution<>(context, projCtx, task, modelBeans);
-            execution.execute(result);
+                ProjectionChangeExecution<O> execution = new ProjectionChangeExecution<>(context, projCtx, task, modelBeans);
+                execution.execute(result);
 
-            restartRequested = restartRequested || execution.isRestartRequested();
+                restartRequested = restartRequested || execution.isRestartRequested();
+            }
         }
 
         LOGGER.trace("Restart requested = {}", restartRequested);
@@ -107,4 +118,10 @@ public class ChangeExecutor {
         }
         return restartRequested;
     }
+
+    private int getProjectionExecutionThreads(LensContext<?> context) {
+        InternalsConfigurationType internals = context.getInternalsConfiguration();
+        Integer threads = internals != null ? internals.getProjectionExecutionThreads() : null;
+        return threads != null ? threads : 1;
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.lens;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.security.api.SecurityContextManager;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Threads used by the clockwork to process projections on different resources concurrently.
+ *
+ * The pool is shared by all clockwork runs on the node, and its size is bounded. Each run limits itself to
+ * the number of threads it is configured for. If the pool is exhausted, the actions are simply executed
+ * in the calling thread.
+ */
+@Component
+public class ProjectionWorkerPool {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ProjectionWorkerPool.class);
+
+    /** Maximal number of threads in the pool, i.e. for all concurrently running clockwork operations. */
+    private static final int MAX_THREADS = 64;
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    @Autowired private SecurityContextManager securityContextManager;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(0, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "projection-worker-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Executes given actions using at most `threads` threads, the current one included. Returns after all the actions
+     * are finished. The actions run in the security context of the caller.
+     *
+     * The actions are expected to deal with their exceptions themselves. If any of them throws a runtime exception
+     * or an error, it is rethrown here (after all the other actions finish).
+     */
+    public void executeAll(@NotNull List<? extends Runnable> actions, int threads) {
+        if (threads <= 1 || actions.size() <= 1) {
+            actions.forEach(Runnable::run);
+            return;
+        }
+
+        Queue<Runnable> queue = new ConcurrentLinkedQueue<>(actions);
+        Authentication authentication = securityContextManager.getAuthentication();
+        List<Future<?>> futures = new ArrayList<>();
+        int helpers = Math.min(threads, actions.size()) - 1;
+        for (int i = 0; i < helpers; i++) {
+            try {
+                futures.add(executor.submit(() -> executeInHelperThread(queue, authentication)));
+            } catch (RejectedExecutionException e) {
+                LOGGER.trace("Projection worker pool is exhausted, continuing with {} helper thread(s)", futures.size());
+                break;
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            drain(queue);
+        } catch (RuntimeException | Error t) {
+            failure = t;
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SystemException("Interrupted while waiting for projection workers", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new SystemException(failure);
+        }
+    }
+
+    private void executeInHelperThread(Queue<Runnable> queue, Authentication authentication) {
+        securityContextManager.setupPreAuthenticatedSecurityContext(authentication);
+        try {
+            drain(queue);
+        } finally {
+            securityContextManager.setupPreAuthenticatedSecurityContext((Authentication) null);
+        }
+    }
+
+    private void drain(Queue<Runnable> queue) {
+        Runnable action;
+        while ((action = queue.poll()) != null) {
+            action.run();
+        }
+    }
+}
@@ -86,6 +86,7 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
     final ActivationComputer activationComputer;
     final MappingEvaluator mappingEvaluator;
     final ContextLoader contextLoader;
+    final EvaluatedTargetSubtreeCache targetSubtreeCache; // null if not available (e.g. in low-level tests)
 
     // Evaluation state
 
@@ -110,6 +111,7 @@ public class AssignmentEvaluator<AH extends AssignmentHolderType> {
         loginMode = builder.loginMode;
         systemConfiguration = builder.systemConfiguration;
         mappingEvaluator = builder.mappingEvaluator;
+        targetSubtreeCache = beans != null ? beans.evaluatedTargetSubtreeCache : null;
         evaluatedAssignmentTargetCache = new EvaluatedAssignmentTargetCache();
         memberOfEngine = new MemberOfEngine();
 
@@ -82,6 +82,10 @@ public class ConditionState implements Serializable {
         return oldState || currentState || newState;
     }
 
+    public boolean isAllTrue() {
+        return oldState && currentState && newState;
+    }
+
     public PlusMinusZero getRelativeRelativityMode() {
         return getRelativityMode(currentState, newState);
     }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2020 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl.lens.assignments;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.namespace.QName;
+
+import org.apache.commons.configuration2.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.model.api.context.EvaluationOrder;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.repo.api.Cache;
+import com.evolveum.midpoint.repo.api.CacheRegistry;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractRoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.LifecycleStateModelType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+
+/**
+ * Node-wide cache of evaluated target (role) subtrees, shared by all assignment evaluations.
+ *
+ * {@link EvaluatedAssignmentTargetCache} lives only for single {@link AssignmentEvaluator}, so each recompute of a focus
+ * walks the same role graphs again. This cache keeps the content that the evaluation of role assignments, inducements
+ * and payload ({@link TargetSubtree}) added to the evaluated assignment, so it can be replayed for other focus objects.
+ *
+ * Only subtrees that do not depend on the focus or on the path to the role are cached: no conditions, filters, focus mappings,
+ * time-constrained validity, idempotent roles, non-trivial inducement orders, tenants or delegations to users.
+ * Everything that depends on the path above the role (e.g. membership vs. delegation) and on the focus lifecycle
+ * is part of the {@link Key}.
+ *
+ * Entries are invalidated by the repository cache invalidation events (local and cluster-wide) for any role
+ * in the subtree, and by changes of the system configuration. While the cache is enabled, it asks the repository cache
+ * to distribute invalidations of abstract roles cluster-wide, see {@link #hasClusterwideInvalidationFor(Class)}.
+ * Therefore the cache should be enabled or disabled on all nodes in the cluster alike.
+ *
+ * When the cache is full, least recently used entries are evicted. The recency is approximate: a tenth
+ * of the entries with the oldest access tick is evicted at once, so the eviction cost is amortized.
+ *
+ * The cache is disabled by default, it is enabled by `enabled` property in `targetSubtreeCache` section of config.xml.
+ */
+@Component
+public class EvaluatedTargetSubtreeCache implements Cache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(EvaluatedTargetSubtreeCache.class);
+    private static final Trace LOGGER_CONTENT = TraceManager.getTrace(EvaluatedTargetSubtreeCache.class.getName() + ".content");
+
+    /** Configuration of the cache in config.xml. */
+    private static final String CONFIGURATION = MidpointConfiguration.ROOT_MIDPOINT_CONFIGURATION + ".targetSubtreeCache";
+    private static final String CONF_ENABLED = "enabled";
+    private static final String CONF_MAX_ENTRIES = "maxEntries";
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    @Autowired private CacheRegistry cacheRegistry;
+    @Autowired private PrismContext prismContext;
+    @Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Logical clock for access recency of entries. */
+    private final AtomicLong accessTicks = new AtomicLong();
+
+    /**
+     * Incremented on each relevant invalidation. Recordings started before the invalidation are not stored,
+     * as they could have seen the old version of the invalidated objects.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean enabled;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    @PostConstruct
+    public void register() {
+        if (midpointConfiguration != null) {
+            Configuration c = midpointConfiguration.getConfiguration(CONFIGURATION);
+            enabled = c.getBoolean(CONF_ENABLED, false);
+            maxEntries = c.getInt(CONF_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+        }
+        cacheRegistry.registerCache(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        cacheRegistry.unregisterCache(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    @Nullable TargetSubtree get(@NotNull Key key) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = accessTicks.incrementAndGet();
+        return entry.subtree;
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Stores the subtree, unless there was a relevant invalidation since the recording started.
+     */
+    void put(@NotNull Key key, @NotNull TargetSubtree subtree, long recordingGeneration) {
+        if (!enabled || recordingGeneration != generation.get()) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            evictLeastRecentlyUsed();
+        }
+        entries.put(key, new Entry(subtree, accessTicks.incrementAndGet()));
+        if (recordingGeneration != generation.get()) {
+            // invalidated while we were storing the entry
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Evicts (approximately) the least recently used tenth of the entries. Concurrent evictions may evict
+     * a bit more than that, which is harmless.
+     */
+    private synchronized void evictLeastRecentlyUsed() {
+        int size = entries.size();
+        if (size < maxEntries) {
+            return; // evicted by another thread meanwhile
+        }
+        int toEvict = Math.max(1, size / 10);
+        List<Map.Entry<Key, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        snapshot.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (int i = 0; i < toEvict && i < snapshot.size(); i++) {
+            Map.Entry<Key, Entry> evicted = snapshot.get(i);
+            entries.remove(evicted.getKey(), evicted.getValue());
+        }
+        LOGGER.trace("Evicted {} least recently used entries from the cache of {} entries", toEvict, size);
+    }
+
+    @Override
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+        if (type == null || SystemConfigurationType.class.equals(type)) {
+            clear();
+        } else if (type.isAssignableFrom(AbstractRoleType.class) || AbstractRoleType.class.isAssignableFrom(type)) {
+            generation.incrementAndGet();
+            if (oid == null) {
+                entries.clear();
+            } else {
+                entries.values().removeIf(entry -> entry.subtree.containsTarget(oid));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasClusterwideInvalidationFor(Class<?> type) {
+        return enabled && type != null && AbstractRoleType.class.isAssignableFrom(type);
+    }
+
+    @NotNull
+    @Override
+    public Collection<SingleCacheStateInformationType> getStateInformation() {
+        return Collections.singleton(
+                new SingleCacheStateInformationType(prismContext)
+                        .name(EvaluatedTargetSubtreeCache.class.getName())
+                        .size(entries.size()));
+    }
+
+    @Override
+    public void dumpContent() {
+        if (LOGGER_CONTENT.isInfoEnabled()) {
+            entries.forEach((k, v) -> LOGGER_CONTENT.info("Cached target subtree: {}: {}", k, v.subtree));
+        }
+    }
+
+    /** Cached subtree with the tick of its last access. */
+    private static final class Entry {
+
+        @NotNull private final TargetSubtree subtree;
+        private volatile long lastAccess;
+
+        private Entry(@NotNull TargetSubtree subtree, long lastAccess) {
+            this.subtree = subtree;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Everything the evaluation of target subtree depends on, apart from the subtree itself.
+     */
+    static final class Key {
+
+        @NotNull private final String targetOid;
+        private final String targetVersion;
+        private final QName relation;
+        private final EvaluationOrder evaluationOrder;
+        private final EvaluationOrder evaluationOrderForTarget;
+        private final Class<?> focusClass;
+        private final String focusLifecycleState;
+        private final LifecycleStateModelType focusStateModel;
+
+        /**
+         * Flags of the target segment and the evaluation: matching orders, direct, archetype hierarchy,
+         * membership collection, delegation in path, evaluate old, primary assignment changed,
+         * evaluate all relations, login mode.
+         */
+        @NotNull private final List<Boolean> flags;
+
+        Key(@NotNull String targetOid, String targetVersion, QName relation,
+                EvaluationOrder evaluationOrder, EvaluationOrder evaluationOrderForTarget,
+                Class<?> focusClass, String focusLifecycleState, LifecycleStateModelType focusStateModel,
+                @NotNull List<Boolean> flags) {
+            this.targetOid = targetOid;
+            this.targetVersion = targetVersion;
+            this.relation = relation;
+            this.evaluationOrder = evaluationOrder;
+            this.evaluationOrderForTarget = evaluationOrderForTarget;
+            this.focusClass = focusClass;
+            this.focusLifecycleState = focusLifecycleState;
+            this.focusStateModel = focusStateModel;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return targetOid.equals(key.targetOid)
+                    && Objects.equals(targetVersion, key.targetVersion)
+                    && Objects.equals(relation, key.relation)
+                    && Objects.equals(evaluationOrder, key.evaluationOrder)
+                    && Objects.equals(evaluationOrderForTarget, key.evaluationOrderForTarget)
+                    && Objects.equals(focusClass, key.focusClass)
+                    && Objects.equals(focusLifecycleState, key.focusLifecycleState)
+                    && Objects.equals(focusStateModel, key.focusStateModel)
+                    && flags.equals(key.flags);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(targetOid, targetVersion, relation, evaluationOrder, focusClass, flags);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{" +
+                    "targetOid=" + targetOid +
+                    ", version=" + targetVersion +
+                    ", relation=" + relation +
+                    ", order=" + evaluationOrder +
+                    ", orderForTarget=" + evaluationOrderForTarget +
+                    ", focusClass=" + (focusClass != null ? focusClass.getSimpleName() : null) +
+                    ", focusLifecycleState=" + focusLifecycleState +
+                    ", focusStateModel=" + (focusStateModel != null) +
+                    ", flags=" + flags +
+                    '}';
+        }
+    }
+}
@@ -7,6 +7,9 @@
 
 package com.evolveum.midpoint.model.impl.lens.assignments;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.delta.PlusMinusZero;
@@ -75,6 +78,12 @@ public class EvaluationContext<AH extends AssignmentHolderType> {
      */
     @NotNull final ConditionEvaluator conditionEvaluator;
 
+    /**
+     * Recordings of target subtrees that are being evaluated, see {@link EvaluatedTargetSubtreeCache}.
+     * Nested subtrees are recorded into all enclosing recordings.
+     */
+    @NotNull private final List<TargetSubtree.Recording> subtreeRecordings = new ArrayList<>();
+
     EvaluationContext(@NotNull EvaluatedAssignmentImpl<AH> evalAssignment,
             @NotNull AssignmentPathImpl assignmentPath,
             PlusMinusZero primaryAssignmentMode, boolean evaluateOld,
@@ -89,4 +98,37 @@ public class EvaluationContext<AH extends AssignmentHolderType> {
         this.membershipCollector = new TargetMembershipCollector(this);
         this.conditionEvaluator = new ConditionEvaluator(this);
     }
+
+    void startSubtreeRecording(@NotNull TargetSubtree.Recording recording) {
+        subtreeRecordings.add(recording);
+    }
+
+    void stopSubtreeRecording(@NotNull TargetSubtree.Recording recording) {
+        subtreeRecordings.remove(recording);
+    }
+
+    boolean isRecordingSubtree() {
+        return !subtreeRecordings.isEmpty();
+    }
+
+    void recordSubtreeContent(@NotNull AssignmentPathImpl path, @NotNull TargetSubtree.Content content) {
+        for (TargetSubtree.Recording recording : subtreeRecordings) {
+            recording.add(path, content);
+        }
+    }
+
+    void recordSubtreeTarget(String oid) {
+        for (TargetSubtree.Recording recording : subtreeRecordings) {
+            recording.addTarget(oid);
+        }
+    }
+
+    /**
+     * Marks the subtrees being recorded as dependent on something that is not covered by the cache key.
+     */
+    void markSubtreeNotCacheable(String reason) {
+        for (TargetSubtree.Recording recording : subtreeRecordings) {
+            recording.markNotCacheable(reason);
+        }
+    }
 }
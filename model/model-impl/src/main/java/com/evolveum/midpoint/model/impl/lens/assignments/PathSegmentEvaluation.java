@@ -80,6 +80,7 @@ public class PathSegmentEvaluation<AH extends AssignmentHolderType> extends Abst
 
             ctx.assignmentPath.add(segment);
             try {
+                checkSubtreeCacheability();
                 computeActivity();
                 computeConditionState();
                 segment.freeze();
@@ -119,6 +120,22 @@ public class PathSegmentEvaluation<AH extends AssignmentHolderType> extends Abst
         }
     }
 
+    /**
+     * Conditions and time-constrained validity make the content of enclosing target subtrees dependent
+     * on the focus or on the time, so these subtrees cannot be cached.
+     */
+    private void checkSubtreeCacheability() {
+        if (!ctx.isRecordingSubtree()) {
+            return;
+        }
+        if (segment.assignment.getCondition() != null) {
+            ctx.markSubtreeNotCacheable("assignment/inducement condition");
+        }
+        if (Util.hasValidityConstraints(segment.assignment.getActivation())) {
+            ctx.markSubtreeNotCacheable("assignment/inducement validity");
+        }
+    }
+
     private void computeActivity() {
         boolean active;
         if (segment.isMatchingOrder) {
@@ -78,6 +78,10 @@ class PayloadEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
 
             // Do not evaluate the construction here. We will do it in the second pass. Just prepare everything to be evaluated.
             ctx.evalAssignment.addConstruction(construction, segment.getAbsoluteAssignmentRelativityMode()); // TODO
+            if (ctx.isRecordingSubtree()) {
+                ctx.recordSubtreeContent(ctx.assignmentPath, new TargetSubtree.ConstructionContent(
+                        constructionBean, segment.source, isConstructionValid(), segment.getAbsoluteAssignmentRelativityMode()));
+            }
         }
     }
 
@@ -91,6 +95,10 @@ class PayloadEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
             PersonaConstruction<AH> construction = builder.build();
 
             ctx.evalAssignment.addPersonaConstruction(construction, segment.getAbsoluteAssignmentRelativityMode()); // TODO
+            if (ctx.isRecordingSubtree()) {
+                ctx.recordSubtreeContent(ctx.assignmentPath, new TargetSubtree.PersonaConstructionContent(
+                        constructionBean, segment.source, isConstructionValid(), segment.getAbsoluteAssignmentRelativityMode()));
+            }
         }
     }
 
@@ -102,12 +110,17 @@ class PayloadEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
                 .lensContext(ctx.ae.lensContext)
                 .now(ctx.ae.now)
                 .originType(OriginType.ASSIGNMENTS)
-                .valid(segment.isFullPathActive() && segment.getOverallConditionState().isNewTrue());
+                .valid(isConstructionValid());
+    }
+
+    private boolean isConstructionValid() {
+        return segment.isFullPathActive() && segment.getOverallConditionState().isNewTrue();
     }
 
     private void collectFocusMappings() throws SchemaException {
         MappingsType mappingsBean = segment.assignment.getFocusMappings();
         if (mappingsBean != null) {
+            ctx.markSubtreeNotCacheable("focus mappings");
             LOGGER.trace("Request evaluation of focus mappings '{}' in {} ({} mappings)",
                     mappingsBean.getDescription(), segment.source, mappingsBean.getMapping().size());
             @NotNull AssignmentPathVariables assignmentPathVariables = LensUtil.computeAssignmentPathVariables(ctx.assignmentPath);
@@ -131,6 +144,7 @@ class PayloadEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
         if (policyRuleBean != null) {
             LOGGER.trace("Collecting focus policy rule '{}' in {}", policyRuleBean.getName(), segment.source);
             ctx.evalAssignment.addFocusPolicyRule(createEvaluatedPolicyRule(policyRuleBean));
+            recordPolicyRule(policyRuleBean, false);
         }
     }
 
@@ -145,16 +159,28 @@ class PayloadEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
             } else {
                 ctx.evalAssignment.addOtherTargetPolicyRule(policyRule);
             }
+            recordPolicyRule(policyRuleBean, true);
+        }
+    }
+
+    private void recordPolicyRule(PolicyRuleType policyRuleBean, boolean targetRule) {
+        if (ctx.isRecordingSubtree()) {
+            ctx.recordSubtreeContent(ctx.assignmentPath,
+                    new TargetSubtree.PolicyRuleContent(policyRuleBean, createRuleId(), targetRule));
         }
     }
 
     @NotNull
     private EvaluatedPolicyRuleImpl createEvaluatedPolicyRule(PolicyRuleType policyRuleBean) {
-        String ruleId = PolicyRuleTypeUtil.createId(segment.getSourceOid(), segment.getAssignmentId());
-        return new EvaluatedPolicyRuleImpl(policyRuleBean.clone(), ruleId, ctx.assignmentPath.clone(), ctx.evalAssignment);
+        return new EvaluatedPolicyRuleImpl(policyRuleBean.clone(), createRuleId(), ctx.assignmentPath.clone(), ctx.evalAssignment);
+    }
+
+    @NotNull
+    private String createRuleId() {
+        return PolicyRuleTypeUtil.createId(segment.getSourceOid(), segment.getAssignmentId());
     }
 
-    private boolean appliesDirectly(AssignmentPathImpl assignmentPath) {
+    static boolean appliesDirectly(AssignmentPathImpl assignmentPath) {
         assert !assignmentPath.isEmpty();
         // TODO what about deputy relation which does not increase summaryOrder?
         long zeroOrderCount = assignmentPath.getSegments().stream()
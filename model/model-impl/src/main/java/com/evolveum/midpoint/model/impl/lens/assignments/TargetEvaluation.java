@@ -7,6 +7,8 @@
 
 package com.evolveum.midpoint.model.impl.lens.assignments;
 
+import java.util.List;
+
 import com.evolveum.midpoint.prism.PrismContainer;
 import com.evolveum.midpoint.prism.PrismContainerDefinition;
 import com.evolveum.midpoint.prism.PrismContainerValue;
@@ -14,8 +16,11 @@ import com.evolveum.midpoint.prism.PrismContainerValue;
 import org.apache.commons.lang.BooleanUtils;
 import org.jetbrains.annotations.NotNull;
 
+import com.evolveum.midpoint.model.api.ModelExecuteOptions;
 import com.evolveum.midpoint.model.common.ArchetypeManager;
+import com.evolveum.midpoint.model.impl.lens.LensFocusContext;
 import com.evolveum.midpoint.model.impl.lens.LensUtil;
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.schema.internals.InternalMonitor;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.*;
@@ -70,6 +75,7 @@ public class TargetEvaluation<AH extends AssignmentHolderType> extends AbstractE
         assert assignmentOverallConditionState.isNotAllFalse();
         assert segment.isAssignmentActive() || segment.direct;
         checkIfAlreadyEvaluated();
+        checkSubtreeCacheability();
 
         if (ctx.ae.evaluatedAssignmentTargetCache.canSkip(segment, ctx.primaryAssignmentMode)) {
             LOGGER.trace("Skipping evaluation of segment {} because it is idempotent and we have seen the target before", segment);
@@ -124,6 +130,21 @@ public class TargetEvaluation<AH extends AssignmentHolderType> extends AbstractE
 
         collectEvaluatedAssignmentTarget();
 
+        EvaluatedTargetSubtreeCache.Key subtreeKey = createSubtreeCacheKey();
+        if (subtreeKey == null) {
+            evaluateSubtree();
+        } else if (!replayCachedSubtree(subtreeKey)) {
+            evaluateAndCacheSubtree(subtreeKey);
+        }
+    }
+
+    /**
+     * Evaluates everything "below" the target: its assignments, inducements and payload.
+     */
+    private void evaluateSubtree()
+            throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException, SecurityViolationException,
+            ConfigurationException, CommunicationException, PolicyViolationException {
+
         // we need to evaluate assignments also for non-valid targets, because of target policy rules
         // ... but only for direct ones!
         if (targetActivity.targetActive || segment.direct) {
@@ -161,6 +182,118 @@ public class TargetEvaluation<AH extends AssignmentHolderType> extends AbstractE
         }
     }
 
+    /**
+     * Returns the key for {@link EvaluatedTargetSubtreeCache} if the subtree of this target can be cached.
+     * The subtree must be active and unconditional as a whole and must not depend on limitations
+     * in the assignment to the target.
+     */
+    private EvaluatedTargetSubtreeCache.Key createSubtreeCacheKey() {
+        EvaluatedTargetSubtreeCache cache = ctx.ae.targetSubtreeCache;
+        if (cache == null || !cache.isEnabled()
+                || !(target instanceof AbstractRoleType)
+                || !targetActivity.pathAndTargetActive
+                || !targetOverallConditionState.isAllTrue()
+                || getSubtreeNotCacheableReason() != null) {
+            return null;
+        }
+        AssignmentType assignment = segment.getAssignment(ctx.evaluateOld);
+        if (assignment == null || assignment.getLimitTargetContent() != null) {
+            return null;
+        }
+        LensFocusContext<AH> focusContext = ctx.ae.lensContext.getFocusContext();
+        if (focusContext == null) {
+            return null;
+        }
+        PrismObject<AH> focus = focusContext.getObjectNew() != null ? focusContext.getObjectNew() : focusContext.getObjectCurrent();
+        if (focus == null) {
+            return null;
+        }
+        return new EvaluatedTargetSubtreeCache.Key(
+                target.getOid(),
+                target.getVersion(),
+                segment.relation,
+                segment.getEvaluationOrder(),
+                segment.getEvaluationOrderForTarget(),
+                ctx.ae.lensContext.getFocusClass(),
+                focus.asObjectable().getLifecycleState(),
+                ctx.ae.focusStateModel,
+                List.of(segment.isMatchingOrder,
+                        segment.isMatchingOrderForTarget,
+                        segment.direct,
+                        segment.isArchetypeHierarchy(),
+                        Util.shouldCollectMembership(segment),
+                        ctx.assignmentPath.containsDelegation(ctx.evaluateOld, ctx.ae.relationRegistry),
+                        ctx.evaluateOld,
+                        Util.isChanged(ctx.primaryAssignmentMode),
+                        ModelExecuteOptions.isEvaluateAllAssignmentRelationsOnRecompute(ctx.ae.lensContext.getOptions()),
+                        ctx.ae.loginMode));
+    }
+
+    private boolean replayCachedSubtree(EvaluatedTargetSubtreeCache.Key key) {
+        TargetSubtree subtree = ctx.ae.targetSubtreeCache.get(key);
+        if (subtree == null || !subtree.isApplicableTo(ctx.assignmentPath)) {
+            return false;
+        }
+        LOGGER.trace("Using cached subtree for {}: {}", segment, subtree);
+        subtree.replay(ctx);
+        return true;
+    }
+
+    private void evaluateAndCacheSubtree(EvaluatedTargetSubtreeCache.Key key)
+            throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException, SecurityViolationException,
+            ConfigurationException, CommunicationException, PolicyViolationException {
+        EvaluatedTargetSubtreeCache cache = ctx.ae.targetSubtreeCache;
+        TargetSubtree.Recording recording =
+                new TargetSubtree.Recording(ctx.assignmentPath.size() - 1, cache.getGeneration());
+        recording.addTarget(target.getOid());
+        ctx.startSubtreeRecording(recording);
+        try {
+            evaluateSubtree();
+        } finally {
+            ctx.stopSubtreeRecording(recording);
+        }
+
+        if (recording.getNotCacheableReason() != null) {
+            LOGGER.trace("Not caching subtree for {}: {}", segment, recording.getNotCacheableReason());
+            return;
+        }
+        TargetSubtree subtree = recording.toSubtree();
+        if (subtree.isApplicableTo(ctx.assignmentPath)) {
+            cache.put(key, subtree, recording.getGeneration());
+        }
+    }
+
+    /**
+     * Marks enclosing subtrees being recorded for {@link EvaluatedTargetSubtreeCache} as not cacheable,
+     * if this target depends on something else than the subtree itself.
+     */
+    private void checkSubtreeCacheability() {
+        if (ctx.isRecordingSubtree()) {
+            String reason = getSubtreeNotCacheableReason();
+            if (reason != null) {
+                ctx.markSubtreeNotCacheable(reason);
+            } else if (target instanceof AbstractRoleType && ((AbstractRoleType) target).getCondition() != null) {
+                ctx.markSubtreeNotCacheable("role condition");
+            }
+        }
+    }
+
+    private String getSubtreeNotCacheableReason() {
+        if (target instanceof AbstractRoleType) {
+            IdempotenceType idempotence = ((AbstractRoleType) target).getIdempotence();
+            if (idempotence != null && idempotence != IdempotenceType.NONE) {
+                return "idempotent role";
+            }
+        }
+        if (target instanceof FocusType && Util.hasValidityConstraints(((FocusType) target).getActivation())) {
+            return "role validity";
+        }
+        if (target instanceof OrgType && BooleanUtils.isTrue(((OrgType) target).isTenant())) {
+            return "tenant";
+        }
+        return null;
+    }
+
     private void evaluateAssignments() throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException,
             PolicyViolationException, SecurityViolationException, ConfigurationException, CommunicationException {
         for (AssignmentType assignment : target.getAssignment()) {
@@ -223,6 +356,11 @@ public class TargetEvaluation<AH extends AssignmentHolderType> extends AbstractE
                 segment.assignment,
                 targetActivity.pathAndTargetActive);
         ctx.evalAssignment.addRole(evalAssignmentTarget, targetOverallConditionState.getAbsoluteRelativityMode()); // TODO absolute or relative?
+        if (ctx.isRecordingSubtree()) {
+            ctx.recordSubtreeContent(ctx.assignmentPath, new TargetSubtree.RoleContent(
+                    target.asPrismObject(), segment.isMatchingOrder, segment.assignment,
+                    targetActivity.pathAndTargetActive, targetOverallConditionState.getAbsoluteRelativityMode()));
+        }
     }
 
     private void determineTargetActivity() throws ConfigurationException {
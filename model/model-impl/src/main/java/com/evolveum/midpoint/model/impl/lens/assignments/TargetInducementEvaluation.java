@@ -72,6 +72,11 @@ class TargetInducementEvaluation<AH extends AssignmentHolderType> extends Abstra
             return;
         }
 
+        if (ctx.isRecordingSubtree() && !hasDefaultOrder()) {
+            // order adjustment can look at the path above the subtree
+            ctx.markSubtreeNotCacheable("inducement order");
+        }
+
         boolean nextIsMatchingOrder = segment.getEvaluationOrder().matches(inducement.getOrder(), inducement.getOrderConstraint());
         boolean nextIsMatchingOrderForTarget = segment.getEvaluationOrderForTarget().matches(inducement.getOrder(), inducement.getOrderConstraint());
 
@@ -108,6 +113,11 @@ class TargetInducementEvaluation<AH extends AssignmentHolderType> extends Abstra
         new PathSegmentEvaluation<>(nextSegment, ctx, result).evaluate();
     }
 
+    private boolean hasDefaultOrder() {
+        Integer order = inducement.getOrder();
+        return (order == null || order == 1) && inducement.getOrderConstraint().isEmpty();
+    }
+
     private boolean isInducementApplicableToFocusType(QName inducementFocusType) throws SchemaException {
         if (inducementFocusType == null) {
             return true;
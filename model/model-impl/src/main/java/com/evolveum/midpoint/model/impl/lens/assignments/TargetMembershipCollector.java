@@ -53,27 +53,65 @@ class TargetMembershipCollector {
     private void collect(PrismReferenceValue valueToAdd, Class<? extends ObjectType> targetClass, QName relation,
             Object targetDesc, EvaluationContext<?> ctx) {
         if (ctx.assignmentPath.containsDelegation(ctx.evaluateOld, ctx.ae.relationRegistry)) {
-            addIfNotThere(ctx.evalAssignment.getDelegationRefVals(), valueToAdd, "delegationRef", targetDesc);
+            record(RefKind.DELEGATION, valueToAdd, targetDesc);
         } else {
             if (AbstractRoleType.class.isAssignableFrom(targetClass)) {
-                addIfNotThere(ctx.evalAssignment.getMembershipRefVals(), valueToAdd, "membershipRef", targetDesc);
+                record(RefKind.MEMBERSHIP, valueToAdd, targetDesc);
             }
         }
         if (OrgType.class.isAssignableFrom(targetClass) && ctx.ae.relationRegistry.isStoredIntoParentOrgRef(relation)) {
-            addIfNotThere(ctx.evalAssignment.getOrgRefVals(), valueToAdd, "orgRef", targetDesc);
+            record(RefKind.ORG, valueToAdd, targetDesc);
         }
         if (ArchetypeType.class.isAssignableFrom(targetClass)) {
-            addIfNotThere(ctx.evalAssignment.getArchetypeRefVals(), valueToAdd, "archetypeRef", targetDesc);
+            record(RefKind.ARCHETYPE, valueToAdd, targetDesc);
         }
     }
 
-    private void addIfNotThere(Collection<PrismReferenceValue> collection, PrismReferenceValue valueToAdd, String collectionName,
-            Object targetDesc) {
+    private void record(RefKind kind, PrismReferenceValue valueToAdd, Object targetDesc) {
+        if (ctx.isRecordingSubtree()) {
+            ctx.recordSubtreeContent(ctx.assignmentPath, new TargetSubtree.MembershipContent(kind, valueToAdd));
+        }
+        addIfNotThere(kind, valueToAdd, targetDesc);
+    }
+
+    void addIfNotThere(RefKind kind, PrismReferenceValue valueToAdd, Object targetDesc) {
+        Collection<PrismReferenceValue> collection = kind.getCollection(ctx.evalAssignment);
         if (!collection.contains(valueToAdd)) {
-            LOGGER.trace("Adding target {} to {}", targetDesc, collectionName);
+            LOGGER.trace("Adding target {} to {}", targetDesc, kind.collectionName);
             collection.add(valueToAdd);
         } else {
-            LOGGER.trace("Would add target {} to {}, but it's already there", targetDesc, collectionName);
+            LOGGER.trace("Would add target {} to {}, but it's already there", targetDesc, kind.collectionName);
+        }
+    }
+
+    /**
+     * Reference collections in evaluated assignment that we collect.
+     */
+    enum RefKind {
+        DELEGATION("delegationRef"),
+        MEMBERSHIP("membershipRef"),
+        ORG("orgRef"),
+        ARCHETYPE("archetypeRef");
+
+        private final String collectionName;
+
+        RefKind(String collectionName) {
+            this.collectionName = collectionName;
+        }
+
+        private Collection<PrismReferenceValue> getCollection(EvaluatedAssignmentImpl<?> evalAssignment) {
+            switch (this) {
+                case DELEGATION:
+                    return evalAssignment.getDelegationRefVals();
+                case MEMBERSHIP:
+                    return evalAssignment.getMembershipRefVals();
+                case ORG:
+                    return evalAssignment.getOrgRefVals();
+                case ARCHETYPE:
+                    return evalAssignment.getArchetypeRefVals();
+                default:
+                    throw new AssertionError(this);
+            }
         }
     }
 }
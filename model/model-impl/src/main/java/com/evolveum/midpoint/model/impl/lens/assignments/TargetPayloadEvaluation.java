@@ -51,11 +51,20 @@ class TargetPayloadEvaluation<AH extends AssignmentHolderType> extends AbstractE
                     if (!ctx.evalAssignment.getAuthorizations().contains(authorization)) {
                         ctx.evalAssignment.addAuthorization(authorization);
                     }
+                    if (ctx.isRecordingSubtree()) {
+                        ctx.recordSubtreeContent(ctx.assignmentPath,
+                                new TargetSubtree.AuthorizationContent(authorizationBean, target.toString()));
+                    }
                 }
                 AdminGuiConfigurationType adminGuiConfiguration = ((AbstractRoleType) target).getAdminGuiConfiguration();
-                if (adminGuiConfiguration != null &&
-                        !ctx.evalAssignment.getAdminGuiConfigurations().contains(adminGuiConfiguration)) {
-                    ctx.evalAssignment.addAdminGuiConfiguration(adminGuiConfiguration);
+                if (adminGuiConfiguration != null) {
+                    if (!ctx.evalAssignment.getAdminGuiConfigurations().contains(adminGuiConfiguration)) {
+                        ctx.evalAssignment.addAdminGuiConfiguration(adminGuiConfiguration);
+                    }
+                    if (ctx.isRecordingSubtree()) {
+                        ctx.recordSubtreeContent(ctx.assignmentPath,
+                                new TargetSubtree.AdminGuiConfigurationContent(adminGuiConfiguration));
+                    }
                 }
             }
         }
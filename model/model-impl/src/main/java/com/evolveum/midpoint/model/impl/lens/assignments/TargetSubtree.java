@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2020 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl.lens.assignments;
+
+import java.util.*;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.model.impl.lens.EvaluatedPolicyRuleImpl;
+import com.evolveum.midpoint.model.impl.lens.construction.AssignedConstructionBuilder;
+import com.evolveum.midpoint.model.impl.lens.construction.PersonaConstructionBuilder;
+import com.evolveum.midpoint.prism.OriginType;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.delta.PlusMinusZero;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Recorded content that evaluation of a target (role) subtree added to the evaluated assignment:
+ * evaluated targets, constructions, policy rules, membership information, authorizations and GUI configuration.
+ * See {@link EvaluatedTargetSubtreeCache}.
+ *
+ * Assignment paths are stored relative to the segment of the target, i.e. only the segments below it are kept.
+ * When replaying, they are appended to the current path. Objects that depend on the evaluation (e.g. constructions,
+ * that refer to the lens context) are created anew on each replay.
+ */
+class TargetSubtree {
+
+    @NotNull private final List<RecordedContent> contents;
+
+    /** OIDs of all targets (including the subtree root) the subtree evaluation has seen. */
+    @NotNull private final Set<String> targetOids;
+
+    private TargetSubtree(@NotNull List<RecordedContent> contents, @NotNull Set<String> targetOids) {
+        this.contents = contents;
+        this.targetOids = targetOids;
+    }
+
+    boolean containsTarget(String oid) {
+        return targetOids.contains(oid);
+    }
+
+    /**
+     * The subtree can be used only if the path above it does not contain any of its targets:
+     * otherwise the cycle detection would stop at a different place.
+     */
+    boolean isApplicableTo(@NotNull AssignmentPathImpl path) {
+        List<AssignmentPathSegmentImpl> segments = path.getSegments();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            ObjectType target = segments.get(i).getTarget();
+            if (target != null && targetOids.contains(target.getOid())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays the content for the target segment that is the last one in the current path.
+     */
+    void replay(@NotNull EvaluationContext<?> ctx) {
+        for (RecordedContent recorded : contents) {
+            AssignmentPathImpl path = ctx.assignmentPath.clone();
+            recorded.pathSuffix.forEach(path::add);
+            recorded.content.apply(ctx, path);
+            ctx.recordSubtreeContent(path, recorded.content);
+        }
+        targetOids.forEach(ctx::recordSubtreeTarget);
+    }
+
+    @Override
+    public String toString() {
+        return "TargetSubtree{" +
+                "contents=" + contents.size() +
+                ", targets=" + targetOids.size() +
+                '}';
+    }
+
+    private static class RecordedContent {
+        @NotNull private final List<AssignmentPathSegmentImpl> pathSuffix;
+        @NotNull private final Content content;
+
+        private RecordedContent(@NotNull List<AssignmentPathSegmentImpl> pathSuffix, @NotNull Content content) {
+            this.pathSuffix = pathSuffix;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Recording of a subtree evaluation that is in progress.
+     */
+    static class Recording {
+
+        /** Index of the target segment in the assignment path. */
+        private final int rootIndex;
+        private final long generation;
+
+        private final List<RecordedContent> contents = new ArrayList<>();
+        private final Set<String> targetOids = new HashSet<>();
+        private String notCacheableReason;
+
+        Recording(int rootIndex, long generation) {
+            this.rootIndex = rootIndex;
+            this.generation = generation;
+        }
+
+        long getGeneration() {
+            return generation;
+        }
+
+        void add(@NotNull AssignmentPathImpl path, @NotNull Content content) {
+            List<AssignmentPathSegmentImpl> segments = path.getSegments();
+            contents.add(new RecordedContent(
+                    new ArrayList<>(segments.subList(rootIndex + 1, segments.size())), content));
+        }
+
+        void addTarget(String oid) {
+            targetOids.add(oid);
+        }
+
+        void markNotCacheable(String reason) {
+            if (notCacheableReason == null) {
+                notCacheableReason = reason;
+            }
+        }
+
+        String getNotCacheableReason() {
+            return notCacheableReason;
+        }
+
+        @NotNull TargetSubtree toSubtree() {
+            return new TargetSubtree(List.copyOf(contents), Set.copyOf(targetOids));
+        }
+    }
+
+    /**
+     * A piece of content added to the evaluated assignment. Must not refer to anything specific to the evaluation.
+     */
+    abstract static class Content {
+
+        /**
+         * Adds the content to the evaluated assignment in the context.
+         *
+         * @param path Full path to the content (i.e. current path and the recorded suffix).
+         */
+        abstract <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path);
+    }
+
+    static class RoleContent extends Content {
+        @NotNull private final PrismObject<? extends AssignmentHolderType> target;
+        private final boolean evaluateConstructions;
+        private final AssignmentType assignment;
+        private final boolean valid;
+        private final PlusMinusZero mode;
+
+        RoleContent(@NotNull PrismObject<? extends AssignmentHolderType> target, boolean evaluateConstructions,
+                AssignmentType assignment, boolean valid, PlusMinusZero mode) {
+            // The target object is shared by evaluations of other focus objects, so it must not change.
+            this.target = target.isImmutable() ? target : target.createImmutableClone();
+            this.evaluateConstructions = evaluateConstructions;
+            this.assignment = assignment;
+            this.valid = valid;
+            this.mode = mode;
+        }
+
+        @Override
+        <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path) {
+            ctx.evalAssignment.addRole(
+                    new EvaluatedAssignmentTargetImpl(target, evaluateConstructions, path, assignment, valid), mode);
+        }
+    }
+
+    static class ConstructionContent extends Content {
+        @NotNull private final ConstructionType constructionBean;
+        @NotNull private final AssignmentHolderType source;
+        private final boolean valid;
+        private final PlusMinusZero mode;
+
+        ConstructionContent(@NotNull ConstructionType constructionBean, @NotNull AssignmentHolderType source,
+                boolean valid, PlusMinusZero mode) {
+            this.constructionBean = constructionBean;
+            this.source = source;
+            this.valid = valid;
+            this.mode = mode;
+        }
+
+        @Override
+        <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path) {
+            ctx.evalAssignment.addConstruction(
+                    new AssignedConstructionBuilder<AH>()
+                            .constructionBean(constructionBean)
+                            .assignmentPath(path)
+                            .source(source)
+                            .lensContext(ctx.ae.lensContext)
+                            .now(ctx.ae.now)
+                            .originType(OriginType.ASSIGNMENTS)
+                            .valid(valid)
+                            .build(),
+                    mode);
+        }
+    }
+
+    static class PersonaConstructionContent extends Content {
+        @NotNull private final PersonaConstructionType constructionBean;
+        @NotNull private final AssignmentHolderType source;
+        private final boolean valid;
+        private final PlusMinusZero mode;
+
+        PersonaConstructionContent(@NotNull PersonaConstructionType constructionBean, @NotNull AssignmentHolderType source,
+                boolean valid, PlusMinusZero mode) {
+            this.constructionBean = constructionBean;
+            this.source = source;
+            this.valid = valid;
+            this.mode = mode;
+        }
+
+        @Override
+        <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path) {
+            ctx.evalAssignment.addPersonaConstruction(
+                    new PersonaConstructionBuilder<AH>()
+                            .constructionBean(constructionBean)
+                            .assignmentPath(path)
+                            .source(source)
+                            .lensContext(ctx.ae.lensContext)
+                            .now(ctx.ae.now)
+                            .originType(OriginType.ASSIGNMENTS)
+                            .valid(valid)
+                            .build(),
+                    mode);
+        }
+    }
+
+    static class PolicyRuleContent extends Content {
+        @NotNull private final PolicyRuleType policyRuleBean;
+        @NotNull private final String ruleId;
+        private final boolean targetRule;
+
+        PolicyRuleContent(@NotNull PolicyRuleType policyRuleBean, @NotNull String ruleId, boolean targetRule) {
+            this.policyRuleBean = policyRuleBean;
+            this.ruleId = ruleId;
+            this.targetRule = targetRule;
+        }
+
+        @Override
+        <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path) {
+            EvaluatedPolicyRuleImpl policyRule =
+                    new EvaluatedPolicyRuleImpl(policyRuleBean.clone(), ruleId, path, ctx.evalAssignment);
+            if (!targetRule) {
+                ctx.evalAssignment.addFocusPolicyRule(policyRule);
+            } else if (PayloadEvaluation.appliesDirectly(path)) {
+                ctx.evalAssignment.addThisTargetPolicyRule(policyRule);
+            } else {
+                ctx.evalAssignment.addOtherTargetPolicyRule(policyRule);
+            }
+        }
+    }
+
+    static class MembershipContent extends Content {
+        @NotNull private final TargetMembershipCollector.RefKind kind;
+        private final PrismObject<?> object;
+        private final String oid;
+        private final QName targetType;
+        private final QName relation;
+        private final PolyString targetName;
+
+        /** The value is not stored, as it is owned by the evaluated assignment. */
+        MembershipContent(@NotNull TargetMembershipCollector.RefKind kind, @NotNull PrismReferenceValue value) {
+            this.kind = kind;
+            this.object = value.getObject();
+            this.oid = value.getOid();
+            this.targetType = value.getTargetType();
+            this.relation = value.getRelation();
+            this.targetName = value.getTargetName();
+        }
+
+        @Override
+        <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path) {
+            PrismReferenceValue value = ctx.ae.prismContext.itemFactory().createReferenceValue();
+            if (object != null) {
+                value.setObject(object);
+            } else {
+                value.setOid(oid);
+            }
+            value.setTargetType(targetType);
+            value.setRelation(relation);
+            value.setTargetName(targetName);
+            ctx.membershipCollector.addIfNotThere(kind, value, value);
+        }
+    }
+
+    static class AuthorizationContent extends Content {
+        @NotNull private final AuthorizationType authorizationBean;
+        private final String sourceDescription;
+
+        AuthorizationContent(@NotNull AuthorizationType authorizationBean, String sourceDescription) {
+            this.authorizationBean = authorizationBean;
+            this.sourceDescription = sourceDescription;
+        }
+
+        @Override
+        <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path) {
+            Authorization authorization = new Authorization(authorizationBean);
+            authorization.setSourceDescription(sourceDescription);
+            if (!ctx.evalAssignment.getAuthorizations().contains(authorization)) {
+                ctx.evalAssignment.addAuthorization(authorization);
+            }
+        }
+    }
+
+    static class AdminGuiConfigurationContent extends Content {
+        @NotNull private final AdminGuiConfigurationType adminGuiConfiguration;
+
+        AdminGuiConfigurationContent(@NotNull AdminGuiConfigurationType adminGuiConfiguration) {
+            this.adminGuiConfiguration = adminGuiConfiguration;
+        }
+
+        @Override
+        <AH extends AssignmentHolderType> void apply(@NotNull EvaluationContext<AH> ctx, @NotNull AssignmentPathImpl path) {
+            if (!ctx.evalAssignment.getAdminGuiConfigurations().contains(adminGuiConfiguration)) {
+                ctx.evalAssignment.addAdminGuiConfiguration(adminGuiConfiguration);
+            }
+        }
+    }
+}
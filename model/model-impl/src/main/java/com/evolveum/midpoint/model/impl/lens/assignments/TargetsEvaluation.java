@@ -82,6 +82,10 @@ class TargetsEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
             return;
         }
 
+        if (segment.assignment.getTargetRef().getOid() == null) {
+            ctx.markSubtreeNotCacheable("target filter");
+        }
+
         if (ctx.ae.loginMode && !ctx.ae.relationRegistry.isProcessedOnLogin(segment.relation)) {
             LOGGER.trace("Skipping processing of assignment target {} because relation {} is configured for login skip",
                     segment.assignment.getTargetRef().getOid(), segment.relation);
@@ -106,6 +110,7 @@ class TargetsEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
         targets.addAll(getTargets());
         LOGGER.trace("Targets in {}, assignment ID {}: {}", segment.source, segment.assignment.getId(), targets);
         for (PrismObject<? extends ObjectType> target : targets) {
+            recordSubtreeTarget(target);
             if (hasCycle(target)) {
                 continue;
             }
@@ -118,6 +123,16 @@ class TargetsEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
         }
     }
 
+    private void recordSubtreeTarget(PrismObject<? extends ObjectType> target) {
+        if (ctx.isRecordingSubtree()) {
+            ctx.recordSubtreeTarget(target.getOid());
+            if (!target.canRepresent(AbstractRoleType.class)) {
+                // only roles are watched for invalidation
+                ctx.markSubtreeNotCacheable("non-role target");
+            }
+        }
+    }
+
     private void addSkippedTargetsToMembershipLists()
             throws SchemaException, ExpressionEvaluationException, CommunicationException, ConfigurationException,
             SecurityViolationException {
@@ -192,6 +207,7 @@ class TargetsEvaluation<AH extends AssignmentHolderType> extends AbstractEvaluat
             LOGGER.error(ex.getMessage()+" in assignment target reference in "+segment.sourceDescription,ex);
             // For OrgType references we trigger the reconciliation (see MID-2242)
             ctx.evalAssignment.setForceRecon(true);
+            ctx.markSubtreeNotCacheable("unresolved target");
             return Collections.emptyList();
         } catch (SchemaException | ExpressionEvaluationException | CommunicationException | ConfigurationException |
                 SecurityViolationException | RuntimeException e) {
@@ -15,6 +15,7 @@ import com.evolveum.midpoint.prism.util.ItemDeltaItem;
 import com.evolveum.midpoint.schema.RelationRegistry;
 import com.evolveum.midpoint.schema.SchemaService;
 import com.evolveum.midpoint.schema.util.FocusTypeUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentSelectorType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
@@ -56,6 +57,13 @@ class Util {
         }
     }
 
+    /**
+     * Returns true if the validity depends on the current time.
+     */
+    static boolean hasValidityConstraints(ActivationType activation) {
+        return activation != null && (activation.getValidFrom() != null || activation.getValidTo() != null);
+    }
+
     private static boolean isDeputyDelegation(AssignmentType assignmentType, RelationRegistry relationRegistry) {
         ObjectReferenceType targetRef = assignmentType.getTargetRef();
         return targetRef != null && relationRegistry.isDelegation(targetRef.getRelation());
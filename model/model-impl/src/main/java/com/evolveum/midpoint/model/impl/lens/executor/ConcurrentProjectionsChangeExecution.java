@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.lens.executor;
+
+import java.util.*;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.model.impl.ModelBeans;
+import com.evolveum.midpoint.model.impl.lens.*;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Executes changes of all projections (in the current wave), running the independent ones concurrently.
+ *
+ * A projection is considered independent if it has no dependencies and its resource has no higher-order contexts
+ * (in the current wave). Independent projections are grouped by resource. The groups are executed concurrently
+ * using {@link ProjectionWorkerPool}, projections in each group one after another. All the other projections are
+ * then executed sequentially, in their original order.
+ *
+ * As the executions share the context and the task, only the resource operations themselves run in parallel,
+ * see {@link ProjectionExecutionGate}. Operation results of the executions are collected separately and then added
+ * to the parent result in the original order of the projections.
+ */
+public class ConcurrentProjectionsChangeExecution<O extends ObjectType> {
+
+    /** For the time being we keep the parent logger name. */
+    private static final Trace LOGGER = TraceManager.getTrace(ChangeExecutor.class);
+
+    private static final String OP_EXECUTE_CONCURRENTLY =
+            ConcurrentProjectionsChangeExecution.class.getName() + ".executeConcurrently";
+
+    @NotNull private final LensContext<O> context;
+    private final int threads;
+    @NotNull private final Task task;
+    @NotNull private final ModelBeans b;
+
+    @NotNull private final ProjectionExecutionGate gate = new ProjectionExecutionGate();
+
+    /** Executions of independent projections. Keyed by context identity, as the contexts change while being executed. */
+    @NotNull private final Map<LensProjectionContext, Execution> concurrentExecutions = new IdentityHashMap<>();
+
+    private boolean restartRequested;
+
+    public ConcurrentProjectionsChangeExecution(@NotNull LensContext<O> context, int threads, @NotNull Task task,
+            @NotNull ModelBeans modelBeans) {
+        this.context = context;
+        this.threads = threads;
+        this.task = task;
+        this.b = modelBeans;
+    }
+
+    public void execute(OperationResult result) throws SchemaException, ObjectNotFoundException, CommunicationException,
+            ObjectAlreadyExistsException, PolicyViolationException, SecurityViolationException,
+            ConfigurationException, ExpressionEvaluationException {
+
+        List<LensProjectionContext> projectionContexts = new ArrayList<>(context.getProjectionContexts());
+
+        Collection<List<LensProjectionContext>> groups = groupIndependentProjections(projectionContexts);
+        if (groups.size() > 1) {
+            executeConcurrently(groups, projectionContexts, result);
+        } else {
+            LOGGER.trace("Not enough independent projections to be executed concurrently: {}", groups.size());
+        }
+
+        for (LensProjectionContext projCtx : projectionContexts) {
+            if (!concurrentExecutions.containsKey(projCtx)) {
+                context.checkAbortRequested();
+
+                ProjectionChangeExecution<O> execution = new ProjectionChangeExecution<>(context, projCtx, task, b);
+                execution.execute(result);
+
+                restartRequested = restartRequested || execution.isRestartRequested();
+            }
+        }
+    }
+
+    /**
+     * Returns independent projections of the current wave, grouped by resource.
+     */
+    private Collection<List<LensProjectionContext>> groupIndependentProjections(
+            List<LensProjectionContext> projectionContexts) {
+        Set<String> excludedResources = new HashSet<>();
+        List<LensProjectionContext> candidates = new ArrayList<>();
+        for (LensProjectionContext projCtx : projectionContexts) {
+            if (projCtx.getWave() != context.getExecutionWave() || projCtx.isCompleted()) {
+                continue;
+            }
+            String resourceOid = projCtx.getResourceOid();
+            if (resourceOid == null) {
+                continue;
+            }
+            if (projCtx.isHigherOrder() || !projCtx.getDependencies().isEmpty()) {
+                excludedResources.add(resourceOid);
+            } else {
+                candidates.add(projCtx);
+            }
+        }
+
+        Map<String, List<LensProjectionContext>> groups = new LinkedHashMap<>();
+        for (LensProjectionContext candidate : candidates) {
+            String resourceOid = candidate.getResourceOid();
+            if (!excludedResources.contains(resourceOid)) {
+                groups.computeIfAbsent(resourceOid, k -> new ArrayList<>())
+                        .add(candidate);
+            }
+        }
+        return groups.values();
+    }
+
+    private void executeConcurrently(Collection<List<LensProjectionContext>> groups,
+            List<LensProjectionContext> projectionContexts, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, CommunicationException, ObjectAlreadyExistsException,
+            PolicyViolationException, SecurityViolationException, ConfigurationException, ExpressionEvaluationException {
+
+        context.checkAbortRequested();
+
+        List<Runnable> actions = new ArrayList<>();
+        for (List<LensProjectionContext> group : groups) {
+            List<Execution> groupExecutions = new ArrayList<>();
+            for (LensProjectionContext projCtx : group) {
+                Execution execution = new Execution(projCtx);
+                concurrentExecutions.put(projCtx, execution);
+                groupExecutions.add(execution);
+            }
+            actions.add(() -> groupExecutions.forEach(Execution::run));
+        }
+        LOGGER.trace("Executing {} independent projection(s) on {} resource(s) using at most {} threads",
+                concurrentExecutions.size(), groups.size(), threads);
+
+        try {
+            b.projectionWorkerPool.executeAll(actions, threads);
+        } finally {
+            invalidateLocalCaches();
+        }
+
+        Throwable firstException = null;
+        for (LensProjectionContext projCtx : projectionContexts) {
+            Execution execution = concurrentExecutions.get(projCtx);
+            if (execution == null) {
+                continue;
+            }
+            for (OperationResult subresult : execution.result.getSubresults()) {
+                result.addSubresult(subresult);
+            }
+            restartRequested = restartRequested || execution.projectionExecution.isRestartRequested();
+            if (firstException == null) {
+                firstException = execution.exception;
+            }
+        }
+        if (firstException != null) {
+            throw rethrow(firstException);
+        }
+    }
+
+    /**
+     * The focus and the shadows were (most probably) modified in other threads. Such modifications do not
+     * invalidate the thread-local repository caches of this thread, so we have to do that ourselves.
+     */
+    private void invalidateLocalCaches() {
+        LensFocusContext<O> focusContext = context.getFocusContext();
+        if (focusContext != null && focusContext.getOid() != null) {
+            b.repositoryCache.invalidateLocalCacheEntries(focusContext.getObjectTypeClass(), focusContext.getOid());
+        }
+        for (LensProjectionContext projCtx : concurrentExecutions.keySet()) {
+            if (projCtx.getOid() != null) {
+                b.repositoryCache.invalidateLocalCacheEntries(ShadowType.class, projCtx.getOid());
+            }
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t)
+            throws SchemaException, ObjectNotFoundException, CommunicationException, ObjectAlreadyExistsException,
+            PolicyViolationException, SecurityViolationException, ConfigurationException, ExpressionEvaluationException {
+        if (t instanceof SchemaException) {
+            throw (SchemaException) t;
+        } else if (t instanceof ObjectNotFoundException) {
+            throw (ObjectNotFoundException) t;
+        } else if (t instanceof CommunicationException) {
+            throw (CommunicationException) t;
+        } else if (t instanceof ObjectAlreadyExistsException) {
+            throw (ObjectAlreadyExistsException) t;
+        } else if (t instanceof PolicyViolationException) {
+            throw (PolicyViolationException) t;
+        } else if (t instanceof SecurityViolationException) {
+            throw (SecurityViolationException) t;
+        } else if (t instanceof ConfigurationException) {
+            throw (ConfigurationException) t;
+        } else if (t instanceof ExpressionEvaluationException) {
+            throw (ExpressionEvaluationException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            throw new SystemException(t);
+        }
+    }
+
+    public boolean isRestartRequested() {
+        return restartRequested;
+    }
+
+    /** Execution of a single independent projection, along with its outcome. */
+    private class Execution {
+
+        @NotNull private final ProjectionChangeExecution<O> projectionExecution;
+        @NotNull private final OperationResult result = new OperationResult(OP_EXECUTE_CONCURRENTLY);
+        private Throwable exception;
+
+        private Execution(@NotNull LensProjectionContext projCtx) {
+            this.projectionExecution = new ProjectionChangeExecution<>(context, projCtx, task, b, gate);
+        }
+
+        private void run() {
+            gate.enter();
+            try {
+                context.checkAbortRequested();
+                projectionExecution.execute(result);
+            } catch (Throwable t) {
+                exception = t;
+            } finally {
+                gate.exit();
+            }
+        }
+    }
+}
@@ -100,6 +100,9 @@ class DeltaExecution<O extends ObjectType, E extends ObjectType> {
     @NotNull private final Task task;
     private final ModelBeans b;
 
+    /** Present if the execution runs concurrently with other projection executions. */
+    @Nullable private final ProjectionExecutionGate gate;
+
     /**
      * Estimate of the object after modification. Or null if the object was deleted.
      *
@@ -123,6 +126,12 @@ class DeltaExecution<O extends ObjectType, E extends ObjectType> {
 
     DeltaExecution(@NotNull LensContext<O> context, @NotNull LensElementContext<E> elementContext, ObjectDelta<E> delta,
             ConflictResolutionType conflictResolution, @NotNull Task task, @NotNull ModelBeans modelBeans) {
+        this(context, elementContext, delta, conflictResolution, task, modelBeans, null);
+    }
+
+    DeltaExecution(@NotNull LensContext<O> context, @NotNull LensElementContext<E> elementContext, ObjectDelta<E> delta,
+            ConflictResolutionType conflictResolution, @NotNull Task task, @NotNull ModelBeans modelBeans,
+            @Nullable ProjectionExecutionGate gate) {
 
         this.context = context;
         this.elementContext = elementContext;
@@ -132,6 +141,7 @@ class DeltaExecution<O extends ObjectType, E extends ObjectType> {
                 ((LensProjectionContext) elementContext).getResource() : null;
         this.task = task;
         this.b = modelBeans;
+        this.gate = gate;
     }
 
     //region Main
@@ -491,12 +501,17 @@ class DeltaExecution<O extends ObjectType, E extends ObjectType> {
             scripts = null;
         }
 
-        ModelImplUtils.setRequestee(task, context);
+        ProjectionExecutionGate.setRequestee(gate, task, context);
         try {
             ProvisioningOperationOptions options = getProvisioningOptions();
-            return b.provisioningService.addObject(object, scripts, options, task, result);
+            ProjectionExecutionGate.open(gate);
+            try {
+                return b.provisioningService.addObject(object, scripts, options, task, result);
+            } finally {
+                ProjectionExecutionGate.close(gate);
+            }
         } finally {
-            ModelImplUtils.clearRequestee(task);
+            ProjectionExecutionGate.clearRequestee(gate, task);
         }
     }
 
@@ -599,11 +614,17 @@ class DeltaExecution<O extends ObjectType, E extends ObjectType> {
         } else {
             scripts = null;
         }
-        ModelImplUtils.setRequestee(task, context);
+        ProjectionExecutionGate.setRequestee(gate, task, context);
         try {
             ProvisioningOperationOptions options = getProvisioningOptions();
-            String updatedOid =
-                    b.provisioningService.modifyObject(objectClass, oid, delta.getModifications(), scripts, options, task, result);
+            String updatedOid;
+            ProjectionExecutionGate.open(gate);
+            try {
+                updatedOid = b.provisioningService.modifyObject(
+                        objectClass, oid, delta.getModifications(), scripts, options, task, result);
+            } finally {
+                ProjectionExecutionGate.close(gate);
+            }
             determineLivenessFromObject(objectToModify);
             return updatedOid;
         } catch (ObjectNotFoundException e) {
@@ -613,7 +634,7 @@ class DeltaExecution<O extends ObjectType, E extends ObjectType> {
             }
             throw e;
         } finally {
-            ModelImplUtils.clearRequestee(task);
+            ProjectionExecutionGate.clearRequestee(gate, task);
         }
     }
 
@@ -752,11 +773,16 @@ class DeltaExecution<O extends ObjectType, E extends ObjectType> {
         } else {
             scripts = null;
         }
-        ModelImplUtils.setRequestee(task, context);
+        ProjectionExecutionGate.setRequestee(gate, task, context);
         try {
-            return b.provisioningService.deleteObject(type, oid, options, scripts, task, result);
+            ProjectionExecutionGate.open(gate);
+            try {
+                return b.provisioningService.deleteObject(type, oid, options, scripts, task, result);
+            } finally {
+                ProjectionExecutionGate.close(gate);
+            }
         } finally {
-            ModelImplUtils.clearRequestee(task);
+            ProjectionExecutionGate.clearRequestee(gate, task);
         }
     }
     //endregion
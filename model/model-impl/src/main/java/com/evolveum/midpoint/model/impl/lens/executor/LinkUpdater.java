@@ -13,7 +13,6 @@ import com.evolveum.midpoint.model.api.context.SynchronizationIntent;
 import com.evolveum.midpoint.model.api.context.SynchronizationPolicyDecision;
 import com.evolveum.midpoint.model.impl.ModelBeans;
 import com.evolveum.midpoint.model.impl.lens.*;
-import com.evolveum.midpoint.model.impl.util.ModelImplUtils;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ChangeType;
@@ -80,6 +79,9 @@ class LinkUpdater<F extends FocusType> {
 
     @NotNull private final Task task;
 
+    /** Present if the execution runs concurrently with other projection executions. */
+    @Nullable private final ProjectionExecutionGate gate;
+
     // This is an attempt how it looks like if beans are declared explicitly for the class.
     // (An alternative would be to have single 'beans' field.)
     @NotNull private final PrismContext prismContext;
@@ -97,7 +99,7 @@ class LinkUpdater<F extends FocusType> {
 
     LinkUpdater(@NotNull LensContext<?> context, @NotNull LensFocusContext<F> focusContext,
             @NotNull LensProjectionContext projCtx, @Nullable ShadowLivenessState shadowLivenessState,
-            @NotNull Task task, @NotNull ModelBeans beans) {
+            @NotNull Task task, @NotNull ModelBeans beans, @Nullable ProjectionExecutionGate gate) {
 
         this.context = context;
         this.focusContext = focusContext;
@@ -105,6 +107,7 @@ class LinkUpdater<F extends FocusType> {
         this.projectionOid = projCtx.getOid();
         this.shadowLivenessState = shadowLivenessState;
         this.task = task;
+        this.gate = gate;
 
         this.prismContext = beans.prismContext;
         this.schemaService = beans.schemaService;
@@ -429,7 +432,7 @@ class LinkUpdater<F extends FocusType> {
                             projCtx.hasFullShadow() && TaskUtil.isExecute(task), now);
 
             try {
-                ModelImplUtils.setRequestee(task, focusContext);
+                ProjectionExecutionGate.setRequestee(gate, task, context);
                 ProvisioningOperationOptions options = ProvisioningOperationOptions.createCompletePostponed(false);
                 options.setDoNotDiscovery(true);
                 provisioningService.modifyObject(ShadowType.class, projectionOid, syncSituationDeltas, null,
@@ -441,7 +444,7 @@ class LinkUpdater<F extends FocusType> {
                 // log in the trace the message for the user..
                 LOGGER.debug("Situation in account could not be updated. Account not found on the resource.");
             } finally {
-                ModelImplUtils.clearRequestee(task);
+                ProjectionExecutionGate.clearRequestee(gate, task);
             }
         } catch (Exception ex) {
             result.recordFatalError(ex);
@@ -18,6 +18,7 @@ import com.evolveum.midpoint.provisioning.api.ShadowLivenessState;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.model.api.ProgressInformation;
 import com.evolveum.midpoint.model.api.context.SynchronizationIntent;
@@ -60,6 +61,9 @@ public class ProjectionChangeExecution<O extends ObjectType> {
     @NotNull private final Task task;
     @NotNull private final ModelBeans b;
 
+    /** Present if the execution runs concurrently with other projection executions. */
+    @Nullable private final ProjectionExecutionGate gate;
+
     /**
      * Delta to be executed. It is gradually updated as needed.
      */
@@ -72,10 +76,16 @@ public class ProjectionChangeExecution<O extends ObjectType> {
 
     public ProjectionChangeExecution(@NotNull LensContext<O> context, @NotNull LensProjectionContext projCtx, @NotNull Task task,
             @NotNull ModelBeans modelBeans) {
+        this(context, projCtx, task, modelBeans, null);
+    }
+
+    ProjectionChangeExecution(@NotNull LensContext<O> context, @NotNull LensProjectionContext projCtx, @NotNull Task task,
+            @NotNull ModelBeans modelBeans, @Nullable ProjectionExecutionGate gate) {
         this.context = context;
         this.projCtx = projCtx;
         this.task = task;
         this.b = modelBeans;
+        this.gate = gate;
     }
 
     public void execute(OperationResult parentResult) throws SchemaException, ObjectNotFoundException, CommunicationException,
@@ -103,7 +113,7 @@ public class ProjectionChangeExecution<O extends ObjectType> {
             context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
                     projCtx.getResourceShadowDiscriminator(), ENTERING));
 
-            ScriptExecutor<O> scriptExecutor = new ScriptExecutor<>(context, projCtx, task, b);
+            ScriptExecutor<O> scriptExecutor = new ScriptExecutor<>(context, projCtx, task, b, gate);
             scriptExecutor.executeReconciliationScripts(BeforeAfterType.BEFORE, result);
 
             projectionDelta = projCtx.getExecutableDelta();
@@ -124,7 +134,8 @@ public class ProjectionChangeExecution<O extends ObjectType> {
             }
 
             if (!skipDeltaExecution) {
-                DeltaExecution<O, ShadowType> deltaExecution = new DeltaExecution<>(context, projCtx, projectionDelta, null, task, b);
+                DeltaExecution<O, ShadowType> deltaExecution =
+                        new DeltaExecution<>(context, projCtx, projectionDelta, null, task, b, gate);
                 try {
                     deltaExecution.execute(result);
                 } catch (ConflictDetectedException e) {
@@ -337,7 +348,7 @@ public class ProjectionChangeExecution<O extends ObjectType> {
         }
 
         //noinspection unchecked
-        new LinkUpdater<>(context, (LensFocusContext<? extends FocusType>) focusContext, projCtx, shadowLivenessState, task, b)
+        new LinkUpdater<>(context, (LensFocusContext<? extends FocusType>) focusContext, projCtx, shadowLivenessState, task, b, gate)
                 .updateLinks(result);
     }
 }
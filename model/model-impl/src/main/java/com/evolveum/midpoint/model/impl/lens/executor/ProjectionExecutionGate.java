@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.lens.executor;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.model.impl.lens.LensContext;
+import com.evolveum.midpoint.model.impl.util.ModelImplUtils;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Coordinates projection change executions running concurrently, see {@link ConcurrentProjectionsChangeExecution}.
+ *
+ * The executions share the lens context, the focus context, and the task, none of which is thread-safe.
+ * Therefore each execution holds the gate all the time, except while waiting for the resource, i.e. while
+ * in provisioning add, modify, delete, or execute script operation. During that time, the following is touched
+ * without holding the gate:
+ *
+ * 1. Operation results: each execution has its own one, see {@link ConcurrentProjectionsChangeExecution}.
+ * Progress is reported (to the lens context) only before and after the provisioning operation, i.e. under the gate.
+ * 2. Task statistics (ConnId operations, state messages, notification operations) and ConnId operation listeners.
+ * These are thread-safe.
+ * 3. The requestee stored in the task, read e.g. when sending notifications. It is set (under the gate)
+ * by the first execution that needs it, and cleared by the last one. It is the same for all the executions,
+ * as they share the focus. However, a callback (see below) may set or clear it while other executions are in their
+ * provisioning operations; it is restored before the callback releases the gate. Hence it must be read
+ * via {@link #getRequestee(Task)}, which waits for the gate when called from within such an operation.
+ * 4. Synchronous callbacks, like the synchronization of a resource object discovered by provisioning. These may
+ * run a clockwork on the task, so they must call {@link #runCallback(Task, Runnable)} to re-enter the gate.
+ */
+public class ProjectionExecutionGate {
+
+    /** The gate that was opened by the current thread, i.e. the one that the thread has to re-enter for callbacks. */
+    private static final ThreadLocal<ProjectionExecutionGate> OPENED_GATE = new ThreadLocal<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Number of operations currently relying on the requestee being set in the task. Guarded by {@link #lock}. */
+    private int requesteeUsers;
+
+    void enter() {
+        lock.lock();
+    }
+
+    void exit() {
+        lock.unlock();
+    }
+
+    /** Sets the requestee. The gate must be held. */
+    private void setRequestee(@NotNull Task task, @NotNull LensContext<?> context) {
+        if (requesteeUsers++ == 0) {
+            ModelImplUtils.setRequestee(task, context);
+        }
+    }
+
+    /** Clears the requestee, unless it is still used by other operations. The gate must be held. */
+    private void clearRequestee(@NotNull Task task) {
+        if (--requesteeUsers == 0) {
+            ModelImplUtils.clearRequestee(task);
+        }
+    }
+
+    static void setRequestee(@Nullable ProjectionExecutionGate gate, @NotNull Task task, @NotNull LensContext<?> context) {
+        if (gate != null) {
+            gate.setRequestee(task, context);
+        } else {
+            ModelImplUtils.setRequestee(task, context);
+        }
+    }
+
+    static void clearRequestee(@Nullable ProjectionExecutionGate gate, @NotNull Task task) {
+        if (gate != null) {
+            gate.clearRequestee(task);
+        } else {
+            ModelImplUtils.clearRequestee(task);
+        }
+    }
+
+    /** Lets other executions proceed while the current one waits for the resource. */
+    static void open(@Nullable ProjectionExecutionGate gate) {
+        if (gate != null) {
+            OPENED_GATE.set(gate);
+            gate.exit();
+        }
+    }
+
+    /** Waits until the current execution can continue after the resource operation. */
+    static void close(@Nullable ProjectionExecutionGate gate) {
+        if (gate != null) {
+            gate.enter();
+            OPENED_GATE.remove();
+        }
+    }
+
+    /**
+     * Returns the requestee stored in the task. If called from a provisioning operation started by a concurrent
+     * projection execution, the gate is entered for the read, so that a requestee temporarily set by a callback
+     * running in another execution is never seen.
+     */
+    public static @Nullable PrismObject<UserType> getRequestee(@NotNull Task task) {
+        ProjectionExecutionGate gate = OPENED_GATE.get();
+        if (gate == null) {
+            return task.getRequestee();
+        }
+        gate.enter();
+        try {
+            return task.getRequestee();
+        } finally {
+            gate.exit();
+        }
+    }
+
+    /**
+     * Runs a callback invoked synchronously from a provisioning operation, e.g. the synchronization of a discovered
+     * resource object. If the operation was started by a concurrent projection execution, the callback runs
+     * with the gate held, as it may use the shared task. The callback may set or clear the requestee, so it is restored
+     * before the gate is released. Other executions may be in their provisioning operations in the meantime, which is
+     * why they read the requestee using {@link #getRequestee(Task)}. In all other cases the callback is simply run.
+     */
+    public static void runCallback(@Nullable Task task, @NotNull Runnable callback) {
+        ProjectionExecutionGate gate = OPENED_GATE.get();
+        if (gate == null) {
+            callback.run();
+            return;
+        }
+        gate.enter();
+        OPENED_GATE.remove();
+        PrismObject<UserType> requestee = task != null ? task.getRequestee() : null;
+        try {
+            callback.run();
+        } finally {
+            if (task != null) {
+                task.setRequesteeTransient(requestee);
+            }
+            OPENED_GATE.set(gate);
+            gate.exit();
+        }
+    }
+}
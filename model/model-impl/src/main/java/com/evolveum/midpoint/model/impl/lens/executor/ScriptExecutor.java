@@ -63,11 +63,20 @@ class ScriptExecutor<O extends ObjectType> {
     @NotNull private final Task task;
     @NotNull private final ModelBeans b;
 
+    /** Present if the execution runs concurrently with other projection executions. */
+    @Nullable private final ProjectionExecutionGate gate;
+
     ScriptExecutor(@NotNull LensContext<O> context, @NotNull LensProjectionContext projCtx, @NotNull Task task, @NotNull ModelBeans beans) {
+        this(context, projCtx, task, beans, null);
+    }
+
+    ScriptExecutor(@NotNull LensContext<O> context, @NotNull LensProjectionContext projCtx, @NotNull Task task,
+            @NotNull ModelBeans beans, @Nullable ProjectionExecutionGate gate) {
         this.context = context;
         this.projCtx = projCtx;
         this.task = task;
         this.b = beans;
+        this.gate = gate;
     }
 
     void executeReconciliationScripts(BeforeAfterType order, OperationResult result)
@@ -108,11 +117,16 @@ class ScriptExecutor<O extends ObjectType> {
             OperationProvisioningScriptsType preparedScripts = prepareScripts(scripts, rsd,
                     ProvisioningOperationTypeType.RECONCILE, order, variables, expressionProfile, result);
             for (OperationProvisioningScriptType script : preparedScripts.getScript()) {
-                ModelImplUtils.setRequestee(task, context);
+                ProjectionExecutionGate.setRequestee(gate, task, context);
                 try {
-                    b.provisioningService.executeScript(resource.getOid(), script, task, result);
+                    ProjectionExecutionGate.open(gate);
+                    try {
+                        b.provisioningService.executeScript(resource.getOid(), script, task, result);
+                    } finally {
+                        ProjectionExecutionGate.close(gate);
+                    }
                 } finally {
-                    ModelImplUtils.clearRequestee(task);
+                    ProjectionExecutionGate.clearRequestee(gate, task);
                 }
             }
         } finally {
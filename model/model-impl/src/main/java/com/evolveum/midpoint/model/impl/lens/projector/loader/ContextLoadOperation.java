@@ -113,9 +113,10 @@ public class ContextLoadOperation<F extends ObjectType> {
 
             context.checkConsistenceIfNeeded();
 
+            PrefetchedShadows prefetchedShadows = prefetchShadowsIfConfigured();
             for (LensProjectionContext projectionContext : context.getProjectionContexts()) {
                 context.checkAbortRequested();
-                updateProjection(projectionContext, result);
+                updateProjection(projectionContext, prefetchedShadows, result);
             }
 
             context.checkConsistenceIfNeeded();
@@ -139,13 +140,39 @@ public class ContextLoadOperation<F extends ObjectType> {
         }
     }
 
-    private void updateProjection(LensProjectionContext projectionContext, OperationResult result)
+    private void updateProjection(LensProjectionContext projectionContext, PrefetchedShadows prefetchedShadows,
+            OperationResult result)
             throws SchemaException, ExpressionEvaluationException, CommunicationException, SecurityViolationException,
             ConfigurationException, ObjectNotFoundException {
-        new ProjectionUpdateOperation<>(context, projectionContext, task)
+        new ProjectionUpdateOperation<>(context, projectionContext, prefetchedShadows, task)
                 .update(result);
     }
 
+    /**
+     * If configured, fetches the resource objects that are to be loaded during projection update (typically when
+     * reconciling) in advance, concurrently for different resources.
+     */
+    private PrefetchedShadows prefetchShadowsIfConfigured() {
+        InternalsConfigurationType internals = context.getInternalsConfiguration();
+        Integer threads = internals != null ? internals.getProjectionLoadingThreads() : null;
+        if (threads == null || threads <= 1) {
+            return null;
+        }
+        PrefetchedShadows prefetchedShadows = new PrefetchedShadows();
+        for (LensProjectionContext projectionContext : context.getProjectionContexts()) {
+            var options = new ProjectionUpdateOperation<>(context, projectionContext, task)
+                    .getExpectedFetchOptions();
+            if (options != null) {
+                prefetchedShadows.add(projectionContext, projectionContext.getOid(), options);
+            }
+        }
+        if (prefetchedShadows.isEmpty()) {
+            return null;
+        }
+        prefetchedShadows.fetch(threads, task);
+        return prefetchedShadows;
+    }
+
     private void loadProjections(OperationResult result)
             throws ObjectNotFoundException, SchemaException, CommunicationException, ConfigurationException,
             SecurityViolationException, PolicyViolationException, ExpressionEvaluationException {
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.lens.projector.loader;
+
+import java.util.*;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.model.impl.ModelBeans;
+import com.evolveum.midpoint.model.impl.lens.LensProjectionContext;
+import com.evolveum.midpoint.model.impl.lens.ProjectionWorkerPool;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Resource objects for a set of projection contexts, fetched in advance. Objects on different resources are fetched
+ * concurrently using {@link ProjectionWorkerPool}, objects on the same resource are fetched one after another.
+ *
+ * The outcomes (objects or exceptions, along with the operation results) are then taken by the operations that would
+ * otherwise fetch the objects themselves, see {@link ProjectionUpdateOperation}.
+ *
+ * The objects are fetched with discovery switched off, because discovery callbacks would run synchronization
+ * (i.e. nested clockworks) in the worker threads, concurrently with each other. Discovery is possible only if something
+ * went wrong (the object is not there anymore, or the operation failed), so such outcomes are not used. The operation then
+ * fetches the object itself, in the usual (sequential) way, with discovery enabled as requested.
+ */
+class PrefetchedShadows {
+
+    private static final Trace LOGGER = TraceManager.getTrace(PrefetchedShadows.class);
+
+    private static final String OP_FETCH = PrefetchedShadows.class.getName() + ".fetch";
+
+    /** Keyed by projection context identity, as the contexts can change while being processed. */
+    @NotNull private final Map<LensProjectionContext, Fetch> fetches = new IdentityHashMap<>();
+
+    void add(@NotNull LensProjectionContext projectionContext, @NotNull String oid,
+            @NotNull Collection<SelectorOptions<GetOperationOptions>> options) {
+        fetches.put(projectionContext, new Fetch(oid, projectionContext.getResourceOid(), options));
+    }
+
+    boolean isEmpty() {
+        return fetches.isEmpty();
+    }
+
+    /**
+     * Fetches all the objects, using at most given number of threads.
+     */
+    void fetch(int threads, @NotNull Task task) {
+        Map<String, List<Fetch>> fetchesByResource = new LinkedHashMap<>();
+        for (Fetch fetch : fetches.values()) {
+            fetchesByResource.computeIfAbsent(String.valueOf(fetch.resourceOid), k -> new ArrayList<>())
+                    .add(fetch);
+        }
+        LOGGER.trace("Fetching {} object(s) on {} resource(s) using at most {} threads",
+                fetches.size(), fetchesByResource.size(), threads);
+
+        List<Runnable> actions = new ArrayList<>();
+        for (List<Fetch> resourceFetches : fetchesByResource.values()) {
+            actions.add(() -> resourceFetches.forEach(fetch -> fetch.execute(task)));
+        }
+        ModelBeans.get().projectionWorkerPool.executeAll(actions, threads);
+    }
+
+    /**
+     * Returns the object fetched for given projection context (or throws the exception that occurred while fetching it).
+     * Operation result of the fetch is added to the parent result.
+     *
+     * Returns null if there is no object fetched for the context with given OID and options.
+     * Each object can be taken only once.
+     */
+    @Nullable PrismObject<ShadowType> take(@NotNull LensProjectionContext projectionContext, @NotNull String oid,
+            @NotNull Collection<SelectorOptions<GetOperationOptions>> options, @NotNull OperationResult parentResult)
+            throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+            SecurityViolationException, ExpressionEvaluationException {
+        Fetch fetch = fetches.remove(projectionContext);
+        if (fetch == null || !fetch.executed || !fetch.oid.equals(oid) || !fetch.options.equals(options)
+                || fetch.mayNeedDiscovery()) {
+            return null;
+        }
+        for (OperationResult subresult : fetch.result.getSubresults()) {
+            parentResult.addSubresult(subresult);
+        }
+        if (fetch.exception != null) {
+            throw rethrow(fetch.exception);
+        }
+        return fetch.object;
+    }
+
+    private static RuntimeException rethrow(Throwable t)
+            throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+            SecurityViolationException, ExpressionEvaluationException {
+        if (t instanceof ObjectNotFoundException) {
+            throw (ObjectNotFoundException) t;
+        } else if (t instanceof CommunicationException) {
+            throw (CommunicationException) t;
+        } else if (t instanceof SchemaException) {
+            throw (SchemaException) t;
+        } else if (t instanceof ConfigurationException) {
+            throw (ConfigurationException) t;
+        } else if (t instanceof SecurityViolationException) {
+            throw (SecurityViolationException) t;
+        } else if (t instanceof ExpressionEvaluationException) {
+            throw (ExpressionEvaluationException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            throw new SystemException(t);
+        }
+    }
+
+    private static class Fetch {
+
+        @NotNull private final String oid;
+        @Nullable private final String resourceOid;
+        @NotNull private final Collection<SelectorOptions<GetOperationOptions>> options;
+
+        /** Options actually used for fetching: the same as {@link #options} but without discovery. */
+        @NotNull private final Collection<SelectorOptions<GetOperationOptions>> fetchOptions;
+
+        @NotNull private final OperationResult result = new OperationResult(OP_FETCH);
+
+        private volatile boolean executed;
+        private PrismObject<ShadowType> object;
+        private Throwable exception;
+
+        private Fetch(@NotNull String oid, @Nullable String resourceOid,
+                @NotNull Collection<SelectorOptions<GetOperationOptions>> options) {
+            this.oid = oid;
+            this.resourceOid = resourceOid;
+            this.options = options;
+            List<SelectorOptions<GetOperationOptions>> optionsCopy = new ArrayList<>();
+            options.forEach(option -> optionsCopy.add(option.clone()));
+            this.fetchOptions = SelectorOptions.updateRootOptions(
+                    optionsCopy, opt -> opt.setDoNotDiscovery(true), GetOperationOptions::new);
+        }
+
+        private void execute(Task task) {
+            try {
+                object = ModelBeans.get().provisioningService.getObject(ShadowType.class, oid, fetchOptions, task, result);
+            } catch (Throwable t) {
+                LOGGER.debug("Couldn't fetch {} in advance: {}", oid, t.getMessage());
+                exception = t;
+            } finally {
+                result.computeStatusIfUnknown();
+                executed = true;
+            }
+        }
+
+        /** Would the fetch (with the original options) possibly run the discovery? */
+        private boolean mayNeedDiscovery() {
+            if (GetOperationOptions.isDoNotDiscovery(SelectorOptions.findRootOptions(options))) {
+                return false;
+            }
+            return exception != null
+                    || object == null
+                    || ShadowUtil.isDead(object)
+                    || !ShadowUtil.isExists(object)
+                    || !result.isSuccess();
+        }
+    }
+}
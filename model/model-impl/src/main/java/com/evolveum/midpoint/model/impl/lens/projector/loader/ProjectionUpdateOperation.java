@@ -33,6 +33,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
 import org.apache.commons.lang.Validate;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 
@@ -82,17 +83,50 @@ public class ProjectionUpdateOperation<F extends ObjectType> {
      */
     private String resourceOid;
 
+    /**
+     * Objects fetched in advance for this and other projections (if any).
+     */
+    @Nullable private final PrefetchedShadows prefetchedShadows;
+
     public ProjectionUpdateOperation(
             @NotNull LensContext<F> context,
             @NotNull LensProjectionContext projectionContext,
             @NotNull Task task) {
+        this(context, projectionContext, null, task);
+    }
+
+    ProjectionUpdateOperation(
+            @NotNull LensContext<F> context,
+            @NotNull LensProjectionContext projectionContext,
+            @Nullable PrefetchedShadows prefetchedShadows,
+            @NotNull Task task) {
         this.context = context;
         this.projectionContext = projectionContext;
         this.projectionObjectOid = projectionContext.getOid();
+        this.prefetchedShadows = prefetchedShadows;
         this.task = task;
         this.beans = ModelBeans.get();
     }
 
+    /**
+     * Returns the options for fetching the object from the resource, if {@link #update(OperationResult)} is expected
+     * to do so. Objects that are only read from the repository are not considered. See {@link PrefetchedShadows}.
+     */
+    @Nullable Collection<SelectorOptions<GetOperationOptions>> getExpectedFetchOptions() {
+        if (projectionContext.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN
+                || projectionObjectOid == null
+                || projectionContext.isAdd() && !projectionContext.isCompleted()
+                || projectionContext.getObjectCurrent() != null && !needToReload()) {
+            return null;
+        }
+        Collection<SelectorOptions<GetOperationOptions>> options = createProjectionLoadingOptions();
+        if (GetOperationOptions.isNoFetch(SelectorOptions.findRootOptions(options))) {
+            return null;
+        } else {
+            return options;
+        }
+    }
+
     public void update(OperationResult parentResult)
             throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
             SecurityViolationException, ExpressionEvaluationException {
@@ -265,8 +299,12 @@ public class ProjectionUpdateOperation<F extends ObjectType> {
             LOGGER.trace("Loading shadow {} for projection {}, options={}", projectionObjectOid,
                     projectionContext.getHumanReadableName(), options);
 
-            PrismObject<ShadowType> object = beans.provisioningService.getObject(
-                    projectionContext.getObjectTypeClass(), projectionObjectOid, options, task, result);
+            PrismObject<ShadowType> object = prefetchedShadows != null ?
+                    prefetchedShadows.take(projectionContext, projectionObjectOid, options, result) : null;
+            if (object == null) {
+                object = beans.provisioningService.getObject(
+                        projectionContext.getObjectTypeClass(), projectionObjectOid, options, task, result);
+            }
 
             logLoadedShadow(object, options);
             checkLoadedShadowConsistency(object);
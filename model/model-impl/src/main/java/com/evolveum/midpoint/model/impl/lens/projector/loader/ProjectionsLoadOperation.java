@@ -11,6 +11,9 @@ import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistency
 import static com.evolveum.midpoint.util.MiscUtil.*;
 
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
@@ -70,6 +73,15 @@ public class ProjectionsLoadOperation<F extends FocusType> {
     @NotNull private final Task task;
     @NotNull private final ModelBeans beans;
 
+    /**
+     * OIDs of linked shadows that were retrieved in bulk by {@link #prefetchLinkedShadows(PrismReference, OperationResult)}.
+     * Those of them that do not exist are not in {@link #prefetchedShadows}.
+     */
+    @NotNull private Set<String> prefetchedShadowOids = Set.of();
+
+    /** Linked shadows retrieved in bulk, keyed by OID. */
+    @NotNull private Map<String, PrismObject<ShadowType>> prefetchedShadows = Map.of();
+
     public ProjectionsLoadOperation(@NotNull LensContext<F> context, @NotNull Task task) {
         this.context = context;
         this.focusContext = context.getFocusContext();
@@ -120,6 +132,8 @@ public class ProjectionsLoadOperation<F extends FocusType> {
             return;
         }
 
+        prefetchLinkedShadows(linkRef, result);
+
         for (PrismReferenceValue linkRefVal : linkRef.getValues()) {
             getOrCreateProjectionContextFromAnyLinkRefVal(linkRefVal, result);
         }
@@ -127,6 +141,31 @@ public class ProjectionsLoadOperation<F extends FocusType> {
         context.checkConsistenceIfNeeded();
     }
 
+    /**
+     * Gets the shadows that are to be loaded by {@link #getShadowForLinkRefVal(PrismReferenceValue, OperationResult)}
+     * by a single repository search, instead of getting them one by one.
+     */
+    private void prefetchLinkedShadows(@NotNull PrismReference linkRef, OperationResult result)
+            throws CommunicationException, SchemaException, ConfigurationException, SecurityViolationException,
+            ExpressionEvaluationException {
+        Set<String> oids = new HashSet<>();
+        for (PrismReferenceValue linkRefVal : linkRef.getValues()) {
+            String oid = linkRefVal.getOid();
+            if (!isInactive(linkRefVal)
+                    && StringUtils.isNotBlank(oid)
+                    && linkRefVal.getObject() == null
+                    && context.findProjectionContextByOid(oid) == null) {
+                oids.add(oid);
+            }
+        }
+        if (oids.size() > 1) {
+            var options = createStandardShadowGetOptions();
+            LOGGER.trace("Loading {} shadows from linkRef, options={}", oids.size(), options);
+            prefetchedShadows = beans.provisioningService.getShadows(oids, options, task, result);
+            prefetchedShadowOids = oids;
+        }
+    }
+
     private void getOrCreateProjectionContextFromAnyLinkRefVal(@NotNull PrismReferenceValue linkRefVal, OperationResult result)
             throws SchemaException, CommunicationException, ConfigurationException, SecurityViolationException,
             ExpressionEvaluationException, ObjectNotFoundException, PolicyViolationException {
@@ -207,22 +246,34 @@ public class ProjectionsLoadOperation<F extends FocusType> {
         }
 
         String oid = linkRefVal.getOid();
+        if (prefetchedShadowOids.contains(oid)) {
+            PrismObject<ShadowType> prefetchedShadow = prefetchedShadows.get(oid);
+            if (prefetchedShadow == null) {
+                markBrokenLinkRef(oid);
+            }
+            return prefetchedShadow;
+        }
+
         var options = createStandardShadowGetOptions();
         LOGGER.trace("Loading shadow {} from linkRef, options={}", oid, options);
         try {
             return beans.provisioningService.getObject(ShadowType.class, oid, options, task, result);
         } catch (ObjectNotFoundException e) {
-            // Broken linkRef. We need to mark it for deletion.
-            LensProjectionContext projectionContext = getOrCreateEmptyGoneProjectionContext(oid);
-            projectionContext.setFresh(true);
-            projectionContext.setExists(false);
-            projectionContext.setShadowExistsInRepo(false);
+            markBrokenLinkRef(oid);
             result.getLastSubresult()
                     .setErrorsHandled();
             return null;
         }
     }
 
+    /** The shadow does not exist (any more), so the linkRef is broken. We need to mark it for deletion. */
+    private void markBrokenLinkRef(String oid) {
+        LensProjectionContext projectionContext = getOrCreateEmptyGoneProjectionContext(oid);
+        projectionContext.setFresh(true);
+        projectionContext.setExists(false);
+        projectionContext.setShadowExistsInRepo(false);
+    }
+
     private boolean isInactive(PrismReferenceValue linkRefVal) {
         return !SchemaService.get().relationRegistry().isMember(linkRefVal.getRelation());
     }
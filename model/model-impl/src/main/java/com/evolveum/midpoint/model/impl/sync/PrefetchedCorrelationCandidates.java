@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConditionalSearchFilterType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Correlation candidates found in advance for a batch of shadows by a set-oriented repository query.
+ * See {@link SynchronizationExpressionsEvaluator#prefetchCorrelationCandidates}.
+ *
+ * While a shadow is being synchronized, its candidates are made available to the correlation
+ * via a thread-local variable (see {@link #enter(String)} and {@link #exit()}).
+ * Correlation filters for which there are no prefetched candidates are evaluated in the usual way.
+ *
+ * Note that the candidates reflect the repository state at the time of the prefetch. This is similar to
+ * the situation when objects are processed in multiple worker threads. However, a focus can be created (or linked)
+ * by processing another shadow after the prefetch. Therefore, empty results are not kept: a shadow without
+ * prefetched candidates is correlated by a live search, so no duplicate focus is created for it.
+ *
+ * The candidates are kept only for the current and the previous window of shadows (see {@link #startWindow()}).
+ * Candidates for shadows that were not synchronized (e.g. skipped or not processed at all) are removed
+ * with their window; if such a shadow is processed later after all, it is simply correlated by a live search.
+ */
+public class PrefetchedCorrelationCandidates {
+
+    private static final ThreadLocal<ShadowCandidates> CURRENT = new ThreadLocal<>();
+
+    /** Candidates for shadows that were not synchronized yet, keyed by shadow OID. */
+    @NotNull private final Map<String, ShadowCandidates> candidatesMap = new ConcurrentHashMap<>();
+
+    /** Number of the current window of shadows. */
+    @NotNull private final AtomicInteger currentWindow = new AtomicInteger();
+
+    /**
+     * Starts a new window of shadows, removing the candidates from older windows than the previous one.
+     * (Shadows of the previous window can still wait for being processed.)
+     */
+    void startWindow() {
+        int window = currentWindow.incrementAndGet();
+        candidatesMap.values().removeIf(candidates -> candidates.window < window - 1);
+    }
+
+    /** Empty candidate lists are ignored, see the class description. */
+    void add(@NotNull String shadowOid, @NotNull Class<? extends FocusType> focusType,
+            @NotNull ConditionalSearchFilterType conditionalFilter, @NotNull List<? extends PrismObject<?>> candidates) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        candidatesMap.computeIfAbsent(shadowOid, oid -> new ShadowCandidates(oid, currentWindow.get()))
+                .entries.add(new Entry(focusType, conditionalFilter, candidates));
+    }
+
+    /** Removes the candidates for a shadow that is not going to be synchronized. */
+    public void discard(@Nullable String shadowOid) {
+        if (shadowOid != null) {
+            candidatesMap.remove(shadowOid);
+        }
+    }
+
+    public int size() {
+        return candidatesMap.size();
+    }
+
+    /**
+     * Makes the candidates for given shadow available to the current thread. They are removed from this object,
+     * as they are not needed any more.
+     */
+    public void enter(@Nullable String shadowOid) {
+        CURRENT.set(shadowOid != null ? candidatesMap.remove(shadowOid) : null);
+    }
+
+    public static void exit() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return Prefetched candidates for given shadow and correlation filter (never empty);
+     * or null if there are none, so a live search is needed.
+     */
+    static <F extends FocusType> @Nullable List<PrismObject<F>> getForCurrentShadow(@NotNull Class<F> focusType,
+            @NotNull ShadowType shadow, @NotNull ConditionalSearchFilterType conditionalFilter) {
+        ShadowCandidates current = CURRENT.get();
+        if (current == null || !current.shadowOid.equals(shadow.getOid())) {
+            return null;
+        }
+        for (Entry entry : current.entries) {
+            if (entry.focusType.equals(focusType) && isSameFilter(entry.conditionalFilter, conditionalFilter)) {
+                List<PrismObject<F>> candidates = new ArrayList<>(entry.candidates.size());
+                for (PrismObject<?> candidate : entry.candidates) {
+                    // The same focus can be a candidate for more shadows processed in different threads.
+                    //noinspection unchecked
+                    candidates.add((PrismObject<F>) candidate.clone());
+                }
+                return candidates;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSameFilter(ConditionalSearchFilterType filter1, ConditionalSearchFilterType filter2) {
+        // The resource object is usually the same, so the identity check is normally sufficient.
+        return filter1 == filter2 || filter1.equals(filter2);
+    }
+
+    private static class ShadowCandidates {
+
+        @NotNull private final String shadowOid;
+        private final int window;
+        @NotNull private final List<Entry> entries = new ArrayList<>();
+
+        private ShadowCandidates(@NotNull String shadowOid, int window) {
+            this.shadowOid = shadowOid;
+            this.window = window;
+        }
+    }
+
+    private static class Entry {
+
+        @NotNull private final Class<? extends FocusType> focusType;
+        @NotNull private final ConditionalSearchFilterType conditionalFilter;
+        @NotNull private final List<? extends PrismObject<?>> candidates;
+
+        private Entry(@NotNull Class<? extends FocusType> focusType, @NotNull ConditionalSearchFilterType conditionalFilter,
+                @NotNull List<? extends PrismObject<?>> candidates) {
+            this.focusType = focusType;
+            this.conditionalFilter = conditionalFilter;
+            this.candidates = candidates;
+        }
+    }
+}
@@ -9,7 +9,11 @@ package com.evolveum.midpoint.model.impl.sync;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.repo.common.expression.Expression;
 import com.evolveum.midpoint.repo.common.expression.ExpressionEvaluationContext;
@@ -24,21 +28,28 @@ import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import org.apache.commons.lang.Validate;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.delta.PrismValueDeltaSetTriple;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.prism.query.AndFilter;
+import com.evolveum.midpoint.prism.query.EqualFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.common.SynchronizationUtils;
 import com.evolveum.midpoint.schema.constants.ExpressionConstants;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.expression.ExpressionProfile;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.SchemaDebugUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.CommonException;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
@@ -52,14 +63,15 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ConditionalSearchFilterType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectSynchronizationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectMultiplicityType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowTagSpecificationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
-
-import java.util.HashSet;
-import java.util.Set;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 import static com.evolveum.midpoint.prism.PrismPropertyValue.getRealValue;
 
@@ -145,6 +157,13 @@ public class SynchronizationExpressionsEvaluator {
             return emptyList();
         }
 
+        List<PrismObject<F>> prefetched =
+                PrefetchedCorrelationCandidates.getForCurrentShadow(focusType, currentShadow, conditionalFilter);
+        if (prefetched != null) {
+            LOGGER.trace("SYNCHRONIZATION: CORRELATION: using {} prefetched candidate(s) for {}", prefetched.size(), currentShadow);
+            return prefetched;
+        }
+
         ObjectQuery q;
         try {
             q = prismContext.getQueryConverter().createObjectQuery(focusType, conditionalFilter);
@@ -187,6 +206,154 @@ public class SynchronizationExpressionsEvaluator {
         }
     }
 
+    /**
+     * Finds correlation candidates for a batch of shadows, using one repository query per correlation filter.
+     * Candidates for individual shadows are then selected from the query result in memory.
+     *
+     * Only filters that consist of simple (single-valued) equality conditions are processed this way,
+     * because their in-memory evaluation gives the same results as the one in the native repository.
+     * This is not true for the generic repository (e.g. on databases with case-insensitive collation), so nothing
+     * is prefetched there.
+     * Filter conditions are not evaluated here: it is done (as usual) when the shadow is synchronized.
+     * Any problems are only logged, as the correlation is then simply done for the shadow in the usual way.
+     * The same holds for shadows with no candidates found, see {@link PrefetchedCorrelationCandidates}.
+     */
+    public void prefetchCorrelationCandidates(@NotNull List<ShadowType> shadows, @NotNull ResourceType resource,
+            @Nullable SystemConfigurationType configuration, @NotNull PrefetchedCorrelationCandidates target,
+            Task task, OperationResult result) {
+        target.startWindow();
+        if (!repositoryService.isNative()) {
+            return;
+        }
+        SynchronizationType synchronization = resource.getSynchronization();
+        if (synchronization == null || synchronization.getObjectSynchronization().isEmpty()) {
+            return;
+        }
+        ExpressionProfile expressionProfile = MiscSchemaUtil.getExpressionProfile();
+
+        // Keyed by (identity of) the conditional filter, as the resource object is the same for all the shadows.
+        Map<ConditionalSearchFilterType, CorrelationBatch> batches = new IdentityHashMap<>();
+        for (ShadowType shadow : shadows) {
+            if (shadow.getOid() == null || shadow.getFetchResult() != null
+                    || shadow.getKind() == null || ShadowKindType.UNKNOWN == shadow.getKind()) {
+                continue;
+            }
+            try {
+                for (ObjectSynchronizationType policy : synchronization.getObjectSynchronization()) {
+                    if (Boolean.FALSE.equals(policy.isEnabled())
+                            || !SynchronizationUtils.isPolicyApplicable(shadow.getObjectClass(), shadow.getKind(),
+                                    shadow.getIntent(), policy, resource.asPrismObject())) {
+                        continue;
+                    }
+                    Class<? extends FocusType> focusType = getFocusType(policy);
+                    for (ConditionalSearchFilterType conditionalFilter : policy.getCorrelation()) {
+                        if (!conditionalFilter.containsFilterClause()) {
+                            continue;
+                        }
+                        ObjectQuery query = prismContext.getQueryConverter().createObjectQuery(focusType, conditionalFilter);
+                        query = updateFilterWithAccountValues(shadow, resource, configuration, query, expressionProfile,
+                                "Correlation expression", task, result);
+                        if (query != null && isBatchable(query.getFilter())) {
+                            batches.computeIfAbsent(conditionalFilter, k -> new CorrelationBatch(focusType, conditionalFilter))
+                                    .add(shadow.getOid(), query.getFilter());
+                        }
+                    }
+                }
+            } catch (CommonException | RuntimeException e) {
+                LOGGER.debug("Couldn't prepare correlation of {} in advance, it will be correlated separately: {}",
+                        shadow, e.getMessage(), e);
+            }
+        }
+
+        for (CorrelationBatch batch : batches.values()) {
+            try {
+                batch.execute(target, result);
+            } catch (CommonException | RuntimeException e) {
+                LoggingUtils.logExceptionAsWarning(LOGGER,
+                        "Couldn't find correlation candidates for {} objects in advance, they will be correlated separately",
+                        e, batch.shadowFilters.size());
+            }
+        }
+    }
+
+    private Class<? extends FocusType> getFocusType(ObjectSynchronizationType policy) throws SchemaException {
+        QName focusTypeName = policy.getFocusType();
+        if (focusTypeName == null) {
+            return UserType.class;
+        }
+        ObjectTypes objectType = ObjectTypes.getObjectTypeFromTypeQName(focusTypeName);
+        if (objectType == null) {
+            throw new SchemaException("Unknown focus type " + focusTypeName + " in synchronization policy");
+        }
+        return objectType.getClassDefinition();
+    }
+
+    /**
+     * Equality conditions with a single value (and conjunctions of them) can be safely evaluated both
+     * in the native repository and in memory.
+     */
+    private boolean isBatchable(ObjectFilter filter) {
+        if (filter instanceof EqualFilter) {
+            EqualFilter<?> equalFilter = (EqualFilter<?>) filter;
+            return equalFilter.getRightHandSidePath() == null
+                    && equalFilter.getExpression() == null
+                    && equalFilter.getValues() != null
+                    && equalFilter.getValues().size() == 1;
+        } else if (filter instanceof AndFilter) {
+            List<ObjectFilter> conditions = ((AndFilter) filter).getConditions();
+            return !conditions.isEmpty() && conditions.stream().allMatch(this::isBatchable);
+        } else {
+            return false;
+        }
+    }
+
+    /** Shadows whose candidates are to be found using given correlation filter. */
+    private class CorrelationBatch {
+
+        @NotNull private final Class<? extends FocusType> focusType;
+        @NotNull private final ConditionalSearchFilterType conditionalFilter;
+        @NotNull private final Map<String, ObjectFilter> shadowFilters = new LinkedHashMap<>();
+
+        private CorrelationBatch(@NotNull Class<? extends FocusType> focusType,
+                @NotNull ConditionalSearchFilterType conditionalFilter) {
+            this.focusType = focusType;
+            this.conditionalFilter = conditionalFilter;
+        }
+
+        private void add(String shadowOid, ObjectFilter filter) {
+            shadowFilters.put(shadowOid, filter);
+        }
+
+        private void execute(PrefetchedCorrelationCandidates target, OperationResult result) throws SchemaException {
+            List<ObjectFilter> distinctFilters = new ArrayList<>();
+            for (ObjectFilter filter : shadowFilters.values()) {
+                if (!distinctFilters.contains(filter)) {
+                    distinctFilters.add(filter);
+                }
+            }
+            ObjectQuery query = prismContext.queryFactory().createQuery(
+                    prismContext.queryFactory().createOr(distinctFilters));
+            LOGGER.trace("SYNCHRONIZATION: CORRELATION: looking for candidates for {} objects using filter\n{}",
+                    shadowFilters.size(), query.debugDumpLazily());
+            List<? extends PrismObject<? extends FocusType>> found = repositoryService.searchObjects(focusType, query, null, result);
+
+            for (Map.Entry<String, ObjectFilter> entry : shadowFilters.entrySet()) {
+                ObjectFilter filter = entry.getValue();
+                // we assume the objects are already normalized w.r.t. relations
+                ObjectTypeUtil.normalizeFilter(filter, relationRegistry);
+                List<PrismObject<?>> candidates = new ArrayList<>();
+                for (PrismObject<? extends FocusType> focus : found) {
+                    if (ObjectQuery.match(focus, filter, matchingRuleRegistry)) {
+                        candidates.add(focus);
+                    }
+                }
+                target.add(entry.getKey(), focusType, conditionalFilter, candidates);
+            }
+            LOGGER.debug("SYNCHRONIZATION: CORRELATION: found {} candidate(s) for {} objects in advance",
+                    found.size(), shadowFilters.size());
+        }
+    }
+
     private <F extends FocusType> boolean matchUserCorrelationRule(Class<F> focusType, PrismObject<ShadowType> currentShadow,
             ExpressionProfile expressionProfile, PrismObject<F> userType, ResourceType resourceType, SystemConfigurationType configurationType,
             ConditionalSearchFilterType conditionalFilter, Task task, OperationResult result) throws SchemaException {
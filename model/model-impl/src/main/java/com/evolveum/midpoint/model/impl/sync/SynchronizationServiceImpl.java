@@ -37,6 +37,7 @@ import com.evolveum.midpoint.model.common.SystemObjectCache;
 import com.evolveum.midpoint.model.common.expression.ExpressionEnvironment;
 import com.evolveum.midpoint.model.common.expression.ModelExpressionThreadLocalHolder;
 import com.evolveum.midpoint.model.impl.lens.*;
+import com.evolveum.midpoint.model.impl.lens.executor.ProjectionExecutionGate;
 import com.evolveum.midpoint.model.impl.util.ModelImplUtils;
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.delta.ChangeType;
@@ -106,6 +107,12 @@ public class SynchronizationServiceImpl implements SynchronizationService {
 
     @Override
     public void notifyChange(@NotNull ResourceObjectShadowChangeDescription change, Task task, OperationResult parentResult) {
+        // We may be called back from a provisioning operation started by a concurrent projection execution.
+        ProjectionExecutionGate.runCallback(task, () -> processChange(change, task, parentResult));
+    }
+
+    private void processChange(@NotNull ResourceObjectShadowChangeDescription change, Task task,
+            OperationResult parentResult) {
 
         OperationResult result = parentResult.subresult(OP_NOTIFY_CHANGE)
                 .addArbitraryObjectAsParam("change", change)
@@ -14,6 +14,8 @@ import static com.evolveum.midpoint.schema.util.ResourceTypeUtil.isInMaintenance
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetQueryApplicationModeType.APPEND;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetQueryApplicationModeType.REPLACE;
 
+import static com.evolveum.midpoint.schema.util.ObjectTypeUtil.asObjectable;
+
 import static java.util.Objects.requireNonNull;
 
 import static com.evolveum.midpoint.schema.result.OperationResultStatus.FATAL_ERROR;
@@ -33,19 +35,25 @@ import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.evolveum.midpoint.model.common.SystemObjectCache;
+import com.evolveum.midpoint.model.impl.sync.PrefetchedCorrelationCandidates;
+import com.evolveum.midpoint.model.impl.sync.SynchronizationExpressionsEvaluator;
 import com.evolveum.midpoint.model.impl.util.ModelImplUtils;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.provisioning.api.ProvisioningService;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.midpoint.repo.common.activity.run.SearchBasedActivityRunSpecifics;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Auxiliary methods for synchronization tasks: Live Sync, Async Update, Import, Reconciliation,
@@ -91,6 +99,8 @@ public class SyncTaskHelper {
 
     @Autowired private ProvisioningService provisioningService;
     @Autowired private PrismContext prismContext;
+    @Autowired private SystemObjectCache systemObjectCache;
+    @Autowired private SynchronizationExpressionsEvaluator synchronizationExpressionsEvaluator;
 
     @VisibleForTesting
     private static boolean skipMaintenanceCheck;
@@ -181,6 +191,22 @@ public class SyncTaskHelper {
                 resource, objectClassDefinition, resourceObjectSet.getKind(), resourceObjectSet.getIntent());
     }
 
+    /**
+     * Finds correlation candidates for a window of shadows to be synchronized, if correlation batching is configured.
+     * Failures are only logged: the shadows are then correlated one by one.
+     */
+    public void prefetchCorrelationCandidates(@NotNull List<ShadowType> shadows,
+            @NotNull ResourceObjectClass resourceObjectClass, @NotNull PrefetchedCorrelationCandidates target,
+            Task task, OperationResult result) {
+        try {
+            PrismObject<SystemConfigurationType> systemConfiguration = systemObjectCache.getSystemConfiguration(result);
+            synchronizationExpressionsEvaluator.prefetchCorrelationCandidates(shadows, resourceObjectClass.getResource(),
+                    asObjectable(systemConfiguration), target, task, result);
+        } catch (SchemaException | RuntimeException e) {
+            LoggingUtils.logExceptionAsWarning(LOGGER, "Couldn't find correlation candidates in advance", e);
+        }
+    }
+
     /** Creates {@link ResourceObjectClass} for a single shadow. */
     @NotNull
     public ResourceObjectClass createObjectClassForShadow(ShadowType shadow, Task task, OperationResult opResult)
@@ -11,7 +11,9 @@ import javax.xml.namespace.QName;
 import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import com.evolveum.midpoint.model.impl.sync.PrefetchedCorrelationCandidates;
 import com.evolveum.midpoint.model.impl.util.ModelImplUtils;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ChangeType;
@@ -48,13 +50,17 @@ public class Synchronizer {
     private final boolean simulate;
     private final boolean forceAdd;
 
+    /** Correlation candidates found in advance for the objects being synchronized (if any). */
+    @Nullable private final PrefetchedCorrelationCandidates prefetchedCorrelationCandidates;
+
     public Synchronizer(@NotNull ResourceType resource,
             @NotNull ResourceObjectDefinition resourceObjectDefinition,
             @NotNull SynchronizationObjectsFilter objectsFilter,
             @NotNull ResourceObjectChangeListener objectChangeListener,
             @NotNull QName sourceChannel,
             boolean simulate,
-            boolean forceAdd) {
+            boolean forceAdd,
+            @Nullable PrefetchedCorrelationCandidates prefetchedCorrelationCandidates) {
         this.resource = resource;
         this.resourceObjectDefinition = resourceObjectDefinition;
         this.objectsFilter = objectsFilter;
@@ -62,6 +68,7 @@ public class Synchronizer {
         this.sourceChannel = sourceChannel;
         this.simulate = simulate;
         this.forceAdd = forceAdd;
+        this.prefetchedCorrelationCandidates = prefetchedCorrelationCandidates;
     }
 
     /**
@@ -71,6 +78,20 @@ public class Synchronizer {
      */
     public void synchronize(PrismObject<ShadowType> shadowObject, String itemProcessingIdentifier, Task workerTask,
             OperationResult result) {
+        if (prefetchedCorrelationCandidates == null) {
+            synchronizeInternal(shadowObject, itemProcessingIdentifier, workerTask, result);
+            return;
+        }
+        prefetchedCorrelationCandidates.enter(shadowObject.getOid());
+        try {
+            synchronizeInternal(shadowObject, itemProcessingIdentifier, workerTask, result);
+        } finally {
+            PrefetchedCorrelationCandidates.exit();
+        }
+    }
+
+    private void synchronizeInternal(PrismObject<ShadowType> shadowObject, String itemProcessingIdentifier,
+            Task workerTask, OperationResult result) {
         ShadowType shadow = shadowObject.asObjectable();
         if (ObjectTypeUtil.hasFetchError(shadowObject)) {
             // Not used in iterative tasks. There we filter out these objects before processing.
@@ -8,6 +8,7 @@
 package com.evolveum.midpoint.model.impl.sync.tasks.imp;
 
 import java.util.Collection;
+import java.util.List;
 
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
 import com.evolveum.midpoint.repo.common.activity.run.SearchBasedActivityRun;
@@ -17,6 +18,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.model.impl.ModelBeans;
+import com.evolveum.midpoint.model.impl.sync.PrefetchedCorrelationCandidates;
 import com.evolveum.midpoint.model.impl.sync.tasks.ResourceObjectClass;
 import com.evolveum.midpoint.model.impl.sync.tasks.Synchronizer;
 import com.evolveum.midpoint.prism.PrismContext;
@@ -41,6 +43,9 @@ public final class ImportActivityRun
     /** Executor that imports the resource objects. */
     private Synchronizer synchronizer;
 
+    /** Correlation candidates found in advance for objects being imported. Null if correlation batching is not used. */
+    private PrefetchedCorrelationCandidates prefetchedCorrelationCandidates;
+
     ImportActivityRun(ActivityRunInstantiationContext<ImportWorkDefinition, ImportActivityHandler> context) {
         super(context, "Import");
         setInstanceReady();
@@ -59,6 +64,9 @@ public final class ImportActivityRun
 
         resourceObjectClass = getModelBeans().syncTaskHelper
                 .getResourceObjectClassCheckingMaintenance(resourceObjectSet, getRunningTask(), result);
+        if (getWorkDefinition().getCorrelationBatchSize() > 0) {
+            prefetchedCorrelationCandidates = new PrefetchedCorrelationCandidates();
+        }
         synchronizer = createSynchronizer();
     }
 
@@ -75,7 +83,8 @@ public final class ImportActivityRun
                 getModelBeans().eventDispatcher,
                 SchemaConstants.CHANNEL_IMPORT,
                 isPreview(),
-                true);
+                true,
+                prefetchedCorrelationCandidates);
     }
 
     @Override
@@ -104,6 +113,17 @@ public final class ImportActivityRun
         return true;
     }
 
+    @Override
+    public int getLookAheadWindowSize() {
+        return prefetchedCorrelationCandidates != null ? getWorkDefinition().getCorrelationBatchSize() : 0;
+    }
+
+    @Override
+    public void prepareItems(@NotNull List<ShadowType> shadows, OperationResult result) {
+        getModelBeans().syncTaskHelper.prefetchCorrelationCandidates(
+                shadows, resourceObjectClass, prefetchedCorrelationCandidates, getRunningTask(), result);
+    }
+
     private @NotNull ModelBeans getModelBeans() {
         return getActivityHandler().getModelBeans();
     }
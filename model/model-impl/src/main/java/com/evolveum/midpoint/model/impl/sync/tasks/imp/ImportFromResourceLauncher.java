@@ -65,7 +65,8 @@ public class ImportFromResourceLauncher {
                     eventDispatcher,
                     SchemaConstants.CHANNEL_IMPORT,
                     false,
-                    true);
+                    true,
+                    null);
             synchronizer.synchronize(shadow.asPrismObject(), null, task, result);
             result.computeStatusIfUnknown();
             return !result.isError();
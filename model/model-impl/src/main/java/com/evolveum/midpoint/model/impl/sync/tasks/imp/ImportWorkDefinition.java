@@ -19,19 +19,24 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetTyp
 
 import org.jetbrains.annotations.NotNull;
 
+import static java.util.Objects.requireNonNullElse;
+
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetQueryApplicationModeType.REPLACE;
 
 public class ImportWorkDefinition extends AbstractWorkDefinition implements ResourceObjectSetSpecificationProvider {
 
     @NotNull private final ResourceObjectSetType resourceObjects;
+    private final int correlationBatchSize;
 
     ImportWorkDefinition(WorkDefinitionSource source) {
         if (source instanceof LegacyWorkDefinitionSource) {
             resourceObjects = ResourceObjectSetUtil.fromLegacySource((LegacyWorkDefinitionSource) source);
+            correlationBatchSize = 0;
         } else {
             ImportWorkDefinitionType typedDefinition = (ImportWorkDefinitionType)
                     ((TypedWorkDefinitionWrapper) source).getTypedDefinition();
             resourceObjects = ResourceObjectSetUtil.fromConfiguration(typedDefinition.getResourceObjects());
+            correlationBatchSize = requireNonNullElse(typedDefinition.getCorrelationBatchSize(), 0);
         }
         ResourceObjectSetUtil.setDefaultQueryApplicationMode(resourceObjects, REPLACE);
     }
@@ -41,8 +46,13 @@ public class ImportWorkDefinition extends AbstractWorkDefinition implements Reso
         return resourceObjects;
     }
 
+    public int getCorrelationBatchSize() {
+        return correlationBatchSize;
+    }
+
     @Override
     protected void debugDumpContent(StringBuilder sb, int indent) {
         DebugUtil.debugDumpWithLabelLn(sb, "resourceObjects", resourceObjects, indent+1);
+        DebugUtil.debugDumpWithLabelLn(sb, "correlationBatchSize", correlationBatchSize, indent+1);
     }
 }
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.sync.tasks.recon;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.common.SynchronizationUtils;
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowAssociationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowReconciliationFingerprintType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationSituationType;
+
+/**
+ * Computes, checks and stores fingerprints of resource objects being reconciled, so that objects that have not changed
+ * since they were last reconciled can be skipped. See {@link ReconciliationWorkDefinition#isSkipUnchangedObjects()}.
+ *
+ * The fingerprint covers all fetched attributes (except for the ones explicitly ignored, see
+ * {@link ReconciliationWorkDefinition#getFingerprintIgnoredAttributes()}), associations, activation and auxiliary
+ * object classes. Attributes cannot be selected by their mappings, because the data may be used also by constructions
+ * of the focus, by correlation or synchronization conditions, or by expressions elsewhere. Together with the fingerprint
+ * we store the version of the resource and the OID and version of the owner. A change in any of these means the object
+ * has to be processed.
+ */
+class ReconciliationFingerprints {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ReconciliationFingerprints.class);
+
+    private static final String OP_STORE = ReconciliationFingerprints.class.getName() + ".store";
+    private static final String OP_MARK_UNCHANGED = ReconciliationFingerprints.class.getName() + ".markUnchanged";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    @NotNull private final ResourceType resource;
+    @NotNull private final RepositoryService repositoryService;
+    @NotNull private final PrismContext prismContext;
+
+    /** Attributes whose values are not included in the fingerprint. Identifiers are included regardless of this. */
+    @NotNull private final Collection<QName> ignoredAttributes;
+
+    ReconciliationFingerprints(@NotNull ResourceType resource, @NotNull Collection<QName> ignoredAttributes,
+            @NotNull RepositoryService repositoryService, @NotNull PrismContext prismContext) {
+        this.resource = resource;
+        this.ignoredAttributes = ignoredAttributes;
+        this.repositoryService = repositoryService;
+        this.prismContext = prismContext;
+    }
+
+    /**
+     * Computes the fingerprint of the current state of the resource object.
+     */
+    @NotNull String compute(@NotNull ShadowType shadow) {
+        Set<QName> identifierNames = new HashSet<>();
+        for (ResourceAttribute<?> identifier : ShadowUtil.getAllIdentifiers(shadow)) {
+            identifierNames.add(identifier.getElementName());
+        }
+
+        MessageDigest digest = createDigest();
+        List<ResourceAttribute<?>> attributes = new ArrayList<>(ShadowUtil.getAttributes(shadow));
+        attributes.sort(Comparator.comparing(attribute -> attribute.getElementName().toString()));
+        for (ResourceAttribute<?> attribute : attributes) {
+            if (identifierNames.contains(attribute.getElementName()) || !isIgnored(attribute.getElementName())) {
+                update(digest, attribute);
+            }
+        }
+
+        List<String> associations = new ArrayList<>();
+        for (ShadowAssociationType association : shadow.getAssociation()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(association.getName());
+            if (association.getShadowRef() != null) {
+                sb.append(':').append(association.getShadowRef().getOid());
+            }
+            if (association.getIdentifiers() != null) {
+                PrismContainerValue<?> identifiers = association.getIdentifiers().asPrismContainerValue();
+                for (Item<?, ?> identifier : sortedItems(identifiers.getItems())) {
+                    sb.append(':').append(identifier.getElementName()).append('=').append(sortedValues(identifier));
+                }
+            }
+            associations.add(sb.toString());
+        }
+        associations.sort(null);
+        update(digest, "association", associations);
+
+        ActivationType activation = shadow.getActivation();
+        if (activation != null) {
+            update(digest, "activation", List.of(
+                    String.valueOf(activation.getAdministrativeStatus()),
+                    String.valueOf(activation.getValidFrom()),
+                    String.valueOf(activation.getValidTo()),
+                    String.valueOf(activation.getLockoutStatus())));
+        }
+
+        List<String> auxiliaryObjectClasses = new ArrayList<>();
+        for (QName auxiliaryObjectClass : shadow.getAuxiliaryObjectClass()) {
+            auxiliaryObjectClasses.add(auxiliaryObjectClass.toString());
+        }
+        auxiliaryObjectClasses.sort(null);
+        update(digest, "auxiliaryObjectClass", auxiliaryObjectClasses);
+
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * Finds the focus the shadow is linked to (if any). It is resolved once per object and then passed
+     * to {@link #isUnchanged(ShadowType, String, PrismObject)} and {@link #store(ShadowType, String, PrismObject, OperationResult)}.
+     */
+    @Nullable PrismObject<FocusType> findOwner(@NotNull ShadowType shadow, OperationResult result) throws SchemaException {
+        ObjectQuery query = prismContext.queryFor(FocusType.class)
+                .item(FocusType.F_LINK_REF).ref(shadow.getOid(), null, PrismConstants.Q_ANY)
+                .build();
+        SearchResultList<PrismObject<FocusType>> owners =
+                repositoryService.searchObjects(FocusType.class, query, null, result);
+        if (owners.isEmpty()) {
+            return null;
+        }
+        if (owners.size() > 1) {
+            LOGGER.warn("Found {} owners for shadow oid {}, using the first one.", owners.size(), shadow.getOid());
+        }
+        return owners.get(0);
+    }
+
+    /**
+     * Returns true if the resource object, its owner and the resource are the same as when the fingerprint stored
+     * in the shadow was taken. Only linked shadows are considered.
+     */
+    boolean isUnchanged(@NotNull ShadowType shadow, @NotNull String fingerprint, @Nullable PrismObject<FocusType> owner) {
+        ShadowReconciliationFingerprintType stored = shadow.getReconciliationFingerprint();
+        return stored != null
+                && fingerprint.equals(stored.getValue())
+                && Objects.equals(resource.getVersion(), stored.getResourceVersion())
+                && shadow.getSynchronizationSituation() == SynchronizationSituationType.LINKED
+                && owner != null
+                && owner.getOid().equals(stored.getOwnerOid())
+                && Objects.equals(owner.getVersion(), stored.getOwnerVersion());
+    }
+
+    /**
+     * Records the fact that an unchanged object was seen by the reconciliation, so it is not treated as missing
+     * in the remaining shadows activity.
+     */
+    void markUnchanged(@NotNull ShadowType shadow, OperationResult parentResult) throws CommonException {
+        OperationResult result = parentResult.createMinorSubresult(OP_MARK_UNCHANGED);
+        try {
+            repositoryService.modifyObject(ShadowType.class, shadow.getOid(),
+                    SynchronizationUtils.createSynchronizationTimestampsDeltas(shadow.asPrismObject()), result);
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Stores the fingerprint into the shadow, along with the current owner and resource versions.
+     * The owner is the one found before the object was processed. Its version is re-read, as the processing
+     * could have modified it. (If the owner was linked only by the processing, no owner is stored, and the object
+     * will be processed once more the next time.)
+     *
+     * Failures are not fatal: the object will be simply processed again the next time.
+     */
+    void store(@NotNull ShadowType shadow, @NotNull String fingerprint, @Nullable PrismObject<FocusType> owner,
+            OperationResult parentResult) {
+        OperationResult result = parentResult.createMinorSubresult(OP_STORE);
+        try {
+            ShadowReconciliationFingerprintType stored = new ShadowReconciliationFingerprintType()
+                    .value(fingerprint)
+                    .resourceVersion(resource.getVersion())
+                    .timestamp(XmlTypeConverter.createXMLGregorianCalendar());
+            if (owner != null) {
+                String ownerVersion = getCurrentVersion(owner, result);
+                if (ownerVersion != null) {
+                    stored.ownerOid(owner.getOid())
+                            .ownerVersion(ownerVersion);
+                }
+            }
+            List<ItemDelta<?, ?>> modifications = prismContext.deltaFor(ShadowType.class)
+                    .item(ShadowType.F_RECONCILIATION_FINGERPRINT).replace(stored)
+                    .asItemDeltas();
+            repositoryService.modifyObject(ShadowType.class, shadow.getOid(), modifications, result);
+        } catch (ObjectNotFoundException e) {
+            // The shadow was deleted during the processing.
+            LOGGER.trace("Shadow {} no longer exists, fingerprint was not stored", shadow);
+            result.muteError();
+            result.recordNotApplicable();
+        } catch (Throwable t) {
+            LoggingUtils.logExceptionAsWarning(LOGGER, "Couldn't store reconciliation fingerprint for {}", t, shadow);
+            result.recordWarning("Couldn't store reconciliation fingerprint: " + t.getMessage(), t);
+        } finally {
+            result.close();
+        }
+    }
+
+    /** Returns null if the owner was deleted during the processing. */
+    private @Nullable String getCurrentVersion(@NotNull PrismObject<FocusType> owner, OperationResult result)
+            throws SchemaException {
+        try {
+            return repositoryService.getVersion(owner.getCompileTimeClass(), owner.getOid(), result);
+        } catch (ObjectNotFoundException e) {
+            LOGGER.trace("Owner {} no longer exists, it is not stored with the fingerprint", owner);
+            result.muteLastSubresultError();
+            return null;
+        }
+    }
+
+    private boolean isIgnored(@NotNull QName attributeName) {
+        // Unqualified names in the configuration are accepted.
+        return QNameUtil.matchAny(attributeName, ignoredAttributes);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SystemException("Couldn't create " + DIGEST_ALGORITHM + " digest: " + e.getMessage(), e);
+        }
+    }
+
+    private static void update(MessageDigest digest, Item<?, ?> item) {
+        update(digest, item.getElementName().toString(), sortedValues(item));
+    }
+
+    private static void update(MessageDigest digest, String name, List<String> values) {
+        // Lengths are included to make the serialization unambiguous.
+        StringBuilder sb = new StringBuilder();
+        sb.append(name.length()).append(':').append(name).append(values.size());
+        for (String value : values) {
+            sb.append(':').append(value.length()).append(':').append(value);
+        }
+        digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<? extends Item<?, ?>> sortedItems(Collection<? extends Item<?, ?>> items) {
+        List<Item<?, ?>> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparing(item -> item.getElementName().toString()));
+        return sorted;
+    }
+
+    private static List<String> sortedValues(Item<?, ?> item) {
+        List<String> values = new ArrayList<>();
+        for (PrismValue value : item.getValues()) {
+            values.add(valueToString(value.getRealValue()));
+        }
+        values.sort(null);
+        return values;
+    }
+
+    private static String valueToString(Object realValue) {
+        if (realValue instanceof PolyString) {
+            return ((PolyString) realValue).getOrig();
+        } else if (realValue instanceof byte[]) {
+            return Base64.getEncoder().encodeToString((byte[]) realValue);
+        } else {
+            return String.valueOf(realValue);
+        }
+    }
+}
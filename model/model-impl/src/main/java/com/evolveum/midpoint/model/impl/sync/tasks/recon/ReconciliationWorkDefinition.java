@@ -7,8 +7,13 @@
 
 package com.evolveum.midpoint.model.impl.sync.tasks.recon;
 
+import static java.util.Objects.requireNonNullElse;
+
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetQueryApplicationModeType.APPEND;
 
+import java.util.List;
+import javax.xml.namespace.QName;
+
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.repo.common.activity.definition.AbstractWorkDefinition;
@@ -24,14 +29,23 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetTyp
 public class ReconciliationWorkDefinition extends AbstractWorkDefinition implements ResourceObjectSetSpecificationProvider {
 
     @NotNull private final ResourceObjectSetType resourceObjects;
+    private final int correlationBatchSize;
+    private final boolean skipUnchangedObjects;
+    @NotNull private final List<QName> fingerprintIgnoredAttributes;
 
     ReconciliationWorkDefinition(WorkDefinitionSource source) {
         if (source instanceof LegacyWorkDefinitionSource) {
             resourceObjects = ResourceObjectSetUtil.fromLegacySource((LegacyWorkDefinitionSource) source);
+            correlationBatchSize = 0;
+            skipUnchangedObjects = false;
+            fingerprintIgnoredAttributes = List.of();
         } else {
             ReconciliationWorkDefinitionType typedDefinition = (ReconciliationWorkDefinitionType)
                     ((TypedWorkDefinitionWrapper) source).getTypedDefinition();
             resourceObjects = ResourceObjectSetUtil.fromConfiguration(typedDefinition.getResourceObjects());
+            correlationBatchSize = requireNonNullElse(typedDefinition.getCorrelationBatchSize(), 0);
+            skipUnchangedObjects = Boolean.TRUE.equals(typedDefinition.isSkipUnchangedObjects());
+            fingerprintIgnoredAttributes = List.copyOf(typedDefinition.getFingerprintIgnoredAttribute());
         }
         ResourceObjectSetUtil.setDefaultQueryApplicationMode(resourceObjects, APPEND);
     }
@@ -41,8 +55,23 @@ public class ReconciliationWorkDefinition extends AbstractWorkDefinition impleme
         return resourceObjects;
     }
 
+    public int getCorrelationBatchSize() {
+        return correlationBatchSize;
+    }
+
+    public boolean isSkipUnchangedObjects() {
+        return skipUnchangedObjects;
+    }
+
+    public @NotNull List<QName> getFingerprintIgnoredAttributes() {
+        return fingerprintIgnoredAttributes;
+    }
+
     @Override
     protected void debugDumpContent(StringBuilder sb, int indent) {
         DebugUtil.debugDumpWithLabelLn(sb, "resourceObjects", resourceObjects, indent+1);
+        DebugUtil.debugDumpWithLabelLn(sb, "correlationBatchSize", correlationBatchSize, indent+1);
+        DebugUtil.debugDumpWithLabelLn(sb, "skipUnchangedObjects", skipUnchangedObjects, indent+1);
+        DebugUtil.debugDumpWithLabelLn(sb, "fingerprintIgnoredAttributes", fingerprintIgnoredAttributes, indent+1);
     }
 }
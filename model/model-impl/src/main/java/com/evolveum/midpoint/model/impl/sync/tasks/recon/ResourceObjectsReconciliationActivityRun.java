@@ -8,13 +8,16 @@
 package com.evolveum.midpoint.model.impl.sync.tasks.recon;
 
 import java.util.Collection;
+import java.util.List;
 
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.jetbrains.annotations.NotNull;
 
+import com.evolveum.midpoint.model.impl.sync.PrefetchedCorrelationCandidates;
 import com.evolveum.midpoint.model.impl.sync.tasks.Synchronizer;
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunInstantiationContext;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityReportingCharacteristics;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemProcessingRequest;
@@ -23,10 +26,16 @@ import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.task.api.RunningTask;
 import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FetchErrorReportingMethodType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationExclusionReasonType;
 
 /**
  * Execution of resource objects reconciliation (the main part of reconciliation).
@@ -34,8 +43,16 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 public final class ResourceObjectsReconciliationActivityRun
         extends PartialReconciliationActivityRun {
 
+    private static final Trace LOGGER = TraceManager.getTrace(ResourceObjectsReconciliationActivityRun.class);
+
     private Synchronizer synchronizer;
 
+    /** Correlation candidates found in advance for objects being reconciled. Null if correlation batching is not used. */
+    private PrefetchedCorrelationCandidates prefetchedCorrelationCandidates;
+
+    /** Used to skip objects that have not changed since the last reconciliation. Null if no objects are to be skipped. */
+    private ReconciliationFingerprints fingerprints;
+
     ResourceObjectsReconciliationActivityRun(
             @NotNull ActivityRunInstantiationContext<ReconciliationWorkDefinition, ReconciliationActivityHandler> context,
             String shortNameCapitalized) {
@@ -46,6 +63,16 @@ public final class ResourceObjectsReconciliationActivityRun
     @Override
     public void beforeRun(OperationResult result) throws CommonException, ActivityRunException {
         super.beforeRun(result);
+        if (getWorkDefinition().getCorrelationBatchSize() > 0) {
+            prefetchedCorrelationCandidates = new PrefetchedCorrelationCandidates();
+        }
+        if (getWorkDefinition().isSkipUnchangedObjects() && isFullExecution()) {
+            fingerprints = new ReconciliationFingerprints(
+                    resourceObjectClass.getResource(),
+                    getWorkDefinition().getFingerprintIgnoredAttributes(),
+                    getModelBeans().cacheRepositoryService,
+                    getBeans().prismContext);
+        }
         synchronizer = createSynchronizer();
     }
 
@@ -64,7 +91,8 @@ public final class ResourceObjectsReconciliationActivityRun
                 getModelBeans().eventDispatcher,
                 SchemaConstants.CHANNEL_RECON,
                 isPreview(),
-                false);
+                false,
+                prefetchedCorrelationCandidates);
     }
 
     // Ignoring configured search options. TODO ok?
@@ -87,10 +115,44 @@ public final class ResourceObjectsReconciliationActivityRun
     public boolean processItem(@NotNull ShadowType object,
             @NotNull ItemProcessingRequest<ShadowType> request, RunningTask workerTask, OperationResult result)
             throws CommonException, ActivityRunException {
+        if (fingerprints == null || ObjectTypeUtil.hasFetchError(object.asPrismObject())) {
+            synchronizer.synchronize(object.asPrismObject(), request.getIdentifier(), workerTask, result);
+            return true;
+        }
+
+        String fingerprint = fingerprints.compute(object);
+        PrismObject<FocusType> owner = fingerprints.findOwner(object, result);
+        if (fingerprints.isUnchanged(object, fingerprint, owner)) {
+            LOGGER.trace("Skipping {} because it has not changed since the last reconciliation", object);
+            if (prefetchedCorrelationCandidates != null) {
+                prefetchedCorrelationCandidates.discard(object.getOid());
+            }
+            fingerprints.markUnchanged(object, result);
+            workerTask.onSynchronizationExclusion(request.getIdentifier(), SynchronizationExclusionReasonType.UNCHANGED);
+            result.recordStatus(OperationResultStatus.NOT_APPLICABLE,
+                    "Skipped because it has not changed since the last reconciliation");
+            return true;
+        }
+
         synchronizer.synchronize(object.asPrismObject(), request.getIdentifier(), workerTask, result);
+        result.computeStatusIfUnknown();
+        if (result.isSuccess()) {
+            fingerprints.store(object, fingerprint, owner, result);
+        }
         return true;
     }
 
+    @Override
+    public int getLookAheadWindowSize() {
+        return prefetchedCorrelationCandidates != null ? getWorkDefinition().getCorrelationBatchSize() : 0;
+    }
+
+    @Override
+    public void prepareItems(@NotNull List<ShadowType> shadows, OperationResult result) {
+        getModelBeans().syncTaskHelper.prefetchCorrelationCandidates(
+                shadows, resourceObjectClass, prefetchedCorrelationCandidates, getRunningTask(), result);
+    }
+
     @VisibleForTesting
     public long getResourceReconCount() {
         return transientRunStatistics.getItemsProcessed();
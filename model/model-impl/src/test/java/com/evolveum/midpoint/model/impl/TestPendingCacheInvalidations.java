@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import static org.testng.AssertJUnit.*;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.CacheInvalidationEventType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests merging of cache invalidation events by {@link PendingCacheInvalidations}.
+ */
+public class TestPendingCacheInvalidations extends AbstractUnitTest {
+
+    private static final int MAX_SIZE = 5;
+
+    @Test
+    public void test100DuplicateObjectEvents() {
+        given("empty pending invalidations");
+        PendingCacheInvalidations pending = new PendingCacheInvalidations();
+        assertTrue("Not empty at start", pending.isEmpty());
+
+        when("the same objects are invalidated more times");
+        pending.add(UserType.class, "u1", MAX_SIZE);
+        pending.add(UserType.class, "u2", MAX_SIZE);
+        pending.add(UserType.class, "u1", MAX_SIZE);
+        pending.add(RoleType.class, "u1", MAX_SIZE);
+
+        then("each object is invalidated once, in the original order");
+        assertEquals("Wrong size", 3, pending.size());
+        assertEquals("Wrong events", List.of("UserType:u1", "UserType:u2", "RoleType:u1"), describe(pending));
+    }
+
+    @Test
+    public void test110TypeEventCoversObjectEvents() {
+        given("invalidations of two users and a role");
+        PendingCacheInvalidations pending = new PendingCacheInvalidations();
+        pending.add(UserType.class, "u1", MAX_SIZE);
+        pending.add(UserType.class, "u2", MAX_SIZE);
+        pending.add(RoleType.class, "r1", MAX_SIZE);
+
+        when("all users are invalidated, and then a user again");
+        pending.add(UserType.class, null, MAX_SIZE);
+        pending.add(UserType.class, "u3", MAX_SIZE);
+
+        then("user type invalidation replaces the user invalidations");
+        assertEquals("Wrong size", 2, pending.size());
+        assertEquals("Wrong events", List.of("UserType:*", "RoleType:r1"), describe(pending));
+    }
+
+    @Test
+    public void test120GlobalEventCoversEverything() {
+        given("invalidations of a type and an object");
+        PendingCacheInvalidations pending = new PendingCacheInvalidations();
+        pending.add(RoleType.class, null, MAX_SIZE);
+        pending.add(UserType.class, "u1", MAX_SIZE);
+
+        when("everything is invalidated, and then a user again");
+        pending.add(null, null, MAX_SIZE);
+        pending.add(UserType.class, "u2", MAX_SIZE);
+
+        then("there is only the global invalidation");
+        assertEquals("Wrong size", 1, pending.size());
+        assertEquals("Wrong events", List.of("*"), describe(pending));
+    }
+
+    @Test
+    public void test130TooManyEventsBecomeGlobal() {
+        given("invalidations of the maximal number of objects");
+        PendingCacheInvalidations pending = new PendingCacheInvalidations();
+        for (int i = 0; i < MAX_SIZE; i++) {
+            pending.add(UserType.class, "u" + i, MAX_SIZE);
+        }
+        assertEquals("Wrong size", MAX_SIZE, pending.size());
+
+        when("one more object is invalidated");
+        pending.add(UserType.class, "another", MAX_SIZE);
+
+        then("the invalidation is converted to the global one");
+        assertEquals("Wrong size", 1, pending.size());
+        assertEquals("Wrong events", List.of("*"), describe(pending));
+    }
+
+    private List<String> describe(PendingCacheInvalidations pending) {
+        return pending.toEventList().getEvent().stream()
+                .map(this::describe)
+                .collect(Collectors.toList());
+    }
+
+    private String describe(CacheInvalidationEventType event) {
+        if (event.getType() == null) {
+            return "*";
+        } else {
+            return event.getType().getLocalPart() + ":" + (event.getOid() != null ? event.getOid() : "*");
+        }
+    }
+}
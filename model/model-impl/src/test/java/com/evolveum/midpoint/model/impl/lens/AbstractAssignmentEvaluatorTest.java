@@ -936,7 +936,7 @@ public abstract class AbstractAssignmentEvaluatorTest extends AbstractLensTest {
         return userOdo;
     }
 
-    private ItemDeltaItem<PrismContainerValue<AssignmentType>, PrismContainerDefinition<AssignmentType>> createAssignmentIdi(
+    protected ItemDeltaItem<PrismContainerValue<AssignmentType>, PrismContainerDefinition<AssignmentType>> createAssignmentIdi(
             AssignmentType assignmentType) throws SchemaException {
         return new ItemDeltaItem<>(
                 LensUtil.createAssignmentSingleValueContainer(assignmentType),
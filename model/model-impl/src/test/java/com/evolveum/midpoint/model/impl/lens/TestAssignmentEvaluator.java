@@ -6,14 +6,27 @@
  */
 package com.evolveum.midpoint.model.impl.lens;
 
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
 import java.io.File;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
 
+import com.evolveum.midpoint.model.impl.lens.assignments.AssignmentEvaluator;
+import com.evolveum.midpoint.model.impl.lens.assignments.EvaluatedAssignmentImpl;
+import com.evolveum.midpoint.model.impl.lens.assignments.EvaluatedTargetSubtreeCache;
+import com.evolveum.midpoint.model.impl.lens.projector.AssignmentOrigin;
+import com.evolveum.midpoint.prism.delta.PlusMinusZero;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 /**
  * @author semancik
@@ -42,8 +55,57 @@ public class TestAssignmentEvaluator extends AbstractAssignmentEvaluatorTest {
         addObjects(getRoleCorpFiles());
     }
 
+    @Autowired private EvaluatedTargetSubtreeCache targetSubtreeCache;
+
     @Override
     public File[] getRoleCorpFiles() {
         return ROLE_CORP_FILES;
     }
+
+    /**
+     * Evaluates the same role assignment twice with node-wide target subtree cache enabled.
+     * The second evaluation should replay the cached content and produce the same result.
+     */
+    @Test
+    public void test900CachedTargetSubtree() throws Exception {
+        given("subtree cache is enabled");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        targetSubtreeCache.clear();
+        targetSubtreeCache.setEnabled(true);
+        try {
+            AssignmentType assignment = new AssignmentType(prismContext)
+                    .targetRef(ROLE_CORP_AUTH_OID, RoleType.COMPLEX_TYPE);
+
+            when("the assignment is evaluated twice");
+            EvaluatedAssignmentImpl<UserType> first = evaluate(assignment, task, result);
+            int cachedSubtrees = targetSubtreeCache.size();
+            EvaluatedAssignmentImpl<UserType> second = evaluate(assignment, task, result);
+
+            then("the subtree is cached and both evaluations are the same");
+            assertSuccess(result);
+            assertEquals("Wrong # of cached subtrees", 1, cachedSubtrees);
+            assertEquals("Wrong # of authorizations", 1, first.getAuthorizations().size());
+            assertEquals("Different authorizations", first.getAuthorizations(), second.getAuthorizations());
+            assertEquals("Different membership", first.getMembershipRefVals(), second.getMembershipRefVals());
+            assertEquals("Different roles", first.getRoles().size(), second.getRoles().size());
+            second.getRoles().foreach(role ->
+                    assertTrue("Cached role target is not immutable: " + role, role.getTarget().isImmutable()));
+
+            when("the role is invalidated");
+            targetSubtreeCache.invalidate(RoleType.class, ROLE_CORP_AUTH_OID, null);
+
+            then("the subtree is removed");
+            assertEquals("Wrong # of cached subtrees", 0, targetSubtreeCache.size());
+        } finally {
+            targetSubtreeCache.setEnabled(false);
+        }
+    }
+
+    private EvaluatedAssignmentImpl<UserType> evaluate(AssignmentType assignment, Task task, OperationResult result)
+            throws Exception {
+        AssignmentEvaluator<UserType> assignmentEvaluator = createAssignmentEvaluator();
+        return assignmentEvaluator.evaluate(createAssignmentIdi(assignment.clone()), PlusMinusZero.ZERO,
+                false, userTypeJack, "testCachedTargetSubtree", AssignmentOrigin.createInObject(), task, result);
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl.lens.assignments;
+
+import static org.testng.AssertJUnit.*;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests eviction and invalidation of {@link EvaluatedTargetSubtreeCache} without evaluating any assignments.
+ */
+public class TestEvaluatedTargetSubtreeCache extends AbstractUnitTest {
+
+    @Test
+    public void test100LeastRecentlyUsedEntriesAreEvicted() {
+        given("enabled cache for 10 entries, full");
+        EvaluatedTargetSubtreeCache cache = new EvaluatedTargetSubtreeCache();
+        cache.setEnabled(true);
+        cache.setMaxEntries(10);
+        for (int i = 0; i < 10; i++) {
+            put(cache, "oid-" + i);
+        }
+
+        and("the first entry was used recently");
+        assertNotNull("Entry not cached", cache.get(key("oid-0")));
+
+        when("another entry is stored");
+        put(cache, "oid-10");
+
+        then("the least recently used entry is evicted, the recently used one is kept");
+        assertEquals("Wrong # of entries", 10, cache.size());
+        assertNotNull("Recently used entry was evicted", cache.get(key("oid-0")));
+        assertNull("Least recently used entry was not evicted", cache.get(key("oid-1")));
+        assertNotNull("New entry was not stored", cache.get(key("oid-10")));
+    }
+
+    @Test
+    public void test110InvalidationOfRoleInSubtree() {
+        given("enabled cache with two entries");
+        EvaluatedTargetSubtreeCache cache = new EvaluatedTargetSubtreeCache();
+        cache.setEnabled(true);
+        put(cache, "oid-a");
+        put(cache, "oid-b");
+        long generationBefore = cache.getGeneration();
+
+        when("one of the roles is invalidated");
+        cache.invalidate(RoleType.class, "oid-a", null);
+
+        then("only the entry containing the role is removed, recordings in progress are discarded");
+        assertNull("Invalidated entry was not removed", cache.get(key("oid-a")));
+        assertNotNull("Other entry was removed", cache.get(key("oid-b")));
+        assertTrue("Generation was not incremented", cache.getGeneration() > generationBefore);
+    }
+
+    @Test
+    public void test120ClusterwideInvalidationOnlyWhenEnabled() {
+        given("disabled cache");
+        EvaluatedTargetSubtreeCache cache = new EvaluatedTargetSubtreeCache();
+
+        expect("no cluster-wide invalidation is requested");
+        assertFalse("Cluster-wide invalidation requested by disabled cache",
+                cache.hasClusterwideInvalidationFor(RoleType.class));
+
+        when("the cache is enabled");
+        cache.setEnabled(true);
+
+        then("cluster-wide invalidation is requested for abstract roles only");
+        assertTrue("No cluster-wide invalidation for roles", cache.hasClusterwideInvalidationFor(RoleType.class));
+        assertTrue("No cluster-wide invalidation for orgs", cache.hasClusterwideInvalidationFor(OrgType.class));
+        assertFalse("Cluster-wide invalidation for users", cache.hasClusterwideInvalidationFor(UserType.class));
+    }
+
+    private void put(EvaluatedTargetSubtreeCache cache, String oid) {
+        TargetSubtree.Recording recording = new TargetSubtree.Recording(0, cache.getGeneration());
+        recording.addTarget(oid);
+        cache.put(key(oid), recording.toSubtree(), recording.getGeneration());
+    }
+
+    private EvaluatedTargetSubtreeCache.Key key(String oid) {
+        return new EvaluatedTargetSubtreeCache.Key(oid, "1", null, null, null,
+                UserType.class, null, null, List.of());
+    }
+}
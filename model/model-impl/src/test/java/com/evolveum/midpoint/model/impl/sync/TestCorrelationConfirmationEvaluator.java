@@ -283,4 +283,103 @@ public class TestCorrelationConfirmationEvaluator extends AbstractInternalModelI
 
         assertFalse("No correlation condition should match", matches);
     }
+
+    @Test
+    public void test009UsePrefetchedCandidates() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("a shadow with a prefetched candidate (other than the one in the repository)");
+        ShadowType shadow = parseObjectType(ACCOUNT_SHADOW_JACK_DUMMY_FILE, ShadowType.class);
+        shadow.setOid("2ae4e8f6-3c41-4d0e-9b7a-4d6e1c7e0b01");
+        ConditionalSearchFilterType filter = PrismTestUtil.parseAtomicValue(new File(CORRELATION_OR_FILTER), ConditionalSearchFilterType.COMPLEX_TYPE);
+        ResourceType resourceType = parseObjectType(RESOURCE_DUMMY_FILE, ResourceType.class);
+        PrefetchedCorrelationCandidates prefetched = new PrefetchedCorrelationCandidates();
+        prefetched.startWindow();
+        UserType prefetchedUser = new UserType(prismContext)
+                .oid("5c1b2f0e-7d36-4b8a-a0c1-2a6c1c0d9e01")
+                .name("prefetched");
+        prefetched.add(shadow.getOid(), UserType.class, filter, List.of(prefetchedUser.asPrismObject()));
+
+        when("the shadow is correlated while prefetched candidates are in effect");
+        List<PrismObject<UserType>> matchedUsers = findWithPrefetched(prefetched, shadow, filter, resourceType, task, result);
+
+        then("prefetched candidates are used instead of searching the repository");
+        assertEquals("Wrong # of matched users", 1, matchedUsers.size());
+        assertEquals("Wrong user found", prefetchedUser.getOid(), matchedUsers.get(0).getOid());
+        assertEquals("Prefetched candidates were not consumed", 0, prefetched.size());
+
+        when("the shadow is correlated again");
+        matchedUsers = evaluator.findFocusesByCorrelationRule(UserType.class,
+                shadow, List.of(filter), resourceType, getSystemConfiguration(), task, result);
+
+        then("the repository is searched");
+        assertEquals("Wrong # of matched users", 1, matchedUsers.size());
+        assertEquals("Wrong user found", USER_JACK_OID, matchedUsers.get(0).getOid());
+    }
+
+    /**
+     * The focus may be created (by processing another shadow) after the prefetch,
+     * so empty prefetched results must not be trusted.
+     */
+    @Test
+    public void test010EmptyPrefetchedCandidatesNotUsed() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("a shadow with prefetched empty list of candidates");
+        ShadowType shadow = parseObjectType(ACCOUNT_SHADOW_JACK_DUMMY_FILE, ShadowType.class);
+        shadow.setOid("2ae4e8f6-3c41-4d0e-9b7a-4d6e1c7e0b02");
+        ConditionalSearchFilterType filter = PrismTestUtil.parseAtomicValue(new File(CORRELATION_OR_FILTER), ConditionalSearchFilterType.COMPLEX_TYPE);
+        ResourceType resourceType = parseObjectType(RESOURCE_DUMMY_FILE, ResourceType.class);
+        PrefetchedCorrelationCandidates prefetched = new PrefetchedCorrelationCandidates();
+        prefetched.startWindow();
+        prefetched.add(shadow.getOid(), UserType.class, filter, List.of());
+
+        when("the shadow is correlated while prefetched candidates are in effect");
+        List<PrismObject<UserType>> matchedUsers = findWithPrefetched(prefetched, shadow, filter, resourceType, task, result);
+
+        then("the repository is searched");
+        assertEquals("Empty candidates were kept", 0, prefetched.size());
+        assertEquals("Wrong # of matched users", 1, matchedUsers.size());
+        assertEquals("Wrong user found", USER_JACK_OID, matchedUsers.get(0).getOid());
+    }
+
+    @Test
+    public void test011LeftoverPrefetchedCandidatesRemoved() throws Exception {
+        given("prefetched candidates for three shadows in the first window");
+        ConditionalSearchFilterType filter = PrismTestUtil.parseAtomicValue(new File(CORRELATION_OR_FILTER), ConditionalSearchFilterType.COMPLEX_TYPE);
+        List<PrismObject<UserType>> candidates = List.of(new UserType(prismContext).oid("5c1b2f0e-7d36-4b8a-a0c1-2a6c1c0d9e02").asPrismObject());
+        PrefetchedCorrelationCandidates prefetched = new PrefetchedCorrelationCandidates();
+        prefetched.startWindow();
+        prefetched.add("shadow-1", UserType.class, filter, candidates);
+        prefetched.add("shadow-2", UserType.class, filter, candidates);
+        prefetched.add("shadow-3", UserType.class, filter, candidates);
+
+        when("one shadow is skipped, and the second window starts");
+        prefetched.discard("shadow-1");
+        prefetched.startWindow();
+        prefetched.add("shadow-4", UserType.class, filter, candidates);
+
+        then("candidates of the skipped shadow are removed, the ones of the previous window are kept");
+        assertEquals("Wrong # of shadows with candidates", 3, prefetched.size());
+
+        when("the third window starts");
+        prefetched.startWindow();
+
+        then("candidates of shadows from the first window (never processed) are removed");
+        assertEquals("Wrong # of shadows with candidates", 1, prefetched.size());
+    }
+
+    private List<PrismObject<UserType>> findWithPrefetched(PrefetchedCorrelationCandidates prefetched,
+            ShadowType shadow, ConditionalSearchFilterType filter, ResourceType resourceType, Task task,
+            OperationResult result) throws Exception {
+        prefetched.enter(shadow.getOid());
+        try {
+            return evaluator.findFocusesByCorrelationRule(UserType.class,
+                    shadow, List.of(filter), resourceType, getSystemConfiguration(), task, result);
+        } finally {
+            PrefetchedCorrelationCandidates.exit();
+        }
+    }
 }
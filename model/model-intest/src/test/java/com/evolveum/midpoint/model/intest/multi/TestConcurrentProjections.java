@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.intest.multi;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.BreakMode;
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummyResource;
+import com.evolveum.midpoint.model.impl.lens.ChangeExecutor;
+import com.evolveum.midpoint.model.intest.AbstractInitializedModelIntegrationTest;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.delta.ReferenceDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.internals.InternalCounters;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
+
+/**
+ * Tests processing of projections on several resources: bulk loading of linked shadows,
+ * concurrent fetching of resource objects (internals/projectionLoadingThreads), and concurrent execution
+ * of projection changes (internals/projectionExecutionThreads).
+ */
+@ContextConfiguration(locations = { "classpath:ctx-model-intest-test-main.xml" })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestConcurrentProjections extends AbstractInitializedModelIntegrationTest {
+
+    private static final String PROJECTION_WORKER_THREAD_PREFIX = "projection-worker-";
+
+    private static final long BLOCKED_THREADS_TIMEOUT = 30000;
+
+    private static final String OP_EXECUTE_SHADOW_PROJECTION =
+            ChangeExecutor.OPERATION_EXECUTE_PROJECTION + "." + ShadowType.class.getSimpleName();
+
+    private static final String USER_PASSWORD = "s3cr3tPwd1";
+
+    /** Resources the test user has accounts on. */
+    private static final List<String> RESOURCE_OIDS =
+            List.of(RESOURCE_DUMMY_OID, RESOURCE_DUMMY_BLUE_OID, RESOURCE_DUMMY_YELLOW_OID);
+
+    /** Number of resource objects fetched when reconciling the user sequentially. */
+    private long sequentialReconcileFetches;
+
+    @Test
+    public void test100AssignAccounts() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        when();
+        for (String resourceOid : RESOURCE_OIDS) {
+            assignAccountToUser(USER_JACK_OID, resourceOid, null, task, result);
+        }
+
+        then();
+        assertSuccess(result);
+        assertAccounts(USER_JACK_OID, RESOURCE_OIDS.size());
+    }
+
+    /**
+     * Linked shadows are loaded by a single provisioning call. A shadow that no longer exists must be treated
+     * as a broken link, just as when the shadows are loaded one by one.
+     */
+    @Test
+    public void test110RecomputeWithMissingLinkedShadow() throws Exception {
+        given("shadow of the blue account is deleted from the repository");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        String deletedShadowOid = assertAccount(getUser(USER_JACK_OID), RESOURCE_DUMMY_BLUE_OID);
+        repositoryService.deleteObject(ShadowType.class, deletedShadowOid, result);
+
+        when();
+        recomputeUser(USER_JACK_OID, task, result);
+
+        then("the broken link is replaced by a link to the re-discovered account");
+        assertSuccess(result);
+        PrismObject<UserType> userAfter = getUser(USER_JACK_OID);
+        display("User after", userAfter);
+        assertAccounts(USER_JACK_OID, RESOURCE_OIDS.size());
+        assertThat(assertAccount(userAfter, RESOURCE_DUMMY_BLUE_OID))
+                .as("blue account shadow OID")
+                .isNotEqualTo(deletedShadowOid);
+        assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+    }
+
+    /**
+     * Reconciliation with sequential fetching, to get the baseline for the concurrent one.
+     */
+    @Test
+    public void test120ReconcileSequentially() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+        when();
+        reconcileUser(USER_JACK_OID, task, result);
+
+        then();
+        assertSuccess(result);
+        assertAccounts(USER_JACK_OID, RESOURCE_OIDS.size());
+        sequentialReconcileFetches = getCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+        assertThat(sequentialReconcileFetches).as("fetches").isGreaterThanOrEqualTo(RESOURCE_OIDS.size());
+    }
+
+    /**
+     * Resource objects are fetched concurrently. All the resources are blocked, so the reconciliation can proceed
+     * only if all the fetches are running at the same time. The prefetched objects must be used by the projection
+     * loading, i.e. no object can be fetched twice.
+     */
+    @Test
+    public void test130ReconcileWithConcurrentFetch() throws Exception {
+        given("concurrent fetching is allowed");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        setInternalsThreads(InternalsConfigurationType.F_PROJECTION_LOADING_THREADS, RESOURCE_OIDS.size(), task, result);
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+        try {
+            when("the user is reconciled, with the resources blocked");
+            Throwable failure = executeWithResourcesBlocked(
+                    task, result, (t, r) -> reconcileUser(USER_JACK_OID, t, r));
+
+            then("all the resources were accessed at once");
+            assertThat(failure).as("reconciliation failure").isNull();
+        } finally {
+            setInternalsThreads(InternalsConfigurationType.F_PROJECTION_LOADING_THREADS, null, task, result);
+        }
+
+        and("the prefetched objects are used");
+        result.computeStatus();
+        assertSuccess(result);
+        assertAccounts(USER_JACK_OID, RESOURCE_OIDS.size());
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, (int) sequentialReconcileFetches);
+    }
+
+    /**
+     * Objects are prefetched without discovery. An account deleted on the resource is then fetched again
+     * by the projection loading itself, so the discovery (and the consistency mechanism) runs in the usual way,
+     * not in a projection worker thread.
+     */
+    @Test
+    public void test140ReconcileWithConcurrentFetchAndDeletedAccount() throws Exception {
+        given("concurrent fetching is allowed, and the blue account is deleted on the resource");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        setInternalsThreads(InternalsConfigurationType.F_PROJECTION_LOADING_THREADS, RESOURCE_OIDS.size(), task, result);
+        getDummyResource(RESOURCE_DUMMY_BLUE_NAME).deleteAccountByName(ACCOUNT_JACK_DUMMY_USERNAME);
+
+        try {
+            when("the user is reconciled");
+            reconcileUser(USER_JACK_OID, task, result);
+        } finally {
+            setInternalsThreads(InternalsConfigurationType.F_PROJECTION_LOADING_THREADS, null, task, result);
+        }
+
+        then("the account is re-created, as with sequential fetching");
+        result.computeStatus();
+        // The missing account may be reported as a handled error.
+        assertThat(result.isAcceptable()).as("result is acceptable: " + result.getStatus()).isTrue();
+        assertAccounts(USER_JACK_OID, RESOURCE_OIDS.size());
+        assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+    }
+
+    /**
+     * Accounts on three resources are created concurrently. All of them must be linked, and the executed deltas
+     * and operation results of all the executions must be collected.
+     */
+    @Test
+    public void test200AssignAccountsWithConcurrentExecution() throws Exception {
+        given("a user without accounts, and concurrent execution allowed");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        String userOid = addUser("anna", task, result);
+        setInternalsThreads(InternalsConfigurationType.F_PROJECTION_EXECUTION_THREADS, RESOURCE_OIDS.size(), task, result);
+
+        AtomicReference<Collection<ObjectDeltaOperation<? extends ObjectType>>> executedDeltas = new AtomicReference<>();
+        try {
+            when("accounts on all the resources are assigned at once, with the resources blocked");
+            Throwable failure = executeWithResourcesBlocked(task, result,
+                    (t, r) -> executedDeltas.set(
+                            executeChanges(createAccountsAssignmentDelta(userOid), null, t, r)));
+
+            then("all the resources were accessed at once");
+            assertThat(failure).as("failure").isNull();
+        } finally {
+            setInternalsThreads(InternalsConfigurationType.F_PROJECTION_EXECUTION_THREADS, null, task, result);
+        }
+
+        and("all the accounts are created and linked");
+        assertSuccess(result);
+        PrismObject<UserType> userAfter = getUser(userOid);
+        display("User after", userAfter);
+        assertAccounts(userOid, RESOURCE_OIDS.size());
+        assertDummyAccount(null, "anna");
+        assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, "anna");
+        assertDummyAccount(RESOURCE_DUMMY_YELLOW_NAME, "anna");
+
+        and("the executed deltas of all the projections are collected");
+        displayValue("Executed deltas", executedDeltas.get());
+        assertThat(getAddedShadowResourceOids(executedDeltas.get()))
+                .as("resources of added shadows")
+                .containsExactlyInAnyOrderElementsOf(RESOURCE_OIDS);
+        assertThat(getAddedLinkOids(executedDeltas.get()))
+                .as("added links")
+                .containsExactlyInAnyOrderElementsOf(getLinkOids(userAfter));
+
+        and("the results of all the projection executions are collected");
+        List<OperationResult> projectionResults = getProjectionExecutionResults(result);
+        assertThat(projectionResults).as("projection execution results")
+                .hasSize(RESOURCE_OIDS.size())
+                .allMatch(OperationResult::isSuccess);
+    }
+
+    /**
+     * One of the concurrently executed projections fails. The failure must be propagated only after all the other
+     * projections are executed (and linked), with the results of all the executions present.
+     */
+    @Test
+    public void test210ConcurrentExecutionWithFailure() throws Exception {
+        given("a user without accounts, a broken default resource, and concurrent execution allowed");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        String userOid = addUser("bert", task, result);
+        setInternalsThreads(InternalsConfigurationType.F_PROJECTION_EXECUTION_THREADS, RESOURCE_OIDS.size(), task, result);
+        getDummyResource().setAddBreakMode(BreakMode.GENERIC);
+
+        Throwable failure;
+        try {
+            when("accounts on all the resources are assigned at once, with the resources blocked");
+            failure = executeWithResourcesBlocked(task, result,
+                    (t, r) -> executeChanges(createAccountsAssignmentDelta(userOid), null, t, r));
+        } finally {
+            getDummyResource().resetBreakMode();
+            setInternalsThreads(InternalsConfigurationType.F_PROJECTION_EXECUTION_THREADS, null, task, result);
+        }
+
+        then("the failure of the default resource is propagated");
+        displayExpectedException(failure);
+        assertThat(failure).as("failure").isInstanceOf(GenericConnectorException.class);
+        assertFailure(result);
+
+        and("the other accounts are created and linked");
+        PrismObject<UserType> userAfter = getUser(userOid);
+        display("User after", userAfter);
+        assertAccount(userAfter, RESOURCE_DUMMY_BLUE_OID);
+        assertAccount(userAfter, RESOURCE_DUMMY_YELLOW_OID);
+        assertNoDummyAccount("bert");
+        assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, "bert");
+        assertDummyAccount(RESOURCE_DUMMY_YELLOW_NAME, "bert");
+
+        and("the results of all the projection executions are collected");
+        List<OperationResult> projectionResults = getProjectionExecutionResults(result);
+        assertThat(projectionResults).as("projection execution results")
+                .hasSize(RESOURCE_OIDS.size());
+        assertThat(projectionResults.stream().filter(OperationResult::isFatalError).count())
+                .as("failed projection executions")
+                .isEqualTo(1);
+    }
+
+    /**
+     * One of the accounts already exists on the resource (without a shadow). The conflict is discovered
+     * while the accounts are being created concurrently: the account is synchronized (linked to the user)
+     * in the callback from provisioning, and the projector is restarted.
+     */
+    @Test
+    public void test220ConcurrentExecutionWithConflict() throws Exception {
+        given("a user without accounts, an existing default account, and concurrent execution allowed");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        String userOid = addUser("cecil", task, result);
+        DummyAccount existingAccount = getDummyResourceController().addAccount("cecil");
+        setInternalsThreads(InternalsConfigurationType.F_PROJECTION_EXECUTION_THREADS, RESOURCE_OIDS.size(), task, result);
+
+        try {
+            when("accounts on all the resources are assigned at once, with the resources blocked");
+            Throwable failure = executeWithResourcesBlocked(task, result,
+                    (t, r) -> executeChanges(createAccountsAssignmentDelta(userOid), null, t, r));
+
+            then("all the resources were accessed at once");
+            assertThat(failure).as("failure").isNull();
+        } finally {
+            setInternalsThreads(InternalsConfigurationType.F_PROJECTION_EXECUTION_THREADS, null, task, result);
+        }
+
+        and("all the accounts are linked, the existing one being re-used");
+        assertSuccess(result, 2);
+        display("User after", getUser(userOid));
+        assertAccounts(userOid, RESOURCE_OIDS.size());
+        assertThat(assertDummyAccount(null, "cecil").getId())
+                .as("default account ID")
+                .isEqualTo(existingAccount.getId());
+        assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, "cecil");
+        assertDummyAccount(RESOURCE_DUMMY_YELLOW_NAME, "cecil");
+
+        and("the default projection is executed again after the restart");
+        assertThat(getProjectionExecutionResults(result)).as("projection execution results")
+                .hasSizeGreaterThan(RESOURCE_OIDS.size());
+    }
+
+    private List<DummyResource> getResources() {
+        return List.of(
+                getDummyResource(),
+                getDummyResource(RESOURCE_DUMMY_BLUE_NAME),
+                getDummyResource(RESOURCE_DUMMY_YELLOW_NAME));
+    }
+
+    private String addUser(String name, Task task, OperationResult result) throws Exception {
+        PrismObject<UserType> user = createUser(name, name);
+        ProtectedStringType password = new ProtectedStringType();
+        password.setClearValue(USER_PASSWORD);
+        user.asObjectable().setCredentials(new CredentialsType()
+                .password(new PasswordType()
+                        .value(password)));
+        return addObject(user, task, result);
+    }
+
+    private ObjectDelta<UserType> createAccountsAssignmentDelta(String userOid) throws Exception {
+        ObjectDelta<UserType> delta = null;
+        for (String resourceOid : RESOURCE_OIDS) {
+            ObjectDelta<UserType> assignmentDelta = createAccountAssignmentUserDelta(userOid, resourceOid, null, true);
+            if (delta == null) {
+                delta = assignmentDelta;
+            } else {
+                delta.merge(assignmentDelta);
+            }
+        }
+        return delta;
+    }
+
+    private Set<String> getAddedShadowResourceOids(Collection<ObjectDeltaOperation<? extends ObjectType>> executedDeltas) {
+        return executedDeltas.stream()
+                .map(ObjectDeltaOperation::getObjectDelta)
+                .filter(delta -> delta.isAdd() && ShadowType.class.equals(delta.getObjectTypeClass()))
+                .map(delta -> ((ShadowType) delta.getObjectToAdd().asObjectable()).getResourceRef().getOid())
+                .collect(Collectors.toSet());
+    }
+
+    private List<String> getAddedLinkOids(Collection<ObjectDeltaOperation<? extends ObjectType>> executedDeltas) {
+        List<String> oids = new ArrayList<>();
+        for (ObjectDeltaOperation<? extends ObjectType> executedDelta : executedDeltas) {
+            ObjectDelta<? extends ObjectType> delta = executedDelta.getObjectDelta();
+            if (delta.isModify() && UserType.class.equals(delta.getObjectTypeClass())) {
+                ReferenceDelta linkDelta = delta.findReferenceModification(UserType.F_LINK_REF);
+                if (linkDelta != null && linkDelta.getValuesToAdd() != null) {
+                    for (PrismReferenceValue value : linkDelta.getValuesToAdd()) {
+                        oids.add(value.getOid());
+                    }
+                }
+            }
+        }
+        return oids;
+    }
+
+    /** Returns results of projection executions, except for the nested ones (e.g. in synchronization callbacks). */
+    private List<OperationResult> getProjectionExecutionResults(OperationResult result) {
+        List<OperationResult> found = new ArrayList<>();
+        collectProjectionExecutionResults(result, found);
+        return found;
+    }
+
+    private void collectProjectionExecutionResults(OperationResult result, List<OperationResult> found) {
+        if (OP_EXECUTE_SHADOW_PROJECTION.equals(result.getOperation())) {
+            found.add(result);
+        } else {
+            result.getSubresults().forEach(subresult -> collectProjectionExecutionResults(subresult, found));
+        }
+    }
+
+    private List<String> getLinkOids(PrismObject<UserType> user) {
+        return user.asObjectable().getLinkRef().stream()
+                .map(ObjectReferenceType::getOid)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Executes the operation in a separate thread, with the resources blocked. Waits until all the resources
+     * are being accessed at once (at least one of them from a projection worker thread), and then unblocks them.
+     *
+     * @return Exception thrown by the operation, if any.
+     */
+    private Throwable executeWithResourcesBlocked(Task task, OperationResult result, Operation operation)
+            throws InterruptedException {
+        List<DummyResource> resources = getResources();
+        resources.forEach(r -> r.setBlockOperations(true));
+        try {
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    login(userAdministrator.clone());
+                    operation.execute(task, result);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+
+            List<String> blockedThreads = waitForThreadsBlockedInDummyResources(RESOURCE_OIDS.size());
+            resources.forEach(DummyResource::unblockAll);
+            thread.join(BLOCKED_THREADS_TIMEOUT);
+
+            assertThat(blockedThreads).as("blocked threads")
+                    .hasSize(RESOURCE_OIDS.size())
+                    .anyMatch(name -> name.startsWith(PROJECTION_WORKER_THREAD_PREFIX));
+            assertThat(thread.isAlive()).as("operation still running").isFalse();
+            return failure.get();
+        } finally {
+            resources.forEach(DummyResource::unblockAll);
+        }
+    }
+
+    private void setInternalsThreads(ItemPath itemName, Integer threads, Task task, OperationResult result)
+            throws Exception {
+        ItemPath path = ItemPath.create(SystemConfigurationType.F_INTERNALS, itemName);
+        if (threads != null) {
+            modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, path, task, result, threads);
+        } else {
+            modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, path, task, result);
+        }
+    }
+
+    /**
+     * Waits until given number of threads are blocked in dummy resources. Returns their names.
+     * If that does not happen in time, returns the names of the threads blocked at that moment.
+     */
+    private List<String> waitForThreadsBlockedInDummyResources(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + BLOCKED_THREADS_TIMEOUT;
+        List<String> blocked;
+        while ((blocked = getThreadsBlockedInDummyResources()).size() < expected
+                && System.currentTimeMillis() < deadline) {
+            //noinspection BusyWait
+            Thread.sleep(100);
+        }
+        displayValue("Threads blocked in dummy resources", blocked);
+        return blocked;
+    }
+
+    private List<String> getThreadsBlockedInDummyResources() {
+        List<String> names = new ArrayList<>();
+        Thread.getAllStackTraces().forEach((thread, stack) -> {
+            for (StackTraceElement element : stack) {
+                if (DummyResource.class.getName().equals(element.getClassName())
+                        && "checkBlockOperations".equals(element.getMethodName())) {
+                    names.add(thread.getName());
+                    break;
+                }
+            }
+        });
+        return names;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void execute(Task task, OperationResult result) throws Exception;
+    }
+}
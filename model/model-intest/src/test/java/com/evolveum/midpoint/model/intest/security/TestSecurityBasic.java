@@ -14,12 +14,14 @@ import java.util.List;
 import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import com.evolveum.midpoint.model.api.ModelAuthorizationAction;
 import com.evolveum.midpoint.model.api.context.ModelContext;
 import com.evolveum.midpoint.model.test.SearchAssertion;
 import com.evolveum.midpoint.prism.*;
@@ -44,6 +46,10 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.enforcer.api.AuthorizationParameters;
+import com.evolveum.midpoint.security.enforcer.api.ObjectSecurityConstraints;
+import com.evolveum.midpoint.security.enforcer.impl.AuthorizationDecisionCache;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.asserter.OperationResultRepoSearchAsserter;
 import com.evolveum.midpoint.test.util.TestUtil;
@@ -57,6 +63,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 @DirtiesContext(classMode = ClassMode.AFTER_CLASS)
 public class TestSecurityBasic extends AbstractSecurityTest {
 
+    @Autowired private AuthorizationDecisionCache decisionCache;
+
     @Override
     public void initSystem(Task initTask, OperationResult initResult) throws Exception {
         super.initSystem(initTask, initResult);
@@ -3176,6 +3184,168 @@ public class TestSecurityBasic extends AbstractSecurityTest {
         assertGlobalStateUntouched();
     }
 
+    /**
+     * Cached decisions and security constraints must be the same as the freshly computed ones.
+     * Constraints must not be shared among callers.
+     */
+    @Test
+    public void test390AutzJackReadonlyDecisionCache() throws Exception {
+        given();
+        cleanupAutzTest(USER_JACK_OID);
+        assignRole(USER_JACK_OID, ROLE_READONLY_OID);
+        login(USER_JACK_USERNAME);
+        PrismObject<UserType> guybrush = getImmutableUser(USER_GUYBRUSH_OID);
+
+        decisionCache.setScope(AuthorizationDecisionCache.Scope.REQUEST);
+        decisionCache.enterRequestScope();
+        ObjectSecurityConstraints cachedConstraints1;
+        ObjectSecurityConstraints cachedConstraints2;
+        try {
+            when("decisions are computed twice");
+            assertIsAuthorized(ModelAuthorizationAction.READ.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+            assertIsNotAuthorized(ModelAuthorizationAction.MODIFY.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+            cachedConstraints1 = compileSecurityConstraints(guybrush);
+            assertEquals("Wrong # of cached decisions", 3, getCachedDecisionsCount());
+
+            assertIsAuthorized(ModelAuthorizationAction.READ.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+            assertIsNotAuthorized(ModelAuthorizationAction.MODIFY.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+            cachedConstraints2 = compileSecurityConstraints(guybrush);
+            assertEquals("Wrong # of cached decisions", 3, getCachedDecisionsCount());
+        } finally {
+            decisionCache.exitRequestScope();
+            decisionCache.setScope(AuthorizationDecisionCache.Scope.NONE);
+        }
+
+        then("cached results are the same as the fresh ones");
+        ObjectSecurityConstraints freshConstraints = compileSecurityConstraints(guybrush);
+        assertNotSame("Cached constraints are shared", cachedConstraints1, cachedConstraints2);
+        for (ObjectSecurityConstraints cachedConstraints : List.of(cachedConstraints1, cachedConstraints2)) {
+            for (ModelAuthorizationAction action : List.of(ModelAuthorizationAction.READ, ModelAuthorizationAction.MODIFY)) {
+                assertEquals("Wrong cached all items decision for " + action,
+                        freshConstraints.findAllItemsDecision(action.getUrl(), null),
+                        cachedConstraints.findAllItemsDecision(action.getUrl(), null));
+                assertEquals("Wrong cached item decision for " + action,
+                        freshConstraints.findItemDecision(UserType.F_NAME, action.getUrl(), null),
+                        cachedConstraints.findItemDecision(UserType.F_NAME, action.getUrl(), null));
+            }
+        }
+        assertEquals("Wrong read decision", AuthorizationDecisionType.ALLOW,
+                cachedConstraints1.findAllItemsDecision(ModelAuthorizationAction.READ.getUrl(), null));
+    }
+
+    /**
+     * Decisions depending on authorizations with filters must not be cached.
+     */
+    @Test
+    public void test392AutzJackObjectFilterDecisionNotCached() throws Exception {
+        given();
+        cleanupAutzTest(USER_JACK_OID);
+        assignRole(USER_JACK_OID, ROLE_OBJECT_FILTER_CARIBBEAN_OID);
+        login(USER_JACK_USERNAME);
+        PrismObject<UserType> jack = getImmutableUser(USER_JACK_OID);
+
+        decisionCache.setScope(AuthorizationDecisionCache.Scope.REQUEST);
+        decisionCache.enterRequestScope();
+        try {
+            when();
+            assertIsAuthorized(ModelAuthorizationAction.READ.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(jack), null);
+            compileSecurityConstraints(jack);
+
+            then();
+            assertEquals("Decisions based on filters were cached", 0, getCachedDecisionsCount());
+        } finally {
+            decisionCache.exitRequestScope();
+            decisionCache.setScope(AuthorizationDecisionCache.Scope.NONE);
+        }
+    }
+
+    /**
+     * Changing a role must invalidate cached decisions, and the changed authorizations must be applied.
+     */
+    @Test
+    public void test394AutzJackDecisionCacheRoleChange() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        cleanupAutzTest(USER_JACK_OID);
+        assignRole(USER_JACK_OID, ROLE_READONLY_OID);
+        login(USER_JACK_USERNAME);
+        PrismObject<UserType> guybrush = getImmutableUser(USER_GUYBRUSH_OID);
+        AuthorizationType denyReadUsers = new AuthorizationType(prismContext)
+                .name("deny-read-users")
+                .decision(AuthorizationDecisionType.DENY)
+                .action(ModelAuthorizationAction.READ.getUrl())
+                .object(new OwnedObjectSelectorType(prismContext).type(UserType.COMPLEX_TYPE));
+
+        decisionCache.setScope(AuthorizationDecisionCache.Scope.SESSION);
+        try {
+            assertIsAuthorized(ModelAuthorizationAction.READ.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+
+            when("an authorization is added to the role");
+            loginAdministrator();
+            long generationBefore = decisionCache.getGeneration();
+            executeChanges(
+                    deltaFor(RoleType.class)
+                            .item(RoleType.F_AUTHORIZATION).add(denyReadUsers.clone())
+                            .asObjectDelta(ROLE_READONLY_OID),
+                    null, task, result);
+            login(USER_JACK_USERNAME);
+
+            then("cached decisions are invalidated and the new authorization is applied");
+            assertTrue("Cached decisions were not invalidated", decisionCache.getGeneration() > generationBefore);
+            assertIsNotAuthorized(ModelAuthorizationAction.READ.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+
+            when("an authorization is added to the principal");
+            loginAdministrator();
+            executeChanges(
+                    deltaFor(RoleType.class)
+                            .item(RoleType.F_AUTHORIZATION).delete(denyReadUsers.clone())
+                            .asObjectDelta(ROLE_READONLY_OID),
+                    null, task, result);
+            login(USER_JACK_USERNAME);
+            assertIsAuthorized(ModelAuthorizationAction.READ.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+            getSecurityContextPrincipal().getAuthorities().add(new Authorization(denyReadUsers.clone()));
+
+            then("the decision reflects the new authorization");
+            assertIsNotAuthorized(ModelAuthorizationAction.READ.getUrl(), null,
+                    AuthorizationParameters.Builder.buildObject(guybrush), null);
+        } finally {
+            decisionCache.setScope(AuthorizationDecisionCache.Scope.NONE);
+            loginAdministrator();
+            PrismObject<RoleType> role = getRole(ROLE_READONLY_OID);
+            if (role.asObjectable().getAuthorization().size() > 1) {
+                executeChanges(
+                        deltaFor(RoleType.class)
+                                .item(RoleType.F_AUTHORIZATION).delete(denyReadUsers.clone())
+                                .asObjectDelta(ROLE_READONLY_OID),
+                        null, task, result);
+            }
+        }
+    }
+
+    private PrismObject<UserType> getImmutableUser(String oid) throws SchemaException, ObjectNotFoundException {
+        return repositoryService
+                .getObject(UserType.class, oid, null, getTestOperationResult())
+                .createImmutableClone();
+    }
+
+    private ObjectSecurityConstraints compileSecurityConstraints(PrismObject<UserType> user) throws CommonException {
+        Task task = getTestTask();
+        return securityEnforcer.compileSecurityConstraints(user, null, task, task.getResult());
+    }
+
+    private int getCachedDecisionsCount() {
+        return decisionCache.getStateInformation().iterator().next().getSize();
+    }
+
     private void assertTaskAddAllow(String oid, String name, String ownerOid, String handlerUri) throws Exception {
         assertAllow("add task " + name,
                 (task, result) -> addTask(oid, name, ownerOid, handlerUri, task, result));
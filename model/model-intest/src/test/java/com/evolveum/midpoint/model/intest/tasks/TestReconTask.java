@@ -6,8 +6,13 @@
  */
 package com.evolveum.midpoint.model.intest.tasks;
 
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
 import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.evolveum.icf.dummy.resource.DummyAccount;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 
 import org.springframework.test.annotation.DirtiesContext;
@@ -31,10 +36,10 @@ public class TestReconTask extends AbstractInitializedModelIntegrationTest {
 
     static final File TEST_DIR = new File("src/test/resources/tasks/recon");
 
-    @SuppressWarnings("FieldCanBeLocal")
     private DummyInterruptedSyncResource interruptedSyncResource;
 
     private static final TestResource<TaskType> TASK_RECONCILIATION = new TestResource<>(TEST_DIR, "task-reconciliation.xml", "1cf4e4fd-7648-4f83-bed4-78bd5d30d2a3");
+    private static final TestResource<TaskType> TASK_RECONCILIATION_SKIP_UNCHANGED = new TestResource<>(TEST_DIR, "task-reconciliation-skip-unchanged.xml", "5e0f3c2a-8b1d-4c7e-9f46-2d7a1b9c0e35");
 
     private static final String USER_FORMAT = "user-";
 
@@ -101,4 +106,85 @@ public class TestReconTask extends AbstractInitializedModelIntegrationTest {
                     .assertItemsProcessed(0)
                 .end();
     }
+
+    /**
+     * The first run of a reconciliation skipping unchanged objects processes all the objects, as there are no
+     * fingerprints yet.
+     */
+    @Test
+    public void test200SkipUnchangedFirstRun() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        addObject(TASK_RECONCILIATION_SKIP_UNCHANGED, task, result);
+
+        when();
+        int executions = runSkipUnchangedAndCountMappingExecutions();
+
+        then();
+        assertTrue("Not all objects were processed: " + executions, executions >= USERS);
+    }
+
+    /**
+     * Nothing has changed, so the objects are skipped.
+     */
+    @Test
+    public void test210SkipUnchangedNoChange() throws Exception {
+        when();
+        int executions = runSkipUnchangedAndCountMappingExecutions();
+
+        then();
+        assertEquals("Wrong # of mapping executions (all objects should be skipped)", 0, executions);
+    }
+
+    /**
+     * An attribute without any mapping is changed. It may be used elsewhere (e.g. in constructions
+     * or synchronization conditions), so the object is processed.
+     */
+    @Test
+    public void test220SkipUnchangedUnmappedAttributeChanged() throws Exception {
+        given();
+        getAccount(0).replaceAttributeValue(DummyAccount.ATTR_DESCRIPTION_NAME, "changed");
+
+        when();
+        int executions = runSkipUnchangedAndCountMappingExecutions();
+
+        then();
+        assertTrue("The changed object was not processed", executions > 0);
+    }
+
+    /**
+     * An ignored attribute is changed, so the object is still skipped.
+     */
+    @Test
+    public void test230SkipUnchangedIgnoredAttributeChanged() throws Exception {
+        given();
+        getAccount(1).replaceAttributeValue(DummyAccount.ATTR_INTERESTS_NAME, "sailing");
+
+        when();
+        int executions = runSkipUnchangedAndCountMappingExecutions();
+
+        then();
+        assertEquals("Wrong # of mapping executions (all objects should be skipped)", 0, executions);
+    }
+
+    private int runSkipUnchangedAndCountMappingExecutions() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        DummyInterruptedSyncResource.setExecutionListener(executions::incrementAndGet);
+        try {
+            runTaskTreeAndWaitForFinish(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, 30000);
+        } finally {
+            DummyInterruptedSyncResource.setExecutionListener(null);
+        }
+
+        assertTaskTree(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, "after")
+                .display()
+                .assertSuccess()
+                .assertClosed();
+        return executions.get();
+    }
+
+    private DummyAccount getAccount(int i) throws Exception {
+        return interruptedSyncResource.getController().getDummyResource().getAccountByUsername(getUserName(i));
+    }
 }
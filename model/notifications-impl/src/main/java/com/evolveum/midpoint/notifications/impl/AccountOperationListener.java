@@ -17,6 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import com.evolveum.midpoint.model.impl.lens.executor.ProjectionExecutionGate;
 import com.evolveum.midpoint.notifications.api.NotificationManager;
 import com.evolveum.midpoint.notifications.api.OperationStatus;
 import com.evolveum.midpoint.notifications.impl.events.ResourceObjectEventImpl;
@@ -185,8 +186,9 @@ public class AccountOperationListener implements ResourceOperationListener {
 
     private PrismObject<UserType> findRequestee(String shadowOid, Task task, OperationResult result) {
         // This is (still) a temporary solution. We need to rework it eventually.
-        if (task != null && task.getRequestee() != null) {
-            return task.getRequestee();
+        PrismObject<UserType> requestee = task != null ? ProjectionExecutionGate.getRequestee(task) : null;
+        if (requestee != null) {
+            return requestee;
         } else if (shadowOid != null) {
             try {
                 ObjectQuery query = prismContext.queryFor(UserType.class)
@@ -0,0 +1,680 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import javax.xml.datatype.Duration;
+import javax.xml.namespace.QName;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.crypto.EncryptionException;
+import com.evolveum.midpoint.prism.util.CloneUtil;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailOutboxConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailServerConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationMessageAttachmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationMessageType;
+
+/**
+ * Durable queue of mail messages that are sent asynchronously by a pool of sender threads.
+ *
+ * - Each message is stored in the journal directory (one file per message) before {@link #enqueue(Message)} returns,
+ * so it survives the restart of the node. The file is deleted after the message is sent. Messages found in the journal
+ * are queued again on {@link #start()}. Attachments given by file name are copied to the "attachments" subdirectory
+ * at that time, so the message is sent as it was created, even if the original file is changed or deleted in the meantime.
+ * The journal contains the whole messages, so its files and directories are made accessible to their owner only
+ * (if the file system supports POSIX permissions).
+ * - Each sender takes up to `batchSize` messages that are ready and sends them over a single connection, trying the mail
+ * servers one after another (like the synchronous sending does). Connections are kept open while they are being used,
+ * and closed after being idle for `connectionKeepAlive` milliseconds.
+ * - Messages that could not be sent via any server are retried with exponential backoff. After `maxAttempts` attempts
+ * they are moved to the "failed" subdirectory of the journal, where they are kept for `failedMessagesMaxAge`.
+ *
+ * The number of attempts is not stored in the journal, so it starts from zero after the restart.
+ */
+public class MailOutbox {
+
+    private static final Trace LOGGER = TraceManager.getTrace(MailOutbox.class);
+
+    private static final String FAILED_DIRECTORY = "failed";
+    private static final String ATTACHMENTS_DIRECTORY = "attachments";
+    private static final String MESSAGE_FILE_SUFFIX = ".xml";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final QName MESSAGE_ELEMENT_NAME = new QName(SchemaConstants.NS_C, "message");
+
+    private static final int DEFAULT_SENDERS = 2;
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_CONNECTION_KEEP_ALIVE = 30000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_INTERVAL = 10000;
+    private static final long MAX_RETRY_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final long DEFAULT_FAILED_MESSAGES_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+
+    /** How often are the old failed messages deleted. */
+    private static final long PURGE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private static final Set<PosixFilePermission> PRIVATE_FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+    private static final Set<PosixFilePermission> PRIVATE_DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+
+    /** How long a sender waits for messages before checking its idle connections (and whether it should stop). */
+    private static final long POLL_INTERVAL = 1000;
+
+    /** How long we wait for a sender to finish the messages it is sending when the outbox is stopped. */
+    private static final long STOP_TIMEOUT = 10000;
+
+    @NotNull private final Path journalDirectory;
+    @NotNull private final Supplier<MailConfigurationType> mailConfigurationSupplier;
+    @NotNull private final MailServerSupport serverSupport;
+    @NotNull private final PrismContext prismContext;
+
+    @NotNull private volatile MailOutboxConfigurationType configuration;
+
+    /** Messages waiting to be sent, ordered by the time they can be sent at (i.e. enqueued or retry time). */
+    @NotNull private final DelayQueue<Entry> queue = new DelayQueue<>();
+
+    /** Guarded by `this`. */
+    @NotNull private final List<Thread> senders = new ArrayList<>();
+
+    private volatile boolean stopped;
+
+    /** When should the old failed messages be deleted next time. */
+    @NotNull private final AtomicLong nextPurge = new AtomicLong();
+
+    @NotNull private final Statistics statistics = new Statistics();
+
+    /**
+     * @param mailConfigurationSupplier Provides the current mail configuration (servers, default "from" address);
+     * it is asked for each batch of messages sent. May return null if the mail is not configured.
+     */
+    public MailOutbox(@NotNull Path journalDirectory, @NotNull MailOutboxConfigurationType configuration,
+            @NotNull Supplier<MailConfigurationType> mailConfigurationSupplier, @NotNull MailServerSupport serverSupport,
+            @NotNull PrismContext prismContext) {
+        this.journalDirectory = journalDirectory;
+        this.configuration = configuration;
+        this.mailConfigurationSupplier = mailConfigurationSupplier;
+        this.serverSupport = serverSupport;
+        this.prismContext = prismContext;
+    }
+
+    /**
+     * Updates the configuration. The number of senders is not changed for a running outbox.
+     */
+    public void setConfiguration(@NotNull MailOutboxConfigurationType configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Queues the messages found in the journal and starts the senders.
+     */
+    public synchronized void start() {
+        MiscUtil.stateCheck(senders.isEmpty() && !stopped, "Mail outbox cannot be started twice");
+        try {
+            createPrivateDirectory(journalDirectory);
+            createPrivateDirectory(journalDirectory.resolve(FAILED_DIRECTORY));
+            createPrivateDirectory(journalDirectory.resolve(ATTACHMENTS_DIRECTORY));
+        } catch (IOException e) {
+            throw new SystemException("Couldn't create mail outbox journal directory " + journalDirectory, e);
+        }
+        int recovered = recoverJournal();
+        deleteOrphanedAttachments();
+        purgeFailedMessagesIfDue();
+        int senderCount = Math.max(1, Objects.requireNonNullElse(configuration.getSenders(), DEFAULT_SENDERS));
+        for (int i = 1; i <= senderCount; i++) {
+            Thread sender = new Thread(this::runSender, "Mail outbox sender " + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+        LOGGER.info("Mail outbox started with {} sender(s), journal in {}, {} message(s) recovered from the journal",
+                senderCount, journalDirectory, recovered);
+    }
+
+    /**
+     * Stops the senders, waiting (for a limited time) for the messages being sent. Messages that were not sent
+     * remain in the journal.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        for (Thread sender : senders) {
+            try {
+                sender.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        senders.clear();
+        queue.clear();
+        LOGGER.info("Mail outbox stopped: {}", statistics);
+    }
+
+    /**
+     * Stores the message (along with the attachments given by file name) in the journal and queues it for sending.
+     *
+     * @throws IOException Also if an attachment file cannot be read.
+     */
+    public void enqueue(@NotNull Message message) throws IOException, SchemaException {
+        MiscUtil.stateCheck(!stopped, "Mail outbox is stopped");
+        String name = System.currentTimeMillis() + "-" + UUID.randomUUID();
+        Path file = journalDirectory.resolve(name + MESSAGE_FILE_SUFFIX);
+        Path temporaryFile = file.resolveSibling(file.getFileName() + TEMPORARY_FILE_SUFFIX);
+        NotificationMessageType bean;
+        try {
+            bean = toBean(message, name);
+            String serialized = prismContext.xmlSerializer().serializeRealValue(bean, MESSAGE_ELEMENT_NAME);
+            createPrivateFile(temporaryFile);
+            Files.writeString(temporaryFile, serialized, StandardCharsets.UTF_8);
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | SchemaException | RuntimeException e) {
+            deleteFile(temporaryFile);
+            deleteAttachments(name);
+            throw e;
+        }
+        queue.add(new Entry(file, new Message(bean)));
+        statistics.enqueued.incrementAndGet();
+    }
+
+    public @NotNull Statistics getStatistics() {
+        return statistics;
+    }
+
+    /** Returns the number of messages waiting to be sent (including those waiting for a retry). */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private int recoverJournal() {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(journalDirectory)) {
+            files = stream.filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new SystemException("Couldn't read mail outbox journal directory " + journalDirectory, e);
+        }
+        int recovered = 0;
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMPORARY_FILE_SUFFIX)) {
+                // The message was not completely written, so it was not enqueued.
+                deleteFile(file);
+                deleteAttachments(getMessageName(file));
+            } else if (recoverMessage(file)) {
+                recovered++;
+            }
+        }
+        return recovered;
+    }
+
+    private boolean recoverMessage(Path file) {
+        try {
+            NotificationMessageType bean = prismContext.parserFor(file.toFile())
+                    .parseRealValue(NotificationMessageType.class);
+            queue.add(new Entry(file, new Message(bean)));
+            return true;
+        } catch (IOException | SchemaException | RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't read mail message from {}, moving it among failed ones",
+                    e, file);
+            moveToFailed(file);
+            return false;
+        }
+    }
+
+    /** Attachments of messages that were not written to the journal (because of a crash) are deleted here. */
+    private void deleteOrphanedAttachments() {
+        List<Path> directories;
+        try (Stream<Path> stream = Files.list(journalDirectory.resolve(ATTACHMENTS_DIRECTORY))) {
+            directories = stream.collect(Collectors.toList());
+        } catch (IOException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't read mail outbox attachments directory", e);
+            return;
+        }
+        for (Path directory : directories) {
+            String name = directory.getFileName().toString();
+            if (!Files.exists(journalDirectory.resolve(name + MESSAGE_FILE_SUFFIX))
+                    && !Files.exists(journalDirectory.resolve(FAILED_DIRECTORY).resolve(name + MESSAGE_FILE_SUFFIX))) {
+                deleteAttachments(name);
+            }
+        }
+    }
+
+    private NotificationMessageType toBean(Message message, String name) throws IOException {
+        NotificationMessageType bean = new NotificationMessageType();
+        bean.setFrom(message.getFrom());
+        bean.getTo().addAll(message.getTo());
+        bean.getCc().addAll(message.getCc());
+        bean.getBcc().addAll(message.getBcc());
+        bean.setSubject(message.getSubject());
+        bean.setBody(message.getBody());
+        bean.setContentType(message.getContentType());
+        int index = 0;
+        for (NotificationMessageAttachmentType attachment : message.getAttachments()) {
+            NotificationMessageAttachmentType clone = CloneUtil.clone(attachment);
+            if (clone.getContent() == null && clone.getContentFromFile() != null) {
+                copyAttachmentFile(clone, name, ++index);
+            }
+            bean.getAttachment().add(clone);
+        }
+        return bean;
+    }
+
+    /**
+     * Copies the attachment file into the journal, and points the attachment to the copy.
+     * The original file name is kept as the name of the attachment.
+     */
+    private void copyAttachmentFile(NotificationMessageAttachmentType attachment, String name, int index)
+            throws IOException {
+        Path source = Paths.get(attachment.getContentFromFile());
+        Path directory = journalDirectory.resolve(ATTACHMENTS_DIRECTORY).resolve(name);
+        createPrivateDirectory(directory);
+        Path copy = directory.resolve(index + "-" + source.getFileName());
+        createPrivateFile(copy);
+        try (OutputStream out = Files.newOutputStream(copy)) {
+            Files.copy(source, out);
+        }
+        attachment.setContentFromFile(copy.toAbsolutePath().toString());
+        if (StringUtils.isBlank(attachment.getFileName())) {
+            attachment.setFileName(source.getFileName().toString());
+        }
+    }
+
+    private void runSender() {
+        Sender sender = new Sender();
+        try {
+            while (!stopped) {
+                Entry first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    List<Entry> batch = new ArrayList<>();
+                    batch.add(first);
+                    queue.drainTo(batch, getBatchSize() - 1); // only messages that are ready
+                    sender.send(batch);
+                }
+                sender.closeIdleConnections();
+                purgeFailedMessagesIfDue();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sender.closeAllConnections();
+        }
+    }
+
+    private void scheduleRetry(Entry entry) {
+        entry.attempts++;
+        int maxAttempts = Objects.requireNonNullElse(configuration.getMaxAttempts(), DEFAULT_MAX_ATTEMPTS);
+        if (entry.attempts >= maxAttempts) {
+            LOGGER.warn("Mail message to {} could not be sent in {} attempt(s), moving it to {}",
+                    entry.message.getTo(), entry.attempts, journalDirectory.resolve(FAILED_DIRECTORY));
+            moveToFailed(entry.file);
+            statistics.failed.incrementAndGet();
+        } else {
+            long retryInterval = Objects.requireNonNullElse(configuration.getRetryInterval(), DEFAULT_RETRY_INTERVAL);
+            long delay = Math.min(retryInterval << Math.min(entry.attempts - 1, 20), MAX_RETRY_INTERVAL);
+            LOGGER.debug("Mail message to {} will be retried in {} ms (attempt {} failed)",
+                    entry.message.getTo(), delay, entry.attempts);
+            entry.notBefore = System.currentTimeMillis() + delay;
+            queue.add(entry);
+            statistics.retried.incrementAndGet();
+        }
+    }
+
+    private int getBatchSize() {
+        return Math.max(1, Objects.requireNonNullElse(configuration.getBatchSize(), DEFAULT_BATCH_SIZE));
+    }
+
+    /** The attachments stay where they are, until the failed message is purged. */
+    private void moveToFailed(Path file) {
+        try {
+            Path target = journalDirectory.resolve(FAILED_DIRECTORY).resolve(file.getFileName());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            // The age of the failed message is counted from now.
+            Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't move failed mail message {}", e, file);
+        }
+    }
+
+    /** Deletes the message that was sent. */
+    private void deleteMessage(Path file) {
+        deleteFile(file);
+        deleteAttachments(getMessageName(file));
+    }
+
+    /**
+     * Deletes the failed messages older than `failedMessagesMaxAge`, along with their attachments.
+     * It is done on start, and then by the senders at most once per {@link #PURGE_INTERVAL}.
+     */
+    private void purgeFailedMessagesIfDue() {
+        long now = System.currentTimeMillis();
+        long next = nextPurge.get();
+        if (now < next || !nextPurge.compareAndSet(next, now + PURGE_INTERVAL)) {
+            return;
+        }
+        Duration maxAge = configuration.getFailedMessagesMaxAge();
+        long deleteBefore = now - (maxAge != null ? maxAge.getTimeInMillis(new Date(now)) : DEFAULT_FAILED_MESSAGES_MAX_AGE);
+        List<Path> toDelete;
+        try (Stream<Path> stream = Files.list(journalDirectory.resolve(FAILED_DIRECTORY))) {
+            toDelete = stream.filter(file -> isModifiedBefore(file, deleteBefore))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't read failed mail messages directory", e);
+            return;
+        }
+        toDelete.forEach(this::deleteMessage);
+        if (!toDelete.isEmpty()) {
+            LOGGER.info("Deleted {} failed mail message(s) older than {}", toDelete.size(), new Date(deleteBefore));
+        }
+    }
+
+    private boolean isModifiedBefore(Path file, long time) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() < time;
+        } catch (IOException e) {
+            LOGGER.debug("Couldn't determine the age of {}: {}", file, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void deleteAttachments(String name) {
+        File directory = journalDirectory.resolve(ATTACHMENTS_DIRECTORY).resolve(name).toFile();
+        try {
+            FileUtils.deleteDirectory(directory); // no-op if it does not exist
+        } catch (IOException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't delete mail message attachments {}", e, directory);
+        }
+    }
+
+    /** Name of the message is the name of its file without the suffix(es). It is used for the attachments directory. */
+    private static String getMessageName(Path file) {
+        String fileName = file.getFileName().toString();
+        int suffix = fileName.indexOf(MESSAGE_FILE_SUFFIX);
+        return suffix >= 0 ? fileName.substring(0, suffix) : fileName;
+    }
+
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        restrictPermissions(directory, PRIVATE_DIRECTORY_PERMISSIONS);
+    }
+
+    /** Creates an empty file that is accessible only by its owner; the content is written afterwards. */
+    private static void createPrivateFile(Path file) throws IOException {
+        Files.createFile(file);
+        restrictPermissions(file, PRIVATE_FILE_PERMISSIONS);
+    }
+
+    private static void restrictPermissions(Path path, Set<PosixFilePermission> permissions) throws IOException {
+        if (Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(path, permissions);
+        }
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // The message would be sent again after the restart; nothing more we can do.
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't delete mail message {} from the journal", e, file);
+        }
+    }
+
+    /** Message in the queue. */
+    private static class Entry implements Delayed {
+
+        @NotNull private final Path file;
+        @NotNull private final Message message;
+
+        /** Number of failed attempts. */
+        private int attempts;
+
+        /** When can the message be sent (retried). */
+        private long notBefore;
+
+        Entry(@NotNull Path file, @NotNull Message message) {
+            this.file = file;
+            this.message = message;
+            this.notBefore = System.currentTimeMillis();
+        }
+
+        @Override
+        public long getDelay(@NotNull TimeUnit unit) {
+            return unit.convert(notBefore - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(@NotNull Delayed other) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /** Open connection to a mail server. */
+    private static class Connection {
+
+        @NotNull private final Session session;
+        @NotNull private final Transport transport;
+        private long lastUsed = System.currentTimeMillis();
+
+        Connection(@NotNull Session session, @NotNull Transport transport) {
+            this.session = session;
+            this.transport = transport;
+        }
+
+        void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOGGER.debug("Couldn't close mail server connection: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Sending part of a sender thread. Not thread safe; each sender thread has its own instance,
+     * including the connections.
+     */
+    private class Sender {
+
+        /** Open connections, keyed by host and port. */
+        @NotNull private final Map<String, Connection> connections = new HashMap<>();
+
+        void send(List<Entry> batch) {
+            long start = System.currentTimeMillis();
+            MailConfigurationType mailConfiguration = mailConfigurationSupplier.get();
+            List<Entry> remaining = batch;
+            if (mailConfiguration != null) {
+                for (MailServerConfigurationType server : mailConfiguration.getServer()) {
+                    if (remaining.isEmpty()) {
+                        break;
+                    }
+                    remaining = sendViaServer(remaining, mailConfiguration, server);
+                }
+            } else {
+                LOGGER.warn("Mail is not configured, {} message(s) in the outbox cannot be sent now", batch.size());
+            }
+            remaining.forEach(MailOutbox.this::scheduleRetry);
+            LOGGER.debug("Batch of {} message(s) processed in {} ms, {} of them not sent; outbox statistics: {}",
+                    batch.size(), System.currentTimeMillis() - start, remaining.size(), statistics);
+        }
+
+        /** Returns messages that were not sent. */
+        private List<Entry> sendViaServer(List<Entry> entries, MailConfigurationType mailConfiguration,
+                MailServerConfigurationType server) {
+            Connection connection;
+            try {
+                connection = getConnection(mailConfiguration, server);
+            } catch (MessagingException | EncryptionException | RuntimeException e) {
+                LoggingUtils.logExceptionAsWarning(LOGGER, "Couldn't connect to mail server {}, trying another one, "
+                        + "if there is any", e, server.getHost());
+                return entries;
+            }
+            List<Entry> failed = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                try {
+                    MimeMessage mimeMessage = serverSupport.createMimeMessage(connection.session, entry.message, mailConfiguration);
+                    if (mimeMessage == null) {
+                        LOGGER.warn("Mail message to {} cannot be created, moving it among failed ones", entry.message.getTo());
+                        moveToFailed(entry.file);
+                        statistics.failed.incrementAndGet();
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    connection.transport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+                    statistics.sendTime.addAndGet(System.nanoTime() - start);
+                    statistics.sent.incrementAndGet();
+                    connection.lastUsed = System.currentTimeMillis();
+                    deleteMessage(entry.file);
+                } catch (MessagingException | RuntimeException e) {
+                    LoggingUtils.logExceptionAsWarning(LOGGER, "Couldn't send mail message to {} via {}", e,
+                            entry.message.getTo(), server.getHost());
+                    failed.add(entry);
+                    if (!connection.transport.isConnected()) {
+                        // The remaining messages will be tried via other servers (or later).
+                        closeConnection(getConnectionKey(server));
+                        failed.addAll(entries.subList(i + 1, entries.size()));
+                        break;
+                    }
+                }
+            }
+            return failed;
+        }
+
+        private Connection getConnection(MailConfigurationType mailConfiguration, MailServerConfigurationType server)
+                throws MessagingException, EncryptionException {
+            String key = getConnectionKey(server);
+            Connection existing = connections.get(key);
+            if (existing != null) {
+                if (existing.transport.isConnected()) {
+                    return existing;
+                }
+                closeConnection(key);
+            }
+            Session session = serverSupport.createSession(mailConfiguration, server);
+            Transport transport = session.getTransport("smtp");
+            serverSupport.connect(transport, server);
+            statistics.connectionsOpened.incrementAndGet();
+            Connection connection = new Connection(session, transport);
+            connections.put(key, connection);
+            return connection;
+        }
+
+        private String getConnectionKey(MailServerConfigurationType server) {
+            return server.getHost() + ":" + server.getPort();
+        }
+
+        private void closeConnection(String key) {
+            Connection connection = connections.remove(key);
+            if (connection != null) {
+                connection.close();
+            }
+        }
+
+        void closeIdleConnections() {
+            long keepAlive = Objects.requireNonNullElse(configuration.getConnectionKeepAlive(), DEFAULT_CONNECTION_KEEP_ALIVE);
+            long now = System.currentTimeMillis();
+            connections.entrySet().removeIf(e -> {
+                if (now - e.getValue().lastUsed > keepAlive) {
+                    e.getValue().close();
+                    return true;
+                } else {
+                    return false;
+                }
+            });
+        }
+
+        void closeAllConnections() {
+            connections.values().forEach(Connection::close);
+            connections.clear();
+        }
+    }
+
+    /**
+     * Counters of the outbox activity since its start.
+     */
+    public static class Statistics {
+
+        private final AtomicLong enqueued = new AtomicLong();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong retried = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong connectionsOpened = new AtomicLong();
+        private final AtomicLong sendTime = new AtomicLong(); // nanoseconds
+
+        /** Messages put into the outbox (not counting those recovered from the journal). */
+        public long getEnqueued() {
+            return enqueued.get();
+        }
+
+        /** Messages sent successfully. */
+        public long getSent() {
+            return sent.get();
+        }
+
+        /** Failed attempts that are to be retried. */
+        public long getRetried() {
+            return retried.get();
+        }
+
+        /** Messages that were given up. */
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /** Connections to mail servers opened by the senders. */
+        public long getConnectionsOpened() {
+            return connectionsOpened.get();
+        }
+
+        /** Average time of sending a single message over an open connection (in milliseconds). */
+        public @Nullable Double getAverageSendTime() {
+            long sent = getSent();
+            return sent > 0 ? sendTime.get() / 1e6 / sent : null;
+        }
+
+        @Override
+        public String toString() {
+            return "enqueued: " + getEnqueued() + ", sent: " + getSent() + ", retried: " + getRetried()
+                    + ", failed: " + getFailed() + ", connections opened: " + getConnectionsOpened()
+                    + ", average send time: " + getAverageSendTime() + " ms";
+        }
+    }
+}
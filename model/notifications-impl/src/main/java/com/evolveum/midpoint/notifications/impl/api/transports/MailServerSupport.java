@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.Objects;
+import java.util.Properties;
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.activation.FileDataSource;
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.impl.util.MimeTypeUtil;
+import com.evolveum.midpoint.prism.crypto.EncryptionException;
+import com.evolveum.midpoint.prism.crypto.Protector;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
+import com.evolveum.prism.xml.ns._public.types_3.RawType;
+
+/**
+ * Creates mail sessions and messages, and connects to mail servers.
+ *
+ * Used both for synchronous sending ({@link MailTransport}) and by the {@link MailOutbox} senders.
+ */
+public class MailServerSupport {
+
+    private static final Trace LOGGER = TraceManager.getTrace(MailServerSupport.class);
+
+    private static final String DEFAULT_FROM = "nobody@nowhere.org";
+
+    private static final int DEFAULT_CONNECTION_TIMEOUT = 60000;
+    private static final int DEFAULT_TIMEOUT = 120000;
+
+    /** Needed only if some of the servers require authentication. */
+    @Nullable private final Protector protector;
+
+    public MailServerSupport(@Nullable Protector protector) {
+        this.protector = protector;
+    }
+
+    /**
+     * Creates a session for given mail server. The properties are based on the system properties,
+     * but the system properties themselves are not changed, so sessions for different servers can be used concurrently.
+     *
+     * Connection and read/write timeouts are always set, so an unresponsive server cannot block the sending thread
+     * (an outbox sender or the thread doing the operation that produced the message) forever.
+     */
+    @NotNull Session createSession(@NotNull MailConfigurationType mailConfiguration,
+            @NotNull MailServerConfigurationType server) {
+        Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+        properties.setProperty("mail.smtp.host", server.getHost());
+        if (server.getPort() != null) {
+            properties.setProperty("mail.smtp.port", String.valueOf(server.getPort()));
+        }
+        int connectionTimeout = Objects.requireNonNullElse(server.getConnectionTimeout(), DEFAULT_CONNECTION_TIMEOUT);
+        int timeout = Objects.requireNonNullElse(server.getTimeout(), DEFAULT_TIMEOUT);
+        properties.setProperty("mail.smtp.connectiontimeout", String.valueOf(connectionTimeout));
+        properties.setProperty("mail.smtp.timeout", String.valueOf(timeout));
+        properties.setProperty("mail.smtp.writetimeout", String.valueOf(timeout));
+        MailTransportSecurityType mailTransportSecurityType = server.getTransportSecurity();
+
+        boolean sslEnabled = false, starttlsEnable = false, starttlsRequired = false;
+        if (mailTransportSecurityType != null) {
+            switch (mailTransportSecurityType) {
+                case STARTTLS_ENABLED:
+                    starttlsEnable = true;
+                    break;
+                case STARTTLS_REQUIRED:
+                    starttlsEnable = true;
+                    starttlsRequired = true;
+                    break;
+                case SSL:
+                    sslEnabled = true;
+                    break;
+            }
+        }
+        properties.put("mail.smtp.ssl.enable", "" + sslEnabled);
+        properties.put("mail.smtp.starttls.enable", "" + starttlsEnable);
+        properties.put("mail.smtp.starttls.required", "" + starttlsRequired);
+        if (Boolean.TRUE.equals(mailConfiguration.isDebug())) {
+            properties.put("mail.debug", "true");
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Using mail properties: ");
+            for (Object key : properties.keySet()) {
+                if (key instanceof String && ((String) key).startsWith("mail.")) {
+                    LOGGER.debug(" - {} = {}", key, properties.get(key));
+                }
+            }
+        }
+        return Session.getInstance(properties);
+    }
+
+    /**
+     * Connects the transport to the mail server, authenticating if needed.
+     *
+     * @throws EncryptionException If the password cannot be decrypted.
+     */
+    void connect(@NotNull Transport transport, @NotNull MailServerConfigurationType server)
+            throws MessagingException, EncryptionException {
+        if (StringUtils.isNotEmpty(server.getUsername())) {
+            ProtectedStringType passwordProtected = server.getPassword();
+            String password = null;
+            if (passwordProtected != null) {
+                if (protector == null) {
+                    throw new IllegalStateException("No protector available to decrypt the mail server password");
+                }
+                password = protector.decryptString(passwordProtected);
+            }
+            transport.connect(server.getUsername(), password);
+        } else {
+            transport.connect();
+        }
+    }
+
+    /**
+     * Creates MIME message for given mail message.
+     *
+     * @return null if the message cannot be created because of an attachment problem (the reason is logged)
+     */
+    @Nullable MimeMessage createMimeMessage(@NotNull Session session, @NotNull Message mailMessage,
+            @NotNull MailConfigurationType mailConfiguration) throws MessagingException {
+        MimeMessage mimeMessage = new MimeMessage(session);
+        mimeMessage.setSentDate(new Date());
+        String defaultFrom = mailConfiguration.getDefaultFrom() != null ? mailConfiguration.getDefaultFrom() : DEFAULT_FROM;
+        String from = mailMessage.getFrom() != null ? mailMessage.getFrom() : defaultFrom;
+        mimeMessage.setFrom(new InternetAddress(from));
+
+        for (String recipient : mailMessage.getTo()) {
+            mimeMessage.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(recipient));
+        }
+        for (String recipientCc : mailMessage.getCc()) {
+            mimeMessage.addRecipient(javax.mail.Message.RecipientType.CC, new InternetAddress(recipientCc));
+        }
+        for (String recipientBcc : mailMessage.getBcc()) {
+            mimeMessage.addRecipient(javax.mail.Message.RecipientType.BCC, new InternetAddress(recipientBcc));
+        }
+        mimeMessage.setSubject(mailMessage.getSubject(), StandardCharsets.UTF_8.name());
+        String contentType = mailMessage.getContentType();
+        if (StringUtils.isEmpty(contentType)) {
+            contentType = "text/plain; charset=UTF-8";
+        }
+        BodyPart messageBody = new MimeBodyPart();
+        messageBody.setContent(mailMessage.getBody(), contentType);
+        Multipart multipart = new MimeMultipart();
+        multipart.addBodyPart(messageBody);
+        for (NotificationMessageAttachmentType attachment : mailMessage.getAttachments()) {
+
+            if (attachment.getContent() != null || attachment.getContentFromFile() != null) {
+                String fileName;
+                BodyPart attachmentBody = new MimeBodyPart();
+                if (attachment.getContent() != null) {
+                    try {
+                        Object content = RawType.getValue(attachment.getContent());
+                        if (content == null) {
+                            LOGGER.warn("RawType " + attachment.getContent() + " isn't possible to parse.");
+                            return null;
+                        }
+                        attachmentBody.setContent(content, attachment.getContentType());
+                    } catch (SchemaException e) {
+                        LOGGER.warn("RawType " + attachment.getContent() + " isn't possible to parse.");
+                        return null;
+                    }
+                    if (StringUtils.isBlank(attachment.getFileName())) {
+                        fileName = "attachment";
+                    } else {
+                        fileName = attachment.getFileName();
+                    }
+                } else {
+                    if (!Files.isReadable(Paths.get(attachment.getContentFromFile()))) {
+                        LOGGER.warn("File " + attachment.getContentFromFile() + " non exist or isn't readable.");
+                        return null;
+                    }
+
+                    DataSource source = new FileDataSource(attachment.getContentFromFile()) {
+                        @Override
+                        public String getContentType() {
+                            return attachment.getContentType();
+                        }
+                    };
+                    attachmentBody.setDataHandler(new DataHandler(source));
+                    if (StringUtils.isBlank(attachment.getFileName())) {
+                        fileName = source.getName();
+                    } else {
+                        fileName = attachment.getFileName();
+                    }
+                }
+
+                if (!fileName.contains(".")) {
+                    fileName += MimeTypeUtil.getDefaultExt(attachment.getContentType());
+                }
+                attachmentBody.setFileName(fileName);
+                if (!StringUtils.isBlank(attachment.getContentId())) {
+                    attachmentBody.setHeader("Content-ID", attachment.getContentId());
+                }
+
+                multipart.addBodyPart(attachmentBody);
+            } else {
+                LOGGER.warn("NotificationMessageAttachmentType doesn't contain content.");
+            }
+        }
+
+        mimeMessage.setContent(multipart);
+        return mimeMessage;
+    }
+}
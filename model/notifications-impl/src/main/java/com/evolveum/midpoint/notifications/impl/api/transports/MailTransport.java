@@ -9,27 +9,19 @@ package com.evolveum.midpoint.notifications.impl.api.transports;
 
 import static com.evolveum.midpoint.notifications.impl.api.transports.TransportUtil.formatToFileOld;
 
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Properties;
-import javax.activation.DataHandler;
-import javax.activation.DataSource;
-import javax.activation.FileDataSource;
+import java.util.Objects;
 import javax.annotation.PostConstruct;
-import javax.mail.BodyPart;
+import javax.annotation.PreDestroy;
 import javax.mail.MessagingException;
-import javax.mail.Multipart;
 import javax.mail.Session;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
 
-import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
@@ -38,11 +30,14 @@ import com.evolveum.midpoint.notifications.api.events.Event;
 import com.evolveum.midpoint.notifications.api.transports.Message;
 import com.evolveum.midpoint.notifications.api.transports.Transport;
 import com.evolveum.midpoint.notifications.impl.NotificationFunctionsImpl;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.notifications.impl.TransportRegistry;
-import com.evolveum.midpoint.notifications.impl.util.MimeTypeUtil;
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.crypto.EncryptionException;
 import com.evolveum.midpoint.prism.crypto.Protector;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.SystemConfigurationChangeDispatcher;
+import com.evolveum.midpoint.repo.api.SystemConfigurationChangeListener;
 import com.evolveum.midpoint.repo.common.expression.ExpressionFactory;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
@@ -52,19 +47,21 @@ import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
-import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
-import com.evolveum.prism.xml.ns._public.types_3.RawType;
 
 /**
+ * Sends mail messages, either directly or (if configured) via {@link MailOutbox}.
+ *
  * @author mederly
  */
 @Component
-public class MailTransport implements Transport {
+public class MailTransport implements Transport, SystemConfigurationChangeListener {
 
     private static final Trace LOGGER = TraceManager.getTrace(MailTransport.class);
 
     private static final String NAME = "mail";
 
+    private static final String DEFAULT_OUTBOX_DIRECTORY = "mail-outbox";
+
     private static final String DOT_CLASS = MailTransport.class.getName() + ".";
 
     @Autowired
@@ -78,10 +75,69 @@ public class MailTransport implements Transport {
     protected ExpressionFactory expressionFactory;
 
     @Autowired private TransportRegistry transportRegistry;
+    @Autowired private SystemConfigurationChangeDispatcher systemConfigurationChangeDispatcher;
+    @Autowired private MidpointConfiguration midpointConfiguration;
+    @Autowired private PrismContext prismContext;
+
+    private MailServerSupport serverSupport;
+
+    /** Current mail configuration, as seen by the outbox senders. */
+    private volatile MailConfigurationType mailConfiguration;
+
+    /** The outbox, if configured. */
+    private volatile MailOutbox outbox;
 
     @PostConstruct
     public void init() {
+        serverSupport = new MailServerSupport(protector);
         transportRegistry.registerTransport(NAME, this);
+        systemConfigurationChangeDispatcher.registerListener(this);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        systemConfigurationChangeDispatcher.unregisterListener(this);
+        if (outbox != null) {
+            outbox.stop();
+            outbox = null;
+        }
+    }
+
+    /**
+     * Starts the outbox when it is configured, and stops it when the configuration is removed.
+     * (The messages remaining in the journal are sent when the outbox is started again.)
+     */
+    @Override
+    public synchronized void update(@Nullable SystemConfigurationType value) {
+        if (value == null) {
+            return;
+        }
+        NotificationConfigurationType notificationConfiguration = value.getNotificationConfiguration();
+        mailConfiguration = notificationConfiguration != null ? notificationConfiguration.getMail() : null;
+        MailOutboxConfigurationType outboxConfiguration = mailConfiguration != null ? mailConfiguration.getOutbox() : null;
+        if (outboxConfiguration == null) {
+            if (outbox != null) {
+                outbox.stop();
+                outbox = null;
+            }
+        } else if (outbox != null) {
+            outbox.setConfiguration(outboxConfiguration);
+        } else {
+            MailOutbox newOutbox = new MailOutbox(getOutboxDirectory(outboxConfiguration), outboxConfiguration,
+                    () -> mailConfiguration, serverSupport, prismContext);
+            newOutbox.start();
+            outbox = newOutbox;
+        }
+    }
+
+    private Path getOutboxDirectory(MailOutboxConfigurationType outboxConfiguration) {
+        String directory = Objects.requireNonNullElse(outboxConfiguration.getJournalDirectory(), DEFAULT_OUTBOX_DIRECTORY);
+        return Paths.get(midpointConfiguration.getMidpointHome()).resolve(directory);
+    }
+
+    /** Returns the outbox, if it is running. */
+    public @Nullable MailOutbox getOutbox() {
+        return outbox;
     }
 
     @Override
@@ -156,9 +212,22 @@ public class MailTransport implements Transport {
             return;
         }
 
-        long start = System.currentTimeMillis();
+        MailOutbox outbox = this.outbox;
+        if (outbox != null) {
+            long start = System.currentTimeMillis();
+            try {
+                outbox.enqueue(mailMessage);
+                LOGGER.debug("Message to {} was put into the mail outbox", mailMessage.getTo());
+                result.recordSuccess();
+                task.recordNotificationOperation(NAME, true, System.currentTimeMillis() - start);
+                return;
+            } catch (IOException | SchemaException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't put mail message to {} into the outbox, "
+                        + "sending it directly", e, mailMessage.getTo());
+            }
+        }
 
-        String defaultFrom = mailConfigurationType.getDefaultFrom() != null ? mailConfigurationType.getDefaultFrom() : "nobody@nowhere.org";
+        long start = System.currentTimeMillis();
 
         for (MailServerConfigurationType mailServerConfigurationType : mailConfigurationType.getServer()) {
 
@@ -167,146 +236,23 @@ public class MailTransport implements Transport {
             resultForServer.addContext("server", host);
             resultForServer.addContext("port", mailServerConfigurationType.getPort());
 
-            Properties properties = System.getProperties();
-            properties.setProperty("mail.smtp.host", host);
-            if (mailServerConfigurationType.getPort() != null) {
-                properties.setProperty("mail.smtp.port", String.valueOf(mailServerConfigurationType.getPort()));
-            }
-            MailTransportSecurityType mailTransportSecurityType = mailServerConfigurationType.getTransportSecurity();
-
-            boolean sslEnabled = false, starttlsEnable = false, starttlsRequired = false;
-            if (mailTransportSecurityType != null) {
-                switch (mailTransportSecurityType) {
-                    case STARTTLS_ENABLED:
-                        starttlsEnable = true;
-                        break;
-                    case STARTTLS_REQUIRED:
-                        starttlsEnable = true;
-                        starttlsRequired = true;
-                        break;
-                    case SSL:
-                        sslEnabled = true;
-                        break;
-                }
-            }
-            properties.put("mail.smtp.ssl.enable", "" + sslEnabled);
-            properties.put("mail.smtp.starttls.enable", "" + starttlsEnable);
-            properties.put("mail.smtp.starttls.required", "" + starttlsRequired);
-            if (Boolean.TRUE.equals(mailConfigurationType.isDebug())) {
-                properties.put("mail.debug", "true");
-            }
-
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Using mail properties: ");
-                for (Object key : properties.keySet()) {
-                    if (key instanceof String && ((String) key).startsWith("mail.")) {
-                        LOGGER.debug(" - {} = {}", key, properties.get(key));
-                    }
-                }
-            }
-
             task.recordStateMessage("Sending notification mail via " + host);
 
-            Session session = Session.getInstance(properties);
+            Session session = serverSupport.createSession(mailConfigurationType, mailServerConfigurationType);
 
             try {
-                MimeMessage mimeMessage = new MimeMessage(session);
-                mimeMessage.setSentDate(new Date());
-                String from = mailMessage.getFrom() != null ? mailMessage.getFrom() : defaultFrom;
-                mimeMessage.setFrom(new InternetAddress(from));
-
-                for (String recipient : mailMessage.getTo()) {
-                    mimeMessage.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(recipient));
-                }
-                for (String recipientCc : mailMessage.getCc()) {
-                    mimeMessage.addRecipient(javax.mail.Message.RecipientType.CC, new InternetAddress(recipientCc));
+                MimeMessage mimeMessage = serverSupport.createMimeMessage(session, mailMessage, mailConfigurationType);
+                if (mimeMessage == null) {
+                    return; // the reason is logged
                 }
-                for (String recipientBcc : mailMessage.getBcc()) {
-                    mimeMessage.addRecipient(javax.mail.Message.RecipientType.BCC, new InternetAddress(recipientBcc));
-                }
-                mimeMessage.setSubject(mailMessage.getSubject(), StandardCharsets.UTF_8.name());
-                String contentType = mailMessage.getContentType();
-                if (StringUtils.isEmpty(contentType)) {
-                    contentType = "text/plain; charset=UTF-8";
-                }
-                BodyPart messageBody = new MimeBodyPart();
-                messageBody.setContent(mailMessage.getBody(), contentType);
-                Multipart multipart = new MimeMultipart();
-                multipart.addBodyPart(messageBody);
-                for (NotificationMessageAttachmentType attachment : mailMessage.getAttachments()) {
-
-                    if (attachment.getContent() != null || attachment.getContentFromFile() != null) {
-                        String fileName;
-                        BodyPart attachmentBody = new MimeBodyPart();
-                        if (attachment.getContent() != null) {
-                            try {
-                                Object content = RawType.getValue(attachment.getContent());
-                                if (content == null) {
-                                    LOGGER.warn("RawType " + attachment.getContent() + " isn't possible to parse.");
-                                    return;
-                                }
-                                attachmentBody.setContent(content, attachment.getContentType());
-                            } catch (SchemaException e) {
-                                LOGGER.warn("RawType " + attachment.getContent() + " isn't possible to parse.");
-                                return;
-                            }
-                            if (StringUtils.isBlank(attachment.getFileName())) {
-                                fileName = "attachment";
-                            } else {
-                                fileName = attachment.getFileName();
-                            }
-                        } else {
-                            if (!Files.isReadable(Paths.get(attachment.getContentFromFile()))) {
-                                LOGGER.warn("File " + attachment.getContentFromFile() + " non exist or isn't readable.");
-                                return;
-                            }
-
-                            DataSource source = new FileDataSource(attachment.getContentFromFile()) {
-                                @Override
-                                public String getContentType() {
-                                    return attachment.getContentType();
-                                }
-                            };
-                            attachmentBody.setDataHandler(new DataHandler(source));
-                            if (StringUtils.isBlank(attachment.getFileName())) {
-                                fileName = source.getName();
-                            } else {
-                                fileName = attachment.getFileName();
-                            }
-                        }
-
-                        if (!fileName.contains(".")) {
-                            fileName += MimeTypeUtil.getDefaultExt(attachment.getContentType());
-                        }
-                        attachmentBody.setFileName(fileName);
-                        if (!StringUtils.isBlank(attachment.getContentId())) {
-                            attachmentBody.setHeader("Content-ID", attachment.getContentId());
-                        }
-
-                        multipart.addBodyPart(attachmentBody);
-                    } else {
-                        LOGGER.warn("NotificationMessageAttachmentType doesn't contain content.");
-                    }
-                }
-
-                mimeMessage.setContent(multipart);
                 try (javax.mail.Transport t = session.getTransport("smtp")) {
-                    if (StringUtils.isNotEmpty(mailServerConfigurationType.getUsername())) {
-                        ProtectedStringType passwordProtected = mailServerConfigurationType.getPassword();
-                        String password = null;
-                        if (passwordProtected != null) {
-                            try {
-                                password = protector.decryptString(passwordProtected);
-                            } catch (EncryptionException e) {
-                                String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", because the plaintext password value couldn't be obtained. Trying another mail server, if there is any.";
-                                LoggingUtils.logException(LOGGER, msg, e);
-                                resultForServer.recordFatalError(msg, e);
-                                continue;
-                            }
-                        }
-                        t.connect(mailServerConfigurationType.getUsername(), password);
-                    } else {
-                        t.connect();
+                    try {
+                        serverSupport.connect(t, mailServerConfigurationType);
+                    } catch (EncryptionException e) {
+                        String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", because the plaintext password value couldn't be obtained. Trying another mail server, if there is any.";
+                        LoggingUtils.logException(LOGGER, msg, e);
+                        resultForServer.recordFatalError(msg, e);
+                        continue;
                     }
                     t.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
                     LOGGER.debug("Message sent successfully to " + mailMessage.getTo() + " via server " + host + ".");
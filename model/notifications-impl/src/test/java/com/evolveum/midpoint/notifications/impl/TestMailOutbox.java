@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.notifications.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.impl.api.transports.MailOutbox;
+import com.evolveum.midpoint.notifications.impl.api.transports.MailServerSupport;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.test.util.AbstractSpringTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailOutboxConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailServerConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationMessageAttachmentType;
+
+/**
+ * Tests {@link MailOutbox} against a local SMTP stand-in.
+ */
+@ContextConfiguration(locations = { "classpath:ctx-notifications-test.xml" })
+public class TestMailOutbox extends AbstractSpringTest {
+
+    private static final File JOURNAL_DIR = new File("target/mail-outbox");
+    private static final File ATTACHMENT_FILE = new File("target/mail-outbox-attachment.txt");
+    private static final long TIMEOUT = 10000;
+
+    @Autowired private PrismContext prismContext;
+
+    private SmtpStandIn smtpServer;
+    private MailConfigurationType mailConfiguration;
+    private MailOutbox outbox;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        smtpServer = new SmtpStandIn();
+        mailConfiguration = new MailConfigurationType()
+                .defaultFrom("midpoint@localhost")
+                .server(new MailServerConfigurationType()
+                        .host("localhost")
+                        .port(smtpServer.getPort()));
+    }
+
+    @AfterClass
+    public void stopServer() throws Exception {
+        smtpServer.close();
+    }
+
+    @AfterMethod
+    public void stopOutbox() throws Exception {
+        if (outbox != null) {
+            outbox.stop();
+            outbox = null;
+        }
+        FileUtils.deleteDirectory(JOURNAL_DIR);
+        Files.deleteIfExists(ATTACHMENT_FILE.toPath());
+        smtpServer.getMessages().clear();
+    }
+
+    @Test
+    public void test100SendOverSingleConnection() throws Exception {
+        given("running outbox with a single sender");
+        outbox = createOutbox(new MailOutboxConfigurationType().senders(1));
+        outbox.start();
+        int connectionsBefore = smtpServer.getConnections();
+
+        when("messages are put into the outbox");
+        for (int i = 0; i < 10; i++) {
+            outbox.enqueue(message("message " + i));
+        }
+
+        then("all messages are sent over a single connection and the journal is empty");
+        waitFor(() -> smtpServer.getMessages().size() == 10);
+        waitFor(() -> getJournalFiles().isEmpty());
+        assertEquals("Wrong # of connections", 1, smtpServer.getConnections() - connectionsBefore);
+        assertEquals("Wrong # of messages sent", 10, outbox.getStatistics().getSent());
+        assertEquals("Wrong # of messages enqueued", 10, outbox.getStatistics().getEnqueued());
+        assertEquals("Wrong # of connections opened", 1, outbox.getStatistics().getConnectionsOpened());
+    }
+
+    @Test
+    public void test110RetryAfterTemporaryFailure() throws Exception {
+        given("running outbox with short retry interval and a server that rejects two messages");
+        outbox = createOutbox(new MailOutboxConfigurationType().retryInterval(100L));
+        outbox.start();
+        smtpServer.rejectNextMessages(2);
+
+        when("a message is put into the outbox");
+        outbox.enqueue(message("retried"));
+
+        then("the message is sent on the third attempt");
+        waitFor(() -> smtpServer.getMessages().size() == 1);
+        waitFor(() -> getJournalFiles().isEmpty());
+        assertEquals("Wrong # of retries", 2, outbox.getStatistics().getRetried());
+        assertEquals("Wrong # of messages sent", 1, outbox.getStatistics().getSent());
+        assertTrue("Wrong message sent", smtpServer.getMessages().get(0).contains("retried"));
+    }
+
+    @Test
+    public void test120GiveUpAfterMaxAttempts() throws Exception {
+        given("running outbox with two attempts and a server that rejects five messages");
+        outbox = createOutbox(new MailOutboxConfigurationType().retryInterval(100L).maxAttempts(2));
+        outbox.start();
+        smtpServer.rejectNextMessages(5);
+
+        when("a message is put into the outbox");
+        outbox.enqueue(message("given up"));
+
+        then("the message is moved among failed ones");
+        waitFor(() -> outbox.getStatistics().getFailed() == 1);
+        smtpServer.rejectNextMessages(0);
+        assertEquals("Wrong # of messages sent", 0, smtpServer.getMessages().size());
+        assertTrue("Message is still in the journal", getJournalFiles().isEmpty());
+        assertEquals("Wrong # of failed messages", 1, countFiles(JOURNAL_DIR.toPath().resolve("failed")));
+    }
+
+    @Test
+    public void test130SendMessagesFromJournal() throws Exception {
+        given("messages put into an outbox that was not started");
+        MailOutbox stoppedOutbox = createOutbox(new MailOutboxConfigurationType());
+        Files.createDirectories(JOURNAL_DIR.toPath());
+        stoppedOutbox.enqueue(message("journaled 1"));
+        stoppedOutbox.enqueue(message("journaled 2"));
+        stoppedOutbox.stop();
+        assertEquals("Wrong # of messages in the journal", 2, getJournalFiles().size());
+
+        when("a new outbox on the same journal is started");
+        outbox = createOutbox(new MailOutboxConfigurationType());
+        outbox.start();
+
+        then("the messages from the journal are sent");
+        waitFor(() -> smtpServer.getMessages().size() == 2);
+        waitFor(() -> getJournalFiles().isEmpty());
+        assertEquals("Wrong # of messages sent", 2, outbox.getStatistics().getSent());
+    }
+
+    @Test
+    public void test140AttachmentFileCopiedOnEnqueue() throws Exception {
+        given("outbox that was not started, and a message with an attachment given by file name");
+        outbox = createOutbox(new MailOutboxConfigurationType());
+        Files.createDirectories(JOURNAL_DIR.toPath());
+        Files.writeString(ATTACHMENT_FILE.toPath(), "original attachment content", StandardCharsets.UTF_8);
+        Message message = message("with attachment");
+        message.getAttachments().add(new NotificationMessageAttachmentType()
+                .contentType("text/plain")
+                .contentFromFile(ATTACHMENT_FILE.getAbsolutePath()));
+
+        when("the message is put into the outbox and the attachment file is deleted afterwards");
+        outbox.enqueue(message);
+        Files.delete(ATTACHMENT_FILE.toPath());
+        outbox.start();
+
+        then("the message is sent with the original attachment, and the copy is deleted");
+        waitFor(() -> smtpServer.getMessages().size() == 1);
+        waitFor(() -> getJournalFiles().isEmpty());
+        String sent = smtpServer.getMessages().get(0);
+        assertTrue("No attachment content in " + sent, sent.contains("original attachment content"));
+        assertTrue("No attachment name in " + sent, sent.contains(ATTACHMENT_FILE.getName()));
+        assertEquals("Wrong # of attachment copies", 0, countFiles(JOURNAL_DIR.toPath().resolve("attachments")));
+    }
+
+    @Test
+    public void test150JournalAccessibleToOwnerOnly() throws Exception {
+        if (!Files.getFileStore(new File("target").toPath()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            throw new SkipException("POSIX file permissions are not supported here");
+        }
+
+        given("outbox that was not started");
+        outbox = createOutbox(new MailOutboxConfigurationType());
+        Files.createDirectories(JOURNAL_DIR.toPath());
+
+        when("a message is put into the outbox");
+        outbox.enqueue(message("private"));
+
+        then("the message file is accessible to its owner only");
+        Path file = getJournalFiles().get(0);
+        assertEquals("Wrong permissions of " + file, "rw-------",
+                PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+
+        when("the outbox is started");
+        outbox.start();
+
+        then("the journal directories are accessible to their owner only");
+        for (Path directory : List.of(JOURNAL_DIR.toPath(), JOURNAL_DIR.toPath().resolve("failed"))) {
+            assertEquals("Wrong permissions of " + directory, "rwx------",
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+        }
+    }
+
+    @Test
+    public void test160PurgeOldFailedMessages() throws Exception {
+        given("two failed messages, one of them older than the max age, with their attachments");
+        Path failed = JOURNAL_DIR.toPath().resolve("failed");
+        Path attachments = JOURNAL_DIR.toPath().resolve("attachments");
+        Files.createDirectories(failed);
+        Path old = Files.writeString(failed.resolve("1-old.xml"), "<message/>");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+        Files.createDirectories(attachments.resolve("1-old"));
+        Files.writeString(failed.resolve("2-recent.xml"), "<message/>");
+        Files.createDirectories(attachments.resolve("2-recent"));
+
+        when("outbox with max age of one day is started");
+        outbox = createOutbox(new MailOutboxConfigurationType()
+                .failedMessagesMaxAge(XmlTypeConverter.createDuration("P1D")));
+        outbox.start();
+
+        then("only the old failed message (and its attachments) is deleted");
+        assertFalse("Old failed message was not deleted", Files.exists(old));
+        assertFalse("Attachments of old failed message were not deleted", Files.exists(attachments.resolve("1-old")));
+        assertTrue("Recent failed message was deleted", Files.exists(failed.resolve("2-recent.xml")));
+        assertTrue("Attachments of recent failed message were deleted", Files.exists(attachments.resolve("2-recent")));
+    }
+
+    @Test
+    public void test170UnresponsiveServerTimesOut() throws Exception {
+        given("outbox with an unresponsive mail server with a short timeout, followed by a working one");
+        try (ServerSocket silentServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            MailConfigurationType originalConfiguration = mailConfiguration;
+            mailConfiguration = new MailConfigurationType()
+                    .defaultFrom("midpoint@localhost")
+                    .server(new MailServerConfigurationType()
+                            .host("localhost")
+                            .port(silentServer.getLocalPort())
+                            .timeout(500))
+                    .server(new MailServerConfigurationType()
+                            .host("localhost")
+                            .port(smtpServer.getPort()));
+            try {
+                outbox = createOutbox(new MailOutboxConfigurationType());
+                outbox.start();
+
+                when("a message is put into the outbox");
+                outbox.enqueue(message("after timeout"));
+
+                then("the message is sent via the working server");
+                waitFor(() -> smtpServer.getMessages().size() == 1);
+                assertEquals("Wrong # of messages sent", 1, outbox.getStatistics().getSent());
+            } finally {
+                mailConfiguration = originalConfiguration;
+            }
+        }
+    }
+
+    private MailOutbox createOutbox(MailOutboxConfigurationType configuration) {
+        return new MailOutbox(JOURNAL_DIR.toPath(), configuration, () -> mailConfiguration,
+                new MailServerSupport(null), prismContext);
+    }
+
+    private Message message(String subject) {
+        Message message = new Message();
+        message.setTo(List.of("jack@localhost"));
+        message.setSubject(subject);
+        message.setBody("Body of " + subject);
+        return message;
+    }
+
+    private List<Path> getJournalFiles() {
+        try (Stream<Path> files = Files.list(JOURNAL_DIR.toPath())) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private long countFiles(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for the outbox", System.currentTimeMillis() < deadline);
+            //noinspection BusyWait
+            Thread.sleep(50);
+        }
+    }
+}
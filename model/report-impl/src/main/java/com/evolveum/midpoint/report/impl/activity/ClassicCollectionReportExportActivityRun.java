@@ -47,6 +47,7 @@ public final class ClassicCollectionReportExportActivityRun
 
     /**
      * Data writer which completes the content of the report.
+     * It writes the rows directly to the report file, as they are created.
      */
     private ReportDataWriter<ExportedReportDataRow, ExportedReportHeaderRow> dataWriter;
 
@@ -97,6 +98,7 @@ public final class ClassicCollectionReportExportActivityRun
 
         controller.initialize(task, result);
         controller.beforeBucketExecution(1, result);
+        support.startReportFileStreaming(dataWriter);
     }
 
     @Override
@@ -138,9 +140,22 @@ public final class ClassicCollectionReportExportActivityRun
         return true;
     }
 
+    @Override
+    public void afterItemProcessed(@NotNull ItemProcessingRequest<Containerable> request) {
+        // Even items that produced no rows (failed or skipped) must be reported, so the rows following them can be written.
+        dataWriter.itemProcessed(request.getSequentialNumber());
+    }
+
     @Override
     public void afterRun(OperationResult result) throws CommonException, ActivityRunException {
-        support.saveReportFile(dataWriter, result);
+        support.saveStreamedReportFile(dataWriter, result);
+    }
+
+    @Override
+    public void afterRunFailed(OperationResult result) {
+        if (dataWriter != null) {
+            support.abortReportFileStreaming(dataWriter);
+        }
     }
 
     @Override
@@ -67,6 +67,28 @@ public class ExportActivitySupport extends ReportActivitySupport {
         saveSupport.saveReportFile(dataWriter, result);
     }
 
+    /**
+     * Switches the writer to writing directly to the report file. See {@link #saveStreamedReportFile}.
+     */
+    public void startReportFileStreaming(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        saveSupport.startReportFileStreaming(dataWriter);
+    }
+
+    public void saveStreamedReportFile(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
+            OperationResult result) throws CommonException {
+        saveSupport.saveStreamedReportFile(dataWriter, result);
+    }
+
+    /**
+     * Closes and deletes the report file being streamed (if any), because the run failed.
+     */
+    public void abortReportFileStreaming(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        saveSupport.abortReportFileStreaming(dataWriter);
+    }
+
     /**
      * Search container objects for iterative task.
      * Temporary until will be implemented iterative search for audit records and containerable objects.
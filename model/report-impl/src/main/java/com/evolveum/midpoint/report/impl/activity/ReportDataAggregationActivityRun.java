@@ -45,15 +45,9 @@ final class ReportDataAggregationActivityRun
     /** Helper functionality. */
     @NotNull private final DistributedReportExportActivitySupport support;
 
-    /**
-     * Data from all the partial reports.
-     *
-     * TODO eliminate gathering in memory: write to a file immediately after getting the data.
-     */
-    private final StringBuilder aggregatedData = new StringBuilder();
-
     /**
      * Data writer which completes the content of the report.
+     * Data from the partial reports are written by it directly to the report file, one partial report at a time.
      */
     private ReportDataWriter<ExportedReportDataRow, ExportedReportHeaderRow> dataWriter;
 
@@ -70,6 +64,7 @@ final class ReportDataAggregationActivityRun
 
         dataWriter = ReportUtils.createDataWriter(
                 support.getReport(), FileFormatTypeType.CSV, getActivityHandler().reportService, support.getCompiledCollectionView(result));
+        support.startReportFileStreaming(dataWriter);
     }
 
     @Override
@@ -93,13 +88,22 @@ final class ReportDataAggregationActivityRun
             @NotNull ItemProcessingRequest<ReportDataType> request, RunningTask workerTask, OperationResult result)
             throws CommonException, ActivityRunException {
         LOGGER.info("Appending data from {} (and deleting the object)", reportData);
-        aggregatedData.append(reportData.getData());
+        if (reportData.getData() != null) {
+            dataWriter.appendFormattedData(reportData.getData());
+        }
         getActivityHandler().commonTaskBeans.repositoryService.deleteObject(ReportDataType.class, reportData.getOid(), result);
         return true;
     }
 
     @Override
     public void afterRun(OperationResult result) throws CommonException, ActivityRunException {
-        support.saveReportFile(aggregatedData.toString(), dataWriter, result);
+        support.saveStreamedReportFile(dataWriter, result);
+    }
+
+    @Override
+    public void afterRunFailed(OperationResult result) {
+        if (dataWriter != null) {
+            support.abortReportFileStreaming(dataWriter);
+        }
     }
 }
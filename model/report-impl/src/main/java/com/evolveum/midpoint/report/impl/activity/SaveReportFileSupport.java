@@ -39,11 +39,17 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Contains common functionality for save exported report file executions.
@@ -55,6 +61,9 @@ class SaveReportFileSupport {
 
     private static final String OP_CREATE_REPORT_DATA = SaveReportFileSupport.class.getName() + "createReportData";
 
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final String COMPRESSED_FILE_SUFFIX = ".gz";
+
     @NotNull protected final RunningTask runningTask;
     @NotNull protected final ReportServiceImpl reportService;
 
@@ -68,6 +77,11 @@ class SaveReportFileSupport {
      */
     private final StoreExportedWidgetDataType storeType;
 
+    /**
+     * Path of the file the report is being streamed to. See {@link #startReportFileStreaming(ReportDataWriter)}.
+     */
+    private String streamedFilePath;
+
     SaveReportFileSupport(ReportType report, @NotNull RunningTask task, @NotNull ReportServiceImpl reportService) {
         this.report = report;
         runningTask = task;
@@ -91,6 +105,81 @@ class SaveReportFileSupport {
         storeExportedReport(dataWriter.completizeReport(), dataWriter, result);
     }
 
+    /**
+     * Opens the report file and switches the writer to streaming mode, so the rows are written to the file
+     * as they are created. Only for reports stored in a file (i.e. not for dashboard widgets).
+     */
+    public void startReportFileStreaming(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        MiscUtil.stateCheck(storeType == StoreExportedWidgetDataType.ONLY_FILE,
+                "Streaming is not supported for storing widget data");
+        String filePath = getDestinationFileName(report, dataWriter);
+        Writer writer = openReportFile(filePath, dataWriter);
+        try {
+            dataWriter.startStreaming(writer);
+        } catch (RuntimeException e) {
+            closeQuietly(writer);
+            deleteReportFile(filePath);
+            throw e;
+        }
+        streamedFilePath = filePath;
+    }
+
+    /**
+     * Finishes writing of the streamed report file and stores the information about it.
+     */
+    public void saveStreamedReportFile(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
+            OperationResult result) throws CommonException {
+        MiscUtil.stateCheck(streamedFilePath != null, "Report file streaming was not started");
+        String filePath = streamedFilePath;
+        try {
+            dataWriter.finishStreaming();
+        } catch (RuntimeException e) {
+            dataWriter.abortStreaming(); // the output is closed by finishStreaming, but let us be sure
+            deleteReportFile(filePath);
+            throw e;
+        } finally {
+            streamedFilePath = null;
+        }
+        storeReportFileInformation(filePath, dataWriter, result);
+    }
+
+    /**
+     * Closes the streamed report file (if it is being streamed) and deletes it, because the report is not complete.
+     * Used when the activity run fails. Does not throw exceptions.
+     */
+    public void abortReportFileStreaming(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        if (streamedFilePath == null) {
+            return;
+        }
+        try {
+            dataWriter.abortStreaming();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Couldn't close the report file {}: {}", streamedFilePath, e.getMessage(), e);
+        }
+        deleteReportFile(streamedFilePath);
+        streamedFilePath = null;
+    }
+
+    private void closeQuietly(Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't close the report file: {}", e.getMessage(), e);
+        }
+    }
+
+    private void deleteReportFile(String filePath) {
+        try {
+            Files.deleteIfExists(new File(filePath).toPath());
+            LOGGER.debug("Deleted incomplete report file {}", filePath);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Couldn't delete incomplete report file {}: {}", filePath, e.getMessage(), e);
+        }
+    }
+
     private void storeExportedReport(String completizedReport,
             ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
             OperationResult result) throws CommonException {
@@ -98,11 +187,8 @@ class SaveReportFileSupport {
 
         if (StoreExportedWidgetDataType.ONLY_FILE.equals(storeType)
                 || StoreExportedWidgetDataType.WIDGET_AND_FILE.equals(storeType)) {
-            writeToReportFile(completizedReport, aggregatedFilePath);
-            saveReportDataObject(dataWriter, aggregatedFilePath, result);
-            if (report.getPostReportScript() != null) {
-                processPostReportScript(report, aggregatedFilePath, runningTask, result);
-            }
+            writeToReportFile(completizedReport, aggregatedFilePath, dataWriter);
+            storeReportFileInformation(aggregatedFilePath, dataWriter, result);
         }
         if ((StoreExportedWidgetDataType.ONLY_WIDGET.equals(storeType)
                 || StoreExportedWidgetDataType.WIDGET_AND_FILE.equals(storeType))
@@ -155,12 +241,21 @@ class SaveReportFileSupport {
         }
     }
 
+    private void storeReportFileInformation(String aggregatedFilePath,
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
+            OperationResult result) throws CommonException {
+        saveReportDataObject(dataWriter, aggregatedFilePath, result);
+        if (report.getPostReportScript() != null) {
+            processPostReportScript(report, aggregatedFilePath, runningTask, result);
+        }
+    }
+
     private String getDestinationFileName(ReportType reportType,
             ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
         File exportDir = ReportSupportUtil.getOrCreateExportDir();
 
         String fileNamePrefix = reportType.getName().getOrig() + "-EXPORT " + getDateTime();
-        String fileName = fileNamePrefix + dataWriter.getTypeSuffix();
+        String fileName = fileNamePrefix + dataWriter.getTypeSuffix() + (isCompressed(dataWriter) ? COMPRESSED_FILE_SUFFIX : "");
         return MiscUtil.replaceColonsInFileNameOnWindows(new File(exportDir, fileName).getPath());
     }
 
@@ -175,16 +270,36 @@ class SaveReportFileSupport {
         return formatDate.format(createDate);
     }
 
-    private void writeToReportFile(String contextOfFile, String aggregatedFilePath) {
-        try {
-            FileUtils.writeByteArrayToFile(
-                    new File(aggregatedFilePath),
-                    contextOfFile.getBytes(Charset.defaultCharset()));
+    private void writeToReportFile(String contextOfFile, String aggregatedFilePath,
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        try (Writer writer = openReportFile(aggregatedFilePath, dataWriter)) {
+            writer.write(contextOfFile);
         } catch (IOException e) {
             throw new SystemException("Couldn't write aggregated report to " + aggregatedFilePath, e);
         }
     }
 
+    private Writer openReportFile(String filePath,
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        try {
+            File file = new File(filePath);
+            FileUtils.forceMkdirParent(file);
+            OutputStream stream = Files.newOutputStream(file.toPath());
+            if (isCompressed(dataWriter)) {
+                stream = new GZIPOutputStream(stream, OUTPUT_BUFFER_SIZE);
+            }
+            return new BufferedWriter(new OutputStreamWriter(stream, Charset.defaultCharset()), OUTPUT_BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new SystemException("Couldn't open report file " + filePath, e);
+        }
+    }
+
+    private boolean isCompressed(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        FileFormatConfigurationType configuration = dataWriter.getFileFormatConfiguration();
+        return configuration != null && Boolean.TRUE.equals(configuration.isCompress());
+    }
+
     private void saveReportDataObject(
             ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
             String aggregatedFilePath,
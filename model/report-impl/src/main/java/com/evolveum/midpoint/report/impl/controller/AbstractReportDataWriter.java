@@ -7,16 +7,27 @@
 
 package com.evolveum.midpoint.report.impl.controller;
 
+import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
 
 /**
  * Creates and manipulates exported reports.
+ *
+ * In streaming mode (see {@link #startStreaming(Writer)}) the rows are not collected; they are written to the output
+ * as soon as all the items preceding them are processed. Only the rows that came out of order are kept in memory.
  */
 public abstract class AbstractReportDataWriter<ED extends ExportedReportDataRow, EH extends ExportedReportHeaderRow> implements ReportDataWriter<ED, EH> {
 
+    private static final Trace LOGGER = TraceManager.getTrace(AbstractReportDataWriter.class);
+
     /**
      * Header row to be put into resulting CSV file.
      */
@@ -27,6 +38,29 @@ public abstract class AbstractReportDataWriter<ED extends ExportedReportDataRow,
      */
     @NotNull private final List<ED> dataRows = new ArrayList<>();
 
+    /**
+     * Output the report is written to. Not null if and only if the writer is in streaming mode.
+     *
+     * Thread safety: Guarded by `this` (as all the other streaming-related fields).
+     */
+    private Writer output;
+
+    /**
+     * Streaming mode: rows that cannot be written yet, because some of the items preceding them were not processed yet.
+     * Keyed by the sequential number.
+     */
+    @NotNull private final SortedMap<Integer, List<ED>> pendingRows = new TreeMap<>();
+
+    /**
+     * Streaming mode: items that were processed out of order, i.e. while some of the items preceding them were not.
+     */
+    @NotNull private final Set<Integer> processedItems = new HashSet<>();
+
+    /**
+     * Streaming mode: sequential number of the first item whose rows were not written yet.
+     */
+    private int nextSequentialNumber;
+
     @Override
     public void setHeaderRow(EH headerRow) {
         this.headerRow = headerRow;
@@ -54,15 +88,141 @@ public abstract class AbstractReportDataWriter<ED extends ExportedReportDataRow,
      */
     @Override
     public synchronized void appendDataRow(ED row) {
+        if (output != null) {
+            if (row.getSequentialNumber() < nextSequentialNumber) {
+                writeRowToOutput(row); // should not occur, the item is processed after its rows are appended
+            } else {
+                pendingRows.computeIfAbsent(row.getSequentialNumber(), k -> new ArrayList<>())
+                        .add(row);
+            }
+            return;
+        }
         int i;
         for (i = getDataRows().size() - 1; i >= 0; i--) {
-            if (getDataRows().get(i).getSequentialNumber() < row.getSequentialNumber()) {
+            // Rows of the same item keep the order in which they were appended (as they do in streaming mode).
+            if (getDataRows().get(i).getSequentialNumber() <= row.getSequentialNumber()) {
                 break;
             }
         }
         getDataRows().add(i + 1, row);
     }
 
+    @Override
+    public synchronized void startStreaming(@NotNull Writer output) {
+        MiscUtil.stateCheck(this.output == null, "The writer is already streaming");
+        this.output = output;
+        pendingRows.clear();
+        processedItems.clear();
+        nextSequentialNumber = 0;
+        try {
+            writePrefix(output);
+        } catch (IOException e) {
+            abortStreaming();
+            throw new SystemException("Couldn't write the report: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            abortStreaming();
+            throw e;
+        }
+    }
+
+    /**
+     * Thread safety: Guarded by `this`.
+     *
+     * Writes all pending rows that are not waiting for any unprocessed item.
+     */
+    @Override
+    public synchronized void itemProcessed(int sequentialNumber) {
+        if (output == null) {
+            return;
+        }
+        processedItems.add(sequentialNumber);
+        while (processedItems.remove(nextSequentialNumber)) {
+            List<ED> rows = pendingRows.remove(nextSequentialNumber);
+            if (rows != null) {
+                rows.forEach(this::writeRowToOutput);
+            }
+            nextSequentialNumber++;
+        }
+    }
+
+    @Override
+    public synchronized void appendFormattedData(@NotNull String data) {
+        MiscUtil.stateCheck(output != null, "The writer is not streaming");
+        try {
+            writeFormattedData(data, output);
+        } catch (IOException e) {
+            throw new SystemException("Couldn't write the report: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void finishStreaming() {
+        MiscUtil.stateCheck(output != null, "The writer is not streaming");
+        try (Writer out = output) {
+            // Rows of items that were not processed, e.g. because the activity was suspended.
+            for (List<ED> rows : pendingRows.values()) {
+                for (ED row : rows) {
+                    writeRow(row, out);
+                }
+            }
+            writeSuffix(out);
+        } catch (IOException e) {
+            throw new SystemException("Couldn't write the report: " + e.getMessage(), e);
+        } finally {
+            output = null;
+            pendingRows.clear();
+            processedItems.clear();
+        }
+    }
+
+    @Override
+    public synchronized void abortStreaming() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't close the report output: {}", e.getMessage(), e);
+        } finally {
+            output = null;
+            pendingRows.clear();
+            processedItems.clear();
+        }
+    }
+
+    private void writeRowToOutput(ED row) {
+        try {
+            writeRow(row, output);
+        } catch (IOException e) {
+            throw new SystemException("Couldn't write the report: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the beginning of the report, including the header row (if set), to the output.
+     */
+    protected void writePrefix(@NotNull Writer output) throws IOException {
+    }
+
+    /**
+     * Writes a single data row to the output.
+     */
+    protected abstract void writeRow(@NotNull ED row, @NotNull Writer output) throws IOException;
+
+    /**
+     * Writes data formatted by {@link #getStringData()} (e.g. by a writer of a partial report) to the output.
+     */
+    protected void writeFormattedData(@NotNull String data, @NotNull Writer output) throws IOException {
+        output.write(data);
+    }
+
+    /**
+     * Writes the end of the report to the output.
+     */
+    protected void writeSuffix(@NotNull Writer output) throws IOException {
+    }
+
     @Override
     public void reset() {
         headerRow = null;
@@ -17,6 +17,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,9 @@ public class CsvReportDataWriter extends AbstractReportDataWriter<ExportedReport
 
     @NotNull private final Map<String, String> widgetsData = new HashMap<>();
 
+    /** Printer writing to the output in streaming mode. */
+    private CSVPrinter outputPrinter;
+
     public CsvReportDataWriter(@Nullable FileFormatConfigurationType configuration) {
         this.support = new CommonCsvSupport(configuration);
         this.configuration = configuration;
@@ -66,6 +70,22 @@ public class CsvReportDataWriter extends AbstractReportDataWriter<ExportedReport
         }
     }
 
+    @Override
+    protected void writePrefix(@NotNull Writer output) throws IOException {
+        outputPrinter = new CSVPrinter(output, createCsvFormat()); // prints the header, if there is any
+    }
+
+    @Override
+    protected void writeRow(@NotNull ExportedReportDataRow row, @NotNull Writer output) throws IOException {
+        outputPrinter.printRecord(createPhysicalColumnsList(row));
+    }
+
+    @Override
+    protected void writeSuffix(@NotNull Writer output) throws IOException {
+        outputPrinter.flush();
+        outputPrinter = null;
+    }
+
     @Override
     public boolean shouldWriteHeader() {
         return support.isHeader();
@@ -19,6 +19,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
 /**
@@ -32,6 +34,9 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
 
     @Nullable private final FileFormatConfigurationType configuration;
 
+    /** Streaming mode: Was the `tbody` element already written to the output? */
+    private boolean tBodyWritten;
+
     public HtmlReportDataWriter(ReportServiceImpl reportService, CompiledObjectCollectionView compiledView,
             @Nullable FileFormatConfigurationType configuration) {
         this.support = new CommonHtmlSupport(reportService.getClock(), compiledView);
@@ -50,24 +55,75 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
             sb.append(createTHead(headerRow));
         }
         ContainerTag tBody = TagCreator.tbody();
-        dataRows.forEach(row -> {
-            ContainerTag tr = TagCreator.tr();
-            row.getValues().forEach(values -> {
-                if (values.size() == 1 && values.iterator().next().startsWith(CommonHtmlSupport.VALUE_CSS_STYLE_TAG)){
-                    String value = values.iterator().next();
-                    tr.with(TagCreator.th().withStyle(value.substring((value.indexOf("{") + 1), value.indexOf("}"))));
-                } else {
-                    tr.with(TagCreator.th(formatColumn(values)));
-                }
-            });
-            tBody.with(tr);
-        });
+        dataRows.forEach(row -> tBody.with(createTr(row)));
         if (tBody.getNumChildren() != 0) {
             sb.append(tBody.render());
         }
         return sb.toString();
     }
 
+    private ContainerTag createTr(ED row) {
+        ContainerTag tr = TagCreator.tr();
+        row.getValues().forEach(values -> {
+            if (values.size() == 1 && values.iterator().next().startsWith(CommonHtmlSupport.VALUE_CSS_STYLE_TAG)){
+                String value = values.iterator().next();
+                tr.with(TagCreator.th().withStyle(value.substring((value.indexOf("{") + 1), value.indexOf("}"))));
+            } else {
+                tr.with(TagCreator.th(formatColumn(values)));
+            }
+        });
+        return tr;
+    }
+
+    @Override
+    protected void writePrefix(@NotNull Writer output) throws IOException {
+        tBodyWritten = false;
+        output.write(createReportStart());
+        output.write(createTableBoxStart(support));
+        if (getHeaderRow() != null) {
+            output.write(createTHead(getHeaderRow()));
+        }
+    }
+
+    @Override
+    protected void writeRow(@NotNull ED row, @NotNull Writer output) throws IOException {
+        writeTBodyStartIfNeeded(output);
+        output.write(createTr(row).render());
+    }
+
+    /**
+     * Partial data consist of optional `thead` element (the first part only) and `tbody` element.
+     * Rows of all parts are put into a single `tbody` element, just like {@link #parseAgregatedData(String)} does.
+     */
+    @Override
+    protected void writeFormattedData(@NotNull String data, @NotNull Writer output) throws IOException {
+        String rows = data;
+        int tHeadEnd = data.indexOf("</thead>");
+        if (tHeadEnd >= 0) {
+            if (!tBodyWritten) {
+                output.write(data, 0, tHeadEnd + 8);
+            }
+            rows = data.substring(tHeadEnd + 8);
+        }
+        writeTBodyStartIfNeeded(output);
+        output.write(rows.replace("<tbody>", "").replace("</tbody>", ""));
+    }
+
+    private void writeTBodyStartIfNeeded(Writer output) throws IOException {
+        if (!tBodyWritten) {
+            output.write("<tbody>");
+            tBodyWritten = true;
+        }
+    }
+
+    @Override
+    protected void writeSuffix(@NotNull Writer output) throws IOException {
+        if (tBodyWritten) {
+            output.write("</tbody>");
+        }
+        output.write("</table></div></div>");
+    }
+
     @Override
     public boolean shouldWriteHeader() {
         return true;
@@ -122,10 +178,8 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
     }
 
     private String completizeReportInternal(String aggregatedData, boolean parseData) {
-        String cssStyle = support.getCssStyle();
-
         StringBuilder body = new StringBuilder();
-        body.append("<div> <style> ").append(cssStyle).append(" </style>");
+        body.append(createReportStart());
 
         String table = createTableBox(aggregatedData, support, parseData);
         body.append(table).append("</div>");
@@ -133,16 +187,12 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
         return body.toString();
     }
 
+    private String createReportStart() {
+        return "<div> <style> " + support.getCssStyle() + " </style>";
+    }
+
     protected String createTableBox(String aggregatedData, CommonHtmlSupport support, boolean parseData) {
         StringBuilder table = new StringBuilder();
-        String style = support.getCssStyleOfTable();
-        String classes = support.getCssClassOfTable();
-
-        ContainerTag div = TagCreator.div().withClasses("box-body", "no-padding").with(TagCreator.h1(support.getTableName(localizationService)))
-                .with(TagCreator.p(GenericSupport.getMessage(localizationService, CommonHtmlSupport.REPORT_GENERATED_ON, support.getActualTime())));
-
-        String tableBox = TagCreator.div().withClasses("box", "boxed-table", classes).withStyle(style).with(div).render();
-        tableBox = tableBox.substring(0, tableBox.length() - 6);
 
         String parsedData;
         if (parseData) {
@@ -151,14 +201,29 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
             parsedData = aggregatedData;
         }
 
-        table.append(tableBox)
-                .append("<table class=\"table table-striped table-hover table-bordered\">")
+        table.append(createTableBoxStart(support))
                 .append(parsedData)
                 .append("</table>")
                 .append("</div>");
         return table.toString();
     }
 
+    /**
+     * Returns the opening part of the table box, up to (and including) the `table` start tag.
+     */
+    private String createTableBoxStart(CommonHtmlSupport support) {
+        String style = support.getCssStyleOfTable();
+        String classes = support.getCssClassOfTable();
+
+        ContainerTag div = TagCreator.div().withClasses("box-body", "no-padding").with(TagCreator.h1(support.getTableName(localizationService)))
+                .with(TagCreator.p(GenericSupport.getMessage(localizationService, CommonHtmlSupport.REPORT_GENERATED_ON, support.getActualTime())));
+
+        String tableBox = TagCreator.div().withClasses("box", "boxed-table", classes).withStyle(style).with(div).render();
+        tableBox = tableBox.substring(0, tableBox.length() - 6);
+
+        return tableBox + "<table class=\"table table-striped table-hover table-bordered\">";
+    }
+
     private String parseAgregatedData(String aggregatedData) {
         if (StringUtils.isEmpty(aggregatedData)) {
             return aggregatedData;
@@ -9,8 +9,10 @@ package com.evolveum.midpoint.report.impl.controller;
 
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FileFormatConfigurationType;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Writer;
 import java.util.function.Function;
 
 /**
@@ -23,7 +25,10 @@ import java.util.function.Function;
  *
  * 2. Produces final string form when asked to do so.
  *
- * 2. Holds the file-format-specific configuration.
+ * 3. Alternatively (in streaming mode), writes the report directly to an output, keeping in memory only the rows
+ * that came out of order.
+ *
+ * 4. Holds the file-format-specific configuration.
  */
 public interface ReportDataWriter<ED extends ExportedReportDataRow, EH extends ExportedReportHeaderRow> {
 
@@ -41,6 +46,40 @@ public interface ReportDataWriter<ED extends ExportedReportDataRow, EH extends E
      */
     void appendDataRow(ED row);
 
+    /**
+     * Switches the writer to streaming mode: the beginning of the report (including the header row, if set)
+     * is written to the output immediately, and the data rows are written as soon as all the items preceding them
+     * are processed, see {@link #itemProcessed(int)}. Items are expected to be numbered from zero.
+     *
+     * The output is closed by {@link #finishStreaming()}.
+     */
+    void startStreaming(@NotNull Writer output);
+
+    /**
+     * Tells the writer that the item with given sequential number was processed, whether it produced any rows or not.
+     * Ignored if the writer is not streaming.
+     *
+     * BEWARE: Can be called from multiple threads.
+     */
+    void itemProcessed(int sequentialNumber);
+
+    /**
+     * Writes already formatted data (see {@link #getStringData()}), e.g. data of a partial report, to the output.
+     * Streaming mode only.
+     */
+    void appendFormattedData(@NotNull String data);
+
+    /**
+     * Writes the remaining rows and the end of the report to the output, and closes the output.
+     */
+    void finishStreaming();
+
+    /**
+     * Closes the output without writing the rest of the report, e.g. when the activity run fails.
+     * Does nothing if the writer is not streaming.
+     */
+    void abortStreaming();
+
     /** Resets the state of the writer, e.g. erasing all stored data. */
     void reset();
 
@@ -7,6 +7,7 @@
 package com.evolveum.midpoint.report;
 
 import java.io.File;
+import java.util.List;
 
 import com.evolveum.midpoint.prism.*;
 
@@ -35,11 +36,15 @@ public class TestCsvReportExportClassic extends TestCsvReport {
 
     private static final int USERS = 50;
 
+    private static final TestResource<TaskType> TASK_EXPORT_CLASSIC_WITH_ITEM_CONDITION = new TestResource<>(TEST_DIR_REPORTS,
+            "task-export-with-item-condition.xml", "6a2b41b9-3f7e-4ad3-9d6c-0d8e1c7b5f23");
+
     @Override
     public void initSystem(Task initTask, OperationResult initResult) throws Exception {
         super.initSystem(initTask, initResult);
 
         repoAdd(TASK_EXPORT_CLASSIC, initResult);
+        repoAdd(TASK_EXPORT_CLASSIC_WITH_ITEM_CONDITION, initResult);
 
         repoAdd(REPORT_AUDIT_COLLECTION_WITH_DEFAULT_COLUMN, initResult);
         repoAdd(REPORT_AUDIT_COLLECTION_WITH_VIEW, initResult);
@@ -182,6 +187,28 @@ public class TestCsvReportExportClassic extends TestCsvReport {
         assertTrue("Target file is not there", targetFile.exists());
     }
 
+    /** Rows of items following the skipped ones must not wait for the skipped items. */
+    @Test
+    public void test130ObjectCollectionReportWithSkippedItems() throws Exception {
+        given();
+        OperationResult result = getTestOperationResult();
+
+        when();
+        runExportTask(TASK_EXPORT_CLASSIC_WITH_ITEM_CONDITION, REPORT_OBJECT_COLLECTION_WITH_DEFAULT_COLUMN, result);
+        waitForTaskCloseOrSuspend(TASK_EXPORT_CLASSIC_WITH_ITEM_CONDITION.oid);
+
+        then();
+        assertTask(TASK_EXPORT_CLASSIC_WITH_ITEM_CONDITION.oid, "after")
+                .assertSuccess()
+                .display();
+
+        PrismObject<ReportType> report = getObject(ReportType.class, REPORT_OBJECT_COLLECTION_WITH_DEFAULT_COLUMN.oid);
+        List<String> lines = basicCheckOutputFile(report, 44, 6, null);
+        assertTrue("Skipped user is in the report", lines.stream().noneMatch(line -> line.contains("u000015")));
+        assertTrue("User after the skipped ones is not in the report",
+                lines.stream().anyMatch(line -> line.contains("u000020")));
+    }
+
     private void runTest(TestResource<ReportType> reportResource, int expectedRows, int expectedColumns, CharSequence lastline,
             ReportParameterType parameters) throws Exception {
         given();
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.report.impl.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.api.authentication.CompiledObjectCollectionView;
+import com.evolveum.midpoint.report.EmptyReportIntegrationTest;
+import com.evolveum.midpoint.report.impl.ReportServiceImpl;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FileFormatConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FileFormatTypeType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Checks that the report written in streaming mode is the same as the one created in memory,
+ * even if the items are processed (and their rows appended) out of order.
+ */
+public class TestReportDataWriterStreaming extends EmptyReportIntegrationTest {
+
+    /** Order in which the items are processed, e.g. by worker threads. Item 2 produces no row, item 4 produces two. */
+    private static final List<Integer> PROCESSING_ORDER = List.of(3, 1, 0, 5, 2, 4);
+
+    @Autowired private ReportServiceImpl reportService;
+
+    @Override
+    protected FileFormatConfigurationType getFileFormatConfiguration() {
+        return new FileFormatConfigurationType()
+                .type(FileFormatTypeType.CSV);
+    }
+
+    @Test
+    public void test100CsvStreamedSameAsInMemory() {
+        given("CSV writers with the same header");
+        FileFormatConfigurationType configuration = new FileFormatConfigurationType().type(FileFormatTypeType.CSV);
+        CsvReportDataWriter inMemoryWriter = new CsvReportDataWriter(configuration);
+        CsvReportDataWriter streamingWriter = new CsvReportDataWriter(configuration);
+
+        when("reports are created in memory and by streaming");
+        String inMemory = createInMemory(inMemoryWriter);
+        String streamed = createStreamed(streamingWriter);
+
+        then("they are the same");
+        displayValue("CSV report", streamed);
+        assertThat(streamed).isEqualTo(inMemory);
+        assertThat(streamed).contains("name-4b");
+    }
+
+    @Test
+    public void test110HtmlStreamedSameAsInMemory() {
+        given("HTML writers with the same header, and the time fixed (it is part of the report)");
+        FileFormatConfigurationType configuration = new FileFormatConfigurationType().type(FileFormatTypeType.HTML);
+        CompiledObjectCollectionView view = new CompiledObjectCollectionView(UserType.COMPLEX_TYPE, "users");
+        HtmlReportDataWriter<ExportedReportDataRow, ExportedReportHeaderRow> inMemoryWriter =
+                new HtmlReportDataWriter<>(reportService, view, configuration);
+        HtmlReportDataWriter<ExportedReportDataRow, ExportedReportHeaderRow> streamingWriter =
+                new HtmlReportDataWriter<>(reportService, view, configuration);
+        clock.override(clock.currentTimeMillis());
+
+        try {
+            when("reports are created in memory and by streaming");
+            String inMemory = createInMemory(inMemoryWriter);
+            String streamed = createStreamed(streamingWriter);
+
+            then("they are the same");
+            displayValue("HTML report", streamed);
+            assertThat(streamed).isEqualTo(inMemory);
+            assertThat(streamed).contains("name-4b");
+        } finally {
+            clock.resetOverride();
+        }
+    }
+
+    @Test
+    public void test120AbortStreaming() {
+        given("a streaming CSV writer");
+        CsvReportDataWriter writer = new CsvReportDataWriter(new FileFormatConfigurationType().type(FileFormatTypeType.CSV));
+        writer.setHeaderRow(createHeader());
+        CloseTrackingWriter output = new CloseTrackingWriter();
+        writer.startStreaming(output);
+        writer.appendDataRow(createRow(1, "name-1"));
+
+        when("streaming is aborted");
+        writer.abortStreaming();
+        writer.abortStreaming(); // no-op
+
+        then("the output is closed, and the writer can stream again");
+        assertThat(output.closed).as("output closed").isTrue();
+        assertThat(output.toString()).doesNotContain("name-1");
+
+        StringWriter secondOutput = new StringWriter();
+        writer.startStreaming(secondOutput);
+        writer.finishStreaming();
+        assertThat(secondOutput.toString()).contains("label-name");
+    }
+
+    private String createInMemory(AbstractReportDataWriter<ExportedReportDataRow, ExportedReportHeaderRow> writer) {
+        writer.setHeaderRow(createHeader());
+        for (int item : PROCESSING_ORDER) {
+            createRows(item).forEach(writer::appendDataRow);
+        }
+        return writer.completizeReport();
+    }
+
+    private String createStreamed(AbstractReportDataWriter<ExportedReportDataRow, ExportedReportHeaderRow> writer) {
+        writer.setHeaderRow(createHeader());
+        StringWriter output = new StringWriter();
+        writer.startStreaming(output);
+        for (int item : PROCESSING_ORDER) {
+            createRows(item).forEach(writer::appendDataRow);
+            writer.itemProcessed(item);
+        }
+        writer.finishStreaming();
+        return output.toString();
+    }
+
+    private ExportedReportHeaderRow createHeader() {
+        return ExportedReportHeaderRow.fromColumns(
+                List.of(ExportedReportHeaderColumn.fromLabel("label-name"),
+                        ExportedReportHeaderColumn.fromLabel("label-values")));
+    }
+
+    private List<ExportedReportDataRow> createRows(int item) {
+        if (item == 2) {
+            return List.of();
+        } else if (item == 4) {
+            return List.of(createRow(item, "name-4a"), createRow(item, "name-4b"));
+        } else {
+            return List.of(createRow(item, "name-" + item));
+        }
+    }
+
+    private ExportedReportDataRow createRow(int sequentialNumber, String name) {
+        ExportedReportDataRow row = new ExportedReportDataRow(sequentialNumber);
+        row.addColumn(List.of(name));
+        row.addColumn(List.of("value-" + sequentialNumber, "other \"value\", with comma"));
+        return row;
+    }
+
+    private static class CloseTrackingWriter extends StringWriter {
+
+        private boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -8,6 +8,7 @@ package com.evolveum.midpoint.provisioning.api;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.evolveum.midpoint.prism.Objectable;
@@ -105,6 +106,23 @@ public interface ProvisioningService {
             throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
             SecurityViolationException, ExpressionEvaluationException;
 
+    /**
+     * Returns shadows with provided OIDs, as if {@link #getObject(Class, String, Collection, Task, OperationResult)}
+     * was called for each of them. The repository shadows are retrieved by a single search, so this is much cheaper
+     * than individual calls if there are many shadows.
+     *
+     * Only NO_FETCH (or RAW) mode is supported, as resource objects cannot be fetched in bulk.
+     *
+     * @param oids OIDs of the shadows to get
+     * @return Shadows, keyed by OID. Shadows that do not exist (or ceased to exist while being processed) are not present.
+     * @throws IllegalArgumentException
+     *             neither NO_FETCH nor RAW option is specified
+     */
+    @NotNull Map<String, PrismObject<ShadowType>> getShadows(@NotNull Collection<String> oids,
+            Collection<SelectorOptions<GetOperationOptions>> options, Task task, OperationResult parentResult)
+            throws CommunicationException, SchemaException, ConfigurationException, SecurityViolationException,
+            ExpressionEvaluationException;
+
     /**
      * Add new object.
      *
@@ -20,7 +20,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.PrismObject;
-import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.ResourceShadowCoordinates;
 import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -220,8 +219,7 @@ public class ProvisioningContextFactory {
 
     public @NotNull ResourceType getResource(String resourceOid, Task task, OperationResult result)
             throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException {
-        return resourceManager.getResource(resourceOid, GetOperationOptions.createReadOnly(), task, result)
-                .asObjectable();
+        return resourceManager.getReadOnlyResource(resourceOid, task, result);
     }
 
     private ResourceObjectDefinition getObjectDefinition(
@@ -11,7 +11,9 @@ import static com.evolveum.midpoint.schema.GetOperationOptions.disableReadOnly;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -84,6 +86,8 @@ public class ProvisioningServiceImpl implements ProvisioningService, SystemConfi
 
     private static final String OP_REFRESH_SHADOW = ProvisioningServiceImpl.class.getName() + ".refreshShadow";
     private static final String OP_DELETE_OBJECT = ProvisioningService.class.getName() + ".deleteObject";
+    private static final String OP_GET_SHADOWS = ProvisioningService.class.getName() + ".getShadows";
+    private static final String OP_GET_SHADOW = ProvisioningService.class.getName() + ".getObject";
 
     @Autowired
     ShadowsFacade shadowsFacade;
@@ -240,6 +244,91 @@ public class ProvisioningServiceImpl implements ProvisioningService, SystemConfi
         }
     }
 
+    @Override
+    public @NotNull Map<String, PrismObject<ShadowType>> getShadows(@NotNull Collection<String> oids,
+            Collection<SelectorOptions<GetOperationOptions>> options, Task task, OperationResult parentResult)
+            throws CommunicationException, SchemaException, ConfigurationException, SecurityViolationException,
+            ExpressionEvaluationException {
+
+        Validate.notNull(parentResult, "Operation result must not be null.");
+
+        OperationResult result = parentResult.subresult(OP_GET_SHADOWS)
+                .setMinor()
+                .addParam("oids", oids.size())
+                .addArbitraryObjectCollectionAsParam("options", options)
+                .addContext(OperationResult.CONTEXT_IMPLEMENTATION_CLASS, ProvisioningServiceImpl.class)
+                .build();
+        try {
+            GetOperationOptions rootOptions = SelectorOptions.findRootOptions(options);
+            if (!GetOperationOptions.isNoFetch(rootOptions) && !GetOperationOptions.isRaw(rootOptions)) {
+                throw new IllegalArgumentException("Only noFetch or raw mode is supported when getting multiple shadows");
+            }
+            // Temporary action to avoid immutability issues, see getObject.
+            options = disableReadOnly(options);
+
+            Map<String, PrismObject<ShadowType>> shadows = new HashMap<>();
+            if (oids.isEmpty()) {
+                return shadows;
+            }
+
+            ObjectQuery query = prismContext.queryFor(ShadowType.class)
+                    .id(oids.toArray(new String[0]))
+                    .build();
+            List<PrismObject<ShadowType>> repoShadows =
+                    cacheRepositoryService.searchObjects(ShadowType.class, query, options, result);
+            LOGGER.trace("Retrieved {} repository shadows for {} OIDs", repoShadows.size(), oids.size());
+
+            for (PrismObject<ShadowType> repoShadow : repoShadows) {
+                PrismObject<ShadowType> shadow = getShadowFromRepoShadow(repoShadow, options, task, result);
+                if (shadow != null) {
+                    shadows.put(shadow.getOid(), shadow);
+                }
+            }
+            return shadows;
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Processes a shadow already retrieved from the repository, like {@link #getObject(Class, String, Collection, Task,
+     * OperationResult)} does. Returns null if the shadow was found to be dead and deleted while being refreshed.
+     */
+    private PrismObject<ShadowType> getShadowFromRepoShadow(@NotNull PrismObject<ShadowType> repoShadow,
+            Collection<SelectorOptions<GetOperationOptions>> options, Task task, OperationResult parentResult)
+            throws CommunicationException, SchemaException, ConfigurationException, SecurityViolationException,
+            ExpressionEvaluationException {
+        String oid = repoShadow.getOid();
+        OperationResult result = parentResult.createMinorSubresult(OP_GET_SHADOW);
+        result.addParam(OperationResult.PARAM_OID, oid);
+        try {
+            PrismObject<ShadowType> shadow = shadowsFacade.getShadow(oid, repoShadow, null, options, task, result);
+            result.computeStatusIfUnknown();
+            if (!GetOperationOptions.isRaw(SelectorOptions.findRootOptions(options))) {
+                shadow = shadow.cloneIfImmutable();
+                shadow.asObjectable().setFetchResult(result.createOperationResultType());
+            }
+            result.cleanupResult();
+            return shadow;
+        } catch (ObjectNotFoundException e) {
+            LOGGER.trace("Shadow {} disappeared while being processed", oid);
+            result.muteError();
+            result.recordNotApplicable();
+            return null;
+        } catch (EncryptionException e) {
+            ProvisioningUtil.recordFatalError(LOGGER, result, "Error getting object OID=" + oid + ": " + e.getMessage(), e);
+            throw new SystemException(e);
+        } catch (Throwable t) {
+            ProvisioningUtil.recordFatalError(LOGGER, result, "Error getting object OID=" + oid + ": " + t.getMessage(), t);
+            throw t;
+        } finally {
+            result.close();
+        }
+    }
+
     @Override
     public <T extends ObjectType> String addObject(PrismObject<T> object, OperationProvisioningScriptsType scripts, ProvisioningOperationOptions options,
             Task task, OperationResult parentResult) throws ObjectAlreadyExistsException, SchemaException, CommunicationException,
@@ -7,6 +7,7 @@
 package com.evolveum.midpoint.provisioning.impl;
 
 import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.common.Clock;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.api.Cache;
@@ -32,6 +33,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLevel.PER_CACHE;
 
@@ -42,6 +44,23 @@ import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLe
  * It relies on versions and on invalidation events instead. So we have to use resource object versions when querying it.
  * (This could be perhaps changed in the future. But not now.)
  *
+ * The cache is lock-free. Each entry is an immutable snapshot of the resource; it is never modified, only replaced
+ * by a newer snapshot (copy-on-write). So read-only clients can use the cached object directly, without cloning.
+ *
+ * Entries are validated by invalidation events (pushed to us by the cache dispatcher, also from other cluster nodes)
+ * instead of asking the repository for the current version on each {@link #getIfLatest(String, boolean, OperationResult)}
+ * call. To avoid caching a resource that was modified (and invalidated) while it was being read and completed,
+ * the client provides the value of {@link #getInvalidationCount()} obtained before reading the resource from the
+ * repository. If there was an invalidation in the meantime, the entry is still stored, but it is not considered
+ * validated; its version is then checked against the repository when it is requested.
+ *
+ * As a safety net (e.g. for a lost invalidation message in the cluster), validated entries are re-checked against
+ * the repository version after {@link #VALIDITY_PERIOD} milliseconds. This is also the bound of staleness: if an
+ * invalidation event is lost, a modified resource can be served from this cache for up to {@link #VALIDITY_PERIOD}
+ * after it was last validated. Modifications done through the repository cache are broadcast cluster-wide
+ * (see {@code Invalidator}), so this happens only if a cluster message is lost or the repository is modified
+ * by other means.
+ *
  * @author Radovan Semancik
  */
 @Component
@@ -50,7 +69,14 @@ public class ResourceCache implements Cache {
     private static final Trace LOGGER = TraceManager.getTrace(ResourceCache.class);
     private static final Trace LOGGER_CONTENT = TraceManager.getTrace(ResourceCache.class.getName() + ".content");
 
+    /** How long can be a validated entry used without checking its version in the repository. */
+    public static final long VALIDITY_PERIOD = 60_000L;
+
+    /** Value of invalidation count for entries that should never be considered validated right after being put. */
+    static final long UNKNOWN_INVALIDATION_COUNT = -1L;
+
     @Autowired private PrismContext prismContext;
+    @Autowired private Clock clock;
     @Autowired private CacheRegistry cacheRegistry;
     @Autowired @Qualifier("cacheRepositoryService")
     private RepositoryService repositoryService;
@@ -68,12 +94,29 @@ public class ResourceCache implements Cache {
     /**
      * Note that prism objects in this map are always not null and immutable.
      * And they must remain immutable after getting them from the cache.
-     *
-     * As for ConcurrentHashMap: Although we use synchronization whenever possible, let's be extra cautious here.
      */
-    private final Map<String, PrismObject<ResourceType>> cache = new ConcurrentHashMap<>();
+    private final Map<String, CachedResource> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Number of invalidation events relevant to resources. Incremented before the entries are removed.
+     */
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Returns the current invalidation count. To be obtained before reading the resource from the repository
+     * and then provided to {@link #put(PrismObject, long)}.
+     */
+    long getInvalidationCount() {
+        return invalidationCount.get();
+    }
 
-    synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
+    /**
+     * Puts the resource into the cache. If the resource is not immutable, an immutable clone is stored.
+     *
+     * @param invalidationCountBeforeRead Value of {@link #getInvalidationCount()} before the resource was read from
+     * the repository, or {@link #UNKNOWN_INVALIDATION_COUNT} if not known.
+     */
+    void put(PrismObject<ResourceType> resource, long invalidationCountBeforeRead) throws SchemaException {
         String oid = resource.getOid();
         if (oid == null) {
             throw new SchemaException("Attempt to cache "+resource+" without an OID");
@@ -84,18 +127,33 @@ public class ResourceCache implements Cache {
             throw new SchemaException("Attempt to cache "+resource+" without version");
         }
 
-        PrismObject<ResourceType> cachedResource = cache.get(oid);
+        CachedResource cachedResource = cache.get(oid);
+        CachedResource newEntry;
         if (cachedResource == null) {
             LOGGER.debug("Caching(new): {}", resource);
-            cache.put(oid, resource.createImmutableClone());
-        } else if (compareVersion(resource.getVersion(), cachedResource.getVersion())) {
+            newEntry = new CachedResource(toImmutable(resource));
+            cache.put(oid, newEntry);
+        } else if (compareVersion(resource.getVersion(), cachedResource.resource.getVersion())) {
             LOGGER.debug("Caching fizzle, resource already cached: {}", resource);
-            // We already have equivalent resource, nothing to do
+            // We already have equivalent resource, nothing to do (except for validating it, see below)
             //  TODO is this correct? What if the resource being put here is newer than the existing one (although having the same version)?
+            newEntry = cachedResource;
         } else {
             LOGGER.debug("Caching(replace): {}", resource);
-            cache.put(oid, resource.createImmutableClone());
+            newEntry = new CachedResource(toImmutable(resource));
+            cache.put(oid, newEntry);
         }
+
+        // The check must be done after the entry is in the map: an invalidation that came after this check
+        // increments the counter and then removes the entry, so the (possibly) stale entry does not survive.
+        if (invalidationCountBeforeRead != UNKNOWN_INVALIDATION_COUNT
+                && invalidationCount.get() == invalidationCountBeforeRead) {
+            newEntry.markValidated(clock.currentTimeMillis());
+        }
+    }
+
+    private PrismObject<ResourceType> toImmutable(PrismObject<ResourceType> resource) {
+        return resource.isImmutable() ? resource : resource.createImmutableClone();
     }
 
     private boolean compareVersion(String version1, String version2) {
@@ -105,87 +163,110 @@ public class ResourceCache implements Cache {
     /**
      * Gets a resource if it has specified version. If it has not, purges it from the cache (even if it exists there).
      */
-    synchronized PrismObject<ResourceType> get(@NotNull String oid, String requestedVersion, boolean readOnly) {
+    PrismObject<ResourceType> get(@NotNull String oid, String requestedVersion, boolean readOnly) {
         InternalMonitor.getResourceCacheStats().recordRequest();
 
         PrismObject<ResourceType> resourceToReturn;
-        PrismObject<ResourceType> cachedResource = cache.get(oid);
+        CachedResource cachedResource = cache.get(oid);
         if (cachedResource == null) {
             LOGGER.debug("MISS(not cached) for {} (get)", oid);
             resourceToReturn = null;
-        } else if (!compareVersion(requestedVersion, cachedResource.getVersion())) {
-            LOGGER.debug("MISS(wrong version) for {} (req={}, actual={})", oid, requestedVersion, cachedResource.getVersion());
+        } else if (!compareVersion(requestedVersion, cachedResource.resource.getVersion())) {
+            LOGGER.debug("MISS(wrong version) for {} (req={}, actual={})", oid, requestedVersion,
+                    cachedResource.resource.getVersion());
             LOGGER.trace("Cached resource version {} does not match requested resource version {}, purging from cache",
-                    cachedResource.getVersion(), requestedVersion);
-            cache.remove(oid);
+                    cachedResource.resource.getVersion(), requestedVersion);
+            // Only if it was not replaced in the meanwhile
+            cache.remove(oid, cachedResource);
             resourceToReturn = null;
-        } else if (readOnly) {
-            cachedResource.checkImmutable();
-            LOGGER.trace("HIT(read only) for {} (v{})", cachedResource, cachedResource.getVersion());
-            resourceToReturn = cachedResource;
         } else {
-            LOGGER.debug("HIT(returning clone) for {} (v{})", cachedResource, cachedResource.getVersion());
-            resourceToReturn = cachedResource.clone();
+            resourceToReturn = toReturn(cachedResource, readOnly);
+        }
+
+        recordResult(resourceToReturn != null);
+        return resourceToReturn;
+    }
+
+    private PrismObject<ResourceType> toReturn(CachedResource cachedResource, boolean readOnly) {
+        PrismObject<ResourceType> resource = cachedResource.resource;
+        if (readOnly) {
+            resource.checkImmutable();
+            LOGGER.trace("HIT(read only) for {} (v{})", resource, resource.getVersion());
+            return resource;
+        } else {
+            LOGGER.debug("HIT(returning clone) for {} (v{})", resource, resource.getVersion());
+            return resource.clone();
         }
+    }
 
-        if (resourceToReturn != null) {
+    private void recordResult(boolean hit) {
+        if (hit) {
             CachePerformanceCollector.INSTANCE.registerHit(ResourceCache.class, ResourceType.class, PER_CACHE);
             InternalMonitor.getResourceCacheStats().recordHit();
         } else {
             CachePerformanceCollector.INSTANCE.registerMiss(ResourceCache.class, ResourceType.class, PER_CACHE);
             InternalMonitor.getResourceCacheStats().recordMiss();
         }
-        return resourceToReturn;
     }
 
     /**
      * Gets a resource without specifying requested version: returns one only if it has the same version as in the repo.
      *
-     * This requires a cooperation with the repository cache. Therefore this method is NOT synchronized
-     * and has operation result as its parameter.
+     * Validated entries are returned without contacting the repository. Other ones (and validated ones that are
+     * older than {@link #VALIDITY_PERIOD}) are checked against the version in the repository. This requires
+     * a cooperation with the repository cache, therefore this method has operation result as its parameter.
      */
     PrismObject<ResourceType> getIfLatest(@NotNull String oid, boolean readonly, OperationResult parentResult)
             throws SchemaException, ObjectNotFoundException {
         // First let's check if the cache contains given resource. If not, we can avoid getting version from the repo.
-        if (contains(oid)) {
-            String version = repositoryService.getVersion(ResourceType.class, oid, parentResult);
-            return get(oid, version, readonly);
-        } else {
+        CachedResource cachedResource = cache.get(oid);
+        if (cachedResource == null) {
             LOGGER.debug("MISS(not cached) for {} (getIfLatest)", oid);
-            CachePerformanceCollector.INSTANCE.registerMiss(ResourceCache.class, ResourceType.class, PER_CACHE);
-            InternalMonitor.getResourceCacheStats().recordMiss();
+            recordResult(false);
             return null;
+        } else if (cachedResource.isValidated(clock.currentTimeMillis())) {
+            InternalMonitor.getResourceCacheStats().recordRequest();
+            recordResult(true);
+            return toReturn(cachedResource, readonly);
+        } else {
+            long invalidationCountBeforeRead = invalidationCount.get();
+            String version = repositoryService.getVersion(ResourceType.class, oid, parentResult);
+            PrismObject<ResourceType> resource = get(oid, version, readonly);
+            if (resource != null && invalidationCount.get() == invalidationCountBeforeRead) {
+                // Version is OK and there was no invalidation since we have read it, so we can trust the entry
+                // (if it was removed in the meanwhile, marking it does not matter).
+                cachedResource.markValidated(clock.currentTimeMillis());
+            }
+            return resource;
         }
     }
 
-    private synchronized boolean contains(@NotNull String oid) {
-        return cache.containsKey(oid);
-    }
-
     /**
      * Returns currently cached version. FOR DIAGNOSTICS ONLY.
      */
-    synchronized String getVersion(String oid) {
+    String getVersion(String oid) {
         if (oid == null) {
             return null;
         }
-        PrismObject<ResourceType> cachedResource = cache.get(oid);
+        CachedResource cachedResource = cache.get(oid);
         if (cachedResource == null) {
             return null;
         }
-        return cachedResource.getVersion();
+        return cachedResource.resource.getVersion();
     }
 
-    synchronized void remove(String oid) {
+    void remove(String oid) {
+        invalidationCount.incrementAndGet();
         cache.remove(oid);
     }
 
     @Override
-    public synchronized void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
         if (type == null || type.isAssignableFrom(ResourceType.class)) {
             if (oid != null) {
                 remove(oid);
             } else {
+                invalidationCount.incrementAndGet();
                 cache.clear();
             }
         }
@@ -193,7 +274,7 @@ public class ResourceCache implements Cache {
 
     @NotNull
     @Override
-    public synchronized Collection<SingleCacheStateInformationType> getStateInformation() {
+    public Collection<SingleCacheStateInformationType> getStateInformation() {
         return Collections.singleton(
                 new SingleCacheStateInformationType(prismContext)
                         .name(ResourceCache.class.getName())
@@ -204,8 +285,32 @@ public class ResourceCache implements Cache {
     @Override
     public void dumpContent() {
         if (LOGGER_CONTENT.isInfoEnabled()) {
-            cache.forEach((oid, resource) -> LOGGER_CONTENT.info("Cached resource: {}: {} (version: {})",
-                    oid, resource, resource.getVersion()));
+            cache.forEach((oid, cachedResource) -> LOGGER_CONTENT.info("Cached resource: {}: {} (version: {}, validated: {})",
+                    oid, cachedResource.resource, cachedResource.resource.getVersion(), cachedResource.isValidated(clock.currentTimeMillis())));
+        }
+    }
+
+    /**
+     * Immutable snapshot of a resource, with the information when it was last validated.
+     */
+    private static class CachedResource {
+
+        @NotNull private final PrismObject<ResourceType> resource;
+
+        /** When was the entry validated (by reading the version or by the absence of invalidations); 0 if never. */
+        private volatile long validatedAt;
+
+        private CachedResource(@NotNull PrismObject<ResourceType> resource) {
+            this.resource = resource;
+        }
+
+        private void markValidated(long now) {
+            validatedAt = now;
+        }
+
+        private boolean isValidated(long now) {
+            long validatedAt = this.validatedAt;
+            return validatedAt != 0 && now - validatedAt < VALIDITY_PERIOD;
         }
     }
 }
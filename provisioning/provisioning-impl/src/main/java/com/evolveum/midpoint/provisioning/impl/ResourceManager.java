@@ -102,10 +102,23 @@ public class ResourceManager {
             LOGGER.debug("Storing fetched resource {}, version {} to cache (previously cached version {})",
                     oid, repositoryObject.getVersion(), resourceCache.getVersion(oid));
             PrismObject<ResourceType> mutableRepositoryObject = repositoryObject.cloneIfImmutable();
-            return completeAndCacheResource(mutableRepositoryObject, options, task, parentResult);
+            // We don't know when the object was read, so the cached entry will be validated on the first use.
+            return completeAndCacheResource(mutableRepositoryObject, ResourceCache.UNKNOWN_INVALIDATION_COUNT,
+                    options, task, parentResult);
         }
     }
 
+    /**
+     * Gets a resource for read-only use. Resources from the cache are returned directly, without cloning.
+     * The returned object must not be modified.
+     */
+    @NotNull public ResourceType getReadOnlyResource(
+            @NotNull String oid, @NotNull Task task, @NotNull OperationResult parentResult)
+            throws ObjectNotFoundException, SchemaException, ExpressionEvaluationException {
+        return getResource(oid, GetOperationOptions.createReadOnly(), task, parentResult)
+                .asObjectable();
+    }
+
     /**
      * Gets a resource.
      */
@@ -122,9 +135,10 @@ public class ResourceManager {
                 LOGGER.debug("Fetching resource {} and storing to cache (previously cached version {}) (options={})",
                         oid, resourceCache.getVersion(oid), options);
             }
+            long invalidationCountBeforeRead = resourceCache.getInvalidationCount();
             // We must obviously NOT fetch resource from repo as read-only. We are going to modify it.
             PrismObject<ResourceType> repositoryObject = readResourceFromRepository(oid, parentResult);
-            return completeAndCacheResource(repositoryObject, options, task, parentResult);
+            return completeAndCacheResource(repositoryObject, invalidationCountBeforeRead, options, task, parentResult);
         }
     }
 
@@ -138,9 +152,11 @@ public class ResourceManager {
      * Here we complete the resource and cache it.
      *
      * @param repositoryObject Up-to-date repository object. Must be mutable.
+     * @param invalidationCountBeforeRead Resource cache invalidation count before the object was read, see
+     * {@link ResourceCache#put(PrismObject, long)}.
      */
     @NotNull private PrismObject<ResourceType> completeAndCacheResource(@NotNull PrismObject<ResourceType> repositoryObject,
-            GetOperationOptions options, Task task, OperationResult parentResult)
+            long invalidationCountBeforeRead, GetOperationOptions options, Task task, OperationResult parentResult)
             throws ObjectNotFoundException, SchemaException, ExpressionEvaluationException {
 
         checkMutable(repositoryObject);
@@ -160,8 +176,12 @@ public class ResourceManager {
                         ObjectTypeUtil.toShortString(repositoryObject), completeResourceResult.getStatus());
             } else {
                 LOGGER.debug("Putting {} into cache", repositoryObject);
+                if (GetOperationOptions.isReadOnly(options)) {
+                    // The client does not need a mutable object, so we can cache this one instead of its clone.
+                    completedResource.freeze();
+                }
                 // Cache only resources that are completely OK
-                resourceCache.put(completedResource);
+                resourceCache.put(completedResource, invalidationCountBeforeRead);
             }
         }
         return completedResource;
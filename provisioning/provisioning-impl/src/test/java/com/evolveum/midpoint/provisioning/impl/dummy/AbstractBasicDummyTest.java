@@ -17,6 +17,7 @@ import static com.evolveum.midpoint.test.asserter.predicates.TimeAssertionPredic
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
@@ -1297,6 +1298,38 @@ public class AbstractBasicDummyTest extends AbstractDummyTest {
         assertSteadyResource();
     }
 
+    /**
+     * Gets more shadows at once. Non-existing shadows should be simply skipped.
+     */
+    @Test
+    public void test104GetShadowsNoFetch() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = createOperationResult();
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+        String nonExistentOid = "1f3c6a8e-52f2-4d8e-9a3c-8a0b1f0e4b51";
+        XMLGregorianCalendar startTs = clock.currentTimeXMLGregorianCalendar();
+
+        when();
+        Map<String, PrismObject<ShadowType>> shadows = provisioningService.getShadows(
+                List.of(ACCOUNT_WILL_OID, nonExistentOid), GetOperationOptions.createNoFetchCollection(), task, result);
+
+        then();
+        display("getShadows result", result);
+        assertSuccess(result);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 0);
+
+        assertEquals("Wrong shadows returned", Set.of(ACCOUNT_WILL_OID), shadows.keySet());
+        PrismObject<ShadowType> shadow = shadows.get(ACCOUNT_WILL_OID);
+        display("Retrieved account shadow", shadow);
+
+        checkAccountShadow(shadow, result, false);
+        checkRepoAccountShadowWill(shadow, null, startTs);
+
+        assertSteadyResource();
+    }
+
     @Test
     public void test105ApplyDefinitionModifyDelta() throws Exception {
         // GIVEN
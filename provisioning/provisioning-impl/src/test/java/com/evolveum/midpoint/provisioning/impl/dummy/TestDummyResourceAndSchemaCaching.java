@@ -6,24 +6,36 @@
  */
 package com.evolveum.midpoint.provisioning.impl.dummy;
 
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.evolveum.midpoint.schema.processor.ResourceSchemaFactory;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 import org.w3c.dom.Element;
 
+import com.evolveum.midpoint.CacheInvalidationContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.provisioning.impl.ResourceCache;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
@@ -36,6 +48,7 @@ import com.evolveum.midpoint.test.DummyResourceContoller;
 import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ProjectionPolicyType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
@@ -51,6 +64,12 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 @DirtiesContext
 public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
 
+    @Autowired
+    @Qualifier("repositoryService") // we want repo implementation, not cache; so no invalidation events are sent
+    private RepositoryService plainRepositoryService;
+
+    @Autowired private CacheDispatcher cacheDispatcher;
+
     @Test
     public void test010GetResource() throws Exception {
         // GIVEN
@@ -522,6 +541,92 @@ public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
         assertConnectorConfigChanged();
     }
 
+    /**
+     * Change resource directly in repo, bypassing the repository cache. This simulates a lost cluster invalidation
+     * message. The validated cache entry is served (stale) until its validity period passes; then the version
+     * is checked and the resource is re-read.
+     */
+    @Test
+    public void test040ModifyRepoWithoutInvalidation() throws Exception {
+        given("validated resource in the cache");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        PrismObject<ResourceType> resourceBefore =
+                provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, null, task, result);
+        String versionBefore = resourceBefore.getVersion();
+        ProjectionPolicyType projectionPolicy = new ProjectionPolicyType();
+        projectionPolicy.setLegalize(true);
+
+        when("resource is modified without sending invalidation events");
+        plainRepositoryService.modifyObject(ResourceType.class, RESOURCE_DUMMY_OID,
+                prismContext.deltaFor(ResourceType.class)
+                        .item(ResourceType.F_PROJECTION).replace(projectionPolicy)
+                        .asItemDeltas(),
+                result);
+        String versionInRepo = plainRepositoryService.getVersion(ResourceType.class, RESOURCE_DUMMY_OID, result);
+        rememberResourceCacheStats();
+        PrismObject<ResourceType> resourceWithinPeriod =
+                provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, null, task, result);
+
+        then("stale resource is returned from the cache");
+        assertSuccess(result);
+        assertEquals("Wrong version of cached resource", versionBefore, resourceWithinPeriod.getVersion());
+        assertResourceCacheMissesIncrement(0);
+
+        when("validity period passes");
+        clock.overrideDuration(ResourceCache.VALIDITY_PERIOD + 1000L);
+        PrismObject<ResourceType> resourceAfterPeriod;
+        try {
+            resourceAfterPeriod = provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, null, task, result);
+        } finally {
+            clock.resetOverride();
+        }
+
+        then("current resource is returned");
+        assertSuccess(result);
+        assertEquals("Wrong version of resource", versionInRepo, resourceAfterPeriod.getVersion());
+    }
+
+    /**
+     * Resource invalidation must be distributed cluster-wide, as the resource caches on other nodes rely on it.
+     */
+    @Test
+    public void test045ModifyResourceBroadcastsInvalidation() throws Exception {
+        given("listener recording invalidation events");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        List<String> resourceInvalidations = new CopyOnWriteArrayList<>();
+        CacheListener listener = new CacheListener() {
+            @Override
+            public <O extends ObjectType> void invalidate(Class<O> type, String oid, boolean clusterwide,
+                    CacheInvalidationContext context) {
+                if (ResourceType.class.equals(type)) {
+                    resourceInvalidations.add(oid + ":" + clusterwide);
+                }
+            }
+        };
+        cacheDispatcher.registerCacheListener(listener);
+
+        try {
+            when("resource is modified");
+            ProjectionPolicyType projectionPolicy = new ProjectionPolicyType();
+            projectionPolicy.setLegalize(false);
+            repositoryService.modifyObject(ResourceType.class, RESOURCE_DUMMY_OID,
+                    prismContext.deltaFor(ResourceType.class)
+                            .item(ResourceType.F_PROJECTION).replace(projectionPolicy)
+                            .asItemDeltas(),
+                    result);
+        } finally {
+            cacheDispatcher.unregisterCacheListener(listener);
+        }
+
+        then("cluster-wide invalidation is dispatched");
+        assertSuccess(result);
+        displayValue("Resource invalidations", resourceInvalidations);
+        assertTrue("No cluster-wide invalidation of the resource: " + resourceInvalidations,
+                resourceInvalidations.contains(RESOURCE_DUMMY_OID + ":true"));
+    }
+
     @Test
     public void test900DeleteResource() throws Exception {
         // GIVEN
@@ -18,6 +18,11 @@ import java.net.URL;
 import java.security.Key;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import javax.annotation.PostConstruct;
@@ -102,6 +107,11 @@ public class ConnectorFactoryConnIdImpl implements ConnectorFactory {
             CONNECTOR_SCHEMA_LEGACY_SCHEMA_XML_ELEMENT_NAME);
     public static final QName CONNECTOR_SCHEMA_LEGACY_SCHEMA_TYPE = DOMUtil.XSD_BOOLEAN;
 
+    public static final String CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_XML_ELEMENT_NAME = "searchPrefetchDepth";
+    public static final QName CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_ELEMENT = new QName(SchemaConstants.NS_ICF_CONFIGURATION,
+            CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_XML_ELEMENT_NAME);
+    public static final QName CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_TYPE = DOMUtil.XSD_INT;
+
     public static final String CONNECTOR_SCHEMA_TIMEOUTS_XML_ELEMENT_NAME = "timeouts";
     public static final QName CONNECTOR_SCHEMA_TIMEOUTS_ELEMENT = new QName(SchemaConstants.NS_ICF_CONFIGURATION,
             CONNECTOR_SCHEMA_TIMEOUTS_XML_ELEMENT_NAME);
@@ -128,6 +138,10 @@ public class ConnectorFactoryConnIdImpl implements ConnectorFactory {
 
     private static final Trace LOGGER = TraceManager.getTrace(ConnectorFactoryConnIdImpl.class);
 
+    /** Maximal number of threads fetching search results in advance, see {@link SearchPrefetcher}. */
+    private static final String CONF_SEARCH_PREFETCH_THREADS = "searchPrefetchThreads";
+    private static final int DEFAULT_SEARCH_PREFETCH_THREADS = 10;
+
     static {
         // Forces JUL logger to be loaded by the parent classloader so we can correctly
         // adjust the log levels from the main code.
@@ -143,6 +157,9 @@ public class ConnectorFactoryConnIdImpl implements ConnectorFactory {
     @Autowired private LocalizationService localizationService;
     private CopyOnWriteArrayList<ConnectorDiscoveryListener> listeners = new CopyOnWriteArrayList<>();
 
+    /** Threads for {@link SearchPrefetcher}. If all are busy, searches are executed without prefetching. */
+    private ThreadPoolExecutor searchPrefetchExecutor;
+
     public ConnectorFactoryConnIdImpl() {
     }
 
@@ -177,6 +194,17 @@ public class ConnectorFactoryConnIdImpl implements ConnectorFactory {
             localConnectorInfoManager.uriAdded(u);
         }
         localConnectorInfoManager.start();
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        searchPrefetchExecutor = new ThreadPoolExecutor(
+                0, Math.max(1, config.getInt(CONF_SEARCH_PREFETCH_THREADS, DEFAULT_SEARCH_PREFETCH_THREADS)),
+                60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "ConnId search prefetch " + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
     /**
@@ -217,6 +245,7 @@ public class ConnectorFactoryConnIdImpl implements ConnectorFactory {
                 connectorSchema, protector, prismContext, localizationService);
         connectorImpl.setDescription(instanceDescription);
         connectorImpl.setInstanceName(instanceName);
+        connectorImpl.setSearchPrefetchExecutor(searchPrefetchExecutor);
 
         return connectorImpl;
     }
@@ -428,6 +457,9 @@ public class ConnectorFactoryConnIdImpl implements ConnectorFactory {
         configurationContainerDef.createPropertyDefinition(
                 ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_LEGACY_SCHEMA_ELEMENT,
                 ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_LEGACY_SCHEMA_TYPE, 0, 1);
+        configurationContainerDef.createPropertyDefinition(
+                ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_ELEMENT,
+                ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_TYPE, 0, 1);
 
         // No need to create definition of "configuration" element.
         // midPoint will look for this element, but it will be generated as part
@@ -849,6 +881,9 @@ public class ConnectorFactoryConnIdImpl implements ConnectorFactory {
         if (localConnectorInfoManager != null) {
             localConnectorInfoManager.shutdown();
         }
+        if (searchPrefetchExecutor != null) {
+            searchPrefetchExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -14,6 +14,7 @@ import static java.util.Collections.emptySet;
 import static org.apache.commons.collections4.SetUtils.emptyIfNull;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.namespace.QName;
@@ -127,6 +128,12 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
     private Collection<Object> capabilities = null;
     private Boolean legacySchema = null;
 
+    /** Number of objects that can be fetched by the connector in advance during search; zero means no prefetching. */
+    private int searchPrefetchDepth;
+
+    /** Threads for search prefetching, managed by the connector factory. */
+    private ExecutorService searchPrefetchExecutor;
+
     private String description;
     private String instanceName; // resource name
     private boolean caseIgnoreAttributeNames = false;
@@ -230,6 +237,13 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
             }
             LOGGER.trace("Legacy schema (config): {}", legacySchema);
 
+            PrismProperty<Integer> searchPrefetchDepthProperty = configurationCloned.findProperty(new ItemName(
+                    SchemaConstants.NS_ICF_CONFIGURATION,
+                    ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_XML_ELEMENT_NAME));
+            Integer searchPrefetchDepthValue = searchPrefetchDepthProperty != null ? searchPrefetchDepthProperty.getRealValue() : null;
+            searchPrefetchDepth = searchPrefetchDepthValue != null ? Math.max(searchPrefetchDepthValue, 0) : 0;
+            LOGGER.trace("Search prefetch depth (config): {}", searchPrefetchDepth);
+
         } catch (Throwable ex) {
             Throwable midpointEx = processConnIdException(ex, this, result);
             result.computeStatus("Removing attribute values failed");
@@ -2260,6 +2274,18 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
         return caseIgnoreAttributeNames;
     }
 
+    int getSearchPrefetchDepth() {
+        return searchPrefetchDepth;
+    }
+
+    ExecutorService getSearchPrefetchExecutor() {
+        return searchPrefetchExecutor;
+    }
+
+    void setSearchPrefetchExecutor(ExecutorService searchPrefetchExecutor) {
+        this.searchPrefetchExecutor = searchPrefetchExecutor;
+    }
+
     ConnectorFacade getConnIdConnectorFacade() {
         return connIdConnectorFacade;
     }
@@ -10,6 +10,7 @@ package com.evolveum.midpoint.provisioning.ucf.impl.connid;
 import static com.evolveum.midpoint.provisioning.ucf.impl.connid.ConnIdUtil.processConnIdException;
 import static com.evolveum.midpoint.provisioning.ucf.impl.connid.ConnectorInstanceConnIdImpl.toShadowDefinition;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.namespace.QName;
 
@@ -220,8 +221,21 @@ class SearchExecutor {
         try {
 
             LOGGER.trace("Executing ConnId search operation: {}", operation);
-            connIdSearchResult = connectorInstance.getConnIdConnectorFacade()
-                    .search(icfObjectClass, connIdFilter, connIdHandler, connIdOptions);
+            ConnectorFacade connIdConnectorFacade = connectorInstance.getConnIdConnectorFacade();
+            int prefetchDepth = connectorInstance.getSearchPrefetchDepth();
+            ExecutorService prefetchExecutor = connectorInstance.getSearchPrefetchExecutor();
+            if (prefetchDepth > 0 && prefetchExecutor != null) {
+                SearchPrefetcher prefetcher = new SearchPrefetcher(
+                        prefetchDepth, connectorInstance.getHumanReadableName(), prefetchExecutor);
+                connIdSearchResult = prefetcher.execute(
+                        prefetchingHandler -> connIdConnectorFacade
+                                .search(icfObjectClass, connIdFilter, prefetchingHandler, connIdOptions),
+                        connIdHandler);
+                prefetcher.recordStatistics(result);
+            } else {
+                connIdSearchResult = connIdConnectorFacade
+                        .search(icfObjectClass, connIdFilter, connIdHandler, connIdOptions);
+            }
             recordIcfOperationEnd(operation, null);
 
             result.recordSuccess();
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.impl.connid;
+
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Runs ConnId search in a separate (fetcher) thread, passing the objects found to the calling thread via bounded queue.
+ *
+ * So the connector can read further objects (e.g. the next LDAP page) while midPoint processes the ones already fetched.
+ * The processing itself stays in the calling thread, so it runs in the same context (task, security, operation result)
+ * as without the prefetching.
+ *
+ * - When the queue is full, the connector is blocked in the results handler (backpressure).
+ * - When the processing asks to stop (or fails), the fetcher thread is told to stop at the next object
+ * and the calling thread waits for the search to finish. If the connector does not return in {@link #stopTimeout}
+ * (e.g. it is blocked reading from the network), the fetcher thread is interrupted and the calling thread continues.
+ * - Exceptions thrown by the connector are re-thrown in the calling thread, after all objects fetched
+ * before the failure are processed.
+ *
+ * Fetcher threads are taken from a bounded pool managed by {@link ConnectorFactoryConnIdImpl}.
+ * If there is no free thread, the search is executed without prefetching.
+ */
+class SearchPrefetcher {
+
+    private static final Trace LOGGER = TraceManager.getTrace(SearchPrefetcher.class);
+
+    /** How long we wait for the fetcher to stop before interrupting it (millis). */
+    static final long DEFAULT_STOP_TIMEOUT = 10_000;
+
+    /** How often the fetcher checks if it should stop while it is waiting for free space in the queue. */
+    private static final long STOP_CHECK_INTERVAL = 100;
+
+    /** Marks the end of the search. */
+    private static final Object END = new Object();
+
+    @NotNull private final BlockingQueue<Object> queue;
+    @NotNull private final String description;
+    @NotNull private final ExecutorService executor;
+    private final long stopTimeout;
+
+    private volatile boolean stopped;
+    private volatile SearchResult searchResult;
+    private volatile Throwable fetchFailure;
+
+    // Statistics (in nanoseconds). Written by a single thread each, read after the fetcher is finished.
+    private long connectorWaitTime;
+    private long processingTime;
+    private volatile long backpressureTime;
+    private int objectsProcessed;
+
+    SearchPrefetcher(int depth, @NotNull String description, @NotNull ExecutorService executor) {
+        this(depth, description, executor, DEFAULT_STOP_TIMEOUT);
+    }
+
+    SearchPrefetcher(int depth, @NotNull String description, @NotNull ExecutorService executor, long stopTimeout) {
+        this.queue = new ArrayBlockingQueue<>(depth);
+        this.description = description;
+        this.executor = executor;
+        this.stopTimeout = stopTimeout;
+    }
+
+    /**
+     * Executes the search and processes the objects found.
+     *
+     * @param search Starts the search with given results handler (in the fetcher thread).
+     * @param processor Processes the objects (in the current thread). Returns false if no more objects are needed.
+     * @return Result of the search
+     */
+    SearchResult execute(@NotNull Function<ResultsHandler, SearchResult> search, @NotNull ResultsHandler processor) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        Future<?> fetcher;
+        try {
+            fetcher = executor.submit(() -> {
+                Thread thread = Thread.currentThread();
+                ClassLoader originalClassLoader = thread.getContextClassLoader();
+                thread.setContextClassLoader(classLoader);
+                try {
+                    fetch(search);
+                } finally {
+                    thread.setContextClassLoader(originalClassLoader);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("No free prefetching thread for search of {}, searching without prefetching", description);
+            return search.apply(processor);
+        }
+
+        try {
+            processAll(processor);
+        } catch (RuntimeException | Error e) {
+            stop();
+            waitForFetcher(fetcher);
+            throw e;
+        }
+        waitForFetcher(fetcher);
+
+        Throwable failure = fetchFailure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            // ConnId declares only runtime exceptions, but connectors can be sneaky
+            throw new SystemException("Unexpected exception from connector: " + failure.getMessage(), failure);
+        }
+        return searchResult;
+    }
+
+    private void processAll(ResultsHandler processor) {
+        for (;;) {
+            long waitStart = System.nanoTime();
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SystemException("Interrupted while waiting for the results of " + description, e);
+            }
+            long processingStart = System.nanoTime();
+            connectorWaitTime += processingStart - waitStart;
+            if (item == END) {
+                return;
+            }
+            boolean continueProcessing = processor.handle((ConnectorObject) item);
+            processingTime += System.nanoTime() - processingStart;
+            objectsProcessed++;
+            if (!continueProcessing) {
+                stop();
+                return;
+            }
+        }
+    }
+
+    private void fetch(Function<ResultsHandler, SearchResult> search) {
+        try {
+            searchResult = search.apply(this::enqueue);
+        } catch (Throwable t) {
+            fetchFailure = t;
+        } finally {
+            try {
+                while (!stopped && !queue.offer(END, STOP_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    // waiting for the processing to catch up (or to stop)
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Prefetching thread for {} was interrupted while finishing", description);
+            }
+        }
+    }
+
+    /** Called by the connector in the fetcher thread. */
+    private boolean enqueue(ConnectorObject connectorObject) {
+        long start = System.nanoTime();
+        try {
+            while (!stopped) {
+                if (queue.offer(connectorObject, STOP_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            backpressureTime += System.nanoTime() - start;
+        }
+    }
+
+    private void stop() {
+        stopped = true;
+        queue.clear(); // objects not processed yet are not needed anymore
+    }
+
+    /**
+     * Waits for the fetcher to finish. If it does not finish in time, it is interrupted, and we do not wait any longer:
+     * the thread returns to the pool when the connector gives up.
+     */
+    private void waitForFetcher(Future<?> fetcher) {
+        boolean interrupted = false;
+        try {
+            fetcher.get(stopTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+            stopAndInterrupt(fetcher);
+        } catch (TimeoutException e) {
+            LOGGER.warn("Prefetching thread for {} did not finish in {} ms, interrupting it", description, stopTimeout);
+            stopAndInterrupt(fetcher);
+        } catch (ExecutionException | CancellationException e) {
+            // fetch() catches everything, so this should not occur
+            LOGGER.warn("Unexpected outcome of prefetching thread for {}: {}", description, e.getMessage(), e);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stopAndInterrupt(Future<?> fetcher) {
+        stop();
+        fetcher.cancel(true);
+    }
+
+    /**
+     * Connector wait time is the time the processing waited for the connector; backpressure time is the time
+     * the connector waited for the processing. In an ideal pipeline, both are low.
+     */
+    void recordStatistics(OperationResult result) {
+        long connectorWaitMillis = TimeUnit.NANOSECONDS.toMillis(connectorWaitTime);
+        long processingMillis = TimeUnit.NANOSECONDS.toMillis(processingTime);
+        long backpressureMillis = TimeUnit.NANOSECONDS.toMillis(backpressureTime);
+        result.addReturn("prefetchObjectsProcessed", objectsProcessed);
+        result.addReturn("prefetchConnectorWaitTime", connectorWaitMillis);
+        result.addReturn("prefetchProcessingTime", processingMillis);
+        result.addReturn("prefetchBackpressureTime", backpressureMillis);
+        LOGGER.debug("Prefetching search of {} finished: {} objects processed, waited for connector {} ms, processing {} ms, "
+                        + "connector waited for processing {} ms", description, objectsProcessed, connectorWaitMillis,
+                processingMillis, backpressureMillis);
+    }
+}
@@ -14,6 +14,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.provisioning.ucf.api.UcfExecutionContext;
@@ -23,6 +27,8 @@ import com.evolveum.midpoint.provisioning.ucf.api.UcfSyncToken;
 
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
 
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
@@ -334,6 +340,113 @@ public class TestUcfDummy extends AbstractUcfDummyTest {
         assertEquals("Unexpected number of search results", 1, searchResults.size());
     }
 
+    /**
+     * Search with prefetching enabled: the objects must be processed in the calling thread.
+     */
+    @Test
+    public void test052SearchWithPrefetch() throws Exception {
+        // GIVEN
+        OperationResult result = createOperationResult();
+        UcfExecutionContext ctx = createExecutionContext();
+
+        //noinspection unchecked
+        PrismContainerValue<ConnectorConfigurationType> configContainer =
+                resourceType.getConnectorConfiguration().asPrismContainerValue();
+        PrismContainerValue<ConnectorConfigurationType> prefetchingConfigContainer = configContainer.clone();
+        PrismProperty<Integer> prefetchDepth = prismContext.itemFactory().createProperty(
+                ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_SEARCH_PREFETCH_DEPTH_ELEMENT);
+        prefetchDepth.setRealValue(1);
+        prefetchingConfigContainer.add(prefetchDepth);
+        cc.configure(prefetchingConfigContainer, ResourceTypeUtil.getSchemaGenerationConstraints(resourceType), result);
+
+        ResourceObjectClassDefinition accountDefinition =
+                resourceSchema.findObjectClassDefinitionRequired(ACCOUNT_OBJECT_CLASS_NAME);
+        List<PrismObject<ShadowType>> searchResults = new ArrayList<>();
+        Thread testThread = Thread.currentThread();
+
+        ObjectHandler handler = (ucfObject, lResult) -> {
+            displayDumpable("Search: found", ucfObject);
+            assertSame("Object processed in a wrong thread", testThread, Thread.currentThread());
+            checkUcfShadow(ucfObject.getResourceObject(), accountDefinition);
+            searchResults.add(ucfObject.getResourceObject());
+            return true;
+        };
+
+        try {
+            // WHEN
+            cc.search(accountDefinition, null, handler, null, null, null, null, ctx, result);
+
+            // THEN
+            assertEquals("Unexpected number of search results", 1, searchResults.size());
+            result.computeStatus();
+            TestUtil.assertSuccess(result);
+        } finally {
+            cc.configure(configContainer, ResourceTypeUtil.getSchemaGenerationConstraints(resourceType), result);
+        }
+    }
+
+    /**
+     * When the processing stops, a connector blocked in the search (e.g. waiting for the next page)
+     * must not block the caller forever: the fetcher thread is interrupted after the timeout.
+     */
+    @Test
+    public void test054PrefetchInterruptsBlockedConnector() throws Exception {
+        // GIVEN
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SearchPrefetcher prefetcher = new SearchPrefetcher(1, "blocked connector", executor, 500);
+        ConnectorObject connectorObject = new ConnectorObjectBuilder().setUid("1").setName("one").build();
+        CountDownLatch fetcherInterrupted = new CountDownLatch(1);
+
+        try {
+            // WHEN
+            long start = System.currentTimeMillis();
+            prefetcher.execute(
+                    handler -> {
+                        handler.handle(connectorObject);
+                        try {
+                            Thread.sleep(60_000);
+                        } catch (InterruptedException e) {
+                            fetcherInterrupted.countDown();
+                        }
+                        return null;
+                    },
+                    object -> false);
+
+            // THEN
+            assertTrue("Waited too long for the fetcher", System.currentTimeMillis() - start < 30_000);
+            assertTrue("Fetcher was not interrupted", fetcherInterrupted.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * If there is no free prefetching thread, the search is executed in the calling thread.
+     */
+    @Test
+    public void test056PrefetchWithoutFreeThread() throws Exception {
+        // GIVEN
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        SearchPrefetcher prefetcher = new SearchPrefetcher(1, "no free thread", executor);
+        ConnectorObject connectorObject = new ConnectorObjectBuilder().setUid("1").setName("one").build();
+        List<Thread> searchThreads = new ArrayList<>();
+        List<ConnectorObject> processed = new ArrayList<>();
+
+        // WHEN
+        prefetcher.execute(
+                handler -> {
+                    searchThreads.add(Thread.currentThread());
+                    handler.handle(connectorObject);
+                    return null;
+                },
+                processed::add);
+
+        // THEN
+        assertEquals("Search executed in a wrong thread", List.of(Thread.currentThread()), searchThreads);
+        assertEquals("Wrong objects processed", List.of(connectorObject), processed);
+    }
+
     private void checkUcfShadow(PrismObject<ShadowType> shadow, ResourceObjectClassDefinition objectClassDefinition) {
         assertNotNull("No objectClass in shadow " + shadow, shadow.asObjectable().getObjectClass());
         assertEquals("Wrong objectClass in shadow " + shadow, objectClassDefinition.getTypeName(), shadow.asObjectable().getObjectClass());
@@ -24,4 +24,12 @@ public interface Cache {
     Collection<SingleCacheStateInformationType> getStateInformation();
 
     void dumpContent();
+
+    /**
+     * Returns true if this cache relies on invalidation events for objects of given type coming from other cluster nodes,
+     * so the repository cache has to distribute them cluster-wide.
+     */
+    default boolean hasClusterwideInvalidationFor(Class<?> type) {
+        return false;
+    }
 }
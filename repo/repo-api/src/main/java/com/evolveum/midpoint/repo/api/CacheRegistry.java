@@ -21,4 +21,9 @@ public interface CacheRegistry {
     CachesStateInformationType getStateInformation();
 
     void dumpContent();
+
+    /**
+     * Returns true if any of the registered caches needs cluster-wide invalidation for objects of given type.
+     */
+    boolean hasClusterwideInvalidationFor(Class<?> type);
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.util.annotation.Experimental;
+
+/**
+ * Result of a single item (object) of the bulk repository operation, see for instance
+ * {@link RepositoryService#addObjects} and {@link RepositoryService#modifyObjects}.
+ * Items of the bulk operation succeed or fail independently, so each item carries either
+ * the value returned by the respective single-object operation or the exception thrown by it.
+ *
+ * EXPERIMENTAL.
+ *
+ * @param <V> type of the value returned for successful item, e.g. OID for add
+ */
+@Experimental
+public class RepoBulkItemResult<V> {
+
+    private final String oid;
+    private final V value;
+    private final Throwable exception;
+
+    private RepoBulkItemResult(String oid, V value, Throwable exception) {
+        this.oid = oid;
+        this.value = value;
+        this.exception = exception;
+    }
+
+    public static <V> RepoBulkItemResult<V> success(@Nullable String oid, V value) {
+        return new RepoBulkItemResult<>(oid, value, null);
+    }
+
+    public static <V> RepoBulkItemResult<V> failure(@Nullable String oid, @NotNull Throwable exception) {
+        return new RepoBulkItemResult<>(oid, null, exception);
+    }
+
+    /**
+     * OID of the object, can be null for failed add of an object without provided OID.
+     */
+    public @Nullable String getOid() {
+        return oid;
+    }
+
+    /**
+     * Value returned by the operation for the item, null for failed items.
+     */
+    public @Nullable V getValue() {
+        return value;
+    }
+
+    /**
+     * Exception that caused the failure of the item, null for successful items.
+     */
+    public @Nullable Throwable getException() {
+        return exception;
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    @Override
+    public String toString() {
+        return "RepoBulkItemResult{" +
+                "oid=" + oid +
+                (exception != null ? ", exception=" + exception : ", value=" + value) +
+                '}';
+    }
+}
@@ -6,7 +6,9 @@
  */
 package com.evolveum.midpoint.repo.api;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -14,6 +16,7 @@ import org.jetbrains.annotations.Nullable;
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.perf.PerformanceMonitor;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
@@ -112,10 +115,12 @@ public interface RepositoryService {
 
     String OP_ADD_OBJECT = "addObject";
     String OP_ADD_OBJECT_OVERWRITE = "addObjectOverwrite"; // addObject with overwrite option
+    String OP_ADD_OBJECTS = "addObjects";
     String OP_DELETE_OBJECT = "deleteObject";
     String OP_COUNT_OBJECTS = "countObjects";
     String OP_MODIFY_OBJECT = "modifyObject";
     String OP_MODIFY_OBJECT_DYNAMICALLY = "modifyObjectDynamically";
+    String OP_MODIFY_OBJECTS = "modifyObjects";
     String OP_GET_VERSION = "getVersion";
     String OP_IS_DESCENDANT = "isDescendant";
     String OP_IS_ANCESTOR = "isAncestor";
@@ -231,6 +236,41 @@ public interface RepositoryService {
             @NotNull OperationResult parentResult)
             throws ObjectAlreadyExistsException, SchemaException;
 
+    /**
+     * Adds multiple objects, each of them as if added by {@link #addObject}.
+     *
+     * Each object succeeds or fails independently and the result for each object is returned
+     * in the list in the same order as the provided objects.
+     * No exception is thrown for a failed object, the exception is available in its item result.
+     * OID of an object without provided OID is set to the object by the implementation.
+     *
+     * Default implementation simply calls {@link #addObject} for each object.
+     * Implementations are encouraged to do better, e.g. to use fewer transactions and to batch
+     * the inserts; this is the main reason for this method, mass imports in particular.
+     *
+     * @param objects objects to create
+     * @param options options used for all objects
+     * @param parentResult parent OperationResult (in/out)
+     * @return list of item results, each containing the assigned OID or the exception
+     */
+    @Experimental
+    @NotNull
+    default List<RepoBulkItemResult<String>> addObjects(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            @Nullable RepoAddOptions options,
+            @NotNull OperationResult parentResult) {
+        List<RepoBulkItemResult<String>> results = new ArrayList<>(objects.size());
+        for (PrismObject<? extends ObjectType> object : objects) {
+            try {
+                String oid = addObject(object, options, parentResult);
+                results.add(RepoBulkItemResult.success(oid, oid));
+            } catch (ObjectAlreadyExistsException | SchemaException | RuntimeException e) {
+                results.add(RepoBulkItemResult.failure(object.getOid(), e));
+            }
+        }
+        return results;
+    }
+
     /**
      * <p>Modifies object using relative change description.</p>
      * Must fail if user with
@@ -317,6 +357,45 @@ public interface RepositoryService {
         @NotNull Collection<? extends ItemDelta<?, ?>> get(T object) throws SchemaException;
     }
 
+    /**
+     * Modifies multiple objects, each of them as if modified by {@link #modifyObject}.
+     * Provided deltas must be MODIFY deltas with OIDs.
+     *
+     * Each object succeeds or fails independently and the result for each delta is returned
+     * in the list in the same order as the provided deltas.
+     * No exception is thrown for a failed modification, the exception is available in its item result.
+     *
+     * Default implementation simply calls {@link #modifyObject} for each delta.
+     *
+     * @param deltas modify deltas, one for each object
+     * @param options options used for all modifications
+     * @param parentResult parent OperationResult (in/out)
+     * @return list of item results, each containing the modify result or the exception
+     */
+    @Experimental
+    @NotNull
+    default List<RepoBulkItemResult<ModifyObjectResult<?>>> modifyObjects(
+            @NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            @Nullable RepoModifyOptions options,
+            @NotNull OperationResult parentResult) {
+        for (ObjectDelta<? extends ObjectType> delta : deltas) {
+            if (!delta.isModify()) {
+                throw new IllegalArgumentException("Only modify deltas are supported, got: " + delta);
+            }
+        }
+
+        List<RepoBulkItemResult<ModifyObjectResult<?>>> results = new ArrayList<>(deltas.size());
+        for (ObjectDelta<? extends ObjectType> delta : deltas) {
+            try {
+                results.add(RepoBulkItemResult.success(delta.getOid(), modifyObject(
+                        delta.getObjectTypeClass(), delta.getOid(), delta.getModifications(), options, parentResult)));
+            } catch (ObjectNotFoundException | SchemaException | ObjectAlreadyExistsException | RuntimeException e) {
+                results.add(RepoBulkItemResult.failure(delta.getOid(), e));
+            }
+        }
+        return results;
+    }
+
     /**
      * <p>Deletes object with specified OID.</p>
      * <p>
@@ -32,4 +32,9 @@ public interface SqlPerformanceMonitorsCollection {
      * Starts collection of thread local performance information in all monitors.
      */
     void startThreadLocalPerformanceInformationCollection();
+
+    /**
+     * Stops collection of thread local performance information in all monitors, releasing the thread-local data.
+     */
+    void stopThreadLocalPerformanceInformationCollection();
 }
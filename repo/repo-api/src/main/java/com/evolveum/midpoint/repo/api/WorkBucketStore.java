@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.util.annotation.Experimental;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Store of work buckets of distributed activities, kept outside of the coordinator task, one row per bucket.
+ *
+ * Workers claim and complete buckets by changing single rows, so they do not conflict with each other,
+ * as they do when buckets are kept in the activity state of the coordinator task.
+ * Buckets are identified by coordinator task OID, activity path and sequential number.
+ *
+ * Buckets returned have state and worker reference set; their content is as it was added.
+ *
+ * Provided only by repository implementations that support it (currently the native PostgreSQL repository).
+ *
+ * EXPERIMENTAL.
+ */
+@Experimental
+public interface WorkBucketStore {
+
+    /**
+     * Returns a bucket delegated to given worker (the one with the lowest sequential number), if there is any.
+     */
+    @Nullable WorkBucketType findDelegatedBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @NotNull OperationResult result) throws SchemaException;
+
+    /**
+     * Delegates a ready bucket (the one with the lowest sequential number) to given worker and returns it.
+     * Buckets that are being claimed by other workers at the same time are skipped, so the workers do not wait
+     * for each other. Returns null if there is no ready bucket available.
+     */
+    @Nullable WorkBucketType claimReadyBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @NotNull OperationResult result) throws SchemaException;
+
+    /**
+     * Returns the bucket with the highest sequential number (in any state), or null if there are no buckets yet.
+     */
+    @Nullable WorkBucketType getLastBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result) throws SchemaException;
+
+    /**
+     * Adds new buckets (with the state and worker reference they have) atomically.
+     *
+     * @return false if any of the sequential numbers is already used (i.e. someone else has created the buckets
+     * in the meanwhile); nothing is added in that case.
+     */
+    boolean addBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull List<WorkBucketType> buckets, @NotNull OperationResult result) throws SchemaException;
+
+    /**
+     * Marks a bucket as complete.
+     *
+     * @param workerOid If not null, the bucket must be delegated to this worker.
+     * @throws ObjectNotFoundException If there is no such bucket (delegated to the worker).
+     */
+    void completeBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath, int sequentialNumber,
+            @Nullable String workerOid, @NotNull OperationResult result) throws ObjectNotFoundException;
+
+    /**
+     * Returns buckets delegated to given worker back to the ready state.
+     *
+     * @param sequentialNumber If not null, only this bucket is released.
+     * @return Number of buckets released.
+     */
+    int releaseBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath, @NotNull String workerOid,
+            @Nullable Integer sequentialNumber, @NotNull OperationResult result);
+
+    /**
+     * Returns buckets delegated to workers other than the live ones back to the ready state.
+     *
+     * @return Number of buckets reclaimed.
+     */
+    int reclaimBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull Collection<String> liveWorkerOids, @NotNull OperationResult result);
+
+    /**
+     * Returns the number of complete buckets.
+     */
+    int countCompleteBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result);
+
+    /**
+     * Returns true if there is any bucket delegated to a worker.
+     */
+    boolean hasDelegatedBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result);
+
+    /**
+     * Returns true if there is any bucket that is not complete yet, i.e. one that is ready or delegated to a worker.
+     */
+    boolean hasUnfinishedBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result);
+
+    /**
+     * Deletes all buckets of given activity (and its sub-activities), e.g. when the activity state is purged.
+     */
+    void deleteBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result);
+}
@@ -23,6 +23,7 @@ import com.evolveum.midpoint.CacheInvalidationContext;
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.perf.PerformanceMonitor;
@@ -90,6 +91,16 @@ public class RepositoryCache implements RepositoryService, Cache {
         LocalRepoCacheCollection.exit();
     }
 
+    /**
+     * Invalidates entries related to given object in thread-local caches of the current thread.
+     *
+     * Needed when the object was modified by another thread (e.g. a worker thread operating on behalf of this one),
+     * because such modification invalidates only the local caches of that thread and the global caches.
+     */
+    public <T extends ObjectType> void invalidateLocalCacheEntries(Class<T> type, String oid) {
+        invalidator.invalidateLocalCacheEntries(type, oid, null);
+    }
+
     //region --- GET, SEARCH and COUNT operations ------------------------------------------------------------------
 
     @NotNull
@@ -156,6 +167,14 @@ public class RepositoryCache implements RepositoryService, Cache {
         return modificationOpHandler.addObject(object, options, parentResult);
     }
 
+    @NotNull
+    @Override
+    public List<RepoBulkItemResult<String>> addObjects(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            RepoAddOptions options, @NotNull OperationResult parentResult) {
+        return modificationOpHandler.addObjects(objects, options, parentResult);
+    }
+
     @NotNull
     public <T extends ObjectType> ModifyObjectResult<T> modifyObject(
             @NotNull Class<T> type, @NotNull String oid, @NotNull Collection<? extends ItemDelta<?, ?>> modifications,
@@ -203,6 +222,14 @@ public class RepositoryCache implements RepositoryService, Cache {
                 type, oid, getOptions, modificationsSupplier, modifyOptions, parentResult);
     }
 
+    @NotNull
+    @Override
+    public List<RepoBulkItemResult<ModifyObjectResult<?>>> modifyObjects(
+            @NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            RepoModifyOptions options, @NotNull OperationResult parentResult) {
+        return modificationOpHandler.modifyObjects(deltas, options, parentResult);
+    }
+
     @NotNull
     @Override
     public <T extends ObjectType> DeleteObjectResult deleteObject(Class<T> type, String oid, OperationResult parentResult)
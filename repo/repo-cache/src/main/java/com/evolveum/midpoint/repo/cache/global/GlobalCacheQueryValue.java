@@ -9,6 +9,7 @@ package com.evolveum.midpoint.repo.cache.global;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.evolveum.midpoint.repo.cache.local.QueryDependencyIndex.IndexedQuery;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
@@ -16,14 +17,22 @@ public class GlobalCacheQueryValue<T extends ObjectType> extends AbstractGlobalC
 
     @NotNull private final SearchResultList<T> result;
 
-    GlobalCacheQueryValue(@NotNull SearchResultList<T> result) {
+    /** Registration in the dependency index, needed to unregister exactly this value when it's evicted. */
+    @NotNull private final IndexedQuery indexedQuery;
+
+    GlobalCacheQueryValue(@NotNull SearchResultList<T> result, @NotNull IndexedQuery indexedQuery) {
         this.result = result;
+        this.indexedQuery = indexedQuery;
     }
 
     public @NotNull SearchResultList<T> getResult() {
         return result;
     }
 
+    @NotNull IndexedQuery getIndexedQuery() {
+        return indexedQuery;
+    }
+
     @Override
     public String toString() {
         return "GlobalCacheQueryValue{" +
@@ -8,6 +8,9 @@
 package com.evolveum.midpoint.repo.cache.global;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.cache.local.QueryDependencyIndex;
+import com.evolveum.midpoint.repo.cache.local.QueryDependencyIndex.IndexedQuery;
 import com.evolveum.midpoint.repo.cache.local.QueryKey;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.cache.CacheType;
@@ -18,15 +21,21 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInfo
 
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.cache2k.Cache2kBuilder;
+import org.cache2k.CacheEntry;
+import org.cache2k.event.CacheEntryEvictedListener;
+import org.cache2k.event.CacheEntryExpiredListener;
 import org.cache2k.expiry.ExpiryPolicy;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PreDestroy;
+import java.util.AbstractMap;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
@@ -45,6 +54,13 @@ public class GlobalQueryCache extends AbstractGlobalCache {
 
     private org.cache2k.Cache<QueryKey, GlobalCacheQueryValue> cache;
 
+    /**
+     * Index of cached queries for invalidation.
+     * Entries are added to the index before they are put to the cache and removed after they are
+     * removed from the cache (either explicitly or by the eviction/expiry listeners).
+     */
+    private final QueryDependencyIndex dependencyIndex = new QueryDependencyIndex();
+
     public void initialize() {
         if (cache != null) {
             LOGGER.warn("Global query cache was already initialized -- ignoring this request.");
@@ -59,6 +75,10 @@ public class GlobalQueryCache extends AbstractGlobalCache {
                     .name(CACHE_NAME)
                     .entryCapacity(capacity)
                     .expiryPolicy(getExpirePolicy())
+                    .addListener((CacheEntryEvictedListener<QueryKey, GlobalCacheQueryValue>)
+                            (c, entry) -> unindex(entry))
+                    .addListener((CacheEntryExpiredListener<QueryKey, GlobalCacheQueryValue>)
+                            (c, entry) -> unindex(entry))
                     .build();
             LOGGER.info("Created global repository query cache with a capacity of {} queries", capacity);
         }
@@ -68,12 +88,20 @@ public class GlobalQueryCache extends AbstractGlobalCache {
         return (key, value, loadTime, oldEntry) -> getExpiryTime(key.getType());
     }
 
+    private void unindex(CacheEntry<QueryKey, GlobalCacheQueryValue> entry) {
+        GlobalCacheQueryValue value = entry.getValue();
+        if (value != null) {
+            dependencyIndex.remove(entry.getKey(), value.getIndexedQuery());
+        }
+    }
+
     @PreDestroy
     public void destroy() {
         if (cache != null) {
             cache.close();
             cache = null;
         }
+        dependencyIndex.clear();
     }
 
     public boolean isAvailable() {
@@ -92,7 +120,10 @@ public class GlobalQueryCache extends AbstractGlobalCache {
 
     public void remove(QueryKey cacheKey) {
         if (cache != null) {
-            cache.remove(cacheKey);
+            GlobalCacheQueryValue value = cache.peekAndRemove(cacheKey);
+            if (value != null) {
+                dependencyIndex.remove(cacheKey, value.getIndexedQuery());
+            }
         }
     }
 
@@ -102,14 +133,40 @@ public class GlobalQueryCache extends AbstractGlobalCache {
             if (cacheObject.size() > QUERY_RESULT_SIZE_LIMIT) {
                 throw new IllegalStateException("Trying to cache result list greater than " + QUERY_RESULT_SIZE_LIMIT + ": " + cacheObject.size());
             }
+            IndexedQuery indexedQuery = dependencyIndex.add(key, cacheObject);
             //noinspection unchecked
-            cache.put(key, new GlobalCacheQueryValue(cacheObject));
+            GlobalCacheQueryValue value = new GlobalCacheQueryValue(cacheObject, indexedQuery);
+            cache.put(key, value);
+            if (!dependencyIndex.isIndexed(key, indexedQuery)) {
+                // Index was cleared or the key was re-registered in the meantime, so we can't be sure
+                // this entry would be invalidated. Let's rather not cache it.
+                cache.asMap().remove(key, value);
+            }
         }
     }
 
-    public void deleteMatching(Predicate<Map.Entry<QueryKey, GlobalCacheQueryValue>> predicate) {
+    /**
+     * Returns keys of cached queries that may be affected by the change, see {@link QueryDependencyIndex#getCandidates}.
+     */
+    public @NotNull Set<QueryKey<?>> getInvalidationCandidates(@NotNull Class<? extends ObjectType> type, String oid,
+            @Nullable Collection<? extends ItemPath> changedItemPaths) {
+        return dependencyIndex.getCandidates(type, oid, changedItemPaths);
+    }
+
+    /**
+     * Removes the entries for the candidate keys that match the predicate.
+     * Candidates that are no longer in the cache are ignored.
+     */
+    public void deleteMatching(Collection<QueryKey<?>> candidates,
+            Predicate<Map.Entry<QueryKey, GlobalCacheQueryValue>> predicate) {
         if (cache != null) {
-            cache.asMap().entrySet().removeIf(predicate);
+            for (QueryKey<?> key : candidates) {
+                GlobalCacheQueryValue value = cache.peek(key);
+                if (value != null && predicate.test(new AbstractMap.SimpleImmutableEntry<>(key, value))
+                        && cache.asMap().remove(key, value)) {
+                    dependencyIndex.remove(key, value.getIndexedQuery());
+                }
+            }
         }
     }
 
@@ -125,6 +182,8 @@ public class GlobalQueryCache extends AbstractGlobalCache {
     @Override
     public void clear() {
         if (cache != null) {
+            // see put() for the concurrent put handling
+            dependencyIndex.clear();
             cache.clear();
         }
     }
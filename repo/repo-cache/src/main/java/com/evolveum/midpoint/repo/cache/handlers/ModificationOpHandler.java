@@ -9,6 +9,7 @@ package com.evolveum.midpoint.repo.cache.handlers;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.cache.other.MonitoringUtil;
 import com.evolveum.midpoint.schema.DeltaConvertor;
@@ -24,6 +25,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import static com.evolveum.midpoint.repo.cache.RepositoryCache.CLASS_NAME_WITH_DOT;
@@ -38,7 +40,9 @@ import static com.evolveum.midpoint.schema.util.TraceUtil.isAtLeastNormal;
 public class ModificationOpHandler extends BaseOpHandler {
 
     private static final String ADD_OBJECT = CLASS_NAME_WITH_DOT + "addObject";
+    private static final String ADD_OBJECTS = CLASS_NAME_WITH_DOT + "addObjects";
     private static final String MODIFY_OBJECT = CLASS_NAME_WITH_DOT + "modifyObject";
+    private static final String MODIFY_OBJECTS = CLASS_NAME_WITH_DOT + "modifyObjects";
     private static final String DELETE_OBJECT = CLASS_NAME_WITH_DOT + "deleteObject";
     private static final String ADVANCE_SEQUENCE = CLASS_NAME_WITH_DOT + "advanceSequence";
     private static final String RETURN_UNUSED_VALUES_TO_SEQUENCE = CLASS_NAME_WITH_DOT + "returnUnusedValuesToSequence";
@@ -74,17 +78,7 @@ public class ModificationOpHandler extends BaseOpHandler {
             } finally {
                 MonitoringUtil.repoOpEnd(startTime);
             }
-            // DON't cache the object here. The object may not have proper "JAXB" form, e.g. some pieces may be
-            // DOM element instead of JAXB elements. Not to cache it is safer and the performance loss
-            // is acceptable.
-            if (options != null && options.isOverwrite()) {
-                invalidator.invalidateCacheEntries(object.getCompileTimeClass(), oid,
-                        new ModifyObjectResult<>(object.getUserData(RepositoryService.KEY_ORIGINAL_OBJECT), object,
-                                Collections.emptyList()), result);
-            } else {
-                // just for sure (the object should not be there but ...)
-                invalidator.invalidateCacheEntries(object.getCompileTimeClass(), oid, new AddObjectResult<>(object), result);
-            }
+            invalidateAddedObject(object, oid, options, result);
             if (trace != null) {
                 trace.setOid(oid);
                 if (isAtLeastNormal(level)) {
@@ -101,6 +95,55 @@ public class ModificationOpHandler extends BaseOpHandler {
         }
     }
 
+    @NotNull
+    public List<RepoBulkItemResult<String>> addObjects(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            RepoAddOptions options, OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(ADD_OBJECTS)
+                .addParam("count", objects.size())
+                .addParam("overwrite", RepoAddOptions.isOverwrite(options))
+                .addArbitraryObjectAsParam("options", options)
+                .build();
+
+        try {
+            List<RepoBulkItemResult<String>> itemResults;
+            Long startTime = MonitoringUtil.repoOpStart();
+            try {
+                itemResults = repositoryService.addObjects(objects, options, result);
+            } finally {
+                MonitoringUtil.repoOpEnd(startTime);
+            }
+            for (int i = 0; i < itemResults.size(); i++) {
+                RepoBulkItemResult<String> itemResult = itemResults.get(i);
+                if (itemResult.isSuccess()) {
+                    PrismObject<? extends ObjectType> object = objects.get(i);
+                    invalidateAddedObject(object, itemResult.getValue(), options, result);
+                }
+            }
+            return itemResults;
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    private <T extends ObjectType> void invalidateAddedObject(
+            PrismObject<T> object, String oid, RepoAddOptions options, OperationResult result) {
+        // DON't cache the object here. The object may not have proper "JAXB" form, e.g. some pieces may be
+        // DOM element instead of JAXB elements. Not to cache it is safer and the performance loss
+        // is acceptable.
+        if (options != null && options.isOverwrite()) {
+            invalidator.invalidateCacheEntries(object.getCompileTimeClass(), oid,
+                    new ModifyObjectResult<>(object.getUserData(RepositoryService.KEY_ORIGINAL_OBJECT), object,
+                            Collections.emptyList()), result);
+        } else {
+            // just for sure (the object should not be there but ...)
+            invalidator.invalidateCacheEntries(object.getCompileTimeClass(), oid, new AddObjectResult<>(object), result);
+        }
+    }
+
     @NotNull
     public <T extends ObjectType> ModifyObjectResult<T> modifyObject(@NotNull Class<T> type, @NotNull String oid,
             @NotNull Collection<? extends ItemDelta<?, ?>> modifications,
@@ -148,6 +191,39 @@ public class ModificationOpHandler extends BaseOpHandler {
         }
     }
 
+    @NotNull
+    public List<RepoBulkItemResult<ModifyObjectResult<?>>> modifyObjects(
+            @NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            RepoModifyOptions options, OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(MODIFY_OBJECTS)
+                .addParam("count", deltas.size())
+                .addArbitraryObjectAsParam("options", options)
+                .build();
+
+        try {
+            randomDelay();
+            List<RepoBulkItemResult<ModifyObjectResult<?>>> itemResults = null;
+            Long startTime = MonitoringUtil.repoOpStart();
+            try {
+                itemResults = repositoryService.modifyObjects(deltas, options, result);
+                return itemResults;
+            } finally {
+                MonitoringUtil.repoOpEnd(startTime);
+                // the same as for modifyObject, failed modifications are invalidated as well
+                for (int i = 0; i < deltas.size(); i++) {
+                    ObjectDelta<? extends ObjectType> delta = deltas.get(i);
+                    invalidator.invalidateCacheEntries(delta.getObjectTypeClass(), delta.getOid(),
+                            itemResults != null ? itemResults.get(i).getValue() : null, result);
+                }
+            }
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
     @NotNull
     public <T extends ObjectType> DeleteObjectResult deleteObject(Class<T> type, String oid, OperationResult parentResult)
             throws ObjectNotFoundException {
@@ -7,17 +7,24 @@
 
 package com.evolveum.midpoint.repo.cache.invalidation;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.CacheInvalidationContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.DeleteObjectResult;
 import com.evolveum.midpoint.repo.api.ModifyObjectResult;
 import com.evolveum.midpoint.repo.cache.handlers.AddObjectResult;
+import com.evolveum.midpoint.repo.cache.local.QueryDependencyIndex;
 import com.evolveum.midpoint.repo.cache.local.QueryKey;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -69,6 +76,11 @@ public abstract class ChangeDescription {
             return filter.match(addInfo.getObject().getValue(), matchingRuleRegistry);
         }
 
+        @Override
+        @Nullable Collection<ItemPath> getChangedItemPaths() {
+            return null; // new object can match any filter
+        }
+
         @Override
         public String toString() {
             return "Add{" + addInfo + '}';
@@ -98,6 +110,18 @@ public abstract class ChangeDescription {
             }
         }
 
+        @Override
+        @Nullable Collection<ItemPath> getChangedItemPaths() {
+            Collection<? extends ItemDelta<?, ?>> modifications = modifyInfo.getModifications();
+            if (modifyInfo.getObjectAfter() == null || modifications == null) {
+                return null;
+            } else {
+                return modifications.stream()
+                        .map(ItemDelta::getPath)
+                        .collect(Collectors.toList());
+            }
+        }
+
         @Override
         public String toString() {
             return "Modify{" +
@@ -122,6 +146,11 @@ public abstract class ChangeDescription {
             return false;
         }
 
+        @Override
+        @NotNull Collection<ItemPath> getChangedItemPaths() {
+            return List.of();
+        }
+
         @Override
         public String toString() {
             return "Delete{" +
@@ -145,6 +174,11 @@ public abstract class ChangeDescription {
             return safeInvalidation;
         }
 
+        @Override
+        @Nullable Collection<ItemPath> getChangedItemPaths() {
+            return safeInvalidation ? null : List.of();
+        }
+
         @Override
         public String toString() {
             return "Any{" +
@@ -238,6 +272,13 @@ public abstract class ChangeDescription {
         }
     }
 
+    /**
+     * Returns paths of the items that could have changed in the way that the object newly matches some filter.
+     * Null means any item, empty collection means that the object can't newly match any filter
+     * (see {@link #mayMatchAfterChange}). Used to select candidate queries from {@link QueryDependencyIndex}.
+     */
+    @Nullable abstract Collection<ItemPath> getChangedItemPaths();
+
     public abstract boolean mayMatchAfterChange(@NotNull ObjectFilter filter, SearchResultList list, MatchingRuleRegistry matchingRuleRegistry)
             throws SchemaException;
 
@@ -29,6 +29,7 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FunctionLibraryType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 
 import org.jetbrains.annotations.NotNull;
@@ -50,9 +51,17 @@ public class Invalidator {
 
     public static final Trace LOGGER = TraceManager.getTrace(Invalidator.class);
 
+    /**
+     * Resources are here because the provisioning resource cache relies on invalidation events
+     * (instead of checking the version in the repository on each use).
+     *
+     * Subtypes of these types are invalidated cluster-wide as well. Other caches that rely on remote invalidation events
+     * declare that by {@link com.evolveum.midpoint.repo.api.Cache#hasClusterwideInvalidationFor(Class)}.
+     */
     private static final List<Class<?>> TYPES_ALWAYS_INVALIDATED_CLUSTERWIDE = Arrays.asList(
             SystemConfigurationType.class,
-            FunctionLibraryType.class);
+            FunctionLibraryType.class,
+            ResourceType.class);
 
     @Autowired private GlobalQueryCache globalQueryCache;
     @Autowired private GlobalObjectCache globalObjectCache;
@@ -97,22 +106,12 @@ public class Invalidator {
                 .addParam("additionalInfo", additionalInfo != null ? additionalInfo.getClass().getSimpleName() : "none")
                 .build();
         try {
-            LocalObjectCache localObjectCache = getLocalObjectCache();
-            if (localObjectCache != null) {
-                localObjectCache.remove(oid);
-            }
-            LocalVersionCache localVersionCache = getLocalVersionCache();
-            if (localVersionCache != null) {
-                localVersionCache.remove(oid);
-            }
-            LocalQueryCache localQueryCache = getLocalQueryCache();
-            if (localQueryCache != null) {
-                clearQueryResultsLocally(localQueryCache, type, oid, additionalInfo, matchingRuleRegistry);
-            }
-            boolean clusterwide = TYPES_ALWAYS_INVALIDATED_CLUSTERWIDE.contains(type) ||
+            invalidateLocalCacheEntries(type, oid, additionalInfo);
+            boolean clusterwide = isAlwaysInvalidatedClusterwide(type) ||
                     globalObjectCache.hasClusterwideInvalidationFor(type) ||
                     globalVersionCache.hasClusterwideInvalidationFor(type) ||
-                    globalQueryCache.hasClusterwideInvalidationFor(type);
+                    globalQueryCache.hasClusterwideInvalidationFor(type) ||
+                    cacheRegistry.hasClusterwideInvalidationFor(type);
             cacheDispatcher.dispatchInvalidation(type, oid, clusterwide,
                     new CacheInvalidationContext(false, new RepositoryCacheInvalidationDetails(additionalInfo)));
         } catch (Throwable t) {
@@ -123,43 +122,60 @@ public class Invalidator {
         }
     }
 
+    private static boolean isAlwaysInvalidatedClusterwide(Class<?> type) {
+        return type != null && TYPES_ALWAYS_INVALIDATED_CLUSTERWIDE.stream().anyMatch(t -> t.isAssignableFrom(type));
+    }
+
+    /**
+     * Invalidates entries related to given object in the local caches of the current thread only.
+     */
+    public <T extends ObjectType> void invalidateLocalCacheEntries(Class<T> type, String oid, Object additionalInfo) {
+        LocalObjectCache localObjectCache = getLocalObjectCache();
+        if (localObjectCache != null) {
+            localObjectCache.remove(oid);
+        }
+        LocalVersionCache localVersionCache = getLocalVersionCache();
+        if (localVersionCache != null) {
+            localVersionCache.remove(oid);
+        }
+        LocalQueryCache localQueryCache = getLocalQueryCache();
+        if (localQueryCache != null) {
+            clearQueryResultsLocally(localQueryCache, type, oid, additionalInfo, matchingRuleRegistry);
+        }
+    }
+
     private <T extends ObjectType> void clearQueryResultsLocally(LocalQueryCache cache, Class<T> type, String oid,
             Object additionalInfo, MatchingRuleRegistry matchingRuleRegistry) {
-        // TODO implement more efficiently
-
         ChangeDescription change = ChangeDescription.getFrom(type, oid, additionalInfo, true);
 
         long start = System.currentTimeMillis();
-        int all = 0;
+        // only queries that may depend on the change are checked, see QueryDependencyIndex
+        Set<QueryKey<?>> candidates = cache.getInvalidationCandidates(type, oid, change.getChangedItemPaths());
         int removed = 0;
-        Iterator<Map.Entry<QueryKey, SearchResultList>> iterator = cache.getEntryIterator();
-        while (iterator.hasNext()) {
-            Map.Entry<QueryKey, SearchResultList> entry = iterator.next();
-            QueryKey<?> queryKey = entry.getKey();
-            all++;
-            if (change.mayAffect(queryKey, entry.getValue(), matchingRuleRegistry)) {
+        for (QueryKey<?> queryKey : candidates) {
+            SearchResultList<?> list = cache.get(queryKey);
+            if (list != null && change.mayAffect(queryKey, list, matchingRuleRegistry)) {
                 LOGGER.trace("Removing (from local cache) query for type={}, change={}: {}", type, change, queryKey.getQuery());
-                iterator.remove();
+                cache.remove(queryKey);
                 removed++;
             }
         }
-        LOGGER.trace("Removed (from local cache) {} (of {}) query result entries of type {} in {} ms", removed, all, type, System.currentTimeMillis() - start);
+        LOGGER.trace("Removed (from local cache) {} (of {} candidates) query result entries of type {} in {} ms",
+                removed, candidates.size(), type, System.currentTimeMillis() - start);
     }
 
     private <T extends ObjectType> void clearQueryResultsGlobally(Class<T> type, String oid, CacheInvalidationContext context) {
-        // TODO implement more efficiently
-
         // Safe invalidation means we evict queries without looking at details of the change.
         boolean safeIfUnknown = !context.isFromRemoteNode() || globalQueryCache.shouldDoSafeRemoteInvalidationFor(type);
         ChangeDescription change = ChangeDescription.getFrom(type, oid, context, safeIfUnknown);
 
         long start = System.currentTimeMillis();
-        AtomicInteger all = new AtomicInteger(0);
+        Set<QueryKey<?>> candidates =
+                globalQueryCache.getInvalidationCandidates(type, oid, change.getChangedItemPaths());
         AtomicInteger removed = new AtomicInteger(0);
 
-        globalQueryCache.deleteMatching(entry -> {
+        globalQueryCache.deleteMatching(candidates, entry -> {
             QueryKey queryKey = entry.getKey();
-            all.incrementAndGet();
             if (change.mayAffect(queryKey, entry.getValue().getResult(), matchingRuleRegistry)) {
                 LOGGER.trace("Removing (from global cache) query for type={}, change={}: {}", type, change, queryKey.getQuery());
                 removed.incrementAndGet();
@@ -168,7 +184,8 @@ public class Invalidator {
                 return false;
             }
         });
-        LOGGER.trace("Removed (from global cache) {} (of {}) query result entries of type {} in {} ms", removed, all, type, System.currentTimeMillis() - start);
+        LOGGER.trace("Removed (from global cache) {} (of {} candidates) query result entries of type {} in {} ms",
+                removed, candidates.size(), type, System.currentTimeMillis() - start);
     }
 
     public void registerInvalidationEventsListener(InvalidationEventListener listener) {
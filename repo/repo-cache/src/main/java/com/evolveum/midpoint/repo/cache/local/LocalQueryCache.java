@@ -9,13 +9,16 @@ package com.evolveum.midpoint.repo.cache.local;
 
 import static com.evolveum.midpoint.repo.cache.handlers.SearchOpHandler.QUERY_RESULT_SIZE_LIMIT;
 
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.util.caching.AbstractThreadLocalCache;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -31,6 +34,8 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
 
     private final Map<QueryKey, SearchResultList> data = new ConcurrentHashMap<>();
 
+    private final QueryDependencyIndex dependencyIndex = new QueryDependencyIndex();
+
     public <T extends ObjectType> SearchResultList<PrismObject<T>> get(QueryKey key) {
         //noinspection unchecked
         return data.get(key);
@@ -41,11 +46,14 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
         if (list.size() > QUERY_RESULT_SIZE_LIMIT) {
             throw new IllegalStateException("Trying to cache result list greater than " + QUERY_RESULT_SIZE_LIMIT + ": " + list.size());
         }
+        // index first, so the entry can't be missed by invalidation
+        dependencyIndex.add(key, list);
         data.put(key, list);
     }
 
     public void remove(QueryKey key) {
         data.remove(key);
+        dependencyIndex.remove(key);
     }
 
     @Override
@@ -82,7 +90,11 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
         return rv;
     }
 
-    public Iterator<Map.Entry<QueryKey, SearchResultList>> getEntryIterator() {
-        return data.entrySet().iterator();
+    /**
+     * Returns keys of cached queries that may be affected by the change, see {@link QueryDependencyIndex#getCandidates}.
+     */
+    public Set<QueryKey<?>> getInvalidationCandidates(@NotNull Class<? extends ObjectType> type, String oid,
+            @Nullable Collection<? extends ItemPath> changedItemPaths) {
+        return dependencyIndex.getCandidates(type, oid, changedItemPaths);
     }
 }
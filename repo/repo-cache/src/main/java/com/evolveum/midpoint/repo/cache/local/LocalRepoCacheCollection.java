@@ -17,13 +17,19 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInfo
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.evolveum.midpoint.schema.cache.CacheType.*;
 
 /**
  * Set of three thread-local repo caches (object, version, query).
+ *
+ * The caches are kept in maps keyed by the thread. If a thread terminates without exiting the caches
+ * (which is more likely with many short-lived threads, e.g. virtual threads used for lightweight tasks),
+ * its entries are removed by {@link #purgeTerminatedThreads()} that is invoked periodically on enter.
  */
 @Component
 public class LocalRepoCacheCollection {
@@ -36,6 +42,11 @@ public class LocalRepoCacheCollection {
     private static final ConcurrentHashMap<Thread, LocalVersionCache> LOCAL_VERSION_CACHE_INSTANCE = new ConcurrentHashMap<>();
     private static final ConcurrentHashMap<Thread, LocalQueryCache> LOCAL_QUERY_CACHE_INSTANCE = new ConcurrentHashMap<>();
 
+    /** How often (in number of enter calls) are the entries of terminated threads purged. */
+    private static final int PURGE_INTERVAL = 1000;
+
+    private static final AtomicInteger ENTER_COUNTER = new AtomicInteger();
+
     public static LocalObjectCache getLocalObjectCache() {
         return LOCAL_OBJECT_CACHE_INSTANCE.get(Thread.currentThread());
     }
@@ -64,6 +75,10 @@ public class LocalRepoCacheCollection {
         LocalObjectCache.enter(LOCAL_OBJECT_CACHE_INSTANCE, LocalObjectCache.class, objectCacheConfig, LOGGER);
         LocalVersionCache.enter(LOCAL_VERSION_CACHE_INSTANCE, LocalVersionCache.class, versionCacheConfig, LOGGER);
         LocalQueryCache.enter(LOCAL_QUERY_CACHE_INSTANCE, LocalQueryCache.class, queryCacheConfig, LOGGER);
+
+        if (ENTER_COUNTER.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purgeTerminatedThreads();
+        }
     }
 
     public static void exit() {
@@ -72,6 +87,33 @@ public class LocalRepoCacheCollection {
         LocalQueryCache.exit(LOCAL_QUERY_CACHE_INSTANCE, LOGGER);
     }
 
+    /**
+     * Removes caches of the threads that are no longer alive.
+     *
+     * @return number of removed cache instances
+     */
+    public static int purgeTerminatedThreads() {
+        int purged = purgeTerminatedThreads(LOCAL_OBJECT_CACHE_INSTANCE)
+                + purgeTerminatedThreads(LOCAL_VERSION_CACHE_INSTANCE)
+                + purgeTerminatedThreads(LOCAL_QUERY_CACHE_INSTANCE);
+        if (purged > 0) {
+            LOGGER.debug("Purged {} local repo cache instance(s) of terminated threads", purged);
+        }
+        return purged;
+    }
+
+    private static int purgeTerminatedThreads(ConcurrentHashMap<Thread, ?> cacheInstances) {
+        int purged = 0;
+        Iterator<Thread> iterator = cacheInstances.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().isAlive()) {
+                iterator.remove();
+                purged++;
+            }
+        }
+        return purged;
+    }
+
     public static boolean exists() {
         return LocalObjectCache.exists(LOCAL_OBJECT_CACHE_INSTANCE) ||
                 LocalVersionCache.exists(LOCAL_VERSION_CACHE_INSTANCE) ||
@@ -86,6 +128,7 @@ public class LocalRepoCacheCollection {
     }
 
     public void getStateInformation(List<SingleCacheStateInformationType> rv) {
+        purgeTerminatedThreads();
         rv.add(new SingleCacheStateInformationType(prismContext)
                 .name(LocalObjectCache.class.getName())
                 .size(LocalObjectCache.getTotalSize(LOCAL_OBJECT_CACHE_INSTANCE)));
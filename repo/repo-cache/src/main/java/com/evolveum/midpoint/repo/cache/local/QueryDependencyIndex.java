@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.cache.local;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Secondary index for query caches (local and global) that maps the data a cached query depends on
+ * to the query keys. It allows invalidation to look only at candidate entries instead of scanning
+ * the whole cache:
+ *
+ * - object type of the query (only queries for the changed type or its supertypes are relevant),
+ * - OIDs of the objects in the cached result (change of such object may affect the result),
+ * - first segments of the item paths used in the query filter (modification of other items
+ * can't cause the object to newly match the filter).
+ *
+ * Queries without filter, with paging or with filter we don't understand are always candidates
+ * for the change of the relevant type.
+ *
+ * The index is only a pre-selection, it may return more keys than necessary (also keys that are
+ * no longer in the cache) and the candidates must be checked the usual way.
+ * But it must never miss a key for an entry present in the cache, that's why the caches first
+ * add the key to the index and only then put the entry to the cache.
+ */
+public class QueryDependencyIndex {
+
+    /** Registrations for the keys, also used to check whether the entry is still indexed. */
+    private final Map<QueryKey<?>, IndexedQuery> registered = new ConcurrentHashMap<>();
+
+    /** Queries that are candidates for any change of the type. */
+    private final Map<Class<?>, Set<IndexedQuery>> alwaysCandidatesByType = new ConcurrentHashMap<>();
+
+    /** Queries by the type and first item name of the item paths used in the filter. */
+    private final Map<Class<?>, Map<String, Set<IndexedQuery>>> byTypeAndItem = new ConcurrentHashMap<>();
+
+    /** Queries by OIDs of the objects in their result. */
+    private final Map<String, Set<IndexedQuery>> byOid = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes the key with its result, replacing any previous registration of the same key.
+     * The returned registration can be used for {@link #remove(QueryKey, IndexedQuery)}.
+     */
+    public @NotNull IndexedQuery add(@NotNull QueryKey<?> key, @NotNull SearchResultList<?> result) {
+        IndexedQuery indexedQuery = new IndexedQuery(key, result);
+        link(indexedQuery);
+        IndexedQuery previous = registered.put(key, indexedQuery);
+        if (previous != null) {
+            unlink(previous);
+        }
+        return indexedQuery;
+    }
+
+    public void remove(@NotNull QueryKey<?> key) {
+        IndexedQuery indexedQuery = registered.remove(key);
+        if (indexedQuery != null) {
+            unlink(indexedQuery);
+        }
+    }
+
+    /**
+     * Removes the specified registration of the key, but only if it was not replaced in the meantime.
+     */
+    public void remove(@NotNull QueryKey<?> key, @Nullable IndexedQuery indexedQuery) {
+        if (indexedQuery != null && registered.remove(key, indexedQuery)) {
+            unlink(indexedQuery);
+        }
+    }
+
+    public boolean isIndexed(@NotNull QueryKey<?> key, @NotNull IndexedQuery indexedQuery) {
+        return registered.get(key) == indexedQuery;
+    }
+
+    public void clear() {
+        registered.clear();
+        alwaysCandidatesByType.clear();
+        byTypeAndItem.clear();
+        byOid.clear();
+    }
+
+    public int size() {
+        return registered.size();
+    }
+
+    /**
+     * Returns keys of the queries that may be affected by the change of the object.
+     *
+     * @param changedType type of the changed object
+     * @param oid OID of the changed object
+     * @param changedItemPaths paths of the items that were changed; null if unknown (any item may
+     * have been changed, e.g. for added objects); empty if the object can't newly match any filter
+     * (e.g. for deleted objects)
+     */
+    public @NotNull Set<QueryKey<?>> getCandidates(@NotNull Class<?> changedType, @Nullable String oid,
+            @Nullable Collection<? extends ItemPath> changedItemPaths) {
+        Set<QueryKey<?>> candidates = new HashSet<>();
+        if (oid != null) {
+            addKeys(candidates, byOid.get(oid));
+        }
+
+        Set<String> changedItems = changedItemPaths != null ? firstItemNames(changedItemPaths) : null;
+        for (Class<?> queryType : alwaysCandidatesByType.keySet()) {
+            if (queryType.isAssignableFrom(changedType)) {
+                addKeys(candidates, alwaysCandidatesByType.get(queryType));
+            }
+        }
+        for (Map.Entry<Class<?>, Map<String, Set<IndexedQuery>>> typeEntry : byTypeAndItem.entrySet()) {
+            if (!typeEntry.getKey().isAssignableFrom(changedType)) {
+                continue;
+            }
+            Map<String, Set<IndexedQuery>> byItem = typeEntry.getValue();
+            if (changedItems == null) {
+                byItem.values().forEach(queries -> addKeys(candidates, queries));
+            } else {
+                for (String changedItem : changedItems) {
+                    addKeys(candidates, byItem.get(changedItem));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private void addKeys(Set<QueryKey<?>> candidates, Set<IndexedQuery> queries) {
+        if (queries != null) {
+            for (IndexedQuery query : queries) {
+                candidates.add(query.key);
+            }
+        }
+    }
+
+    /** Returns null if any of the paths does not start with a name - then any item may be affected. */
+    private @Nullable Set<String> firstItemNames(Collection<? extends ItemPath> paths) {
+        Set<String> names = new HashSet<>();
+        for (ItemPath path : paths) {
+            if (path == null || !path.startsWithName()) {
+                return null;
+            }
+            names.add(path.firstName().getLocalPart());
+        }
+        return names;
+    }
+
+    private void link(IndexedQuery query) {
+        Class<?> type = query.key.getType();
+        if (query.filterItems == null) {
+            alwaysCandidatesByType.computeIfAbsent(type, k -> ConcurrentHashMap.newKeySet())
+                    .add(query);
+        } else {
+            Map<String, Set<IndexedQuery>> byItem =
+                    byTypeAndItem.computeIfAbsent(type, k -> new ConcurrentHashMap<>());
+            for (String item : query.filterItems) {
+                linkTo(byItem, item, query);
+            }
+        }
+        for (String oid : query.resultOids) {
+            linkTo(byOid, oid, query);
+        }
+    }
+
+    private void unlink(IndexedQuery query) {
+        Class<?> type = query.key.getType();
+        if (query.filterItems == null) {
+            Set<IndexedQuery> queries = alwaysCandidatesByType.get(type);
+            if (queries != null) {
+                queries.remove(query);
+            }
+        } else {
+            Map<String, Set<IndexedQuery>> byItem = byTypeAndItem.get(type);
+            if (byItem != null) {
+                for (String item : query.filterItems) {
+                    unlinkFrom(byItem, item, query);
+                }
+            }
+        }
+        for (String oid : query.resultOids) {
+            unlinkFrom(byOid, oid, query);
+        }
+    }
+
+    // compute* methods are atomic for the map key, so we don't lose a query added to an emptied set
+    private void linkTo(Map<String, Set<IndexedQuery>> map, String key, IndexedQuery query) {
+        map.compute(key, (k, queries) -> {
+            if (queries == null) {
+                queries = ConcurrentHashMap.newKeySet();
+            }
+            queries.add(query);
+            return queries;
+        });
+    }
+
+    private void unlinkFrom(Map<String, Set<IndexedQuery>> map, String key, IndexedQuery query) {
+        map.computeIfPresent(key, (k, queries) -> {
+            queries.remove(query);
+            return queries.isEmpty() ? null : queries;
+        });
+    }
+
+    /**
+     * Returns first item names of all the items the filter depends on, or null if we can't tell.
+     * Paths inside exists filter are relative, but the path of the exists filter itself covers them.
+     */
+    private static @Nullable Set<String> getFilterItems(@Nullable ObjectQuery query) {
+        if (query == null || query.getFilter() == null || query.getPaging() != null) {
+            // No filter means the query depends on any change, paging may depend on the ordering.
+            return null;
+        }
+        Set<String> items = new HashSet<>();
+        return collectFilterItems(query.getFilter(), items) ? items : null;
+    }
+
+    private static boolean collectFilterItems(ObjectFilter filter, Set<String> items) {
+        if (filter == null || filter instanceof AllFilter || filter instanceof NoneFilter
+                || filter instanceof InOidFilter) {
+            return true;
+        } else if (filter instanceof LogicalFilter) {
+            for (ObjectFilter condition : ((LogicalFilter) filter).getConditions()) {
+                if (!collectFilterItems(condition, items)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (filter instanceof TypeFilter) {
+            return collectFilterItems(((TypeFilter) filter).getFilter(), items);
+        } else if (filter instanceof ExistsFilter) {
+            return addItem(((ExistsFilter) filter).getFullPath(), items);
+        } else if (filter instanceof OrgFilter) {
+            items.add(ObjectType.F_PARENT_ORG_REF.getLocalPart());
+            return true;
+        } else if (filter instanceof ValueFilter) {
+            ValueFilter<?, ?> valueFilter = (ValueFilter<?, ?>) filter;
+            return addItem(valueFilter.getFullPath(), items)
+                    && (valueFilter.getRightHandSidePath() == null
+                    || addItem(valueFilter.getRightHandSidePath(), items));
+        } else {
+            // e.g. full-text filter, we don't know what it depends on
+            return false;
+        }
+    }
+
+    private static boolean addItem(ItemPath path, Set<String> items) {
+        if (path == null || !path.startsWithName()) {
+            return false;
+        }
+        items.add(path.firstName().getLocalPart());
+        return true;
+    }
+
+    /**
+     * Registration of a query key in the index with the data it was indexed by.
+     * Compared by identity, the same key can be (briefly) registered more times.
+     */
+    public static final class IndexedQuery {
+
+        @NotNull private final QueryKey<?> key;
+        @NotNull private final Set<String> resultOids;
+        /** Null means that the query is a candidate for any change of its type. */
+        @Nullable private final Set<String> filterItems;
+
+        private IndexedQuery(@NotNull QueryKey<?> key, @NotNull SearchResultList<?> result) {
+            this.key = key;
+            this.filterItems = getFilterItems(key.getQuery());
+            this.resultOids = new HashSet<>();
+            for (Object object : result) {
+                if (object instanceof PrismObject<?> && ((PrismObject<?>) object).getOid() != null) {
+                    resultOids.add(((PrismObject<?>) object).getOid());
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "IndexedQuery{" +
+                    "key=" + key +
+                    ", resultOids=" + resultOids.size() +
+                    ", filterItems=" + filterItems +
+                    '}';
+        }
+    }
+}
@@ -80,4 +80,14 @@ public class CacheRegistryImpl implements CacheListener, CacheRegistry {
     public void dumpContent() {
         caches.forEach(Cache::dumpContent);
     }
+
+    @Override
+    public synchronized boolean hasClusterwideInvalidationFor(Class<?> type) {
+        for (Cache cache : caches) {
+            if (cache.hasClusterwideInvalidationFor(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -13,7 +13,9 @@ import java.util.Collection;
 import java.util.List;
 import javax.annotation.PostConstruct;
 
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
@@ -26,6 +28,8 @@ import org.testng.annotations.Test;
 import org.xml.sax.SAXException;
 
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.cache.local.LocalQueryCache;
+import com.evolveum.midpoint.repo.cache.local.QueryKey;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
@@ -101,6 +105,53 @@ public class CacheInvalidationPerformanceTest extends AbstractSpringTest impleme
         then();
     }
 
+    /**
+     * Measures the selection of invalidation candidates (see QueryDependencyIndex) for growing
+     * query cache sizes. The cost should stay roughly the same regardless of the cache size.
+     */
+    @Test
+    public void test200InvalidationCostByCacheSize() throws SchemaException {
+        final int ITERATIONS = 10000;
+
+        for (int size : new int[] { 1_000, 10_000, 100_000 }) {
+            given("local query cache with " + size + " queries");
+            LocalQueryCache cache = new LocalQueryCache();
+            for (int i = 0; i < size; i++) {
+                ObjectQuery query = getPrismContext().queryFor(ArchetypeType.class)
+                        .item(ArchetypeType.F_NAME).eqPoly("name-" + i).matchingOrig()
+                        .or().item(ArchetypeType.F_COST_CENTER).eq("cc-" + i)
+                        .build();
+                PrismObject<ArchetypeType> object = new ArchetypeType(getPrismContext())
+                        .oid("oid-" + i)
+                        .name("name-" + i)
+                        .asPrismObject();
+                SearchResultList<PrismObject<ArchetypeType>> list =
+                        new SearchResultList<>(List.of(object)).toDeeplyFrozenList();
+                cache.put(new QueryKey<>(ArchetypeType.class, query), list);
+            }
+
+            when("candidates for modification of name and description are selected");
+            List<ItemPath> namePaths = List.of(ArchetypeType.F_NAME);
+            List<ItemPath> descriptionPaths = List.of(ArchetypeType.F_DESCRIPTION);
+            long nameCandidates = 0;
+            long descriptionCandidates = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                nameCandidates += cache.getInvalidationCandidates(
+                        ArchetypeType.class, "oid-" + (i % size), namePaths).size();
+                descriptionCandidates += cache.getInvalidationCandidates(
+                        ArchetypeType.class, "oid-" + (i % size), descriptionPaths).size();
+            }
+            long durationNs = System.nanoTime() - start;
+
+            then();
+            displayValue("Invalidation cost for cache size " + size, String.format(
+                    "%,.3f µs per change, average candidates: %,.1f (name), %,.1f (description)",
+                    durationNs / 1000.0 / (2 * ITERATIONS),
+                    (double) nameCandidates / ITERATIONS, (double) descriptionCandidates / ITERATIONS));
+        }
+    }
+
     private void modifyArchetypeName(ArchetypeType archetype, String label, int iterations, OperationResult result)
             throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
         long start = System.currentTimeMillis();
@@ -304,6 +304,59 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
         assertThat(data.overSizedQueries.get()).as("over-sized counter").isEqualTo(2); // search + searchIterative
     }
 
+    /**
+     * Modification should invalidate only queries that contain the modified object
+     * or whose filter depends on the modified item, see QueryDependencyIndex.
+     */
+    @Test
+    public void test340ModifyInvalidatesOnlyDependentQueries() throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        given();
+        PrismContext prismContext = getPrismContext();
+        OperationResult result = createOperationResult();
+
+        clearCaches();
+
+        String name = "test340";
+        String changedDescription = "test340-description";
+        PrismObject<ArchetypeType> archetype = new ArchetypeType(prismContext)
+                .name(name)
+                .asPrismObject();
+        repositoryCache.addObject(archetype, null, result);
+
+        ObjectQuery byName = prismContext.queryFor(ArchetypeType.class)
+                .item(ArchetypeType.F_NAME).eqPoly(name).matchingOrig()
+                .build();
+        ObjectQuery byDescription = prismContext.queryFor(ArchetypeType.class)
+                .item(ArchetypeType.F_DESCRIPTION).eq(changedDescription)
+                .build();
+        ObjectQuery byCostCenter = prismContext.queryFor(ArchetypeType.class)
+                .item(ArchetypeType.F_COST_CENTER).eq("test340-cc")
+                .build();
+        repositoryCache.searchObjects(ArchetypeType.class, byName, null, result);
+        repositoryCache.searchObjects(ArchetypeType.class, byDescription, null, result);
+        repositoryCache.searchObjects(ArchetypeType.class, byCostCenter, null, result);
+        assertQueryIsCached(ArchetypeType.class, byName);
+        assertQueryIsCached(ArchetypeType.class, byDescription);
+        assertQueryIsCached(ArchetypeType.class, byCostCenter);
+
+        when("description of the archetype is modified");
+        repositoryCache.modifyObject(ArchetypeType.class, archetype.getOid(),
+                prismContext.deltaFor(ArchetypeType.class)
+                        .item(ArchetypeType.F_DESCRIPTION).replace(changedDescription)
+                        .asItemDeltas(),
+                result);
+
+        then("queries containing the object or depending on description are invalidated");
+        assertQueryIsNotCached(ArchetypeType.class, byName);
+        assertQueryIsNotCached(ArchetypeType.class, byDescription);
+        assertQueryIsCached(ArchetypeType.class, byCostCenter);
+
+        // search by description finds the modified archetype
+        assertThat(repositoryCache.searchObjects(ArchetypeType.class, byDescription, null, result))
+                .as("objects found by description")
+                .hasSize(1);
+    }
+
     // Must be executed last, because naive deletion such large number of archetypes fails on OOM
     @Test
     public void test900HeapUsage() throws Exception {
@@ -304,6 +304,7 @@ public class TaskActivityManager {
                         .asItemDeltas();
             }
             plainRepositoryService.modifyObject(TaskType.class, task.getOid(), itemDeltas, result);
+            beans.bucketingManager.deleteStoredBuckets(task.getOid(), activityPath, null, result);
             LOGGER.info("Deleted activity state for '{}' in {}", activityPath, task);
         } catch (CommonException e) {
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't delete state for activity path '{}' in {}", e, activityPath, task);
@@ -329,6 +330,7 @@ public class TaskActivityManager {
                                 .asItemDeltas());
             }
             plainRepositoryService.modifyObject(TaskType.class, task.getOid(), itemDeltas, result);
+            beans.bucketingManager.deleteStoredBuckets(task.getOid(), activityPath, activityState, result);
             LOGGER.info("Purged activity state for '{}' in {}", activityPath, task);
         } catch (CommonException e) {
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't delete state for activity path '{}' in {}", e, activityPath, task);
@@ -11,6 +11,7 @@ import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.TaskActivityManager;
 import com.evolveum.midpoint.repo.common.activity.definition.WorkDefinitionFactory;
 import com.evolveum.midpoint.repo.common.activity.run.sources.RepositoryItemSourceFactory;
@@ -48,6 +49,9 @@ public class CommonTaskBeans {
     @Autowired public WorkDefinitionFactory workDefinitionFactory;
 
     @Autowired public BucketingManager bucketingManager;
+
+    /** Available only if the repository supports it. */
+    @Autowired(required = false) public WorkBucketStore workBucketStore;
     @Autowired public TaskActivityManager activityManager;
 
     @Autowired public BucketContentFactoryGenerator contentFactoryCreator;
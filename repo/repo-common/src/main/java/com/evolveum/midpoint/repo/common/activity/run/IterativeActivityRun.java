@@ -175,6 +175,7 @@ public abstract class IterativeActivityRun<
 
         LOGGER.trace("{}: Starting with local coordinator task {}", shortName, getRunningTask());
 
+        boolean finished = false;
         try {
             enableGlobalConnIdOperationsListener();
 
@@ -186,6 +187,7 @@ public abstract class IterativeActivityRun<
             doRun(result);
 
             afterRun(result);
+            finished = true;
 
             ActivityRunResult runResult = createRunResult();
 
@@ -195,6 +197,9 @@ public abstract class IterativeActivityRun<
             return runResult;
 
         } finally {
+            if (!finished) {
+                afterRunFailed(result);
+            }
             disableGlobalConnIdOperationsListener();
             getActivityState().getConnIdOperationsReport().flush(getRunningTask(), result);
         }
@@ -705,6 +710,14 @@ public abstract class IterativeActivityRun<
     public abstract boolean processItem(@NotNull ItemProcessingRequest<I> request, @NotNull RunningTask workerTask,
             OperationResult result) throws ActivityRunException, CommonException;
 
+    /**
+     * Called when the processing of the request is over, just before it is acknowledged. This is done also for items
+     * for which {@link #processItem(ItemProcessingRequest, RunningTask, OperationResult)} was not called at all
+     * (e.g. in "no execution" mode or when the item processing condition is false), and for items that failed.
+     */
+    public void afterItemProcessed(@NotNull ItemProcessingRequest<I> request) {
+    }
+
     @Override
     protected final @NotNull ActivityState determineActivityStateForCounters(@NotNull OperationResult result)
             throws SchemaException, ObjectNotFoundException {
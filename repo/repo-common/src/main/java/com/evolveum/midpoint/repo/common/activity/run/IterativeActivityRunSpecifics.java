@@ -56,6 +56,14 @@ public interface IterativeActivityRunSpecifics extends ImplicitSegmentationResol
     default void afterRun(OperationResult opResult) throws CommonException, ActivityRunException {
     }
 
+    /**
+     * Called after the run if it did not finish normally, i.e. if {@link #beforeRun(OperationResult)}, the processing
+     * itself, or {@link #afterRun(OperationResult)} threw an exception. Should release resources acquired
+     * in {@link #beforeRun(OperationResult)}. Must not throw exceptions.
+     */
+    default void afterRunFailed(OperationResult opResult) {
+    }
+
     /**
      * Called before bucket is processed.
      *
@@ -36,7 +36,9 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -497,6 +499,11 @@ public abstract class SearchBasedActivityRun<
      * Retrieves items from the source and passes them to search
      */
     private void searchIterative(OperationResult result) throws CommonException {
+        int lookAheadWindowSize = getLookAheadWindowSize();
+        if (lookAheadWindowSize > 0) {
+            searchIterativeWithLookAhead(lookAheadWindowSize, result);
+            return;
+        }
         ContainerableResultHandler<C> handler = (object, parentResult) -> {
             ItemProcessingRequest<C> request =
                     ContainerableProcessingRequest.create(sequentialNumberCounter.getAndIncrement(), object, this);
@@ -505,6 +512,39 @@ public abstract class SearchBasedActivityRun<
         searchableItemSource.searchIterative(searchSpecification, handler, getRunningTask(), result);
     }
 
+    /**
+     * Retrieves items in windows of given size. Each window is prepared by the specifics object
+     * (see {@link #prepareItems(List, OperationResult)}) and then its items are submitted for processing.
+     */
+    private void searchIterativeWithLookAhead(int windowSize, OperationResult result) throws CommonException {
+        List<C> window = new ArrayList<>(windowSize);
+        ContainerableResultHandler<C> handler = (object, parentResult) -> {
+            window.add(object);
+            return window.size() < windowSize || submitWindow(window, parentResult);
+        };
+        searchableItemSource.searchIterative(searchSpecification, handler, getRunningTask(), result);
+        submitWindow(window, result);
+    }
+
+    private boolean submitWindow(List<C> window, OperationResult result) {
+        if (window.isEmpty()) {
+            return true;
+        }
+        prepareItems(window, result);
+        try {
+            for (C item : window) {
+                ItemProcessingRequest<C> request =
+                        ContainerableProcessingRequest.create(sequentialNumberCounter.getAndIncrement(), item, this);
+                if (!coordinator.submit(request, result)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            window.clear();
+        }
+    }
+
     private boolean advancedSupportAvailable() {
         return beans.getAdvancedActivityRunSupport().isPresent();
     }
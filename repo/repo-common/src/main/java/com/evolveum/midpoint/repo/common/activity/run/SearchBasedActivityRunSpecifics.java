@@ -8,6 +8,7 @@
 package com.evolveum.midpoint.repo.common.activity.run;
 
 import java.util.Collection;
+import java.util.List;
 import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemProcessingRequest;
@@ -102,5 +103,26 @@ public interface SearchBasedActivityRunSpecifics<C extends Containerable>
      */
     boolean processItem(@NotNull C item, @NotNull ItemProcessingRequest<C> request,
             RunningTask workerTask, OperationResult result) throws CommonException, ActivityRunException;
+
+    /**
+     * Number of items that are retrieved from the source before they are submitted for processing.
+     * Such items are passed to {@link #prepareItems(List, OperationResult)} first, so the activity can prepare
+     * the data needed to process them in a set-oriented way (e.g. by one repository query for all the items).
+     *
+     * Zero means that the items are submitted for processing right as they are retrieved.
+     */
+    default int getLookAheadWindowSize() {
+        return 0;
+    }
+
+    /**
+     * Prepares a window of items retrieved from the source for processing. Called in the coordinator thread.
+     * See {@link #getLookAheadWindowSize()}.
+     *
+     * Errors should not be thrown from here: the items will be submitted for processing anyway,
+     * and the processing should cope with the data not being prepared.
+     */
+    default void prepareItems(@NotNull List<C> items, OperationResult result) {
+    }
     //endregion
 }
@@ -12,6 +12,7 @@ import static java.util.Collections.singletonList;
 
 import static com.evolveum.midpoint.util.MiscUtil.stateCheck;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_BUCKET;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_WORK_COMPLETE;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityStateType.F_BUCKETING;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.DELEGATED;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.READY;
@@ -31,12 +32,17 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
+import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.schema.util.task.ActivityStateUtil;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.util.DebugDumpable;
 import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -86,6 +92,9 @@ class BucketOperation implements DebugDumpable {
     final RepositoryService plainRepositoryService;
     final PrismContext prismContext;
 
+    /** Repository work bucket store, if the repository provides one. */
+    @Nullable final WorkBucketStore bucketStore;
+
     BucketOperation(@NotNull String coordinatorTaskOid, @Nullable String workerTaskOid, @NotNull ActivityPath activityPath,
             ActivityBucketManagementStatistics statistics, @Nullable Consumer<BucketProgressOverviewType> bucketProgressConsumer,
             @NotNull CommonTaskBeans beans) {
@@ -98,12 +107,50 @@ class BucketOperation implements DebugDumpable {
         this.taskManager = beans.taskManager;
         this.plainRepositoryService = beans.plainRepositoryService;
         this.prismContext = beans.prismContext;
+        this.bucketStore = beans.workBucketStore;
     }
 
     public boolean isStandalone() {
         return workerTaskOid == null;
     }
 
+    /**
+     * Are the buckets kept in the repository work bucket store (instead of the coordinator task)?
+     * This is decided when the first bucket is obtained, see {@link GetBucketOperation}.
+     */
+    static boolean isInBucketStore(@Nullable ActivityBucketingStateType bucketing) {
+        return bucketing != null && bucketing.getBucketStore() == WorkBucketStoreType.REPOSITORY;
+    }
+
+    void markWorkComplete(OperationResult result)
+            throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException {
+        // We use dynamic modify only because we do not know the state item path without loading coordinator task first
+        plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
+                task -> {
+                    ItemPath stateItemPath = ActivityStateUtil.getStateItemPath(task.getActivityState(), activityPath);
+                    return prismContext.deltaFor(TaskType.class)
+                            .item(stateItemPath.append(F_BUCKETING, F_WORK_COMPLETE)).replace(true)
+                            .asItemDeltas();
+                }, null, result);
+    }
+
+    /**
+     * For buckets in the repository work bucket store: marks the work as complete if there are no ready nor delegated
+     * buckets. It should be called only if no new buckets can be created, i.e. in the scavenging phase.
+     *
+     * @return true if the work was marked as complete
+     */
+    boolean markWorkCompleteIfNoUnfinishedBuckets(OperationResult result)
+            throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException {
+        assert bucketStore != null;
+        if (bucketStore.hasUnfinishedBuckets(coordinatorTaskOid, activityPath, result)) {
+            return false;
+        } else {
+            markWorkComplete(result);
+            return true;
+        }
+    }
+
     /** Buckets have to be detached and ID-less, free to be added to the delta. */
     static Collection<ItemDelta<?, ?>> bucketsAddDeltas(ItemPath statePath, List<WorkBucketType> buckets) {
         try {
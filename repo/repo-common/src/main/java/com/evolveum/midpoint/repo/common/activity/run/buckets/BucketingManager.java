@@ -35,6 +35,7 @@ import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkSegmentationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityStateType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
 
 /**
@@ -103,6 +104,20 @@ public class BucketingManager {
                 .execute(result);
     }
 
+    /**
+     * Deletes buckets of given activity (and its sub-activities) kept in the repository work bucket store, if they are
+     * kept there. To be called when the bucketing state of the activity in the coordinator task is purged or deleted.
+     *
+     * @param activityState State of the activity in the coordinator task; if null, the buckets are deleted unconditionally.
+     */
+    public void deleteStoredBuckets(@NotNull String coordinatorTaskOid, @NotNull ActivityPath activityPath,
+            @Nullable ActivityStateType activityState, @NotNull OperationResult result) {
+        if (beans.workBucketStore != null
+                && (activityState == null || BucketOperation.isInBucketStore(activityState.getBucketing()))) {
+            beans.workBucketStore.deleteBuckets(coordinatorTaskOid, activityPath, result);
+        }
+    }
+
     /**
      * Narrows a query by taking specified bucket into account.
      */
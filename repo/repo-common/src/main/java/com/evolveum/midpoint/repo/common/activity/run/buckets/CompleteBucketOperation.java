@@ -56,11 +56,22 @@ public class CompleteBucketOperation extends BucketOperation {
             throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException {
 
         LOGGER.trace("Completing work bucket #{} in {} (worker {})", sequentialNumber, coordinatorTaskOid, workerTaskOid);
-        ModifyObjectResult<TaskType> modifyObjectResult =
-                plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
-                        this::computeCompletionModifications, null, result);
+
+        // Buckets in the coordinator task are never moved to the bucket store (nor vice versa), so this check is safe
+        // to be done without locking the coordinator task.
+        TaskType coordinatorTask = plainRepositoryService.getObject(TaskType.class, coordinatorTaskOid, null, result)
+                .asObjectable();
+        ActivityBucketingStateType bucketing =
+                ActivityStateUtil.getActivityStateRequired(coordinatorTask.getActivityState(), activityPath).getBucketing();
+        if (isInBucketStore(bucketing) && bucketStore != null) {
+            completeInBucketStore(bucketing.getNumberOfBuckets(), result);
+        } else {
+            ModifyObjectResult<TaskType> modifyObjectResult =
+                    plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
+                            this::computeCompletionModifications, null, result);
+            statisticsKeeper.addToConflictCounts(modifyObjectResult);
+        }
         bucketProgressHolder.passValue();
-        statisticsKeeper.addToConflictCounts(modifyObjectResult);
         statisticsKeeper.register(BucketingConstants.COMPLETE_WORK_BUCKET);
     }
 
@@ -96,6 +107,37 @@ public class CompleteBucketOperation extends BucketOperation {
                     compressingMods);
         }
     }
+
+    /**
+     * No compression is needed here: complete buckets are simply rows in the store.
+     *
+     * In the scavenging phase no new buckets are created, so the worker completing the last bucket marks the work
+     * as complete. (Workers that find no bucket to process do that only if there are no buckets delegated to others.)
+     * Scavenging is always set before the buckets are checked there, and here it is checked after the bucket is completed.
+     * So at least one of the parties sees the final state.
+     *
+     * The coordinator task is modified only when marking the work as complete.
+     */
+    private void completeInBucketStore(Integer numberOfBuckets, OperationResult result)
+            throws ObjectNotFoundException, ObjectAlreadyExistsException, SchemaException {
+        assert bucketStore != null;
+        bucketStore.completeBucket(coordinatorTaskOid, activityPath, sequentialNumber, workerTaskOid, result);
+        if (isInScavengingPhase(result)) {
+            markWorkCompleteIfNoUnfinishedBuckets(result);
+        }
+        bucketProgressHolder.accept(
+                new BucketProgressOverviewType()
+                        .totalBuckets(numberOfBuckets)
+                        .completeBuckets(bucketStore.countCompleteBuckets(coordinatorTaskOid, activityPath, result)));
+    }
+
+    private boolean isInScavengingPhase(OperationResult result) throws ObjectNotFoundException, SchemaException {
+        TaskType coordinator = plainRepositoryService
+                .getObject(TaskType.class, coordinatorTaskOid, null, result)
+                .asObjectable();
+        return BucketingUtil.isInScavengingPhase(coordinator.getActivityState(), activityPath);
+    }
+
     private List<ItemDelta<?, ?>> compressCompletedBuckets(ItemPath statePath, List<WorkBucketType> currentBuckets,
             WorkBucketType closedBucketBefore, Holder<Boolean> recentlyClosedBucketDeletedHolder) {
 
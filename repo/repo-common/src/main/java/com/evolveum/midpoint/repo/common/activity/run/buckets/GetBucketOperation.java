@@ -14,8 +14,9 @@ import static java.util.Objects.requireNonNullElseGet;
 import static com.evolveum.midpoint.schema.util.task.BucketingUtil.getBuckets;
 import static com.evolveum.midpoint.schema.util.task.BucketingUtil.getWorkerOid;
 import static com.evolveum.midpoint.schema.util.task.work.BucketingConstants.*;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_BUCKET_STORE;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_NUMBER_OF_BUCKETS;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_SCAVENGING;
-import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_WORK_COMPLETE;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityStateType.F_BUCKETING;
 
 import java.util.Objects;
@@ -69,6 +70,9 @@ public class GetBucketOperation extends BucketOperation {
     /** If doing sampling, we try to get more buckets. All but the last are immediately marked as COMPLETE. */
     private int bucketsToGet;
 
+    /** Estimated number of buckets, as known to the coordinator task. Used only with the bucket store. */
+    private Integer numberOfBuckets;
+
     GetBucketOperation(@NotNull String coordinatorTaskOid, @Nullable String workerTaskOid, @NotNull ActivityPath activityPath,
             ActivityBucketManagementStatistics statisticsCollector,
             @Nullable GetBucketOperationOptions options, CommonTaskBeans beans) {
@@ -96,7 +100,11 @@ public class GetBucketOperation extends BucketOperation {
                 return getBucketStandalone(result);
             } else {
                 executeInitialDelayForMultiNode();
-                return getBucketMultiNode(result);
+                if (isBucketStoreRequested() && prepareBucketStore(result)) {
+                    return getBucketFromStore(result);
+                } else {
+                    return getBucketMultiNode(result);
+                }
             }
         } catch (Throwable t) {
             statisticsKeeper.register("getWorkBucket." + t.getClass().getSimpleName());
@@ -193,6 +201,174 @@ public class GetBucketOperation extends BucketOperation {
         }
     }
 
+    /**
+     * The repository bucket store is used only if configured, supported by the repository, and if no sampling
+     * is done. (Sampling needs to skip buckets, which is much easier to do with the buckets in the task.)
+     */
+    private boolean isBucketStoreRequested() {
+        ActivityDistributionDefinition distribution = options.getDistributionDefinition();
+        WorkAllocationDefinitionType allocation = distribution != null ?
+                distribution.getBuckets().getAllocation() : null;
+        if (allocation == null || allocation.getBucketStore() != WorkBucketStoreType.REPOSITORY) {
+            return false;
+        } else if (bucketStore == null) {
+            LOGGER.debug("Repository bucket store was requested but the repository does not support it; "
+                    + "using buckets in the coordinator task {}", coordinatorTaskOid);
+            return false;
+        } else if (bucketsToGet != 1) {
+            LOGGER.debug("Repository bucket store is not used with sampling; using buckets in the coordinator task {}",
+                    coordinatorTaskOid);
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    /**
+     * Marks the coordinator task as using the bucket store (if not marked yet), and updates the estimated number
+     * of buckets there. These are the only modifications of the coordinator task needed to get a bucket,
+     * and after the first bucket they are typically not needed at all. So the coordinator task is read first,
+     * and it is modified (and locked) only if something has to be changed.
+     *
+     * @return false if the coordinator already has buckets in the task itself (e.g. the configuration was changed
+     * in the middle of the processing). We stay with the task-based buckets in that case.
+     */
+    private boolean prepareBucketStore(OperationResult result)
+            throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
+        Holder<Boolean> useStoreHolder = new Holder<>(false);
+        TaskType coordinatorTask = plainRepositoryService.getObject(TaskType.class, coordinatorTaskOid, null, result)
+                .asObjectable();
+        if (computeBucketStoreModifications(coordinatorTask, useStoreHolder).isEmpty()) {
+            return useStoreHolder.getValue();
+        }
+        ModifyObjectResult<TaskType> modifyResult = plainRepositoryService.modifyObjectDynamically(TaskType.class,
+                coordinatorTaskOid, null,
+                task -> computeBucketStoreModifications(task, useStoreHolder),
+                null, result);
+        statisticsKeeper.setConflictCounts(modifyResult);
+        return useStoreHolder.getValue();
+    }
+
+    private @NotNull List<ItemDelta<?, ?>> computeBucketStoreModifications(
+            @NotNull TaskType task, @NotNull Holder<Boolean> useStoreHolder) throws SchemaException {
+        ItemPath stateItemPath = ActivityStateUtil.getStateItemPath(task.getActivityState(), activityPath);
+        ActivityStateType state = ActivityStateUtil.getActivityStateRequired(task.getActivityState(), activityPath);
+        boolean inStore = isInBucketStore(state.getBucketing());
+        if (!inStore && !getBuckets(state).isEmpty()) {
+            useStoreHolder.setValue(false);
+            return List.of();
+        }
+        useStoreHolder.setValue(true);
+        List<ItemDelta<?, ?>> modifications = new ArrayList<>();
+        if (!inStore) {
+            modifications.addAll(prismContext.deltaFor(TaskType.class)
+                    .item(stateItemPath.append(F_BUCKETING, F_BUCKET_STORE)).replace(WorkBucketStoreType.REPOSITORY)
+                    .asItemDeltas());
+        }
+        Integer estimated = bucketFactory.estimateNumberOfBuckets();
+        numberOfBuckets = estimated != null ? estimated : BucketingUtil.getNumberOfBuckets(state);
+        if (estimated != null && !estimated.equals(BucketingUtil.getNumberOfBuckets(state))) {
+            modifications.addAll(prismContext.deltaFor(TaskType.class)
+                    .item(stateItemPath.append(F_BUCKETING, F_NUMBER_OF_BUCKETS)).replace(estimated)
+                    .asItemDeltas());
+        }
+        return modifications;
+    }
+
+    /**
+     * Multi-node variant that keeps the buckets in the repository bucket store. Workers claim and create buckets
+     * by inserting and updating rows there, so they do not compete for the coordinator task.
+     */
+    private WorkBucketType getBucketFromStore(OperationResult result)
+            throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException, InterruptedException {
+        assert bucketStore != null && workerTaskOid != null;
+
+        WorkBucketType delegated = bucketStore.findDelegatedBucket(coordinatorTaskOid, activityPath, workerTaskOid, result);
+        if (delegated != null) {
+            reportProgressFromStore(result);
+            recordFoundDelegated(delegated);
+            return delegated;
+        }
+
+        for (;;) {
+            WorkBucketType bucket = claimOrCreateInStore(result);
+            reportProgressFromStore(result);
+            if (bucket != null) {
+                return bucket;
+            }
+
+            // Nothing found!
+
+            // Unlike with the buckets in the coordinator task, the work is marked as complete only if all buckets
+            // are complete. Buckets still delegated to other workers are completed by them, and the worker completing
+            // the last one marks the work as complete, see CompleteBucketOperation.
+
+            markScavengingIfNotYet(result);
+            boolean definite = markWorkCompleteIfNoUnfinishedBuckets(result);
+
+            if (!options.isScavenger()) {
+                recordNothingFoundForNonScavenger();
+                return null;
+            }
+
+            if (definite) {
+                recordNothingFoundDefinite();
+                return null;
+            }
+
+            long toWait = options.getFreeBucketWaitTime() == 0L ? 0 : getRemainingTimeToWait();
+            if (toWait <= 0) {
+                recordNothingFoundWithWaitTimeElapsed();
+                return null;
+            }
+
+            sleep(toWait);
+            reclaimWronglyAllocatedBucketsInStore(result);
+        }
+    }
+
+    /**
+     * Claims a ready bucket, or creates new bucket(s) after the last one, taking the first for us.
+     * Returns null if there are no more buckets to be processed (at least for now).
+     */
+    private WorkBucketType claimOrCreateInStore(OperationResult result) throws SchemaException {
+        assert bucketStore != null && workerTaskOid != null;
+        for (;;) {
+            WorkBucketType ready = bucketStore.claimReadyBucket(coordinatorTaskOid, activityPath, workerTaskOid, result);
+            if (ready != null) {
+                recordFoundReady(ready);
+                return ready;
+            }
+
+            WorkBucketType lastBucket = bucketStore.getLastBucket(coordinatorTaskOid, activityPath, result);
+            List<WorkBucketType> newBuckets =
+                    bucketFactory.createNewBuckets(lastBucket != null ? List.of(lastBucket) : List.of(), 1);
+            if (newBuckets.isEmpty()) {
+                return null;
+            }
+            newBuckets.forEach(b -> b.state(WorkBucketStateType.READY));
+            WorkBucketType bucketToUse = newBuckets.get(0)
+                    .state(WorkBucketStateType.DELEGATED)
+                    .workerRef(workerTaskOid, TaskType.COMPLEX_TYPE);
+            if (bucketStore.addBuckets(coordinatorTaskOid, activityPath, newBuckets, result)) {
+                recordCreatedNew(bucketToUse);
+                return bucketToUse.clone();
+            }
+
+            // Someone else has created the buckets in the meanwhile. Let us try to claim one of them.
+            statisticsKeeper.conflictCount++;
+        }
+    }
+
+    private void reportProgressFromStore(OperationResult result) {
+        assert bucketStore != null;
+        bucketProgressHolder.accept(
+                new BucketProgressOverviewType()
+                        .totalBuckets(numberOfBuckets)
+                        .completeBuckets(bucketStore.countCompleteBuckets(coordinatorTaskOid, activityPath, result)));
+        bucketProgressHolder.passValue();
+    }
+
     /**
      * Recording situation when there is a bucket to be returned.
      * (The cases where there is no bucket are treated separately for standalone/workers cases.
@@ -201,13 +377,13 @@ public class GetBucketOperation extends BucketOperation {
         @NotNull Situation situation = attempt.getSituationRequired();
         switch (situation) {
             case FOUND_DELEGATED_TO_ME:
-                recordFoundDelegated(attempt);
+                recordFoundDelegated(attempt.getBucketToUse());
                 break;
             case FOUND_READY:
-                recordFoundReady(attempt);
+                recordFoundReady(attempt.getBucketToUse());
                 break;
             case CREATED_NEW:
-                recordCreatedNew(attempt);
+                recordCreatedNew(attempt.getBucketToUse());
                 break;
             default:
                 throw new AssertionError(situation);
@@ -275,22 +451,22 @@ public class GetBucketOperation extends BucketOperation {
         return waitUntil - System.currentTimeMillis();
     }
 
-    private void recordFoundDelegated(@NotNull GetBucketOperationAttempt attempt) {
-        LOGGER.trace("Returning already delegated bucket for {}: {}", workerTaskOid, attempt.getBucketToUse());
+    private void recordFoundDelegated(@NotNull WorkBucketType bucket) {
+        LOGGER.trace("Returning already delegated bucket for {}: {}", workerTaskOid, bucket);
         statisticsKeeper.register(GET_WORK_BUCKET_FOUND_DELEGATED);
     }
 
-    private void recordFoundReady(@NotNull GetBucketOperationAttempt attempt) {
+    private void recordFoundReady(@NotNull WorkBucketType bucket) {
         CONTENTION_LOGGER.trace("Existing bucket acquired after {} ms (conflicts: {}) in {}: {}",
                 System.currentTimeMillis() - statisticsKeeper.start, statisticsKeeper.conflictCount, workerTaskOid,
-                attempt.getBucketToUse());
+                bucket);
         statisticsKeeper.register(GET_WORK_BUCKET_FOUND_READY);
     }
 
-    private void recordCreatedNew(@NotNull GetBucketOperationAttempt attempt) {
+    private void recordCreatedNew(@NotNull WorkBucketType bucket) {
         CONTENTION_LOGGER.trace("New bucket(s) acquired after {} ms (retries: {}) in {}: {}",
                 System.currentTimeMillis() - statisticsKeeper.start, statisticsKeeper.conflictCount, workerTaskOid,
-                attempt.getBucketToUse());
+                bucket);
         statisticsKeeper.register(GET_WORK_BUCKET_CREATED_NEW);
     }
 
@@ -353,6 +529,19 @@ public class GetBucketOperation extends BucketOperation {
         }
     }
 
+    /** The same as {@link #reclaimWronglyAllocatedBuckets(OperationResult)} but for buckets in the bucket store. */
+    private void reclaimWronglyAllocatedBucketsInStore(OperationResult result)
+            throws SchemaException, ObjectNotFoundException {
+        assert bucketStore != null;
+        Set<String> liveWorkers = getLiveWorkers(result);
+        int reclaimed = bucketStore.reclaimBuckets(coordinatorTaskOid, activityPath, liveWorkers, result);
+        if (reclaimed > 0) {
+            LOGGER.info("Reclaimed {} buckets in {}", reclaimed, coordinatorTaskOid);
+        } else {
+            LOGGER.debug("Reclaimed no buckets in {}", coordinatorTaskOid);
+        }
+    }
+
     private Set<String> getLiveWorkers(OperationResult result) throws SchemaException, ObjectNotFoundException {
         Task coordinator = taskManager.getTask(coordinatorTaskOid, null, result);
         return coordinator.listSubtasks(result).stream()
@@ -384,18 +573,6 @@ public class GetBucketOperation extends BucketOperation {
                 }, null, result);
     }
 
-    private void markWorkComplete(OperationResult result)
-            throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException {
-        // We use dynamic modify only because we do not know the state item path without loading coordinator task first
-        plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
-                task -> {
-                    ItemPath stateItemPath = ActivityStateUtil.getStateItemPath(task.getActivityState(), activityPath);
-                    return prismContext.deltaFor(TaskType.class)
-                            .item(stateItemPath.append(F_BUCKETING, F_WORK_COMPLETE)).replace(true)
-                            .asItemDeltas();
-                }, null, result);
-    }
-
     private int determineBucketsToGet() {
         ActivityDistributionDefinition def = options.getDistributionDefinition();
         if (def == null || def.getBuckets() == null || def.getBuckets().getSampling() == null) {
@@ -51,15 +51,27 @@ public class ReleaseBucketsOperation extends BucketOperation {
     public void execute(OperationResult result)
             throws ObjectNotFoundException, SchemaException {
 
-        ModifyObjectResult<TaskType> modifyObjectResult;
-        try {
-            modifyObjectResult = plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
-                    this::computeReleaseModifications, null, result);
-        } catch (ObjectAlreadyExistsException e) {
-            throw new SystemException("Unexpected ObjectAlreadyExistsException: " + e.getMessage(), e);
+        // See CompleteBucketOperation: the bucket store marker can be checked without locking the coordinator task.
+        TaskType coordinatorTask = plainRepositoryService.getObject(TaskType.class, coordinatorTaskOid, null, result)
+                .asObjectable();
+        if (bucketStore != null
+                && isInBucketStore(
+                        ActivityStateUtil.getActivityStateRequired(coordinatorTask.getActivityState(), activityPath)
+                                .getBucketing())) {
+            assert workerTaskOid != null;
+            int released = bucketStore.releaseBuckets(coordinatorTaskOid, activityPath, workerTaskOid, sequentialNumber, result);
+            LOGGER.trace("Released {} bucket(s) in the bucket store for {} (delegated to {})",
+                    released, coordinatorTaskOid, workerTaskOid);
+        } else {
+            ModifyObjectResult<TaskType> modifyObjectResult;
+            try {
+                modifyObjectResult = plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
+                        this::computeReleaseModifications, null, result);
+            } catch (ObjectAlreadyExistsException e) {
+                throw new SystemException("Unexpected ObjectAlreadyExistsException: " + e.getMessage(), e);
+            }
+            statisticsKeeper.addToConflictCounts(modifyObjectResult);
         }
-
-        statisticsKeeper.addToConflictCounts(modifyObjectResult);
         statisticsKeeper.register(BucketingConstants.RELEASE_WORK_BUCKET);
     }
 
@@ -321,11 +321,18 @@ class ItemProcessingGatekeeper<I> {
 
     /** This is just to ensure we will not wait indefinitely for the item to complete. */
     private void acknowledgeItemProcessedAsEmergency() {
+        try {
+            activityRun.afterItemProcessed(request);
+        } catch (RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't finish processing of item {} in {}:{}",
+                    e, request.getItem(), coordinatorTask, workerTask);
+        }
         OperationResult dummyResult = new OperationResult("dummy");
         request.acknowledge(false, dummyResult);
     }
 
     private void acknowledgeItemProcessed(OperationResult result) {
+        activityRun.afterItemProcessed(request);
         request.acknowledge(shouldReleaseItem(), result);
     }
 
@@ -8,6 +8,7 @@
 package com.evolveum.midpoint.repo.common.activity.run.processing;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -35,6 +36,10 @@ public class ProcessingCoordinator<I> {
 
     private static final Trace LOGGER = TraceManager.getTrace(ProcessingCoordinator.class);
 
+    /**
+     * Maximal time a worker waits for a request. Workers are woken up when a request arrives, so this is just
+     * the interval of checking whether the worker can still run.
+     */
     private static final long WORKER_THREAD_WAIT_FOR_REQUEST = 100L;
 
     private static final String OP_HANDLE_ASYNCHRONOUSLY = ProcessingCoordinator.class.getName() + ".handleAsynchronously";
@@ -45,7 +50,7 @@ public class ProcessingCoordinator<I> {
     private final int threadsCount;
     private final boolean multithreaded;
     private final List<OperationResult> workerSpecificResults;
-    private final RequestsBuffer<I> requestsBuffer;
+    private final RequestsBuffer<ItemProcessingRequest<I>> requestsBuffer;
 
     @NotNull private final IterativeActivityRun<I, ?, ?, ?> activityRun;
 
@@ -70,7 +75,8 @@ public class ProcessingCoordinator<I> {
         if (threadsCount > 0) {
             multithreaded = true;
             workerSpecificResults = new ArrayList<>(threadsCount);
-            requestsBuffer = new RequestsBuffer<>(threadsCount);
+            requestsBuffer = new RequestsBuffer<>(threadsCount,
+                    Comparator.comparingInt(ItemProcessingRequest::getSequentialNumber));
         } else {
             multithreaded = false;
             workerSpecificResults = null;
@@ -187,6 +193,10 @@ public class ProcessingCoordinator<I> {
         LOGGER.trace("ProcessingCoordinator: finishing processing. Coordinator task canRun = {}", coordinatorTask.canRun());
 
         allItemsSubmitted.set(true);
+        if (multithreaded) {
+            assert requestsBuffer != null;
+            requestsBuffer.wakeUpAll();
+        }
         waitForWorkersFinish(result);
         nackQueuedRequests(result);
     }
@@ -231,29 +241,31 @@ public class ProcessingCoordinator<I> {
                 workerTask.refreshThreadLocalStatistics();
                 ItemProcessingRequest<I> request = requestsBuffer.poll(taskIdentifier);
 
-                if (request != null) {
-                    try {
-                        if (!request.process(workerTask, workerSpecificResult)) {
-                            stopRequestedByAnyWorker.set(true);
-                        }
-                    } finally {
-                        requestsBuffer.markProcessed(request, taskIdentifier);
-                        treatOperationResultAfterOperation();
-                    }
-                } else {
+                if (request == null) {
                     if (allItemsSubmitted.get()) {
                         LOGGER.trace("Queue is empty and nothing more is expected - exiting");
                         break;
-                    } else {
-                        LOGGER.trace("No requests to be processed but expecting some to come. Waiting for {} msec", WORKER_THREAD_WAIT_FOR_REQUEST);
-                        try {
-                            //noinspection BusyWait
-                            Thread.sleep(WORKER_THREAD_WAIT_FOR_REQUEST);
-                        } catch (InterruptedException e) {
-                            LOGGER.trace("Waiting interrupted, exiting");
-                            break;
-                        }
                     }
+                    LOGGER.trace("No requests to be processed but expecting some to come. Waiting for at most {} msec",
+                            WORKER_THREAD_WAIT_FOR_REQUEST);
+                    try {
+                        request = requestsBuffer.poll(taskIdentifier, WORKER_THREAD_WAIT_FOR_REQUEST);
+                    } catch (InterruptedException e) {
+                        LOGGER.trace("Waiting interrupted, exiting");
+                        break;
+                    }
+                    if (request == null) {
+                        continue;
+                    }
+                }
+
+                try {
+                    if (!request.process(workerTask, workerSpecificResult)) {
+                        stopRequestedByAnyWorker.set(true);
+                    }
+                } finally {
+                    requestsBuffer.markProcessed(request, taskIdentifier);
+                    treatOperationResultAfterOperation();
                 }
             }
 
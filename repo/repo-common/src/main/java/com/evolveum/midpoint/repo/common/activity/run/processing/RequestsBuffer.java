@@ -8,63 +8,85 @@
 package com.evolveum.midpoint.repo.common.activity.run.processing;
 
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.schema.AcknowledgementSink;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
 /**
- * TODO fix the description
- *
- * <p>Stores requests to be processed.</p>
+ * <p>Stores requests to be processed and hands them over to the worker tasks.</p>
  *
- * <p>Its primary responsibility is that it has to ensure that changes related to given primary identifier are processed exactly
- * in the order in which they were fetched from the resource (recorded as {@link com.evolveum.midpoint.provisioning.ucf.api.Change#localSequenceNumber}).
+ * <p>Its primary responsibility is that it has to ensure that requests related to given correlation value
+ * (e.g. primary identifier of a resource object) are processed exactly in the order in which they were submitted.
  * This responsibility is ensured by the concepts of binding and reservation.</p>
  *
- * <p>Primary identifier I is said to be _bound_ to task T if an object with this identifier it is being currently processed by T
- * or is waiting to be processed by T (reserved for T). See {@link #bind(ProcessChangeRequest, String)} and {@link #unbind(ProcessChangeRequest, String)}
- * methods.</p>
+ * <p>Correlation value V is said to be _bound_ to task T if a request with this value is being currently processed by T
+ * or is waiting to be processed by T (reserved for T). See {@link #bind(AcknowledgementSink, String)}
+ * and {@link #markProcessed(AcknowledgementSink, String)} methods.</p>
+ *
+ * <p>Reservation is represented by a queue of requests waiting to be processed by specified task. A request gets
+ * onto this queue if it's fetched from the global queue but cannot be processed because it is bound to a task different
+ * from the current one. So it's put into "owning" task reserved requests queue.</p>
  *
- * <p>Reservation is represented by a queue of requests waiting to be processed by specified subtask. A request gets
- * onto this queue if it's fetched from the global queue but cannot be processed because it is bound to a subtask different
- * from the current one. So it's put into "owning" task reserved requests queue. See {@link #reserve(ProcessChangeRequest, String)}.</p>
+ * <p>Bindings are striped by the correlation value, so the workers processing unrelated requests don't contend
+ * for a single lock. Only taking the request from the global queue and binding it is serialized, as it must be
+ * atomic to keep the order of requests with the same correlation value. That's a very short critical section.</p>
+ *
+ * <p>Idle workers do not poll periodically, they wait in {@link #poll(String, long)} and are woken up
+ * when a request is offered to the global queue, reserved for them, or when {@link #wakeUpAll()} is called.</p>
  */
-@SuppressWarnings("JavadocReference")
-class RequestsBuffer<I> {
+class RequestsBuffer<R extends AcknowledgementSink> {
 
     private static final Trace LOGGER = TraceManager.getTrace(RequestsBuffer.class);
 
     private static final long REQUEST_QUEUE_OFFER_TIMEOUT = 1000L;
 
+    private static final int STRIPES = 64; // must be power of 2
+
     /**
      * Global queue of waiting requests.
      */
-    private final BlockingQueue<ItemProcessingRequest<I>> globalQueue;
+    private final BlockingQueue<R> globalQueue;
 
     /**
-     * Current bindings of resource objects (their identifiers) to subtasks.
-     *
-     * Entry key: primary resource object identifier (~ account ID)
-     * Entry value: task identifier
+     * Taking the request from the global queue and binding it must be atomic, otherwise two workers could
+     * bind two requests with the same correlation value in the wrong order.
      */
-    private final Map<Object, String> bindingsMap = new HashMap<>();
+    private final ReentrantLock globalQueueTakeLock = new ReentrantLock();
 
     /**
-     * Change requests reserved to be processed by each subtask.
+     * Current bindings of correlation values to tasks, striped by the correlation value hash.
+     */
+    private final BindingsStripe[] bindingsStripes = new BindingsStripe[STRIPES];
+
+    /**
+     * Requests reserved to be processed by each task.
      *
      * Entry key: task identifier.
-     * Entry value: queue of requests. The requests are sorted by change identifier, to ensure processing in the correct order.
+     * Entry value: queue of requests. The requests are sorted using the provided order, to ensure processing in the correct order.
      */
-    private final Map<String, PriorityQueue<ItemProcessingRequest<I>>> reservedRequestsQueueMap = new HashMap<>();
+    private final Map<String, PriorityBlockingQueue<R>> reservedRequestsQueueMap = new ConcurrentHashMap<>();
 
-    RequestsBuffer(int threadsCount) {
+    /** Order of the requests in the reserved queues. */
+    @NotNull private final Comparator<? super R> requestOrder;
+
+    /** Worker threads waiting for a request, by task identifier. */
+    private final Map<String, Thread> waitingWorkers = new ConcurrentHashMap<>();
+
+    RequestsBuffer(int threadsCount, @NotNull Comparator<? super R> requestOrder) {
         int globalQueueSize = threadsCount*2; // actually, size of threadsCount should be sufficient but it doesn't hurt if queue is larger
-        globalQueue = new ArrayBlockingQueue<>(globalQueueSize);
+        globalQueue = new LinkedBlockingQueue<>(globalQueueSize);
+        this.requestOrder = requestOrder;
+        for (int i = 0; i < STRIPES; i++) {
+            bindingsStripes[i] = new BindingsStripe();
+        }
     }
 
     /**
@@ -74,113 +96,189 @@ class RequestsBuffer<I> {
      *
      * @throws InterruptedException If present, the request was not put into the queue.
      */
-    boolean offer(ItemProcessingRequest<I> request) throws InterruptedException {
-        return globalQueue.offer(request, REQUEST_QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+    boolean offer(R request) throws InterruptedException {
+        if (globalQueue.offer(request, REQUEST_QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            wakeUpAnyWorker();
+            return true;
+        } else {
+            return false;
+        }
     }
 
     /**
-     * Tries to obtain a request to be processed by the specified subtask.
+     * Obtains a request to be processed by the specified task, waiting up to specified time if there's none.
+     * The waiting may end prematurely, e.g. because of {@link #wakeUpAll()}.
+     *
+     * Post-conditions are the same as for {@link #poll(String)}.
+     */
+    R poll(String taskIdentifier, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        R request = poll(taskIdentifier);
+        if (request != null) {
+            return request;
+        }
+
+        waitingWorkers.put(taskIdentifier, Thread.currentThread());
+        try {
+            // Checking again after registering ourselves, so we can't miss the wake-up call.
+            request = pollUnsignalled(taskIdentifier);
+            long remaining = deadline - System.nanoTime();
+            if (request == null && remaining > 0) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                request = pollUnsignalled(taskIdentifier);
+            }
+        } finally {
+            waitingWorkers.remove(taskIdentifier);
+        }
+        // Only after we are no longer registered as waiting, so the wake-up can't be delivered back to us.
+        passWakeUpIfNeeded(request);
+        return request;
+    }
+
+    /**
+     * Tries to obtain a request to be processed by the specified task.
      * Does NOT wait, it just checks reserved requests and global queues.
      *
      * Post-conditions:
      * - Returns null only if there are no reserved nor globally available requests.
-     * - If the request is not null, the primary identifier of the request is (successfully) bound to the specified task.
+     * - If the request is not null, the correlation value of the request is (successfully) bound to the specified task.
      */
-    synchronized ItemProcessingRequest<I> poll(String taskIdentifier) {
+    R poll(String taskIdentifier) {
+        R request = pollUnsignalled(taskIdentifier);
+        passWakeUpIfNeeded(request);
+        return request;
+    }
 
-        ItemProcessingRequest<I> reserved = getNextReservedRequest(taskIdentifier);
+    /**
+     * We may have consumed a wake-up intended for the global queue, let's pass it on.
+     * The caller must not be registered as waiting worker.
+     */
+    private void passWakeUpIfNeeded(R request) {
+        if (request != null && !globalQueue.isEmpty()) {
+            wakeUpAnyWorker();
+        }
+    }
+
+    private R pollUnsignalled(String taskIdentifier) {
+        R reserved = pollReservedRequest(taskIdentifier);
         if (reserved != null) {
             LOGGER.trace("Got reserved (pre-assigned) request: {}", reserved);
-            if (bind(reserved, taskIdentifier)) {
-                return reserved;
-            } else {
-                throw new IllegalStateException("A reserved request couldn't be bound to the current task. Request = " +
-                        reserved + ", task = " + taskIdentifier);
-            }
+            return reserved;
         }
 
-        for (;;) {
-            ItemProcessingRequest<I> request = globalQueue.poll();
-            LOGGER.trace("Got request from global queue: {}", request);
+        globalQueueTakeLock.lock();
+        try {
+            for (;;) {
+                R request = globalQueue.poll();
+                LOGGER.trace("Got request from global queue: {}", request);
 
-            if (request == null) {
-                // Nothing in the queue for now. OK, let's try next time.
-                return null;
-            }
+                if (request == null) {
+                    // Nothing in the queue for now. But someone could have reserved a request for us
+                    // since we last checked. Reservations are done only under this lock, so this check is final.
+                    return pollReservedRequest(taskIdentifier);
+                }
 
-            if (bind(request, taskIdentifier)) {
-                return request;
-            } else {
-                // The request couldn't be bound to the specified task. We have to go and try another one.
+                if (bind(request, taskIdentifier)) {
+                    return request;
+                } else {
+                    // The request couldn't be bound to the specified task. We have to go and try another one.
+                }
             }
+        } finally {
+            globalQueueTakeLock.unlock();
         }
     }
 
     /**
-     * Binds a request identifier to specified subtask, if possible i.e. if the request identifier is not bound to another task.
-     * If the request identifier is bound to another task, the request is assigned to it.
+     * Binds a request correlation value to specified task, if possible i.e. if it is not bound to another task.
+     * If the correlation value is bound to another task, the request is reserved for it.
      *
      * @return true if the request was successfully bound to the current task;
      *         false if it was reassigned (so this task has to fetch another request).
      */
-    private boolean bind(ItemProcessingRequest<I> request, String taskIdentifier) {
-        if (!(request instanceof CorrelatableProcessingRequest)) {
-            return true;
-        }
-
-        Object correlationValue = ((CorrelatableProcessingRequest) request).getCorrelationValue();
+    private boolean bind(R request, String taskIdentifier) {
+        Object correlationValue = getCorrelationValue(request);
         if (correlationValue == null) {
-            LOGGER.warn("Null correlationValue in request {}", request);
             return true;
         }
 
-        String boundTo = bindingsMap.get(correlationValue);
-        if (boundTo == null) {
-            LOGGER.trace("Binding {} to {}", correlationValue, taskIdentifier);
-            bindingsMap.put(correlationValue, taskIdentifier);
-            return true;
+        String boundTo;
+        BindingsStripe stripe = getStripe(correlationValue);
+        synchronized (stripe) {
+            Binding binding = stripe.bindings.get(correlationValue);
+            if (binding == null) {
+                LOGGER.trace("Binding {} to {}", correlationValue, taskIdentifier);
+                stripe.bindings.put(correlationValue, new Binding(taskIdentifier));
+                return true;
+            }
+
+            boundTo = binding.taskIdentifier;
+            if (boundTo.equals(taskIdentifier)) {
+                LOGGER.trace("Processing {} as it is already bound to current task: {}", correlationValue, taskIdentifier);
+                return true;
+            }
+
+            LOGGER.trace("Request {} (ID {}) is already bound to another task {}. Moving it to the reserved"
+                    + " requests queue for that task. Current task: {}", request, correlationValue, boundTo, taskIdentifier);
+            // Reserving under the stripe lock, so the owner can't unbind the value in the meantime.
+            binding.reservedRequests++;
+            getReservedRequestsQueue(boundTo).offer(request);
         }
+        wakeUpWorker(boundTo);
+        return false;
+    }
 
-        if (boundTo.equals(taskIdentifier)) {
-            LOGGER.trace("Processing {} as it is already bound to current task: {}", correlationValue, taskIdentifier);
-            return true;
+    private Object getCorrelationValue(R request) {
+        if (!(request instanceof CorrelatableProcessingRequest)) {
+            return null;
         }
 
-        LOGGER.trace("Request {} (ID {}) is already bound to another task {}. Moving it to the reserved"
-                + " requests queue for that task. Current task: {}", request, correlationValue, boundTo, taskIdentifier);
-        reserve(request, boundTo);
-        return false;
+        Object correlationValue = ((CorrelatableProcessingRequest) request).getCorrelationValue();
+        if (correlationValue == null) {
+            LOGGER.warn("Null correlationValue in request {}", request);
+        }
+        return correlationValue;
     }
 
     /**
-     * Gets a change reserved for given task (if there's any).
-     * REMOVES the reservation.
+     * Gets a request reserved for given task (if there's any).
+     * REMOVES the reservation. The correlation value stays bound to the task.
      *
-     * @return Change reserved for given task; or null if there's nothing there.
+     * @return Request reserved for given task; or null if there's nothing there.
      */
-    private ItemProcessingRequest<I> getNextReservedRequest(String taskIdentifier) {
-        Queue<ItemProcessingRequest<I>> reservedRequests = reservedRequestsQueueMap.get(taskIdentifier);
-        if (reservedRequests != null) {
-            return reservedRequests.poll();
-        } else {
+    private R pollReservedRequest(String taskIdentifier) {
+        Queue<R> reservedRequests = reservedRequestsQueueMap.get(taskIdentifier);
+        R request = reservedRequests != null ? reservedRequests.poll() : null;
+        if (request == null) {
             return null;
         }
+
+        Object correlationValue = ((CorrelatableProcessingRequest) request).getCorrelationValue();
+        BindingsStripe stripe = getStripe(correlationValue);
+        synchronized (stripe) {
+            Binding binding = stripe.bindings.get(correlationValue);
+            if (binding == null || !binding.taskIdentifier.equals(taskIdentifier)) {
+                throw new IllegalStateException("A reserved request is not bound to the current task. Request = " +
+                        request + ", task = " + taskIdentifier + ", binding = " + binding);
+            }
+            binding.reservedRequests--;
+        }
+        return request;
     }
 
-    private void reserve(ItemProcessingRequest<I> request, String owningTaskIdentifier) {
-        reservedRequestsQueueMap
-                .computeIfAbsent(owningTaskIdentifier, key -> new PriorityQueue<>())
-                .offer(request);
+    private PriorityBlockingQueue<R> getReservedRequestsQueue(String taskIdentifier) {
+        return reservedRequestsQueueMap
+                .computeIfAbsent(taskIdentifier, key -> new PriorityBlockingQueue<>(11, requestOrder));
     }
 
     /**
-     * Marks specified request as processed: Unbinds its primary identifier from the calling subtask.
+     * Marks specified request as processed: Unbinds its correlation value from the calling task,
+     * unless there are other requests with the same value reserved for the task.
      */
-    synchronized void markProcessed(ItemProcessingRequest<I> request, String taskIdentifier) {
-        unbind(request, taskIdentifier);
-    }
-
-    private void unbind(ItemProcessingRequest<I> request, String taskIdentifier) {
+    void markProcessed(R request, String taskIdentifier) {
         if (!(request instanceof CorrelatableProcessingRequest)) {
             return;
         }
@@ -192,31 +290,48 @@ class RequestsBuffer<I> {
             return;
         }
 
-        if (isReserved(correlationValue, taskIdentifier)) {
-            LOGGER.trace("...but it is reserved to its owner (some relevant changes are waiting), so not unbinding now");
-            return;
+        BindingsStripe stripe = getStripe(correlationValue);
+        synchronized (stripe) {
+            Binding binding = stripe.bindings.get(correlationValue);
+            if (binding != null && binding.reservedRequests > 0) {
+                LOGGER.trace("...but it is reserved to its owner (some relevant requests are waiting), so not unbinding now");
+                return;
+            }
+
+            stripe.bindings.remove(correlationValue);
+            LOGGER.trace("Unbound (previous binding was: {})", binding);
+            assert binding != null && taskIdentifier.equals(binding.taskIdentifier);
         }
+    }
 
-        String previousOwner = bindingsMap.remove(correlationValue);
-        LOGGER.trace("Unbound (previous owner was: {})", previousOwner);
-        assert taskIdentifier.equals(previousOwner);
+    private BindingsStripe getStripe(Object correlationValue) {
+        int hash = correlationValue.hashCode();
+        return bindingsStripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
     }
 
-    private boolean isReserved(Object primaryIdentifier, String taskIdentifier) {
-        Queue<ItemProcessingRequest<I>> reservedRequests = reservedRequestsQueueMap.get(taskIdentifier);
-        if (reservedRequests != null) {
-            for (ItemProcessingRequest<I> request : reservedRequests) {
-                if (request instanceof CorrelatableProcessingRequest &&
-                        primaryIdentifier.equals(((CorrelatableProcessingRequest) request).getCorrelationValue())) {
-                    return true;
-                }
-            }
+    private void wakeUpWorker(String taskIdentifier) {
+        Thread waiting = waitingWorkers.get(taskIdentifier);
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
         }
-        return false;
     }
 
-    synchronized int getReservedRequestsCount(String taskIdentifier) {
-        Queue<ItemProcessingRequest<I>> reservedRequests = reservedRequestsQueueMap.get(taskIdentifier);
+    private void wakeUpAnyWorker() {
+        Iterator<Thread> iterator = waitingWorkers.values().iterator();
+        if (iterator.hasNext()) {
+            LockSupport.unpark(iterator.next());
+        }
+    }
+
+    /**
+     * Wakes up all waiting workers, e.g. to let them know that no more requests will come.
+     */
+    void wakeUpAll() {
+        waitingWorkers.values().forEach(LockSupport::unpark);
+    }
+
+    int getReservedRequestsCount(String taskIdentifier) {
+        Queue<R> reservedRequests = reservedRequestsQueueMap.get(taskIdentifier);
         return reservedRequests != null ? reservedRequests.size() : 0;
     }
 
@@ -230,9 +345,9 @@ class RequestsBuffer<I> {
         return nackCounter.get();
     }
 
-    private void nackAll(Queue<ItemProcessingRequest<I>> queue, AtomicInteger counter, OperationResult result) {
+    private void nackAll(Queue<R> queue, AtomicInteger counter, OperationResult result) {
         for (;;) {
-            ItemProcessingRequest<I> request = queue.poll();
+            R request = queue.poll();
             if (request == null) {
                 break;
             } else {
@@ -241,4 +356,24 @@ class RequestsBuffer<I> {
             }
         }
     }
+
+    private static class BindingsStripe {
+        /** Entry key: correlation value (~ account ID). */
+        private final Map<Object, Binding> bindings = new HashMap<>();
+    }
+
+    private static class Binding {
+        @NotNull private final String taskIdentifier;
+        /** Number of requests with the correlation value waiting in the reserved queue of the task. */
+        private int reservedRequests;
+
+        private Binding(@NotNull String taskIdentifier) {
+            this.taskIdentifier = taskIdentifier;
+        }
+
+        @Override
+        public String toString() {
+            return taskIdentifier + " (reserved: " + reservedRequests + ")";
+        }
+    }
 }
@@ -143,6 +143,9 @@ public class ActivityTreePurger {
         final TaskActivityStateType taskActivityState;
         @NotNull private final List<ItemDelta<?, ?>> deltas = new ArrayList<>();
 
+        /** Activities whose bucketing state is being removed; their buckets in the bucket store (if any) go with it. */
+        @NotNull private final Map<ActivityPath, ActivityStateType> bucketingStatesRemoved = new HashMap<>();
+
         /** True if nothing of relevance remains in the task, so it can be deleted (if needed). */
         private boolean canDelete;
 
@@ -170,6 +173,8 @@ public class ActivityTreePurger {
                     task.refresh(result);
                 }
             }
+            bucketingStatesRemoved.forEach((path, state) ->
+                    beans.bucketingManager.deleteStoredBuckets(task.getOid(), path, state, result));
             return canDelete;
         }
 
@@ -180,6 +185,9 @@ public class ActivityTreePurger {
                         ctx.forChild(child));
             }
             LOGGER.trace("doPurge continuing with {}, paths to keep: {}", ctx.currentActivityPath, pathsToKeep);
+            if (ctx.currentState.getBucketing() != null) {
+                bucketingStatesRemoved.put(ctx.currentActivityPath, ctx.currentState);
+            }
             if (isTransient(ctx.currentState) && hasNoPersistentChild(ctx.currentActivityPath)) {
                 removeCurrentState(ctx);
             } else {
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.common.activity.run.processing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.schema.AcknowledgementSink;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+
+/**
+ * Measures the throughput of {@link RequestsBuffer} with various numbers of workers
+ * and checks that requests with the same correlation value are processed in order.
+ *
+ * Currently not a part of automated test suite.
+ */
+public class RequestsBufferPerfTest extends AbstractUnitTest {
+
+    private static final int REQUESTS = 1_000_000;
+    private static final long WAIT_FOR_REQUEST = 100L;
+
+    @Test
+    public void test100ThroughputWithDistinctCorrelationValues() throws Exception {
+        for (int threads : new int[] { 1, 4, 16, 32, 64 }) {
+            measure(threads, REQUESTS);
+        }
+    }
+
+    @Test
+    public void test110ThroughputWithFewCorrelationValues() throws Exception {
+        for (int threads : new int[] { 1, 4, 16, 32, 64 }) {
+            measure(threads, 100);
+        }
+    }
+
+    private void measure(int threads, int correlationValues) throws Exception {
+        RequestsBuffer<TestRequest> buffer =
+                new RequestsBuffer<>(threads, Comparator.comparingInt(r -> r.sequentialNumber));
+        Map<Integer, Integer> lastProcessed = new ConcurrentHashMap<>();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicReference<String> orderViolation = new AtomicReference<>();
+        AtomicBoolean allSubmitted = new AtomicBoolean();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            String taskIdentifier = "worker-" + i;
+            Thread worker = new Thread(() -> {
+                try {
+                    for (;;) {
+                        TestRequest request = buffer.poll(taskIdentifier);
+                        if (request == null) {
+                            if (allSubmitted.get()) {
+                                break;
+                            }
+                            request = buffer.poll(taskIdentifier, WAIT_FOR_REQUEST);
+                            if (request == null) {
+                                continue;
+                            }
+                        }
+                        // the value is bound to us, so nobody else is updating this entry
+                        Integer previous = lastProcessed.put(request.correlationValue, request.sequentialNumber);
+                        if (previous != null && previous > request.sequentialNumber) {
+                            orderViolation.compareAndSet(null, request + " after " + previous);
+                        }
+                        processed.incrementAndGet();
+                        buffer.markProcessed(request, taskIdentifier);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, taskIdentifier);
+            workers.add(worker);
+        }
+
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (int i = 0; i < REQUESTS; i++) {
+            TestRequest request = new TestRequest(i, i % correlationValues);
+            //noinspection StatementWithEmptyBody
+            while (!buffer.offer(request)) {
+            }
+        }
+        allSubmitted.set(true);
+        buffer.wakeUpAll();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long durationMs = (System.nanoTime() - start) / 1_000_000;
+
+        display(String.format("threads: %d, correlation values: %d, requests: %d, time: %d ms, throughput: %.0f req/s",
+                threads, correlationValues, REQUESTS, durationMs, REQUESTS * 1000.0 / Math.max(durationMs, 1)));
+        assertThat(orderViolation.get()).as("order violation").isNull();
+        assertThat(processed.get()).isEqualTo(REQUESTS);
+        assertThat(buffer.nackAllRequests(new OperationResult("dummy"))).isZero();
+    }
+
+    private static class TestRequest implements AcknowledgementSink, CorrelatableProcessingRequest {
+
+        private final int sequentialNumber;
+        private final int correlationValue;
+
+        private TestRequest(int sequentialNumber, int correlationValue) {
+            this.sequentialNumber = sequentialNumber;
+            this.correlationValue = correlationValue;
+        }
+
+        @Override
+        public Object getCorrelationValue() {
+            return correlationValue;
+        }
+
+        @Override
+        public void acknowledge(boolean release, OperationResult result) {
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequentialNumber + " (" + correlationValue + ")";
+        }
+    }
+}
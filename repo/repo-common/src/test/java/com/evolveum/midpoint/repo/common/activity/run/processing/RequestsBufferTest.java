@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.common.activity.run.processing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.schema.AcknowledgementSink;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+
+/**
+ * Checks ordering and wake-up behavior of {@link RequestsBuffer}.
+ */
+public class RequestsBufferTest extends AbstractUnitTest {
+
+    /** Much longer than any of the tests should take, so we can tell a wake-up from a timeout. */
+    private static final long LONG_WAIT = 10_000L;
+
+    private static final long MAX_WAKE_UP_DELAY = 2_000L;
+
+    @Test
+    public void test100RequestsWithSameCorrelationValueAreProcessedInOrder() throws Exception {
+        given("buffer with 8 workers");
+        int threads = 8;
+        int requests = 20_000;
+        RequestsBuffer<TestRequest> buffer = createBuffer(threads);
+        Map<Integer, Integer> lastProcessed = new ConcurrentHashMap<>();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicReference<String> orderViolation = new AtomicReference<>();
+        AtomicBoolean allSubmitted = new AtomicBoolean();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            String taskIdentifier = "worker-" + i;
+            workers.add(new Thread(() -> {
+                try {
+                    for (;;) {
+                        TestRequest request = buffer.poll(taskIdentifier, 100L);
+                        if (request == null) {
+                            if (allSubmitted.get() && buffer.getReservedRequestsCount(taskIdentifier) == 0) {
+                                request = buffer.poll(taskIdentifier);
+                                if (request == null) {
+                                    break;
+                                }
+                            } else {
+                                continue;
+                            }
+                        }
+                        Integer previous = lastProcessed.put(request.correlationValue, request.sequentialNumber);
+                        if (previous != null && previous > request.sequentialNumber) {
+                            orderViolation.compareAndSet(null, request + " after " + previous);
+                        }
+                        processed.incrementAndGet();
+                        buffer.markProcessed(request, taskIdentifier);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, taskIdentifier));
+        }
+        workers.forEach(Thread::start);
+
+        when("requests with a few correlation values are offered");
+        for (int i = 0; i < requests; i++) {
+            TestRequest request = new TestRequest(i, i % 10);
+            //noinspection StatementWithEmptyBody
+            while (!buffer.offer(request)) {
+            }
+        }
+        allSubmitted.set(true);
+        buffer.wakeUpAll();
+        for (Thread worker : workers) {
+            worker.join(60_000L);
+        }
+
+        then("all requests are processed, in order for each correlation value");
+        assertThat(orderViolation.get()).as("order violation").isNull();
+        assertThat(processed.get()).isEqualTo(requests);
+        assertThat(buffer.nackAllRequests(new OperationResult("dummy"))).isZero();
+    }
+
+    @Test
+    public void test110WaitingWorkerIsWokenUpByOffer() throws Exception {
+        given("a worker waiting for a request");
+        RequestsBuffer<TestRequest> buffer = createBuffer(1);
+        AtomicReference<TestRequest> received = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread worker = startWaitingWorker(buffer, "worker", received, done);
+
+        when("a request is offered");
+        buffer.offer(new TestRequest(1, 1));
+
+        then("the worker gets it without waiting for the timeout");
+        assertThat(done.await(MAX_WAKE_UP_DELAY, TimeUnit.MILLISECONDS)).as("woken up in time").isTrue();
+        assertThat(received.get().sequentialNumber).isEqualTo(1);
+        worker.join();
+    }
+
+    @Test
+    public void test120WakeUpIsPassedToOtherWaitingWorker() throws Exception {
+        given("two workers waiting for a request");
+        RequestsBuffer<TestRequest> buffer = createBuffer(2);
+        AtomicReference<TestRequest> received1 = new AtomicReference<>();
+        AtomicReference<TestRequest> received2 = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(2);
+        Thread worker1 = startWaitingWorker(buffer, "worker-1", received1, done);
+        Thread worker2 = startWaitingWorker(buffer, "worker-2", received2, done);
+
+        when("two requests are offered at once");
+        buffer.offer(new TestRequest(1, 1));
+        buffer.offer(new TestRequest(2, 2));
+
+        then("both workers get a request without waiting for the timeout");
+        assertThat(done.await(MAX_WAKE_UP_DELAY, TimeUnit.MILLISECONDS)).as("both woken up in time").isTrue();
+        assertThat(List.of(received1.get().sequentialNumber, received2.get().sequentialNumber))
+                .containsExactlyInAnyOrder(1, 2);
+        worker1.join();
+        worker2.join();
+    }
+
+    @Test
+    public void test130RequestBoundToAnotherWorkerIsReservedForIt() throws Exception {
+        given("a correlation value bound to worker-1");
+        RequestsBuffer<TestRequest> buffer = createBuffer(2);
+        buffer.offer(new TestRequest(1, 1));
+        TestRequest first = buffer.poll("worker-1");
+        assertThat(first.sequentialNumber).isEqualTo(1);
+
+        when("another request with the same value is taken from the global queue by worker-2");
+        buffer.offer(new TestRequest(2, 1));
+        TestRequest forWorker2 = buffer.poll("worker-2");
+
+        then("worker-2 does not get it, it is reserved for worker-1");
+        assertThat(forWorker2).isNull();
+        assertThat(buffer.getReservedRequestsCount("worker-1")).isEqualTo(1);
+        buffer.markProcessed(first, "worker-1");
+        TestRequest second = buffer.poll("worker-1");
+        assertThat(second.sequentialNumber).isEqualTo(2);
+        buffer.markProcessed(second, "worker-1");
+        assertThat(buffer.nackAllRequests(new OperationResult("dummy"))).isZero();
+    }
+
+    private RequestsBuffer<TestRequest> createBuffer(int threads) {
+        return new RequestsBuffer<>(threads, Comparator.comparingInt(r -> r.sequentialNumber));
+    }
+
+    /** Starts a worker that waits for a single request; returns after the worker is parked. */
+    private Thread startWaitingWorker(RequestsBuffer<TestRequest> buffer, String taskIdentifier,
+            AtomicReference<TestRequest> received, CountDownLatch done) throws InterruptedException {
+        Thread worker = new Thread(() -> {
+            try {
+                received.set(buffer.poll(taskIdentifier, LONG_WAIT));
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, taskIdentifier);
+        worker.start();
+        long deadline = System.currentTimeMillis() + MAX_WAKE_UP_DELAY;
+        while (worker.getState() != Thread.State.TIMED_WAITING) {
+            assertThat(System.currentTimeMillis()).as("worker started waiting in time").isLessThan(deadline);
+            //noinspection BusyWait
+            Thread.sleep(10);
+        }
+        return worker;
+    }
+
+    private static class TestRequest implements AcknowledgementSink, CorrelatableProcessingRequest {
+
+        private final int sequentialNumber;
+        private final int correlationValue;
+
+        private TestRequest(int sequentialNumber, int correlationValue) {
+            this.sequentialNumber = sequentialNumber;
+            this.correlationValue = correlationValue;
+        }
+
+        @Override
+        public Object getCorrelationValue() {
+            return correlationValue;
+        }
+
+        @Override
+        public void acknowledge(boolean release, OperationResult result) {
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequentialNumber + " (" + correlationValue + ")";
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.common.tasks;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Simple {@link WorkBucketStore} for tests of the bucket operations that keep buckets in the store.
+ * (The repository used in these tests does not provide one.)
+ */
+class InMemoryWorkBucketStore implements WorkBucketStore {
+
+    /** Buckets keyed by coordinator OID + activity path, sorted by sequential number. */
+    private final Map<String, SortedMap<Integer, WorkBucketType>> buckets = new HashMap<>();
+
+    /** Keys of activities whose buckets were deleted. */
+    private final List<String> deleted = new ArrayList<>();
+
+    @Override
+    public synchronized @Nullable WorkBucketType findDelegatedBucket(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull String workerOid, @NotNull OperationResult result) {
+        return get(coordinatorOid, activityPath).values().stream()
+                .filter(b -> b.getState() == WorkBucketStateType.DELEGATED && isDelegatedTo(b, workerOid))
+                .findFirst()
+                .map(WorkBucketType::clone)
+                .orElse(null);
+    }
+
+    @Override
+    public synchronized @Nullable WorkBucketType claimReadyBucket(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull String workerOid, @NotNull OperationResult result) {
+        WorkBucketType ready = get(coordinatorOid, activityPath).values().stream()
+                .filter(b -> b.getState() == WorkBucketStateType.READY)
+                .findFirst()
+                .orElse(null);
+        if (ready == null) {
+            return null;
+        }
+        ready.setState(WorkBucketStateType.DELEGATED);
+        ready.setWorkerRef(new ObjectReferenceType().oid(workerOid).type(TaskType.COMPLEX_TYPE));
+        return ready.clone();
+    }
+
+    @Override
+    public synchronized @Nullable WorkBucketType getLastBucket(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull OperationResult result) {
+        SortedMap<Integer, WorkBucketType> activityBuckets = get(coordinatorOid, activityPath);
+        return activityBuckets.isEmpty() ? null : activityBuckets.get(activityBuckets.lastKey()).clone();
+    }
+
+    @Override
+    public synchronized boolean addBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull List<WorkBucketType> newBuckets, @NotNull OperationResult result) {
+        SortedMap<Integer, WorkBucketType> activityBuckets = get(coordinatorOid, activityPath);
+        if (newBuckets.stream().anyMatch(b -> activityBuckets.containsKey(b.getSequentialNumber()))) {
+            return false;
+        }
+        for (WorkBucketType bucket : newBuckets) {
+            WorkBucketType clone = bucket.clone();
+            if (clone.getState() == null) {
+                clone.setState(WorkBucketStateType.READY);
+            }
+            activityBuckets.put(clone.getSequentialNumber(), clone);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void completeBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            int sequentialNumber, @Nullable String workerOid, @NotNull OperationResult result)
+            throws ObjectNotFoundException {
+        WorkBucketType bucket = get(coordinatorOid, activityPath).get(sequentialNumber);
+        if (bucket == null || workerOid != null && !isDelegatedTo(bucket, workerOid)) {
+            throw new ObjectNotFoundException("No bucket #" + sequentialNumber + " delegated to " + workerOid);
+        }
+        bucket.setState(WorkBucketStateType.COMPLETE);
+    }
+
+    @Override
+    public synchronized int releaseBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @Nullable Integer sequentialNumber, @NotNull OperationResult result) {
+        return makeReady(coordinatorOid, activityPath,
+                b -> isDelegatedTo(b, workerOid)
+                        && (sequentialNumber == null || sequentialNumber.equals(b.getSequentialNumber())));
+    }
+
+    @Override
+    public synchronized int reclaimBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull Collection<String> liveWorkerOids, @NotNull OperationResult result) {
+        return makeReady(coordinatorOid, activityPath,
+                b -> b.getWorkerRef() == null || !liveWorkerOids.contains(b.getWorkerRef().getOid()));
+    }
+
+    @Override
+    public synchronized int countCompleteBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result) {
+        return getBuckets(coordinatorOid, activityPath, WorkBucketStateType.COMPLETE).size();
+    }
+
+    @Override
+    public synchronized boolean hasDelegatedBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result) {
+        return !getBuckets(coordinatorOid, activityPath, WorkBucketStateType.DELEGATED).isEmpty();
+    }
+
+    @Override
+    public synchronized boolean hasUnfinishedBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result) {
+        return get(coordinatorOid, activityPath).values().stream()
+                .anyMatch(b -> b.getState() != WorkBucketStateType.COMPLETE);
+    }
+
+    @Override
+    public synchronized void deleteBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult result) {
+        String key = key(coordinatorOid, activityPath);
+        buckets.keySet().removeIf(k -> k.equals(key) || k.startsWith(activityPath.isEmpty() ? key : key + "/"));
+        deleted.add(key);
+    }
+
+    /** Returns (copies of) the buckets in given state. */
+    synchronized List<WorkBucketType> getBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull WorkBucketStateType state) {
+        return get(coordinatorOid, activityPath).values().stream()
+                .filter(b -> b.getState() == state)
+                .map(WorkBucketType::clone)
+                .collect(Collectors.toList());
+    }
+
+    synchronized boolean wereBucketsDeleted(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath) {
+        return deleted.contains(key(coordinatorOid, activityPath));
+    }
+
+    synchronized void clear() {
+        buckets.clear();
+        deleted.clear();
+    }
+
+    private int makeReady(String coordinatorOid, ActivityPath activityPath,
+            Predicate<WorkBucketType> selector) {
+        int count = 0;
+        for (WorkBucketType bucket : get(coordinatorOid, activityPath).values()) {
+            if (bucket.getState() == WorkBucketStateType.DELEGATED && selector.test(bucket)) {
+                bucket.setState(WorkBucketStateType.READY);
+                bucket.setWorkerRef(null);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean isDelegatedTo(WorkBucketType bucket, String workerOid) {
+        return bucket.getWorkerRef() != null && workerOid.equals(bucket.getWorkerRef().getOid());
+    }
+
+    private SortedMap<Integer, WorkBucketType> get(String coordinatorOid, ActivityPath activityPath) {
+        return buckets.computeIfAbsent(key(coordinatorOid, activityPath), k -> new TreeMap<>());
+    }
+
+    private String key(String coordinatorOid, ActivityPath activityPath) {
+        return coordinatorOid + ":" + activityPath;
+    }
+}
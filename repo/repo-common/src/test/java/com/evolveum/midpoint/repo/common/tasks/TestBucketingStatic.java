@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.function.Consumer;
 import javax.annotation.PostConstruct;
 
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.BucketingConfigurationOverrides;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.GetBucketOperationOptions.GetBucketOperationOptionsBuilder;
@@ -100,6 +101,10 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
     private static final TestResource<TaskType> TASK_210_WORKER_4 = new TestResource<>(TEST_DIR, "task-210-4.xml", "f1bb0e85-abac-4e61-8a3a-f72d40f3e8d6");
     private static final TestResource<TaskType> TASK_210_WORKER_5 = new TestResource<>(TEST_DIR, "task-210-5.xml", "81e31c90-6546-4055-8371-a34ef79f5117");
 
+    private static final TestResource<TaskType> TASK_220_COORDINATOR = new TestResource<>(TEST_DIR, "task-220-c.xml", "5b0d3a51-9c36-4f43-9d1b-1a0d4a8f3b0e");
+    private static final TestResource<TaskType> TASK_220_WORKER_1 = new TestResource<>(TEST_DIR, "task-220-1.xml", "0c1d6f7e-3b5a-4b58-8e2e-6c4f0d9a1e21");
+    private static final TestResource<TaskType> TASK_220_WORKER_2 = new TestResource<>(TEST_DIR, "task-220-2.xml", "d7a9e2c4-8f16-4c0b-a3d5-2e7b9f4c6a82");
+
     @PostConstruct
     public void initialize() throws Exception {
         displayTestTitle("Initializing TEST CLASS: " + getClass().getName());
@@ -847,6 +852,109 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
         assertNumericBucket(buckets.get(0), WorkBucketStateType.COMPLETE, 5, 4, 5);
     }
 
+    /**
+     * Check a sequence of get / release / complete operations on coordinator + 2 worker tasks,
+     * with the buckets kept in the repository bucket store.
+     */
+    @Test
+    public void test220GetReleaseCompleteInBucketStore() throws Exception {
+        given();
+        OperationResult result = createOperationResult();
+        taskAdd(TASK_220_COORDINATOR, result); // suspended
+        taskAdd(TASK_220_WORKER_1, result); // suspended
+        taskAdd(TASK_220_WORKER_2, result); // suspended
+
+        String oidC = TASK_220_COORDINATOR.oid;
+        String oidW1 = TASK_220_WORKER_1.oid;
+        String oidW2 = TASK_220_WORKER_2.oid;
+
+        WorkBucketStore originalBucketStore = beans.workBucketStore;
+        InMemoryWorkBucketStore bucketStore = new InMemoryWorkBucketStore();
+        beans.workBucketStore = bucketStore;
+        try {
+            Task coordinator = taskManager.getTaskPlain(oidC, result);
+
+            when("buckets are obtained");
+
+            WorkBucketType bucket1 = getWorkBucket(coordinator, oidW1, result);
+            WorkBucketType bucket2 = getWorkBucket(coordinator, oidW2, result);
+            WorkBucketType bucket1a = getWorkBucket(coordinator, oidW1, result); // the same as bucket1 (the same worker)
+
+            then("buckets are obtained");
+
+            coordinator = taskManager.getTaskPlain(oidC, result);
+            displayDumpable("coordinator after allocation", coordinator);
+
+            assertNumericBucket(bucket1, WorkBucketStateType.DELEGATED, 1, 0, 1);
+            assertNumericBucket(bucket2, WorkBucketStateType.DELEGATED, 2, 1, 2);
+            assertNumericBucket(bucket1a, WorkBucketStateType.DELEGATED, 1, 0, 1);
+            ActivityBucketingStateType bucketing = coordinator.getWorkState().getActivity().getBucketing();
+            assertThat(bucketing.getBucketStore()).as("bucket store").isEqualTo(WorkBucketStoreType.REPOSITORY);
+            assertThat(bucketing.getBucket()).as("buckets in coordinator task").isEmpty();
+            assertThat(bucketStore.getBuckets(oidC, ActivityPath.empty(), WorkBucketStateType.DELEGATED)).hasSize(2);
+
+            when("release bucket #2 and get it again");
+
+            bucketingManager.releaseWorkBucket(oidC, oidW2, ActivityPath.empty(), 2, null, result);
+            List<WorkBucketType> readyAfterRelease = bucketStore.getBuckets(oidC, ActivityPath.empty(), READY);
+            WorkBucketType bucket2a = getWorkBucket(coordinator, oidW2, result);
+
+            then("release bucket #2 and get it again");
+
+            assertThat(readyAfterRelease).hasSize(1);
+            assertNumericBucket(readyAfterRelease.get(0), READY, 2, 1, 2);
+            assertNumericBucket(bucket2a, WorkBucketStateType.DELEGATED, 2, 1, 2);
+
+            when("complete bucket #1 and get the next one");
+
+            bucketingManager.completeWorkBucket(oidC, oidW1, ActivityPath.empty(), 1, null, null, result);
+            WorkBucketType bucket3 = getWorkBucket(coordinator, oidW1, result);
+
+            then("complete bucket #1 and get the next one");
+
+            assertNumericBucket(bucket3, WorkBucketStateType.DELEGATED, 3, 2, 3);
+            assertThat(bucketStore.getBuckets(oidC, ActivityPath.empty(), COMPLETE)).hasSize(1);
+
+            when("complete bucket #2, no more buckets");
+
+            bucketingManager.completeWorkBucket(oidC, oidW2, ActivityPath.empty(), 2, null, null, result);
+            WorkBucketType nothing = getWorkBucket(coordinator, oidW2, result);
+
+            then("complete bucket #2, no more buckets");
+
+            assertNull("Found bucket even if none should be found", nothing);
+            coordinator = taskManager.getTaskPlain(oidC, result);
+            displayDumpable("coordinator after no more buckets were found", coordinator);
+            ActivityStateType state = coordinator.getWorkState().getActivity();
+            assertThat(BucketingUtil.isInScavengingPhase(coordinator.getWorkState(), ActivityPath.empty()))
+                    .as("scavenging").isTrue();
+            assertThat(BucketingUtil.isWorkComplete(state))
+                    .as("work complete (while bucket #3 is being processed)").isFalse();
+
+            when("complete bucket #3");
+
+            bucketingManager.completeWorkBucket(oidC, oidW1, ActivityPath.empty(), 3, null, null, result);
+
+            then("complete bucket #3");
+
+            coordinator = taskManager.getTaskPlain(oidC, result);
+            displayDumpable("coordinator after completion of the last bucket", coordinator);
+            state = coordinator.getWorkState().getActivity();
+            assertThat(BucketingUtil.isWorkComplete(state)).as("work complete").isTrue();
+            assertThat(bucketStore.getBuckets(oidC, ActivityPath.empty(), COMPLETE)).hasSize(3);
+
+            when("stored buckets are deleted");
+
+            bucketingManager.deleteStoredBuckets(oidC, ActivityPath.empty(), state, result);
+
+            then("stored buckets are deleted");
+
+            assertThat(bucketStore.getLastBucket(oidC, ActivityPath.empty(), result)).isNull();
+        } finally {
+            beans.workBucketStore = originalBucketStore;
+        }
+    }
+
     // TODO some test for batch allocation
 
     private WorkBucketType assumeNextValue(BucketFactory bucketFactory, ActivityStateType workState,
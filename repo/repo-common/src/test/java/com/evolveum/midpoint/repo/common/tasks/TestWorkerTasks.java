@@ -14,6 +14,8 @@ import java.util.List;
 import java.util.Map;
 import javax.annotation.PostConstruct;
 
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.BucketingConfigurationOverrides;
 import com.evolveum.midpoint.test.asserter.TaskAsserter;
 
@@ -48,6 +50,7 @@ public class TestWorkerTasks extends AbstractRepoCommonTest {
     private static final TestResource<TaskType> TASK_150_WORKERS_MOVE = new TestResource<>(TEST_DIR, "task-150-workers-move.xml", "f3efb438-c573-4631-bbff-ba9e09b3ae03");
     private static final TestResource<TaskType> TASK_160_WORKERS_ADD_DELETE = new TestResource<>(TEST_DIR, "task-160-workers-add-delete.xml", "9e94e921-d319-422a-b9d6-9e98d9034975");
     private static final TestResource<TaskType> TASK_170_NUMBER_SEGMENTATION_NUMBER_OF_BUCKETS = new TestResource<>(TEST_DIR, "task-170-num-seg-num-of-buckets.xml", "33b0f9bb-15bd-4f64-bd08-11aad034e77e");
+    private static final TestResource<TaskType> TASK_180_BUCKET_STORE = new TestResource<>(TEST_DIR, "task-180-bucket-store.xml", "6a3f1c2e-7d84-4e5b-9b0a-3c8e5f2d7a19");
 
     private static final File SYSTEM_CONFIGURATION_FILE = new File(TEST_DIR, "system-configuration.xml");
 
@@ -67,6 +70,8 @@ public class TestWorkerTasks extends AbstractRepoCommonTest {
 
     @Autowired private ClusterManager clusterManager;
 
+    @Autowired private CommonTaskBeans beans;
+
     @PostConstruct
     public void initialize() throws Exception {
         OperationResult result = new OperationResult("initialize");
@@ -819,4 +824,74 @@ public class TestWorkerTasks extends AbstractRepoCommonTest {
                 .end();
         // @formatter:on
     }
+
+    /**
+     * Two workers processing roles (in 4 buckets) with the buckets kept in the repository bucket store.
+     *
+     * The second run checks that the buckets of the first run are deleted when the activity state is purged.
+     */
+    @Test
+    public void test180BucketStore() throws Exception {
+        given();
+        OperationResult result = createOperationResult();
+
+        mockRecorder.reset();
+
+        assumeNoExtraClusterNodes(result);
+
+        List<RoleType> roles = allRoles.subList(0, 4);
+
+        WorkBucketStore originalBucketStore = beans.workBucketStore;
+        InMemoryWorkBucketStore bucketStore = new InMemoryWorkBucketStore();
+        beans.workBucketStore = bucketStore;
+
+        when();
+        Task root = taskAdd(TASK_180_BUCKET_STORE, result);
+
+        then();
+        try {
+            waitForTaskTreeCloseCheckingSuspensionWithError(root.getOid(), result, DEFAULT_TIMEOUT, DEFAULT_SLEEP_INTERVAL);
+
+            root.refresh(result);
+            assertTaskTreeAfter180("after 1st run", root, bucketStore, result);
+            assertExecutions(roles, 1);
+
+            when("second run");
+            taskManager.scheduleTasksNow(List.of(root.getOid()), result);
+
+            then("second run");
+            waitForTaskTreeCloseCheckingSuspensionWithError(root.getOid(), result, DEFAULT_TIMEOUT, DEFAULT_SLEEP_INTERVAL);
+
+            root.refresh(result);
+            assertThat(bucketStore.wereBucketsDeleted(root.getOid(), ActivityPath.empty()))
+                    .as("buckets of the first run deleted")
+                    .isTrue();
+            assertTaskTreeAfter180("after 2nd run", root, bucketStore, result);
+            assertExecutions(roles, 2);
+
+        } finally {
+            suspendAndDeleteTasks(root.getOid());
+            beans.workBucketStore = originalBucketStore;
+        }
+    }
+
+    private void assertTaskTreeAfter180(String message, Task root, InMemoryWorkBucketStore bucketStore,
+            OperationResult result) throws SchemaException {
+        // @formatter:off
+        assertTask(root, message)
+                .display()
+                .assertClosed()
+                .assertSuccess()
+                .loadSubtasksDeeply(result)
+                .assertSubtasks(2);
+        // @formatter:on
+
+        ActivityBucketingStateType bucketing = root.getWorkState().getActivity().getBucketing();
+        assertThat(bucketing.getBucketStore()).as("bucket store").isEqualTo(WorkBucketStoreType.REPOSITORY);
+        assertThat(bucketing.getBucket()).as("buckets in coordinator task").isEmpty();
+        assertThat(bucketing.isWorkComplete()).as("work complete").isTrue();
+        assertThat(bucketStore.getBuckets(root.getOid(), ActivityPath.empty(), WorkBucketStateType.COMPLETE))
+                .as("complete buckets in the store")
+                .hasSize(4);
+    }
 }
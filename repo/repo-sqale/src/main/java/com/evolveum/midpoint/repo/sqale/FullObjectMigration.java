@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.Expressions;
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.repo.sqale.mapping.BinaryFullObject;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.MObjectType;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QObject;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QObjectMapping;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Converts text fullObject of existing objects to the binary form (see {@link BinaryFullObject})
+ * in a background thread, while the repository is used normally.
+ *
+ * Objects are read in small batches ordered by OID, each object is then updated in its own transaction.
+ * The row is updated only if its version was not changed since it was read, so concurrent
+ * modifications always win (and they write the binary form anyway).
+ * Rows that can't be converted are left as they are, the migration continues with the next OID.
+ *
+ * Only `fullObject` of objects is converted, containers with their own serialized form
+ * (e.g. certification cases) are converted when they are modified next time.
+ */
+public class FullObjectMigration {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FullObjectMigration.class);
+
+    private static final int BATCH_SIZE = 100;
+    private static final long PAUSE_BETWEEN_BATCHES_MS = 50;
+
+    private final SqaleRepoContext repositoryContext;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public FullObjectMigration(@NotNull SqaleRepoContext repositoryContext) {
+        this.repositoryContext = repositoryContext;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::migrate, "midpoint-repo-fullobject-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void migrate() {
+        LOGGER.info("Starting migration of fullObject to binary form");
+        UUID lastOid = null;
+        long converted = 0;
+        long failed = 0;
+        try {
+            while (running) {
+                BatchResult batch = migrateBatch(lastOid);
+                if (batch.lastOid == null) {
+                    break;
+                }
+                lastOid = batch.lastOid;
+                converted += batch.converted;
+                failed += batch.failed;
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.error("Migration of fullObject to binary form failed after {} objects", converted, e);
+            return;
+        }
+
+        if (running) {
+            LOGGER.info("Migration of fullObject to binary form finished, {} objects converted, {} failed",
+                    converted, failed);
+        } else {
+            LOGGER.info("Migration of fullObject to binary form stopped after {} converted objects", converted);
+        }
+    }
+
+    private BatchResult migrateBatch(UUID lastOid) {
+        BatchResult result = new BatchResult();
+        QObject<?> o = QObjectMapping.getObjectMapping().defaultAlias();
+        List<Tuple> rows;
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startReadOnlyTransaction()) {
+            Predicate condition = Expressions.numberTemplate(
+                    Integer.class, "get_byte({0}, 0)", o.fullObject).ne((int) BinaryFullObject.MARKER);
+            if (lastOid != null) {
+                condition = o.oid.gt(lastOid).and(condition);
+            }
+            rows = jdbcSession.newQuery()
+                    .select(o.oid, o.objectType, o.version, o.fullObject)
+                    .from(o)
+                    .where(condition)
+                    .orderBy(o.oid.asc())
+                    .limit(BATCH_SIZE)
+                    .fetch();
+            jdbcSession.commit();
+        }
+
+        // Each row is updated in its own short transaction. A failed statement aborts the whole
+        // transaction in PostgreSQL, so one bad row must not take the rest of the batch with it.
+        for (Tuple row : rows) {
+            UUID oid = row.get(o.oid);
+            result.lastOid = oid;
+            try {
+                MObjectType objectType = row.get(o.objectType);
+                //noinspection ConstantConditions - not null column
+                QObjectMapping<?, ?, ?> mapping = (QObjectMapping<?, ?, ?>)
+                        repositoryContext.getMappingBySchemaType(objectType.getSchemaType());
+                byte[] binaryForm = mapping.reserializeFullObject(row.get(o.fullObject), String.valueOf(oid));
+                try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startTransaction()) {
+                    result.converted += jdbcSession.newUpdate(o)
+                            .set(o.fullObject, binaryForm)
+                            .where(o.oid.eq(oid).and(o.version.eq(row.get(o.version))))
+                            .execute();
+                    jdbcSession.commit();
+                }
+            } catch (Exception e) {
+                result.failed++;
+                LOGGER.warn("Couldn't convert fullObject of object {} to binary form: {}", oid, e.toString());
+            }
+        }
+        return result;
+    }
+
+    private static class BatchResult {
+        private UUID lastOid;
+        private int converted;
+        private int failed;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Keyset (seek) pagination used by iterative search.
+ * Instead of offset, each page starts after the last object of the previous page, using the values
+ * of the ordering items of that object.
+ * OID is always added as the last ordering item, so the ordering is total and each object is returned once.
+ * If OID ordering is provided explicitly, its direction is kept, otherwise it is ascending.
+ *
+ * For ordering by X, Y (and implicit OID), the condition for the next page is:
+ *
+ * ----
+ * X > last.X
+ * OR (X = last.X AND Y > last.Y)
+ * OR (X = last.X AND Y = last.Y AND OID > last.OID)
+ * ----
+ *
+ * The condition `>` or `<` depends on `ASC` vs `DESC`.
+ * Null values are supported as well, respecting PostgreSQL default ordering of nulls:
+ * "By default, null values sort as if larger than any non-null value; that is,
+ * NULLS FIRST is the default for DESC order, and NULLS LAST otherwise."
+ * See: https://www.postgresql.org/docs/13/queries-order.html
+ * So "greater than null" in ASC order is nothing, "after null" in DESC order is any non-null value,
+ * "after X" in ASC order includes null values and equality with null is IS NULL condition.
+ *
+ * Only single-value items can be used for ordering.
+ */
+public class KeysetPaging<T extends ObjectType> {
+
+    static final ItemPath OID_PATH = ItemPath.create(PrismConstants.T_ID);
+
+    @NotNull private final PrismContext prismContext;
+    @NotNull private final Class<T> type;
+    @NotNull private final List<ObjectOrdering> ordering = new ArrayList<>();
+    @NotNull private final OrderDirection oidDirection;
+
+    public KeysetPaging(
+            @NotNull PrismContext prismContext,
+            @NotNull Class<T> type,
+            @Nullable List<? extends ObjectOrdering> providedOrdering) {
+        this.prismContext = prismContext;
+        this.type = type;
+        OrderDirection providedOidDirection = null;
+        if (providedOrdering != null) {
+            for (ObjectOrdering objectOrdering : providedOrdering) {
+                if (OID_PATH.equivalent(objectOrdering.getOrderBy())) {
+                    // OID is unique, anything after it would not change the order
+                    providedOidDirection = objectOrdering.getDirection();
+                    break;
+                }
+                ordering.add(objectOrdering);
+            }
+        }
+        this.oidDirection = providedOidDirection == OrderDirection.DESCENDING
+                ? OrderDirection.DESCENDING
+                : OrderDirection.ASCENDING;
+    }
+
+    /**
+     * Creates paging with the provided ordering followed by OID ordering (in the provided direction, ascending by default).
+     * Null page size means no limit, which is used for iteration with cursor.
+     */
+    public @NotNull ObjectPaging createPaging(@Nullable Integer pageSize) {
+        ObjectPaging paging = prismContext.queryFactory().createPaging();
+        for (ObjectOrdering objectOrdering : ordering) {
+            paging.addOrderingInstruction(objectOrdering.getOrderBy(), objectOrdering.getDirection());
+        }
+        paging.addOrderingInstruction(OID_PATH, oidDirection);
+        paging.setMaxSize(pageSize);
+        return paging;
+    }
+
+    /**
+     * Returns the condition for objects after the provided object, or null if there is no last object yet.
+     */
+    public @Nullable ObjectFilter afterCondition(@Nullable PrismObject<T> lastObject) {
+        if (lastObject == null) {
+            return null;
+        }
+
+        List<ObjectFilter> alternatives = new ArrayList<>();
+        // equality conditions for the items before the current one
+        List<ObjectFilter> equalPrefix = new ArrayList<>();
+        for (ObjectOrdering objectOrdering : ordering) {
+            ItemPath path = objectOrdering.getOrderBy();
+            Object lastValue = orderingValue(lastObject, path);
+            boolean asc = objectOrdering.getDirection() != OrderDirection.DESCENDING;
+
+            ObjectFilter after = afterValue(path, lastValue, asc);
+            if (after != null) {
+                alternatives.add(and(equalPrefix, after));
+            }
+            equalPrefix.add(equalTo(path, lastValue));
+        }
+        alternatives.add(and(equalPrefix, afterOid(lastObject.getOid())));
+
+        return alternatives.size() == 1
+                ? alternatives.get(0)
+                : prismContext.queryFactory().createOr(alternatives);
+    }
+
+    private Object orderingValue(PrismObject<T> object, ItemPath path) {
+        Item<?, ?> item = object.findItem(path);
+        if (item == null || item.isEmpty()) {
+            return null;
+        }
+        if (item.size() > 1) {
+            throw new IllegalArgumentException(
+                    "Multi-value property for ordering is forbidden - item: " + item);
+        }
+        return item.getRealValue();
+    }
+
+    /** Returns null if there is nothing after the value. */
+    private @Nullable ObjectFilter afterValue(ItemPath path, Object value, boolean asc) {
+        if (value == null) {
+            return asc
+                    ? null // nulls are last
+                    : prismContext.queryFor(type).not().item(path).isNull().buildFilter();
+        }
+
+        if (asc) {
+            return prismContext.queryFor(type)
+                    .item(path).gt(value)
+                    .or().item(path).isNull()
+                    .buildFilter();
+        } else {
+            return prismContext.queryFor(type).item(path).lt(value).buildFilter();
+        }
+    }
+
+    private ObjectFilter afterOid(String lastOid) {
+        return oidDirection == OrderDirection.DESCENDING
+                ? prismContext.queryFor(type).item(OID_PATH).lt(lastOid).buildFilter()
+                : prismContext.queryFor(type).item(OID_PATH).gt(lastOid).buildFilter();
+    }
+
+    private ObjectFilter equalTo(ItemPath path, Object value) {
+        return value == null
+                ? prismContext.queryFor(type).item(path).isNull().buildFilter()
+                : prismContext.queryFor(type).item(path).eq(value).buildFilter();
+    }
+
+    private ObjectFilter and(List<ObjectFilter> equalPrefix, ObjectFilter condition) {
+        if (equalPrefix.isEmpty()) {
+            return condition;
+        }
+        List<ObjectFilter> conditions = new ArrayList<>(equalPrefix.size() + 1);
+        for (ObjectFilter filter : equalPrefix) {
+            conditions.add(filter.clone());
+        }
+        conditions.add(condition);
+        return prismContext.queryFactory().createAnd(conditions);
+    }
+
+    @Override
+    public String toString() {
+        return "KeysetPaging{" +
+                "type=" + type.getSimpleName() +
+                ", ordering=" + ordering +
+                ", oidDirection=" + oidDirection +
+                '}';
+    }
+}
@@ -194,6 +194,12 @@ public class SqaleRepoContext extends SqlRepoContext {
                 fullTextSearchConfig, prismObject.getCompileTimeClass(), modifications);
     }
 
+    /** Returns true if fullObject should be written in binary form. */
+    public boolean isFullObjectBinary() {
+        return getJdbcRepositoryConfiguration() instanceof SqaleRepositoryConfiguration
+                && ((SqaleRepositoryConfiguration) getJdbcRepositoryConfiguration()).isFullObjectBinary();
+    }
+
     public byte[] createFullResult(OperationResultType operationResult) {
         try {
             // Note that escaping invalid characters and using toString for unsupported types
@@ -19,6 +19,7 @@ import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.repo.api.SqlPerformanceMonitorsCollection;
 import com.evolveum.midpoint.repo.api.SystemConfigurationChangeDispatcher;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.sqale.audit.SqaleAuditServiceFactory;
 import com.evolveum.midpoint.repo.sqale.qmodel.accesscert.QAccessCertificationCampaignMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.accesscert.QAccessCertificationCaseMapping;
@@ -200,6 +201,11 @@ public class SqaleRepositoryBeanConfig {
                 sqlPerformanceMonitorsCollection);
     }
 
+    @Bean
+    public WorkBucketStore workBucketStore(SqaleRepoContext sqlRepoContext) {
+        return new SqaleWorkBucketStore(sqlRepoContext);
+    }
+
     @Bean
     public AuditServiceFactory sqlAuditServiceFactory(
             SqaleRepositoryConfiguration sqaleRepositoryConfiguration,
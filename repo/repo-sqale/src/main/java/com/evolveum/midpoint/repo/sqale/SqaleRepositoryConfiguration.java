@@ -57,6 +57,41 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
     private static final int DEFAULT_ITERATIVE_SEARCH_PAGE_SIZE = 100;
 
+    /**
+     * Whether the next page of iterative search is fetched in the background while the handler
+     * processes the current page.
+     */
+    public static final String PROPERTY_ITERATIVE_SEARCH_PREFETCH = "iterativeSearchPrefetch";
+
+    /**
+     * Maximal number of threads fetching pages of iterative searches in the background.
+     * Each of them uses a connection, so the default is a quarter of the max pool size.
+     * If all of them are busy, the next page is fetched by the searching thread itself.
+     */
+    public static final String PROPERTY_ITERATIVE_SEARCH_PREFETCH_THREADS = "iterativeSearchPrefetchThreads";
+
+    /**
+     * Fetch size for iterative search executed as a single query with server-side cursor.
+     * Zero (default) means that iterative search is executed page by page.
+     * Cursor keeps the transaction and connection open for the whole iteration, so it is suitable
+     * for bulk reads like exports or recomputation, but it also holds back vacuum for that time.
+     */
+    public static final String PROPERTY_ITERATIVE_SEARCH_CURSOR_FETCH_SIZE = "iterativeSearchCursorFetchSize";
+
+    /**
+     * Whether fullObject is written in binary form, see
+     * {@link com.evolveum.midpoint.repo.sqale.mapping.BinaryFullObject}.
+     * Both binary and text forms are always readable, the format of the parts
+     * of the binary form is still specified by {@link #PROPERTY_FULL_OBJECT_FORMAT}.
+     */
+    public static final String PROPERTY_FULL_OBJECT_BINARY = "fullObjectBinary";
+
+    /**
+     * Whether existing text fullObjects are converted to the binary form in the background.
+     * Used only if {@link #PROPERTY_FULL_OBJECT_BINARY} is enabled.
+     */
+    public static final String PROPERTY_FULL_OBJECT_MIGRATION = "fullObjectMigration";
+
     @NotNull private final Configuration configuration;
 
     // either dataSource or JDBC URL must be set
@@ -76,11 +111,16 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
     private Long leakDetectionThreshold;
 
     private String fullObjectFormat;
+    private boolean fullObjectBinary;
+    private boolean fullObjectMigration;
 
     private String performanceStatisticsFile;
     private int performanceStatisticsLevel;
 
     private int iterativeSearchByPagingBatchSize;
+    private boolean iterativeSearchPrefetch;
+    private int iterativeSearchPrefetchThreads;
+    private int iterativeSearchCursorFetchSize;
     private boolean createMissingCustomColumns;
 
     // Provided with configuration node "midpoint.repository".
@@ -124,6 +164,8 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
         fullObjectFormat = configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, DEFAULT_FULL_OBJECT_FORMAT)
                 .toLowerCase(); // all language string constants are lower-cases
+        fullObjectBinary = configuration.getBoolean(PROPERTY_FULL_OBJECT_BINARY, false);
+        fullObjectMigration = configuration.getBoolean(PROPERTY_FULL_OBJECT_MIGRATION, false);
 
         performanceStatisticsFile = configuration.getString(PROPERTY_PERFORMANCE_STATISTICS_FILE);
         performanceStatisticsLevel = configuration.getInt(PROPERTY_PERFORMANCE_STATISTICS_LEVEL,
@@ -131,6 +173,10 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
         iterativeSearchByPagingBatchSize = configuration.getInt(
                 PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, DEFAULT_ITERATIVE_SEARCH_PAGE_SIZE);
+        iterativeSearchPrefetch = configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_PREFETCH, true);
+        iterativeSearchPrefetchThreads = Math.max(1,
+                configuration.getInt(PROPERTY_ITERATIVE_SEARCH_PREFETCH_THREADS, maxPoolSize / 4));
+        iterativeSearchCursorFetchSize = configuration.getInt(PROPERTY_ITERATIVE_SEARCH_CURSOR_FETCH_SIZE, 0);
         createMissingCustomColumns =
                 configuration.getBoolean(PROPERTY_CREATE_MISSING_CUSTOM_COLUMNS, false);
 
@@ -205,6 +251,22 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
         return fullObjectFormat;
     }
 
+    /**
+     * Returns true if fullObject is written in binary form, see {@link #PROPERTY_FULL_OBJECT_BINARY}.
+     */
+    public boolean isFullObjectBinary() {
+        return fullObjectBinary;
+    }
+
+    // exists because of testing
+    public void setFullObjectBinary(boolean fullObjectBinary) {
+        this.fullObjectBinary = fullObjectBinary;
+    }
+
+    public boolean isFullObjectMigration() {
+        return fullObjectBinary && fullObjectMigration;
+    }
+
     @Override
     public boolean isEmbedded() {
         return false;
@@ -287,6 +349,32 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    public boolean isIterativeSearchPrefetch() {
+        return iterativeSearchPrefetch;
+    }
+
+    // exists because of testing
+    public void setIterativeSearchPrefetch(boolean iterativeSearchPrefetch) {
+        this.iterativeSearchPrefetch = iterativeSearchPrefetch;
+    }
+
+    public int getIterativeSearchPrefetchThreads() {
+        return iterativeSearchPrefetchThreads;
+    }
+
+    public int getIterativeSearchCursorFetchSize() {
+        return iterativeSearchCursorFetchSize;
+    }
+
+    public boolean isIterativeSearchCursor() {
+        return iterativeSearchCursorFetchSize > 0;
+    }
+
+    // exists because of testing
+    public void setIterativeSearchCursorFetchSize(int iterativeSearchCursorFetchSize) {
+        this.iterativeSearchCursorFetchSize = iterativeSearchCursorFetchSize;
+    }
+
     @Override
     public boolean isCreateMissingCustomColumns() {
         return createMissingCustomColumns;
@@ -304,6 +392,10 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
                         .toLowerCase();
         config.iterativeSearchByPagingBatchSize = auditConfig.getInt(
                 PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, mainRepoConfig.iterativeSearchByPagingBatchSize);
+        config.iterativeSearchPrefetch = auditConfig.getBoolean(
+                PROPERTY_ITERATIVE_SEARCH_PREFETCH, mainRepoConfig.iterativeSearchPrefetch);
+        config.iterativeSearchCursorFetchSize = auditConfig.getInt(
+                PROPERTY_ITERATIVE_SEARCH_CURSOR_FETCH_SIZE, mainRepoConfig.iterativeSearchCursorFetchSize);
         config.createMissingCustomColumns = auditConfig.getBoolean(
                 PROPERTY_CREATE_MISSING_CUSTOM_COLUMNS, mainRepoConfig.createMissingCustomColumns);
 
@@ -8,13 +8,22 @@ package com.evolveum.midpoint.repo.sqale;
 
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
 
-import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Objects;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.xml.namespace.QName;
@@ -23,8 +32,6 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ObjectArrays;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Path;
-import com.querydsl.core.types.dsl.Expressions;
-import com.querydsl.sql.SQLQuery;
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,8 +47,6 @@ import com.evolveum.midpoint.prism.equivalence.EquivalenceStrategy;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.*;
-import com.evolveum.midpoint.prism.query.builder.S_ConditionEntry;
-import com.evolveum.midpoint.prism.query.builder.S_MatchingRuleEntry;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
@@ -49,11 +54,7 @@ import com.evolveum.midpoint.repo.sqale.mapping.SqaleTableMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.MObject;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.MObjectType;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.QObject;
-import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrg;
 import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgClosure;
-import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgMapping;
-import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReference;
-import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReferenceMapping;
 import com.evolveum.midpoint.repo.sqale.update.AddObjectContext;
 import com.evolveum.midpoint.repo.sqale.update.RootUpdateContext;
 import com.evolveum.midpoint.repo.sqlbase.*;
@@ -69,6 +70,7 @@ import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.FocusTypeUtil;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
+import com.evolveum.midpoint.util.Holder;
 import com.evolveum.midpoint.util.PrettyPrinter;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -118,6 +120,12 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
     private FullTextSearchConfigurationType fullTextSearchConfiguration;
 
+    /** Executor for prefetching of iterative search pages, created when needed. */
+    private ExecutorService prefetchExecutor;
+
+    /** Background conversion of fullObject to binary form, started in {@link #postInit} if enabled. */
+    private FullObjectMigration fullObjectMigration;
+
     public SqaleRepositoryService(
             SqaleRepoContext repositoryContext,
             SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
@@ -302,30 +310,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                 .build();
 
         try {
-            PolyString name = object.getName();
-            if (name == null || Strings.isNullOrEmpty(name.getOrig())) {
-                throw new SchemaException("Attempt to add object without name.");
-            }
-
-            //noinspection ConstantConditions
-            logger.debug(
-                    "Adding object type '{}', overwrite={}, allowUnencryptedValues={}, name={} - {}",
-                    object.getCompileTimeClass().getSimpleName(), options.isOverwrite(),
-                    options.isAllowUnencryptedValues(), name.getOrig(), name.getNorm());
-
-            if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
-                CryptoUtil.checkEncrypted(object);
-            }
-
-            if (InternalsConfig.consistencyChecks) {
-                object.checkConsistence(ConsistencyCheckScope.THOROUGH);
-            } else {
-                object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
-            }
-
-            if (object.getVersion() == null) {
-                object.setVersion("1");
-            }
+            checkObjectToAdd(object, options);
 
             return object.getOid() == null || !options.isOverwrite()
                     ? executeAddObject(object)
@@ -341,6 +326,35 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    private void checkObjectToAdd(
+            @NotNull PrismObject<? extends ObjectType> object, @NotNull RepoAddOptions options)
+            throws SchemaException {
+        PolyString name = object.getName();
+        if (name == null || Strings.isNullOrEmpty(name.getOrig())) {
+            throw new SchemaException("Attempt to add object without name.");
+        }
+
+        //noinspection ConstantConditions
+        logger.debug(
+                "Adding object type '{}', overwrite={}, allowUnencryptedValues={}, name={} - {}",
+                object.getCompileTimeClass().getSimpleName(), options.isOverwrite(),
+                options.isAllowUnencryptedValues(), name.getOrig(), name.getNorm());
+
+        if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
+            CryptoUtil.checkEncrypted(object);
+        }
+
+        if (InternalsConfig.consistencyChecks) {
+            object.checkConsistence(ConsistencyCheckScope.THOROUGH);
+        } else {
+            object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
+        }
+
+        if (object.getVersion() == null) {
+            object.setVersion("1");
+        }
+    }
+
     private <T extends ObjectType> String executeAddObject(
             @NotNull PrismObject<T> object)
             throws SchemaException, ObjectAlreadyExistsException {
@@ -403,6 +417,126 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    /**
+     * Adds objects in a single transaction using JDBC batches for root rows and for rows of related
+     * entities (refs, assignments, etc.); this saves commit overhead and database round trips.
+     * If anything fails in the batch, it is rolled back and all objects are added one by one
+     * with {@link #addObject} to report the result for each object properly.
+     * Overwrite is not supported by the batch, objects are added one by one in that case.
+     */
+    @Override
+    public @NotNull List<RepoBulkItemResult<String>> addObjects(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            @Nullable RepoAddOptions options,
+            @NotNull OperationResult parentResult) {
+        Objects.requireNonNull(objects, "Objects must not be null.");
+        Objects.requireNonNull(parentResult, "Operation result must not be null.");
+
+        if (options == null) {
+            options = new RepoAddOptions();
+        }
+        if (options.isOverwrite()) {
+            return RepositoryService.super.addObjects(objects, options, parentResult);
+        }
+
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_ADD_OBJECTS)
+                .addParam("count", objects.size())
+                .addParam("options", options.toString())
+                .build();
+
+        try {
+            // null items are reserved for objects going to the batch
+            List<RepoBulkItemResult<String>> results = new ArrayList<>(Collections.nCopies(objects.size(), null));
+            List<Integer> batchIndexes = new ArrayList<>();
+            for (int i = 0; i < objects.size(); i++) {
+                PrismObject<? extends ObjectType> object = objects.get(i);
+                try {
+                    checkObjectToAdd(object, options);
+                    batchIndexes.add(i);
+                } catch (SchemaException | RuntimeException e) {
+                    results.set(i, RepoBulkItemResult.failure(object.getOid(), e));
+                }
+            }
+
+            if (!batchIndexes.isEmpty()) {
+                executeAddObjects(objects, batchIndexes, results, options, operationResult);
+            }
+            return results;
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    private void executeAddObjects(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            @NotNull List<Integer> batchIndexes,
+            @NotNull List<RepoBulkItemResult<String>> results,
+            @NotNull RepoAddOptions options,
+            @NotNull OperationResult operationResult) {
+        // OIDs are generated for the batch, these must be cleared again if the batch fails
+        boolean[] withoutOid = new boolean[batchIndexes.size()];
+        for (int i = 0; i < batchIndexes.size(); i++) {
+            withoutOid[i] = objects.get(batchIndexes.get(i)).getOid() == null;
+        }
+
+        long opHandle = registerOperationStart(OP_ADD_OBJECTS, ObjectType.class);
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            jdbcSession.startInsertBatching();
+            List<AddObjectContext<?, ?, ?>> contexts = new ArrayList<>(batchIndexes.size());
+            for (Integer index : batchIndexes) {
+                AddObjectContext<?, ?, ?> context = new AddObjectContext<>(sqlRepoContext, objects.get(index));
+                context.addRootRowToBatch(jdbcSession);
+                contexts.add(context);
+            }
+            // Root rows must be in the DB before the rows referencing them, hence two flushes.
+            jdbcSession.flushInsertBatches();
+            for (AddObjectContext<?, ?, ?> context : contexts) {
+                context.addRelatedEntitiesToBatch(jdbcSession);
+            }
+            jdbcSession.flushInsertBatches();
+            jdbcSession.commit();
+        } catch (SchemaException | RuntimeException e) {
+            logger.debug("Batched add of {} objects failed, adding them one by one: {}",
+                    batchIndexes.size(), e.toString());
+            addObjectsOneByOne(objects, batchIndexes, withoutOid, results, options, operationResult);
+            return;
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+
+        for (Integer index : batchIndexes) {
+            PrismObject<? extends ObjectType> object = objects.get(index);
+            String oid = object.getOid();
+            results.set(index, RepoBulkItemResult.success(oid, oid));
+            invokeConflictWatchers((w) -> w.afterAddObject(oid, object));
+            OperationLogger.logAdd(object, options, operationResult);
+        }
+    }
+
+    private void addObjectsOneByOne(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            @NotNull List<Integer> batchIndexes,
+            boolean[] withoutOid,
+            @NotNull List<RepoBulkItemResult<String>> results,
+            @NotNull RepoAddOptions options,
+            @NotNull OperationResult operationResult) {
+        for (int i = 0; i < batchIndexes.size(); i++) {
+            int index = batchIndexes.get(i);
+            PrismObject<? extends ObjectType> object = objects.get(index);
+            if (withoutOid[i]) {
+                object.setOid(null);
+            }
+            try {
+                String oid = addObject(object, options, operationResult);
+                results.set(index, RepoBulkItemResult.success(oid, oid));
+            } catch (ObjectAlreadyExistsException | SchemaException | RuntimeException e) {
+                results.set(index, RepoBulkItemResult.failure(object.getOid(), e));
+            }
+        }
+    }
+
     @Override
     @NotNull
     public <T extends ObjectType> ModifyObjectResult<T> modifyObject(
@@ -491,6 +625,91 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    /**
+     * Modifies objects in a single transaction to save the commit overhead.
+     * If any modification fails, the whole transaction is rolled back and all the deltas
+     * are executed one by one with {@link #modifyObject} to report the result for each object.
+     */
+    @Override
+    public @NotNull List<RepoBulkItemResult<ModifyObjectResult<?>>> modifyObjects(
+            @NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            @Nullable RepoModifyOptions options,
+            @NotNull OperationResult parentResult) {
+        Objects.requireNonNull(deltas, "Deltas must not be null.");
+        Objects.requireNonNull(parentResult, "Operation result must not be null.");
+        for (ObjectDelta<? extends ObjectType> delta : deltas) {
+            if (!delta.isModify()) {
+                throw new IllegalArgumentException("Only modify deltas are supported, got: " + delta);
+            }
+            checkOid(delta.getOid());
+        }
+
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_MODIFY_OBJECTS)
+                .addParam("count", deltas.size())
+                .addParam("options", String.valueOf(options))
+                .build();
+
+        try {
+            List<RepoBulkItemResult<ModifyObjectResult<?>>> results =
+                    executeModifyObjects(deltas, options, operationResult);
+            if (results == null) {
+                results = RepositoryService.super.modifyObjects(deltas, options, operationResult);
+            }
+            return results;
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    /** Returns null if the modifications could not be executed in a single transaction. */
+    private @Nullable List<RepoBulkItemResult<ModifyObjectResult<?>>> executeModifyObjects(
+            @NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            @Nullable RepoModifyOptions options,
+            @NotNull OperationResult operationResult) {
+        long opHandle = registerOperationStart(OP_MODIFY_OBJECTS, ObjectType.class);
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            List<RepoBulkItemResult<ModifyObjectResult<?>>> results = new ArrayList<>(deltas.size());
+            // Item results and conflict watcher notifications are published only if the transaction commits.
+            // Otherwise, the deltas are executed once more one by one, and would be reported twice.
+            List<OperationResult> itemResults = new ArrayList<>(deltas.size());
+            List<Runnable> watcherNotifications = new ArrayList<>();
+            for (ObjectDelta<? extends ObjectType> delta : deltas) {
+                OperationResult itemResult = new OperationResult(opNamePrefix + OP_MODIFY_OBJECT);
+                itemResult.addParam("oid", delta.getOid());
+                itemResults.add(itemResult);
+                results.add(RepoBulkItemResult.success(delta.getOid(),
+                        modifyObjectInTransaction(jdbcSession, delta, options, watcherNotifications, itemResult)));
+                itemResult.computeStatusIfUnknown();
+            }
+            jdbcSession.commit();
+            itemResults.forEach(operationResult::addSubresult);
+            watcherNotifications.forEach(Runnable::run);
+            return results;
+        } catch (SchemaException | ObjectNotFoundException | PreconditionViolationException
+                | RepositoryException | RuntimeException e) {
+            logger.debug("Modification of {} objects in a single transaction failed,"
+                    + " modifying them one by one: {}", deltas.size(), e.toString());
+            return null;
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+    }
+
+    private <T extends ObjectType> ModifyObjectResult<T> modifyObjectInTransaction(
+            @NotNull JdbcSession jdbcSession,
+            @NotNull ObjectDelta<T> delta,
+            @Nullable RepoModifyOptions options,
+            @NotNull List<Runnable> watcherNotifications,
+            @NotNull OperationResult operationResult)
+            throws SchemaException, ObjectNotFoundException, PreconditionViolationException, RepositoryException {
+        Collection<? extends ItemDelta<?, ?>> modifications = delta.getModifications();
+        RootUpdateContext<T, QObject<MObject>, MObject> updateContext = prepareUpdateContext(
+                jdbcSession, delta.getObjectTypeClass(), modifications, UUID.fromString(delta.getOid()), options);
+        return modifyObjectInternal(updateContext, modifications, null, options, watcherNotifications, operationResult);
+    }
+
     @Override
     public @NotNull <T extends ObjectType> ModifyObjectResult<T> modifyObjectDynamically(
             @NotNull Class<T> type,
@@ -580,6 +799,21 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             @Nullable RepoModifyOptions options,
             @NotNull OperationResult operationResult)
             throws SchemaException, PreconditionViolationException, RepositoryException {
+        return modifyObjectInternal(updateContext, modifications, precondition, options, null, operationResult);
+    }
+
+    /**
+     * @param deferredWatcherNotifications If not null, conflict watchers are not invoked directly;
+     * the invocations are collected here to be run after the transaction is committed.
+     */
+    private <T extends ObjectType> ModifyObjectResult<T> modifyObjectInternal(
+            @NotNull RootUpdateContext<T, QObject<MObject>, MObject> updateContext,
+            @NotNull Collection<? extends ItemDelta<?, ?>> modifications,
+            @Nullable ModificationPrecondition<T> precondition,
+            @Nullable RepoModifyOptions options,
+            @Nullable List<Runnable> deferredWatcherNotifications,
+            @NotNull OperationResult operationResult)
+            throws SchemaException, PreconditionViolationException, RepositoryException {
 
         if (options == null) {
             options = new RepoModifyOptions();
@@ -607,8 +841,8 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             throw new PreconditionViolationException(
                     "Modification precondition does not hold for " + prismObject);
         }
-        invokeConflictWatchers(w -> w.beforeModifyObject(prismObject));
-        PrismObject<T> originalObject = prismObject.clone(); // for result later
+        PrismObject<T> originalObject = prismObject.clone(); // for result later (and for deferred watchers)
+        invokeConflictWatchers(deferredWatcherNotifications, w -> w.beforeModifyObject(originalObject));
 
         boolean reindex = options.isForceReindex();
 
@@ -623,7 +857,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         logger.trace("OBJECT after:\n{}", prismObject.debugDumpLazily());
 
         if (!modifications.isEmpty()) {
-            invokeConflictWatchers((w) -> w.afterModifyObject(prismObject.getOid()));
+            invokeConflictWatchers(deferredWatcherNotifications, (w) -> w.afterModifyObject(prismObject.getOid()));
         }
         return new ModifyObjectResult<>(originalObject, prismObject, modifications);
     }
@@ -813,7 +1047,18 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                 .where(entityPath.oid.eq(oid))
                 .execute();
 
-        return new DeleteObjectResult(new String(fullObject, StandardCharsets.UTF_8));
+        return new DeleteObjectResult(fullObjectToText(mapping, fullObject, oid));
+    }
+
+    private <T extends ObjectType, Q extends QObject<R>, R extends MObject> String fullObjectToText(
+            QueryTableMapping<T, Q, R> mapping, byte[] fullObject, UUID oid) {
+        try {
+            return ((SqaleTableMapping<T, Q, R>) mapping).fullObjectToText(fullObject, oid.toString());
+        } catch (SchemaException e) {
+            // the object is deleted anyway, the text form is only informational
+            logger.warn("Couldn't convert deleted object {} to text form: {}", oid, e.getMessage());
+            return null;
+        }
     }
 
     // region Counting/searching
@@ -944,6 +1189,9 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                 return new SearchResultMetadata().approxNumberOfAllResults(0);
             }
 
+            if (repositoryConfiguration().isIterativeSearchCursor()) {
+                return executeSearchObjectsIterativeWithCursor(type, query, handler, options, operationResult);
+            }
             return executeSearchObjectsIterative(type, query, handler, options, operationResult);
         } catch (RepositoryException | RuntimeException e) {
             throw handledGeneralException(e, operationResult);
@@ -955,8 +1203,6 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
-    private static final ItemPath OID_PATH = ItemPath.create(PrismConstants.T_ID);
-
     private <T extends ObjectType> SearchResultMetadata executeSearchObjectsIterative(
             Class<T> type,
             ObjectQuery originalQuery,
@@ -964,52 +1210,38 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             Collection<SelectorOptions<GetOperationOptions>> options,
             OperationResult operationResult) throws SchemaException, RepositoryException {
 
+        PagePrefetch<T> prefetch = null;
         try {
             ObjectPaging originalPaging = originalQuery != null ? originalQuery.getPaging() : null;
             // this is total requested size of the search
             Integer maxSize = originalPaging != null ? originalPaging.getMaxSize() : null;
+            ObjectFilter originalFilter = originalQuery != null ? originalQuery.getFilter() : null;
 
-            List<? extends ObjectOrdering> providedOrdering = originalPaging != null
-                    ? originalPaging.getOrderingInstructions()
-                    : null;
-            if (providedOrdering != null && providedOrdering.size() > 1) {
-                throw new RepositoryException("searchObjectsIterative() does not support ordering"
-                        + " by multiple paths (yet): " + providedOrdering);
-            }
-
-            ObjectQuery pagedQuery = prismContext().queryFactory().createQuery();
-            ObjectPaging paging = prismContext().queryFactory().createPaging();
-            if (originalPaging != null && originalPaging.getOrderingInstructions() != null) {
-                originalPaging.getOrderingInstructions().forEach(o ->
-                        paging.addOrderingInstruction(o.getOrderBy(), o.getDirection()));
-            }
-            paging.addOrderingInstruction(OID_PATH, OrderDirection.ASCENDING);
-            pagedQuery.setPaging(paging);
+            KeysetPaging<T> keysetPaging = new KeysetPaging<>(prismContext(), type,
+                    originalPaging != null ? originalPaging.getOrderingInstructions() : null);
 
             int pageSize = Math.min(
                     repositoryConfiguration().getIterativeSearchByPagingBatchSize(),
                     defaultIfNull(maxSize, Integer.MAX_VALUE));
-            pagedQuery.getPaging().setMaxSize(pageSize);
+            boolean prefetchEnabled = repositoryConfiguration().isIterativeSearchPrefetch();
 
             PrismObject<T> lastProcessedObject = null;
             int handledObjectsTotal = 0;
 
+            List<PrismObject<T>> objects = executeSearchObjectsIterativePage(
+                    type, originalFilter, keysetPaging, null, pageSize, options);
             while (true) {
-                if (maxSize != null && maxSize - handledObjectsTotal < pageSize) {
-                    // relevant only for the last page
-                    pagedQuery.getPaging().setMaxSize(maxSize - handledObjectsTotal);
+                // the next page is known to exist only if this page was full
+                int nextPageSize = objects.size() < pageSize ? 0
+                        : maxSize == null ? pageSize
+                        : Math.min(pageSize, maxSize - handledObjectsTotal - objects.size());
+                if (prefetchEnabled && nextPageSize > 0) {
+                    // next page is fetched while the handler processes this one
+                    PrismObject<T> lastObjectOfPage = objects.get(objects.size() - 1);
+                    prefetch = new PagePrefetch<>(() -> executeSearchObjectsIterativePage(type, originalFilter,
+                            keysetPaging, lastObjectOfPage, nextPageSize, options));
                 }
 
-                // null safe, even for both nulls - don't use filterAnd which mutates original AND filter
-                pagedQuery.setFilter(ObjectQueryUtil.filterAndImmutable(
-                        originalQuery != null ? originalQuery.getFilter() : null,
-                        lastOidCondition(lastProcessedObject, providedOrdering)));
-
-                // we don't call public searchObject to avoid subresults and query simplification
-                logSearchInputParameters(type, pagedQuery, "Search object iterative page");
-                List<PrismObject<T>> objects = executeSearchObjects(
-                        type, pagedQuery, options, OP_SEARCH_OBJECTS_ITERATIVE_PAGE);
-
                 // process page results
                 for (PrismObject<T> object : objects) {
                     lastProcessedObject = object;
@@ -1028,14 +1260,26 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                     }
                 }
 
-                if (objects.isEmpty() || objects.size() < pageSize) {
+                if (nextPageSize <= 0) {
                     return new SearchResultMetadata()
                             .approxNumberOfAllResults(handledObjectsTotal)
                             .pagingCookie(lastProcessedObject != null
                                     ? lastProcessedObject.getOid() : null);
                 }
+
+                if (prefetch != null) {
+                    objects = prefetch.get();
+                    prefetch = null;
+                } else {
+                    objects = executeSearchObjectsIterativePage(
+                            type, originalFilter, keysetPaging, lastProcessedObject, nextPageSize, options);
+                }
             }
         } finally {
+            if (prefetch != null) {
+                // handler stopped the iteration or failed, the result is not needed
+                prefetch.cancel();
+            }
             // This just counts the operation and adds zero/minimal time not to confuse user
             // with what could be possibly very long duration.
             long opHandle = registerOperationStart(OP_SEARCH_OBJECTS_ITERATIVE, type);
@@ -1044,95 +1288,151 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
     }
 
     /**
-     * Without requested ordering, this is easy: `WHERE oid > lastOid`
-     *
-     * But with outside ordering we need to respect it and for ordering by X, Y, Z use
-     * (`original conditions AND` is taken care of outside of this method):
-     *
-     * ----
-     * ... WHERE original conditions AND (
-     * X > last.X
-     * OR (X = last.X AND Y > last.Y)
-     * OR (X = last.X AND Y = last.Y AND Z > last.Z)
-     * OR (X = last.X AND Y = last.Y ...if all equal AND OID > last.OID)
-     * ----
-     *
-     * This is suddenly much more fun, isn't it?
-     * Of course the condition `>` or `<` depends on `ASC` vs `DESC`.
-     *
-     * TODO: Currently, single path ordering is supported. Finish multi-path too.
-     * TODO: What about nullable columns?
+     * Iterative search executed as a single query with server-side cursor.
+     * Rows are streamed from the database in chunks of configured fetch size and transformed
+     * to objects one by one as the handler consumes them.
+     * This avoids repeated queries for each page, but keeps the transaction open for the whole iteration.
      */
-    @Nullable
-    private <T extends ObjectType> ObjectFilter lastOidCondition(
-            PrismObject<T> lastProcessedObject, List<? extends ObjectOrdering> providedOrdering) {
-        if (lastProcessedObject == null) {
-            return null;
+    private <T extends ObjectType> SearchResultMetadata executeSearchObjectsIterativeWithCursor(
+            Class<T> type,
+            ObjectQuery originalQuery,
+            ResultHandler<T> handler,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            OperationResult operationResult) throws SchemaException, RepositoryException {
+
+        ObjectPaging originalPaging = originalQuery != null ? originalQuery.getPaging() : null;
+        Integer maxSize = originalPaging != null ? originalPaging.getMaxSize() : null;
+
+        // the same total ordering as for the paged iteration, the offset is ignored as well
+        KeysetPaging<T> keysetPaging = new KeysetPaging<>(prismContext(), type,
+                originalPaging != null ? originalPaging.getOrderingInstructions() : null);
+        ObjectQuery cursorQuery = prismContext().queryFactory().createQuery();
+        cursorQuery.setPaging(keysetPaging.createPaging(maxSize));
+        cursorQuery.setFilter(originalQuery != null ? originalQuery.getFilter() : null);
+        logSearchInputParameters(type, cursorQuery, "Search objects iterative with cursor");
+
+        Holder<PrismObject<T>> lastProcessedObject = new Holder<>();
+        Holder<Boolean> stopped = new Holder<>(false);
+        long opHandle = registerOperationStart(OP_SEARCH_OBJECTS_ITERATIVE, type);
+        try {
+            int handledObjectsTotal = sqlQueryExecutor.iterate(
+                    SqaleQueryContext.from(type, sqlRepoContext),
+                    cursorQuery,
+                    options,
+                    repositoryConfiguration().getIterativeSearchCursorFetchSize(),
+                    o -> {
+                        //noinspection unchecked
+                        PrismObject<T> object = (PrismObject<T>) o.asPrismObject();
+                        lastProcessedObject.setValue(object);
+                        if (!handler.handle(object, operationResult)) {
+                            stopped.setValue(true);
+                            return false;
+                        }
+                        return true;
+                    });
+
+            SearchResultMetadata metadata = new SearchResultMetadata()
+                    .approxNumberOfAllResults(handledObjectsTotal)
+                    .pagingCookie(lastProcessedObject.isEmpty() ? null : lastProcessedObject.getValue().getOid());
+            return stopped.getValue() ? metadata.partialResults(true) : metadata;
+        } finally {
+            registerOperationFinish(opHandle);
         }
+    }
 
-        String lastProcessedOid = lastProcessedObject.getOid();
-        if (providedOrdering == null || providedOrdering.isEmpty()) {
-            return prismContext()
-                    .queryFor(lastProcessedObject.getCompileTimeClass())
-                    .item(OID_PATH).gt(lastProcessedOid).buildFilter();
-        }
-
-        if (providedOrdering.size() == 1) {
-            ObjectOrdering objectOrdering = providedOrdering.get(0);
-            ItemPath orderByPath = objectOrdering.getOrderBy();
-            boolean asc = objectOrdering.getDirection() == OrderDirection.ASCENDING;
-            S_ConditionEntry filter = prismContext()
-                    .queryFor(lastProcessedObject.getCompileTimeClass())
-                    .item(orderByPath);
-            //noinspection rawtypes
-            Item<PrismValue, ItemDefinition<Item>> item = lastProcessedObject.findItem(orderByPath);
-            if (item.size() > 1) {
-                throw new IllegalArgumentException(
-                        "Multi-value property for ordering is forbidden - item: " + item);
-            } else if (item.isEmpty()) {
-                // TODO what if it's nullable? is it null-first or last?
-                // See: https://www.postgresql.org/docs/13/queries-order.html
-                // "By default, null values sort as if larger than any non-null value; that is,
-                // NULLS FIRST is the default for DESC order, and NULLS LAST otherwise."
-            } else {
-                S_MatchingRuleEntry matchingRuleEntry =
-                        asc ? filter.gt(item.getRealValue()) : filter.lt(item.getRealValue());
-                filter = matchingRuleEntry.or()
-                        .block()
-                        .item(orderByPath).eq(item.getRealValue())
-                        .and()
-                        .item(OID_PATH);
-                return (asc ? filter.gt(lastProcessedOid) : filter.lt(lastProcessedOid))
-                        .endBlock()
-                        .buildFilter();
-            }
+    private <T extends ObjectType> List<PrismObject<T>> executeSearchObjectsIterativePage(
+            Class<T> type,
+            ObjectFilter originalFilter,
+            KeysetPaging<T> keysetPaging,
+            PrismObject<T> lastObject,
+            int pageSize,
+            Collection<SelectorOptions<GetOperationOptions>> options) throws SchemaException, RepositoryException {
+        ObjectQuery pagedQuery = prismContext().queryFactory().createQuery();
+        pagedQuery.setPaging(keysetPaging.createPaging(pageSize));
+        // null safe, even for both nulls - don't use filterAnd which mutates original AND filter
+        pagedQuery.setFilter(ObjectQueryUtil.filterAndImmutable(
+                originalFilter, keysetPaging.afterCondition(lastObject)));
+
+        // we don't call public searchObject to avoid subresults and query simplification
+        logSearchInputParameters(type, pagedQuery, "Search object iterative page");
+        return executeSearchObjects(type, pagedQuery, options, OP_SEARCH_OBJECTS_ITERATIVE_PAGE);
+    }
+
+    /**
+     * Page of iterative search fetched in the background.
+     * The fetch itself is registered in the performance monitor (globally, not in the statistics
+     * of the thread that runs the search).
+     */
+    private class PagePrefetch<T extends ObjectType> {
+
+        private final Future<List<PrismObject<T>>> future;
+
+        PagePrefetch(Callable<List<PrismObject<T>>> pageFetch) {
+            future = getPrefetchExecutor().submit(pageFetch);
         }
 
-        throw new IllegalArgumentException(
-                "Shouldn't get here with check in executeSearchObjectsIterative()");
-        /*
-        TODO: Unfinished - this is painful with fluent API. Should I call
-         prismContext().queryFor(lastProcessedObject.getCompileTimeClass()) for each component
-         and then use ObjectQueryUtil.filterAnd/Or?
-        // we need to handle the complicated case with externally provided ordering
-        S_FilterEntryOrEmpty orBlock = prismContext()
-                .queryFor(lastProcessedObject.getCompileTimeClass()).block();
-        orLoop:
-        for (ObjectOrdering orMasterOrdering : providedOrdering) {
-            Iterator<? extends ObjectOrdering> iterator = providedOrdering.iterator();
-            while (iterator.hasNext()) {
-                S_FilterEntryOrEmpty andBlock = orBlock.block();
-                ObjectOrdering ordering = iterator.next();
-                if (ordering.equals(orMasterOrdering)) {
-                    // ...
-                    continue orLoop;
+        List<PrismObject<T>> get() throws SchemaException, RepositoryException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new SystemException("Interrupted while waiting for the next page of iterative search", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SchemaException) {
+                    throw (SchemaException) cause;
+                } else if (cause instanceof RepositoryException) {
+                    throw (RepositoryException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new SystemException(cause);
                 }
-                orBlock = andBlock.endBlock();
             }
+        }
+
+        void cancel() {
+            // we don't interrupt the thread in the middle of JDBC call, the result is just thrown away
+            future.cancel(false);
+        }
+    }
 
+    /**
+     * Returns the executor for page prefetch. The number of its threads is bounded, as each of them
+     * uses a connection. If all the threads are busy, the page is fetched by the searching thread.
+     */
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            AtomicInteger threadCounter = new AtomicInteger();
+            prefetchExecutor = new ThreadPoolExecutor(
+                    0, repositoryConfiguration().getIterativeSearchPrefetchThreads(),
+                    60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "midpoint-repo-prefetch-" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    // unlike CallerRunsPolicy, this runs the task also after shutdown, so nobody waits for it forever
+                    (r, executor) -> r.run());
+        }
+        return prefetchExecutor;
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (prefetchExecutor != null) {
+                prefetchExecutor.shutdownNow();
+                prefetchExecutor = null;
+            }
+            if (fullObjectMigration != null) {
+                fullObjectMigration.stop();
+                fullObjectMigration = null;
+            }
         }
-        return orBlock.endBlock().buildFilter();
-        */
+        super.destroy();
     }
 
     @Override
@@ -1597,39 +1897,20 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                         .build();
 
         try {
-            long closureCount, expectedCount;
+            OrgClosureCheck check;
             try (JdbcSession jdbcSession =
                     sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
-                QOrgClosure oc = new QOrgClosure();
-                closureCount = jdbcSession.newQuery().from(oc).fetchCount();
-                // this is CTE used also for m_org_closure materialized view (here with count)
-                QOrg o = QOrgMapping.getOrgMapping().defaultAlias();
-                QObjectReference<?> ref = QObjectReferenceMapping.getForParentOrg().newAlias("ref");
-                QObjectReference<?> par = QObjectReferenceMapping.getForParentOrg().newAlias("par");
-                //noinspection unchecked
-                expectedCount = jdbcSession.newQuery()
-                        .withRecursive(oc, oc.ancestorOid, oc.descendantOid)
-                        .as(new SQLQuery<>().union(
-                                // non-recursive term: initial select
-                                new SQLQuery<>().select(o.oid, o.oid)
-                                        .from(o)
-                                        .where(new SQLQuery<>().select(Expressions.ONE)
-                                                .from(ref)
-                                                .where(ref.targetOid.eq(o.oid)
-                                                        .or(ref.ownerOid.eq(o.oid)))
-                                                .exists()),
-                                new SQLQuery<>().select(par.targetOid, oc.descendantOid)
-                                        .from(par, oc)
-                                        .where(par.ownerOid.eq(oc.ancestorOid))))
-                        .from(oc)
-                        .fetchCount();
-                logger.info("Org closure consistency checked - closure count {}, expected count {}",
-                        closureCount, expectedCount);
+                check = checkOrgClosure(jdbcSession);
+                logger.info("Org closure consistency checked - closure count {}, expected count {},"
+                                + " missing pairs {}, extra pairs {}", check.closureCount,
+                        check.expectedCount, check.missingCount, check.extraCount);
             }
-            operationResult.addReturn("closure-count", closureCount);
-            operationResult.addReturn("expected-count", expectedCount);
+            operationResult.addReturn("closure-count", check.closureCount);
+            operationResult.addReturn("expected-count", check.expectedCount);
+            operationResult.addReturn("missing-count", check.missingCount);
+            operationResult.addReturn("extra-count", check.extraCount);
 
-            if (repairIfNecessary && closureCount != expectedCount) {
+            if (repairIfNecessary && !check.isConsistent()) {
                 try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
                     jdbcSession.executeStatement("CALL m_refresh_org_closure(true)");
                     jdbcSession.commit();
@@ -1648,6 +1929,44 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    /**
+     * Compares the incrementally maintained closure with the closure computed from scratch
+     * by `m_org_closure_expected` view (the same one used for the full rebuild).
+     * Not only counts are compared, missing and extra pairs are counted separately,
+     * because one wrong increment can easily result in both.
+     */
+    private OrgClosureCheck checkOrgClosure(JdbcSession jdbcSession) {
+        try (PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                "SELECT (SELECT count(*) FROM m_org_closure),"
+                        + " (SELECT count(*) FROM m_org_closure_expected),"
+                        + " (SELECT count(*) FROM (SELECT * FROM m_org_closure_expected"
+                        + "     EXCEPT SELECT * FROM m_org_closure) missing),"
+                        + " (SELECT count(*) FROM (SELECT * FROM m_org_closure"
+                        + "     EXCEPT SELECT * FROM m_org_closure_expected) extra)");
+                ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            OrgClosureCheck check = new OrgClosureCheck();
+            check.closureCount = rs.getLong(1);
+            check.expectedCount = rs.getLong(2);
+            check.missingCount = rs.getLong(3);
+            check.extraCount = rs.getLong(4);
+            return check;
+        } catch (SQLException e) {
+            throw new SystemException("Couldn't check org closure consistency", e);
+        }
+    }
+
+    private static class OrgClosureCheck {
+        private long closureCount;
+        private long expectedCount;
+        private long missingCount;
+        private long extraCount;
+
+        private boolean isConsistent() {
+            return missingCount == 0 && extraCount == 0;
+        }
+    }
+
     @Override
     public RepositoryQueryDiagResponse executeQueryDiagnostics(
             RepositoryQueryDiagRequest request, OperationResult parentResult) {
@@ -1849,12 +2168,28 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
     public void postInit(OperationResult parentResult) throws SchemaException {
         logger.debug("Executing repository postInit method");
         systemConfigurationChangeDispatcher.dispatch(true, true, parentResult);
+
+        if (repositoryConfiguration().isFullObjectMigration()) {
+            synchronized (this) {
+                fullObjectMigration = new FullObjectMigration(sqlRepoContext);
+                fullObjectMigration.start();
+            }
+        }
     }
 
     private void invokeConflictWatchers(Consumer<ConflictWatcherImpl> consumer) {
         conflictWatchersThreadLocal.get().forEach(consumer);
     }
 
+    private void invokeConflictWatchers(
+            @Nullable List<Runnable> deferredNotifications, Consumer<ConflictWatcherImpl> consumer) {
+        if (deferredNotifications != null) {
+            deferredNotifications.add(() -> invokeConflictWatchers(consumer));
+        } else {
+            invokeConflictWatchers(consumer);
+        }
+    }
+
     @Override
     public ConflictWatcher createAndRegisterConflictWatcher(@NotNull String oid) {
         List<ConflictWatcherImpl> watchers = conflictWatchersThreadLocal.get();
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.SerializationOptions;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Work bucket store backed by `m_work_bucket` table, see {@link WorkBucketStore}.
+ *
+ * Each operation is a single short transaction touching only the rows it needs.
+ * Ready buckets are claimed using `FOR UPDATE SKIP LOCKED`, so concurrent workers never wait for each other
+ * and never get the same bucket.
+ *
+ * State and worker are kept in columns, the rest of the bucket (content, sequential number) is serialized
+ * in the `content` column. State and worker reference of the serialized bucket are ignored when reading.
+ */
+public class SqaleWorkBucketStore implements WorkBucketStore {
+
+    private static final Trace LOGGER = TraceManager.getTrace(SqaleWorkBucketStore.class);
+
+    private static final String OP_NAME_PREFIX = SqaleWorkBucketStore.class.getSimpleName() + '.';
+
+    private static final String COLUMNS = "sequentialNumber, state, workerOid, content";
+
+    private static final String WHERE_ACTIVITY = " WHERE coordinatorOid = ? AND activityPath = ?";
+
+    private final SqaleRepoContext repositoryContext;
+
+    public SqaleWorkBucketStore(SqaleRepoContext repositoryContext) {
+        this.repositoryContext = repositoryContext;
+    }
+
+    @Override
+    public @Nullable WorkBucketType findDelegatedBucket(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull String workerOid, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "findDelegatedBucket");
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startReadOnlyTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "SELECT " + COLUMNS + " FROM m_work_bucket" + WHERE_ACTIVITY
+                                + " AND state = 'DELEGATED' AND workerOid = ?"
+                                + " ORDER BY sequentialNumber LIMIT 1")) {
+            setActivity(stmt, coordinatorOid, activityPath);
+            stmt.setObject(3, UUID.fromString(workerOid));
+            WorkBucketType bucket = readSingleBucket(stmt);
+            jdbcSession.commit();
+            return bucket;
+        } catch (SchemaException e) {
+            result.recordFatalError(e);
+            throw e;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public @Nullable WorkBucketType claimReadyBucket(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull String workerOid, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "claimReadyBucket");
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "UPDATE m_work_bucket SET state = 'DELEGATED', workerOid = ?"
+                                + " WHERE (coordinatorOid, activityPath, sequentialNumber) = ("
+                                + "   SELECT coordinatorOid, activityPath, sequentialNumber FROM m_work_bucket"
+                                + WHERE_ACTIVITY + " AND state = 'READY'"
+                                + "   ORDER BY sequentialNumber LIMIT 1 FOR UPDATE SKIP LOCKED)"
+                                + " RETURNING " + COLUMNS)) {
+            stmt.setObject(1, UUID.fromString(workerOid));
+            stmt.setObject(2, UUID.fromString(coordinatorOid));
+            stmt.setString(3, activityPath.toString());
+            WorkBucketType bucket = readSingleBucket(stmt);
+            jdbcSession.commit();
+            LOGGER.trace("Claimed bucket {} for worker {}", bucket, workerOid);
+            return bucket;
+        } catch (SchemaException e) {
+            result.recordFatalError(e);
+            throw e;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public @Nullable WorkBucketType getLastBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "getLastBucket");
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startReadOnlyTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "SELECT " + COLUMNS + " FROM m_work_bucket" + WHERE_ACTIVITY
+                                + " ORDER BY sequentialNumber DESC LIMIT 1")) {
+            setActivity(stmt, coordinatorOid, activityPath);
+            WorkBucketType bucket = readSingleBucket(stmt);
+            jdbcSession.commit();
+            return bucket;
+        } catch (SchemaException e) {
+            result.recordFatalError(e);
+            throw e;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public boolean addBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull List<WorkBucketType> buckets, @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "addBuckets");
+        result.addParam("buckets", buckets.size());
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "INSERT INTO m_work_bucket (coordinatorOid, activityPath, " + COLUMNS + ")"
+                                + " VALUES (?, ?, ?, ?::WorkBucketStateType, ?, ?)"
+                                + " ON CONFLICT DO NOTHING")) {
+            for (WorkBucketType bucket : buckets) {
+                setActivity(stmt, coordinatorOid, activityPath);
+                stmt.setInt(3, bucket.getSequentialNumber());
+                stmt.setString(4, stateToColumn(bucket.getState()));
+                String workerOid = bucket.getWorkerRef() != null ? bucket.getWorkerRef().getOid() : null;
+                stmt.setObject(5, workerOid != null ? UUID.fromString(workerOid) : null, Types.OTHER);
+                stmt.setString(6, serialize(bucket));
+                stmt.addBatch();
+            }
+            for (int inserted : stmt.executeBatch()) {
+                if (inserted == 0) {
+                    // Someone else was faster, the buckets we have created are not valid anymore.
+                    jdbcSession.rollback();
+                    LOGGER.debug("Conflict while adding {} bucket(s) to {}/{}", buckets.size(), coordinatorOid, activityPath);
+                    return false;
+                }
+            }
+            jdbcSession.commit();
+            return true;
+        } catch (SchemaException e) {
+            result.recordFatalError(e);
+            throw e;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public void completeBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            int sequentialNumber, @Nullable String workerOid, @NotNull OperationResult parentResult)
+            throws ObjectNotFoundException {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "completeBucket");
+        result.addParam("sequentialNumber", sequentialNumber);
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "UPDATE m_work_bucket SET state = 'COMPLETE'" + WHERE_ACTIVITY
+                                + " AND sequentialNumber = ?"
+                                + (workerOid != null ? " AND workerOid = ? AND state = 'DELEGATED'" : ""))) {
+            setActivity(stmt, coordinatorOid, activityPath);
+            stmt.setInt(3, sequentialNumber);
+            if (workerOid != null) {
+                stmt.setObject(4, UUID.fromString(workerOid));
+            }
+            int updated = stmt.executeUpdate();
+            jdbcSession.commit();
+            if (updated == 0) {
+                throw new ObjectNotFoundException("Work bucket " + sequentialNumber + " of " + coordinatorOid
+                        + "/" + activityPath + " was not found"
+                        + (workerOid != null ? " (or it is not delegated to " + workerOid + ")" : ""));
+            }
+        } catch (ObjectNotFoundException e) {
+            result.recordFatalError(e);
+            throw e;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int releaseBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @Nullable Integer sequentialNumber, @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "releaseBuckets");
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "UPDATE m_work_bucket SET state = 'READY', workerOid = NULL" + WHERE_ACTIVITY
+                                + " AND state = 'DELEGATED' AND workerOid = ?"
+                                + (sequentialNumber != null ? " AND sequentialNumber = ?" : ""))) {
+            setActivity(stmt, coordinatorOid, activityPath);
+            stmt.setObject(3, UUID.fromString(workerOid));
+            if (sequentialNumber != null) {
+                stmt.setInt(4, sequentialNumber);
+            }
+            int updated = stmt.executeUpdate();
+            jdbcSession.commit();
+            result.addReturn("released", updated);
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int reclaimBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull Collection<String> liveWorkerOids, @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "reclaimBuckets");
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "UPDATE m_work_bucket SET state = 'READY', workerOid = NULL" + WHERE_ACTIVITY
+                                + " AND state = 'DELEGATED' AND NOT (workerOid = ANY (?))")) {
+            setActivity(stmt, coordinatorOid, activityPath);
+            stmt.setArray(3, jdbcSession.connection().createArrayOf("uuid",
+                    liveWorkerOids.stream().map(UUID::fromString).toArray()));
+            int updated = stmt.executeUpdate();
+            jdbcSession.commit();
+            result.addReturn("reclaimed", updated);
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int countCompleteBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "countCompleteBuckets");
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startReadOnlyTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "SELECT count(*) FROM m_work_bucket" + WHERE_ACTIVITY + " AND state = 'COMPLETE'")) {
+            setActivity(stmt, coordinatorOid, activityPath);
+            int count;
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                count = rs.getInt(1);
+            }
+            jdbcSession.commit();
+            return count;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public boolean hasDelegatedBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult parentResult) {
+        return existsBucket(coordinatorOid, activityPath, "state = 'DELEGATED'",
+                parentResult.createMinorSubresult(OP_NAME_PREFIX + "hasDelegatedBuckets"));
+    }
+
+    @Override
+    public boolean hasUnfinishedBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult parentResult) {
+        return existsBucket(coordinatorOid, activityPath, "state IN ('READY', 'DELEGATED')",
+                parentResult.createMinorSubresult(OP_NAME_PREFIX + "hasUnfinishedBuckets"));
+    }
+
+    private boolean existsBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String stateCondition, @NotNull OperationResult result) {
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startReadOnlyTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "SELECT EXISTS (SELECT 1 FROM m_work_bucket" + WHERE_ACTIVITY + " AND " + stateCondition + ")")) {
+            setActivity(stmt, coordinatorOid, activityPath);
+            boolean exists;
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                exists = rs.getBoolean(1);
+            }
+            jdbcSession.commit();
+            return exists;
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public void deleteBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.createMinorSubresult(OP_NAME_PREFIX + "deleteBuckets");
+        String path = activityPath.toString();
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startTransaction();
+                PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                        "DELETE FROM m_work_bucket WHERE coordinatorOid = ?"
+                                + (activityPath.isEmpty() ? "" : " AND (activityPath = ? OR activityPath LIKE ?)"))) {
+            stmt.setObject(1, UUID.fromString(coordinatorOid));
+            if (!activityPath.isEmpty()) {
+                stmt.setString(2, path);
+                stmt.setString(3, escapeLike(path) + "/%");
+            }
+            int deleted = stmt.executeUpdate();
+            jdbcSession.commit();
+            result.addReturn("deleted", deleted);
+        } catch (SQLException | RuntimeException e) {
+            throw handleRuntimeException(result, e);
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    private void setActivity(PreparedStatement stmt, String coordinatorOid, ActivityPath activityPath)
+            throws SQLException {
+        stmt.setObject(1, UUID.fromString(coordinatorOid));
+        stmt.setString(2, activityPath.toString());
+    }
+
+    private @Nullable WorkBucketType readSingleBucket(PreparedStatement stmt) throws SQLException, SchemaException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            WorkBucketType bucket = repositoryContext
+                    .parsePrismObject(rs.getString(4), WorkBucketType.class)
+                    .prismValue;
+            bucket.setSequentialNumber(rs.getInt(1));
+            bucket.setState(WorkBucketStateType.valueOf(rs.getString(2)));
+            UUID workerOid = rs.getObject(3, UUID.class);
+            bucket.setWorkerRef(workerOid != null
+                    ? new ObjectReferenceType().oid(workerOid.toString()).type(TaskType.COMPLEX_TYPE)
+                    : null);
+            return bucket;
+        }
+    }
+
+    private String serialize(WorkBucketType bucket) throws SchemaException {
+        WorkBucketType content = bucket.clone();
+        content.setState(null);
+        content.setWorkerRef(null);
+        return repositoryContext.createStringSerializer()
+                .options(SerializationOptions.createSerializeReferenceNamesForNullOids()
+                        .skipWhitespaces(true))
+                .serializeRealValue(content, ActivityBucketingStateType.F_BUCKET);
+    }
+
+    private static String stateToColumn(WorkBucketStateType state) {
+        return (state != null ? state : WorkBucketStateType.READY).name();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private RuntimeException handleRuntimeException(OperationResult result, Exception e) {
+        result.recordFatalError(e);
+        return e instanceof RuntimeException
+                ? (RuntimeException) e
+                : new SystemException("Couldn't access work buckets: " + e.getMessage(), e);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.repo.sqale.audit.qmodel.MAuditEventRecord;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Asynchronous writer of audit event records used by {@link SqaleAuditService} when enabled
+ * in the audit configuration (see {@link SqaleAuditServiceFactory}).
+ *
+ * Audit rows are prepared in the caller's thread and put into a bounded queue.
+ * Writer threads take the rows from the queue and pass them to the batch inserter in chunks
+ * of up to `flushSize` rows, or fewer if `flushInterval` elapses since the first row of the chunk.
+ *
+ * If the queue is full, {@link #submit} waits up to `queueTimeout` and then gives up - it's up
+ * to the caller to write the row synchronously in that case, so no audit record is dropped.
+ * {@link #shutdown()} stops accepting new rows and drains the queue before it returns.
+ * Checking the state and offering the row is done under the read lock of {@link #shutdownLock},
+ * so no row can be accepted after the shutdown has started draining the queue.
+ */
+public class AsyncAuditWriter {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AsyncAuditWriter.class);
+
+    private static final long SHUTDOWN_JOIN_TIMEOUT_MS = 30_000;
+
+    private final Consumer<List<MAuditEventRecord>> batchInserter;
+    private final BlockingQueue<MAuditEventRecord> queue;
+    private final int flushSize;
+    private final long flushIntervalMs;
+    private final long queueTimeoutMs;
+    private final List<Thread> writerThreads = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    /** Read lock is held by submitters for the check-and-offer, write lock by the shutdown to stop accepting rows. */
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+    // metrics
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTimeMs = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public AsyncAuditWriter(
+            @NotNull Consumer<List<MAuditEventRecord>> batchInserter,
+            int queueCapacity, int flushSize, long flushIntervalMs, long queueTimeoutMs, int threads) {
+        if (queueCapacity < 1 || flushSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("Queue capacity, flush size and thread count"
+                    + " for asynchronous audit writer must be positive");
+        }
+        this.batchInserter = batchInserter;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushSize = flushSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.queueTimeoutMs = queueTimeoutMs;
+
+        for (int i = 1; i <= threads; i++) {
+            Thread thread = new Thread(this::writerLoop, "mp-audit-writer-" + i);
+            thread.setDaemon(true);
+            writerThreads.add(thread);
+            thread.start();
+        }
+        LOGGER.info("Asynchronous audit writer started with {} thread(s), queue capacity {},"
+                + " flush size {} and flush interval {} ms",
+                threads, queueCapacity, flushSize, flushIntervalMs);
+    }
+
+    /**
+     * Puts the prepared audit row into the queue, possibly waiting for free space.
+     *
+     * @return true if the row was accepted, false if the writer is shut down or the queue
+     * stayed full for the whole queue timeout - caller must write the row on its own then
+     */
+    public boolean submit(@NotNull MAuditEventRecord row) {
+        shutdownLock.readLock().lock();
+        try {
+            if (running && queue.offer(row, queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                enqueuedCount.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    private void writerLoop() {
+        List<MAuditEventRecord> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                MAuditEventRecord first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < flushSize) {
+                    queue.drainTo(batch, flushSize - batch.size());
+                    long remainingMs = deadline - System.currentTimeMillis();
+                    if (batch.size() >= flushSize || remainingMs <= 0 || !running) {
+                        break;
+                    }
+                    MAuditEventRecord next = queue.poll(remainingMs, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // We don't quit here, rows in the batch/queue must be written anyway.
+                LOGGER.debug("Audit writer thread interrupted, continuing until the queue is drained");
+            }
+            flush(batch);
+        }
+    }
+
+    private void flush(List<MAuditEventRecord> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long startMs = System.currentTimeMillis();
+        try {
+            batchInserter.accept(batch);
+            writtenCount.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Batch insert of {} audit records failed, trying to insert them one by one",
+                    batch.size(), e);
+            for (MAuditEventRecord row : batch) {
+                try {
+                    row.id = null; // allocated ID may be invalid with the rolled back batch
+                    batchInserter.accept(List.of(row));
+                    writtenCount.incrementAndGet();
+                } catch (RuntimeException e2) {
+                    failedCount.incrementAndGet();
+                    LOGGER.error("Couldn't write audit record {}", row, e2);
+                }
+            }
+        } finally {
+            flushCount.incrementAndGet();
+            flushTimeMs.addAndGet(System.currentTimeMillis() - startMs);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Stops accepting new rows and waits for the writer threads to drain the queue.
+     * If the threads don't finish in time, the rest of the queue is written by the calling thread.
+     * Submitters in progress are waited for (at most the queue timeout), so their rows are in the queue.
+     */
+    public void shutdown() {
+        shutdownLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+        for (Thread thread : writerThreads) {
+            try {
+                thread.join(SHUTDOWN_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        List<MAuditEventRecord> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (int i = 0; i < rest.size(); i += flushSize) {
+            flush(new ArrayList<>(rest.subList(i, Math.min(i + flushSize, rest.size()))));
+        }
+        LOGGER.info("Asynchronous audit writer stopped: {}", getStatistics());
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(enqueuedCount.get(), writtenCount.get(), failedCount.get(),
+                flushCount.get(), flushTimeMs.get(), rejectedCount.get(), queue.size());
+    }
+
+    /** Snapshot of the asynchronous writer metrics. */
+    public static class Statistics {
+
+        public final long enqueued;
+        public final long written;
+        public final long failed;
+        public final long flushes;
+        public final long flushTimeMs;
+        /** Rows not accepted by {@link #submit} because of full queue or shutdown, written synchronously. */
+        public final long rejected;
+        public final int queueSize;
+
+        Statistics(long enqueued, long written, long failed,
+                long flushes, long flushTimeMs, long rejected, int queueSize) {
+            this.enqueued = enqueued;
+            this.written = written;
+            this.failed = failed;
+            this.flushes = flushes;
+            this.flushTimeMs = flushTimeMs;
+            this.rejected = rejected;
+            this.queueSize = queueSize;
+        }
+
+        @Override
+        public String toString() {
+            return "enqueued=" + enqueued +
+                    ", written=" + written +
+                    ", failed=" + failed +
+                    ", flushes=" + flushes +
+                    ", flushTimeMs=" + flushTimeMs +
+                    ", rejected=" + rejected +
+                    ", queueSize=" + queueSize;
+        }
+    }
+}
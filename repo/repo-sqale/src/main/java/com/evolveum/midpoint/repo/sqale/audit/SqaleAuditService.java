@@ -16,6 +16,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.util.Objects;
 import java.util.*;
@@ -71,8 +74,13 @@ import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
  */
 public class SqaleAuditService extends SqaleServiceBase implements AuditService {
 
+    private static final String OP_AUDIT_BATCH = "auditBatch";
+
     private final SqlQueryExecutor sqlQueryExecutor;
 
+    // set only if asynchronous writing is enabled
+    @Nullable private volatile AsyncAuditWriter asyncWriter;
+
     // set from SystemConfigurationAuditType
     private boolean escapeIllegalCharacters = false;
     @NotNull private OperationResultDetailLevel deltaSuccessExecutionResult = OperationResultDetailLevel.CLEANED_UP;
@@ -112,6 +120,12 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
     }
 
     private void executeAudit(AuditEventRecord record) {
+        AsyncAuditWriter writer = asyncWriter;
+        if (writer != null) {
+            executeAuditAsync(record, writer);
+            return;
+        }
+
         long opHandle = registerOperationStart(OP_AUDIT);
         try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
             record.setRepoId(null); // we want DB to assign the ID
@@ -127,6 +141,34 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
         }
     }
 
+    /**
+     * Prepares the whole audit record aggregate in the caller's thread and hands it over
+     * to the asynchronous writer.
+     * Repo ID is not set to the record in this case, because it is assigned only later.
+     * If the writer does not accept the row (full queue), it is inserted synchronously.
+     */
+    private void executeAuditAsync(AuditEventRecord record, AsyncAuditWriter writer) {
+        long opHandle = registerOperationStart(OP_AUDIT);
+        try {
+            record.setRepoId(null);
+            MAuditEventRecord auditRow = prepareAuditEventRecordRow(record);
+            Map<String, ColumnMetadata> customColumns =
+                    QAuditEventRecordMapping.get().getExtensionColumns();
+            for (String propertyName : record.getCustomColumnProperty().keySet()) {
+                checkCustomColumn(customColumns, propertyName);
+            }
+            auditRow.customColumnValues = new HashMap<>(record.getCustomColumnProperty());
+            prepareReferences(auditRow, record.getReferences());
+
+            if (!writer.submit(auditRow)) {
+                // We rather slow the caller down than lose the audit record.
+                insertAuditRows(List.of(auditRow));
+            }
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+    }
+
     /**
      * Inserts audit event record aggregate root without any subentities.
      * Traditional Sqale "insert root first, then insert children" is not optimal here,
@@ -140,22 +182,13 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
     private MAuditEventRecord insertAuditEventRecord(JdbcSession jdbcSession, AuditEventRecord record) {
         QAuditEventRecordMapping aerMapping = QAuditEventRecordMapping.get();
         QAuditEventRecord aer = aerMapping.defaultAlias();
-        MAuditEventRecord row = aerMapping.toRowObject(record);
-
-        Collection<MAuditDelta> deltaRows = prepareDeltas(record.getDeltas());
-        row.deltas = deltaRows;
-
-        Set<String> changedItemPaths = collectChangedItemPaths(deltaRows);
-        row.changedItemPaths = changedItemPaths.isEmpty() ? null : changedItemPaths.toArray(String[]::new);
+        MAuditEventRecord row = prepareAuditEventRecordRow(record);
 
         SQLInsertClause insert = jdbcSession.newInsert(aer).populate(row);
         Map<String, ColumnMetadata> customColumns = aerMapping.getExtensionColumns();
         for (Map.Entry<String, String> property : record.getCustomColumnProperty().entrySet()) {
             String propertyName = property.getKey();
-            if (!customColumns.containsKey(propertyName)) {
-                throw new IllegalArgumentException("Audit event record table doesn't"
-                        + " contains column for property " + propertyName);
-            }
+            checkCustomColumn(customColumns, propertyName);
             // Like insert.set, but that one is too parameter-type-safe for our generic usage here.
             insert.columns(aer.getPath(propertyName)).values(property.getValue());
         }
@@ -166,6 +199,27 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
         return row;
     }
 
+    /**
+     * Returns audit event record row with transient deltas and changed item paths, not inserted yet.
+     */
+    private MAuditEventRecord prepareAuditEventRecordRow(AuditEventRecord record) {
+        MAuditEventRecord row = QAuditEventRecordMapping.get().toRowObject(record);
+
+        Collection<MAuditDelta> deltaRows = prepareDeltas(record.getDeltas());
+        row.deltas = deltaRows;
+
+        Set<String> changedItemPaths = collectChangedItemPaths(deltaRows);
+        row.changedItemPaths = changedItemPaths.isEmpty() ? null : changedItemPaths.toArray(String[]::new);
+        return row;
+    }
+
+    private void checkCustomColumn(Map<String, ColumnMetadata> customColumns, String propertyName) {
+        if (!customColumns.containsKey(propertyName)) {
+            throw new IllegalArgumentException("Audit event record table doesn't"
+                    + " contains column for property " + propertyName);
+        }
+    }
+
     private Collection<MAuditDelta> prepareDeltas(Collection<ObjectDeltaOperation<?>> deltas) {
         // we want to keep only unique deltas, checksum is also part of PK
         Map<String, MAuditDelta> deltasByChecksum = new HashMap<>();
@@ -361,6 +415,112 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
         insertBatch.execute();
     }
 
+    /**
+     * Prepares transient reference value rows without record ID which is assigned later.
+     * Used for asynchronous insert, when the source record can't be accessed anymore.
+     */
+    private void prepareReferences(
+            MAuditEventRecord auditRow, Map<String, Set<AuditReferenceValue>> references) {
+        for (String refName : references.keySet()) {
+            for (AuditReferenceValue refValue : references.get(refName)) {
+                MAuditRefValue refRow = new MAuditRefValue();
+                PolyString targetName = refValue.getTargetName();
+                refRow.name = refName;
+                refRow.targetOid = SqaleUtils.oidToUUid(refValue.getOid());
+                refRow.targetType = refValue.getType() != null
+                        ? MObjectType.fromTypeQName(refValue.getType()) : null;
+                refRow.targetNameOrig = PolyString.getOrig(targetName);
+                refRow.targetNameNorm = PolyString.getNorm(targetName);
+                auditRow.addRefValue(refRow);
+            }
+        }
+    }
+
+    /**
+     * Inserts fully prepared audit rows (including transient deltas, references and custom
+     * column values) in a single transaction, each table using one multi-row insert.
+     * IDs of the records are allocated from the sequence upfront, so the subentities
+     * can be batched as well and don't have to wait for the returned keys.
+     */
+    private void insertAuditRows(List<MAuditEventRecord> rows) {
+        long opHandle = registerOperationStart(OP_AUDIT_BATCH);
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            allocateAuditRecordIds(jdbcSession, rows);
+
+            QAuditEventRecordMapping aerMapping = QAuditEventRecordMapping.get();
+            QAuditEventRecord aer = aerMapping.defaultAlias();
+            Set<String> customColumns = aerMapping.getExtensionColumns().keySet();
+            SQLInsertClause recordInsert = jdbcSession.newInsert(aer);
+            SQLInsertClause deltaInsert = jdbcSession.newInsert(QAuditDeltaMapping.get().defaultAlias());
+            QAuditRefValue qr = QAuditRefValueMapping.get().defaultAlias();
+            SQLInsertClause refInsert = jdbcSession.newInsert(qr);
+            for (MAuditEventRecord row : rows) {
+                // NULLs are important to keep the value count consistent during the batch
+                recordInsert.populate(row, DefaultMapper.WITH_NULL_BINDINGS);
+                for (String propertyName : customColumns) {
+                    recordInsert.columns(aer.getPath(propertyName))
+                            .values((Object) (row.customColumnValues != null
+                                    ? row.customColumnValues.get(propertyName) : null));
+                }
+                recordInsert.addBatch();
+
+                for (MAuditDelta deltaRow : row.deltas) {
+                    deltaRow.recordId = row.id;
+                    deltaRow.timestamp = row.timestamp;
+                    deltaInsert.populate(deltaRow, DefaultMapper.WITH_NULL_BINDINGS).addBatch();
+                }
+
+                if (row.refValues != null) {
+                    for (List<MAuditRefValue> refRows : row.refValues.values()) {
+                        for (MAuditRefValue refRow : refRows) {
+                            // id will be generated, we can't use populate with NULLs for it
+                            refInsert.set(qr.recordId, row.id)
+                                    .set(qr.timestamp, row.timestamp)
+                                    .set(qr.name, refRow.name)
+                                    .set(qr.targetOid, refRow.targetOid)
+                                    .set(qr.targetType, refRow.targetType)
+                                    .set(qr.targetNameOrig, refRow.targetNameOrig)
+                                    .set(qr.targetNameNorm, refRow.targetNameNorm)
+                                    .addBatch();
+                        }
+                    }
+                }
+            }
+
+            recordInsert.setBatchToBulk(true);
+            recordInsert.execute();
+            if (deltaInsert.getBatchCount() > 0) {
+                deltaInsert.setBatchToBulk(true);
+                deltaInsert.execute();
+            }
+            if (refInsert.getBatchCount() > 0) {
+                refInsert.setBatchToBulk(true);
+                refInsert.execute();
+            }
+
+            jdbcSession.commit();
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+    }
+
+    private void allocateAuditRecordIds(JdbcSession jdbcSession, List<MAuditEventRecord> rows) {
+        try (PreparedStatement stmt = jdbcSession.connection().prepareStatement(
+                "SELECT nextval('ma_audit_event_id_seq') FROM generate_series(1, ?)")) {
+            stmt.setInt(1, rows.size());
+            try (ResultSet rs = stmt.executeQuery()) {
+                for (MAuditEventRecord row : rows) {
+                    if (!rs.next()) {
+                        throw new SystemException("Sequence returned less IDs than requested");
+                    }
+                    row.id = rs.getLong(1);
+                }
+            }
+        } catch (SQLException e) {
+            throw new SystemException("Couldn't allocate IDs for audit event records", e);
+        }
+    }
+
     @Override
     public void audit(AuditEventRecordType record, OperationResult parentResult) {
         Objects.requireNonNull(record, "Audit event record must not be null.");
@@ -816,6 +976,47 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
                 "Shouldn't get here with check in executeSearchObjectsIterative()");
     }
 
+    /**
+     * Switches the service to asynchronous batched writing of audit event records,
+     * see {@link AsyncAuditWriter} for the meaning of the parameters.
+     * This is used only for {@link AuditEventRecord}, {@link AuditEventRecordType} is still
+     * written synchronously, as it is typically used for import and the ID must be known.
+     */
+    public synchronized void startAsyncWriter(int queueCapacity, int flushSize,
+            long flushIntervalMs, long queueTimeoutMs, int threads) {
+        if (asyncWriter != null) {
+            throw new IllegalStateException("Asynchronous audit writer is already started");
+        }
+        asyncWriter = new AsyncAuditWriter(this::insertAuditRows,
+                queueCapacity, flushSize, flushIntervalMs, queueTimeoutMs, threads);
+    }
+
+    /**
+     * Returns metrics of the asynchronous writer or null if the writing is synchronous.
+     */
+    public @Nullable AsyncAuditWriter.Statistics getAsyncWriterStatistics() {
+        AsyncAuditWriter writer = asyncWriter;
+        return writer != null ? writer.getStatistics() : null;
+    }
+
+    /**
+     * Stops the asynchronous writer, if used, after all the queued records are written.
+     * Any following records are written synchronously.
+     */
+    public synchronized void stopAsyncWriter() {
+        AsyncAuditWriter writer = asyncWriter;
+        if (writer != null) {
+            asyncWriter = null;
+            writer.shutdown();
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        stopAsyncWriter();
+        super.destroy();
+    }
+
     protected long registerOperationStart(String kind) {
         return registerOperationStart(kind, AuditEventRecordType.class);
     }
@@ -58,6 +58,20 @@ public class SqaleAuditServiceFactory implements AuditServiceFactory {
     private static final String CONF_AUDIT_SERVICE_COLUMN_NAME = "columnName";
     private static final String CONF_AUDIT_SERVICE_EVENT_RECORD_PROPERTY_NAME = "eventRecordPropertyName";
 
+    // asynchronous batched writing, see AsyncAuditWriter, disabled by default
+    private static final String CONF_ASYNC_WRITE = "asyncWrite";
+    private static final String CONF_ASYNC_WRITE_QUEUE_CAPACITY = "asyncWriteQueueCapacity";
+    private static final String CONF_ASYNC_WRITE_FLUSH_SIZE = "asyncWriteFlushSize";
+    private static final String CONF_ASYNC_WRITE_FLUSH_INTERVAL = "asyncWriteFlushInterval";
+    private static final String CONF_ASYNC_WRITE_QUEUE_TIMEOUT = "asyncWriteQueueTimeout";
+    private static final String CONF_ASYNC_WRITE_THREADS = "asyncWriteThreads";
+
+    private static final int DEFAULT_ASYNC_WRITE_QUEUE_CAPACITY = 10_000;
+    private static final int DEFAULT_ASYNC_WRITE_FLUSH_SIZE = 100;
+    private static final long DEFAULT_ASYNC_WRITE_FLUSH_INTERVAL_MS = 200;
+    private static final long DEFAULT_ASYNC_WRITE_QUEUE_TIMEOUT_MS = 1000;
+    private static final int DEFAULT_ASYNC_WRITE_THREADS = 2;
+
     private final SqaleRepositoryConfiguration sqaleRepositoryConfiguration;
     private final SchemaService schemaService;
     private final DataSource repositoryDataSource;
@@ -83,6 +97,7 @@ public class SqaleAuditServiceFactory implements AuditServiceFactory {
             SqaleRepoContext sqlRepoContext = createSqaleRepoContext(configuration);
             auditService = new SqaleAuditService(sqlRepoContext, sqlPerformanceMonitorsCollection);
             initCustomColumns(configuration, sqlRepoContext);
+            initAsyncWriter(configuration);
         } catch (RepositoryServiceFactoryException ex) {
             throw new AuditServiceFactoryException(ex.getMessage(), ex);
         }
@@ -168,6 +183,20 @@ public class SqaleAuditServiceFactory implements AuditServiceFactory {
         }
     }
 
+    private void initAsyncWriter(@NotNull Configuration configuration) {
+        if (!configuration.getBoolean(CONF_ASYNC_WRITE, false)) {
+            return;
+        }
+
+        LOGGER.info("SQL audit service will write audit event records asynchronously.");
+        auditService.startAsyncWriter(
+                configuration.getInt(CONF_ASYNC_WRITE_QUEUE_CAPACITY, DEFAULT_ASYNC_WRITE_QUEUE_CAPACITY),
+                configuration.getInt(CONF_ASYNC_WRITE_FLUSH_SIZE, DEFAULT_ASYNC_WRITE_FLUSH_SIZE),
+                configuration.getLong(CONF_ASYNC_WRITE_FLUSH_INTERVAL, DEFAULT_ASYNC_WRITE_FLUSH_INTERVAL_MS),
+                configuration.getLong(CONF_ASYNC_WRITE_QUEUE_TIMEOUT, DEFAULT_ASYNC_WRITE_QUEUE_TIMEOUT_MS),
+                configuration.getInt(CONF_ASYNC_WRITE_THREADS, DEFAULT_ASYNC_WRITE_THREADS));
+    }
+
     private String getStringFromConfig(Configuration config, String key) {
         String value = config.getString(key);
         if (Strings.isNullOrEmpty(value)) {
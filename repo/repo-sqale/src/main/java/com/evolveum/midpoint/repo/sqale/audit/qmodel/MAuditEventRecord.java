@@ -57,6 +57,8 @@ public class MAuditEventRecord {
     // "transient" fields not used by Querydsl
     public Collection<MAuditDelta> deltas;
     public Map<String, List<MAuditRefValue>> refValues;
+    /** Values for custom columns by property name, used only for asynchronous insert. */
+    public Map<String, String> customColumnValues;
 
     public void addDelta(MAuditDelta mAuditDelta) {
         if (deltas == null) {
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.mapping;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Binary form of serialized `fullObject` with separately stored top-level containers (segments).
+ *
+ * The object is split into the core part (the object without the segment items) and a segment
+ * for each top-level container item like `assignment` or `extension`.
+ * Each part is still serialized by the prism serializer (the item content format is not changed),
+ * but the parts are stored separately and length-prefixed, so they can be decoded independently.
+ * Segment item names are stored with dictionary-coded namespaces.
+ * Parts bigger than {@link #COMPRESSION_THRESHOLD} are deflated.
+ *
+ * Layout (all numbers except marker and version are unsigned varints):
+ *
+ * ----
+ * marker (0x00), version
+ * namespace count, namespaces (length + UTF-8)
+ * segment count
+ * core: flags, stored length [, original length if deflated]
+ * for each segment: namespace index, local name (length + UTF-8), flags, stored length [, original length]
+ * core payload, segment payloads (in the order of the header)
+ * ----
+ *
+ * The marker byte is never the first byte of the text (XML/JSON) serialization, so both forms
+ * can be stored in the same column and {@link #isBinary} tells them apart.
+ */
+public class BinaryFullObject {
+
+    public static final byte MARKER = 0;
+    public static final byte VERSION = 1;
+
+    /** Parts smaller than this (in bytes) are stored without compression. */
+    public static final int COMPRESSION_THRESHOLD = 512;
+
+    private static final int FLAG_DEFLATED = 1;
+
+    private final byte[] data;
+    private final Part core;
+    private final Map<QName, Part> segments = new LinkedHashMap<>();
+
+    private BinaryFullObject(byte[] data, Part core) {
+        this.data = data;
+        this.core = core;
+    }
+
+    /** Returns true if the provided serialized form uses this binary format. */
+    public static boolean isBinary(@Nullable byte[] fullObject) {
+        return fullObject != null && fullObject.length > 1 && fullObject[0] == MARKER;
+    }
+
+    /**
+     * Reads the header of the binary form, parts are decoded only when requested.
+     */
+    public static BinaryFullObject read(@NotNull byte[] data) throws SchemaException {
+        if (!isBinary(data)) {
+            throw new SchemaException("Serialized form is not in binary format");
+        }
+        if (data[1] != VERSION) {
+            throw new SchemaException("Unsupported binary full object version " + data[1]);
+        }
+        try {
+            Reader reader = new Reader(data, 2);
+            int namespaceCount = reader.readVarInt();
+            String[] namespaces = new String[namespaceCount];
+            for (int i = 0; i < namespaceCount; i++) {
+                namespaces[i] = reader.readString();
+            }
+            int segmentCount = reader.readVarInt();
+            Part core = reader.readPartHeader();
+            List<QName> names = new ArrayList<>(segmentCount);
+            List<Part> parts = new ArrayList<>(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                String namespace = namespaces[reader.readVarInt()];
+                names.add(new QName(namespace, reader.readString()));
+                parts.add(reader.readPartHeader());
+            }
+
+            int offset = reader.position;
+            offset = core.setOffset(offset);
+            BinaryFullObject result = new BinaryFullObject(data, core);
+            for (int i = 0; i < segmentCount; i++) {
+                Part part = parts.get(i);
+                offset = part.setOffset(offset);
+                result.segments.put(names.get(i), part);
+            }
+            if (offset != data.length) {
+                throw new SchemaException("Corrupted binary full object, expected length "
+                        + offset + ", actual length " + data.length);
+            }
+            return result;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new SchemaException("Corrupted binary full object: " + e, e);
+        }
+    }
+
+    /** Returns serialized core part of the object (without the segments). */
+    public @NotNull String core() throws SchemaException {
+        return core.decode(data);
+    }
+
+    public @NotNull Set<QName> segmentNames() {
+        return Collections.unmodifiableSet(segments.keySet());
+    }
+
+    /**
+     * Returns serialized object containing only the specified top-level item,
+     * or null if there is no such segment.
+     */
+    public @Nullable String segment(@NotNull QName itemName) throws SchemaException {
+        Part part = segments.get(itemName);
+        if (part == null) {
+            for (Map.Entry<QName, Part> entry : segments.entrySet()) {
+                if (QNameUtil.match(entry.getKey(), itemName)) {
+                    part = entry.getValue();
+                    break;
+                }
+            }
+        }
+        return part != null ? part.decode(data) : null;
+    }
+
+    /** Returns the total size of the binary form in bytes. */
+    public int size() {
+        return data.length;
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryFullObject{" +
+                "size=" + data.length +
+                ", segments=" + segments.keySet() +
+                '}';
+    }
+
+    /**
+     * Collects the serialized parts and creates the binary form.
+     */
+    public static class Writer {
+
+        private final Map<String, Integer> namespaceIndexes = new LinkedHashMap<>();
+        private final List<QName> segmentNames = new ArrayList<>();
+        private final List<byte[]> segmentPayloads = new ArrayList<>();
+        private final byte[] corePayload;
+
+        public Writer(@NotNull String core) {
+            corePayload = core.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public Writer addSegment(@NotNull QName itemName, @NotNull String serialized) {
+            namespaceIndexes.computeIfAbsent(itemName.getNamespaceURI(), ns -> namespaceIndexes.size());
+            segmentNames.add(itemName);
+            segmentPayloads.add(serialized.getBytes(StandardCharsets.UTF_8));
+            return this;
+        }
+
+        public byte[] toBytes() {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(MARKER);
+            header.write(VERSION);
+            writeVarInt(header, namespaceIndexes.size());
+            for (String namespace : namespaceIndexes.keySet()) {
+                writeString(header, namespace);
+            }
+            writeVarInt(header, segmentNames.size());
+
+            List<byte[]> storedPayloads = new ArrayList<>(segmentNames.size() + 1);
+            storedPayloads.add(writePartHeader(header, corePayload));
+            for (int i = 0; i < segmentNames.size(); i++) {
+                QName name = segmentNames.get(i);
+                writeVarInt(header, namespaceIndexes.get(name.getNamespaceURI()));
+                writeString(header, name.getLocalPart());
+                storedPayloads.add(writePartHeader(header, segmentPayloads.get(i)));
+            }
+
+            for (byte[] payload : storedPayloads) {
+                header.writeBytes(payload);
+            }
+            return header.toByteArray();
+        }
+
+        /** Writes part header and returns the payload as it should be stored. */
+        private byte[] writePartHeader(ByteArrayOutputStream header, byte[] payload) {
+            if (payload.length < COMPRESSION_THRESHOLD) {
+                header.write(0);
+                writeVarInt(header, payload.length);
+                return payload;
+            }
+
+            byte[] deflated = deflate(payload);
+            if (deflated.length >= payload.length) {
+                header.write(0);
+                writeVarInt(header, payload.length);
+                return payload;
+            }
+            header.write(FLAG_DEFLATED);
+            writeVarInt(header, deflated.length);
+            writeVarInt(header, payload.length);
+            return deflated;
+        }
+
+        private static byte[] deflate(byte[] payload) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(payload);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static void writeString(ByteArrayOutputStream out, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+
+        private static void writeVarInt(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] data;
+        private int position;
+
+        private Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        private int readVarInt() throws SchemaException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new SchemaException("Corrupted binary full object, invalid number at " + position);
+        }
+
+        private String readString() throws SchemaException {
+            int length = readVarInt();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private Part readPartHeader() throws SchemaException {
+            int flags = data[position++];
+            int storedLength = readVarInt();
+            int originalLength = (flags & FLAG_DEFLATED) != 0 ? readVarInt() : storedLength;
+            return new Part(flags, storedLength, originalLength);
+        }
+    }
+
+    private static class Part {
+
+        private final int flags;
+        private final int storedLength;
+        private final int originalLength;
+        private int offset;
+
+        private Part(int flags, int storedLength, int originalLength) {
+            this.flags = flags;
+            this.storedLength = storedLength;
+            this.originalLength = originalLength;
+        }
+
+        /** Sets the offset of the payload and returns the offset after it. */
+        private int setOffset(int offset) {
+            this.offset = offset;
+            return offset + storedLength;
+        }
+
+        private String decode(byte[] data) throws SchemaException {
+            if ((flags & FLAG_DEFLATED) == 0) {
+                return new String(data, offset, storedLength, StandardCharsets.UTF_8);
+            }
+
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, offset, storedLength);
+                byte[] result = new byte[originalLength];
+                int length = 0;
+                while (length < originalLength && !inflater.finished()) {
+                    int count = inflater.inflate(result, length, originalLength - length);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += count;
+                }
+                if (length != originalLength) {
+                    throw new SchemaException("Corrupted binary full object, expected "
+                            + originalLength + " bytes after inflating, got " + length);
+                }
+                return new String(result, StandardCharsets.UTF_8);
+            } catch (DataFormatException e) {
+                throw new SchemaException("Corrupted binary full object: " + e, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
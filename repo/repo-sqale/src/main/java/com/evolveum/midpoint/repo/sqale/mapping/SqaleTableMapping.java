@@ -8,6 +8,7 @@ package com.evolveum.midpoint.repo.sqale.mapping;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
@@ -22,6 +23,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismContainerDefinition;
+import com.evolveum.midpoint.prism.PrismContainerValue;
 import com.evolveum.midpoint.prism.Referencable;
 import com.evolveum.midpoint.prism.SerializationOptions;
 import com.evolveum.midpoint.prism.path.ItemName;
@@ -59,6 +64,7 @@ import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 
 /**
@@ -436,8 +442,16 @@ public abstract class SqaleTableMapping<S, Q extends FlexibleRelationalPathBase<
         return strings.toArray(String[]::new);
     }
 
-    /** Convenient insert shortcut when the row is fully populated. */
+    /**
+     * Convenient insert shortcut when the row is fully populated.
+     * If the JDBC session has insert batching active, the row is only added to the batch.
+     */
     protected void insert(R row, JdbcSession jdbcSession) {
+        if (jdbcSession.isInsertBatching()) {
+            jdbcSession.addInsertToBatch(defaultAlias(), row);
+            return;
+        }
+
         jdbcSession.newInsert(defaultAlias())
                 .populate(row)
                 .execute();
@@ -472,9 +486,68 @@ public abstract class SqaleTableMapping<S, Q extends FlexibleRelationalPathBase<
     }
 
     protected <T> T parseSchemaObject(byte[] fullObject, String identifier, Class<T> clazz) throws SchemaException {
+        return parseSchemaObject(fullObject, identifier, clazz, Collections.emptyList());
+    }
+
+    /**
+     * Parses the serialized form, both text and binary ({@link BinaryFullObject}) forms are supported.
+     * For the binary form, segments of the top-level items from the `itemsToSkip` parameter are not decoded
+     * at all and the items are marked as incomplete.
+     * For the text form the whole object is always parsed.
+     */
+    protected <T> T parseSchemaObject(byte[] fullObject, String identifier, Class<T> clazz,
+            @NotNull Collection<? extends QName> itemsToSkip) throws SchemaException {
+        if (BinaryFullObject.isBinary(fullObject)) {
+            return parseBinarySchemaObject(fullObject, identifier, clazz, itemsToSkip);
+        }
+
         String serializedForm = fullObject != null
                 ? new String(fullObject, StandardCharsets.UTF_8)
                 : null;
+        return parseSerializedForm(serializedForm, identifier, clazz);
+    }
+
+    private <T> T parseBinarySchemaObject(byte[] fullObject, String identifier, Class<T> clazz,
+            Collection<? extends QName> itemsToSkip) throws SchemaException {
+        BinaryFullObject binaryForm;
+        try {
+            binaryForm = BinaryFullObject.read(fullObject);
+        } catch (SchemaException e) {
+            logger.error("Couldn't read binary form of object {} {}: {}",
+                    clazz.getSimpleName(), identifier, e.getMessage());
+            throw e;
+        }
+
+        T schemaObject = parseSerializedForm(binaryForm.core(), identifier, clazz);
+        if (binaryForm.segmentNames().isEmpty()) {
+            return schemaObject;
+        }
+        if (!(schemaObject instanceof Containerable)) {
+            throw new SchemaException("Binary form with segments is not supported for "
+                    + clazz.getSimpleName() + " " + identifier);
+        }
+
+        PrismContainerValue<?> value = ((Containerable) schemaObject).asPrismContainerValue();
+        for (QName segmentName : binaryForm.segmentNames()) {
+            if (QNameUtil.matchAny(segmentName, itemsToSkip)) {
+                value.findOrCreateContainer(segmentName).setIncomplete(true);
+                continue;
+            }
+
+            Containerable segmentObject = (Containerable) parseSerializedForm(
+                    binaryForm.segment(segmentName), identifier, clazz);
+            PrismContainerValue<?> segmentValue = segmentObject.asPrismContainerValue();
+            Item<?, ?> item = segmentValue.findItem(ItemName.fromQName(segmentName));
+            if (item != null) {
+                segmentValue.remove(item);
+                value.add(item);
+            }
+        }
+        return schemaObject;
+    }
+
+    private <T> T parseSerializedForm(String serializedForm, String identifier, Class<T> clazz)
+            throws SchemaException {
         try {
             RepositoryObjectParseResult<T> result =
                     repositoryContext().parsePrismObject(serializedForm, clazz);
@@ -497,18 +570,83 @@ public abstract class SqaleTableMapping<S, Q extends FlexibleRelationalPathBase<
         }
     }
 
-    /** Creates serialized (byte array) form of an object or a container. */
+    /**
+     * Creates serialized (byte array) form of an object or a container.
+     * Binary form ({@link BinaryFullObject}) is used if configured.
+     */
     public <C extends Containerable> byte[] createFullObject(C container) throws SchemaException {
-        repositoryContext().normalizeAllRelations(container.asPrismContainerValue());
+        PrismContainerValue<?> value = container.asPrismContainerValue();
+        repositoryContext().normalizeAllRelations(value);
+        if (repositoryContext().isFullObjectBinary()) {
+            return createBinaryFullObject(value);
+        }
+        return serializeFullObject(value, fullObjectItemsToSkip())
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Each multi-value container and extension gets its own segment, so it can be decoded
+     * separately; the rest of the object is in the core part.
+     */
+    private byte[] createBinaryFullObject(PrismContainerValue<?> value) throws SchemaException {
+        Collection<? extends QName> itemsToSkip = fullObjectItemsToSkip();
+        List<QName> itemNames = new ArrayList<>();
+        List<QName> segmentNames = new ArrayList<>();
+        for (Item<?, ?> item : value.getItems()) {
+            QName itemName = item.getElementName();
+            if (QNameUtil.matchAny(itemName, itemsToSkip)) {
+                continue;
+            }
+            itemNames.add(itemName);
+            if (item instanceof PrismContainer && isSegment((PrismContainer<?>) item)) {
+                segmentNames.add(itemName);
+            }
+        }
+
+        List<QName> coreItemsToSkip = new ArrayList<>(itemsToSkip);
+        coreItemsToSkip.addAll(segmentNames);
+        BinaryFullObject.Writer writer =
+                new BinaryFullObject.Writer(serializeFullObject(value, coreItemsToSkip));
+        for (QName segmentName : segmentNames) {
+            List<QName> segmentItemsToSkip = new ArrayList<>(itemsToSkip);
+            for (QName itemName : itemNames) {
+                if (!itemName.equals(segmentName)) {
+                    segmentItemsToSkip.add(itemName);
+                }
+            }
+            writer.addSegment(segmentName, serializeFullObject(value, segmentItemsToSkip));
+        }
+        return writer.toBytes();
+    }
+
+    private boolean isSegment(PrismContainer<?> container) {
+        PrismContainerDefinition<?> definition = container.getDefinition();
+        return definition != null && definition.isMultiValue()
+                || QNameUtil.match(container.getElementName(), ObjectType.F_EXTENSION);
+    }
+
+    private String serializeFullObject(PrismContainerValue<?> value, Collection<? extends QName> itemsToSkip)
+            throws SchemaException {
         return repositoryContext().createStringSerializer()
-                .itemsToSkip(fullObjectItemsToSkip())
+                .itemsToSkip(itemsToSkip)
                 .options(SerializationOptions
                         .createSerializeReferenceNamesForNullOids()
                         .skipIndexOnly(true)
                         .skipTransient(true)
                         .skipWhitespaces(true))
-                .serialize(container.asPrismContainerValue())
-                .getBytes(StandardCharsets.UTF_8);
+                .serialize(value);
+    }
+
+    /**
+     * Returns text form of the serialized fullObject, converting the binary form if necessary.
+     */
+    public String fullObjectToText(byte[] fullObject, String identifier) throws SchemaException {
+        if (!BinaryFullObject.isBinary(fullObject)) {
+            return new String(fullObject, StandardCharsets.UTF_8);
+        }
+        S schemaObject = parseSchemaObject(fullObject, identifier);
+        return serializeFullObject(((Containerable) schemaObject).asPrismContainerValue(),
+                fullObjectItemsToSkip());
     }
 
     protected Collection<? extends QName> fullObjectItemsToSkip() {
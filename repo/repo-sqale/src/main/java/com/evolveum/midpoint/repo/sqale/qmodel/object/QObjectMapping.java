@@ -8,10 +8,12 @@ package com.evolveum.midpoint.repo.sqale.qmodel.object;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentHolderType.*;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import javax.xml.namespace.QName;
 
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Path;
@@ -19,6 +21,7 @@ import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.api.RepositoryObjectDiagnosticData;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoContext;
@@ -32,6 +35,7 @@ import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReferenceMapping;
 import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
 import com.evolveum.midpoint.repo.sqlbase.mapping.RepositoryMappingException;
 import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.RetrieveOption;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.util.MiscUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -153,7 +157,7 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
             throws SchemaException {
         byte[] fullObject = Objects.requireNonNull(row.get(entityPath.fullObject));
         UUID oid = Objects.requireNonNull(row.get(entityPath.oid));
-        S ret = parseSchemaObject(fullObject, oid.toString());
+        S ret = parseSchemaObject(fullObject, oid.toString(), schemaType(), excludedItems(options));
         if (GetOperationOptions.isAttachDiagData(SelectorOptions.findRootOptions(options))) {
             RepositoryObjectDiagnosticData diagData = new RepositoryObjectDiagnosticData(fullObject.length);
             ret.asPrismContainer().setUserData(RepositoryService.KEY_DIAG_DATA, diagData);
@@ -161,6 +165,33 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
         return ret;
     }
 
+    /**
+     * Parses the serialized form of the object and serializes it again in the currently
+     * configured format, e.g. text form to binary form.
+     */
+    public byte[] reserializeFullObject(byte[] fullObject, String oid) throws SchemaException {
+        return createFullObject(parseSchemaObject(fullObject, oid));
+    }
+
+    /**
+     * Returns top-level items explicitly excluded by retrieve options.
+     * These are not decoded from binary fullObject at all.
+     */
+    private Collection<QName> excludedItems(Collection<SelectorOptions<GetOperationOptions>> options) {
+        List<QName> excludedItems = new ArrayList<>();
+        for (SelectorOptions<GetOperationOptions> selectorOptions : SelectorOptions.filterRetrieveOptions(options)) {
+            if (selectorOptions.getOptions() == null
+                    || selectorOptions.getOptions().getRetrieve() != RetrieveOption.EXCLUDE) {
+                continue;
+            }
+            ItemPath path = selectorOptions.getSelector() != null ? selectorOptions.getSelector().getPath() : null;
+            if (path != null && path.size() == 1 && path.startsWithName()) {
+                excludedItems.add(path.firstToName());
+            }
+        }
+        return excludedItems;
+    }
+
     /**
      * The same function as in overridden method, but softer exception handling.
      * This targets cases like {@link RepositoryService#searchObjects} where single wrong object
@@ -18,12 +18,12 @@ import com.evolveum.midpoint.repo.sqlbase.querydsl.UuidPath;
  * Can also be used for common table expression (CTE) representing org hierarchy on the fly.
  * This does not have to be under {@link FlexibleRelationalPathBase}, but is for convenience.
  *
- * [IMPORTANT]
- * *Be aware that the materialized view is refreshed only on demand!*
- * This is executed when {@link com.evolveum.midpoint.prism.query.OrgFilter} is used in
- * {@link SqaleQueryContext#beforeQuery()} or when executing
- * {@link SqaleRepositoryService#isAnySubordinate(java.lang.String, java.util.Collection)}.
- * If any access via other paths is done, use statement `CALL m_refresh_org_closure()` before.
+ * The closure table is maintained incrementally by triggers when parent-org refs of orgs change.
+ * Full rebuild is needed only after truncating the tables or when cycle in org hierarchy is found,
+ * which is flagged in the DB and executed by `CALL m_refresh_org_closure()` when
+ * {@link com.evolveum.midpoint.prism.query.OrgFilter} is used in {@link SqaleQueryContext#beforeQuery()}
+ * or when executing {@link SqaleRepositoryService#isAnySubordinate(java.lang.String, java.util.Collection)}.
+ * If any access via other paths is done, use the same statement before.
  */
 @SuppressWarnings("unused")
 public class QOrgClosure extends FlexibleRelationalPathBase<MOrgClosure> {
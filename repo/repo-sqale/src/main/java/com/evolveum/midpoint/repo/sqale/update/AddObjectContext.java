@@ -40,6 +40,9 @@ public class AddObjectContext<S extends ObjectType, Q extends QObject<R>, R exte
     private QObjectMapping<S, Q, R> rootMapping;
     private MObjectType objectType;
 
+    /** Root row prepared by {@link #addRootRowToBatch} for {@link #addRelatedEntitiesToBatch}. */
+    private R batchedRow;
+
     public AddObjectContext(
             @NotNull SqaleRepoContext repositoryContext,
             @NotNull PrismObject<S> object) {
@@ -93,6 +96,42 @@ public class AddObjectContext<S extends ObjectType, Q extends QObject<R>, R exte
         }
     }
 
+    /**
+     * First phase of the batched add, adds the root row to the insert batch of the JDBC session.
+     * Missing OID is generated here instead of the database, so the full object can be serialized
+     * without the additional update used by {@link #execute(JdbcSession)}.
+     * The batch with root rows must be flushed before {@link #addRelatedEntitiesToBatch} is called.
+     */
+    public void addRootRowToBatch(JdbcSession jdbcSession) throws SchemaException {
+        object.setVersion(INITIAL_VERSION_STRING);
+        initContexts();
+        if (object.getOid() == null) {
+            object.setOid(UUID.randomUUID().toString());
+        }
+
+        long lastCid = new ContainerValueIdGenerator(object).generateForNewObject();
+        S schemaObject = object.asObjectable();
+        batchedRow = rootMapping.toRowObjectWithoutFullObject(schemaObject, jdbcSession);
+        batchedRow.containerIdSeq = lastCid + 1;
+        rootMapping.setFullObject(batchedRow, schemaObject);
+
+        jdbcSession.addInsertToBatch(root, batchedRow);
+    }
+
+    /**
+     * Second phase of the batched add, adds rows of related entities (refs, containers, etc.)
+     * to the insert batch and returns OID of the object.
+     */
+    public String addRelatedEntitiesToBatch(JdbcSession jdbcSession) throws SchemaException {
+        if (batchedRow == null) {
+            throw new IllegalStateException("Root row was not added to the batch yet for " + object);
+        }
+
+        batchedRow.objectType = objectType;
+        rootMapping.storeRelatedEntities(batchedRow, object.asObjectable(), jdbcSession);
+        return object.getOid();
+    }
+
     private void initContexts() {
         Class<S> schemaObjectClass = object.getCompileTimeClass();
         objectType = MObjectType.fromSchemaType(schemaObjectClass);
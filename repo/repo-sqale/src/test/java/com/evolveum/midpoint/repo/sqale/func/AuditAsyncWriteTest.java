@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.audit.AsyncAuditWriter;
+import com.evolveum.midpoint.repo.sqale.audit.SqaleAuditService;
+import com.evolveum.midpoint.repo.sqale.audit.SqaleAuditServiceFactory;
+import com.evolveum.midpoint.repo.sqale.audit.qmodel.*;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
+import com.evolveum.midpoint.task.api.test.NullTaskImpl;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests of asynchronous batched audit writing, see {@link AsyncAuditWriter}.
+ */
+public class AuditAsyncWriteTest extends SqaleRepoBaseTest {
+
+    @Autowired private SqaleAuditServiceFactory auditServiceFactory;
+
+    @AfterClass
+    public void stopAsyncWriter() {
+        // just in case the test fails, other tests expect synchronous audit
+        auditServiceFactory.createAuditService().stopAsyncWriter();
+    }
+
+    private AuditEventRecord createAuditRecord(int i) throws SchemaException {
+        AuditEventRecord record = new AuditEventRecord();
+        record.setParameter(String.valueOf(i));
+        record.setTimestamp(System.currentTimeMillis());
+        record.getCustomColumnProperty().put("foo", "foo-value-" + i);
+
+        ObjectDeltaOperation<UserType> delta = new ObjectDeltaOperation<>();
+        delta.setObjectDelta(prismContext.deltaFor(UserType.class)
+                .item(UserType.F_FULL_NAME).replace(PolyString.fromOrig("newVal"))
+                .asObjectDelta(UUID.randomUUID().toString()));
+        record.addDelta(delta);
+
+        record.addReferenceValue("ref1",
+                ObjectTypeUtil.createObjectRef(UUID.randomUUID().toString(), ObjectTypes.USER)
+                        .asReferenceValue());
+        return record;
+    }
+
+    @Test
+    public void test100AsyncWriteStoresAllRecordsWithSubentities() throws SchemaException {
+        OperationResult operationResult = createOperationResult();
+        SqaleAuditService sqaleAuditService = auditServiceFactory.createAuditService();
+
+        given("empty audit and asynchronous writer with small flush size");
+        clearAudit();
+        sqaleAuditService.startAsyncWriter(100, 10, 50, 1000, 2);
+
+        when("25 audit records are written");
+        for (int i = 1; i <= 25; i++) {
+            auditService.audit(createAuditRecord(i), NullTaskImpl.INSTANCE, operationResult);
+        }
+        AsyncAuditWriter.Statistics statsBeforeStop = sqaleAuditService.getAsyncWriterStatistics();
+        sqaleAuditService.stopAsyncWriter();
+
+        then("operation is success and all records are stored after the writer is stopped");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(statsBeforeStop).isNotNull();
+        assertThat(statsBeforeStop.enqueued + statsBeforeStop.rejected).isEqualTo(25);
+        assertThat(sqaleAuditService.getAsyncWriterStatistics()).isNull();
+
+        QAuditEventRecord qae = QAuditEventRecordMapping.get().defaultAlias();
+        assertCount(qae, 25);
+        assertCount(QAuditDeltaMapping.get().defaultAlias(), 25);
+        assertCount(QAuditRefValueMapping.get().defaultAlias(), 25);
+
+        and("custom column values are stored too");
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            Object customColumnValue = jdbcSession.newQuery()
+                    .from(qae)
+                    .select(qae.getPath("foo"))
+                    .where(qae.parameter.eq("7"))
+                    .fetchOne();
+            assertThat(customColumnValue).isEqualTo("foo-value-7");
+        }
+    }
+
+    @Test
+    public void test110AuditAfterStopIsSynchronous() throws SchemaException {
+        OperationResult operationResult = createOperationResult();
+
+        given("empty audit and no asynchronous writer");
+        clearAudit();
+
+        when("audit record is written");
+        AuditEventRecord record = createAuditRecord(1);
+        auditService.audit(record, NullTaskImpl.INSTANCE, operationResult);
+
+        then("record is stored immediately and gets its repo ID");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(record.getRepoId()).isNotNull();
+        assertCount(QAuditEventRecordMapping.get().defaultAlias(), 1);
+    }
+
+    @Test
+    public void test120NoRecordIsLostWhenStoppedDuringAudit() throws Exception {
+        SqaleAuditService sqaleAuditService = auditServiceFactory.createAuditService();
+        int threads = 4;
+        int recordsPerThread = 50;
+
+        given("empty audit and asynchronous writer with a tiny queue");
+        clearAudit();
+        sqaleAuditService.startAsyncWriter(5, 3, 20, 1000, 1);
+
+        when("records are audited from more threads while the writer is stopped");
+        CountDownLatch started = new CountDownLatch(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> auditThreads = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                OperationResult operationResult = createOperationResult();
+                started.countDown();
+                try {
+                    for (int i = 1; i <= recordsPerThread; i++) {
+                        auditService.audit(createAuditRecord(i), NullTaskImpl.INSTANCE, operationResult);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            auditThreads.add(thread);
+            thread.start();
+        }
+        started.await();
+        sqaleAuditService.stopAsyncWriter();
+        for (Thread thread : auditThreads) {
+            thread.join();
+        }
+
+        then("all the records are stored, either asynchronously or synchronously");
+        assertThat(failure.get()).isNull();
+        assertCount(QAuditEventRecordMapping.get().defaultAlias(), threads * recordsPerThread);
+    }
+}
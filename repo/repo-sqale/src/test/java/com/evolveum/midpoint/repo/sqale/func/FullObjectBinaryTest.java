@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collection;
+import java.util.UUID;
+
+import com.querydsl.core.types.dsl.Expressions;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismAsserts;
+import com.evolveum.midpoint.repo.sqale.FullObjectMigration;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.mapping.BinaryFullObject;
+import com.evolveum.midpoint.repo.sqale.qmodel.focus.MUser;
+import com.evolveum.midpoint.repo.sqale.qmodel.focus.QUser;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QObject;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QObjectMapping;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SchemaService;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+public class FullObjectBinaryTest extends SqaleRepoBaseTest {
+
+    @AfterMethod
+    public void resetFullObjectFormat() {
+        repositoryConfiguration.setFullObjectBinary(false);
+    }
+
+    @Test
+    public void test100BinaryFormatRoundTrip() throws SchemaException {
+        given("binary form with small and big (compressed) parts");
+        String core = "{\"user\":{\"name\":\"test\"}}";
+        String bigSegment = "{\"user\":{\"assignment\":[" + "{\"description\":\"foo\"},".repeat(100) + "{}]}}";
+        byte[] data = new BinaryFullObject.Writer(core)
+                .addSegment(UserType.F_ASSIGNMENT, bigSegment)
+                .addSegment(UserType.F_EXTENSION, "{\"user\":{\"extension\":{}}}")
+                .toBytes();
+
+        when("the binary form is read");
+        BinaryFullObject binaryForm = BinaryFullObject.read(data);
+
+        then("all the parts are restored and the big part is compressed");
+        assertThat(BinaryFullObject.isBinary(data)).isTrue();
+        assertThat(BinaryFullObject.isBinary(core.getBytes())).isFalse();
+        assertThat(binaryForm.core()).isEqualTo(core);
+        assertThat(binaryForm.segmentNames()).containsExactly(UserType.F_ASSIGNMENT, UserType.F_EXTENSION);
+        assertThat(binaryForm.segment(UserType.F_ASSIGNMENT)).isEqualTo(bigSegment);
+        assertThat(binaryForm.segment(UserType.F_EXTENSION)).isEqualTo("{\"user\":{\"extension\":{}}}");
+        assertThat(binaryForm.segment(UserType.F_LINK_REF)).isNull();
+        assertThat(data.length).isLessThan(core.length() + bigSegment.length());
+    }
+
+    @Test
+    public void test110AddAndGetObjectWithBinaryFullObject() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("binary fullObject is enabled");
+        repositoryConfiguration.setFullObjectBinary(true);
+        UserType user = createUserWithAssignments("user-binary-110");
+
+        when("user is added and read");
+        String oid = repositoryService.addObject(user.asPrismObject(), null, result);
+        UserType userRead = repositoryService.getObject(UserType.class, oid, null, result).asObjectable();
+
+        then("fullObject is stored in binary form and the object is read completely");
+        assertThatOperationResult(result).isSuccess();
+        MUser row = selectObjectByOid(QUser.class, oid);
+        assertThat(BinaryFullObject.isBinary(row.fullObject)).isTrue();
+        assertThat(BinaryFullObject.read(row.fullObject).segmentNames()).contains(UserType.F_ASSIGNMENT);
+        assertThat(userRead.getName().getOrig()).isEqualTo("user-binary-110");
+        assertThat(userRead.getDescription()).isEqualTo("description");
+        assertThat(userRead.getAssignment()).hasSize(2)
+                .allMatch(a -> a.getId() != null && a.getTargetRef() != null);
+    }
+
+    @Test
+    public void test120ExcludedItemIsNotDecoded() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user stored with binary fullObject");
+        repositoryConfiguration.setFullObjectBinary(true);
+        String oid = repositoryService.addObject(
+                createUserWithAssignments("user-binary-120").asPrismObject(), null, result);
+
+        when("user is read with assignments excluded");
+        Collection<SelectorOptions<GetOperationOptions>> options = SchemaService.get().getOperationOptionsBuilder()
+                .item(UserType.F_ASSIGNMENT).dontRetrieve()
+                .build();
+        PrismObject<UserType> user = repositoryService.getObject(UserType.class, oid, options, result);
+
+        then("assignments are empty and marked as incomplete, the rest of the object is there");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(user.asObjectable().getDescription()).isEqualTo("description");
+        PrismAsserts.assertEmptyAndIncomplete(user, UserType.F_ASSIGNMENT);
+    }
+
+    @Test
+    public void test130TextFormIsReadableAndRewrittenAsBinaryOnModify() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user stored with text fullObject");
+        String oid = repositoryService.addObject(
+                createUserWithAssignments("user-text-130").asPrismObject(), null, result);
+        assertThat(BinaryFullObject.isBinary(selectObjectByOid(QUser.class, oid).fullObject)).isFalse();
+
+        when("binary fullObject is enabled and the user is modified");
+        repositoryConfiguration.setFullObjectBinary(true);
+        assertThat(repositoryService.getObject(UserType.class, oid, null, result)
+                .asObjectable().getAssignment()).hasSize(2);
+        repositoryService.modifyObject(UserType.class, oid,
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("modified")
+                        .asItemDeltas(),
+                result);
+
+        then("fullObject is rewritten in binary form");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(BinaryFullObject.isBinary(selectObjectByOid(QUser.class, oid).fullObject)).isTrue();
+        UserType userRead = repositoryService.getObject(UserType.class, oid, null, result).asObjectable();
+        assertThat(userRead.getDescription()).isEqualTo("modified");
+        assertThat(userRead.getAssignment()).hasSize(2);
+    }
+
+    @Test
+    public void test140MigrationConvertsTextForms() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("users stored with text fullObject");
+        for (int i = 1; i <= 5; i++) {
+            repositoryService.addObject(
+                    createUserWithAssignments("user-text-140-" + i).asPrismObject(), null, result);
+        }
+        QObject<?> o = QObjectMapping.getObjectMapping().defaultAlias();
+        assertThat(countTextForms(o)).isPositive();
+
+        when("binary fullObject is enabled and migration is running");
+        repositoryConfiguration.setFullObjectBinary(true);
+        FullObjectMigration migration = new FullObjectMigration(sqlRepoContext);
+        migration.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (countTextForms(o) > 0 && System.currentTimeMillis() < deadline) {
+                //noinspection BusyWait
+                Thread.sleep(100);
+            }
+        } finally {
+            migration.stop();
+        }
+
+        then("all objects are stored in binary form and are readable");
+        assertThat(countTextForms(o)).isZero();
+        assertThat(repositoryService.searchObjects(UserType.class, null, null, result))
+                .allMatch(u -> u.asObjectable().getName() != null);
+    }
+
+    @Test
+    public void test150MigrationContinuesAfterFailedUpdate() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("users stored with text fullObject, one of them failing on update");
+        String failingOid = null;
+        for (int i = 1; i <= 5; i++) {
+            String oid = repositoryService.addObject(
+                    createUserWithAssignments("user-text-150-" + i).asPrismObject(), null, result);
+            if (i == 2) {
+                failingOid = oid;
+            }
+        }
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.executeStatement("CREATE FUNCTION test150_fail() RETURNS trigger LANGUAGE plpgsql AS $$"
+                    + " BEGIN IF NEW.oid = '" + failingOid + "' THEN RAISE EXCEPTION 'test150 failure'; END IF;"
+                    + " RETURN NEW; END $$");
+            jdbcSession.executeStatement("CREATE TRIGGER test150_fail BEFORE UPDATE ON m_user"
+                    + " FOR EACH ROW EXECUTE FUNCTION test150_fail()");
+            jdbcSession.commit();
+        }
+        QObject<?> o = QObjectMapping.getObjectMapping().defaultAlias();
+
+        try {
+            when("binary fullObject is enabled and migration is running");
+            repositoryConfiguration.setFullObjectBinary(true);
+            FullObjectMigration migration = new FullObjectMigration(sqlRepoContext);
+            migration.start();
+            try {
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (countTextForms(o) > 1 && System.currentTimeMillis() < deadline) {
+                    //noinspection BusyWait
+                    Thread.sleep(100);
+                }
+            } finally {
+                migration.stop();
+            }
+
+            then("only the failing object is left in text form");
+            assertThat(countTextForms(o)).isEqualTo(1);
+            assertThat(BinaryFullObject.isBinary(selectObjectByOid(QUser.class, failingOid).fullObject)).isFalse();
+        } finally {
+            try (JdbcSession jdbcSession = startTransaction()) {
+                jdbcSession.executeStatement("DROP TRIGGER test150_fail ON m_user");
+                jdbcSession.executeStatement("DROP FUNCTION test150_fail()");
+                jdbcSession.commit();
+            }
+        }
+    }
+
+    private long countTextForms(QObject<?> o) {
+        return count(o, Expressions.numberTemplate(Integer.class, "get_byte({0}, 0)", o.fullObject)
+                .ne((int) BinaryFullObject.MARKER));
+    }
+
+    private UserType createUserWithAssignments(String name) {
+        return new UserType(prismContext)
+                .name(name)
+                .description("description")
+                .assignment(new AssignmentType(prismContext)
+                        .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE))
+                .assignment(new AssignmentType(prismContext)
+                        .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE));
+    }
+}
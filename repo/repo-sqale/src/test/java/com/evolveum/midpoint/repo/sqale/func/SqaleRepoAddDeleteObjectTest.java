@@ -29,6 +29,7 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.repo.api.DeleteObjectResult;
+import com.evolveum.midpoint.repo.api.RepoBulkItemResult;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
 import com.evolveum.midpoint.repo.sqale.SqaleRepositoryService;
@@ -413,6 +414,93 @@ public class SqaleRepoAddDeleteObjectTest extends SqaleRepoBaseTest {
         assertSingleOperationRecorded(REPO_OP_PREFIX + RepositoryService.OP_ADD_OBJECT_OVERWRITE);
     }
 
+    @Test
+    public void test160AddObjectsInBatch() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("objects of various types with refs and containers, some with provided OID");
+        long baseCount = count(QObject.CLASS);
+        UUID providedOid = UUID.randomUUID();
+        UUID parentOrgOid = UUID.randomUUID();
+        List<PrismObject<? extends ObjectType>> objects = List.of(
+                new UserType(prismContext)
+                        .name("user" + getTestNumber())
+                        .parentOrgRef(parentOrgOid.toString(), OrgType.COMPLEX_TYPE)
+                        .assignment(new AssignmentType(prismContext)
+                                .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE))
+                        .asPrismObject(),
+                new ShadowType(prismContext)
+                        .oid(providedOid.toString())
+                        .name("shadow" + getTestNumber())
+                        .parentOrgRef(parentOrgOid.toString(), OrgType.COMPLEX_TYPE)
+                        .asPrismObject(),
+                new UserType(prismContext)
+                        .name("user" + getTestNumber() + "-2")
+                        .asPrismObject());
+
+        when("adding them to the repository with addObjects");
+        List<RepoBulkItemResult<String>> itemResults =
+                repositoryService.addObjects(objects, null, result);
+
+        then("all objects are added and their OIDs are returned in the same order");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(itemResults).hasSize(3)
+                .allMatch(RepoBulkItemResult::isSuccess);
+        assertThat(itemResults.get(1).getValue()).isEqualTo(providedOid.toString());
+        for (int i = 0; i < objects.size(); i++) {
+            assertThat(objects.get(i).getOid()).isEqualTo(itemResults.get(i).getValue());
+        }
+        assertCount(QObject.CLASS, baseCount + 3);
+
+        and("full object can be read and it has container IDs assigned");
+        UserType user = repositoryService.getObject(
+                UserType.class, itemResults.get(0).getValue(), null, result).asObjectable();
+        assertThat(user.getAssignment().get(0).getId()).isEqualTo(1);
+        assertThat(user.getVersion()).isEqualTo(SqaleRepositoryService.INITIAL_VERSION_STRING);
+
+        and("rows of related entities are created too");
+        QAssignment<?> a = QAssignmentMapping.getAssignmentMapping().defaultAlias();
+        assertThat(select(a, a.ownerOid.eq(UUID.fromString(user.getOid())))).hasSize(1);
+        QObjectReference<?> r = QObjectReferenceMapping.getForParentOrg().defaultAlias();
+        assertThat(select(r, r.targetOid.eq(parentOrgOid))).hasSize(2);
+    }
+
+    @Test
+    public void test161AddObjectsReportsResultForEachObject() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user already in the repository");
+        UUID existingOid = UUID.randomUUID();
+        repositoryService.addObject(new UserType(prismContext)
+                .oid(existingOid.toString())
+                .name("user" + getTestNumber())
+                .asPrismObject(), null, result);
+        long baseCount = count(QUser.class);
+
+        and("objects to add, one of them without name and one with conflicting OID");
+        UserType okUser = new UserType(prismContext).name("user" + getTestNumber() + "-ok");
+        List<PrismObject<? extends ObjectType>> objects = List.of(
+                okUser.asPrismObject(),
+                new UserType(prismContext).asPrismObject(),
+                new UserType(prismContext)
+                        .oid(existingOid.toString())
+                        .name("user" + getTestNumber() + "-conflict")
+                        .asPrismObject());
+
+        when("adding them to the repository with addObjects");
+        List<RepoBulkItemResult<String>> itemResults =
+                repositoryService.addObjects(objects, null, result);
+
+        then("failed objects are reported without exception and the other object is added");
+        assertThat(itemResults).hasSize(3);
+        assertThat(itemResults.get(0).isSuccess()).isTrue();
+        assertThat(itemResults.get(0).getValue()).isEqualTo(okUser.getOid());
+        assertThat(itemResults.get(1).getException()).isInstanceOf(SchemaException.class);
+        assertThat(itemResults.get(2).getException()).isInstanceOf(ObjectAlreadyExistsException.class);
+        assertCount(QUser.class, baseCount + 1);
+        assertThat(selectObjectByOid(QUser.class, okUser.getOid())).isNotNull();
+    }
+
     @Test
     public void test200AddObjectWithMultivalueContainers()
             throws ObjectAlreadyExistsException, SchemaException {
@@ -33,6 +33,9 @@ import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.ConflictWatcher;
+import com.evolveum.midpoint.repo.api.ModifyObjectResult;
+import com.evolveum.midpoint.repo.api.RepoBulkItemResult;
 import com.evolveum.midpoint.repo.api.RepoModifyOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
@@ -3748,5 +3751,104 @@ public class SqaleRepoModifyObjectTest extends SqaleRepoBaseTest {
         MUser row = selectObjectByOid(QUser.class, user1Oid);
         assertThat(row.version).isEqualTo(originalRow.version + 1);
     }
+
+    @Test
+    public void test995ModifyObjectsReportsResultForEachObject() throws Exception {
+        OperationResult result = createOperationResult();
+        MUser originalUserRow = selectObjectByOid(QUser.class, user1Oid);
+        MShadow originalShadowRow = selectObjectByOid(QShadow.class, shadow1Oid);
+
+        given("modify deltas for two existing objects and one non-existent object");
+        List<ObjectDelta<? extends ObjectType>> deltas = List.of(
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_EMAIL_ADDRESS).replace("bulk@email.com")
+                        .asObjectDelta(user1Oid),
+                prismContext.deltaFor(ShadowType.class)
+                        .item(ShadowType.F_NAME).replace(PolyString.fromOrig("shadow-bulk"))
+                        .asObjectDelta(shadow1Oid),
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_EMAIL_ADDRESS).replace("missing@email.com")
+                        .asObjectDelta(UUID.randomUUID().toString()));
+
+        when("modifyObjects is called");
+        List<RepoBulkItemResult<ModifyObjectResult<?>>> itemResults =
+                repositoryService.modifyObjects(deltas, null, result);
+
+        then("result is reported for each delta in the same order");
+        assertThat(itemResults).hasSize(3);
+        assertThat(itemResults.get(0).isSuccess()).isTrue();
+        assertThat(itemResults.get(1).isSuccess()).isTrue();
+        assertThat(itemResults.get(2).getException()).isInstanceOf(ObjectNotFoundException.class);
+
+        and("existing objects are modified despite the failure of the other modification");
+        MUser userRow = selectObjectByOid(QUser.class, user1Oid);
+        assertThat(userRow.version).isEqualTo(originalUserRow.version + 1);
+        assertThat(repositoryService.getObject(UserType.class, user1Oid, null, result)
+                .asObjectable().getEmailAddress()).isEqualTo("bulk@email.com");
+        MShadow shadowRow = selectObjectByOid(QShadow.class, shadow1Oid);
+        assertThat(shadowRow.version).isEqualTo(originalShadowRow.version + 1);
+        assertThat(shadowRow.nameOrig).isEqualTo("shadow-bulk");
+    }
+
+    @Test
+    public void test996ModifyObjectsFallbackDoesNotConfuseConflictWatcher() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("conflict watcher for the user");
+        ConflictWatcher watcher = repositoryService.createAndRegisterConflictWatcher(user1Oid);
+        try {
+            and("deltas that cannot be executed in a single transaction");
+            List<ObjectDelta<? extends ObjectType>> deltas = List.of(
+                    prismContext.deltaFor(UserType.class)
+                            .item(UserType.F_EMAIL_ADDRESS).replace("watched@email.com")
+                            .asObjectDelta(user1Oid),
+                    prismContext.deltaFor(UserType.class)
+                            .item(UserType.F_EMAIL_ADDRESS).replace("missing@email.com")
+                            .asObjectDelta(UUID.randomUUID().toString()));
+
+            when("modifyObjects is called (and falls back to one-by-one modifications)");
+            List<RepoBulkItemResult<ModifyObjectResult<?>>> itemResults =
+                    repositoryService.modifyObjects(deltas, null, result);
+
+            then("the user is modified and the watcher sees only that one modification");
+            assertThat(itemResults.get(0).isSuccess()).isTrue();
+            assertThat(watcher.hasConflict()).isFalse();
+            assertThat(repositoryService.hasConflict(watcher, result)).isFalse();
+        } finally {
+            repositoryService.unregisterConflictWatcher(watcher);
+        }
+    }
+
+    @Test
+    public void test997ModifyObjectsWithEmptyDeltaReportsItemResult() throws Exception {
+        OperationResult result = createOperationResult();
+        MUser originalUserRow = selectObjectByOid(QUser.class, user1Oid);
+
+        given("empty delta and non-empty delta");
+        List<ObjectDelta<? extends ObjectType>> deltas = List.of(
+                prismContext.deltaFactory().object().createEmptyModifyDelta(UserType.class, user1Oid),
+                prismContext.deltaFor(ShadowType.class)
+                        .item(ShadowType.F_NAME).replace(PolyString.fromOrig("shadow-bulk-2"))
+                        .asObjectDelta(shadow1Oid));
+
+        when("modifyObjects is called");
+        OperationResult bulkResult = result.createSubresult("bulk");
+        List<RepoBulkItemResult<ModifyObjectResult<?>>> itemResults =
+                repositoryService.modifyObjects(deltas, null, bulkResult);
+        bulkResult.computeStatus();
+
+        then("both modifications succeed, the empty one is reported in its own result");
+        assertThat(itemResults).allMatch(RepoBulkItemResult::isSuccess);
+        OperationResult modifyObjectsResult = bulkResult.getSubresults().get(0);
+        assertThat(modifyObjectsResult.getMessage()).isNull();
+        List<OperationResult> objectResults = modifyObjectsResult.getSubresults();
+        assertThat(objectResults).hasSize(2);
+        assertThat(objectResults.get(0).getParams().get("oid")).isNotNull();
+        assertThat(objectResults.get(0).getMessage()).isEqualTo("Modification list is empty, nothing was modified.");
+        assertThat(objectResults.get(1).isSuccess()).isTrue();
+
+        and("user is not modified");
+        assertThat(selectObjectByOid(QUser.class, user1Oid).version).isEqualTo(originalUserRow.version);
+    }
     // endregion
 }
@@ -14,11 +14,13 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import com.querydsl.core.types.OrderSpecifier;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepositoryService;
@@ -59,7 +61,9 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
         for (int i = 1; i <= ITERATION_PAGE_SIZE * 2; i++) {
             UserType user = new UserType(prismContext)
                     .name(String.format("user-%05d", i))
-                    .costCenter(String.valueOf(i / 10)); // 10 per cost center
+                    .costCenter(String.valueOf(i / 10)) // 10 per cost center
+                    // duplicate values and nulls for multi-path ordering
+                    .emailAddress(i % 3 == 0 ? null : "user-" + (i % 7) + "@example.com");
             repositoryService.addObject(user.asPrismObject(), null, result);
         }
     }
@@ -68,6 +72,8 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
     public void resetTestHandler() {
         testHandler.reset();
         repositoryConfiguration.setIterativeSearchByPagingBatchSize(ITERATION_PAGE_SIZE);
+        repositoryConfiguration.setIterativeSearchPrefetch(true);
+        repositoryConfiguration.setIterativeSearchCursorFetchSize(0);
     }
 
     @AfterMethod
@@ -229,6 +235,8 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
 
         String midOid = "80000000-0000-0000-0000-000000000000";
         given("condition that breaks iterative search based on UUID");
+        // page prefetched before the break may or may not be executed, we need exact page count here
+        repositoryConfiguration.setIterativeSearchPrefetch(false);
         testHandler.setStoppingPredicate(u -> u.getOid().compareTo(midOid) >= 0);
 
         when("calling search iterative with null query");
@@ -321,6 +329,196 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
         }
     }
 
+    @Test
+    public void test130SearchIterativeWithMultiPathOrderingAndNulls() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("query with ordering by multiple paths, the second one with nulls and duplicate values");
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .asc(UserType.F_COST_CENTER)
+                .desc(UserType.F_EMAIL_ADDRESS)
+                .build();
+        and("small page size, so page boundaries are inside the groups of equal values");
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(7);
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("all objects were processed");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.isPartialResults()).isFalse();
+        QUser u = aliasFor(QUser.class);
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+
+        and("all objects were processed in proper order, nulls first for descending order");
+        assertProcessingOrder(u.costCenter.asc(), u.emailAddress.desc(), u.oid.asc());
+    }
+
+    @Test
+    public void test131SearchIterativeWithMultiPathOrderingNullsLast() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("query with descending and ascending ordering, the ascending one with nulls");
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .desc(UserType.F_COST_CENTER)
+                .asc(UserType.F_EMAIL_ADDRESS)
+                .build();
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(7);
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("all objects were processed in proper order, nulls last for ascending order");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata.isPartialResults()).isFalse();
+        QUser u = aliasFor(QUser.class);
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+        assertProcessingOrder(u.costCenter.desc(), u.emailAddress.asc(), u.oid.asc());
+    }
+
+    @Test
+    public void test132SearchIterativeWithDescendingOidOrdering() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("query with explicit descending OID ordering as the tie-breaker");
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .asc(UserType.F_COST_CENTER)
+                .desc(PrismConstants.T_ID)
+                .build();
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(7);
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("all objects were processed in proper order, OID descending");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata.isPartialResults()).isFalse();
+        QUser u = aliasFor(QUser.class);
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+        assertProcessingOrder(u.costCenter.asc(), u.oid.desc());
+    }
+
+    @Test
+    public void test135SearchIterativeWithoutPrefetch() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        SqlPerformanceMonitorImpl pm = getPerformanceMonitor();
+        pm.clearGlobalPerformanceInformation();
+
+        given("prefetch of the pages is disabled");
+        repositoryConfiguration.setIterativeSearchPrefetch(false);
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .asc(UserType.F_COST_CENTER)
+                .asc(UserType.F_EMAIL_ADDRESS)
+                .build();
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("all objects are processed the same way in proper order");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertTypicalPageOperationCount(metadata);
+        QUser u = aliasFor(QUser.class);
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+        assertProcessingOrder(u.costCenter.asc(), u.emailAddress.asc(), u.oid.asc());
+    }
+
+    @Test
+    public void test140SearchIterativeWithCursor() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        SqlPerformanceMonitorImpl pm = getPerformanceMonitor();
+        pm.clearGlobalPerformanceInformation();
+
+        given("iterative search with cursor and fetch size smaller than the result");
+        repositoryConfiguration.setIterativeSearchCursorFetchSize(7);
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .asc(UserType.F_COST_CENTER)
+                .desc(UserType.F_EMAIL_ADDRESS)
+                .build();
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("all objects were processed");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.isPartialResults()).isFalse();
+        assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(testHandler.getCounter());
+        QUser u = aliasFor(QUser.class);
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+
+        and("single query was used, no page queries");
+        assertOperationRecordedCount(
+                REPO_OP_PREFIX + RepositoryService.OP_SEARCH_OBJECTS_ITERATIVE, 1);
+        assertOperationRecordedCount(
+                REPO_OP_PREFIX + RepositoryService.OP_SEARCH_OBJECTS_ITERATIVE_PAGE, 0);
+
+        and("all objects were processed in proper order");
+        assertProcessingOrder(u.costCenter.asc(), u.emailAddress.desc(), u.oid.asc());
+    }
+
+    @Test
+    public void test141SearchIterativeWithCursorStoppedByHandler() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("iterative search with cursor and handler stopping after some objects");
+        repositoryConfiguration.setIterativeSearchCursorFetchSize(7);
+        testHandler.setStoppingPredicate(u -> u.getName().getOrig().endsWith("50"));
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .asc(UserType.F_NAME)
+                .build();
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("iteration stopped and partial result is reported");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.isPartialResults()).isTrue();
+        assertThat(testHandler.getCounter()).isEqualTo(50);
+        assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(50);
+        assertThat(metadata.getPagingCookie()).isNotNull();
+    }
+
+    @Test
+    public void test142SearchIterativeWithCursorAndMaxSize() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("iterative search with cursor and maxSize");
+        repositoryConfiguration.setIterativeSearchCursorFetchSize(7);
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .maxSize(33)
+                .build();
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("specified amount of objects was processed");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata.isPartialResults()).isFalse();
+        assertThat(testHandler.getCounter()).isEqualTo(33);
+        assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(33);
+    }
+
+    /**
+     * Checks that the objects were processed (marked with employee number by the handler)
+     * in the order specified by the provided SQL ordering.
+     */
+    private void assertProcessingOrder(OrderSpecifier<?>... ordering) {
+        QUser u = aliasFor(QUser.class);
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            List<String> result = jdbcSession.newQuery()
+                    .from(u)
+                    .orderBy(ordering)
+                    .select(u.employeeNumber)
+                    .fetch();
+
+            for (int i = 0; i < result.size(); i++) {
+                assertThat(result.get(i)).isEqualTo(getTestNumber() + "-" + i); // order matches
+            }
+        }
+    }
+
     @SafeVarargs
     private SearchResultMetadata searchObjectsIterative(
             ObjectQuery query,
@@ -37,13 +37,17 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
 import com.evolveum.midpoint.repo.sqale.qmodel.focus.QFocus;
+import com.evolveum.midpoint.repo.sqale.qmodel.focus.QUser;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.MObject;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.MObjectType;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.QAssignmentHolder;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.QObject;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
 import com.evolveum.midpoint.repo.sqlbase.filtering.item.PolyStringItemFilterProcessor;
+import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SchemaService;
 import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
@@ -1936,6 +1940,88 @@ public class SqaleRepoSearchTest extends SqaleRepoBaseTest {
     }
     // endregion
 
+    // region count with threshold
+    @Test
+    public void test850CountWithThresholdLowerThanCount() throws SchemaException {
+        given("query with a filter matching more objects than the threshold");
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).startsWith("user-").matchingOrig()
+                .build();
+        OperationResult operationResult = createOperationResult();
+        int exactCount = repositoryService.countObjects(UserType.class, query, null, operationResult);
+        assertThat(exactCount).isGreaterThan(2);
+
+        when("objects are counted with the threshold");
+        int count = repositoryService.countObjects(UserType.class, query,
+                SelectorOptions.createCollection(GetOperationOptions.createCountThreshold(2)), operationResult);
+
+        then("threshold + 1 is returned, meaning there are more objects than the threshold");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(count).isEqualTo(3);
+    }
+
+    @Test
+    public void test851CountWithThresholdHigherThanCount() throws SchemaException {
+        given("query with a filter matching less objects than the threshold");
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).startsWith("user-").matchingOrig()
+                .build();
+        OperationResult operationResult = createOperationResult();
+        int exactCount = repositoryService.countObjects(UserType.class, query, null, operationResult);
+
+        when("objects are counted with the threshold");
+        int count = repositoryService.countObjects(UserType.class, query,
+                SelectorOptions.createCollection(GetOperationOptions.createCountThreshold(exactCount)),
+                operationResult);
+
+        then("exact count is returned");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(count).isEqualTo(exactCount);
+    }
+
+    @Test
+    public void test852CountWithFilterOverThresholdIsNotEstimated() throws SchemaException {
+        given("fresh statistics for the user table and a query with a filter");
+        analyzeUserTable();
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .item(UserType.F_NAME).startsWith("user-").matchingOrig()
+                .build();
+
+        when("objects are counted with the threshold lower than the count");
+        OperationResult operationResult = createOperationResult();
+        int count = repositoryService.countObjects(UserType.class, query,
+                SelectorOptions.createCollection(GetOperationOptions.createCountThreshold(1)), operationResult);
+
+        then("threshold + 1 is returned, the planner estimate is used only for queries without a filter");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(count).isEqualTo(2);
+    }
+
+    @Test
+    public void test853CountWithoutFilterOverThresholdIsEstimated() throws SchemaException {
+        given("fresh statistics for the user table");
+        analyzeUserTable();
+        long exactCount = count(QUser.class);
+        assertThat(exactCount).isGreaterThan(2);
+
+        when("objects are counted without a filter, with the threshold lower than the count");
+        OperationResult operationResult = createOperationResult();
+        int count = repositoryService.countObjects(UserType.class, null,
+                SelectorOptions.createCollection(GetOperationOptions.createCountThreshold(1)), operationResult);
+
+        then("the planner estimate is returned instead of threshold + 1");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(count).isEqualTo((int) exactCount);
+    }
+
+    private void analyzeUserTable() {
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.executeStatement("ANALYZE " + QUser.TABLE_NAME);
+            jdbcSession.commit();
+        }
+    }
+    // endregion
+
     // region special cases
     @Test
     public void test900SearchByWholeContainerIsNotPossible() {
@@ -118,16 +118,27 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
                 .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE);
         repositoryService.addObject(user.asPrismObject(), null, result);
 
+        and("closure is corrupted by deleting the pair for parent reference");
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.executeStatement("DELETE FROM m_org_closure"
+                    + " WHERE ancestor_oid = '" + rootOid + "' AND descendant_oid = '" + orgOid + "'");
+            jdbcSession.commit();
+        }
+
         when("testOrgClosureConsistency() is called with rebuild flag");
         repositoryService.testOrgClosureConsistency(true, result);
 
         expect("operation is successful and contains info about closure");
         assertThatOperationResult(result).isSuccess();
         OperationResult subresult = result.getLastSubresult();
-        assertThat(subresult.getReturnSingle("closure-count")).isEqualTo(String.valueOf(baseCount));
+        assertThat(subresult.getReturnSingle("closure-count"))
+                // two equality rows for each org, the pair for parent reference is missing
+                .isEqualTo(String.valueOf(baseCount + 2));
         assertThat(subresult.getReturnSingle("expected-count"))
                 // two equality rows for each org + 1 for parent reference
                 .isEqualTo(String.valueOf(baseCount + 3));
+        assertThat(subresult.getReturnSingle("missing-count")).isEqualTo("1");
+        assertThat(subresult.getReturnSingle("extra-count")).isEqualTo("0");
         assertThat(subresult.getReturnSingle("rebuild-done")).isEqualTo("true");
 
         and("closure is rebuilt");
@@ -135,14 +146,14 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
     }
 
     @Test
-    public void test021OrgClosureIsRefreshedBeforeOrgFilterQuery() throws Exception {
+    public void test021OrgClosureIsMaintainedWhenObjectsAreAdded() throws Exception {
         OperationResult result = createOperationResult();
 
         given("reset closure");
         refreshOrgClosureForce();
         long baseCount = count(new QOrgClosure());
 
-        given("user belonging to org hierarchy");
+        when("user belonging to org hierarchy is added");
         OrgType orgRoot = new OrgType(prismContext).name("orgRoot" + getTestNumber());
         String rootOid = repositoryService.addObject(orgRoot.asPrismObject(), null, result);
         OrgType org = new OrgType(prismContext).name("org" + getTestNumber())
@@ -151,21 +162,81 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
         UserType user = new UserType(prismContext).name("user" + getTestNumber())
                 .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE);
         String userOid = repositoryService.addObject(user.asPrismObject(), null, result);
-        assertThat(count(new QOrgClosure())).isEqualTo(baseCount); // not refreshed yet
 
-        when("query with org filter is used");
+        then("closure is updated immediately");
+        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // see previous test
+
+        and("query with org filter returns proper results");
         SearchResultList<PrismObject<UserType>> users = repositoryService.searchObjects(
                 UserType.class, prismContext.queryFor(UserType.class).isChildOf(rootOid).build(),
                 null, result);
-
-        expect("operation is successful and returns proper results");
         assertThatOperationResult(result).isSuccess();
         assertThat(users).hasSize(1)
                 .extracting(p -> p.asObjectable().getOid())
                 .containsExactlyInAnyOrder(userOid);
+    }
 
-        and("closure is rebuilt");
-        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // see previous test
+    @Test
+    public void test022OrgClosureIsMaintainedWhenOrgIsMovedAndDeleted() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("org hierarchy with two roots, org under both and its sub-org");
+        String root1Oid = repositoryService.addObject(
+                new OrgType(prismContext).name("orgRoot1-" + getTestNumber()).asPrismObject(),
+                null, result);
+        String root2Oid = repositoryService.addObject(
+                new OrgType(prismContext).name("orgRoot2-" + getTestNumber()).asPrismObject(),
+                null, result);
+        String root3Oid = repositoryService.addObject(
+                new OrgType(prismContext).name("orgRoot3-" + getTestNumber()).asPrismObject(),
+                null, result);
+        String orgOid = repositoryService.addObject(
+                new OrgType(prismContext).name("org" + getTestNumber())
+                        .parentOrgRef(root1Oid, OrgType.COMPLEX_TYPE)
+                        .parentOrgRef(root2Oid, OrgType.COMPLEX_TYPE)
+                        .asPrismObject(),
+                null, result);
+        String subOrgOid = repositoryService.addObject(
+                new OrgType(prismContext).name("subOrg" + getTestNumber())
+                        .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE)
+                        .asPrismObject(),
+                null, result);
+        assertThat(repositoryService.isAncestor(
+                repositoryService.getObject(OrgType.class, root1Oid, null, result), subOrgOid))
+                .isTrue();
+
+        when("org is moved from the first root to the third one");
+        repositoryService.modifyObject(OrgType.class, orgOid,
+                prismContext.deltaFor(OrgType.class)
+                        .item(OrgType.F_PARENT_ORG_REF)
+                        .add(new ObjectReferenceType().oid(root3Oid).type(OrgType.COMPLEX_TYPE))
+                        .delete(new ObjectReferenceType().oid(root1Oid).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                result);
+
+        then("only the affected pairs are changed");
+        QOrgClosure oc = new QOrgClosure();
+        UUID subOrgUuid = UUID.fromString(subOrgOid);
+        assertThat(count(oc, oc.descendantOid.eq(subOrgUuid))).isEqualTo(4); // itself, org, root2, root3
+        assertThat(count(oc, oc.descendantOid.eq(subOrgUuid)
+                .and(oc.ancestorOid.eq(UUID.fromString(root1Oid))))).isZero();
+        assertThat(count(oc, oc.descendantOid.eq(subOrgUuid)
+                .and(oc.ancestorOid.eq(UUID.fromString(root2Oid))))).isEqualTo(1);
+        assertOrgClosureConsistent(result);
+
+        when("org is deleted");
+        repositoryService.deleteObject(OrgType.class, orgOid, result);
+
+        then("sub-org has no ancestors except for the dangling parent reference");
+        assertThat(count(oc, oc.descendantOid.eq(subOrgUuid))).isEqualTo(2); // itself, deleted org
+        assertOrgClosureConsistent(result);
+    }
+
+    private void assertOrgClosureConsistent(OperationResult result) {
+        repositoryService.testOrgClosureConsistency(false, result);
+        OperationResult subresult = result.getLastSubresult();
+        assertThat(subresult.getReturnSingle("missing-count")).isEqualTo("0");
+        assertThat(subresult.getReturnSingle("extra-count")).isEqualTo("0");
     }
 
     @Test
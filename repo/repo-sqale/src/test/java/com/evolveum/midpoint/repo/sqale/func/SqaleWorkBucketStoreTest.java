@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+public class SqaleWorkBucketStoreTest extends SqaleRepoBaseTest {
+
+    private static final ActivityPath PATH = ActivityPath.fromId("import");
+    private static final String WORKER_1 = UUID.randomUUID().toString();
+    private static final String WORKER_2 = UUID.randomUUID().toString();
+
+    @Autowired private WorkBucketStore workBucketStore;
+
+    private String coordinatorOid;
+
+    @BeforeClass
+    public void initObjects() throws Exception {
+        OperationResult result = createOperationResult();
+        coordinatorOid = repositoryService.addObject(
+                new TaskType(prismContext).name("coordinator").asPrismObject(), null, result);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test100AddAndClaimBuckets() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("three new buckets, the first one delegated to worker 1");
+        List<WorkBucketType> buckets = List.of(
+                bucket(1, 0, 100).state(WorkBucketStateType.DELEGATED).workerRef(WORKER_1, TaskType.COMPLEX_TYPE),
+                bucket(2, 100, 200).state(WorkBucketStateType.READY),
+                bucket(3, 200, 300).state(WorkBucketStateType.READY));
+
+        when("buckets are added and claimed");
+        boolean added = workBucketStore.addBuckets(coordinatorOid, PATH, buckets, result);
+        WorkBucketType delegated = workBucketStore.findDelegatedBucket(coordinatorOid, PATH, WORKER_1, result);
+        WorkBucketType claimed = workBucketStore.claimReadyBucket(coordinatorOid, PATH, WORKER_2, result);
+
+        then("delegated bucket is found and the first ready bucket is claimed");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(added).isTrue();
+        assertThat(delegated.getSequentialNumber()).isEqualTo(1);
+        assertThat(delegated.getWorkerRef().getOid()).isEqualTo(WORKER_1);
+        assertThat(delegated.getContent()).isInstanceOf(NumericIntervalWorkBucketContentType.class);
+        assertThat(((NumericIntervalWorkBucketContentType) delegated.getContent()).getTo().intValue()).isEqualTo(100);
+        assertThat(claimed.getSequentialNumber()).isEqualTo(2);
+        assertThat(claimed.getState()).isEqualTo(WorkBucketStateType.DELEGATED);
+        assertThat(claimed.getWorkerRef().getOid()).isEqualTo(WORKER_2);
+        assertThat(workBucketStore.getLastBucket(coordinatorOid, PATH, result).getSequentialNumber()).isEqualTo(3);
+    }
+
+    @Test
+    public void test110AddConflictingBuckets() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("buckets with an already used sequential number are added");
+        boolean added = workBucketStore.addBuckets(coordinatorOid, PATH,
+                List.of(bucket(3, 200, 300), bucket(4, 300, 400)), result);
+
+        then("nothing is added");
+        assertThat(added).isFalse();
+        assertThat(workBucketStore.getLastBucket(coordinatorOid, PATH, result).getSequentialNumber()).isEqualTo(3);
+    }
+
+    @Test
+    public void test120CompleteReleaseAndReclaim() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("worker 1 completes its bucket, worker 2 is released and worker 1 claims again");
+        workBucketStore.completeBucket(coordinatorOid, PATH, 1, WORKER_1, result);
+        int released = workBucketStore.releaseBuckets(coordinatorOid, PATH, WORKER_2, null, result);
+        WorkBucketType claimed = workBucketStore.claimReadyBucket(coordinatorOid, PATH, WORKER_1, result);
+
+        then("the released bucket is claimed again");
+        assertThat(released).isEqualTo(1);
+        assertThat(claimed.getSequentialNumber()).isEqualTo(2);
+        assertThat(workBucketStore.countCompleteBuckets(coordinatorOid, PATH, result)).isEqualTo(1);
+
+        when("buckets of workers that are not alive are reclaimed");
+        int reclaimed = workBucketStore.reclaimBuckets(coordinatorOid, PATH, List.of(WORKER_2), result);
+
+        then("the bucket of worker 1 is ready again");
+        assertThat(reclaimed).isEqualTo(1);
+        assertThat(workBucketStore.hasDelegatedBuckets(coordinatorOid, PATH, result)).isFalse();
+        assertThat(workBucketStore.hasUnfinishedBuckets(coordinatorOid, PATH, result)).isTrue();
+        assertThatThrownBy(() -> workBucketStore.completeBucket(coordinatorOid, PATH, 2, WORKER_1, result))
+                .isInstanceOf(ObjectNotFoundException.class);
+    }
+
+    @Test
+    public void test130DeleteBuckets() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("a bucket of a sub-activity and a bucket of another activity");
+        ActivityPath subPath = PATH.append("sub");
+        ActivityPath otherPath = ActivityPath.fromId("import-other");
+        workBucketStore.addBuckets(coordinatorOid, subPath, List.of(bucket(1, 0, 10)), result);
+        workBucketStore.addBuckets(coordinatorOid, otherPath, List.of(bucket(1, 0, 10)), result);
+
+        when("buckets of the activity are deleted");
+        workBucketStore.deleteBuckets(coordinatorOid, PATH, result);
+
+        then("buckets of the activity and its sub-activity are gone, the other activity is intact");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(workBucketStore.getLastBucket(coordinatorOid, PATH, result)).isNull();
+        assertThat(workBucketStore.getLastBucket(coordinatorOid, subPath, result)).isNull();
+        assertThat(workBucketStore.hasUnfinishedBuckets(coordinatorOid, PATH, result)).isFalse();
+        assertThat(workBucketStore.getLastBucket(coordinatorOid, otherPath, result)).isNotNull();
+
+        when("the coordinator task is deleted");
+        repositoryService.deleteObject(TaskType.class, coordinatorOid, result);
+
+        then("its remaining buckets are deleted as well");
+        assertThat(workBucketStore.getLastBucket(coordinatorOid, otherPath, result)).isNull();
+    }
+
+    private WorkBucketType bucket(int sequentialNumber, int from, int to) {
+        return new WorkBucketType(prismContext)
+                .sequentialNumber(sequentialNumber)
+                .state(WorkBucketStateType.READY)
+                .content(new NumericIntervalWorkBucketContentType()
+                        .from(BigInteger.valueOf(from))
+                        .to(BigInteger.valueOf(to)));
+    }
+}
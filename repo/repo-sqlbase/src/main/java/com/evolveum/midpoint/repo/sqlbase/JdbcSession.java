@@ -10,6 +10,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import com.querydsl.sql.ColumnMetadata;
@@ -59,6 +61,13 @@ public class JdbcSession implements AutoCloseable {
 
     private boolean rollbackForReadOnly;
 
+    /**
+     * Pending insert batches per table, `null` if insert batching is not active.
+     * Linked map is used because tables must be flushed in the order of the first insert
+     * to respect foreign keys between parent and child tables.
+     */
+    private Map<RelationalPath<?>, SQLInsertClause> insertBatches;
+
     public JdbcSession(
             @NotNull Connection connection,
             @NotNull JdbcRepositoryConfiguration jdbcRepositoryConfiguration,
@@ -244,6 +253,68 @@ public class JdbcSession implements AutoCloseable {
         return sqlRepoContext.newInsert(connection, entity);
     }
 
+    /**
+     * Starts collecting inserts added by {@link #addInsertToBatch} into JDBC batches instead
+     * of executing them one by one.
+     * Batches are executed by {@link #flushInsertBatches()} which must be called explicitly
+     * before commit, there is no automatic flush.
+     */
+    public JdbcSession startInsertBatching() {
+        if (insertBatches == null) {
+            insertBatches = new LinkedHashMap<>();
+        }
+        return this;
+    }
+
+    /**
+     * Returns true if inserts should be added to the batch with {@link #addInsertToBatch}.
+     */
+    public boolean isInsertBatching() {
+        return insertBatches != null;
+    }
+
+    /**
+     * Adds insert of the populated row (bean) into the batch for the specified entity.
+     * NULL values in the row are skipped, just like with the default populate mapper;
+     * batches with different column sets are handled by Querydsl as separate statements.
+     */
+    public void addInsertToBatch(RelationalPath<?> entity, Object row) {
+        if (insertBatches == null) {
+            throw new IllegalStateException("Insert batching is not active for JDBC session " + sessionId);
+        }
+        insertBatches.computeIfAbsent(entity, e -> newInsert(e))
+                .populate(row)
+                .addBatch();
+    }
+
+    /**
+     * Executes all pending insert batches in the order of their first use and clears them.
+     * Insert batching stays active after the flush.
+     */
+    public void flushInsertBatches() {
+        if (insertBatches == null || insertBatches.isEmpty()) {
+            return;
+        }
+
+        LOGGER.trace("Flushing insert batches for {} tables (session {})", insertBatches.size(), sessionId);
+        try {
+            for (SQLInsertClause insertBatch : insertBatches.values()) {
+                if (insertBatch.getBatchCount() > 0) {
+                    insertBatch.execute();
+                }
+            }
+        } finally {
+            insertBatches.clear();
+        }
+    }
+
+    /**
+     * Discards pending insert batches without executing them and stops insert batching.
+     */
+    public void stopInsertBatching() {
+        insertBatches = null;
+    }
+
     public SQLUpdateClause newUpdate(RelationalPath<?> entity) {
         return sqlRepoContext.newUpdate(connection, entity);
     }
@@ -6,18 +6,28 @@
  */
 package com.evolveum.midpoint.repo.sqlbase;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.xml.namespace.QName;
 
+import com.mysema.commons.lang.CloseableIterator;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.dsl.ComparableExpressionBase;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.Wildcard;
+import com.querydsl.sql.SQLBindings;
 import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.StatementOptions;
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.ItemDefinition;
@@ -37,6 +47,7 @@ import com.evolveum.midpoint.repo.sqlbase.querydsl.QuerydslUtils;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
 
 /**
  * Execution context of the SQL query.
@@ -92,6 +103,9 @@ public abstract class SqlQueryContext<S, Q extends FlexibleRelationalPathBase<R>
      */
     public static final int MAX_ID_IN_FOR_TO_MANY_FETCH = 100;
 
+    /** Row estimate in the top node of a PostgreSQL query plan. */
+    private static final Pattern PLAN_ROWS_PATTERN = Pattern.compile("rows=(\\d+)");
+
     protected final SQLQuery<?> sqlQuery;
 
     protected final Q entityPath;
@@ -322,6 +336,35 @@ public abstract class SqlQueryContext<S, Q extends FlexibleRelationalPathBase<R>
         return new PageOf<>(data, PageOf.PAGE_NO_PAGINATION, 0);
     }
 
+    /**
+     * Executes the query as a server-side cursor, fetching the rows from the database in chunks
+     * of the specified size instead of reading the whole result into memory.
+     * Unlike {@link #executeQuery}, no default limit is added if the query has none.
+     *
+     * The JDBC session must be in a transaction (auto-commit off), otherwise PostgreSQL driver
+     * ignores the fetch size and reads all the rows at once.
+     * The returned iterator must be closed, which closes the underlying result set and statement.
+     *
+     * Detail fetch mappers are not supported, as they need the whole result list.
+     */
+    public CloseableIterator<Tuple> executeQueryStreaming(JdbcSession jdbcSession, int fetchSize) {
+        if (!entityPathMapping.detailFetchMappers().isEmpty()) {
+            throw new UnsupportedOperationException(
+                    "Streaming query is not supported for mapping with detail fetch mappers: "
+                            + entityPathMapping);
+        }
+
+        SQLQuery<?> query = sqlQuery.clone(jdbcSession.connection());
+        query.setStatementOptions(StatementOptions.builder()
+                .setFetchSize(fetchSize)
+                .build());
+
+        Q entity = root();
+        return query
+                .select(buildSelectExpressions(entity, query))
+                .iterate();
+    }
+
     private @NotNull Expression<?>[] buildSelectExpressions(Q entity, SQLQuery<?> query) {
         Path<?>[] defaultExpressions = entityPathMapping.selectExpressions(entity, options);
         if (!query.getMetadata().isDistinct() || query.getMetadata().getOrderBy().isEmpty()) {
@@ -345,6 +388,59 @@ public abstract class SqlQueryContext<S, Q extends FlexibleRelationalPathBase<R>
                 .fetchCount();
     }
 
+    /**
+     * Counts the rows exactly only up to the specified threshold.
+     * If there are more rows, returns `threshold + 1`, meaning "more than threshold".
+     * If `estimateAllowed` is true (which makes sense only for queries without conditions),
+     * the estimate of the database query planner is returned instead, if it is greater.
+     * Currently this is supported only for PostgreSQL.
+     */
+    public int executeCount(JdbcSession jdbcSession, int threshold, boolean estimateAllowed) {
+        SQLQuery<?> query = sqlQuery.clone(jdbcSession.connection());
+        if (query.getMetadata().isDistinct()) {
+            // Limited count would need the distinct columns in the select, we use the exact count.
+            return executeCount(jdbcSession);
+        }
+
+        int count = query.select(Expressions.ONE)
+                .limit(threshold + 1L)
+                .fetch()
+                .size();
+        if (count <= threshold || !estimateAllowed || jdbcSession.databaseType() != SupportedDatabase.POSTGRESQL) {
+            return count;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(count, estimateCount(jdbcSession)));
+    }
+
+    /**
+     * Returns the number of rows estimated by the PostgreSQL planner, which is based on the table statistics.
+     * Returns 0 if the estimate can't be obtained.
+     * Used by {@link #executeCount(JdbcSession, int, boolean)}.
+     */
+    protected long estimateCount(JdbcSession jdbcSession) {
+        SQLBindings sql = sqlQuery.clone(jdbcSession.connection())
+                .select(Wildcard.all)
+                .getSQL();
+        try (PreparedStatement stmt = jdbcSession.connection().prepareStatement("EXPLAIN " + sql.getSQL())) {
+            List<Object> bindings = sql.getNullFriendlyBindings();
+            for (int i = 0; i < bindings.size(); i++) {
+                stmt.setObject(i + 1, bindings.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                // The first line of the plan is the top node, e.g. "Seq Scan on m_user u  (cost=... rows=123 width=4)".
+                if (rs.next()) {
+                    Matcher matcher = PLAN_ROWS_PATTERN.matcher(rs.getString(1));
+                    if (matcher.find()) {
+                        return Long.parseLong(matcher.group(1));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new SystemException("Couldn't estimate the count for query: " + sql.getSQL(), e);
+        }
+        return 0;
+    }
+
     /**
      * Adds new LEFT JOIN to the query and returns {@link SqlQueryContext} for this join path.
      * The returned context still uses the same SQL query; any further filter processing will
@@ -471,14 +567,40 @@ public abstract class SqlQueryContext<S, Q extends FlexibleRelationalPathBase<R>
 
             return transformedResult;
         } catch (RepositoryMappingException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof SchemaException) {
-                throw (SchemaException) cause;
-            } else if (cause instanceof QueryException) {
-                throw (QueryException) cause;
-            } else {
-                throw e;
-            }
+            throw unwrapMappingException(e);
+        }
+    }
+
+    /**
+     * Transforms a single row tuple to schema type, used for streamed results
+     * (see {@link #executeQueryStreaming}) where rows are transformed only when they are consumed.
+     * The row transformer is used for one row only, so any stateful processing is per row.
+     */
+    public S transformToSchemaType(Tuple row, JdbcSession jdbcSession)
+            throws SchemaException, QueryException {
+        try {
+            ResultListRowTransformer<S, Q, R> rowTransformer =
+                    entityPathMapping.createRowTransformer(this, jdbcSession);
+
+            rowTransformer.beforeTransformation(Collections.singletonList(row), entityPath);
+            S transformedRow = rowTransformer.transform(row, entityPath, options);
+            rowTransformer.finishTransformation();
+
+            return transformedRow;
+        } catch (RepositoryMappingException e) {
+            throw unwrapMappingException(e);
+        }
+    }
+
+    private RuntimeException unwrapMappingException(RepositoryMappingException e)
+            throws SchemaException, QueryException {
+        Throwable cause = e.getCause();
+        if (cause instanceof SchemaException) {
+            throw (SchemaException) cause;
+        } else if (cause instanceof QueryException) {
+            throw (QueryException) cause;
+        } else {
+            return e;
         }
     }
 
@@ -7,7 +7,9 @@
 package com.evolveum.midpoint.repo.sqlbase;
 
 import java.util.Collection;
+import java.util.function.Predicate;
 
+import com.mysema.commons.lang.CloseableIterator;
 import com.querydsl.core.Tuple;
 import org.jetbrains.annotations.NotNull;
 
@@ -44,8 +46,14 @@ public class SqlQueryExecutor {
         // TODO MID-6319: all options can be applied, just like for list?
         context.processOptions(options);
 
+        Integer countThreshold = GetOperationOptions.getCountThreshold(SelectorOptions.findRootOptions(options));
+
         context.beforeQuery();
         try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+            if (countThreshold != null) {
+                return context.executeCount(jdbcSession, countThreshold,
+                        query == null || query.getFilter() == null);
+            }
             return context.executeCount(jdbcSession);
         }
     }
@@ -71,6 +79,47 @@ public class SqlQueryExecutor {
         }
     }
 
+    /**
+     * Executes the query using a server-side cursor and passes the results one by one to the handler.
+     * Rows are fetched from the database in chunks of {@code fetchSize} and each row is transformed
+     * to the schema object only right before it is passed to the handler, so the memory use is bounded
+     * regardless of the size of the result.
+     *
+     * The whole iteration runs in a single read-only transaction which stays open until the handler
+     * processes the last object or returns false to stop the iteration.
+     *
+     * @return number of objects passed to the handler
+     */
+    public <S, Q extends FlexibleRelationalPathBase<R>, R> int iterate(
+            @NotNull SqlQueryContext<S, Q, R> context,
+            ObjectQuery query,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            int fetchSize,
+            @NotNull Predicate<S> handler)
+            throws RepositoryException, SchemaException {
+
+        if (query != null) {
+            context.processFilter(query.getFilter());
+            context.processObjectPaging(query.getPaging());
+        }
+        context.processOptions(options);
+
+        context.beforeQuery();
+        int count = 0;
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction();
+                CloseableIterator<Tuple> rows = context.executeQueryStreaming(jdbcSession, fetchSize)) {
+            while (rows.hasNext()) {
+                S object = context.transformToSchemaType(rows.next(), jdbcSession);
+                count++;
+                if (!handler.test(object)) {
+                    break;
+                }
+            }
+            jdbcSession.commit();
+        }
+        return count;
+    }
+
     @NotNull
     private <T> SearchResultList<T> createSearchResultList(PageOf<T> result) {
         SearchResultMetadata metadata = new SearchResultMetadata();
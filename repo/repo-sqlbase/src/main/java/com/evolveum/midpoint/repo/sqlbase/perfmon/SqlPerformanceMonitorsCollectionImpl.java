@@ -7,7 +7,7 @@
 package com.evolveum.midpoint.repo.sqlbase.perfmon;
 
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -22,25 +22,27 @@ import com.evolveum.midpoint.util.annotation.Experimental;
  * Temporary implementation, created as a reaction to splitting single monitor into two in 4.2.
  * It will be replaced by something more serious in the future.
  * <p>
- * BEWARE: All public classes operating on monitors must be synchronized.
+ * Monitors are registered rarely but the collection is read by each task thread, so it is copy-on-write
+ * and the reading methods are not synchronized. This avoids contention (and pinning of virtual threads)
+ * when many lightweight tasks refresh their statistics.
  */
 @Experimental
 public class SqlPerformanceMonitorsCollectionImpl implements SqlPerformanceMonitorsCollection {
 
-    @NotNull private final Collection<PerformanceMonitor> monitors = new HashSet<>();
+    @NotNull private final Collection<PerformanceMonitor> monitors = new CopyOnWriteArraySet<>();
 
     @Override
-    public synchronized void register(PerformanceMonitor monitor) {
+    public void register(PerformanceMonitor monitor) {
         monitors.add(monitor);
     }
 
     @Override
-    public synchronized void deregister(PerformanceMonitor monitor) {
+    public void deregister(PerformanceMonitor monitor) {
         monitors.remove(monitor);
     }
 
     @Override
-    public synchronized PerformanceInformation getGlobalPerformanceInformation() {
+    public PerformanceInformation getGlobalPerformanceInformation() {
         PerformanceInformationImpl information = new PerformanceInformationImpl();
         for (PerformanceMonitor monitor : monitors) {
             information.mergeDistinct(monitor.getGlobalPerformanceInformation());
@@ -49,7 +51,7 @@ public class SqlPerformanceMonitorsCollectionImpl implements SqlPerformanceMonit
     }
 
     @Override
-    public synchronized PerformanceInformation getThreadLocalPerformanceInformation() {
+    public PerformanceInformation getThreadLocalPerformanceInformation() {
         PerformanceInformationImpl information = new PerformanceInformationImpl();
         for (PerformanceMonitor monitor : monitors) {
             information.mergeDistinct(monitor.getThreadLocalPerformanceInformation());
@@ -58,9 +60,16 @@ public class SqlPerformanceMonitorsCollectionImpl implements SqlPerformanceMonit
     }
 
     @Override
-    public synchronized void startThreadLocalPerformanceInformationCollection() {
+    public void startThreadLocalPerformanceInformationCollection() {
         for (PerformanceMonitor monitor : monitors) {
             monitor.startThreadLocalPerformanceInformationCollection();
         }
     }
+
+    @Override
+    public void stopThreadLocalPerformanceInformationCollection() {
+        for (PerformanceMonitor monitor : monitors) {
+            monitor.stopThreadLocalPerformanceInformationCollection();
+        }
+    }
 }
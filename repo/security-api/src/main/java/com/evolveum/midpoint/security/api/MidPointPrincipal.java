@@ -41,6 +41,13 @@ public class MidPointPrincipal implements UserDetails,  DebugDumpable, ShortDump
     private FocusType attorney;
     private MidPointPrincipal previousPrincipal;
 
+    /**
+     * Data derived from the authorizations by the security enforcer (e.g. authorizations indexed by action
+     * or cached access decisions). It is opaque for everyone else. It is neither cloned nor serialized,
+     * the security enforcer re-creates it when needed.
+     */
+    private transient volatile Object securityEnforcerData;
+
     public MidPointPrincipal(@NotNull FocusType focus) {
         Validate.notNull(focus, "Focus must not be null.");
         this.focus = focus;
@@ -183,6 +190,16 @@ public class MidPointPrincipal implements UserDetails,  DebugDumpable, ShortDump
         delegatorWithOtherPrivilegesLimitationsCollection.add(value);
     }
 
+    /** For the use of the security enforcer only. */
+    public Object getSecurityEnforcerData() {
+        return securityEnforcerData;
+    }
+
+    /** For the use of the security enforcer only. */
+    public void setSecurityEnforcerData(Object securityEnforcerData) {
+        this.securityEnforcerData = securityEnforcerData;
+    }
+
     /**
      * Semi-shallow clone.
      */
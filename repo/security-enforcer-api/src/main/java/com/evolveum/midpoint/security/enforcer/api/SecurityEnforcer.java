@@ -85,6 +85,15 @@ public interface SecurityEnforcer {
 
     MidPointPrincipal getMidPointPrincipal();
 
+    /**
+     * Starts a scope (e.g. processing of a single GUI request) in which authorization decisions for the current principal
+     * may be cached, if the authorization decision cache is configured so. Calls can be nested; each call must be paired
+     * with {@link #exitAuthorizationDecisionCacheScope()} on the same thread.
+     */
+    void enterAuthorizationDecisionCacheScope();
+
+    void exitAuthorizationDecisionCacheScope();
+
     <O extends ObjectType> ObjectSecurityConstraints compileSecurityConstraints(PrismObject<O> object, OwnerResolver ownerResolver, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException;
 
     /**
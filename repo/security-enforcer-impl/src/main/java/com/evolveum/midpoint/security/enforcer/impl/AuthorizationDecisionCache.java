@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.configuration2.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.Cache;
+import com.evolveum.midpoint.repo.api.CacheRegistry;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.security.enforcer.api.AuthorizationParameters;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationPhaseType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+
+/**
+ * Cache of access decisions (and compiled security constraints) made by {@link SecurityEnforcerImpl} for a principal.
+ *
+ * Only decisions that depend solely on the principal, action, phase and object identity are cached, i.e. those
+ * without delta, target, relation and order constraints, and either without an object, with an empty object
+ * (typical for "can the user add some roles?" GUI checks), or with an immutable object having OID and version.
+ * Moreover, none of the relevant authorizations may contain filters, expressions, or other selectors that are
+ * evaluated against runtime state (see {@link CompiledAuthorizations#isRuntimeIndependent()}).
+ * See {@link #createDecisionKey(String, AuthorizationPhaseType, AuthorizationParameters, boolean, CompiledAuthorizations)}.
+ *
+ * For object security constraints, the applicable authorizations are cached, and a fresh constraints object is created
+ * from them for each caller.
+ *
+ * The scope of cached decisions is configured by `scope` property in `authorizationDecisionCache` section of config.xml:
+ *
+ * . `none` (the default): nothing is cached,
+ * . `request`: decisions are cached on the current thread between {@link #enterRequestScope()} and {@link #exitRequestScope()}
+ * calls, e.g. while a GUI request is being processed,
+ * . `session`: decisions are cached as long as the principal lives,
+ * . `ttl`: like `session`, but the decisions expire after `timeToLive` milliseconds.
+ *
+ * Any change of a focus object (users, roles, orgs, services, archetypes, ...) or of the system configuration
+ * invalidates all the cached decisions, as object selectors can refer to them (e.g. org or role relations, owners).
+ * Changes of the principal itself are covered by the principal being re-created.
+ */
+@Component
+public class AuthorizationDecisionCache implements Cache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AuthorizationDecisionCache.class);
+    private static final Trace LOGGER_CONTENT = TraceManager.getTrace(AuthorizationDecisionCache.class.getName() + ".content");
+
+    private static final String CONFIGURATION = MidpointConfiguration.ROOT_MIDPOINT_CONFIGURATION + ".authorizationDecisionCache";
+    private static final String CONF_SCOPE = "scope";
+    private static final String CONF_TIME_TO_LIVE = "timeToLive";
+    private static final String CONF_MAX_ENTRIES = "maxEntries";
+
+    public static final long DEFAULT_TIME_TO_LIVE = 10_000;
+    public static final int DEFAULT_MAX_ENTRIES = 1_000;
+
+    public enum Scope {
+        NONE, REQUEST, SESSION, TTL
+    }
+
+    @Autowired private CacheRegistry cacheRegistry;
+    @Autowired private PrismContext prismContext;
+    @Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+
+    /** Incremented on each relevant invalidation. Decisions cached in older generations are not used. */
+    private final AtomicLong generation = new AtomicLong();
+
+    private static final ThreadLocal<RequestScope> REQUEST_SCOPE = new ThreadLocal<>();
+
+    @NotNull private volatile Scope scope = Scope.NONE;
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    @PostConstruct
+    public void register() {
+        if (midpointConfiguration != null) {
+            Configuration c = midpointConfiguration.getConfiguration(CONFIGURATION);
+            String scopeName = c.getString(CONF_SCOPE, null);
+            if (scopeName != null) {
+                try {
+                    scope = Scope.valueOf(scopeName.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    LOGGER.error("Unknown authorization decision cache scope '{}', the cache is disabled", scopeName);
+                }
+            }
+            timeToLive = c.getLong(CONF_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE);
+            maxEntries = c.getInt(CONF_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+        }
+        cacheRegistry.registerCache(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        cacheRegistry.unregisterCache(this);
+    }
+
+    public @NotNull Scope getScope() {
+        return scope;
+    }
+
+    public void setScope(@NotNull Scope scope) {
+        this.scope = scope;
+        invalidateAll();
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Starts the request scope on the current thread. Calls can be nested, the scope ends with the outermost
+     * {@link #exitRequestScope()} call. Does nothing if the scope is other than `request`, but it is safe to call anyway.
+     */
+    public void enterRequestScope() {
+        RequestScope existing = REQUEST_SCOPE.get();
+        if (existing != null) {
+            existing.depth++;
+        } else if (scope == Scope.REQUEST) {
+            REQUEST_SCOPE.set(new RequestScope());
+        }
+    }
+
+    public void exitRequestScope() {
+        RequestScope existing = REQUEST_SCOPE.get();
+        if (existing != null && --existing.depth <= 0) {
+            REQUEST_SCOPE.remove();
+        }
+    }
+
+    /**
+     * Returns the decisions that can be used for given principal, or null if they should not be cached.
+     */
+    @Nullable Decisions getDecisions(@Nullable MidPointPrincipal principal, @NotNull CompiledAuthorizations compiled) {
+        if (principal == null) {
+            return null; // anonymous access, authorizations are not stable
+        }
+        switch (scope) {
+            case REQUEST:
+                RequestScope requestScope = REQUEST_SCOPE.get();
+                if (requestScope == null) {
+                    return null;
+                }
+                if (requestScope.principal != principal) {
+                    // the first use in this request, or the principal has changed (e.g. switched identity)
+                    requestScope.principal = principal;
+                    requestScope.decisions = new Decisions();
+                }
+                return requestScope.decisions;
+            case SESSION:
+            case TTL:
+                return compiled.getDecisions();
+            default:
+                return null;
+        }
+    }
+
+    @Nullable <V> V get(@Nullable Decisions decisions, @Nullable DecisionKey key) {
+        if (decisions == null || key == null) {
+            return null;
+        }
+        Entry entry = decisions.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.generation != generation.get()
+                || scope == Scope.TTL && System.currentTimeMillis() - entry.timestamp > timeToLive) {
+            decisions.entries.remove(key, entry);
+            return null;
+        }
+        //noinspection unchecked
+        return (V) entry.value;
+    }
+
+    /**
+     * The generation must be obtained before the decision is computed, so it is not cached if invalidated meanwhile.
+     * Public for diagnostics and tests.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    void put(@Nullable Decisions decisions, @Nullable DecisionKey key, @NotNull Object value, long recordingGeneration) {
+        if (decisions == null || key == null || recordingGeneration != generation.get()) {
+            return;
+        }
+        if (decisions.entries.size() >= maxEntries) {
+            LOGGER.trace("Not caching decision for {}, the cache for principal is full", key);
+            return;
+        }
+        decisions.entries.put(key, new Entry(value, recordingGeneration, System.currentTimeMillis()));
+    }
+
+    /**
+     * Creates a key for an access decision, or returns null if the decision cannot be cached.
+     */
+    @Nullable DecisionKey createDecisionKey(String operationUrl, AuthorizationPhaseType phase,
+            @NotNull AuthorizationParameters<?, ?> params, boolean ownerResolverPresent,
+            @NotNull CompiledAuthorizations compiled) {
+        if (scope == Scope.NONE || operationUrl == null
+                || !compiled.isRuntimeIndependent(operationUrl, phase)
+                || params.hasDelta()
+                || params.getTarget() != null
+                || params.getRelation() != null
+                || params.getOrderConstraints() != null && !params.getOrderConstraints().isEmpty()) {
+            return null;
+        }
+        PrismObject<?> oldObject = params.getOldObject();
+        PrismObject<?> newObject = params.getNewObject();
+        if (oldObject != null && newObject != null && oldObject != newObject) {
+            return null;
+        }
+        PrismObject<?> object = oldObject != null ? oldObject : newObject;
+        if (object == null) {
+            return new DecisionKey(operationUrl, phase, null, null, null, false, false, ownerResolverPresent);
+        }
+        if (!isCacheable(object)) {
+            return null;
+        }
+        return new DecisionKey(operationUrl, phase, object.getCompileTimeClass(), object.getOid(), object.getVersion(),
+                oldObject != null, newObject != null, ownerResolverPresent);
+    }
+
+    /**
+     * Creates a key for compiled security constraints of an object, or returns null if they cannot be cached.
+     */
+    @Nullable DecisionKey createConstraintsKey(@NotNull PrismObject<?> object, boolean ownerResolverPresent,
+            @NotNull CompiledAuthorizations compiled) {
+        if (scope == Scope.NONE || !isCacheable(object) || !compiled.isRuntimeIndependent()) {
+            return null;
+        }
+        return new DecisionKey(null, null, object.getCompileTimeClass(), object.getOid(), object.getVersion(),
+                true, true, ownerResolverPresent);
+    }
+
+    /**
+     * Empty objects are used to ask about operations on the type in general. Other objects must not change,
+     * so that their identity and version determine their content.
+     */
+    private boolean isCacheable(@NotNull PrismObject<?> object) {
+        if (object.getOid() == null) {
+            return object.isEmpty();
+        } else {
+            return object.getVersion() != null && object.isImmutable();
+        }
+    }
+
+    @Override
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+        if (type == null
+                || SystemConfigurationType.class.equals(type)
+                || type.isAssignableFrom(FocusType.class)
+                || FocusType.class.isAssignableFrom(type)) {
+            invalidateAll();
+        }
+    }
+
+    private void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    @NotNull
+    @Override
+    public Collection<SingleCacheStateInformationType> getStateInformation() {
+        RequestScope requestScope = REQUEST_SCOPE.get();
+        return Collections.singleton(
+                new SingleCacheStateInformationType(prismContext)
+                        .name(AuthorizationDecisionCache.class.getName())
+                        .size(requestScope != null && requestScope.decisions != null ? requestScope.decisions.size() : 0));
+    }
+
+    @Override
+    public void dumpContent() {
+        if (LOGGER_CONTENT.isInfoEnabled()) {
+            LOGGER_CONTENT.info("Authorization decision cache: scope={}, generation={}", scope, generation.get());
+            RequestScope requestScope = REQUEST_SCOPE.get();
+            if (requestScope != null && requestScope.decisions != null) {
+                requestScope.decisions.entries.forEach(
+                        (k, v) -> LOGGER_CONTENT.info("Cached decision: {}: {}", k, v.value));
+            }
+        }
+    }
+
+    /**
+     * Cached decisions for a principal.
+     */
+    static class Decisions {
+        private final Map<DecisionKey, Entry> entries = new ConcurrentHashMap<>();
+
+        int size() {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long generation;
+        private final long timestamp;
+
+        private Entry(Object value, long generation, long timestamp) {
+            this.value = value;
+            this.generation = generation;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class RequestScope {
+        private int depth = 1;
+        private MidPointPrincipal principal;
+        private Decisions decisions;
+    }
+
+    /**
+     * Identifies the decision. Action is null for compiled security constraints.
+     */
+    static final class DecisionKey {
+        private final String action;
+        private final AuthorizationPhaseType phase;
+        private final Class<?> objectType;
+        private final String oid;
+        private final String version;
+        private final boolean oldObject;
+        private final boolean newObject;
+
+        /** Owner-based selectors are evaluated differently without the resolver. */
+        private final boolean ownerResolverPresent;
+
+        private DecisionKey(String action, AuthorizationPhaseType phase, Class<?> objectType, String oid, String version,
+                boolean oldObject, boolean newObject, boolean ownerResolverPresent) {
+            this.action = action;
+            this.phase = phase;
+            this.objectType = objectType;
+            this.oid = oid;
+            this.version = version;
+            this.oldObject = oldObject;
+            this.newObject = newObject;
+            this.ownerResolverPresent = ownerResolverPresent;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            DecisionKey that = (DecisionKey) o;
+            return oldObject == that.oldObject
+                    && newObject == that.newObject
+                    && ownerResolverPresent == that.ownerResolverPresent
+                    && Objects.equals(action, that.action)
+                    && phase == that.phase
+                    && Objects.equals(objectType, that.objectType)
+                    && Objects.equals(oid, that.oid)
+                    && Objects.equals(version, that.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(action, phase, objectType, oid, version);
+        }
+
+        @Override
+        public String toString() {
+            return "DecisionKey{" +
+                    "action=" + action +
+                    ", phase=" + phase +
+                    ", type=" + (objectType != null ? objectType.getSimpleName() : null) +
+                    ", oid=" + oid +
+                    ", version=" + version +
+                    (oldObject ? ", old" : "") +
+                    (newObject ? ", new" : "") +
+                    (ownerResolverPresent ? ", ownerResolver" : "") +
+                    '}';
+        }
+    }
+}
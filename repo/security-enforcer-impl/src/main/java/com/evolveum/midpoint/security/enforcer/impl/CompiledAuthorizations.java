@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationPhaseType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OwnedObjectSelectorType;
+
+/**
+ * Authorizations of a principal, bucketed by action URL(s) and phase, so the enforcer does not have to go through
+ * all the authorizations on each call. Buckets are created lazily and keep the original order of authorizations.
+ *
+ * Also holds cached access decisions for the principal (see {@link AuthorizationDecisionCache}).
+ *
+ * The instance is bound to the collection of authorizations it was compiled from; see {@link #isCompiledFrom(Collection)}.
+ */
+class CompiledAuthorizations {
+
+    @NotNull private final Collection<Authorization> authorizations;
+    private final int size;
+
+    private final Map<BucketKey, List<Authorization>> buckets = new ConcurrentHashMap<>();
+
+    /** Whether the buckets contain only runtime-independent authorizations, see {@link #isRuntimeIndependent(Authorization)}. */
+    private final Map<BucketKey, Boolean> bucketsRuntimeIndependence = new ConcurrentHashMap<>();
+
+    /** Whether all the authorizations are runtime-independent. Computed lazily. */
+    private volatile Boolean allRuntimeIndependent;
+
+    /** Decisions cached for the session or time-to-live scope. */
+    @NotNull private final AuthorizationDecisionCache.Decisions decisions = new AuthorizationDecisionCache.Decisions();
+
+    CompiledAuthorizations(@NotNull Collection<Authorization> authorizations) {
+        this.authorizations = authorizations;
+        this.size = authorizations.size();
+    }
+
+    /**
+     * The principal's authorizations are not expected to change after the principal is created;
+     * but if they do, the compiled form must not be used anymore.
+     */
+    boolean isCompiledFrom(@NotNull Collection<Authorization> current) {
+        return current == authorizations && current.size() == size;
+    }
+
+    @NotNull Collection<Authorization> getAll() {
+        return authorizations;
+    }
+
+    /** Authorizations applicable for given action, in given phase or in all phases. */
+    @NotNull List<Authorization> getApplicable(@NotNull String action, @NotNull AuthorizationPhaseType phase) {
+        return getApplicable(Collections.singletonList(action), phase, true);
+    }
+
+    /**
+     * Authorizations applicable for any of given actions (or for all actions) in given phase.
+     * Authorizations for all phases are included only if requested.
+     */
+    @NotNull List<Authorization> getApplicable(@NotNull List<String> actions, AuthorizationPhaseType phase,
+            boolean includeNullPhase) {
+        return buckets.computeIfAbsent(new BucketKey(actions, phase, includeNullPhase), this::select);
+    }
+
+    /**
+     * True if decisions about given action in given phase (or both phases, if null) do not depend
+     * on anything else than the principal and the object, so they can be cached.
+     */
+    boolean isRuntimeIndependent(@NotNull String action, AuthorizationPhaseType phase) {
+        if (phase == null) {
+            return isRuntimeIndependent(action, AuthorizationPhaseType.REQUEST)
+                    && isRuntimeIndependent(action, AuthorizationPhaseType.EXECUTION);
+        }
+        BucketKey key = new BucketKey(Collections.singletonList(action), phase, true);
+        return bucketsRuntimeIndependence.computeIfAbsent(key,
+                k -> getApplicable(action, phase).stream().allMatch(CompiledAuthorizations::isRuntimeIndependent));
+    }
+
+    /** True if none of the authorizations depends on anything else than the principal and the object. */
+    boolean isRuntimeIndependent() {
+        if (allRuntimeIndependent == null) {
+            allRuntimeIndependent = authorizations.stream().allMatch(CompiledAuthorizations::isRuntimeIndependent);
+        }
+        return allRuntimeIndependent;
+    }
+
+    /**
+     * Filters (possibly with expressions), org and role relations, owners, requesters, assignees, tenants and alike
+     * are evaluated against the repository or other runtime state, so their outcome can change even if the object
+     * and the principal do not. Type, subtype, archetype and "self" selectors depend on the object and the principal only.
+     */
+    private static boolean isRuntimeIndependent(Authorization autz) {
+        return autz.getObject().stream().allMatch(CompiledAuthorizations::isRuntimeIndependent)
+                && autz.getTarget().stream().allMatch(CompiledAuthorizations::isRuntimeIndependent);
+    }
+
+    private static boolean isRuntimeIndependent(OwnedObjectSelectorType selector) {
+        return selector.getFilter() == null
+                && selector.getOrgRef() == null
+                && selector.getOrgRelation() == null
+                && selector.getRoleRelation() == null
+                && selector.getOwner() == null
+                && selector.getDelegator() == null
+                && selector.getRequester() == null
+                && selector.getAssignee() == null
+                && selector.getRelatedObject() == null
+                && selector.getTenant() == null;
+    }
+
+    @NotNull AuthorizationDecisionCache.Decisions getDecisions() {
+        return decisions;
+    }
+
+    private List<Authorization> select(BucketKey key) {
+        List<Authorization> selected = new ArrayList<>();
+        for (Authorization autz : authorizations) {
+            if (isApplicableForActions(autz, key.actions)
+                    && (autz.getPhase() == key.phase || key.includeNullPhase && autz.getPhase() == null)) {
+                selected.add(autz);
+            }
+        }
+        return Collections.unmodifiableList(selected);
+    }
+
+    private static boolean isApplicableForActions(Authorization autz, List<String> actions) {
+        List<String> autzActions = autz.getAction();
+        if (autzActions.contains(AuthorizationConstants.AUTZ_ALL_URL)) {
+            return true;
+        }
+        for (String action : actions) {
+            if (autzActions.contains(action)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledAuthorizations{" +
+                "authorizations=" + size +
+                ", buckets=" + buckets.size() +
+                ", decisions=" + decisions.size() +
+                '}';
+    }
+
+    private static final class BucketKey {
+        @NotNull private final List<String> actions;
+        private final AuthorizationPhaseType phase;
+        private final boolean includeNullPhase;
+
+        private BucketKey(@NotNull List<String> actions, AuthorizationPhaseType phase, boolean includeNullPhase) {
+            this.actions = new ArrayList<>(actions);
+            this.phase = phase;
+            this.includeNullPhase = includeNullPhase;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BucketKey that = (BucketKey) o;
+            return includeNullPhase == that.includeNullPhase
+                    && actions.equals(that.actions)
+                    && phase == that.phase;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(actions, phase, includeNullPhase);
+        }
+    }
+}
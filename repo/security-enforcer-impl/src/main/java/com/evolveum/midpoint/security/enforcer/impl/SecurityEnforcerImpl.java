@@ -7,7 +7,9 @@
 package com.evolveum.midpoint.security.enforcer.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.function.Consumer;
@@ -91,6 +93,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
     @Autowired private ExpressionFactory expressionFactory;
     @Autowired private PrismContext prismContext;
     @Autowired private RelationRegistry relationRegistry;
+    @Autowired private AuthorizationDecisionCache decisionCache;
 
     @Autowired
     @Qualifier("securityContextManager")
@@ -108,6 +111,30 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
                                                                                              AuthorizationParameters<O,T> params, OwnerResolver ownerResolver,
                                                                                              Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
             throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
+        if (applicableAutzConsumer != null) {
+            // The consumer needs to see the applicable authorizations, so the decision cannot be taken from the cache.
+            return isAuthorizedUncached(midPointPrincipal, operationUrl, phase, params, ownerResolver, applicableAutzConsumer, task, result);
+        }
+        CompiledAuthorizations compiled = getCompiledAuthorizations(midPointPrincipal);
+        AuthorizationDecisionCache.Decisions decisions = decisionCache.getDecisions(midPointPrincipal, compiled);
+        AuthorizationDecisionCache.DecisionKey key = decisions != null ?
+                decisionCache.createDecisionKey(operationUrl, phase, params, ownerResolver != null, compiled) : null;
+        AccessDecision cached = decisionCache.get(decisions, key);
+        if (cached != null) {
+            LOGGER.trace("AUTZ: cached decision for principal={}, op={}, phase={}: {}",
+                    getUsername(midPointPrincipal), operationUrl, phase, cached);
+            return cached;
+        }
+        long generation = decisionCache.getGeneration();
+        AccessDecision decision = isAuthorizedUncached(midPointPrincipal, operationUrl, phase, params, ownerResolver, null, task, result);
+        decisionCache.put(decisions, key, decision, generation);
+        return decision;
+    }
+
+    private <O extends ObjectType, T extends ObjectType> AccessDecision isAuthorizedUncached(MidPointPrincipal midPointPrincipal, String operationUrl, AuthorizationPhaseType phase,
+            AuthorizationParameters<O,T> params, OwnerResolver ownerResolver,
+            Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
         if (phase == null) {
             AccessDecision requestPhaseDecision = isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.REQUEST, params, ownerResolver, applicableAutzConsumer, task, result);
             if (!requestPhaseDecision.equals(AccessDecision.ALLOW)) {
@@ -137,7 +164,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
                 getUsername(midPointPrincipal), operationUrl, phase, params.shortDump());
         }
         final AutzItemPaths allowedItems = new AutzItemPaths();
-        Collection<Authorization> authorities = getAuthorities(midPointPrincipal);
+        // only authorizations for this operation and phase (or for all operations and phases) are considered
+        Collection<Authorization> authorities = getCompiledAuthorizations(midPointPrincipal).getApplicable(operationUrl, phase);
         if (authorities != null) {
             for (GrantedAuthority authority: authorities) {
                 if (authority instanceof Authorization) {
@@ -1176,6 +1204,34 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         }
     }
 
+    /**
+     * Authorizations of the principal are compiled once per principal. Anonymous access (with possibly elevated
+     * privileges) has no stable principal, so the authorizations are compiled on each call.
+     */
+    private CompiledAuthorizations getCompiledAuthorizations(MidPointPrincipal principal) {
+        Collection<Authorization> authorities = getAuthorities(principal);
+        if (principal == null) {
+            return new CompiledAuthorizations(authorities);
+        }
+        Object existing = principal.getSecurityEnforcerData();
+        if (existing instanceof CompiledAuthorizations && ((CompiledAuthorizations) existing).isCompiledFrom(authorities)) {
+            return (CompiledAuthorizations) existing;
+        }
+        CompiledAuthorizations compiled = new CompiledAuthorizations(authorities);
+        principal.setSecurityEnforcerData(compiled);
+        return compiled;
+    }
+
+    @Override
+    public void enterAuthorizationDecisionCacheScope() {
+        decisionCache.enterRequestScope();
+    }
+
+    @Override
+    public void exitAuthorizationDecisionCacheScope() {
+        decisionCache.exitRequestScope();
+    }
+
     @Override
     public <O extends ObjectType> ObjectSecurityConstraints compileSecurityConstraints(PrismObject<O> object, OwnerResolver ownerResolver, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
         MidPointPrincipal principal = getMidPointPrincipal();
@@ -1185,8 +1241,22 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("AUTZ: evaluating security constraints principal={}, object={}", getUsername(principal), object);
         }
+        CompiledAuthorizations compiled = getCompiledAuthorizations(principal);
+        AuthorizationDecisionCache.Decisions decisions = decisionCache.getDecisions(principal, compiled);
+        AuthorizationDecisionCache.DecisionKey key = decisions != null ?
+                decisionCache.createConstraintsKey(object, ownerResolver != null, compiled) : null;
+        List<Authorization> cached = decisionCache.get(decisions, key);
+        if (cached != null) {
+            LOGGER.trace("AUTZ: using cached applicable authorizations for principal={}, object={}", getUsername(principal), object);
+            // the constraints are mutable, so each caller gets its own instance
+            ObjectSecurityConstraintsImpl objectSecurityConstraints = new ObjectSecurityConstraintsImpl();
+            cached.forEach(objectSecurityConstraints::applyAuthorization);
+            return objectSecurityConstraints;
+        }
+        long generation = decisionCache.getGeneration();
+        List<Authorization> applicable = new ArrayList<>();
         ObjectSecurityConstraintsImpl objectSecurityConstraints = new ObjectSecurityConstraintsImpl();
-        Collection<Authorization> authorities = getAuthorities(principal);
+        Collection<Authorization> authorities = compiled.getAll();
         if (authorities != null) {
             for (Authorization autz: authorities) {
                 String autzHumanReadableDesc = autz.getHumanReadableDesc();
@@ -1206,6 +1276,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
                 // skip target applicability evaluation. We do not have a target here
 
                 objectSecurityConstraints.applyAuthorization(autz);
+                applicable.add(autz);
             }
         }
 
@@ -1214,6 +1285,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
                     getUsername(principal), object, objectSecurityConstraints.debugDump(1));
         }
 
+        decisionCache.put(decisions, key, Collections.unmodifiableList(applicable), generation);
         return objectSecurityConstraints;
     }
 
@@ -1336,7 +1408,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
             throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException,
             ConfigurationException, SecurityViolationException {
 
-        Collection<Authorization> authorities = getAuthorities(principal);
+        Collection<Authorization> authorities = getCompiledAuthorizations(principal)
+                .getApplicable(Arrays.asList(operationUrls), phase, includeNullPhase);
 
         F securityFilterAllow = null;
         F securityFilterDeny = null;
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl;
+
+/**
+ * How are lightweight asynchronous tasks (e.g. worker threads of multi-threaded activities) executed.
+ * See {@link LightweightTaskManager}.
+ */
+public enum LightweightTaskExecutionMode {
+
+    /**
+     * Pooled platform (OS) threads. This is the default.
+     */
+    PLATFORM_THREADS("platformThreads"),
+
+    /**
+     * A new virtual thread for each lightweight task. Suitable for workers that spend most of the time
+     * blocked on I/O, e.g. connector operations or JDBC calls.
+     *
+     * Requires Java runtime supporting virtual threads (21 or later), otherwise platform threads are used.
+     */
+    VIRTUAL_THREADS("virtualThreads");
+
+    private final String value;
+
+    LightweightTaskExecutionMode(String v) {
+        value = v;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public static LightweightTaskExecutionMode fromValue(String v) {
+        for (LightweightTaskExecutionMode c : LightweightTaskExecutionMode.values()) {
+            if (c.value.equals(v)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException(v);
+    }
+}
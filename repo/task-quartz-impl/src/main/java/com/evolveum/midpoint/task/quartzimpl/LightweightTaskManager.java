@@ -14,27 +14,106 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.RunningTask;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 
 /**
  * Manages lightweight asynchronous tasks.
  *
+ * Lightweight task handlers are executed either on pooled platform threads or on virtual threads,
+ * see {@link LightweightTaskExecutionMode}.
+ *
  * TODO finish revision of this class
  */
 @Component
 public class LightweightTaskManager {
 
+    private static final Trace LOGGER = TraceManager.getTrace(LightweightTaskManager.class);
+
+    static final String VIRTUAL_THREAD_NAME_PREFIX = "midpoint-lightweight-vt-";
+
     @Autowired private LocalNodeState localNodeState;
+    @Autowired private TaskManagerConfiguration configuration;
+
+    /** Created on first use, as the configuration is not known at the time of bean construction. */
+    private volatile ExecutorService lightweightHandlersExecutor;
+
+    /** Whether the executor runs handlers on virtual threads. */
+    private volatile boolean virtualThreads;
 
-    private final ExecutorService lightweightHandlersExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger virtualThreadCounter = new AtomicInteger();
 
     Future<?> submit(Runnable r) {
-        return lightweightHandlersExecutor.submit(r);
+        ExecutorService executor = getExecutor();
+        if (virtualThreads) {
+            // Virtual threads have no name by default, but we use the name e.g. for worker task names and diagnostics.
+            String threadName = VIRTUAL_THREAD_NAME_PREFIX + virtualThreadCounter.incrementAndGet();
+            return executor.submit(() -> {
+                Thread.currentThread().setName(threadName);
+                r.run();
+            });
+        } else {
+            return executor.submit(r);
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        ExecutorService executor = lightweightHandlersExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = lightweightHandlersExecutor;
+                if (executor == null) {
+                    executor = createExecutor(configuration.getLightweightTaskExecutionMode());
+                    lightweightHandlersExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Replaces the executor by one for given mode. Handlers already submitted are finished by the old executor,
+     * which accepts no new ones.
+     */
+    @VisibleForTesting
+    public synchronized void switchExecutionMode(LightweightTaskExecutionMode mode) {
+        ExecutorService oldExecutor = lightweightHandlersExecutor;
+        lightweightHandlersExecutor = createExecutor(mode);
+        if (oldExecutor != null) {
+            oldExecutor.shutdown();
+        }
+    }
+
+    @VisibleForTesting
+    public boolean isUsingVirtualThreads() {
+        return lightweightHandlersExecutor != null && virtualThreads;
+    }
+
+    private ExecutorService createExecutor(LightweightTaskExecutionMode mode) {
+        if (mode == LightweightTaskExecutionMode.VIRTUAL_THREADS) {
+            try {
+                // We are compiled for Java 11, so the method available since Java 21 is called reflectively.
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                virtualThreads = true;
+                LOGGER.info("Lightweight tasks will be executed on virtual threads");
+                return executor;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Virtual threads are not supported by this Java runtime ({}), lightweight tasks"
+                        + " will be executed on platform threads: {}", System.getProperty("java.version"), e.toString());
+            }
+        }
+        virtualThreads = false;
+        return Executors.newCachedThreadPool();
     }
 
     public void waitForTransientChildrenAndCloseThem(RunningTask task, OperationResult result) {
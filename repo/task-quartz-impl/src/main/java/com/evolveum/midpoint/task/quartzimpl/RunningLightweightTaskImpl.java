@@ -113,7 +113,7 @@ public class RunningLightweightTaskImpl extends RunningTaskQuartzImpl implements
             } catch (Throwable t) {
                 LoggingUtils.logUnexpectedException(LOGGER, "Lightweight task handler has thrown an exception; task = {}", t, this);
             }
-            beans.cacheConfigurationManager.unsetThreadLocalProfiles();
+            releaseThreadLocalState();
             setExecutingThread(null);
             setNode(null); // execution state is changed in .closeTask() below
             lightweightHandlerExecuting = false;
@@ -130,6 +130,25 @@ public class RunningLightweightTaskImpl extends RunningTaskQuartzImpl implements
         LOGGER.debug("Lightweight task handler submitted to start; task = {}", this);
     }
 
+    /**
+     * Releases thread-local data set up for the handler. Platform threads are pooled and reused for other tasks;
+     * virtual threads are not, but there can be very many of them, so we don't want to keep anything longer than needed.
+     *
+     * Thread-local statistics are refreshed first, so they are not lost for the task.
+     */
+    private void releaseThreadLocalState() {
+        try {
+            statistics.refreshLowLevelStatistics(taskManager);
+        } catch (Throwable t) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't refresh thread-local statistics for {}", t, this);
+        }
+        if (beans.sqlPerformanceMonitorsCollection != null) {
+            beans.sqlPerformanceMonitorsCollection.stopThreadLocalPerformanceInformationCollection();
+        }
+        beans.cacheConfigurationManager.unsetThreadLocalProfiles();
+        OperationResult.setThreadLocalHandlingStrategy(null);
+    }
+
     private void setupSecurityContext(OperationResult result) {
         try {
             // Task owner is cloned because otherwise we get CMEs when recomputing the owner user during login process
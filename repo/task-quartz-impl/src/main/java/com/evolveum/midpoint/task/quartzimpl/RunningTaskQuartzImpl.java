@@ -186,7 +186,7 @@ public class RunningTaskQuartzImpl extends TaskQuartzImpl implements RunningTask
     public void refreshThreadLocalStatistics() {
         Thread taskThread = getExecutingThread();
         if (taskThread != null) {
-            if (Thread.currentThread().getId() == taskThread.getId()) {
+            if (Thread.currentThread() == taskThread) {
                 statistics.refreshLowLevelStatistics(taskManager);
             } else {
                 LOGGER.warn("Called refreshThreadLocalStatistics on wrong task. Task thread: {}, current thread: {}, task: {}",
@@ -64,6 +64,7 @@ public class TaskManagerConfiguration {
     private static final String CREATE_QUARTZ_TABLES_CONFIG_ENTRY = "createQuartzTables";
     private static final String JDBC_DRIVER_DELEGATE_CLASS_CONFIG_ENTRY = "jdbcDriverDelegateClass";
     private static final String USE_THREAD_INTERRUPT_CONFIG_ENTRY = "useThreadInterrupt";
+    private static final String LIGHTWEIGHT_TASK_EXECUTION_MODE_CONFIG_ENTRY = "lightweightTaskExecutionMode";
     @Deprecated private static final String JMX_CONNECT_TIMEOUT_CONFIG_ENTRY = "jmxConnectTimeout";
     @Deprecated private static final String QUARTZ_NODE_REGISTRATION_INTERVAL_CONFIG_ENTRY = "quartzNodeRegistrationInterval";
     private static final String QUARTZ_CLUSTER_CHECKIN_INTERVAL_CONFIG_ENTRY = "quartzClusterCheckinInterval";
@@ -103,6 +104,7 @@ public class TaskManagerConfiguration {
     private static final boolean CLUSTERED_DEFAULT = false;             // do not change this value!
     private static final boolean CREATE_QUARTZ_TABLES_DEFAULT = true;
     private static final String USE_THREAD_INTERRUPT_DEFAULT = "whenNecessary";
+    private static final String LIGHTWEIGHT_TASK_EXECUTION_MODE_DEFAULT = "platformThreads";
     private static final boolean CHECK_FOR_TASK_CONCURRENT_EXECUTION_DEFAULT = false;
     private static final int WAITING_TASKS_CHECK_INTERVAL_DEFAULT = 600;
     private static final int STALLED_TASKS_CHECK_INTERVAL_DEFAULT = 600;
@@ -187,6 +189,7 @@ public class TaskManagerConfiguration {
 
     private boolean checkForTaskConcurrentExecution;
     private UseThreadInterrupt useThreadInterrupt;
+    private LightweightTaskExecutionMode lightweightTaskExecutionMode;
     private int waitingTasksCheckInterval;
     private int stalledTasksCheckInterval;
     private int stalledTasksThreshold;
@@ -245,6 +248,7 @@ public class TaskManagerConfiguration {
             CREATE_QUARTZ_TABLES_CONFIG_ENTRY,
             JDBC_DRIVER_DELEGATE_CLASS_CONFIG_ENTRY,
             USE_THREAD_INTERRUPT_CONFIG_ENTRY,
+            LIGHTWEIGHT_TASK_EXECUTION_MODE_CONFIG_ENTRY,
             QUARTZ_CLUSTER_CHECKIN_INTERVAL_CONFIG_ENTRY,
             QUARTZ_CLUSTER_CHECKIN_GRACE_PERIOD_CONFIG_ENTRY,
             NODE_REGISTRATION_INTERVAL_CONFIG_ENTRY,
@@ -348,6 +352,13 @@ public class TaskManagerConfiguration {
             throw new TaskManagerConfigurationException("Illegal value for " + USE_THREAD_INTERRUPT_CONFIG_ENTRY + ": " + useTI, e);
         }
 
+        String executionMode = c.getString(LIGHTWEIGHT_TASK_EXECUTION_MODE_CONFIG_ENTRY, LIGHTWEIGHT_TASK_EXECUTION_MODE_DEFAULT);
+        try {
+            lightweightTaskExecutionMode = LightweightTaskExecutionMode.fromValue(executionMode);
+        } catch (IllegalArgumentException e) {
+            throw new TaskManagerConfigurationException("Illegal value for " + LIGHTWEIGHT_TASK_EXECUTION_MODE_CONFIG_ENTRY + ": " + executionMode, e);
+        }
+
         nodeRegistrationCycleTime = c.getInt(NODE_REGISTRATION_INTERVAL_CONFIG_ENTRY, NODE_REGISTRATION_CYCLE_TIME_DEFAULT);
         nodeAlivenessCheckInterval = c.getInt(NODE_ALIVENESS_CHECK_INTERVAL_CONFIG_ENTRY, NODE_ALIVENESS_CHECK_INTERVAL_DEFAULT);
         nodeAlivenessTimeout = c.getInt(NODE_ALIVENESS_TIMEOUT_CONFIG_ENTRY, NODE_ALIVENESS_TIMEOUT_DEFAULT);
@@ -592,6 +603,10 @@ public class TaskManagerConfiguration {
         return useThreadInterrupt;
     }
 
+    public LightweightTaskExecutionMode getLightweightTaskExecutionMode() {
+        return lightweightTaskExecutionMode;
+    }
+
     @SuppressWarnings("unused")
     public boolean isStopOnInitializationFailure() {
         return stopOnInitializationFailure;
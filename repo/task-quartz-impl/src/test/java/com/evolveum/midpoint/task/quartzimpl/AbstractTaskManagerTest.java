@@ -46,6 +46,7 @@ public class AbstractTaskManagerTest extends AbstractIntegrationTest {
     @Autowired protected LocalScheduler localScheduler;
     @Autowired protected PrismContext prismContext;
     @Autowired protected SchemaService schemaService;
+    @Autowired protected LightweightTaskManager lightweightTaskManager;
 
     MockTaskHandler mockTaskHandler;
     MockParallelTaskHandler mockParallelTaskHandler;
@@ -51,6 +51,7 @@ public class MockParallelTaskHandler implements TaskHandler {
     public static class MyLightweightTaskHandler implements LightweightTaskHandler {
         private boolean hasRun = false;
         private boolean hasExited = false;
+        private volatile String threadName;
         private final long duration;
         private static final long STEP = 10;
 
@@ -62,6 +63,7 @@ public class MockParallelTaskHandler implements TaskHandler {
         public void run(RunningLightweightTask task) {
             LOGGER.trace("Handler for task {} running", task);
             hasRun = true;
+            threadName = Thread.currentThread().getName();
             long end = System.currentTimeMillis() + duration;
             RunningTask parentTask = task.getLightweightTaskParent();
             parentTask.setStatisticsRepoStoreInterval(1000L);
@@ -103,6 +105,9 @@ public class MockParallelTaskHandler implements TaskHandler {
         boolean hasExited() {
             return hasExited;
         }
+        String getThreadName() {
+            return threadName;
+        }
     }
 
     private static boolean isAmongRunningChildren(RunningTask task, RunningTask parentTask) {
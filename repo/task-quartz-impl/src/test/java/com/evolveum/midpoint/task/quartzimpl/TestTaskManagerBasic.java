@@ -92,6 +92,7 @@ public class TestTaskManagerBasic extends AbstractTaskManagerTest {
     private static final TestResource<TaskType> TASK_TREE_CHILD_2 = new TestResource<>(TEST_DIR, "task-tree-child-2.xml", "91919191-76e0-59e2-86d6-556655662021");
     private static final TestResource<TaskType> TASK_RUN_ON_DEMAND = new TestResource<>(TEST_DIR, "task-run-on-demand.xml", "91919191-76e0-59e2-86d6-556655660022");
     private static final TestResource<TaskType> TASK_WITH_THREADS = new TestResource<>(TEST_DIR, "task-with-threads.xml", "91919191-76e0-59e2-86d6-556655660100");
+    private static final TestResource<TaskType> TASK_WITH_VIRTUAL_THREADS = new TestResource<>(TEST_DIR, "task-with-virtual-threads.xml", "91919191-76e0-59e2-86d6-556655660101");
     private static final TestResource<TaskType> TASK_WITH_THREADS_TO_SUSPEND = new TestResource<>(TEST_DIR, "task-with-threads-to-suspend.xml", "91919191-76e0-59e2-86d6-556655660105");
     private static final TestResource<TaskType> TASK_SEC_GROUP_LIMIT_EXP_1 = new TestResource<>(TEST_DIR, "task-sec-group-limit-exp-1.xml", "91919191-76e0-59e2-86d6-556655660108");
     private static final TestResource<TaskType> TASK_SEC_GROUP_LIMIT_EXP_1_RAM_1 = new TestResource<>(TEST_DIR, "task-sec-group-limit-exp-1-ram-1.xml", "91919191-76e0-59e2-86d6-55665566a108");
@@ -781,6 +782,49 @@ public class TestTaskManagerBasic extends AbstractTaskManagerTest {
         }
     }
 
+    /**
+     * Tests task with lightweight subtasks executed in virtual threads mode.
+     * On Java runtime without virtual threads the mode falls back to platform threads; the subtasks must run anyway.
+     */
+    @Test
+    public void test255TaskWithVirtualThreads() throws Exception {
+        given();
+
+        OperationResult result = createOperationResult();
+        lightweightTaskManager.switchExecutionMode(LightweightTaskExecutionMode.VIRTUAL_THREADS);
+        boolean virtualThreads = lightweightTaskManager.isUsingVirtualThreads();
+        display("Using virtual threads: " + virtualThreads);
+
+        try {
+            when();
+
+            add(TASK_WITH_VIRTUAL_THREADS, result);
+
+            waitUntilDone(TASK_WITH_VIRTUAL_THREADS.oid, result, 15000, 100);
+            waitForTaskClose(TASK_WITH_VIRTUAL_THREADS.oid, result, 15000, 100);
+
+            then();
+
+            Task task = getTaskWithResult(TASK_WITH_VIRTUAL_THREADS.oid, result);
+            displayDumpable("Task after", task);
+
+            Collection<? extends RunningLightweightTask> subtasks = mockParallelTaskHandler.getLastTaskExecuted().getLightweightAsynchronousSubtasks();
+            assertEquals("Wrong number of subtasks", MockParallelTaskHandler.NUM_SUBTASKS, subtasks.size());
+            for (RunningLightweightTask subtask : subtasks) {
+                assertEquals("Wrong subtask state", TaskExecutionStateType.CLOSED, subtask.getExecutionState());
+                MockParallelTaskHandler.MyLightweightTaskHandler handler = (MockParallelTaskHandler.MyLightweightTaskHandler) subtask.getLightweightTaskHandler();
+                assertTrue("Handler has not run in " + subtask, handler.hasRun());
+                assertTrue("Handler has not exited in " + subtask, handler.hasExited());
+                if (virtualThreads) {
+                    assertTrue("Handler has not run in a virtual thread: " + handler.getThreadName(),
+                            handler.getThreadName().startsWith(LightweightTaskManager.VIRTUAL_THREAD_NAME_PREFIX));
+                }
+            }
+        } finally {
+            lightweightTaskManager.switchExecutionMode(LightweightTaskExecutionMode.PLATFORM_THREADS);
+        }
+    }
+
     /**
      * A simple test for MID-6910.
      */
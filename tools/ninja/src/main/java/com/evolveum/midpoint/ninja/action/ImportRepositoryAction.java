@@ -6,23 +6,35 @@
  */
 package com.evolveum.midpoint.ninja.action;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import com.evolveum.midpoint.ninja.action.worker.ImportInputPart;
 import com.evolveum.midpoint.ninja.action.worker.ImportProducerWorker;
 import com.evolveum.midpoint.ninja.action.worker.ImportRepositoryConsumerWorker;
 import com.evolveum.midpoint.ninja.action.worker.ProgressReporterWorker;
 import com.evolveum.midpoint.ninja.impl.LogTarget;
+import com.evolveum.midpoint.ninja.impl.NinjaException;
 import com.evolveum.midpoint.ninja.opts.ImportOptions;
+import com.evolveum.midpoint.ninja.util.DeferredIndexes;
 import com.evolveum.midpoint.ninja.util.NinjaUtils;
 import com.evolveum.midpoint.ninja.util.OperationStatus;
-import com.evolveum.midpoint.prism.query.InOidFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 /**
+ * Imports objects into the repository.
+ *
+ * Input is parsed by a single producer, or - if more parse threads are requested and the input is a directory
+ * or a zip file - by more producers in parallel, each of them taking whole files (zip entries).
+ * Objects are added to the repository by consumers, optionally in batches.
+ *
  * Created by Viliam Repan (lazyman).
  */
 public class ImportRepositoryAction extends RepositoryAction<ImportOptions> {
@@ -36,39 +48,136 @@ public class ImportRepositoryAction extends RepositoryAction<ImportOptions> {
 
     @Override
     public void execute() throws Exception {
+        // the entries of the zip file are read by the producers until the end of the import
+        try (ZipFile zipFile = openZipFileForInputParts()) {
+            execute(zipFile);
+        }
+    }
+
+    private void execute(ZipFile zipFile) throws Exception {
         OperationResult result = new OperationResult(OPERATION_IMPORT);
         OperationStatus progress = new OperationStatus(context, result);
 
-        BlockingQueue<ObjectType> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY_PER_THREAD * options.getMultiThread());
+        // batches should not wait for the queue to be filled
+        int queueCapacity = QUEUE_CAPACITY_PER_THREAD * options.getMultiThread() * Math.max(options.getBatchSize(), 1);
+        BlockingQueue<ObjectType> queue = new LinkedBlockingQueue<>(queueCapacity);
 
-        // "+ 2" will be used for producer and progress reporter
-        ExecutorService executor = Executors.newFixedThreadPool(options.getMultiThread() + 2);
+        Queue<ImportInputPart> inputParts = createInputParts(zipFile);
+        int producersCount = inputParts != null ? Math.min(options.getParseThreads(), inputParts.size()) : 1;
 
-        ImportProducerWorker<ObjectType> producer;
+        ObjectFilter filter;
+        boolean stopAfterFound;
         if (options.getOid() != null) {
-            InOidFilter filter = context.getPrismContext().queryFactory().createInOid(options.getOid());
-            producer = importByFilter(filter, true, queue, progress);
+            filter = context.getPrismContext().queryFactory().createInOid(options.getOid());
+            stopAfterFound = true;
         } else {
-            ObjectFilter filter = NinjaUtils.createObjectFilter(options.getFilter(), context, ObjectType.class);
-            producer = importByFilter(filter, false, queue, progress);
+            filter = NinjaUtils.createObjectFilter(options.getFilter(), context, ObjectType.class);
+            stopAfterFound = false;
+        }
+
+        DeferredIndexes deferredIndexes = null;
+        if (options.isDeferIndexes()) {
+            if (context.getRepository().isNative()) {
+                deferredIndexes = new DeferredIndexes(context);
+                deferredIndexes.drop();
+            } else {
+                log.info("Deferred index creation is supported only for the native repository, indexes will not be dropped");
+            }
+        }
+
+        try {
+            // "+ 1" will be used for progress reporter
+            ExecutorService executor = Executors.newFixedThreadPool(options.getMultiThread() + producersCount + 1);
+
+            if (inputParts != null) {
+                log.info("Starting import of {} files using {} parse threads", inputParts.size(), producersCount);
+                progress.start();
+
+                List<ImportProducerWorker<ObjectType>> producers = new ArrayList<>();
+                for (int i = 0; i < producersCount; i++) {
+                    producers.add(new ImportProducerWorker<>(context, options, queue, progress, filter, stopAfterFound,
+                            ObjectType.class, inputParts, producers));
+                }
+                producers.forEach(executor::execute);
+            } else {
+                executor.execute(importByFilter(filter, stopAfterFound, queue, progress));
+            }
+
+            Thread.sleep(CONSUMERS_WAIT_FOR_START);
+
+            executor.execute(new ProgressReporterWorker<>(context, options, queue, progress));
+
+            List<ImportRepositoryConsumerWorker> consumers = createConsumers(queue, progress);
+            consumers.forEach(c -> executor.execute(c));
+
+            executor.shutdown();
+            boolean awaitResult = executor.awaitTermination(NinjaUtils.WAIT_FOR_EXECUTOR_FINISH, TimeUnit.DAYS);
+            if (!awaitResult) {
+                log.error("Executor did not finish before timeout");
+            }
+        } finally {
+            // indexes must be created even if the import failed, otherwise the repository is left without them
+            if (deferredIndexes != null) {
+                deferredIndexes.create();
+            }
+        }
+
+        handleResultOnFinish(progress, "Import finished");
+    }
+
+    /**
+     * Opens the input zip file if it is going to be split to parts parsed in parallel, returns null otherwise.
+     */
+    private ZipFile openZipFileForInputParts() throws IOException {
+        File input = options.getInput();
+        if (options.getParseThreads() <= 1 || input == null || input.isDirectory() || !options.isZip()) {
+            return null;
         }
 
-        executor.execute(producer);
+        if (!input.exists()) {
+            throw new NinjaException("Import file '" + input.getPath() + "' doesn't exist");
+        }
 
-        Thread.sleep(CONSUMERS_WAIT_FOR_START);
+        return new ZipFile(input);
+    }
 
-        executor.execute(new ProgressReporterWorker<>(context, options, queue, progress));
+    /**
+     * Returns the input split to parts that can be parsed in parallel,
+     * or null if the input should be processed by a single producer.
+     */
+    private Queue<ImportInputPart> createInputParts(ZipFile zipFile) {
+        File input = options.getInput();
+        if (options.getParseThreads() <= 1 || input == null) {
+            return null;
+        }
 
-        List<ImportRepositoryConsumerWorker> consumers = createConsumers(queue, progress);
-        consumers.forEach(c -> executor.execute(c));
+        List<ImportInputPart> parts = new ArrayList<>();
+        if (input.isDirectory()) {
+            File[] files = input.listFiles(f -> f.isFile() && ImportInputPart.getLanguage(f.getName()) != null);
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    parts.add(new ImportInputPart(file.getPath(), () -> new FileInputStream(file)));
+                }
+            }
+        } else if (zipFile != null) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && ImportInputPart.getLanguage(entry.getName()) != null) {
+                    parts.add(new ImportInputPart(entry.getName(), () -> zipFile.getInputStream(entry)));
+                }
+            }
+        } else {
+            // single plain file, nothing to split
+            return null;
+        }
 
-        executor.shutdown();
-        boolean awaitResult = executor.awaitTermination(NinjaUtils.WAIT_FOR_EXECUTOR_FINISH, TimeUnit.DAYS);
-        if (!awaitResult) {
-            log.error("Executor did not finish before timeout");
+        if (parts.isEmpty()) {
+            throw new NinjaException("No XML or JSON files to import found in '" + input.getPath() + "'");
         }
 
-        handleResultOnFinish(progress, "Import finished");
+        return new ConcurrentLinkedQueue<>(parts);
     }
 
     @Override
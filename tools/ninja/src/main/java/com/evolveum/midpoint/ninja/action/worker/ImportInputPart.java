@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.ninja.action.worker;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.evolveum.midpoint.prism.PrismContext;
+
+/**
+ * One independently parseable part of the import input, e.g. a file in the input directory or an entry
+ * of the input zip file. Parts are processed by {@link ImportProducerWorker}s in parallel.
+ */
+public class ImportInputPart {
+
+    /**
+     * Opens the stream with the content of the part, the caller is responsible for closing it.
+     */
+    @FunctionalInterface
+    public interface Opener {
+
+        InputStream open() throws IOException;
+    }
+
+    private final String name;
+    private final Opener opener;
+
+    public ImportInputPart(String name, Opener opener) {
+        this.name = name;
+        this.opener = opener;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public InputStream open() throws IOException {
+        return opener.open();
+    }
+
+    /**
+     * Returns the language of the part based on its name, or null if the part is not supported.
+     */
+    public static String getLanguage(String name) {
+        String lowerCaseName = StringUtils.lowerCase(name);
+        if (StringUtils.endsWith(lowerCaseName, ".xml")) {
+            return PrismContext.LANG_XML;
+        } else if (StringUtils.endsWith(lowerCaseName, ".json")) {
+            return PrismContext.LANG_JSON;
+        } else {
+            return null;
+        }
+    }
+
+    public String getLanguage() {
+        return getLanguage(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
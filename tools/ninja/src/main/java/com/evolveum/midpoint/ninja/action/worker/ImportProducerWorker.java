@@ -8,6 +8,8 @@ package com.evolveum.midpoint.ninja.action.worker;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -28,13 +30,22 @@ import com.evolveum.midpoint.ninja.util.Log;
 import com.evolveum.midpoint.ninja.util.OperationStatus;
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismParser;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
 
 /**
+ * Parses the import input and puts the objects to the queue.
+ *
+ * Either parses the whole input (file or standard input) alone, or - if created with the queue of input parts -
+ * takes the parts one by one from the queue shared with other producers, so the input is parsed in parallel.
+ * In the latter case the operation must be started by the caller.
+ *
  * Created by Viliam Repan (lazyman).
  */
 public class ImportProducerWorker<T extends Containerable>
@@ -43,6 +54,12 @@ public class ImportProducerWorker<T extends Containerable>
     private final ObjectFilter filter;
     private final boolean stopAfterFound;
 
+    /** Input parts shared by all the producers; null if the whole input is processed by this producer. */
+    private final Queue<ImportInputPart> inputParts;
+
+    /** Type of objects expected in the input parts; objects of other types are reported as errors. */
+    private final Class<T> type;
+
     public ImportProducerWorker(
             NinjaContext context, BasicImportOptions options, BlockingQueue<T> queue,
             OperationStatus operation, ObjectFilter filter, boolean stopAfterFound) {
@@ -50,10 +67,29 @@ public class ImportProducerWorker<T extends Containerable>
 
         this.filter = filter;
         this.stopAfterFound = stopAfterFound;
+        this.inputParts = null;
+        this.type = null;
+    }
+
+    public ImportProducerWorker(
+            NinjaContext context, BasicImportOptions options, BlockingQueue<T> queue,
+            OperationStatus operation, ObjectFilter filter, boolean stopAfterFound,
+            Class<T> type, Queue<ImportInputPart> inputParts, List<ImportProducerWorker<T>> producers) {
+        super(context, options, queue, operation, producers);
+
+        this.filter = filter;
+        this.stopAfterFound = stopAfterFound;
+        this.type = type;
+        this.inputParts = inputParts;
     }
 
     @Override
     public void run() {
+        if (inputParts != null) {
+            processInputParts();
+            return;
+        }
+
         Log log = context.getLog();
 
         log.info("Starting import");
@@ -83,10 +119,41 @@ public class ImportProducerWorker<T extends Containerable>
         } catch (NinjaException ex) {
             log.error(ex.getMessage(), ex);
         } finally {
-            markDone();
+            markDoneAndFinishIfLast();
+        }
+    }
+
+    private void processInputParts() {
+        Log log = context.getLog();
+
+        try {
+            ImportInputPart part;
+            while ((part = inputParts.poll()) != null && !operation.isFinished()) {
+                log.info("Processing file {}", part.getName());
+                try (InputStream input = part.open()) {
+                    if (PrismContext.LANG_XML.equals(part.getLanguage())) {
+                        processStream(input);
+                    } else {
+                        processStream(input, part.getLanguage());
+                    }
+                } catch (IOException | SchemaException ex) {
+                    log.error("Couldn't process file {}, reason: {}", ex, part.getName(), ex.getMessage());
+                } catch (NinjaException ex) {
+                    log.error(ex.getMessage(), ex);
+                }
+            }
+        } finally {
+            markDoneAndFinishIfLast();
+        }
+    }
+
+    private void markDoneAndFinishIfLast() {
+        markDone();
 
+        // more producers can finish at the same time
+        synchronized (operation) {
             if (isWorkersDone()) {
-                if (!operation.isFinished()) {
+                if (operation.isStarted()) {
                     operation.producerFinish();
                 }
             }
@@ -125,26 +192,9 @@ public class ImportProducerWorker<T extends Containerable>
             @Override
             public EventResult postMarshall(
                     T object, Element objectElement, OperationResult objectResult) {
-                try {
-                    if (filter != null) {
-                        boolean match = ObjectQuery.match(object, filter, matchingRuleRegistry);
-
-                        if (!match) {
-                            operation.incrementSkipped();
-
-                            return EventResult.skipObject("Object doesn't match filter");
-                        }
-                    }
-
-                    if (!matchSelectedType(object.getClass())) {
-                        operation.incrementSkipped();
-
-                        return EventResult.skipObject("Type doesn't match");
-                    }
-
-                    queue.put(object);
-                } catch (Exception ex) {
-                    throw new NinjaException("Couldn't import object, reason: " + ex.getMessage(), ex);
+                String skipReason = putToQueue(object, matchingRuleRegistry);
+                if (skipReason != null) {
+                    return EventResult.skipObject(skipReason);
                 }
 
                 return stopAfterFound ? EventResult.skipObject() : EventResult.cont();
@@ -167,6 +217,71 @@ public class ImportProducerWorker<T extends Containerable>
         validator.validate(new ReaderInputStream(reader, charset), result, result.getOperation());
     }
 
+    /**
+     * Processes non-XML stream using prism parser, which - unlike the legacy validator - supports other languages.
+     */
+    private void processStream(InputStream input, String language) throws IOException, SchemaException {
+        ApplicationContext appContext = context.getApplicationContext();
+        PrismContext prismContext = appContext.getBean(PrismContext.class);
+        MatchingRuleRegistry matchingRuleRegistry = appContext.getBean(MatchingRuleRegistry.class);
+
+        PrismParser.ObjectHandler handler = new PrismParser.ObjectHandler() {
+            @Override
+            public boolean handleData(PrismObject<?> object) {
+                Object objectable = object.asObjectable();
+                if (!type.isInstance(objectable)) {
+                    context.getLog().error("Couldn't import object {}, it is not of expected type {}", object, type.getSimpleName());
+                    operation.incrementError();
+                    return true;
+                }
+                String skipReason = putToQueue(type.cast(objectable), matchingRuleRegistry);
+                return skipReason != null || !stopAfterFound;
+            }
+
+            @Override
+            public boolean handleError(Throwable t) {
+                context.getLog().error("Couldn't parse object, reason: {}", t, t.getMessage());
+                operation.incrementError();
+                return true;
+            }
+        };
+
+        prismContext.parserFor(input)
+                .language(language)
+                .parseObjectsIteratively(handler);
+    }
+
+    /**
+     * Puts the object to the queue if it matches the filter and selected types.
+     *
+     * @return Reason for skipping the object or null if it was put to the queue.
+     */
+    private String putToQueue(T object, MatchingRuleRegistry matchingRuleRegistry) {
+        try {
+            if (filter != null) {
+                boolean match = ObjectQuery.match(object, filter, matchingRuleRegistry);
+
+                if (!match) {
+                    operation.incrementSkipped();
+
+                    return "Object doesn't match filter";
+                }
+            }
+
+            if (!matchSelectedType(object.getClass())) {
+                operation.incrementSkipped();
+
+                return "Type doesn't match";
+            }
+
+            queue.put(object);
+        } catch (Exception ex) {
+            throw new NinjaException("Couldn't import object, reason: " + ex.getMessage(), ex);
+        }
+
+        return null;
+    }
+
     private boolean matchSelectedType(Class<?> clazz) {
         if (options.getType().isEmpty()) {
             return true;
@@ -6,6 +6,7 @@
  */
 package com.evolveum.midpoint.ninja.action.worker;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -19,11 +20,15 @@ import com.evolveum.midpoint.ninja.util.OperationStatus;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.crypto.Protector;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
+import com.evolveum.midpoint.repo.api.RepoBulkItemResult;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 /**
+ * Adds objects from the queue to the repository, either one by one or - if batch size is greater than one -
+ * in batches using {@link RepositoryService#addObjects}.
+ *
  * Created by Viliam Repan (lazyman).
  */
 public class ImportRepositoryConsumerWorker extends BaseWorker<ImportOptions, ObjectType> {
@@ -39,6 +44,11 @@ public class ImportRepositoryConsumerWorker extends BaseWorker<ImportOptions, Ob
         ApplicationContext ctx = context.getApplicationContext();
         Protector protector = ctx.getBean(Protector.class);
 
+        if (options.getBatchSize() > 1) {
+            runBatched(protector);
+            return;
+        }
+
         try {
             while (!shouldConsumerStop()) {
                 ObjectType object = null;
@@ -56,7 +66,9 @@ public class ImportRepositoryConsumerWorker extends BaseWorker<ImportOptions, Ob
                     }
 
                     RepositoryService repository = context.getRepository();
+                    long start = System.nanoTime();
                     repository.addObject(prismObject, opts, new OperationResult("Import object"));
+                    operation.recordLatency(System.nanoTime() - start);
 
                     operation.incrementTotal();
                 } catch (Exception ex) {
@@ -73,6 +85,82 @@ public class ImportRepositoryConsumerWorker extends BaseWorker<ImportOptions, Ob
         }
     }
 
+    private void runBatched(Protector protector) {
+        int batchSize = options.getBatchSize();
+        RepoAddOptions opts = createRepoAddOptions(options);
+        RepositoryService repository = context.getRepository();
+
+        List<ObjectType> batch = new ArrayList<>(batchSize);
+        try {
+            while (!shouldConsumerStop()) {
+                try {
+                    ObjectType first = queue.poll(CONSUMER_POLL_TIMEOUT, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+
+                    addBatch(batch, opts, protector, repository);
+                } catch (InterruptedException ex) {
+                    context.getLog().error("Interrupted while waiting for objects to import");
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            markDone();
+
+            if (isWorkersDone()) {
+                operation.finish();
+            }
+        }
+    }
+
+    private void addBatch(List<ObjectType> batch, RepoAddOptions opts, Protector protector, RepositoryService repository) {
+        List<PrismObject<? extends ObjectType>> prismObjects = new ArrayList<>(batch.size());
+        for (ObjectType object : batch) {
+            PrismObject<? extends ObjectType> prismObject = object.asPrismObject();
+            try {
+                if (!opts.isAllowUnencryptedValues()) {
+                    CryptoUtil.encryptValues(protector, prismObject);
+                }
+                prismObjects.add(prismObject);
+            } catch (Exception ex) {
+                context.getLog().error("Couldn't add object {}, reason: {}", ex, object, ex.getMessage());
+                operation.incrementError();
+            }
+        }
+        if (prismObjects.isEmpty()) {
+            return;
+        }
+
+        List<RepoBulkItemResult<String>> results;
+        try {
+            long start = System.nanoTime();
+            results = repository.addObjects(prismObjects, opts, new OperationResult("Import objects"));
+            operation.recordLatency(System.nanoTime() - start);
+        } catch (Exception ex) {
+            context.getLog().error("Couldn't add batch of {} objects, reason: {}", ex, prismObjects.size(), ex.getMessage());
+            prismObjects.forEach(o -> operation.incrementError());
+            return;
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            RepoBulkItemResult<String> result = results.get(i);
+            if (result.isSuccess()) {
+                operation.incrementTotal();
+            } else {
+                Throwable ex = result.getException();
+                context.getLog().error("Couldn't add object {}, reason: {}",
+                        ex, prismObjects.get(i), ex != null ? ex.getMessage() : null);
+                operation.incrementError();
+            }
+        }
+    }
+
     private RepoAddOptions createRepoAddOptions(ImportOptions options) {
         RepoAddOptions opts = new RepoAddOptions();
         opts.setOverwrite(options.isOverwrite());
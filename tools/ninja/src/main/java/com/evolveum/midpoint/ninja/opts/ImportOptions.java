@@ -26,6 +26,13 @@ public class ImportOptions extends BaseImportExportOptions implements BasicImpor
     public static final String P_ALLOW_UNENCRYPTED_VALUES = "-e";
     public static final String P_ALLOW_UNENCRYPTED_VALUES_LONG = "--allowUnencryptedValues";
 
+    public static final String P_BATCH_SIZE = "-b";
+    public static final String P_BATCH_SIZE_LONG = "--batch-size";
+
+    public static final String P_PARSE_THREADS_LONG = "--parse-threads";
+
+    public static final String P_DEFER_INDEXES_LONG = "--defer-indexes";
+
     @Parameter(names = { P_INPUT, P_INPUT_LONG }, descriptionKey = "import.input")
     private File input;
 
@@ -36,6 +43,15 @@ public class ImportOptions extends BaseImportExportOptions implements BasicImpor
             descriptionKey = "import.allowUnencryptedValues")
     private boolean allowUnencryptedValues;
 
+    @Parameter(names = { P_BATCH_SIZE, P_BATCH_SIZE_LONG }, descriptionKey = "import.batchSize")
+    private int batchSize = 1;
+
+    @Parameter(names = { P_PARSE_THREADS_LONG }, descriptionKey = "import.parseThreads")
+    private int parseThreads = 1;
+
+    @Parameter(names = { P_DEFER_INDEXES_LONG }, descriptionKey = "import.deferIndexes")
+    private boolean deferIndexes;
+
     @Override
     public File getInput() {
         return input;
@@ -49,4 +65,16 @@ public class ImportOptions extends BaseImportExportOptions implements BasicImpor
     public boolean isAllowUnencryptedValues() {
         return allowUnencryptedValues;
     }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public boolean isDeferIndexes() {
+        return deferIndexes;
+    }
 }
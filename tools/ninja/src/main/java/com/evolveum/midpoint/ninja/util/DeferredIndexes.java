@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.ninja.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.ninja.impl.NinjaContext;
+import com.evolveum.midpoint.ninja.impl.NinjaException;
+
+/**
+ * Drops secondary indexes of the native repository tables before a mass import and creates them again after it.
+ * Only non-unique indexes that do not back any constraint are dropped, so the import still fails on duplicates.
+ * This includes the indexes of the reference tables, the rows of the reference tables themselves are still
+ * inserted with the objects, as they are part of the stored object.
+ *
+ * Index definitions are written to a file in midPoint home (or in the temporary directory, if midPoint home
+ * is not known) before the indexes are dropped, so they can be created manually if the import is killed.
+ */
+public class DeferredIndexes {
+
+    private static final String SELECT_INDEXES = "SELECT i.schemaname, i.indexname, i.indexdef"
+            + " FROM pg_indexes i"
+            + " WHERE i.schemaname = current_schema()"
+            + " AND i.tablename LIKE 'm\\_%'"
+            + " AND i.indexdef NOT LIKE 'CREATE UNIQUE INDEX%'"
+            + " AND NOT EXISTS (SELECT 1 FROM pg_constraint c"
+            + "   JOIN pg_namespace n ON n.oid = c.connamespace"
+            + "   WHERE c.conname = i.indexname AND n.nspname = i.schemaname)";
+
+    private final NinjaContext context;
+    private final DataSource dataSource;
+    private final List<String> definitions = new ArrayList<>();
+
+    public DeferredIndexes(NinjaContext context) {
+        this.context = context;
+        this.dataSource = context.getApplicationContext().getBean(DataSource.class);
+    }
+
+    /**
+     * Drops the secondary indexes, returns the number of dropped indexes.
+     */
+    public int drop() {
+        Log log = context.getLog();
+        List<String> names = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            try (ResultSet rs = statement.executeQuery(SELECT_INDEXES)) {
+                while (rs.next()) {
+                    names.add(quote(rs.getString(1)) + "." + quote(rs.getString(2)));
+                    definitions.add(rs.getString(3));
+                }
+            }
+
+            File file = writeDefinitions();
+            log.info("Dropping {} indexes before import, definitions were saved to {}", names.size(), file.getPath());
+
+            connection.setAutoCommit(false);
+            for (String name : names) {
+                statement.execute("DROP INDEX " + name);
+            }
+            connection.commit();
+        } catch (SQLException | IOException ex) {
+            throw new NinjaException("Couldn't drop indexes before import, reason: " + ex.getMessage(), ex);
+        }
+        return names.size();
+    }
+
+    /**
+     * Creates again the indexes dropped by {@link #drop()}.
+     */
+    public void create() {
+        Log log = context.getLog();
+        log.info("Creating {} indexes dropped before import", definitions.size());
+
+        long start = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(true);
+            for (String definition : definitions) {
+                log.debug("Creating index: {}", definition);
+                statement.execute(definition);
+            }
+        } catch (SQLException ex) {
+            throw new NinjaException("Couldn't create indexes after import, reason: " + ex.getMessage()
+                    + ". Missing indexes can be created using the saved definitions.", ex);
+        }
+
+        log.info("Indexes created in {}s", NinjaUtils.DECIMAL_FORMAT.format((System.currentTimeMillis() - start) / 1000d));
+    }
+
+    private File writeDefinitions() throws IOException {
+        String midpointHome = System.getProperty(MidpointConfiguration.MIDPOINT_HOME_PROPERTY);
+        File dir = midpointHome != null ? new File(midpointHome) : new File(System.getProperty("java.io.tmpdir"));
+        File file = new File(dir, "ninja-deferred-indexes-" + System.currentTimeMillis() + ".sql");
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            for (String definition : definitions) {
+                writer.println(definition + ";");
+            }
+        }
+        return file;
+    }
+
+    private String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+}
@@ -121,7 +121,7 @@ public class Log {
         error(message, null, args);
     }
 
-    public void error(String message, Exception ex, Object... args) {
+    public void error(String message, Throwable ex, Object... args) {
         error.error(message, args);
 
         if (opts.isVerbose()) {
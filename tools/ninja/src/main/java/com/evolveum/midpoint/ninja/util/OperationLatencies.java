@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.ninja.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of operation latencies with millisecond precision, used to report latency percentiles.
+ * Memory use is constant, regardless of the number of recorded operations.
+ * Latencies over {@link #MAX_TRACKED_MILLIS} are counted as that value (but the maximum is kept exactly).
+ */
+public class OperationLatencies {
+
+    private static final int MAX_TRACKED_MILLIS = 60_000;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(MAX_TRACKED_MILLIS + 1);
+    private final AtomicLongArray countAndMax = new AtomicLongArray(2);
+
+    public void record(long durationNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        buckets.incrementAndGet((int) Math.min(millis, MAX_TRACKED_MILLIS));
+        countAndMax.incrementAndGet(0);
+        countAndMax.accumulateAndGet(1, millis, Math::max);
+    }
+
+    public long getCount() {
+        return countAndMax.get(0);
+    }
+
+    public long getMaxMillis() {
+        return countAndMax.get(1);
+    }
+
+    /**
+     * Returns the latency (in milliseconds) under which the given fraction (0-1) of operations finished.
+     */
+    public long getPercentileMillis(double fraction) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int millis = 0; millis <= MAX_TRACKED_MILLIS; millis++) {
+            seen += buckets.get(millis);
+            if (seen >= threshold) {
+                return millis;
+            }
+        }
+        return MAX_TRACKED_MILLIS;
+    }
+
+    public String print() {
+        return "latency p50: " + getPercentileMillis(0.5)
+                + "ms, p90: " + getPercentileMillis(0.9)
+                + "ms, p99: " + getPercentileMillis(0.99)
+                + "ms, max: " + getMaxMillis()
+                + "ms";
+    }
+}
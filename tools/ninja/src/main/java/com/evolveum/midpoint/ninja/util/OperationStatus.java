@@ -37,6 +37,8 @@ public class OperationStatus {
 
     private final OperationResult result;
 
+    private final OperationLatencies latencies = new OperationLatencies();
+
     public OperationStatus(NinjaContext context, OperationResult result) {
         this.context = context;
         this.result = result;
@@ -120,6 +122,17 @@ public class OperationStatus {
         skippedCount.incrementAndGet();
     }
 
+    /**
+     * Records the duration of a single repository call (e.g. add of one object or of a batch of objects).
+     */
+    public void recordLatency(long durationNanos) {
+        latencies.record(durationNanos);
+    }
+
+    public OperationLatencies getLatencies() {
+        return latencies;
+    }
+
     public double getTotalTime() {
         return (finishTime - startTime) / 1000d;
     }
@@ -145,7 +158,8 @@ public class OperationStatus {
                 + skippedCount.get()
                 + ", avg processed: "
                 + NinjaUtils.DECIMAL_FORMAT.format(getAvgRequestPerSecond())
-                + "obj/s";
+                + "obj/s"
+                + (latencies.getCount() > 0 ? ", " + latencies.print() : "");
     }
 
     public void print(Log log) {
@@ -127,6 +127,33 @@ public class ImportRepositoryTest extends BaseTest {
         AssertJUnit.assertTrue(getSystemErr().isEmpty());
     }
 
+    @Test
+    public void test125ImportInBatchesUsingParseThreads() throws Exception {
+        String[] input = new String[]{"-m", getMidpointHome(), "import", "--parse-threads", "2", "-b", "5",
+                "-i", RESOURCES_FOLDER + "/org-monkey-island-simple.xml.zip", "-z"};
+
+        executeTest(null,
+                context -> {
+                    RepositoryService repo = context.getRepository();
+
+                    OperationResult result = new OperationResult("count objects");
+                    int count = repo.countObjects(ObjectType.class, null, null, result);
+
+                    AssertJUnit.assertEquals(0, count);
+                },
+                context -> {
+                    RepositoryService repo = context.getRepository();
+
+                    OperationResult result = new OperationResult("count objects");
+                    int count = repo.countObjects(ObjectType.class, null, null, result);
+
+                    AssertJUnit.assertEquals(9, count);
+                },
+                true, true, input);
+
+        AssertJUnit.assertTrue(getSystemErr().isEmpty());
+    }
+
     @Test
     public void test130ImportRaw() throws Exception {
         // todo implement